@@ -46,7 +46,9 @@ import java.util.stream.Stream;
  * A simple directory based cache for caching of persistent items like avatars or entity capabilities.
  *
  * @author Christian Schudt
+ * @deprecated Use {@link PersistentCache}, which keeps an in-memory index and limits the size of the cache.
  */
+@Deprecated
 public final class DirectoryCache implements Map<String, byte[]> {
 
     private final Path cacheDirectory;
@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * A memory-mapped, append-only file, which stores many small cache entries in one file.
+ *
+ * <p>Each record consists of the length of the key, the UTF-8 encoded key, the length of the value and the value. A
+ * removed entry is recorded as a record with a value length of -1. The mapped region is larger than the written
+ * records and zero-filled, a key length of 0 marks the end of the records.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see PersistentCache
+ */
+final class PackFile {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static final int TOMBSTONE = -1;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * The position after the last record.
+     */
+    private int end;
+
+    PackFile(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(INITIAL_CAPACITY, Math.min(channel.size(), Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Reads all records and reports the offset and length of each entry's latest value. Removed entries are reported
+     * with an offset of -1.
+     *
+     * <p>If a corrupt record is found, e.g. because the process crashed while appending, this and all following
+     * records are discarded.</p>
+     *
+     * @param entries The map, which receives the key and an array with the offset and length of the value.
+     */
+    void load(Map<String, int[]> entries) {
+        int position = 0;
+        while (position + Integer.BYTES <= buffer.capacity()) {
+            int keyLength = buffer.getInt(position);
+            if (keyLength <= 0 || position + 2 * Integer.BYTES + (long) keyLength > buffer.capacity()) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            get(position + Integer.BYTES, key);
+            int valueLength = buffer.getInt(position + Integer.BYTES + keyLength);
+            int valueOffset = position + 2 * Integer.BYTES + keyLength;
+            if (valueLength < TOMBSTONE || (long) valueOffset + Math.max(valueLength, 0) > buffer.capacity()) {
+                break;
+            }
+            entries.put(new String(key, StandardCharsets.UTF_8),
+                    valueLength == TOMBSTONE ? new int[]{-1, 0} : new int[]{valueOffset, valueLength});
+            position = valueOffset + Math.max(valueLength, 0);
+        }
+        end = position;
+        // Zero out any garbage after the last valid record.
+        zero(end, buffer.capacity());
+    }
+
+    /**
+     * Gets the number of bytes of all records.
+     *
+     * @return The number of bytes.
+     */
+    int size() {
+        return end;
+    }
+
+    /**
+     * Appends a value.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The offset of the value.
+     * @throws IOException If the file could not be extended.
+     */
+    int append(String key, byte[] value) throws IOException {
+        return write(key.getBytes(StandardCharsets.UTF_8), value);
+    }
+
+    /**
+     * Appends a record, which marks the entry as removed.
+     *
+     * @param key The key.
+     * @throws IOException If the file could not be extended.
+     */
+    void remove(String key) throws IOException {
+        write(key.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param offset The offset of the value.
+     * @param length The length of the value.
+     * @return The value.
+     */
+    byte[] read(int offset, int length) {
+        byte[] value = new byte[length];
+        get(offset, value);
+        return value;
+    }
+
+    /**
+     * Compares a stored value with the given value without copying it.
+     *
+     * @param offset The offset of the stored value.
+     * @param value  The value.
+     * @return True, if the values are equal.
+     */
+    boolean contentEquals(int offset, byte[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(offset + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the file with only the given entries, in the given order.
+     *
+     * @param entries The keys and values.
+     * @return The new offsets of the values, in the iteration order of the entries.
+     * @throws IOException If the file could not be written.
+     */
+    int[] compact(Map<String, byte[]> entries) throws IOException {
+        int previousEnd = end;
+        end = 0;
+        int[] offsets = new int[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            offsets[i++] = append(entry.getKey(), entry.getValue());
+        }
+        zero(end, previousEnd);
+        buffer.force();
+        return offsets;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        zero(0, end);
+        end = 0;
+        buffer.force();
+    }
+
+    /**
+     * Flushes the mapped region to the file and closes it.
+     *
+     * @throws IOException If the file could not be closed.
+     */
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int write(byte[] key, byte[] value) throws IOException {
+        long required = (long) end + 2 * Integer.BYTES + key.length + (value != null ? value.length : 0);
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Pack file is full.");
+            }
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.min(Math.max(required, 2L * buffer.capacity()), Integer.MAX_VALUE));
+        }
+        // Write the key length last, so that an incomplete record is never read.
+        int position = end;
+        put(position + Integer.BYTES, key, key.length);
+        buffer.putInt(position + Integer.BYTES + key.length, value != null ? value.length : TOMBSTONE);
+        int valueOffset = position + 2 * Integer.BYTES + key.length;
+        if (value != null) {
+            put(valueOffset, value, value.length);
+        }
+        buffer.putInt(position, key.length);
+        end = valueOffset + (value != null ? value.length : 0);
+        return valueOffset;
+    }
+
+    private void zero(int from, int to) {
+        if (from < to) {
+            byte[] zeros = new byte[Math.min(to - from, 8192)];
+            for (int position = from; position < to; position += zeros.length) {
+                put(position, zeros, Math.min(zeros.length, to - position));
+            }
+        }
+    }
+
+    private void get(int position, byte[] destination) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(destination);
+    }
+
+    private void put(int position, byte[] source, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.put(source, 0, length);
+    }
+}
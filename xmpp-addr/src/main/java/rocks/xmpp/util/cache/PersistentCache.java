@@ -0,0 +1,568 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A size-bounded, directory based cache for caching of persistent items like avatars or entity capabilities.
+ *
+ * <p>In contrast to {@link DirectoryCache}, this cache keeps an in-memory index of all entries, which is loaded once,
+ * when the cache is opened. Therefore queries like {@link #size()} or {@link #containsKey(Object)} don't access the
+ * file system and {@link #put(String, byte[])} doesn't need to read existing files in order to detect unchanged
+ * values, because the index knows the size and the content digest of each entry.</p>
+ *
+ * <p>Entries are stored in sharded subdirectories (by the hash code of the key), so that a single directory doesn't
+ * contain too many files. Files are written to a temporary file first, which is then atomically renamed, so that
+ * readers never see partially written entries. If the total size of all entries exceeds the configured maximum, the
+ * least-recently-used entries are evicted.</p>
+ *
+ * <p>Optionally, entries smaller than a threshold are stored in a single memory-mapped pack file instead of in
+ * individual files, which is more efficient for many small entries like entity capabilities. Overwritten and removed
+ * entries remain in the pack file as garbage until it is compacted. The garbage counts towards the maximal size, i.e.
+ * the pack file is compacted as soon as live entries and garbage together exceed it, so that the files on disk don't
+ * exceed the maximal size by more than a sixteenth (at most 64 KiB) of it.</p>
+ *
+ * <p>Instances are shared per directory within the JVM, use {@link #open(Path, long, int)} to get an instance. The
+ * index is not shared with other processes, which use the same directory.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class PersistentCache implements Map<String, byte[]> {
+
+    private static final System.Logger logger = System.getLogger(PersistentCache.class.getName());
+
+    private static final Map<Path, PersistentCache> CACHES = new ConcurrentHashMap<>();
+
+    private static final String PACK_FILE = "cache.pack";
+
+    private static final String TEMP_DIRECTORY = ".tmp";
+
+    /**
+     * The minimal number of garbage bytes in the pack file, before it is compacted.
+     */
+    private static final int COMPACTION_THRESHOLD = 64 * 1024;
+
+    private final Path cacheDirectory;
+
+    private final long maxBytes;
+
+    private final int packThreshold;
+
+    /**
+     * The index in access order, i.e. the first entry is the least-recently-used. Guarded by "this".
+     */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Guarded by "this".
+     */
+    private long totalBytes;
+
+    /**
+     * The number of bytes in the pack file, which belong to overwritten or removed entries. Guarded by "this".
+     */
+    private long garbageBytes;
+
+    /**
+     * Guarded by "this".
+     */
+    private PackFile packFile;
+
+    /**
+     * Guarded by "this".
+     */
+    private boolean loaded;
+
+    PersistentCache(Path cacheDirectory, long maxBytes, int packThreshold) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive.");
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.maxBytes = maxBytes;
+        this.packThreshold = Math.max(packThreshold, 0);
+    }
+
+    /**
+     * Opens a persistent cache. If the directory has already been opened in this JVM, the existing instance is
+     * returned (with its initial configuration).
+     *
+     * @param cacheDirectory The cache directory.
+     * @param maxBytes       The maximal number of bytes of all values.
+     * @param packThreshold  Values smaller than this number of bytes are stored in a pack file; 0 disables the pack
+     *                       file.
+     * @return The cache.
+     */
+    public static PersistentCache open(Path cacheDirectory, long maxBytes, int packThreshold) {
+        return CACHES.computeIfAbsent(cacheDirectory.toAbsolutePath().normalize(),
+                path -> new PersistentCache(path, maxBytes, packThreshold));
+    }
+
+    /**
+     * Gets the maximal number of bytes of all values.
+     *
+     * @return The maximal number of bytes.
+     */
+    public final long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the total number of bytes of all values.
+     *
+     * @return The total number of bytes.
+     */
+    public final synchronized long getTotalBytes() {
+        load();
+        return totalBytes;
+    }
+
+    @Override
+    public final synchronized int size() {
+        load();
+        return index.size();
+    }
+
+    @Override
+    public final synchronized boolean isEmpty() {
+        load();
+        return index.isEmpty();
+    }
+
+    @Override
+    public final synchronized boolean containsKey(Object key) {
+        load();
+        return index.containsKey(key);
+    }
+
+    @Override
+    public final boolean containsValue(Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final byte[] get(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        final Entry entry;
+        synchronized (this) {
+            load();
+            // Also updates the access order.
+            entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.offset >= 0) {
+                return packFile.read(entry.offset, entry.size);
+            }
+        }
+        // Read outside the lock, the file is replaced atomically.
+        try {
+            return Files.readAllBytes(file(key.toString()));
+        } catch (NoSuchFileException e) {
+            // Removed concurrently.
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Puts a value into the cache. If the value is equal to the cached value, the file system isn't accessed.
+     *
+     * @param key   The key, which is used as file name.
+     * @param value The value.
+     * @return The previous value or null, if there was none.
+     */
+    @Override
+    public final byte[] put(String key, byte[] value) {
+        if (key == null || key.isEmpty() || key.indexOf('/') > -1 || key.indexOf(File.separatorChar) > -1) {
+            throw new IllegalArgumentException("Invalid key: " + key);
+        }
+        Objects.requireNonNull(value);
+        final byte[] digest = digest(value);
+        final boolean packed = value.length < packThreshold;
+        synchronized (this) {
+            load();
+            Entry existing = index.get(key);
+            if (existing != null && existing.size == value.length && isUnchanged(key, existing, value, digest)) {
+                // Nothing to do, the access order has been updated.
+                return value;
+            }
+        }
+        try {
+            Path temp = null;
+            if (!packed) {
+                // Write the file outside the lock.
+                Path tempDirectory = cacheDirectory.resolve(TEMP_DIRECTORY);
+                Files.createDirectories(tempDirectory);
+                temp = Files.createTempFile(tempDirectory, null, null);
+                Files.write(temp, value);
+            }
+            synchronized (this) {
+                // Read the previous value, before its file or pack file record is replaced.
+                final byte[] previousValue = index.containsKey(key) ? get(key) : null;
+                Entry previous = index.remove(key);
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                    if (previous.offset >= 0) {
+                        garbageBytes += previous.size;
+                        if (!packed) {
+                            packFile.remove(key);
+                        }
+                    } else if (packed) {
+                        Files.deleteIfExists(file(key));
+                    }
+                }
+                final Entry entry;
+                if (packed) {
+                    entry = new Entry(value.length, packFile().append(key, value), digest);
+                } else {
+                    // Atomically replaces an existing file, so that concurrent readers either see the old or the new
+                    // value.
+                    Path file = file(key);
+                    Files.createDirectories(file.getParent());
+                    move(temp, file);
+                    entry = new Entry(value.length, -1, digest);
+                }
+                index.put(key, entry);
+                totalBytes += value.length;
+                evict(key);
+                compactIfNeeded();
+                return previousValue;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public final synchronized byte[] remove(Object key) {
+        load();
+        if (key == null || !index.containsKey(key)) {
+            return null;
+        }
+        byte[] data = get(key);
+        try {
+            removeEntry(key.toString());
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data;
+    }
+
+    @Override
+    public final void putAll(Map<? extends String, ? extends byte[]> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public final synchronized void clear() {
+        load();
+        try {
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                if (entry.getValue().offset < 0) {
+                    Files.deleteIfExists(file(entry.getKey()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            index.clear();
+            totalBytes = 0;
+            garbageBytes = 0;
+            if (packFile != null) {
+                packFile.clear();
+            }
+        }
+    }
+
+    @Override
+    public final synchronized Set<String> keySet() {
+        load();
+        return Collections.unmodifiableSet(new LinkedHashSet<>(index.keySet()));
+    }
+
+    @Override
+    public final Collection<byte[]> values() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final Set<Map.Entry<String, byte[]>> entrySet() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final void forEach(final BiConsumer<? super String, ? super byte[]> action) {
+        for (String key : keySet()) {
+            byte[] value = get(key);
+            if (value != null) {
+                action.accept(key, value);
+            }
+        }
+    }
+
+    /**
+     * Loads the index, if it has not yet been loaded. Leftovers of interrupted writes are deleted and files of the
+     * former flat directory layout (of {@link DirectoryCache}) are moved into their shard.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (Files.notExists(cacheDirectory)) {
+            return;
+        }
+        try {
+            List<Map.Entry<String, BasicFileAttributes>> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (name.equals(TEMP_DIRECTORY)) {
+                        deleteDirectory(path);
+                    } else if (attributes.isDirectory()) {
+                        try (DirectoryStream<Path> shard = Files.newDirectoryStream(path)) {
+                            for (Path file : shard) {
+                                files.add(new AbstractMap.SimpleImmutableEntry<>(file.getFileName().toString(),
+                                        Files.readAttributes(file, BasicFileAttributes.class)));
+                            }
+                        }
+                    } else if (!name.equals(PACK_FILE)) {
+                        // Migrate the flat layout.
+                        Path file = file(name);
+                        Files.createDirectories(file.getParent());
+                        move(path, file);
+                        files.add(new AbstractMap.SimpleImmutableEntry<>(name, attributes));
+                    }
+                }
+            }
+            // Restore an approximate LRU order from the modification times.
+            files.sort(Comparator.comparing(e -> e.getValue().lastModifiedTime()));
+            for (Map.Entry<String, BasicFileAttributes> file : files) {
+                long size = file.getValue().size();
+                if (size <= Integer.MAX_VALUE) {
+                    index.put(file.getKey(), new Entry((int) size, -1, null));
+                    totalBytes += size;
+                }
+            }
+            if (packThreshold > 0 || Files.exists(cacheDirectory.resolve(PACK_FILE))) {
+                Map<String, int[]> packed = new LinkedHashMap<>();
+                packFile().load(packed);
+                long liveBytes = 0;
+                for (Map.Entry<String, int[]> record : packed.entrySet()) {
+                    int[] location = record.getValue();
+                    if (location[0] >= 0) {
+                        if (index.containsKey(record.getKey())) {
+                            // The entry has been moved to its own file.
+                            packFile.remove(record.getKey());
+                        } else {
+                            index.put(record.getKey(), new Entry(location[1], location[0], null));
+                            totalBytes += location[1];
+                            liveBytes += location[1];
+                        }
+                    }
+                }
+                // Treat record headers as garbage, too.
+                garbageBytes = packFile.size() - liveBytes;
+            }
+            evict(null);
+        } catch (IOException e) {
+            logger.log(System.Logger.Level.WARNING, "Could not load cache index: " + cacheDirectory, e);
+        }
+    }
+
+    private boolean isUnchanged(String key, Entry entry, byte[] value, byte[] digest) {
+        if (entry.offset >= 0) {
+            return packFile.contentEquals(entry.offset, value);
+        }
+        if (entry.digest == null) {
+            // The entry has been loaded from disk, compare it once.
+            try {
+                entry.digest = digest(Files.readAllBytes(file(key)));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return Arrays.equals(entry.digest, digest);
+    }
+
+    /**
+     * Removes an entry from the index and from the disk.
+     *
+     * @param key The key.
+     */
+    private void removeEntry(String key) throws IOException {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            if (entry.offset >= 0) {
+                garbageBytes += entry.size;
+                packFile.remove(key);
+            } else {
+                Files.deleteIfExists(file(key));
+            }
+        }
+    }
+
+    /**
+     * Evicts the least-recently-used entries, until the total size is below the maximum.
+     *
+     * @param retain The key, which must not be evicted.
+     */
+    private void evict(String retain) throws IOException {
+        Iterator<String> iterator = new ArrayList<>(index.keySet()).iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            String key = iterator.next();
+            if (!key.equals(retain)) {
+                removeEntry(key);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the pack file, if it contains more garbage than live entries or if the garbage exceeds the maximal size.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (packFile == null || garbageBytes < Math.min(COMPACTION_THRESHOLD, maxBytes / 16 + 1)) {
+            return;
+        }
+        Map<String, byte[]> live = new LinkedHashMap<>();
+        Map<String, Entry> updated = new HashMap<>();
+        long liveBytes = 0;
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.offset >= 0) {
+                live.put(entry.getKey(), packFile.read(value.offset, value.size));
+                updated.put(entry.getKey(), value);
+                liveBytes += value.size;
+            }
+        }
+        if (garbageBytes <= liveBytes && totalBytes + garbageBytes <= maxBytes) {
+            return;
+        }
+        // Write the entries in LRU order, so that the order is restored on the next start.
+        int[] offsets = packFile.compact(live);
+        int i = 0;
+        for (String key : live.keySet()) {
+            Entry old = updated.get(key);
+            updated.put(key, new Entry(old.size, offsets[i++], old.digest));
+        }
+        // Replace the values without changing the access order.
+        index.replaceAll((key, entry) -> updated.getOrDefault(key, entry));
+        garbageBytes = 0;
+    }
+
+    private PackFile packFile() throws IOException {
+        if (packFile == null) {
+            Files.createDirectories(cacheDirectory);
+            packFile = new PackFile(cacheDirectory.resolve(PACK_FILE));
+        }
+        return packFile;
+    }
+
+    private Path file(String key) {
+        return cacheDirectory.resolve(String.format("%02x", key.hashCode() & 0xFF)).resolve(key);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private static byte[] digest(byte[] value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final int size;
+
+        /**
+         * The offset in the pack file or -1 if the entry is stored in its own file.
+         */
+        private final int offset;
+
+        /**
+         * The content digest, which is null, if it is not yet known.
+         */
+        private byte[] digest;
+
+        private Entry(int size, int offset, byte[] digest) {
+            this.size = size;
+            this.offset = offset;
+            this.digest = digest;
+        }
+    }
+}
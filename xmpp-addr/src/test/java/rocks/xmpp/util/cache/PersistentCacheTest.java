@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util.cache;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class PersistentCacheTest {
+
+    private Path directory;
+
+    private static void deleteDirectory(final Path path) throws IOException {
+        if (Files.exists(path)) {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory(Paths.get("."), "cache_test");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testPersistentCache() {
+        PersistentCache cache = PersistentCache.open(directory, 1024, 0);
+        byte[] data = new byte[]{1, 2, 3};
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertFalse(cache.containsKey("1"));
+        Assert.assertTrue(cache.isEmpty());
+        Assert.assertNull(cache.put("1", data));
+        Assert.assertNotNull(cache.put("1", data));
+        Assert.assertEquals(cache.get("1"), data);
+        Assert.assertEquals(cache.size(), 1);
+        Assert.assertEquals(cache.getTotalBytes(), 3);
+        Assert.assertTrue(cache.containsKey("1"));
+        Assert.assertNull(cache.remove("0"));
+        Assert.assertEquals(cache.remove("1"), data);
+        Assert.assertTrue(cache.isEmpty());
+
+        cache.put("1", data);
+        cache.put("2", data);
+        cache.put("3", data);
+        Assert.assertEquals(cache.size(), 3);
+        cache.clear();
+        Assert.assertTrue(cache.isEmpty());
+        Assert.assertEquals(cache.getTotalBytes(), 0);
+    }
+
+    @Test
+    public void testPutReturnsPreviousValue() {
+        PersistentCache cache = PersistentCache.open(directory, 1024, 16);
+        // Packed and stored as file.
+        for (byte[] data : new byte[][]{{1, 2, 3}, new byte[32]}) {
+            String key = "key" + data.length;
+            Assert.assertNull(cache.put(key, data));
+            Assert.assertEquals(cache.put(key, new byte[]{4}), data);
+            Assert.assertEquals(cache.put(key, data), new byte[]{4});
+        }
+    }
+
+    @Test
+    public void testSameInstancePerDirectory() {
+        Assert.assertSame(PersistentCache.open(directory, 1024, 0), PersistentCache.open(directory.resolve("."), 1, 0));
+    }
+
+    @Test
+    public void testLruEviction() {
+        PersistentCache cache = PersistentCache.open(directory, 100, 0);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        // Access "a", so that "b" is the least-recently-used.
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", new byte[40]);
+        Assert.assertTrue(cache.containsKey("a"));
+        Assert.assertFalse(cache.containsKey("b"));
+        Assert.assertTrue(cache.containsKey("c"));
+        Assert.assertEquals(cache.getTotalBytes(), 80);
+    }
+
+    @Test
+    public void testPackFile() throws IOException {
+        PersistentCache cache = PersistentCache.open(directory, 1024 * 1024, 16);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, new byte[]{(byte) i, 1, 2});
+        }
+        // Large values are stored as file.
+        byte[] large = new byte[100];
+        Arrays.fill(large, (byte) 7);
+        cache.put("large", large);
+        // Overwrite and remove some entries.
+        for (int i = 0; i < 1000; i += 2) {
+            cache.put("key" + i, new byte[]{(byte) i, 3});
+        }
+        for (int i = 1; i < 1000; i += 4) {
+            cache.remove("key" + i);
+        }
+        Assert.assertEquals(cache.size(), 751);
+        Assert.assertEquals(cache.get("key2"), new byte[]{2, 3});
+        Assert.assertEquals(cache.get("key3"), new byte[]{3, 1, 2});
+        Assert.assertNull(cache.get("key5"));
+        Assert.assertEquals(cache.get("large"), large);
+        Assert.assertTrue(Files.exists(directory.resolve("cache.pack")));
+
+        // Reload the index from disk.
+        PersistentCache reloaded = new PersistentCache(directory, 1024 * 1024, 16);
+        Assert.assertEquals(reloaded.size(), 751);
+        Assert.assertEquals(reloaded.getTotalBytes(), cache.getTotalBytes());
+        Assert.assertEquals(reloaded.get("key2"), new byte[]{2, 3});
+        Assert.assertEquals(reloaded.get("key3"), new byte[]{3, 1, 2});
+        Assert.assertNull(reloaded.get("key5"));
+        Assert.assertEquals(reloaded.get("large"), large);
+    }
+
+    @Test
+    public void testPackFileGarbageCountsTowardsMaxBytes() throws IOException {
+        PersistentCache cache = PersistentCache.open(directory, 1024, 64);
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key", new byte[]{(byte) i, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15});
+        }
+        Assert.assertEquals(cache.get("key")[0], (byte) 9999);
+        // Without compaction, the garbage would have grown the pack file beyond its initial capacity.
+        Assert.assertTrue(Files.size(directory.resolve("cache.pack")) <= 64 * 1024);
+    }
+
+    @Test
+    public void testMigrationOfFlatLayout() throws IOException {
+        Files.write(directory.resolve("old.avatar"), new byte[]{1, 2, 3});
+        PersistentCache cache = PersistentCache.open(directory, 1024, 0);
+        Assert.assertEquals(cache.get("old.avatar"), new byte[]{1, 2, 3});
+        Assert.assertTrue(Files.notExists(directory.resolve("old.avatar")));
+    }
+}
@@ -33,6 +33,7 @@ import java.io.UncheckedIOException;
 import java.lang.System.Logger.Level;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.concurrent.CompletableFuture;
@@ -44,6 +45,7 @@ import javax.net.ssl.SSLSocket;
 
 import rocks.xmpp.core.XmppException;
 import rocks.xmpp.core.net.TcpConnection;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.session.model.SessionOpen;
 import rocks.xmpp.core.stream.StreamNegotiationException;
@@ -114,15 +116,19 @@ public final class SocketConnection extends TcpConnection {
 
     private SessionOpen sessionOpen;
 
+    private final TrafficCapture trafficCapture;
+
     SocketConnection(final Socket socket, final XmppSession xmppSession,
                      final TcpConnectionConfiguration configuration) {
-        super(configuration, xmppSession, xmppSession::notifyException);
+        super(configuration, xmppSession, xmppSession::notifyException,
+                xmppSession.getConfiguration().getMetricsRegistry());
         this.socket = socket;
         try {
             this.outputStream = new BufferedOutputStream(socket.getOutputStream());
             this.inputStream = new BufferedInputStream(socket.getInputStream());
             this.xmppSession = xmppSession;
             this.tcpConnectionConfiguration = configuration;
+            this.trafficCapture = createTrafficCapture(xmppSession.getConfiguration().getTrafficCaptureDirectory());
             this.streamFeaturesManager = xmppSession.getManager(StreamFeaturesManager.class);
             this.streamManager = xmppSession.getManager(ClientStreamManager.class);
             this.securityManager =
@@ -138,8 +144,24 @@ public final class SocketConnection extends TcpConnection {
         }
     }
 
+    private static TrafficCapture createTrafficCapture(final Path directory) {
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return TrafficCapture.create(directory, TrafficCapture.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not create traffic capture in " + directory, e);
+            return null;
+        }
+    }
+
     synchronized InputStream getInputStream() {
-        return inputStream;
+        return trafficCapture != null ? trafficCapture.wrap(inputStream) : inputStream;
+    }
+
+    private synchronized OutputStream getOutputStream() {
+        return trafficCapture != null ? trafficCapture.wrap(outputStream) : outputStream;
     }
 
     @Override
@@ -157,11 +179,7 @@ public final class SocketConnection extends TcpConnection {
         // Start writing to the output stream.
         xmppStreamWriter = new XmppStreamWriter(xmppSession.getWriterInterceptors(), this, this.xmppSession);
         xmppStreamWriter.initialize(tcpConnectionConfiguration.getKeepAliveInterval());
-        final OutputStream os;
-        synchronized (this) {
-            os = outputStream;
-        }
-        return xmppStreamWriter.openStream(os, streamHeader);
+        return xmppStreamWriter.openStream(getOutputStream(), streamHeader);
     }
 
     @Override
@@ -214,6 +232,7 @@ public final class SocketConnection extends TcpConnection {
             }
         }
 
+        getMetrics().secured();
         logger.log(Level.DEBUG, "Connection has been secured via TLS.");
     }
 
@@ -237,6 +256,7 @@ public final class SocketConnection extends TcpConnection {
                 inputStream = iStream;
                 outputStream = oStream;
             }
+            getMetrics().compressed();
         } catch (IOException e) {
             // If compression processing fails after the new (compressed) stream has been established,
             // the entity that detects the error SHOULD generate a stream error and close the stream
@@ -253,11 +273,13 @@ public final class SocketConnection extends TcpConnection {
 
     @Override
     public final synchronized CompletableFuture<Void> send(StreamElement element) {
+        getMetrics().elementSent(element);
         return xmppStreamWriter.write(element, true);
     }
 
     @Override
     public final CompletableFuture<Void> write(final StreamElement streamElement) {
+        getMetrics().elementSent(streamElement);
         return xmppStreamWriter.write(streamElement, false);
     }
 
@@ -268,7 +290,7 @@ public final class SocketConnection extends TcpConnection {
 
     @Override
     protected final synchronized void restartStream() {
-        xmppStreamWriter.openStream(outputStream, (StreamHeader) sessionOpen);
+        xmppStreamWriter.openStream(getOutputStream(), (StreamHeader) sessionOpen);
     }
 
     @Override
@@ -319,6 +341,9 @@ public final class SocketConnection extends TcpConnection {
                     }
                 }
             }
+            if (trafficCapture != null) {
+                trafficCapture.close();
+            }
             closeFuture.complete(null);
         } catch (IOException e) {
             closeFuture.completeExceptionally(e);
@@ -38,9 +38,10 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import rocks.xmpp.core.metrics.MetricsRegistry;
 import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.net.WriterInterceptor;
 import rocks.xmpp.core.net.WriterInterceptorChain;
@@ -49,7 +50,8 @@ import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamHeader;
 import rocks.xmpp.util.XmppStreamEncoder;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+import rocks.xmpp.util.concurrent.QueuedExecutorService;
 
 /**
  * This class is responsible for opening and closing the XMPP stream as well as writing any XML elements to the stream.
@@ -69,10 +71,14 @@ final class XmppStreamWriter {
 
     private final Connection connection;
 
-    private final ScheduledExecutorService executor;
+    private final QueuedExecutorService executor;
+
+    private final MetricsRegistry.Registration queueGauge;
 
     private final List<WriterInterceptor> writerInterceptors = new ArrayList<>();
 
+    private volatile HashedWheelTimer.Timeout keepAlive;
+
     /**
      * Will be accessed only by the writer thread.
      */
@@ -90,12 +96,15 @@ final class XmppStreamWriter {
         writerInterceptors.forEach(this.writerInterceptors::add);
         this.writerInterceptors.add(new XmppStreamEncoder(xmppSession.getConfiguration().getXmlOutputFactory(),
                 xmppSession::createMarshaller, s -> false));
-        this.executor = new QueuedScheduledExecutorService(EXECUTOR);
+        this.executor = new QueuedExecutorService(EXECUTOR);
+        this.queueGauge = xmppSession.getConfiguration().getMetricsRegistry()
+                .gauge("xmpp.client.queue.writer", executor::getQueueSize);
     }
 
     void initialize(Duration keepAliveInterval) {
         if (keepAliveInterval != null && !keepAliveInterval.isNegative() && !keepAliveInterval.isZero()) {
-            executor.scheduleAtFixedRate(() -> {
+            // The timer only triggers the whitespace ping, which is written by the writer thread.
+            final Runnable whitespacePing = () -> {
                 if (EnumSet.of(XmppSession.Status.CONNECTED, XmppSession.Status.AUTHENTICATED)
                         .contains(xmppSession.getStatus())) {
                     try {
@@ -109,7 +118,15 @@ final class XmppStreamWriter {
                         notifyException(e);
                     }
                 }
-            }, keepAliveInterval.toSeconds(), keepAliveInterval.toSeconds(), TimeUnit.SECONDS);
+            };
+            keepAlive = HashedWheelTimer.shared().newPeriodicTimeout(() -> {
+                try {
+                    executor.execute(whitespacePing);
+                } catch (RejectedExecutionException e) {
+                    // The writer has been shut down in the meantime.
+                    cancelKeepAlive();
+                }
+            }, keepAliveInterval.toMillis(), TimeUnit.MILLISECONDS);
         }
     }
 
@@ -184,6 +201,13 @@ final class XmppStreamWriter {
         });
     }
 
+    private void cancelKeepAlive() {
+        final HashedWheelTimer.Timeout timeout = keepAlive;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
     /**
      * Shuts down the executors, cleans up resources and notifies the session about the exception.
      *
@@ -193,6 +217,7 @@ final class XmppStreamWriter {
 
         // Shutdown the executors.
         synchronized (this) {
+            cancelKeepAlive();
             executor.shutdown();
             if (outputStreamWriter != null) {
                 try {
@@ -216,6 +241,8 @@ final class XmppStreamWriter {
      */
     CompletableFuture<Void> shutdown() {
         return closeStream().whenCompleteAsync((aVoid, throwable) -> {
+            queueGauge.close();
+            cancelKeepAlive();
             executor.shutdown();
             try {
                 // Wait for the closing stream element to be sent before we can close the socket.
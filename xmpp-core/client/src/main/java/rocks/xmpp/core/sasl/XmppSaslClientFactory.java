@@ -31,6 +31,7 @@ import javax.security.sasl.SaslClientFactory;
 
 import rocks.xmpp.core.sasl.anonymous.AnonymousSaslClient;
 import rocks.xmpp.core.sasl.scram.ScramClient;
+import rocks.xmpp.core.sasl.scram.ScramKeyCache;
 
 /**
  * A factory which creates {@linkplain SaslClient}s, which are used in XMPP context and are not natively provided by the
@@ -39,6 +40,9 @@ import rocks.xmpp.core.sasl.scram.ScramClient;
  * <p>For example, the <a href="http://tools.ietf.org/html/rfc2245">ANONYMOUS</a> and <a
  * href="http://tools.ietf.org/html/rfc5802">SCRAM-SHA-1</a> mechanisms are not provided by default.</p>
  *
+ * <p>If the properties contain a {@link ScramKeyCache} (with the name {@link ScramKeyCache#PROPERTY}), SCRAM clients
+ * use it for the derived keys.</p>
+ *
  * @author Christian Schudt
  */
 public final class XmppSaslClientFactory implements SaslClientFactory {
@@ -52,7 +56,9 @@ public final class XmppSaslClientFactory implements SaslClientFactory {
                 return new AnonymousSaslClient();
             }
             if ("SCRAM-SHA-1".equals(mechanism)) {
-                return new ScramClient("SHA-1", authorizationId, cbh);
+                final Object keyCache = props != null ? props.get(ScramKeyCache.PROPERTY) : null;
+                return new ScramClient("SHA-1", authorizationId, cbh,
+                        keyCache instanceof ScramKeyCache ? (ScramKeyCache) keyCache : null, serverName);
             }
         }
         return null;
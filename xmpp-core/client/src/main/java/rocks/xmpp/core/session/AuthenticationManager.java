@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
@@ -45,6 +46,8 @@ import rocks.xmpp.core.sasl.model.Failure;
 import rocks.xmpp.core.sasl.model.Mechanisms;
 import rocks.xmpp.core.sasl.model.Response;
 import rocks.xmpp.core.sasl.model.Success;
+import rocks.xmpp.core.sasl.scram.ScramClient;
+import rocks.xmpp.core.sasl.scram.ScramKeyCache;
 import rocks.xmpp.core.stream.StreamFeatureNegotiator;
 import rocks.xmpp.core.stream.StreamNegotiationException;
 import rocks.xmpp.core.stream.StreamNegotiationResult;
@@ -70,6 +73,8 @@ final class AuthenticationManager implements StreamFeatureNegotiator<Mechanisms>
 
     private final Session session;
 
+    private final Map<String, ?> saslProperties;
+
     /**
      * Stores the supported and preferred SASL mechanisms of the server.
      */
@@ -89,10 +94,13 @@ final class AuthenticationManager implements StreamFeatureNegotiator<Mechanisms>
      * Creates the authentication manager. Usually only the {@link rocks.xmpp.core.session.XmppSession} should create it
      * implicitly.
      *
-     * @param session The session.
+     * @param session  The session.
+     * @param keyCache The cache for derived SCRAM keys or null.
      */
-    AuthenticationManager(final Session session) {
+    AuthenticationManager(final Session session, final ScramKeyCache keyCache) {
         this.session = session;
+        this.saslProperties = keyCache != null
+                ? Collections.singletonMap(ScramKeyCache.PROPERTY, keyCache) : Collections.emptyMap();
         this.supportedMechanisms = new ArrayList<>();
     }
 
@@ -117,7 +125,7 @@ final class AuthenticationManager implements StreamFeatureNegotiator<Mechanisms>
                 }
                 successData = null;
                 saslClient = Sasl.createSaslClient(clientMechanisms.toArray(new String[0]), authorizationId, "xmpp",
-                        session.getRemoteXmppAddress().toString(), Collections.emptyMap(), callbackHandler);
+                        session.getRemoteXmppAddress().toString(), saslProperties, callbackHandler);
 
                 if (saslClient == null) {
                     throw new SaslException("No SASL client found for mechanisms: " + clientMechanisms);
@@ -147,6 +155,10 @@ final class AuthenticationManager implements StreamFeatureNegotiator<Mechanisms>
                 session.send(new Response(saslClient.evaluateChallenge(((Challenge) element).getValue())));
                 return StreamNegotiationResult.INCOMPLETE;
             } else if (element instanceof Failure) {
+                if (saslClient instanceof ScramClient) {
+                    // Don't retry with keys, which might be derived from an old password.
+                    ((ScramClient) saslClient).invalidateCachedKeys();
+                }
                 Failure authenticationFailure = (Failure) element;
                 String failureText = saslClient.getMechanismName() + " authentication failed with condition "
                         + authenticationFailure.toString();
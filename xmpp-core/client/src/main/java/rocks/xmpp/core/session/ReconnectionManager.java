@@ -31,16 +31,16 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiPredicate;
 
 import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.jfr.ReconnectionAttemptEvent;
 import rocks.xmpp.core.stream.model.StreamErrorException;
 import rocks.xmpp.core.stream.model.errors.Condition;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+import rocks.xmpp.util.concurrent.QueuedExecutorService;
 
 /**
  * If the connection goes down, this class automatically reconnects, if the user was authenticated.
@@ -67,11 +67,14 @@ final class ReconnectionManager extends Manager {
     private static final ExecutorService EXECUTOR_SERVICE =
             Executors.newCachedThreadPool(XmppUtils.createNamedThreadFactory("Reconnection Thread"));
 
-    private final ScheduledExecutorService scheduledExecutorService;
+    /**
+     * Executes the reconnection tasks one after another, because they may block while connecting.
+     */
+    private final QueuedExecutorService executor;
 
     private final ReconnectionStrategy reconnectionStrategy;
 
-    private ScheduledFuture<?> scheduledReconnectingInterval;
+    private ReconnectionTask scheduledReconnectingInterval;
 
     private Instant nextReconnectionAttempt;
 
@@ -97,7 +100,7 @@ final class ReconnectionManager extends Manager {
                     // -> max. ~ 5 minutes
                     truncatedBinaryExponentialBackoffStrategy(10, 5));
         }
-        scheduledExecutorService = new QueuedScheduledExecutorService(EXECUTOR_SERVICE);
+        executor = new QueuedExecutorService(EXECUTOR_SERVICE);
     }
 
     @Override
@@ -121,7 +124,7 @@ final class ReconnectionManager extends Manager {
                     break;
                 case CLOSED:
                     cancel();
-                    scheduledExecutorService.shutdown();
+                    executor.shutdown();
                     break;
                 default:
                     break;
@@ -136,7 +139,7 @@ final class ReconnectionManager extends Manager {
         nextReconnectionAttempt = null;
         if (scheduledReconnectingInterval != null) {
             // Cancel the scheduled timer.
-            scheduledReconnectingInterval.cancel(false);
+            scheduledReconnectingInterval.cancel();
         }
     }
 
@@ -154,31 +157,12 @@ final class ReconnectionManager extends Manager {
 
             nextReconnectionAttempt = Instant.now().plus(duration);
 
-            scheduledReconnectingInterval = scheduledExecutorService.scheduleAtFixedRate(() -> {
-                Duration remainingDuration;
-                synchronized (this) {
-                    remainingDuration = Duration.between(Instant.now(), nextReconnectionAttempt);
-                }
-                if (!remainingDuration.isNegative()) {
-                    XmppUtils.notifyEventListeners(xmppSession.connectionListeners,
-                            new ConnectionEvent(xmppSession, ConnectionEvent.Type.RECONNECTION_PENDING, throwable,
-                                    remainingDuration));
-                } else {
-                    synchronized (this) {
-                        scheduledReconnectingInterval.cancel(false);
-                    }
-                    try {
-                        xmppSession.connect();
-                        logger.log(System.Logger.Level.DEBUG, "Reconnection successful.");
-                    } catch (XmppException e) {
-                        logger.log(System.Logger.Level.DEBUG, "Reconnection failed.", e);
-                        XmppUtils.notifyEventListeners(xmppSession.connectionListeners,
-                                new ConnectionEvent(xmppSession, ConnectionEvent.Type.RECONNECTION_FAILED, e,
-                                        Duration.ZERO));
-                        scheduleReconnection(attempt + 1, e);
-                    }
-                }
-            }, 0, 1, TimeUnit.SECONDS);
+            final ReconnectionTask task = new ReconnectionTask(attempt, throwable);
+            scheduledReconnectingInterval = task;
+            // Notify about the pending reconnection every second and reconnect when the time has come.
+            task.timeout = HashedWheelTimer.shared().newPeriodicTimeout(() -> executor.execute(task), 1,
+                    TimeUnit.SECONDS);
+            executor.execute(task);
         }
     }
 
@@ -188,6 +172,76 @@ final class ReconnectionManager extends Manager {
         cancel();
     }
 
+    /**
+     * A periodic task, which notifies about a pending reconnection and reconnects, when the next attempt is due.
+     */
+    private final class ReconnectionTask implements Runnable {
+
+        private final int attempt;
+
+        private final Throwable throwable;
+
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private volatile boolean cancelled;
+
+        private ReconnectionTask(final int attempt, final Throwable throwable) {
+            this.attempt = attempt;
+            this.throwable = throwable;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            final HashedWheelTimer.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        @Override
+        public final void run() {
+            final Duration remainingDuration;
+            synchronized (ReconnectionManager.this) {
+                // Ticks may still be queued, when the task has been cancelled.
+                if (cancelled || nextReconnectionAttempt == null) {
+                    return;
+                }
+                remainingDuration = Duration.between(Instant.now(), nextReconnectionAttempt);
+            }
+            if (!remainingDuration.isNegative()) {
+                XmppUtils.notifyEventListeners(xmppSession.connectionListeners,
+                        new ConnectionEvent(xmppSession, ConnectionEvent.Type.RECONNECTION_PENDING, throwable,
+                                remainingDuration));
+            } else {
+                cancel();
+                final ReconnectionAttemptEvent event = new ReconnectionAttemptEvent();
+                event.begin();
+                try {
+                    xmppSession.connect();
+                    logger.log(System.Logger.Level.DEBUG, "Reconnection successful.");
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.attempt = attempt + 1;
+                        event.successful = true;
+                        event.commit();
+                    }
+                } catch (XmppException e) {
+                    logger.log(System.Logger.Level.DEBUG, "Reconnection failed.", e);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.attempt = attempt + 1;
+                        event.failure = e.getMessage();
+                        event.commit();
+                    }
+                    XmppUtils.notifyEventListeners(xmppSession.connectionListeners,
+                            new ConnectionEvent(xmppSession, ConnectionEvent.Type.RECONNECTION_FAILED, e,
+                                    Duration.ZERO));
+                    scheduleReconnection(attempt + 1, e);
+                }
+            }
+        }
+    }
+
     /**
      * A predicate which returns true as soon a system-shutdown stream error has occurred.
      */
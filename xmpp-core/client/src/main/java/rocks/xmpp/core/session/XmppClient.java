@@ -132,7 +132,7 @@ public final class XmppClient extends XmppSession {
                        ClientConnectionConfiguration... connectionConfigurations) {
         super(xmppServiceDomain, configuration, connectionConfigurations);
 
-        authenticationManager = new AuthenticationManager(this);
+        authenticationManager = new AuthenticationManager(this, configuration.getScramKeyCache());
 
         streamFeaturesManager.addFeatureNegotiator(authenticationManager);
         streamFeaturesManager.addFeatureNegotiator((StreamFeatureNegotiator<Bind>) element -> {
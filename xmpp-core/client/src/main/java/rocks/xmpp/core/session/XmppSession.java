@@ -45,6 +45,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -60,8 +61,6 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import jakarta.xml.bind.DataBindingException;
-import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.Unmarshaller;
 
@@ -69,6 +68,9 @@ import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.ExtensionProtocol;
 import rocks.xmpp.core.Session;
 import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.jfr.IqRoundTripEvent;
+import rocks.xmpp.core.metrics.Counter;
+import rocks.xmpp.core.metrics.MetricsRegistry;
 import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.net.ReaderInterceptor;
 import rocks.xmpp.core.net.WriterInterceptor;
@@ -104,7 +106,6 @@ import rocks.xmpp.extensions.disco.client.ClientServiceDiscoveryManager;
 import rocks.xmpp.extensions.disco.model.info.InfoProvider;
 import rocks.xmpp.extensions.httpbind.BoshConnectionConfiguration;
 import rocks.xmpp.extensions.sm.client.ClientStreamManager;
-import rocks.xmpp.util.LanguageUnmarshallerListener;
 import rocks.xmpp.util.XmppUtils;
 import rocks.xmpp.util.concurrent.AsyncResult;
 import rocks.xmpp.util.concurrent.CompletionStages;
@@ -222,6 +223,12 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
 
     private final Executor stanzaListenerExecutor;
 
+    private final Counter iqTimeouts;
+
+    private final MetricsRegistry.Registration unacknowledgedStanzasGauge;
+
+    private final MetricsRegistry.Registration stanzaListenerQueueGauge;
+
     /**
      * guarded by "connections"
      */
@@ -251,8 +258,15 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
         this.xmppServiceDomain = Jid.of(Objects.requireNonNull(xmppServiceDomain,
                 "The XMPP service domain must not be null. It's a required attribute in the stream header"));
         this.configuration = configuration;
-        this.stanzaListenerExecutor = new QueuedExecutorService(
+        final QueuedExecutorService listenerExecutor = new QueuedExecutorService(
                 configuration.getExecutor() != null ? configuration.getExecutor() : STANZA_LISTENER_EXECUTOR);
+        this.stanzaListenerExecutor = listenerExecutor;
+        final MetricsRegistry metricsRegistry = configuration.getMetricsRegistry();
+        this.iqTimeouts = metricsRegistry.counter("xmpp.client.iq.timeouts");
+        this.unacknowledgedStanzasGauge =
+                metricsRegistry.gauge("xmpp.client.queue.unacknowledged", unacknowledgedStanzas::size);
+        this.stanzaListenerQueueGauge =
+                metricsRegistry.gauge("xmpp.client.queue.listener", listenerExecutor::getQueueSize);
         this.serviceDiscoveryManager = getManager(ClientServiceDiscoveryManager.class);
         this.streamFeaturesManager = getManager(StreamFeaturesManager.class);
         this.extensionProtocolRegistry = getManager(ExtensionProtocolRegistry.class);
@@ -826,13 +840,39 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
         if (!iq.isRequest()) {
             throw new IllegalArgumentException("IQ must be of type 'get' or 'set'");
         }
-        return sendAndAwait(iq,
+        final IqRoundTripEvent event = new IqRoundTripEvent();
+        event.begin();
+        final AsyncResult<IQ> result = sendAndAwait(iq,
                 IQEvent::getIQ,
                 new IQResponsePredicate(iq, getConnectedResource()),
                 this::sendIQ,
                 this::addInboundIQListener,
                 this::removeInboundIQListener,
                 timeout);
+        result.whenComplete((response, e) -> {
+            final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof NoResponseException) {
+                iqTimeouts.increment();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.to = iq.getTo() != null ? iq.getTo().toString() : null;
+                event.id = iq.getId();
+                final Object payload = iq.getExtension(Object.class);
+                event.payloadType = payload != null ? payload.getClass() : null;
+                if (cause == null) {
+                    event.outcome = "result";
+                } else if (cause instanceof StanzaErrorException) {
+                    event.outcome = "error";
+                } else if (cause instanceof NoResponseException) {
+                    event.outcome = "timeout";
+                } else {
+                    event.outcome = "failed";
+                }
+                event.commit();
+            }
+        });
+        return result;
     }
 
     /**
@@ -913,14 +953,12 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
         SendTask<S> sendTask = sendFunction.apply(stanza);
         // When the sending failed, immediately complete the future with the exception.
         sendTask.onFailed((throwable, s) -> completableFuture.completeExceptionally(throwable));
-        return new AsyncResult<>(completableFuture
-                // When a response has received, mark the requesting stanza as acknowledged.
-                // This is especially important for Bind and Roster IQs, so that they won't be resend after login.
-                .whenComplete((result, e) -> removeFromQueue(sendTask.getStanza()))
-                .applyToEither(CompletionStages.timeoutAfter(timeout.toMillis(), TimeUnit.MILLISECONDS,
-                        () -> new NoResponseException(
-                                "Timeout reached, while waiting on a response for request: " + stanza)),
-                        Function.identity()))
+        // When a response has received, mark the requesting stanza as acknowledged.
+        // This is especially important for Bind and Roster IQs, so that they won't be resend after login.
+        final CompletableFuture<S> acknowledged =
+                completableFuture.whenComplete((result, e) -> removeFromQueue(sendTask.getStanza()));
+        return new AsyncResult<>(CompletionStages.orTimeout(acknowledged, timeout.toMillis(), TimeUnit.MILLISECONDS,
+                () -> new NoResponseException("Timeout reached, while waiting on a response for request: " + stanza)))
                 // When either a timeout happened or response has received, remove the listener.
                 .whenComplete((result, e) -> removeListener.accept(listener));
 
@@ -1180,9 +1218,12 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
     }
 
     /**
-     * Creates a new unmarshaller, which can be used to unmarshal XML to objects.
+     * Gets an unmarshaller, which can be used to unmarshal XML to objects.
      *
-     * <p>Note that the returned unmarshaller is not thread-safe.</p>
+     * <p>Despite the method name, this does not necessarily create a new instance: unmarshallers are reused per thread
+     * and shared by all sessions with the same configuration. The returned unmarshaller must only be used by the
+     * calling thread, must not be kept after unmarshalling and must not be reconfigured (e.g. by changing properties or
+     * setting listeners). Nested calls during unmarshalling return another instance.</p>
      *
      * @return The unmarshaller.
      * @see #createMarshaller()
@@ -1192,44 +1233,38 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
     }
 
     /**
-     * Creates a new unmarshaller with a default locale. If child objects have not explicitly set a locale, the default
+     * Gets an unmarshaller with a default locale. If child objects have not explicitly set a locale, the default
      * locale is assigned to them.
      *
-     * <p>Note that the returned unmarshaller is not thread-safe.</p>
+     * <p>Despite the method name, this does not necessarily create a new instance: unmarshallers are reused per thread
+     * and shared by all sessions with the same configuration. The returned unmarshaller must only be used by the
+     * calling thread, must not be kept after unmarshalling and must not be reconfigured (e.g. by changing properties or
+     * setting listeners). Nested calls during unmarshalling return another instance.</p>
      *
      * @param rootLocale The root locale, usually set in the stream header.
      * @return The unmarshaller.
      * @see #createUnmarshaller()
      */
     public final Unmarshaller createUnmarshaller(Locale rootLocale) {
-        try {
-            Unmarshaller unmarshaller = configuration.getJAXBContext().createUnmarshaller();
-            unmarshaller.setListener(new LanguageUnmarshallerListener(rootLocale));
-            return unmarshaller;
-        } catch (JAXBException e) {
-            throw new DataBindingException(e);
-        }
+        return configuration.getMarshallerPool().getUnmarshaller(rootLocale);
     }
 
     /**
-     * Creates a marshaller, which can be used to create XML from objects.
+     * Gets a marshaller, which can be used to create XML from objects.
      *
      * <p>The returned marshaller is configured with {@code Marshaller.JAXB_FRAGMENT = true}, so that no XML header is
      * written (which is usually what we want in XMPP when writing stanzas).</p>
      *
-     * <p>Note that the returned unmarshaller is not thread-safe.</p>
+     * <p>Despite the method name, this does not necessarily create a new instance: marshallers are reused per thread
+     * and shared by all sessions with the same configuration. The returned marshaller must only be used by the calling
+     * thread, must not be kept after marshalling and must not be reconfigured (e.g. by changing properties or
+     * setting listeners). Nested calls during marshalling return another instance.</p>
      *
      * @return The marshaller.
      * @see #createUnmarshaller()
      */
     public final Marshaller createMarshaller() {
-        try {
-            Marshaller marshaller = configuration.getJAXBContext().createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
-            return marshaller;
-        } catch (JAXBException e) {
-            throw new DataBindingException(e);
-        }
+        return configuration.getMarshallerPool().getMarshaller();
     }
 
     /**
@@ -1450,6 +1485,8 @@ public abstract class XmppSession implements Session, StreamHandler, AutoCloseab
         messageAcknowledgedListeners.clear();
         sendSucceededListeners.clear();
         sendFailedListeners.clear();
+        unacknowledgedStanzasGauge.close();
+        stanzaListenerQueueGauge.close();
         synchronized (this) {
             if (shutdownHook != null) {
                 Runtime.getRuntime().removeShutdownHook(shutdownHook);
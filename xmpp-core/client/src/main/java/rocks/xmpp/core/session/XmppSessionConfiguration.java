@@ -38,6 +38,8 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
@@ -46,8 +48,11 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 
 import rocks.xmpp.core.net.client.ClientConnectionConfiguration;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.sasl.scram.ScramKeyCache;
 import rocks.xmpp.core.session.debug.XmppDebugger;
 import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.util.MarshallerPool;
 import rocks.xmpp.util.XmppUtils;
 
 /**
@@ -59,7 +64,9 @@ import rocks.xmpp.util.XmppUtils;
  *
  * <p>Since creating the JAXB context is quite expensive, this class allows you to create the context once and reuse it
  * by multiple sessions. You can also {@linkplain #setDefault(XmppSessionConfiguration) set} an application-wide default
- * configuration (used by all XMPP sessions).</p>
+ * configuration (used by all XMPP sessions). The context is created in the background, so that it is usually ready,
+ * when a session has connected to the server and starts to marshal XML. Configurations with the same extensions share
+ * the same context.</p>
  *
  * <p>Use the {@link #builder()} to create instances of this class:</p>
  *
@@ -106,7 +113,9 @@ public final class XmppSessionConfiguration {
         DEFAULT_APPLICATION_DATA_PATH = path;
     }
 
-    private final JAXBContext jaxbContext;
+    private final CompletableFuture<JAXBContext> jaxbContext;
+
+    private final MarshallerPool marshallerPool;
 
     private final XMLInputFactory xmlInputFactory;
 
@@ -120,6 +129,8 @@ public final class XmppSessionConfiguration {
 
     private final Path cacheDirectory;
 
+    private final long cacheSize;
+
     private final Supplier<Presence> initialPresence;
 
     private final Set<Extension> extensions;
@@ -136,6 +147,12 @@ public final class XmppSessionConfiguration {
 
     private final Executor executor;
 
+    private final ScramKeyCache scramKeyCache;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final Path trafficCaptureDirectory;
+
     /**
      * Creates a configuration for an {@link XmppSession}. If you want to add custom classes to the {@link JAXBContext},
      * you can pass them as parameters.
@@ -147,6 +164,7 @@ public final class XmppSessionConfiguration {
         this.defaultResponseTimeout = builder.defaultResponseTimeout;
         this.authenticationMechanisms = builder.authenticationMechanisms;
         this.cacheDirectory = builder.cacheDirectory;
+        this.cacheSize = builder.cacheSize;
         this.initialPresence = builder.initialPresence;
         this.xmlInputFactory = XMLInputFactory.newFactory();
         this.xmlOutputFactory = XMLOutputFactory.newFactory();
@@ -156,6 +174,9 @@ public final class XmppSessionConfiguration {
         this.threadFactory = builder.threadFactory;
         this.closeOnShutdown = builder.closeOnShutdown;
         this.executor = builder.executor;
+        this.scramKeyCache = builder.scramKeyCache;
+        this.metricsRegistry = builder.metricsRegistry != null ? builder.metricsRegistry : MetricsRegistry.noop();
+        this.trafficCaptureDirectory = builder.trafficCaptureDirectory;
         this.extensions = new LinkedHashSet<>();
 
         // Find all modules, then add all extension from each module.
@@ -175,7 +196,10 @@ public final class XmppSessionConfiguration {
         for (Extension extension : extensions) {
             classesToBeBound.addAll(extension.getClasses());
         }
-        jaxbContext = XmppUtils.createContext(classesToBeBound);
+        // Create the context in the background, it isn't needed before the session has connected.
+        jaxbContext = CompletableFuture.supplyAsync(() -> XmppUtils.createContext(classesToBeBound),
+                runnable -> getThreadFactory("JAXB Context").newThread(runnable).start());
+        marshallerPool = new MarshallerPool(this::getJAXBContext);
     }
 
     /**
@@ -216,12 +240,28 @@ public final class XmppSessionConfiguration {
     }
 
     /**
-     * Gets the JAXB context.
+     * Gets the JAXB context. Blocks until it has been created.
      *
      * @return The JAXB context.
      */
     JAXBContext getJAXBContext() {
-        return jaxbContext;
+        try {
+            return jaxbContext.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the marshaller pool, which is shared by all sessions using this configuration.
+     *
+     * @return The marshaller pool.
+     */
+    MarshallerPool getMarshallerPool() {
+        return marshallerPool;
     }
 
     /**
@@ -274,6 +314,46 @@ public final class XmppSessionConfiguration {
         return cacheDirectory;
     }
 
+    /**
+     * Gets the maximal size in bytes of each cache in the {@linkplain #getCacheDirectory() cache directory}. If a cache
+     * exceeds this size, the least-recently-used entries are evicted.
+     *
+     * @return The maximal cache size in bytes.
+     * @see rocks.xmpp.util.cache.PersistentCache
+     */
+    public final long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Gets the cache for the keys, which are derived from the password during SCRAM authentication.
+     *
+     * @return The cache or null, if keys are not cached.
+     */
+    public final ScramKeyCache getScramKeyCache() {
+        return scramKeyCache;
+    }
+
+    /**
+     * Gets the registry, which receives the metrics of the sessions and their connections, e.g. the number of sent and
+     * received stanzas and bytes, the queue sizes and the number of IQ timeouts.
+     *
+     * @return The metrics registry.
+     */
+    public final MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Gets the directory, in which the raw traffic of each connection is captured.
+     *
+     * @return The directory or null, if traffic is not captured.
+     * @see rocks.xmpp.core.net.capture.TrafficCapture
+     */
+    public final Path getTrafficCaptureDirectory() {
+        return trafficCaptureDirectory;
+    }
+
     /**
      * Gets a supplier for initial presence which is sent during login.
      *
@@ -378,6 +458,8 @@ public final class XmppSessionConfiguration {
 
         private Path cacheDirectory;
 
+        private long cacheSize;
+
         private Supplier<Presence> initialPresence;
 
         private Locale language;
@@ -392,6 +474,12 @@ public final class XmppSessionConfiguration {
 
         private Executor executor;
 
+        private ScramKeyCache scramKeyCache;
+
+        private MetricsRegistry metricsRegistry;
+
+        private Path trafficCaptureDirectory;
+
         /**
          * The default preferred SASL mechanisms.
          */
@@ -405,7 +493,9 @@ public final class XmppSessionConfiguration {
         private Builder() {
             defaultResponseTimeout(Duration.ofSeconds(5))
                     .cacheDirectory(DEFAULT_APPLICATION_DATA_PATH)
+                    .cacheSize(64 * 1024 * 1024)
                     .initialPresence(Presence::new)
+                    .scramKeyCache(new ScramKeyCache())
                     .closeOnShutdown(true);
         }
 
@@ -486,6 +576,66 @@ public final class XmppSessionConfiguration {
             return this;
         }
 
+        /**
+         * Sets the maximal size in bytes of each cache in the cache directory, e.g. of the avatar cache. If a cache
+         * exceeds this size, the least-recently-used entries are evicted. The default is 64 MiB.
+         *
+         * @param bytes The maximal size in bytes.
+         * @return The builder.
+         * @see #getCacheSize()
+         */
+        public final Builder cacheSize(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive.");
+            }
+            this.cacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the cache for the keys, which are derived from the password during SCRAM authentication. Deriving them
+         * is expensive, therefore they are cached in memory by default, so that reconnecting sessions don't need to
+         * derive them again. Pass a cache with a store to keep them (encrypted) across restarts or null, if the keys
+         * should not be cached at all. Cached keys are used regardless of the password, hence sessions, which share
+         * the cache, should use the same credentials.
+         *
+         * @param scramKeyCache The cache or null.
+         * @return The builder.
+         * @see #getScramKeyCache()
+         */
+        public final Builder scramKeyCache(ScramKeyCache scramKeyCache) {
+            this.scramKeyCache = scramKeyCache;
+            return this;
+        }
+
+        /**
+         * Sets the registry, which receives the metrics of the sessions and their connections. By default, metrics are
+         * not collected. Pass a {@link rocks.xmpp.core.metrics.SimpleMetricsRegistry} to keep them in memory, e.g. to
+         * export them via JMX.
+         *
+         * @param metricsRegistry The metrics registry.
+         * @return The builder.
+         * @see #getMetricsRegistry()
+         */
+        public final Builder metricsRegistry(MetricsRegistry metricsRegistry) {
+            this.metricsRegistry = metricsRegistry;
+            return this;
+        }
+
+        /**
+         * Sets the directory, in which the raw traffic of each connection is captured into a memory-mapped ring file.
+         * Unlike a {@linkplain #debugger(Class) debugger}, capturing is cheap enough to be left enabled in production.
+         * Captured files can be read with {@link rocks.xmpp.core.net.capture.TrafficCapture#read(Path)}.
+         *
+         * @param directory The directory or null, if traffic should not be captured.
+         * @return The builder.
+         * @see #getTrafficCaptureDirectory()
+         */
+        public final Builder trafficCaptureDirectory(Path directory) {
+            this.trafficCaptureDirectory = directory;
+            return this;
+        }
+
         /**
          * Sets a supplier for initial presence which is sent during login. If the supplier is null or returns null, no
          * initial presence is sent.
@@ -42,8 +42,8 @@ import rocks.xmpp.extensions.disco.ServiceDiscoveryManager;
 import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
 import rocks.xmpp.extensions.hashes.model.Hash;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.cache.DirectoryCache;
 import rocks.xmpp.util.cache.LruCache;
+import rocks.xmpp.util.cache.PersistentCache;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -59,6 +59,9 @@ public final class ClientEntityCapabilitiesManager implements EntityCapabilities
 
     private static final System.Logger logger = System.getLogger(ClientEntityCapabilitiesManager.class.getName());
 
+    // Capabilities are usually small, store them in a pack file instead of one file per hash.
+    private static final int CAPS_PACK_THRESHOLD = 8192;
+
     // Cache up to 100 capability hashes in memory.
     private static final Map<Hash, DiscoverableInfo> CAPS_CACHE = new LruCache<>(100);
 
@@ -67,14 +70,15 @@ public final class ClientEntityCapabilitiesManager implements EntityCapabilities
 
     private static final Map<Jid, AsyncResult<DiscoverableInfo>> REQUESTS = new ConcurrentHashMap<>();
 
-    private final DirectoryCache directoryCache;
+    private final Map<String, byte[]> directoryCache;
 
     private final XmppSession xmppSession;
 
     public ClientEntityCapabilitiesManager(XmppSession xmppSession) {
         this.xmppSession = xmppSession;
         this.directoryCache = xmppSession.getConfiguration().getCacheDirectory() != null
-                ? new DirectoryCache(xmppSession.getConfiguration().getCacheDirectory().resolve("caps")) : null;
+                ? PersistentCache.open(xmppSession.getConfiguration().getCacheDirectory().resolve("caps"),
+                xmppSession.getConfiguration().getCacheSize(), CAPS_PACK_THRESHOLD) : null;
     }
 
     @Override
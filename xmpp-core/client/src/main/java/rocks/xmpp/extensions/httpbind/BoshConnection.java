@@ -50,7 +50,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -78,7 +77,8 @@ import rocks.xmpp.extensions.httpbind.model.Body;
 import rocks.xmpp.util.XmppStreamDecoder;
 import rocks.xmpp.util.XmppStreamEncoder;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+import rocks.xmpp.util.concurrent.QueuedExecutorService;
 
 /**
  * The abstract base class for BOSH connections.
@@ -98,9 +98,9 @@ public abstract class BoshConnection extends AbstractConnection {
 
     protected static final System.Logger logger = System.getLogger(BoshConnection.class.getName());
 
-    final ScheduledExecutorService inOrderRequestExecutor = new QueuedScheduledExecutorService(HTTP_BIND_EXECUTOR);
+    final ExecutorService inOrderRequestExecutor = new QueuedExecutorService(HTTP_BIND_EXECUTOR);
 
-    final ScheduledExecutorService inOrderResponseExecutor = new QueuedScheduledExecutorService(HTTP_BIND_EXECUTOR);
+    final ExecutorService inOrderResponseExecutor = new QueuedExecutorService(HTTP_BIND_EXECUTOR);
 
     protected final XmppSession xmppSession;
 
@@ -739,9 +739,8 @@ public abstract class BoshConnection extends AbstractConnection {
                 // Wait shortly before sending the next long polling request.
                 // This allows the send method to chime in and send a <body/> with actual payload
                 // instead of an empty body just to "hold the line".
-                inOrderRequestExecutor.schedule(() -> {
-                    sendNewRequest(Body.builder().sessionId(sessionId), false);
-                }, 100, TimeUnit.MILLISECONDS);
+                HashedWheelTimer.shared().newTimeout(() -> inOrderRequestExecutor.execute(
+                        () -> sendNewRequest(Body.builder().sessionId(sessionId), false)), 100, TimeUnit.MILLISECONDS);
             }
         }
     }
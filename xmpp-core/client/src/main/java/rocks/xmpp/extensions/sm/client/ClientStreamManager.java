@@ -243,6 +243,7 @@ public final class ClientStreamManager extends AbstractStreamManager implements
             if (isActive()) {
                 // If the stanza count will be request immediately after, don't flush now, but later.
                 if (requestStanzaCount && xmppSession.getStatus() != XmppSession.Status.CLOSED) {
+                    markRequested();
                     xmppSession.send(StreamManagement.REQUEST);
                 }
             }
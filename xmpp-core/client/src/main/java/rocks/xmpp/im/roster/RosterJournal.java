@@ -0,0 +1,352 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.im.roster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.xml.stream.XMLStreamWriter;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.im.roster.model.Contact;
+import rocks.xmpp.im.roster.model.Roster;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Persists a user's roster as a snapshot plus an append-only journal of roster pushes.
+ *
+ * <p>The snapshot is the full roster as it was written after the last roster result or the last compaction. Every
+ * subsequent roster push is appended to the journal, so that a push only costs marshalling the pushed items. The
+ * journal starts with the version of the snapshot it is based on; a journal which does not belong to the current
+ * snapshot (e.g. because the process died between writing a new snapshot and resetting the journal) is discarded.
+ * Once the journal grows larger than the snapshot or exceeds a number of entries, a new snapshot is written and the
+ * journal is reset.</p>
+ *
+ * <p>The journal is stored next to, but not in the size-bounded snapshot cache, because it is appended to in place.
+ * It is not counted towards the cache size; instead it is bounded by the size of its snapshot (plus one entry) through
+ * compaction. If the snapshot has been evicted from the cache, the journal is deleted when the roster is read.</p>
+ *
+ * <p>Each journal entry is a 4-byte length followed by the UTF-8 encoded roster push. A truncated last entry, e.g.
+ * after a crash during an append, is ignored and cut off.</p>
+ *
+ * @author Christian Schudt
+ */
+final class RosterJournal {
+
+    private static final System.Logger logger = System.getLogger(RosterJournal.class.getName());
+
+    /**
+     * The maximum number of journal entries, before the journal is compacted into a new snapshot.
+     */
+    static final int MAX_ENTRIES = 128;
+
+    private final XmppSession xmppSession;
+
+    private final Map<String, byte[]> snapshots;
+
+    private final Path directory;
+
+    /**
+     * The key of the user, for which the state below is valid.
+     * Guarded by "this".
+     */
+    private String key;
+
+    /**
+     * The version of the snapshot, which the journal is based on. Null, if there's no snapshot yet.
+     * Guarded by "this".
+     */
+    private String snapshotVersion;
+
+    /**
+     * The version of the last journal entry or the snapshot, if there are no entries.
+     * Guarded by "this".
+     */
+    private String version;
+
+    /**
+     * Guarded by "this".
+     */
+    private long snapshotSize;
+
+    /**
+     * Guarded by "this".
+     */
+    private long journalSize;
+
+    /**
+     * Guarded by "this".
+     */
+    private int entries;
+
+    RosterJournal(XmppSession xmppSession, Map<String, byte[]> snapshots, Path directory) {
+        this.xmppSession = xmppSession;
+        this.snapshots = snapshots;
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the roster by replaying the journal on top of the snapshot.
+     *
+     * @param user The user.
+     * @return The roster or null, if there's no cached roster.
+     */
+    synchronized Roster read(Jid user) {
+        reset(user);
+        try {
+            byte[] snapshotData = snapshots.get(key + ".xml");
+            if (snapshotData == null) {
+                // The snapshot may have been evicted from the cache, don't leave its journal behind.
+                Files.deleteIfExists(journalFile());
+                return null;
+            }
+            Roster snapshot = unmarshal(snapshotData);
+            snapshotVersion = snapshot.getVersion();
+            version = snapshotVersion;
+            snapshotSize = snapshotData.length;
+
+            Map<Jid, Contact> contacts = new LinkedHashMap<>();
+            for (Contact contact : snapshot.getContacts()) {
+                contacts.put(contact.getJid(), contact);
+            }
+            replay(contacts);
+            return new Roster(contacts.values(), version);
+        } catch (Exception e) {
+            logger.log(System.Logger.Level.WARNING, "Could not read roster from cache.", e);
+            reset(user);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a new snapshot and resets the journal.
+     *
+     * @param user   The user.
+     * @param roster The full roster.
+     */
+    synchronized void writeSnapshot(Jid user, Roster roster) {
+        if (!keyOf(user).equals(key)) {
+            reset(user);
+        }
+        if (roster.getVersion() != null && !roster.getVersion().equals(version)) {
+            // If the version is unchanged, the roster has been restored from this cache and nothing has changed since.
+            compact(roster);
+        }
+    }
+
+    private void compact(Roster roster) {
+        try {
+            byte[] data = marshal(roster);
+            snapshots.put(key + ".xml", data);
+            snapshotVersion = roster.getVersion();
+            version = snapshotVersion;
+            snapshotSize = data.length;
+            resetJournal();
+        } catch (Exception e) {
+            logger.log(System.Logger.Level.WARNING, "Could not write roster to cache.", e);
+        }
+    }
+
+    /**
+     * Appends a roster push to the journal. If there's no snapshot to append to or if the journal has grown too large,
+     * a new snapshot is written instead.
+     *
+     * @param user     The user.
+     * @param push     The roster push.
+     * @param snapshot Supplies the full roster, if a new snapshot needs to be written.
+     */
+    synchronized void append(Jid user, Roster push, Supplier<Roster> snapshot) {
+        if (push.getVersion() == null) {
+            return;
+        }
+        if (!keyOf(user).equals(key)) {
+            reset(user);
+        }
+        if (snapshotVersion == null || entries >= MAX_ENTRIES || journalSize > snapshotSize) {
+            compact(snapshot.get());
+            return;
+        }
+        try {
+            byte[] data = marshal(push);
+            ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + data.length);
+            entry.putInt(data.length).put(data).flip();
+            try (FileChannel channel = FileChannel.open(journalFile(), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                while (entry.hasRemaining()) {
+                    channel.write(entry);
+                }
+            }
+            journalSize += Integer.BYTES + data.length;
+            entries++;
+            version = push.getVersion();
+        } catch (Exception e) {
+            logger.log(System.Logger.Level.WARNING, "Could not append roster push to cache.", e);
+            // Fall back to a full snapshot, so that the cache does not miss this push.
+            compact(snapshot.get());
+        }
+    }
+
+    /**
+     * Gets the number of entries in the journal.
+     *
+     * @return The number of entries.
+     */
+    synchronized int getEntries() {
+        return entries;
+    }
+
+    private void replay(Map<Jid, Contact> contacts) throws Exception {
+        byte[] journal;
+        try {
+            journal = Files.readAllBytes(journalFile());
+        } catch (NoSuchFileException e) {
+            resetJournal();
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(journal);
+        String baseVersion;
+        try {
+            byte[] header = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(header);
+            baseVersion = new String(header, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException e) {
+            baseVersion = null;
+        }
+        if (!snapshotVersion.equals(baseVersion)) {
+            // The journal belongs to another snapshot.
+            resetJournal();
+            return;
+        }
+        int count = 0;
+        int end = buffer.position();
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            Roster push = unmarshal(journal, buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            for (Contact contact : push.getContacts()) {
+                if (contact.getSubscription() == Contact.Subscription.REMOVE) {
+                    contacts.remove(contact.getJid());
+                } else {
+                    contacts.put(contact.getJid(), contact);
+                }
+            }
+            if (push.getVersion() != null) {
+                version = push.getVersion();
+            }
+            count++;
+            end = buffer.position();
+        }
+        if (end < journal.length) {
+            // Cut off a partially written entry.
+            try (FileChannel channel = FileChannel.open(journalFile(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+        entries = count;
+        journalSize = end;
+    }
+
+    private void resetJournal() throws IOException {
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(Files.newOutputStream(tempFile))) {
+                byte[] header = snapshotVersion.getBytes(StandardCharsets.UTF_8);
+                outputStream.writeShort(header.length);
+                outputStream.write(header);
+            }
+            Files.move(tempFile, journalFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        journalSize = Files.size(journalFile());
+        entries = 0;
+    }
+
+    private void reset(Jid user) {
+        key = keyOf(user);
+        snapshotVersion = null;
+        version = null;
+        snapshotSize = 0;
+        journalSize = 0;
+        entries = 0;
+    }
+
+    private Path journalFile() {
+        return directory.resolve(key + ".journal");
+    }
+
+    private static String keyOf(Jid user) {
+        return XmppUtils.hash(user.asBareJid().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] marshal(Roster roster) throws Exception {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+            XMLStreamWriter xmppStreamWriter = null;
+            try {
+                xmppStreamWriter = XmppUtils.createXmppStreamWriter(
+                        xmppSession.getConfiguration().getXmlOutputFactory()
+                                .createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name()));
+                xmppSession.createMarshaller().marshal(roster, xmppStreamWriter);
+                xmppStreamWriter.flush();
+            } finally {
+                if (xmppStreamWriter != null) {
+                    xmppStreamWriter.close();
+                }
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private Roster unmarshal(byte[] data) throws Exception {
+        return unmarshal(data, 0, data.length);
+    }
+
+    private Roster unmarshal(byte[] data, int offset, int length) throws Exception {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data, offset, length),
+                StandardCharsets.UTF_8)) {
+            return (Roster) xmppSession.createUnmarshaller().unmarshal(reader);
+        }
+    }
+}
@@ -24,11 +24,7 @@
 
 package rocks.xmpp.im.roster;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -45,7 +41,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import javax.xml.stream.XMLStreamWriter;
 
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.ExtensionProtocol;
@@ -62,7 +57,7 @@ import rocks.xmpp.im.roster.model.Roster;
 import rocks.xmpp.im.roster.versioning.model.RosterVersioning;
 import rocks.xmpp.im.subscription.PresenceManager;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.cache.DirectoryCache;
+import rocks.xmpp.util.cache.PersistentCache;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -107,7 +102,7 @@ public final class RosterManager extends AbstractIQHandler implements ExtensionP
 
     private final Set<Consumer<RosterEvent>> rosterListeners = new CopyOnWriteArraySet<>();
 
-    private final Map<String, byte[]> rosterCacheDirectory;
+    private final RosterJournal rosterJournal;
 
     /**
      * guarded by "this"
@@ -147,8 +142,10 @@ public final class RosterManager extends AbstractIQHandler implements ExtensionP
         super(Roster.class, IQ.Type.SET);
         privateDataManager = xmppSession.getManager(PrivateDataManager.class);
         this.xmppSession = xmppSession;
-        this.rosterCacheDirectory = xmppSession.getConfiguration().getCacheDirectory() != null
-                ? new DirectoryCache(xmppSession.getConfiguration().getCacheDirectory().resolve("rosterver")) : null;
+        Path cacheDirectory = xmppSession.getConfiguration().getCacheDirectory();
+        this.rosterJournal = cacheDirectory != null
+                ? new RosterJournal(xmppSession, PersistentCache.open(cacheDirectory.resolve("rosterver"),
+                xmppSession.getConfiguration().getCacheSize(), 0), cacheDirectory.resolve("rosterjournal")) : null;
     }
 
     /**
@@ -223,6 +220,8 @@ public final class RosterManager extends AbstractIQHandler implements ExtensionP
             if (!isRosterPush) {
                 rosterGroupMap.clear();
                 contactMap.clear();
+                groups.clear();
+                unaffiliatedContacts.clear();
             }
 
             // Loop through the new roster and compare it with the old one.
@@ -239,6 +238,21 @@ public final class RosterManager extends AbstractIQHandler implements ExtensionP
                     addedContacts.add(contact);
                 }
 
+                // Only touch the groups the contact was or is in, instead of walking the whole group tree.
+                Collection<ContactGroup> oldGroups = new ArrayDeque<>();
+                if (oldContact != null) {
+                    for (String group : oldContact.getGroups()) {
+                        ContactGroup contactGroup = rosterGroupMap.get(group);
+                        if (contactGroup != null) {
+                            removeFromContacts(oldContact, contactGroup.getContacts());
+                            oldGroups.add(contactGroup);
+                        }
+                    }
+                    if (oldContact.getGroups().isEmpty()) {
+                        removeFromContacts(oldContact, unaffiliatedContacts);
+                    }
+                }
+
                 if (contact.getSubscription() != Contact.Subscription.REMOVE) {
 
                     for (String group : contact.getGroups()) {
@@ -274,119 +288,74 @@ public final class RosterManager extends AbstractIQHandler implements ExtensionP
                             }
                         }
                         if (currentGroup != null) {
-                            removeContactByJid(contact, currentGroup.getContacts());
                             currentGroup.getContacts().add(contact);
                         }
                     }
+                    // Add the contact to the list of unaffiliated contacts, if it has no groups and it hasn't been
+                    // removed from the roster.
+                    if (contact.getGroups().isEmpty()) {
+                        unaffiliatedContacts.add(contact);
+                    }
                 }
-                removeContactByJid(contact, unaffiliatedContacts);
-                // Add the contact to the list of unaffiliated contacts, if it has no groups and it hasn't been
-                // removed from the roster.
-                if (contact.getGroups().isEmpty() && contact.getSubscription() != Contact.Subscription.REMOVE) {
-                    unaffiliatedContacts.add(contact);
-                }
-                removeContactsFromGroups(contact, groups);
+                // Groups, which the contact has left, are removed, if they became empty.
+                oldGroups.forEach(this::removeIfEmpty);
             }
-            cacheRoster(roster.getVersion());
+            cacheRoster(roster, isRosterPush);
         }
         XmppUtils.notifyEventListeners(rosterListeners,
                 new RosterEvent(this, addedContacts, updatedContacts, removedContacts));
     }
 
-    private void cacheRoster(String version) {
-        if (rosterCacheDirectory != null && version != null) {
-            Roster roster = new Roster(contactMap.values(), version);
-            try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                XMLStreamWriter xmppStreamWriter = null;
-                try {
-                    xmppStreamWriter = XmppUtils.createXmppStreamWriter(
-                            xmppSession.getConfiguration().getXmlOutputFactory()
-                                    .createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name()));
-                    xmppSession.createMarshaller().marshal(roster, xmppStreamWriter);
-                    xmppStreamWriter.flush();
-                } finally {
-                    if (xmppStreamWriter != null) {
-                        xmppStreamWriter.close();
-                    }
-                }
-                rosterCacheDirectory.put(XmppUtils.hash(xmppSession.getConnectedResource().asBareJid().toString()
-                        .getBytes(StandardCharsets.UTF_8)) + ".xml", outputStream.toByteArray());
-            } catch (Exception e) {
-                logger.log(System.Logger.Level.WARNING, "Could not write roster to cache.", e);
+    /**
+     * Removes an empty group from its parent (or the top level groups) and continues with the parent, which might have
+     * become empty as well.
+     *
+     * @param contactGroup The contact group.
+     */
+    private void removeIfEmpty(ContactGroup contactGroup) {
+        ContactGroup group = contactGroup;
+        while (group != null && group.getContacts().isEmpty() && group.getGroups().isEmpty()) {
+            rosterGroupMap.remove(group.getFullName());
+            ContactGroup parentGroup = group.getParentGroup();
+            if (parentGroup != null) {
+                parentGroup.getGroups().remove(group);
+            } else {
+                groups.remove(group);
             }
+            group = parentGroup;
         }
     }
 
-    private Roster readRosterFromCache() {
-        if (rosterCacheDirectory != null) {
-            try {
-                byte[] rosterData = rosterCacheDirectory.get(XmppUtils
-                        .hash(xmppSession.getConnectedResource().asBareJid().toString()
-                                .getBytes(StandardCharsets.UTF_8)) + ".xml");
-                if (rosterData != null) {
-                    try (Reader reader = new InputStreamReader(new ByteArrayInputStream(rosterData),
-                            StandardCharsets.UTF_8)) {
-                        return (Roster) xmppSession.createUnmarshaller().unmarshal(reader);
-                    }
-                }
-            } catch (Exception e) {
-                logger.log(System.Logger.Level.WARNING, "Could not read roster from cache.", e);
+    private void cacheRoster(Roster roster, boolean isRosterPush) {
+        if (rosterJournal != null && roster.getVersion() != null) {
+            Jid user = xmppSession.getConnectedResource();
+            if (isRosterPush) {
+                // Only append the pushed items. The full roster is only written, if the journal needs compaction.
+                rosterJournal.append(user, roster, () -> new Roster(contactMap.values(), roster.getVersion()));
+            } else {
+                rosterJournal.writeSnapshot(user, new Roster(contactMap.values(), roster.getVersion()));
             }
         }
-        return null;
     }
 
-    private static void removeContactByJid(Contact contact, Collection<Contact> contacts) {
-        for (Contact c : contacts) {
-            if (c.getJid().equals(contact.getJid())) {
-                contacts.remove(c);
-                break;
-            }
-        }
+    private Roster readRosterFromCache() {
+        return rosterJournal != null ? rosterJournal.read(xmppSession.getConnectedResource()) : null;
     }
 
-    /**
-     * Recursively removes the contact from the groups and subsequently removes all empty groups.
-     *
-     * @param contact       The contact.
-     * @param contactGroups The contact groups.
-     */
-    private void removeContactsFromGroups(Contact contact, Collection<ContactGroup> contactGroups) {
-        Collection<ContactGroup> emptyGroups = new ArrayDeque<>();
-        // Recursively remove the contact from the nested subgroups.
-        // If the nested group is empty, it can be removed.
-        contactGroups.stream().filter(group -> removeRecursively(contact, group)).forEach(group -> {
-            emptyGroups.add(group);
-            rosterGroupMap.remove(group.getFullName());
-        });
-        // Remove all empty sub groups
-        contactGroups.removeAll(emptyGroups);
+    private static void removeFromContacts(Contact contact, Collection<Contact> contacts) {
+        // The contact instance is usually the one which has been added, so the sorted set can find it directly.
+        if (!contacts.remove(contact)) {
+            removeContactByJid(contact, contacts);
+        }
     }
 
-    private boolean removeRecursively(final Contact contact, final ContactGroup contactGroup) {
-        // Recursively remove the contacts from nested groups.
-        removeContactsFromGroups(contact, contactGroup.getGroups());
-
-        // Check, if the contact still exists in the group.
-        boolean contactExistsInGroup = false;
-        for (Contact c : contactGroup.getContacts()) {
+    private static void removeContactByJid(Contact contact, Collection<Contact> contacts) {
+        for (Contact c : contacts) {
             if (c.getJid().equals(contact.getJid())) {
-                for (String groupName : contact.getGroups()) {
-                    if (groupName.equals(contactGroup.getFullName())) {
-                        contactExistsInGroup = true;
-                        break;
-                    }
-                }
+                contacts.remove(c);
                 break;
             }
         }
-
-        //  If the contact does not exist or was removed, remove it.
-        if (!contactExistsInGroup || contact.getSubscription() == Contact.Subscription.REMOVE) {
-            removeContactByJid(contact, contactGroup.getContacts());
-        }
-        // Return, if the group is empty, so that the parent group can remove it.
-        return contactGroup.getContacts().isEmpty() && contactGroup.getGroups().isEmpty();
     }
 
     /**
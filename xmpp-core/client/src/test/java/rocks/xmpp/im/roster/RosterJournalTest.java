@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.im.roster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.TestXmppSession;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.im.roster.model.Contact;
+import rocks.xmpp.im.roster.model.Roster;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class RosterJournalTest {
+
+    private static final Jid USER = Jid.of("test@domain/resource");
+
+    private final Map<String, byte[]> snapshots = new HashMap<>();
+
+    private final XmppSession xmppSession = new TestXmppSession();
+
+    private Path directory;
+
+    private static Roster noSnapshot() {
+        throw new AssertionError("Roster push should have been appended to the journal.");
+    }
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        snapshots.clear();
+        directory = Files.createTempDirectory(Paths.get("."), "roster_test");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testReplayJournal() throws IOException {
+        RosterJournal journal = new RosterJournal(xmppSession, snapshots, directory);
+        Assert.assertNull(journal.read(USER));
+
+        List<Contact> contacts = new ArrayList<>();
+        contacts.add(new Contact(Jid.of("contact1@domain"), "contact1", "group1"));
+        contacts.add(new Contact(Jid.of("contact2@domain"), "contact2", "group2"));
+        journal.writeSnapshot(USER, new Roster(contacts, "1"));
+        Assert.assertEquals(snapshots.size(), 1);
+
+        journal.append(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact3@domain"), "contact3")), "2"),
+                RosterJournalTest::noSnapshot);
+        journal.append(USER, new Roster(Collections.singleton(Contact.removeContact(Jid.of("contact1@domain"))), "3"),
+                RosterJournalTest::noSnapshot);
+        Assert.assertEquals(journal.getEntries(), 2);
+
+        // Simulate a crash during an append.
+        Files.write(directory.resolve(XmppUtils.hash("test@domain".getBytes(StandardCharsets.UTF_8)) + ".journal"),
+                new byte[] { 0, 0, 1, 0, '<' }, StandardOpenOption.APPEND);
+
+        Roster roster = new RosterJournal(xmppSession, snapshots, directory).read(USER);
+        Assert.assertNotNull(roster);
+        Assert.assertEquals(roster.getVersion(), "3");
+        Assert.assertEquals(roster.getContacts().size(), 2);
+        Assert.assertEquals(roster.getContacts().get(0).getJid(), Jid.of("contact2@domain"));
+        Assert.assertEquals(roster.getContacts().get(1).getJid(), Jid.of("contact3@domain"));
+    }
+
+    @Test
+    public void testCompaction() {
+        RosterJournal journal = new RosterJournal(xmppSession, snapshots, directory);
+        Map<Jid, Contact> contacts = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            Contact contact = new Contact(Jid.of("contact" + i + "@domain"), "contact" + i, "group" + i % 10);
+            contacts.put(contact.getJid(), contact);
+        }
+        journal.writeSnapshot(USER, new Roster(contacts.values(), "0"));
+        for (int i = 1; i <= 2 * RosterJournal.MAX_ENTRIES; i++) {
+            Contact contact = new Contact(Jid.of("contact" + i + "@domain"), "renamed" + i);
+            contacts.put(contact.getJid(), contact);
+            String version = Integer.toString(i);
+            journal.append(USER, new Roster(Collections.singleton(contact), version),
+                    () -> new Roster(contacts.values(), version));
+            Assert.assertTrue(journal.getEntries() <= RosterJournal.MAX_ENTRIES);
+        }
+
+        Roster roster = new RosterJournal(xmppSession, snapshots, directory).read(USER);
+        Assert.assertNotNull(roster);
+        Assert.assertEquals(roster.getVersion(), Integer.toString(2 * RosterJournal.MAX_ENTRIES));
+        Assert.assertEquals(roster.getContacts().size(), 500);
+        for (Contact contact : roster.getContacts()) {
+            Assert.assertEquals(contact, contacts.get(contact.getJid()));
+        }
+    }
+
+    @Test
+    public void testStaleJournalIsDiscarded() {
+        RosterJournal journal = new RosterJournal(xmppSession, snapshots, directory);
+        journal.writeSnapshot(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact1@domain"))), "1"));
+        journal.append(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact2@domain"))), "2"),
+                RosterJournalTest::noSnapshot);
+
+        // A newer snapshot, whose journal reset did not happen.
+        Map<String, byte[]> otherSnapshots = new HashMap<>();
+        new RosterJournal(xmppSession, otherSnapshots, directory.resolve("other"))
+                .writeSnapshot(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact3@domain"))), "5"));
+        snapshots.putAll(otherSnapshots);
+
+        Roster roster = new RosterJournal(xmppSession, snapshots, directory).read(USER);
+        Assert.assertNotNull(roster);
+        Assert.assertEquals(roster.getVersion(), "5");
+        Assert.assertEquals(roster.getContacts().size(), 1);
+        Assert.assertEquals(roster.getContacts().get(0).getJid(), Jid.of("contact3@domain"));
+    }
+
+    @Test
+    public void testJournalOfEvictedSnapshotIsDeleted() {
+        RosterJournal journal = new RosterJournal(xmppSession, snapshots, directory);
+        journal.writeSnapshot(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact1@domain"))), "1"));
+        journal.append(USER, new Roster(Collections.singleton(new Contact(Jid.of("contact2@domain"))), "2"),
+                RosterJournalTest::noSnapshot);
+        Path journalFile = directory.resolve(XmppUtils.hash("test@domain".getBytes(StandardCharsets.UTF_8))
+                + ".journal");
+        Assert.assertTrue(Files.exists(journalFile));
+
+        // Simulate the eviction of the snapshot.
+        snapshots.clear();
+
+        Assert.assertNull(new RosterJournal(xmppSession, snapshots, directory).read(USER));
+        Assert.assertTrue(Files.notExists(journalFile));
+    }
+}
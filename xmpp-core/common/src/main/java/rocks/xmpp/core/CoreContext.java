@@ -29,6 +29,7 @@ import java.util.Arrays;
 import rocks.xmpp.core.bind.model.Bind;
 import rocks.xmpp.core.sasl.model.Mechanisms;
 import rocks.xmpp.core.session.model.Session;
+import rocks.xmpp.core.stanza.model.LazyExtension;
 import rocks.xmpp.core.stanza.model.client.ClientIQ;
 import rocks.xmpp.core.stanza.model.client.ClientMessage;
 import rocks.xmpp.core.stanza.model.client.ClientPresence;
@@ -81,6 +82,9 @@ public final class CoreContext implements XmppContext {
                 Bind.class, Mechanisms.class, StartTls.class, SubscriptionPreApproval.class, RosterVersioning.class,
                 Roster.class,
 
+                // Placeholder for extensions, which are not yet unmarshalled.
+                LazyExtension.class,
+
                 // XEP-0004: Data Forms
                 DataForm.class,
 
@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded when a reader or writer interceptor chain has been traversed.
+ *
+ * @author Christian Schudt
+ * @see rocks.xmpp.core.net.ReaderInterceptorChain
+ * @see rocks.xmpp.core.net.WriterInterceptorChain
+ */
+@Name("rocks.xmpp.InterceptorChain")
+@Label("Interceptor Chain")
+@Description("Traversal of a reader or writer interceptor chain")
+@Category({"XMPP", "Codec"})
+@StackTrace(false)
+public final class InterceptorChainEvent extends Event {
+
+    @Label("Direction")
+    @Description("Either 'read' or 'write'")
+    public String direction;
+
+    @Label("Interceptors")
+    @Description("The number of interceptors, which have been called")
+    public int interceptors;
+
+    @Label("Connection Type")
+    public Class<?> connectionType;
+}
@@ -0,0 +1,280 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.metrics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+
+/**
+ * Counts the elements and bytes, which are sent and received over a single connection.
+ *
+ * <p>Each value is counted per connection and is additionally added to the counters of the registry, so that the
+ * registry provides the totals over all connections:</p>
+ *
+ * <ul>
+ * <li>{@code xmpp.elements.in.<kind>} and {@code xmpp.elements.out.<kind>}, where kind is one of {@code message},
+ * {@code presence}, {@code iq} or {@code other}</li>
+ * <li>{@code xmpp.bytes.in} and {@code xmpp.bytes.out}</li>
+ * <li>{@code xmpp.connections.opened} and {@code xmpp.connections.closed}</li>
+ * <li>{@code xmpp.connections.lifetime}, the summed up lifetime of all closed connections in milliseconds</li>
+ * <li>{@code xmpp.connections.secured} and {@code xmpp.connections.compressed}</li>
+ * </ul>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ConnectionMetrics {
+
+    private final Instant created = Instant.now();
+
+    private final LongAdder[] elementsIn = new LongAdder[Kind.values().length];
+
+    private final LongAdder[] elementsOut = new LongAdder[Kind.values().length];
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final Counter[] totalElementsIn = new Counter[Kind.values().length];
+
+    private final Counter[] totalElementsOut = new Counter[Kind.values().length];
+
+    private final Counter totalBytesIn;
+
+    private final Counter totalBytesOut;
+
+    private final Counter connectionsClosed;
+
+    private final Counter connectionsLifetime;
+
+    private final Counter connectionsSecured;
+
+    private final Counter connectionsCompressed;
+
+    private volatile Instant closed;
+
+    private volatile boolean secured;
+
+    private volatile boolean compressed;
+
+    /**
+     * @param registry The registry, which receives the totals.
+     */
+    public ConnectionMetrics(final MetricsRegistry registry) {
+        for (final Kind kind : Kind.values()) {
+            elementsIn[kind.ordinal()] = new LongAdder();
+            elementsOut[kind.ordinal()] = new LongAdder();
+            totalElementsIn[kind.ordinal()] = registry.counter("xmpp.elements.in." + kind.label);
+            totalElementsOut[kind.ordinal()] = registry.counter("xmpp.elements.out." + kind.label);
+        }
+        totalBytesIn = registry.counter("xmpp.bytes.in");
+        totalBytesOut = registry.counter("xmpp.bytes.out");
+        connectionsClosed = registry.counter("xmpp.connections.closed");
+        connectionsLifetime = registry.counter("xmpp.connections.lifetime");
+        connectionsSecured = registry.counter("xmpp.connections.secured");
+        connectionsCompressed = registry.counter("xmpp.connections.compressed");
+        registry.counter("xmpp.connections.opened").increment();
+    }
+
+    /**
+     * Counts a received element.
+     *
+     * @param element The element.
+     */
+    public final void elementReceived(final Object element) {
+        final Kind kind = Kind.of(element);
+        elementsIn[kind.ordinal()].increment();
+        totalElementsIn[kind.ordinal()].increment();
+    }
+
+    /**
+     * Counts a sent element.
+     *
+     * @param element The element.
+     */
+    public final void elementSent(final Object element) {
+        final Kind kind = Kind.of(element);
+        elementsOut[kind.ordinal()].increment();
+        totalElementsOut[kind.ordinal()].increment();
+    }
+
+    /**
+     * Counts received bytes.
+     *
+     * @param bytes The number of bytes.
+     */
+    public final void bytesReceived(final long bytes) {
+        bytesIn.add(bytes);
+        totalBytesIn.add(bytes);
+    }
+
+    /**
+     * Counts sent bytes.
+     *
+     * @param bytes The number of bytes.
+     */
+    public final void bytesSent(final long bytes) {
+        bytesOut.add(bytes);
+        totalBytesOut.add(bytes);
+    }
+
+    /**
+     * Marks the connection as secured by TLS.
+     */
+    public final void secured() {
+        secured = true;
+        connectionsSecured.increment();
+    }
+
+    /**
+     * Marks the connection as compressed.
+     */
+    public final void compressed() {
+        compressed = true;
+        connectionsCompressed.increment();
+    }
+
+    /**
+     * Marks the connection as closed. Only the first invocation is counted.
+     */
+    public final synchronized void closed() {
+        if (closed == null) {
+            closed = Instant.now();
+            connectionsClosed.increment();
+            connectionsLifetime.add(Duration.between(created, closed).toMillis());
+        }
+    }
+
+    /**
+     * Gets the number of received elements of a kind.
+     *
+     * @param kind The kind of element.
+     * @return The number of received elements.
+     */
+    public final long getElementsReceived(final Kind kind) {
+        return elementsIn[kind.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of sent elements of a kind.
+     *
+     * @param kind The kind of element.
+     * @return The number of sent elements.
+     */
+    public final long getElementsSent(final Kind kind) {
+        return elementsOut[kind.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of received bytes.
+     *
+     * @return The number of received bytes.
+     */
+    public final long getBytesReceived() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Gets the number of sent bytes.
+     *
+     * @return The number of sent bytes.
+     */
+    public final long getBytesSent() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Indicates, whether the connection has been secured by TLS.
+     *
+     * @return True, if secured.
+     */
+    public final boolean isSecured() {
+        return secured;
+    }
+
+    /**
+     * Indicates, whether the connection has been compressed.
+     *
+     * @return True, if compressed.
+     */
+    public final boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Gets the lifetime of the connection, i.e. the duration since it has been created until it has been closed or
+     * until now, if it is still open.
+     *
+     * @return The lifetime.
+     */
+    public final Duration getLifetime() {
+        final Instant end = closed;
+        return Duration.between(created, end != null ? end : Instant.now());
+    }
+
+    /**
+     * The kind of an element.
+     */
+    public enum Kind {
+        /**
+         * A message stanza.
+         */
+        MESSAGE("message"),
+        /**
+         * A presence stanza.
+         */
+        PRESENCE("presence"),
+        /**
+         * An IQ stanza.
+         */
+        IQ("iq"),
+        /**
+         * Any other element, e.g. a stream header or a stream management element.
+         */
+        OTHER("other");
+
+        private final String label;
+
+        Kind(final String label) {
+            this.label = label;
+        }
+
+        static Kind of(final Object element) {
+            if (element instanceof Message) {
+                return MESSAGE;
+            } else if (element instanceof Presence) {
+                return PRESENCE;
+            } else if (element instanceof rocks.xmpp.core.stanza.model.IQ) {
+                return IQ;
+            }
+            return OTHER;
+        }
+    }
+}
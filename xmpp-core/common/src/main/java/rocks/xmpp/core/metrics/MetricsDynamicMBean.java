@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.metrics;
+
+import java.util.Objects;
+import java.util.Set;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exports the counters and gauges of a {@link SimpleMetricsRegistry} as read-only JMX attributes.
+ *
+ * <pre>{@code
+ * ManagementFactory.getPlatformMBeanServer()
+ *     .registerMBean(new MetricsDynamicMBean(registry), new ObjectName("rocks.xmpp:type=Metrics"));
+ * }</pre>
+ *
+ * <p>Counters and gauges, which are created after registration, are exposed as well, because the attributes are
+ * determined each time the MBean info is requested.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class MetricsDynamicMBean implements DynamicMBean {
+
+    private final SimpleMetricsRegistry registry;
+
+    /**
+     * @param registry The registry, whose values are exported.
+     */
+    public MetricsDynamicMBean(final SimpleMetricsRegistry registry) {
+        this.registry = Objects.requireNonNull(registry);
+    }
+
+    @Override
+    public final Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Long value = registry.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public final void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read-only.");
+    }
+
+    @Override
+    public final AttributeList getAttributes(final String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (final String name : attributes) {
+            final Long value = registry.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public final AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public final Object invoke(final String actionName, final Object[] params, final String[] signature)
+            throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public final MBeanInfo getMBeanInfo() {
+        final Set<String> names = registry.getNames();
+        final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.size()];
+        int i = 0;
+        for (final String name : names) {
+            attributes[i++] = new MBeanAttributeInfo(name, long.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "XMPP Metrics", attributes, null, new MBeanOperationInfo[0],
+                new MBeanNotificationInfo[0]);
+    }
+}
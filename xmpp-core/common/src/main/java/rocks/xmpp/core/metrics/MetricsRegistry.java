@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics SPI, which provides named counters and gauges.
+ *
+ * <p>Metrics names are dot-separated, e.g. {@code xmpp.elements.in.message}. Counters should be looked up once and
+ * then kept, so that incrementing them is cheap.</p>
+ *
+ * @author Christian Schudt
+ * @see #noop()
+ * @see SimpleMetricsRegistry
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Gets a registry, which ignores all values. It is the default registry.
+     *
+     * @return The no-op registry.
+     */
+    static MetricsRegistry noop() {
+        return NoOpMetricsRegistry.INSTANCE;
+    }
+
+    /**
+     * Gets or creates the counter with the given name.
+     *
+     * @param name The name.
+     * @return The counter.
+     */
+    Counter counter(String name);
+
+    /**
+     * Registers a gauge, i.e. a value which is sampled when it is read, e.g. a queue size. If multiple gauges are
+     * registered with the same name (e.g. by multiple sessions), their values are summed up.
+     *
+     * @param name  The name.
+     * @param value Supplies the current value.
+     * @return The registration, which must be closed, when the gauge is no longer valid.
+     */
+    Registration gauge(String name, LongSupplier value);
+
+    /**
+     * The registration of a gauge.
+     */
+    @FunctionalInterface
+    interface Registration extends AutoCloseable {
+
+        /**
+         * Removes the gauge from the registry.
+         */
+        @Override
+        void close();
+    }
+}
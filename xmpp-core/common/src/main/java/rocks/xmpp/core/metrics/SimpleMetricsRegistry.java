@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry which keeps its counters in memory. Counters are backed by {@link LongAdder}s, so that they scale under
+ * contention.
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see MetricsDynamicMBean
+ */
+public final class SimpleMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentMap<String, LongAdderCounter> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<LongSupplier>> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public final Counter counter(final String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdderCounter());
+    }
+
+    @Override
+    public final Registration gauge(final String name, final LongSupplier value) {
+        // Wrap the supplier, so that the same supplier can be registered multiple times.
+        final LongSupplier gauge = value::getAsLong;
+        // Add (and remove) within the mapping function, so that closing the last gauge can't drop a concurrent one.
+        gauges.compute(name, (key, set) -> {
+            final Set<LongSupplier> result = set != null ? set : ConcurrentHashMap.newKeySet();
+            result.add(gauge);
+            return result;
+        });
+        return () -> gauges.computeIfPresent(name, (key, set) -> (set.remove(gauge) && set.isEmpty()) ? null : set);
+    }
+
+    /**
+     * Gets the names of all counters and gauges.
+     *
+     * @return The sorted names.
+     */
+    public final Set<String> getNames() {
+        final Set<String> names = new TreeSet<>(counters.keySet());
+        names.addAll(gauges.keySet());
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Gets the current value of a counter or gauge.
+     *
+     * @param name The name.
+     * @return The value or null, if there's no counter or gauge with this name.
+     */
+    public final Long get(final String name) {
+        final LongAdderCounter counter = counters.get(name);
+        if (counter != null) {
+            return counter.get();
+        }
+        final Set<LongSupplier> suppliers = gauges.get(name);
+        if (suppliers != null) {
+            long sum = 0;
+            for (final LongSupplier supplier : suppliers) {
+                sum += supplier.getAsLong();
+            }
+            return sum;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the current values of all counters and gauges.
+     *
+     * @return The values, sorted by name.
+     */
+    public final SortedMap<String, Long> snapshot() {
+        final SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (final String name : getNames()) {
+            final Long value = get(name);
+            if (value != null) {
+                snapshot.put(name, value);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public final String toString() {
+        return snapshot().toString();
+    }
+
+    private static final class LongAdderCounter implements Counter {
+
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public final void increment() {
+            adder.increment();
+        }
+
+        @Override
+        public final void add(final long delta) {
+            adder.add(delta);
+        }
+
+        @Override
+        public final long get() {
+            return adder.sum();
+        }
+    }
+}
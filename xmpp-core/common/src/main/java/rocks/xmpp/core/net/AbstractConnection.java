@@ -33,6 +33,8 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 
 import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.metrics.ConnectionMetrics;
+import rocks.xmpp.core.metrics.MetricsRegistry;
 import rocks.xmpp.core.session.model.SessionClose;
 import rocks.xmpp.core.session.model.SessionOpen;
 import rocks.xmpp.core.stream.StreamHandler;
@@ -56,14 +58,24 @@ public abstract class AbstractConnection implements Connection, StreamHandler {
 
     private final Consumer<Throwable> onException;
 
+    private final ConnectionMetrics metrics;
+
     private String streamId;
 
     protected AbstractConnection(ConnectionConfiguration connectionConfiguration,
                                  StreamHandler streamHandler,
                                  Consumer<Throwable> onException) {
+        this(connectionConfiguration, streamHandler, onException, MetricsRegistry.noop());
+    }
+
+    protected AbstractConnection(ConnectionConfiguration connectionConfiguration,
+                                 StreamHandler streamHandler,
+                                 Consumer<Throwable> onException,
+                                 MetricsRegistry metricsRegistry) {
         this.connectionConfiguration = connectionConfiguration;
         this.streamHandler = streamHandler;
         this.onException = onException;
+        this.metrics = new ConnectionMetrics(metricsRegistry);
     }
 
     @Override
@@ -76,8 +88,18 @@ public abstract class AbstractConnection implements Connection, StreamHandler {
         return false;
     }
 
+    /**
+     * Gets the metrics of this connection.
+     *
+     * @return The metrics.
+     */
+    public final ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public boolean handleElement(final Object streamElement) {
+        metrics.elementReceived(streamElement);
         if (streamElement instanceof SessionOpen) {
             synchronized (this) {
                 streamId = ((SessionOpen) streamElement).getId();
@@ -129,12 +151,11 @@ public abstract class AbstractConnection implements Connection, StreamHandler {
     @Override
     public final CompletionStage<Void> closeAsync() {
         if (closed.compareAndSet(false, true)) {
+            metrics.closed();
             // First close XMPP layer stream
             return closeStream()
                     // Then wait for the reception of the peer's closing element or timeout.
-                    .thenCompose(v -> closedByPeer
-                            .applyToEither(CompletionStages.timeoutAfter(500, TimeUnit.MILLISECONDS),
-                                    Function.identity()))
+                    .thenCompose(v -> CompletionStages.orTimeout(closedByPeer, 500, TimeUnit.MILLISECONDS))
                     .handle((aVoid, exc) -> closeConnection())
                     // Then compose this future with the returned channel future, kind of flat mapping it.
                     .thenCompose(Function.identity());
@@ -25,6 +25,7 @@
 package rocks.xmpp.core.net;
 
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.jfr.InterceptorChainEvent;
 
 /**
  * Abstract base class for reader and writer interceptor chains.
@@ -39,9 +40,49 @@ abstract class AbstractInterceptorChain {
 
     private final Connection connection;
 
-    AbstractInterceptorChain(Session session, Connection connection) {
+    private final String direction;
+
+    private int depth;
+
+    private int interceptors;
+
+    AbstractInterceptorChain(Session session, Connection connection, String direction) {
         this.connection = connection;
         this.session = session;
+        this.direction = direction;
+    }
+
+    /**
+     * Called before the next interceptor is called. Starts recording the traversal, if this is the first interceptor.
+     *
+     * @return The event, if this is the first interceptor, otherwise null.
+     */
+    final InterceptorChainEvent beforeInterceptor() {
+        interceptors++;
+        if (depth++ == 0) {
+            final InterceptorChainEvent event = new InterceptorChainEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    /**
+     * Called after an interceptor has returned. Commits the recorded traversal, if this was the first interceptor.
+     *
+     * @param event The event, which has been returned by {@link #beforeInterceptor()}.
+     */
+    final void afterInterceptor(final InterceptorChainEvent event) {
+        depth--;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.direction = direction;
+                event.interceptors = interceptors;
+                event.connectionType = connection != null ? connection.getClass() : null;
+                event.commit();
+            }
+        }
     }
 
     /**
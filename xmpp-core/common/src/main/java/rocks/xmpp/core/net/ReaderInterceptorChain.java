@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.function.Consumer;
 
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.jfr.InterceptorChainEvent;
 import rocks.xmpp.core.stream.model.StreamElement;
 
 /**
@@ -44,7 +45,7 @@ public final class ReaderInterceptorChain extends AbstractInterceptorChain {
 
     public ReaderInterceptorChain(Iterable<ReaderInterceptor> readerInterceptors, Session session,
                                   Connection connection) {
-        super(session, connection);
+        super(session, connection, "read");
         iterator = readerInterceptors.iterator();
     }
 
@@ -58,7 +59,12 @@ public final class ReaderInterceptorChain extends AbstractInterceptorChain {
     public void proceed(Reader reader, Consumer<StreamElement> streamElement) throws Exception {
         if (iterator.hasNext()) {
             ReaderInterceptor readerInterceptor = iterator.next();
-            readerInterceptor.process(reader, streamElement, this);
+            final InterceptorChainEvent event = beforeInterceptor();
+            try {
+                readerInterceptor.process(reader, streamElement, this);
+            } finally {
+                afterInterceptor(event);
+            }
         }
     }
 }
@@ -26,6 +26,7 @@ package rocks.xmpp.core.net;
 
 import java.util.function.Consumer;
 
+import rocks.xmpp.core.metrics.MetricsRegistry;
 import rocks.xmpp.core.stream.StreamHandler;
 
 /**
@@ -41,6 +42,13 @@ public abstract class TcpConnection extends AbstractConnection {
         super(connectionConfiguration, streamHandler, onException);
     }
 
+    protected TcpConnection(ConnectionConfiguration connectionConfiguration,
+                            StreamHandler streamHandler,
+                            Consumer<Throwable> onException,
+                            MetricsRegistry metricsRegistry) {
+        super(connectionConfiguration, streamHandler, onException, metricsRegistry);
+    }
+
     /**
      * Secures the connection with TLS.
      *
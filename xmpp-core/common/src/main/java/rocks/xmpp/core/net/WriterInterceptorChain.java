@@ -28,6 +28,7 @@ import java.io.Writer;
 import java.util.Iterator;
 
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.jfr.InterceptorChainEvent;
 import rocks.xmpp.core.stream.model.StreamElement;
 
 /**
@@ -43,7 +44,7 @@ public final class WriterInterceptorChain extends AbstractInterceptorChain {
 
     public WriterInterceptorChain(Iterable<WriterInterceptor> writerInterceptors, Session session,
                                   Connection connection) {
-        super(session, connection);
+        super(session, connection, "write");
         iterator = writerInterceptors.iterator();
     }
 
@@ -57,7 +58,12 @@ public final class WriterInterceptorChain extends AbstractInterceptorChain {
     public void proceed(StreamElement streamElement, Writer writer) throws Exception {
         if (iterator.hasNext()) {
             WriterInterceptor writerInterceptor = iterator.next();
-            writerInterceptor.process(streamElement, writer, this);
+            final InterceptorChainEvent event = beforeInterceptor();
+            try {
+                writerInterceptor.process(streamElement, writer, this);
+            } finally {
+                afterInterceptor(event);
+            }
         }
     }
 }
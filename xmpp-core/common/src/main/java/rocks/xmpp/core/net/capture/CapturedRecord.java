@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A captured chunk of raw traffic.
+ *
+ * @author Christian Schudt
+ * @see TrafficCapture#read(java.nio.file.Path)
+ */
+public final class CapturedRecord {
+
+    private final Direction direction;
+
+    private final long elapsedNanos;
+
+    private final ByteBuffer data;
+
+    CapturedRecord(final Direction direction, final long elapsedNanos, final ByteBuffer data) {
+        this.direction = Objects.requireNonNull(direction);
+        this.elapsedNanos = elapsedNanos;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the direction of the traffic.
+     *
+     * @return The direction.
+     */
+    public final Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the time, at which the bytes were captured, in nanoseconds since the capture was started.
+     *
+     * @return The elapsed nanoseconds.
+     */
+    public final long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the captured bytes.
+     *
+     * @return A read-only view of the captured bytes.
+     */
+    public final ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    @Override
+    public final String toString() {
+        return direction + " " + data.remaining() + " bytes at " + elapsedNanos + " ns";
+    }
+
+    /**
+     * The direction of captured traffic.
+     */
+    public enum Direction {
+        /**
+         * Bytes, which were read from the peer.
+         */
+        INBOUND,
+        /**
+         * Bytes, which were written to the peer.
+         */
+        OUTBOUND
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream, which captures all bytes read.
+ *
+ * @author Christian Schudt
+ */
+final class CapturingInputStream extends FilterInputStream {
+
+    private final TrafficCapture capture;
+
+    CapturingInputStream(final InputStream in, final TrafficCapture capture) {
+        super(in);
+        this.capture = capture;
+    }
+
+    @Override
+    public final int read() throws IOException {
+        final int b = super.read();
+        if (b != -1) {
+            capture.inbound(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public final int read(final byte[] b, final int off, final int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            capture.inbound(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public final long skip(final long n) throws IOException {
+        // Skipped bytes would be missing in the capture.
+        final byte[] bytes = new byte[(int) Math.min(n, 8192)];
+        final int read = read(bytes, 0, bytes.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public final boolean markSupported() {
+        return false;
+    }
+}
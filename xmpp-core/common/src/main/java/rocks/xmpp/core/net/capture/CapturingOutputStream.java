@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream, which captures all bytes written.
+ *
+ * @author Christian Schudt
+ */
+final class CapturingOutputStream extends FilterOutputStream {
+
+    private final TrafficCapture capture;
+
+    CapturingOutputStream(final OutputStream out, final TrafficCapture capture) {
+        super(out);
+        this.capture = capture;
+    }
+
+    @Override
+    public final void write(final int b) throws IOException {
+        out.write(b);
+        capture.outbound(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public final void write(final byte[] b, final int off, final int len) throws IOException {
+        // Don't write byte by byte, as FilterOutputStream does.
+        out.write(b, off, len);
+        capture.outbound(b, off, len);
+    }
+}
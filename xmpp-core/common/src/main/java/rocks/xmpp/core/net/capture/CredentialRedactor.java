@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replaces credentials in the raw XML of one direction of a connection with asterisks.
+ *
+ * <p>Credentials are the text content of the SASL elements {@code <auth/>}, {@code <challenge/>},
+ * {@code <response/>} and {@code <success/>} and the stream resumption ids, i.e. the {@code id} attribute of
+ * {@code <enabled/>} and the {@code previd} attribute of {@code <resume/>} and {@code <resumed/>}. Elements are matched
+ * by their local name, regardless of their namespace.</p>
+ *
+ * <p>Bytes are replaced in place, so that the length of the traffic is preserved. The state is kept across chunks,
+ * hence an element may be split across several chunks. Because all markup characters are ASCII, multi-byte UTF-8
+ * characters don't need to be decoded.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+final class CredentialRedactor {
+
+    private static final byte MASK = '*';
+
+    private static final byte[][] CONTENT_ELEMENTS = names("auth", "challenge", "response", "success");
+
+    private static final byte[] ENABLED = bytes("enabled");
+
+    private static final byte[][] RESUME_ELEMENTS = names("resume", "resumed");
+
+    private static final byte[] ID = bytes("id");
+
+    private static final byte[] PREVID = bytes("previd");
+
+    /**
+     * The longest name, which needs to be compared.
+     */
+    private static final int MAX_NAME_LENGTH = 9;
+
+    private final byte[] name = new byte[MAX_NAME_LENGTH];
+
+    private State state = State.CONTENT;
+
+    /**
+     * The length of the current element or attribute name or -1, if there's none. If the name is too long to be of
+     * interest, it's greater than the buffer.
+     */
+    private int nameLength;
+
+    /**
+     * The attribute, whose value is redacted in the current start tag, or null.
+     */
+    private byte[] redactedAttribute;
+
+    private boolean redactContentOfTag;
+
+    private boolean emptyElement;
+
+    /**
+     * If an attribute name is being read.
+     */
+    private boolean attributeName;
+
+    private boolean redactContent;
+
+    private boolean redactValue;
+
+    private byte quote;
+
+    private static byte[] bytes(final String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[][] names(final String... names) {
+        final byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = bytes(names[i]);
+        }
+        return bytes;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Redacts the bytes of a buffer.
+     *
+     * @param buffer The buffer.
+     * @param from   The index of the first byte.
+     * @param to     The index after the last byte.
+     * @param redact If false, the state is only tracked, but no bytes are replaced.
+     */
+    void redact(final ByteBuffer buffer, final int from, final int to, final boolean redact) {
+        for (int i = from; i < to; i++) {
+            final byte b = buffer.get(i);
+            if (accept(b) && redact) {
+                buffer.put(i, MASK);
+            }
+        }
+    }
+
+    /**
+     * Processes the next byte.
+     *
+     * @param b The byte.
+     * @return True, if the byte belongs to a credential.
+     */
+    private boolean accept(final byte b) {
+        switch (state) {
+            case CONTENT:
+                if (b == '<') {
+                    state = State.TAG;
+                    redactContent = false;
+                    return false;
+                }
+                return redactContent;
+            case TAG:
+                if (b == '/' || b == '!' || b == '?') {
+                    // End tags, comments, CDATA sections and processing instructions.
+                    state = State.OTHER;
+                } else {
+                    state = State.ELEMENT_NAME;
+                    nameLength = 0;
+                    append(b);
+                }
+                return false;
+            case ELEMENT_NAME:
+                if (b == ':') {
+                    // Ignore the prefix.
+                    nameLength = 0;
+                } else if (isWhitespace(b) || b == '/' || b == '>') {
+                    redactContentOfTag = matches(CONTENT_ELEMENTS);
+                    redactedAttribute = matches(ENABLED) ? ID : matches(RESUME_ELEMENTS) ? PREVID : null;
+                    emptyElement = false;
+                    attributeName = false;
+                    nameLength = -1;
+                    state = State.ATTRIBUTES;
+                    return accept(b);
+                } else {
+                    append(b);
+                }
+                return false;
+            case ATTRIBUTES:
+                if (b == '>') {
+                    redactContent = redactContentOfTag && !emptyElement;
+                    state = State.CONTENT;
+                } else if (b == '/') {
+                    emptyElement = true;
+                    attributeName = false;
+                } else if (b == '\'' || b == '"') {
+                    quote = b;
+                    redactValue = redactedAttribute != null && matches(redactedAttribute);
+                    attributeName = false;
+                    state = State.ATTRIBUTE_VALUE;
+                } else if (isWhitespace(b) || b == '=') {
+                    attributeName = false;
+                } else {
+                    if (!attributeName) {
+                        nameLength = 0;
+                        attributeName = true;
+                    }
+                    emptyElement = false;
+                    append(b);
+                }
+                return false;
+            case ATTRIBUTE_VALUE:
+                if (b == quote) {
+                    nameLength = -1;
+                    state = State.ATTRIBUTES;
+                    return false;
+                }
+                return redactValue;
+            default:
+                if (b == '>') {
+                    state = State.CONTENT;
+                }
+                return false;
+        }
+    }
+
+    private void append(final byte b) {
+        if (nameLength >= 0 && nameLength < name.length) {
+            name[nameLength++] = b;
+        } else {
+            // Too long, none of the names of interest.
+            nameLength = name.length + 1;
+        }
+    }
+
+    private boolean matches(final byte[]... names) {
+        for (final byte[] n : names) {
+            if (nameLength == n.length) {
+                boolean equal = true;
+                for (int i = 0; i < n.length && equal; i++) {
+                    equal = name[i] == n[i];
+                }
+                if (equal) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private enum State {
+        CONTENT, TAG, ELEMENT_NAME, ATTRIBUTES, ATTRIBUTE_VALUE, OTHER
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Captures the raw inbound and outbound bytes of a connection into a memory-mapped ring file.
+ *
+ * <p>Each chunk of bytes is appended as a record together with its direction and a timestamp. Capturing only copies
+ * bytes into the mapped file, it neither allocates strings nor blocks on I/O, so that it can be used on the I/O threads
+ * of a server. If the file is full, the oldest records are overwritten, i.e. the file always contains the most recent
+ * traffic. Capture files, which are {@linkplain #create(Path, int, int) created} per connection, are rotated,
+ * i.e. the oldest files of the directory are deleted, so that the directory doesn't grow without bounds.</p>
+ *
+ * <p>The file consists of a header, which contains the positions of the oldest record and of the next record and the
+ * number of records, followed by the records. Each record consists of its length, its direction, the nanoseconds
+ * elapsed since the capture was started and the bytes.</p>
+ *
+ * <p>Credentials are redacted by default, i.e. they are replaced with asterisks of the same length: the text content
+ * of the SASL elements {@code <auth/>}, {@code <challenge/>}, {@code <response/>} and {@code <success/>} (which
+ * contain passwords, password hashes and tokens) and the stream resumption ids of stream management, which allow to
+ * take over a session. Only if they are explicitly needed (e.g. to debug authentication in a test environment), they
+ * can be captured with {@link #setCaptureCredentials(boolean)}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see #read(Path)
+ */
+public final class TrafficCapture implements AutoCloseable {
+
+    /**
+     * The default capacity of a capture file.
+     */
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    /**
+     * The default maximum number of capture files in a directory.
+     */
+    public static final int DEFAULT_MAX_FILES = 64;
+
+    private static final String PREFIX = "xmpp-";
+
+    private static final String SUFFIX = ".xcap";
+
+    private static final int MAGIC = 0x58434150;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int MAGIC_POSITION = 0;
+
+    private static final int VERSION_POSITION = 4;
+
+    private static final int HEAD_POSITION = 8;
+
+    private static final int TAIL_POSITION = 12;
+
+    private static final int STARTED_POSITION = 16;
+
+    private static final int COUNT_POSITION = 24;
+
+    /**
+     * The length (int), the direction (byte) and the elapsed nanoseconds (long) of a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 13;
+
+    /**
+     * Marks, that the next record is at the beginning of the file.
+     */
+    private static final int WRAP = -1;
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private final Path path;
+
+    private final int capacity;
+
+    private final int maxRecordData;
+
+    private final long startNanos;
+
+    private final long startedMillis;
+
+    private final CredentialRedactor inboundRedactor = new CredentialRedactor();
+
+    private final CredentialRedactor outboundRedactor = new CredentialRedactor();
+
+    /**
+     * If credentials are captured. Guarded by "this".
+     */
+    private boolean captureCredentials;
+
+    /**
+     * The mapped file or null, if the capture is closed. Guarded by "this".
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The position of the oldest record. Guarded by "this".
+     */
+    private int head = HEADER_SIZE;
+
+    /**
+     * The position of the next record. Guarded by "this".
+     */
+    private int tail = HEADER_SIZE;
+
+    /**
+     * The number of records. Guarded by "this".
+     */
+    private int count;
+
+    private TrafficCapture(final Path path, final int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY + " bytes.");
+        }
+        this.path = path;
+        this.capacity = capacity;
+        // Split large chunks, so that a single chunk never evicts the whole ring.
+        this.maxRecordData = (capacity - HEADER_SIZE) / 4 - RECORD_HEADER_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        this.startNanos = System.nanoTime();
+        this.startedMillis = System.currentTimeMillis();
+        buffer.putInt(MAGIC_POSITION, MAGIC);
+        buffer.putInt(VERSION_POSITION, VERSION);
+        buffer.putInt(HEAD_POSITION, head);
+        buffer.putInt(TAIL_POSITION, tail);
+        buffer.putLong(STARTED_POSITION, startedMillis);
+        buffer.putInt(COUNT_POSITION, count);
+    }
+
+    /**
+     * Opens a capture file. An existing file is overwritten.
+     *
+     * @param path     The file.
+     * @param capacity The size of the file in bytes.
+     * @return The capture.
+     * @throws IOException If the file could not be created.
+     */
+    public static TrafficCapture open(final Path path, final int capacity) throws IOException {
+        return new TrafficCapture(path, capacity);
+    }
+
+    /**
+     * Creates a new capture file with a unique name in a directory, e.g. one file per connection, and keeps at most
+     * {@value #DEFAULT_MAX_FILES} capture files in the directory.
+     *
+     * @param directory The directory.
+     * @param capacity  The size of the file in bytes.
+     * @return The capture.
+     * @throws IOException If the file could not be created.
+     * @see #create(Path, int, int)
+     */
+    public static TrafficCapture create(final Path directory, final int capacity) throws IOException {
+        return create(directory, capacity, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Creates a new capture file with a unique name in a directory, e.g. one file per connection. If the directory
+     * already contains the maximum number of capture files, the least recently modified ones are deleted, i.e. the
+     * directory never exceeds {@code maxFiles * capacity} bytes.
+     *
+     * <p>Note that the file of a capture, which is still open, may be deleted as well, if there are more open captures
+     * than files. On most platforms, the capture then continues to write into the (no longer visible) file.</p>
+     *
+     * @param directory The directory.
+     * @param capacity  The size of the file in bytes.
+     * @param maxFiles  The maximum number of capture files in the directory.
+     * @return The capture.
+     * @throws IOException If the file could not be created.
+     */
+    public static TrafficCapture create(final Path directory, final int capacity, final int maxFiles)
+            throws IOException {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be positive.");
+        }
+        Files.createDirectories(directory);
+        final List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(TrafficCapture::isCaptureFile)
+                    .sorted(Comparator.comparing(TrafficCapture::lastModified))
+                    .collect(Collectors.toList());
+        }
+        for (int i = 0; i <= files.size() - maxFiles; i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                // E.g. still mapped on Windows. Try again with the next capture.
+            }
+        }
+        return new TrafficCapture(Files.createTempFile(directory, PREFIX, SUFFIX), capacity);
+    }
+
+    private static boolean isCaptureFile(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX) && Files.isRegularFile(path);
+    }
+
+    private static FileTime lastModified(final Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Reads the records of a capture file, oldest first.
+     *
+     * @param path The file.
+     * @return The records.
+     * @throws IOException If the file could not be read or is not a capture file.
+     */
+    public static List<CapturedRecord> read(final Path path) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int capacity = buffer.capacity();
+        if (capacity < HEADER_SIZE || buffer.getInt(MAGIC_POSITION) != MAGIC) {
+            throw new IOException(path + " is not a capture file.");
+        }
+        if (buffer.getInt(VERSION_POSITION) != VERSION) {
+            throw new IOException("Unsupported capture file version: " + buffer.getInt(VERSION_POSITION));
+        }
+        final int count = buffer.getInt(COUNT_POSITION);
+        int position = buffer.getInt(HEAD_POSITION);
+        if (count < 0 || position < HEADER_SIZE || position > capacity) {
+            throw new IOException(path + " is corrupt.");
+        }
+        final List<CapturedRecord> records = new ArrayList<>(count);
+        boolean wrapped = false;
+        while (records.size() < count) {
+            if (capacity - position < RECORD_HEADER_SIZE || buffer.getInt(position) == WRAP) {
+                if (wrapped) {
+                    throw new IOException(path + " is corrupt.");
+                }
+                wrapped = true;
+                position = HEADER_SIZE;
+                continue;
+            }
+            final int length = buffer.getInt(position);
+            final int direction = buffer.get(position + 4);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > capacity
+                    || direction < 0 || direction >= CapturedRecord.Direction.values().length) {
+                throw new IOException(path + " is corrupt.");
+            }
+            final ByteBuffer data = ByteBuffer.allocate(length);
+            final ByteBuffer source = buffer.duplicate();
+            source.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+            data.put(source).flip();
+            records.add(new CapturedRecord(CapturedRecord.Direction.values()[direction],
+                    buffer.getLong(position + 5), data));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * Gets the capture file.
+     *
+     * @return The file.
+     */
+    public final Path getPath() {
+        return path;
+    }
+
+    /**
+     * Sets, if credentials are captured. By default, they are redacted.
+     *
+     * <p>Captured credentials allow to authenticate as the user or to take over the session, only capture them, if
+     * the capture files are protected accordingly.</p>
+     *
+     * @param captureCredentials True, if credentials are captured.
+     */
+    public final synchronized void setCaptureCredentials(final boolean captureCredentials) {
+        this.captureCredentials = captureCredentials;
+    }
+
+    /**
+     * Captures inbound bytes.
+     *
+     * @param bytes The bytes, from the buffer's position to its limit. The buffer's position is not changed.
+     */
+    public final void inbound(final ByteBuffer bytes) {
+        record(CapturedRecord.Direction.INBOUND, bytes);
+    }
+
+    /**
+     * Captures inbound bytes.
+     *
+     * @param bytes  The bytes.
+     * @param offset The offset.
+     * @param length The number of bytes.
+     */
+    public final void inbound(final byte[] bytes, final int offset, final int length) {
+        record(CapturedRecord.Direction.INBOUND, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Captures outbound bytes.
+     *
+     * @param bytes The bytes, from the buffer's position to its limit. The buffer's position is not changed.
+     */
+    public final void outbound(final ByteBuffer bytes) {
+        record(CapturedRecord.Direction.OUTBOUND, bytes);
+    }
+
+    /**
+     * Captures outbound bytes.
+     *
+     * @param bytes  The bytes.
+     * @param offset The offset.
+     * @param length The number of bytes.
+     */
+    public final void outbound(final byte[] bytes, final int offset, final int length) {
+        record(CapturedRecord.Direction.OUTBOUND, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Creates an input stream, which captures all bytes, which are read from the given stream.
+     *
+     * @param inputStream The input stream.
+     * @return The capturing input stream.
+     */
+    public final InputStream wrap(final InputStream inputStream) {
+        return new CapturingInputStream(inputStream, this);
+    }
+
+    /**
+     * Creates an output stream, which captures all bytes, which are written to the given stream.
+     *
+     * @param outputStream The output stream.
+     * @return The capturing output stream.
+     */
+    public final OutputStream wrap(final OutputStream outputStream) {
+        return new CapturingOutputStream(outputStream, this);
+    }
+
+    private synchronized void record(final CapturedRecord.Direction direction, final ByteBuffer bytes) {
+        if (buffer == null || !bytes.hasRemaining()) {
+            return;
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final ByteBuffer source = bytes.duplicate();
+        final int limit = source.limit();
+        final CredentialRedactor redactor =
+                direction == CapturedRecord.Direction.INBOUND ? inboundRedactor : outboundRedactor;
+        while (source.position() < limit) {
+            final int length = Math.min(limit - source.position(), maxRecordData);
+            final int size = RECORD_HEADER_SIZE + length;
+            reserve(size);
+            buffer.putInt(tail, length);
+            buffer.put(tail + 4, (byte) direction.ordinal());
+            buffer.putLong(tail + 5, elapsedNanos);
+            source.limit(source.position() + length);
+            buffer.position(tail + RECORD_HEADER_SIZE);
+            buffer.put(source);
+            source.limit(limit);
+            // Redact the copy in the file, the caller's bytes must not be changed.
+            redactor.redact(buffer, tail + RECORD_HEADER_SIZE, tail + size, !captureCredentials);
+            tail += size;
+            count++;
+        }
+        buffer.putInt(HEAD_POSITION, head);
+        buffer.putInt(TAIL_POSITION, tail);
+        buffer.putInt(COUNT_POSITION, count);
+    }
+
+    /**
+     * Makes room for a record at the tail, by wrapping to the beginning of the file and by evicting the oldest
+     * records, which overlap with the new record.
+     *
+     * @param size The size of the record.
+     */
+    private void reserve(final int size) {
+        if (tail + size > capacity) {
+            // The records between the head and the end of the file are the oldest ones. They are no longer reachable
+            // once the tail wraps, because the newer records at the beginning of the file are overwritten.
+            while (count > 0 && head >= tail) {
+                evict();
+            }
+            if (capacity - tail >= 4) {
+                buffer.putInt(tail, WRAP);
+            }
+            tail = HEADER_SIZE;
+        }
+        // A record, which starts exactly at the end of the new record, doesn't overlap with it.
+        while (count > 0 && head >= tail && head < tail + size) {
+            evict();
+        }
+        if (count == 0) {
+            head = tail;
+        }
+    }
+
+    private void evict() {
+        if (capacity - head < RECORD_HEADER_SIZE || buffer.getInt(head) == WRAP) {
+            head = HEADER_SIZE;
+        } else {
+            head += RECORD_HEADER_SIZE + buffer.getInt(head);
+            count--;
+        }
+    }
+
+    /**
+     * Gets the time, when the capture was started.
+     *
+     * @return The start time.
+     */
+    public final Instant getStarted() {
+        return Instant.ofEpochMilli(startedMillis);
+    }
+
+    /**
+     * Stops capturing, flushes the captured bytes to the file and releases the mapping of the file.
+     *
+     * <p>There's no way to unmap a file explicitly, the mapping is released, as soon as the buffer is garbage
+     * collected. Therefore no reference to it is kept after closing.</p>
+     */
+    @Override
+    public final synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return "Traffic capture " + path;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Replays captured traffic of one direction, either at the recorded speed or accelerated.
+ *
+ * <p>Usually the inbound traffic of a server-side capture is replayed against a server, in order to reproduce an
+ * incident or to generate load. The bytes are passed to a sink, e.g. a channel or an output stream of a connection to
+ * the server, or a decoder.</p>
+ *
+ * <p>Note that the captured bytes are the bytes above TLS and compression, i.e. the XML stream. A replayed stream,
+ * which negotiated TLS or compression, must therefore be sent through a connection, which is already encrypted or
+ * compressed.</p>
+ *
+ * <p>Authentication can't be replayed with challenge-response mechanisms like SCRAM: the server chooses a new nonce
+ * for each authentication, so that the captured client proof no longer matches. Replays, which need to authenticate,
+ * should use PLAIN (over an already encrypted connection) or ANONYMOUS instead.</p>
+ *
+ * @author Christian Schudt
+ * @see TrafficCapture
+ */
+public final class TrafficReplay {
+
+    private final List<CapturedRecord> records;
+
+    private final double speed;
+
+    /**
+     * @param records   The captured records.
+     * @param direction The direction, whose records are replayed.
+     * @param speed     The speed factor, e.g. 1 to replay at the recorded speed, 10 to replay ten times faster or
+     *                  {@link Double#POSITIVE_INFINITY} to replay as fast as possible.
+     */
+    public TrafficReplay(final List<CapturedRecord> records, final CapturedRecord.Direction direction,
+                         final double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive.");
+        }
+        Objects.requireNonNull(direction);
+        this.records = records.stream()
+                .filter(record -> record.getDirection() == direction)
+                .collect(Collectors.toUnmodifiableList());
+        this.speed = speed;
+    }
+
+    /**
+     * Creates a replay of the inbound traffic of a capture file.
+     *
+     * @param path  The capture file.
+     * @param speed The speed factor.
+     * @return The replay.
+     * @throws IOException If the file could not be read.
+     * @see TrafficCapture#read(Path)
+     */
+    public static TrafficReplay inbound(final Path path, final double speed) throws IOException {
+        return new TrafficReplay(TrafficCapture.read(path), CapturedRecord.Direction.INBOUND, speed);
+    }
+
+    /**
+     * Gets the records, which are replayed.
+     *
+     * @return The records.
+     */
+    public final List<CapturedRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Replays the records in the calling thread. The time between two records is the recorded time divided by the
+     * speed factor.
+     *
+     * @param sink Receives the bytes of each record.
+     * @throws InterruptedException If the thread has been interrupted while waiting for the next record.
+     */
+    public final void replay(final Consumer<ByteBuffer> sink) throws InterruptedException {
+        if (records.isEmpty()) {
+            return;
+        }
+        final long firstRecord = records.get(0).getElapsedNanos();
+        final long start = System.nanoTime();
+        for (final CapturedRecord record : records) {
+            if (!Double.isInfinite(speed)) {
+                final long due = (long) ((record.getElapsedNanos() - firstRecord) / speed);
+                final long delay = due - (System.nanoTime() - start);
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+            }
+            sink.accept(record.getData());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Provides a low-overhead capture of the raw traffic of a connection and a replay of captured traffic.
+ *
+ * <p>Unlike a {@linkplain rocks.xmpp.core.net.ReaderInterceptor debugging interceptor}, a {@link TrafficCapture}
+ * doesn't create strings or stream elements. It only copies the raw bytes together with a timestamp into a
+ * memory-mapped ring file, so that it can be left enabled in production. If the file is full, the oldest records are
+ * overwritten. Credentials are redacted, unless they are captured explicitly.</p>
+ *
+ * <p>Captured files can be read with {@link TrafficCapture#read(java.nio.file.Path)} and fed back into a connection
+ * with a {@link TrafficReplay}, e.g. to reproduce an incident or to generate load.</p>
+ */
+package rocks.xmpp.core.net.capture;
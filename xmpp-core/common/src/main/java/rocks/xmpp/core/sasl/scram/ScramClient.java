@@ -61,8 +61,26 @@ public final class ScramClient extends ScramBase implements SaslClient {
 
     private byte[] serverSignature;
 
+    private final ScramKeyCache keyCache;
+
+    private final String serverName;
+
     public ScramClient(String hashAlgorithm, String authorizationId, CallbackHandler callbackHandler) {
+        this(hashAlgorithm, authorizationId, callbackHandler, null, null);
+    }
+
+    /**
+     * @param hashAlgorithm   The hash algorithm.
+     * @param authorizationId The authorization id.
+     * @param callbackHandler The callback handler.
+     * @param keyCache        The cache for the derived keys or null.
+     * @param serverName      The server name, which is part of the cache key.
+     */
+    public ScramClient(String hashAlgorithm, String authorizationId, CallbackHandler callbackHandler,
+                       ScramKeyCache keyCache, String serverName) {
         super(hashAlgorithm, callbackHandler);
+        this.keyCache = keyCache;
+        this.serverName = serverName;
 
         // authzID can only be encoded in UTF8 - RFC 2222
         if (authorizationId != null) {
@@ -164,6 +182,7 @@ public final class ScramClient extends ScramBase implements SaslClient {
                     // exchange to be unsuccessful, and it might have to drop the
                     // connection.
                     if (!Arrays.equals(serverSignature, DatatypeConverter.parseBase64Binary(verifier))) {
+                        invalidateCachedKeys();
                         throw new SaslException("SCRAM: Verification failed");
                     }
                     complete = true;
@@ -192,13 +211,27 @@ public final class ScramClient extends ScramBase implements SaslClient {
 
                 try {
                     channelBinding = DatatypeConverter.printBase64Binary(gs2Header.getBytes(StandardCharsets.UTF_8));
-                    byte[] saltedPassword = computeSaltedPassword(passwd, salt, iterationCount);
+                    // Cached keys are only used, if they have been derived from the same salt and iteration count.
+                    ScramKeyCache.Keys keys = keyCache != null
+                            ? keyCache.get(getMechanismName(), serverName, username, salt, iterationCount) : null;
+                    byte[] clientKey;
+                    byte[] serverKey;
+                    if (keys != null) {
+                        clientKey = keys.clientKey;
+                        serverKey = keys.serverKey;
+                    } else {
+                        byte[] saltedPassword = computeSaltedPassword(passwd, salt, iterationCount);
+                        clientKey = computeClientKey(saltedPassword);
+                        serverKey = computeServerKey(saltedPassword);
+                        if (keyCache != null) {
+                            keyCache.put(getMechanismName(), serverName, username, salt, iterationCount, clientKey,
+                                    serverKey);
+                        }
+                    }
                     String authMessage = computeAuthMessage();
-                    byte[] clientKey = computeClientKey(saltedPassword);
-                    byte[] clientSignature = computeClientSignature(clientKey, computeAuthMessage());
+                    byte[] clientSignature = computeClientSignature(clientKey, authMessage);
                     // ClientProof     := ClientKey XOR ClientSignature
                     byte[] clientProof = xor(clientKey, clientSignature);
-                    byte[] serverKey = computeServerKey(saltedPassword);
                     serverSignature = hmac(serverKey, authMessage.getBytes(StandardCharsets.UTF_8));
                     String clientFinalMessageWithoutProof = "c=" + channelBinding + ",r=" + nonce;
                     // The client then responds by sending a "client-final-message" with the
@@ -217,4 +250,14 @@ public final class ScramClient extends ScramBase implements SaslClient {
             }
         }
     }
+
+    /**
+     * Removes the cached keys of the user, e.g. because the server rejected the authentication. Does nothing, if no
+     * cache is used.
+     */
+    public final void invalidateCachedKeys() {
+        if (keyCache != null && username != null) {
+            keyCache.invalidate(getMechanismName(), serverName, username);
+        }
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.sasl.scram;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Caches the client and server keys, which a SCRAM client derives from the password, the salt and the iteration count.
+ *
+ * <p>Deriving the salted password is deliberately expensive (it takes as many HMAC computations as the server's
+ * iteration count), which becomes the bottleneck, if many sessions authenticate at the same time, e.g. after a network
+ * outage. With this cache, the keys are only derived once per user and salt. They are cached by the mechanism, server,
+ * user name, salt and iteration count. If the server sends another salt or iteration count (e.g. because the password
+ * has changed), the cached keys are discarded and derived again. They are also discarded, if authentication with the
+ * cached keys fails.</p>
+ *
+ * <p>Nothing derived from the password alone is cached, because it would allow to guess the password offline much
+ * faster than from the salted password. Therefore the cache can't verify the password of a session and a session
+ * authenticates with the cached keys, even if it uses another password. Only share a cache between sessions, which
+ * use the same credentials.</p>
+ *
+ * <p>Keys are kept in memory and optionally in a store like a {@link rocks.xmpp.util.cache.PersistentCache}. Entries
+ * of the store are encrypted with AES/GCM with the given secret key, because the client key is sufficient to
+ * authenticate as the user. Entries, which cannot be decrypted, are ignored.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see ScramClient
+ */
+public final class ScramKeyCache {
+
+    /**
+     * The name of the SASL property, which holds the cache.
+     *
+     * @see javax.security.sasl.Sasl#createSaslClient(String[], String, String, String, Map,
+     * javax.security.auth.callback.CallbackHandler)
+     */
+    public static final String PROPERTY = "rocks.xmpp.core.sasl.scram.keycache";
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, Keys> keys = new ConcurrentHashMap<>();
+
+    private final Map<String, byte[]> store;
+
+    private final SecretKey secretKey;
+
+    /**
+     * Creates an in-memory cache.
+     */
+    public ScramKeyCache() {
+        this.store = null;
+        this.secretKey = null;
+    }
+
+    /**
+     * Creates a cache, which additionally keeps the keys encrypted in a store.
+     *
+     * @param store     The store, e.g. a {@link rocks.xmpp.util.cache.PersistentCache}.
+     * @param secretKey The AES key, which encrypts the entries of the store.
+     */
+    public ScramKeyCache(final Map<String, byte[]> store, final SecretKey secretKey) {
+        this.store = Objects.requireNonNull(store);
+        this.secretKey = Objects.requireNonNull(secretKey);
+    }
+
+    private static String key(final String mechanism, final String serverName, final String username) {
+        return mechanism + '\0' + serverName + '\0' + username;
+    }
+
+    private static String storeKey(final String key) {
+        // Don't expose the user name in the store.
+        return XmppUtils.hash(key.getBytes(StandardCharsets.UTF_8)) + ".scram";
+    }
+
+    /**
+     * Gets the cached keys, if they have been derived from the same salt and iteration count.
+     *
+     * @param mechanism      The mechanism, e.g. "SCRAM-SHA-1".
+     * @param serverName     The server name.
+     * @param username       The user name.
+     * @param salt           The salt sent by the server.
+     * @param iterationCount The iteration count sent by the server.
+     * @return The keys or null, if no keys are cached or if they are outdated.
+     */
+    final Keys get(final String mechanism, final String serverName, final String username, final byte[] salt,
+                   final int iterationCount) {
+        final String key = key(mechanism, serverName, username);
+        Keys cached = keys.get(key);
+        if (cached == null && store != null) {
+            cached = decrypt(key, store.get(storeKey(key)));
+            if (cached != null) {
+                keys.put(key, cached);
+            }
+        }
+        if (cached != null && (cached.iterationCount != iterationCount || !Arrays.equals(cached.salt, salt))) {
+            // The server uses another salt, e.g. because the password has changed.
+            invalidate(mechanism, serverName, username);
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Caches the keys.
+     *
+     * @param mechanism      The mechanism, e.g. "SCRAM-SHA-1".
+     * @param serverName     The server name.
+     * @param username       The user name.
+     * @param salt           The salt, from which the keys have been derived.
+     * @param iterationCount The iteration count, with which the keys have been derived.
+     * @param clientKey      The client key.
+     * @param serverKey      The server key.
+     */
+    final void put(final String mechanism, final String serverName, final String username, final byte[] salt,
+                   final int iterationCount, final byte[] clientKey, final byte[] serverKey) {
+        final String key = key(mechanism, serverName, username);
+        final Keys value = new Keys(salt.clone(), iterationCount, clientKey.clone(), serverKey.clone());
+        keys.put(key, value);
+        if (store != null) {
+            store.put(storeKey(key), encrypt(key, value));
+        }
+    }
+
+    /**
+     * Removes the keys of a user, e.g. because authentication with them failed.
+     *
+     * @param mechanism  The mechanism, e.g. "SCRAM-SHA-1".
+     * @param serverName The server name.
+     * @param username   The user name.
+     */
+    final void invalidate(final String mechanism, final String serverName, final String username) {
+        final String key = key(mechanism, serverName, username);
+        keys.remove(key);
+        if (store != null) {
+            store.remove(storeKey(key));
+        }
+    }
+
+    private byte[] encrypt(final String key, final Keys value) {
+        final ByteBuffer plain =
+                ByteBuffer.allocate(16 + value.salt.length + value.clientKey.length + value.serverKey.length);
+        plain.putInt(value.iterationCount);
+        plain.putInt(value.salt.length).put(value.salt);
+        plain.putInt(value.clientKey.length).put(value.clientKey);
+        plain.putInt(value.serverKey.length).put(value.serverKey);
+        final byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        try {
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            // Bind the entry to its key, so that it can't be used for another user.
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+            final byte[] encrypted = cipher.doFinal(plain.array());
+            return ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Keys decrypt(final String key, final byte[] value) {
+        if (value == null || value.length <= IV_LENGTH) {
+            return null;
+        }
+        try {
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH, value, 0, IV_LENGTH));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+            final ByteBuffer plain =
+                    ByteBuffer.wrap(cipher.doFinal(value, IV_LENGTH, value.length - IV_LENGTH));
+            final int iterationCount = plain.getInt();
+            final byte[] salt = new byte[plain.getInt()];
+            plain.get(salt);
+            final byte[] clientKey = new byte[plain.getInt()];
+            plain.get(clientKey);
+            final byte[] serverKey = new byte[plain.getInt()];
+            plain.get(serverKey);
+            if (plain.hasRemaining()) {
+                // Trailing bytes, i.e. an unknown format.
+                return null;
+            }
+            return new Keys(salt, iterationCount, clientKey, serverKey);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // E.g. encrypted with another key or corrupted.
+            return null;
+        }
+    }
+
+    /**
+     * The derived keys.
+     */
+    static final class Keys {
+
+        private final byte[] salt;
+
+        private final int iterationCount;
+
+        final byte[] clientKey;
+
+        final byte[] serverKey;
+
+        private Keys(final byte[] salt, final int iterationCount, final byte[] clientKey, final byte[] serverKey) {
+            this.salt = salt;
+            this.iterationCount = iterationCount;
+            this.clientKey = clientKey;
+            this.serverKey = serverKey;
+        }
+    }
+}
@@ -85,7 +85,11 @@ public abstract class ExtensibleStanza extends Stanza {
      * @return Whether the extension could be removed.
      */
     public final boolean removeExtension(Class<?> clazz) {
-        return getExtensions().removeIf(extension -> clazz != null && clazz.isAssignableFrom(extension.getClass()));
+        if (clazz == null) {
+            return false;
+        }
+        getExtensions().forEach(extension -> bind(extension, clazz));
+        return getExtensions().removeIf(extension -> clazz.isAssignableFrom(extension.getClass()));
     }
 
     /**
@@ -123,7 +127,8 @@ public abstract class ExtensibleStanza extends Stanza {
     @SuppressWarnings("unchecked")
     public final <T> List<T> getExtensions(Class<T> clazz) {
         return Collections.unmodifiableList(this.extensions.stream()
-                .filter(extension -> clazz.isAssignableFrom(extension.getClass()))
+                .map(extension -> bind(extension, clazz))
+                .filter(extension -> extension != null && clazz.isAssignableFrom(extension.getClass()))
                 .map(extension -> (T) extension)
                 .collect(Collectors.toList()));
     }
@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.stanza.model;
+
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+import jakarta.xml.bind.DataBindingException;
+import jakarta.xml.bind.UnmarshalException;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlSchema;
+import jakarta.xml.bind.annotation.XmlSeeAlso;
+import jakarta.xml.bind.annotation.XmlValue;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A stanza extension, which has been read from the stream, but not yet been unmarshalled.
+ *
+ * <p>A decoder in lazy mode keeps extension elements of routed stanzas as raw XML and only binds them to their JAXB
+ * objects, when they are accessed via {@link Stanza#getExtension(Class)} or one of the related methods. Until then, the
+ * raw XML is written back verbatim when the stanza is marshalled with an XMPP stream writer, which avoids both the
+ * unmarshalling and the marshalling cost for payloads which are only routed.</p>
+ *
+ * <p>Instances are only created by decoders from well-formed input. An element with this class' namespace, which is
+ * received from the network, never carries raw XML, i.e. it is neither bound nor written.</p>
+ *
+ * @author Christian Schudt
+ * @see rocks.xmpp.util.XmppUtils#createXmppStreamWriter(javax.xml.stream.XMLStreamWriter, boolean, java.io.Writer)
+ */
+@XmlRootElement(name = "lazy", namespace = LazyExtension.NAMESPACE)
+@XmlAccessorType(XmlAccessType.NONE)
+public final class LazyExtension {
+
+    /**
+     * The namespace of the placeholder element, which is written instead of the raw XML.
+     */
+    public static final String NAMESPACE = "urn:xmpp:babbler:lazy";
+
+    private static final String DEFAULT = "##default";
+
+    /**
+     * The element names, which instances of a class can have. An empty set means, that they are unknown.
+     */
+    private static final ClassValue<Set<QName>> ELEMENT_NAMES = new ClassValue<Set<QName>>() {
+        @Override
+        protected Set<QName> computeValue(final Class<?> type) {
+            final Set<QName> names = new HashSet<>();
+            if (!collectElementNames(type, names)) {
+                names.clear();
+            }
+            return Collections.unmodifiableSet(names);
+        }
+    };
+
+    private final String xml;
+
+    private final QName name;
+
+    private final Locale language;
+
+    private final Function<Locale, Unmarshaller> unmarshaller;
+
+    /**
+     * Guarded by "this".
+     */
+    private Object value;
+
+    private LazyExtension() {
+        this(null, null, null, null);
+    }
+
+    /**
+     * @param xml          The raw XML of the extension element. It must be well-formed and declare all namespaces it
+     *                     uses.
+     * @param name         The qualified name of the extension element.
+     * @param language     The language which is assigned to the extension when it is bound, if it has no own language.
+     * @param unmarshaller Provides the unmarshaller for a given root language.
+     */
+    public LazyExtension(final String xml, final QName name, final Locale language,
+                         final Function<Locale, Unmarshaller> unmarshaller) {
+        this.xml = xml;
+        this.name = name;
+        this.language = language;
+        this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * Gets the qualified name of the extension element.
+     *
+     * @return The name.
+     */
+    public final QName getName() {
+        return name;
+    }
+
+    /**
+     * Gets the raw XML of the extension element.
+     *
+     * @return The raw XML or null, if this extension has been unmarshalled from the network.
+     */
+    @XmlValue
+    public final String getXml() {
+        return xml;
+    }
+
+    @SuppressWarnings("unused")
+    private void setXml(String xml) {
+        // Never accept raw XML from the network.
+    }
+
+    /**
+     * Checks, whether this extension may be bound to an instance of the given class, i.e. whether binding it is
+     * necessary in order to find an extension of that class.
+     *
+     * <p>The element name is compared with the {@link XmlRootElement} of the class, if it is final, or of the
+     * subclasses listed in its {@link XmlSeeAlso} annotation, if it is abstract. For other classes (e.g.
+     * {@code Object} or DOM elements) the extension is always bound.</p>
+     *
+     * @param clazz The requested extension class.
+     * @return False, if the extension is known not to be an instance of the class.
+     */
+    final boolean isBindableTo(final Class<?> clazz) {
+        if (clazz == LazyExtension.class) {
+            return false;
+        }
+        final Set<QName> names = ELEMENT_NAMES.get(clazz);
+        if (names.isEmpty() || name == null) {
+            return true;
+        }
+        for (final QName candidate : names) {
+            // Default element names are derived from the class name, compare them loosely.
+            if (candidate.getNamespaceURI().equals(name.getNamespaceURI())
+                    && candidate.getLocalPart().equalsIgnoreCase(name.getLocalPart())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the element names of a class.
+     *
+     * @param type  The class.
+     * @param names The element names.
+     * @return False, if the element names of the class are not known.
+     */
+    private static boolean collectElementNames(final Class<?> type, final Set<QName> names) {
+        final XmlRootElement rootElement = type.getAnnotation(XmlRootElement.class);
+        if (Modifier.isFinal(type.getModifiers())) {
+            if (rootElement == null) {
+                return false;
+            }
+            names.add(elementName(type, rootElement));
+            return true;
+        }
+        final XmlSeeAlso seeAlso = type.getAnnotation(XmlSeeAlso.class);
+        if (!Modifier.isAbstract(type.getModifiers()) || type.isInterface() || seeAlso == null) {
+            return false;
+        }
+        if (rootElement != null) {
+            names.add(elementName(type, rootElement));
+        }
+        for (final Class<?> subclass : seeAlso.value()) {
+            if (!type.isAssignableFrom(subclass) || subclass == type || !collectElementNames(subclass, names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static QName elementName(final Class<?> type, final XmlRootElement rootElement) {
+        String namespace = rootElement.namespace();
+        if (DEFAULT.equals(namespace)) {
+            final Package pkg = type.getPackage();
+            final XmlSchema schema = pkg != null ? pkg.getAnnotation(XmlSchema.class) : null;
+            namespace = schema != null ? schema.namespace() : XMLConstants.NULL_NS_URI;
+        }
+        return new QName(namespace, DEFAULT.equals(rootElement.name()) ? type.getSimpleName() : rootElement.name());
+    }
+
+    /**
+     * Binds the raw XML to its JAXB object. If the element is unknown to JAXB, it is parsed to a DOM element, just
+     * like unknown extensions are represented in stanzas. Subsequent calls return the same object.
+     *
+     * @return The bound object or null, if there's no raw XML.
+     */
+    public final synchronized Object bind() {
+        if (value == null && xml != null && unmarshaller != null) {
+            try {
+                value = unmarshaller.apply(language).unmarshal(new StreamSource(new StringReader(xml)));
+            } catch (UnmarshalException e) {
+                // Unknown element.
+                value = parse();
+            } catch (Exception e) {
+                throw new DataBindingException(e);
+            }
+        }
+        return value;
+    }
+
+    private Object parse() {
+        try {
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            return documentBuilderFactory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)))
+                    .getDocumentElement();
+        } catch (Exception e) {
+            throw new DataBindingException(e);
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return Objects.toString(name);
+    }
+}
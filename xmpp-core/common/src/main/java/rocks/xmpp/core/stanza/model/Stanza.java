@@ -211,13 +211,33 @@ public abstract class Stanza implements LanguageElement, StreamElement {
     @SuppressWarnings("unchecked")
     public final <T> T getExtension(Class<T> clazz) {
         for (Object extension : extensions) {
-            if (clazz.isAssignableFrom(extension.getClass())) {
-                return (T) extension;
+            Object ext = bind(extension, clazz);
+            if (ext != null && clazz.isAssignableFrom(ext.getClass())) {
+                return (T) ext;
             }
         }
         return null;
     }
 
+    /**
+     * Binds a {@linkplain LazyExtension lazy extension}, if it may be an instance of the requested class, and replaces
+     * it in place with its bound object.
+     *
+     * @param extension The extension.
+     * @param clazz     The requested extension class.
+     * @return The bound extension or the extension itself, if it is not lazy or not of the requested class.
+     */
+    final Object bind(Object extension, Class<?> clazz) {
+        if (extension instanceof LazyExtension && ((LazyExtension) extension).isBindableTo(clazz)) {
+            Object value = ((LazyExtension) extension).bind();
+            if (value != null) {
+                extensions.replaceAll(e -> e == extension ? value : e);
+            }
+            return value;
+        }
+        return extension;
+    }
+
     /**
      * Checks if the stanza has an extension of the given type.
      *
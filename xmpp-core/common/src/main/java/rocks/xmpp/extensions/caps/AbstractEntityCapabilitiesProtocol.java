@@ -293,6 +293,11 @@ public abstract class AbstractEntityCapabilitiesProtocol<T extends EntityCapabil
 
     @Override
     public final void handleInboundPresence(PresenceEvent e) {
+        if (!(e.getSource() instanceof Session)) {
+            // Presence events, which are not fired by a session (e.g. by a server's stanza processor), are ignored.
+            // Servers pass the capabilities of their users to handleEntityCapabilities() instead.
+            return;
+        }
         final Presence presence = e.getPresence();
         if (!presence.getFrom().equals(((Session) e.getSource()).getLocalXmppAddress())) {
             final EntityCapabilities caps = presence.getExtension(entityCapabilitiesClass);
@@ -34,6 +34,7 @@ import java.util.function.Predicate;
 
 import rocks.xmpp.core.ExtensionProtocol;
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.jfr.StreamManagementAckEvent;
 import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stream.StreamFeatureNegotiator;
 import rocks.xmpp.core.stream.StreamNegotiationException;
@@ -96,6 +97,13 @@ public abstract class AbstractStreamManager
      */
     private Predicate<Stanza> requestStrategy = RequestStrategies.forEachMessageOrEveryXStanzas(3);
 
+    /**
+     * The recorded acknowledgement request, which is answered by the next {@code <a/>} element.
+     *
+     * <p>Guarded by "this".</p>
+     */
+    private StreamManagementAckEvent pendingRequest;
+
     protected AbstractStreamManager(final Session session) {
         this.session = session;
     }
@@ -166,6 +174,7 @@ public abstract class AbstractStreamManager
                 // all stanzas whose paired value (X at the time of queueing) is less than or equal to the value of 'h'
                 // can be removed from the unacknowledged queue.
                 markAcknowledged(answer.getLastHandledStanza());
+                answered(answer);
             }
         } catch (StreamErrorException e) {
             session.closeAsync(e.getError());
@@ -202,6 +211,39 @@ public abstract class AbstractStreamManager
     protected void onAcknowledged(Stanza stanza) {
     }
 
+    /**
+     * Marks that an acknowledgement request ({@code <r/>}) is about to be sent, so that the time until it is answered
+     * can be recorded.
+     */
+    protected final void markRequested() {
+        final StreamManagementAckEvent event = new StreamManagementAckEvent();
+        if (event.isEnabled()) {
+            synchronized (this) {
+                // If a request is still unanswered, the answer will answer both requests.
+                if (pendingRequest == null) {
+                    event.begin();
+                    pendingRequest = event;
+                }
+            }
+        }
+    }
+
+    private void answered(StreamManagement.Answer answer) {
+        final StreamManagementAckEvent event;
+        synchronized (this) {
+            event = pendingRequest;
+            pendingRequest = null;
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.lastHandledStanza = answer.getLastHandledStanza() != null ? answer.getLastHandledStanza() : 0;
+                event.unacknowledgedStanzas = unacknowledgedStanzas.size();
+                event.commit();
+            }
+        }
+    }
+
     /**
      * Increments the inbound stanza count.
      */
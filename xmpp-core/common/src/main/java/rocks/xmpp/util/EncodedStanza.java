@@ -0,0 +1,329 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Objects;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.client.ClientIQ;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.client.ClientPresence;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.core.stream.model.errors.Condition;
+
+/**
+ * A stanza, which has already been marshalled and which only lacks the 'to' attribute.
+ *
+ * <p>This is useful for broadcasting the same stanza to many recipients, e.g. to all occupants of a chat room: The
+ * stanza is {@linkplain #encode(Stanza, XMLOutputFactory, Marshaller) encoded} once into a {@link Template} and each
+ * recipient only gets a lightweight instance, which splices the 'to' attribute into the encoded XML, when it is
+ * written by the {@link XmppStreamEncoder}. No marshalling happens per recipient.</p>
+ *
+ * <p>Transports, which cannot write raw XML, can use {@link #toStanza()} instead.</p>
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class EncodedStanza implements StreamElement {
+
+    private static final String CLIENT_NAMESPACE = "jabber:client";
+
+    private final Template template;
+
+    private final Jid to;
+
+    private EncodedStanza(final Template template, final Jid to) {
+        this.template = template;
+        this.to = to;
+    }
+
+    /**
+     * Encodes a stanza in the "jabber:client" namespace. The stanza must not have a 'to' attribute.
+     *
+     * @param stanza        The stanza.
+     * @param outputFactory The XML output factory.
+     * @param marshaller    The marshaller, which must be configured with {@code Marshaller.JAXB_FRAGMENT = true}
+     *                      and must not be used concurrently.
+     * @return The template, from which an element can be created for each recipient.
+     * @throws StreamErrorException If the stanza could not be marshalled.
+     */
+    public static Template encode(final Stanza stanza, final XMLOutputFactory outputFactory,
+                                  final Marshaller marshaller) throws StreamErrorException {
+        if (stanza.getTo() != null) {
+            throw new IllegalArgumentException("stanza must not have a 'to' attribute.");
+        }
+        final Stanza clientStanza = toClientStanza(stanza);
+        try {
+            final String xml = marshal(clientStanza, CLIENT_NAMESPACE, outputFactory, marshaller);
+            // Split after the element name, e.g. "<message", where the 'to' attribute is inserted.
+            int i = 1;
+            while (i < xml.length() && " />".indexOf(xml.charAt(i)) < 0) {
+                i++;
+            }
+            return new Template(clientStanza, xml.substring(0, i), xml.substring(i));
+        } catch (XMLStreamException | JAXBException e) {
+            throw new StreamErrorException(new StreamError(Condition.INTERNAL_SERVER_ERROR), e);
+        }
+    }
+
+    /**
+     * Marshals a complete stanza in the "jabber:client" namespace, which declares its namespace, so that it can be
+     * unmarshalled on its own, e.g. in order to store it or to send it to another server node.
+     *
+     * @param stanza        The stanza.
+     * @param outputFactory The XML output factory.
+     * @param marshaller    The marshaller, which must be configured with {@code Marshaller.JAXB_FRAGMENT = true}
+     *                      and must not be used concurrently.
+     * @return The XML.
+     * @throws XMLStreamException If the XML could not be written.
+     * @throws JAXBException      If the stanza could not be marshalled.
+     */
+    public static String toXml(final Stanza stanza, final XMLOutputFactory outputFactory, final Marshaller marshaller)
+            throws XMLStreamException, JAXBException {
+        return marshal(toClientStanza(stanza), null, outputFactory, marshaller);
+    }
+
+    private static Stanza toClientStanza(final Stanza stanza) {
+        if (stanza instanceof Message) {
+            return ClientMessage.from((Message) stanza);
+        } else if (stanza instanceof Presence) {
+            return ClientPresence.from((Presence) stanza);
+        } else {
+            return ClientIQ.from((IQ) stanza);
+        }
+    }
+
+    private static String marshal(final Stanza clientStanza, final String defaultNamespace,
+                                  final XMLOutputFactory outputFactory, final Marshaller marshaller)
+            throws XMLStreamException, JAXBException {
+        final StringWriter writer = new StringWriter();
+        final XMLStreamWriter streamWriter =
+                XmppUtils.createXmppStreamWriter(outputFactory.createXMLStreamWriter(writer), false, writer);
+        try {
+            if (defaultNamespace != null) {
+                streamWriter.setDefaultNamespace(defaultNamespace);
+            }
+            marshaller.marshal(clientStanza, streamWriter);
+            streamWriter.flush();
+        } finally {
+            streamWriter.close();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Encodes a message, which wraps an already encoded stanza, e.g. a message carbon or a forwarded message. The
+     * wrapped stanza is not marshalled again, but its encoded XML is spliced into the message.
+     *
+     * @param envelope  The wrapping message, which must not have a 'to' attribute. Only its 'from', 'id' and 'type'
+     *                  attributes are encoded. Its extensions must equal the encoded start tags, wrapped stanza and
+     *                  end tags, because the envelope is marshalled by transports, which cannot write raw XML.
+     * @param startTags The start tags of the elements, which enclose the wrapped stanza, e.g.
+     *                  {@code <forwarded xmlns="urn:xmpp:forward:0">}.
+     * @param stanza    The wrapped stanza.
+     * @param endTags   The end tags of the enclosing elements.
+     * @return The template, from which an element can be created for each recipient.
+     */
+    public static Template wrap(final Message envelope, final String startTags, final EncodedStanza stanza,
+                                final String endTags) {
+        if (envelope.getTo() != null) {
+            throw new IllegalArgumentException("envelope must not have a 'to' attribute.");
+        }
+        final StringWriter writer = new StringWriter();
+        try {
+            writeAttribute(writer, "from", envelope.getFrom() != null ? envelope.getFrom().toString() : null);
+            writeAttribute(writer, "id", envelope.getId());
+            writeAttribute(writer, "type",
+                    envelope.getType() != null ? envelope.getType().name().toLowerCase(Locale.ROOT) : null);
+            writer.write('>');
+            writer.write(startTags);
+            // The enclosing elements declare another default namespace, so the wrapped stanza needs its own.
+            stanza.writeTo(writer, null);
+            writer.write(endTags);
+            writer.write("</message>");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Template(ClientMessage.from(envelope), "<message", writer.toString());
+    }
+
+    /**
+     * Gets the recipient.
+     *
+     * @return The recipient.
+     */
+    public final Jid getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the encoded stanza, which has no 'to' attribute. It must not be modified.
+     *
+     * @return The stanza.
+     */
+    public final Stanza getStanza() {
+        return template.stanza;
+    }
+
+    /**
+     * Gets the approximate number of characters, which are written, e.g. to estimate the size of buffered stanzas.
+     *
+     * @return The number of characters.
+     */
+    public final int length() {
+        return template.length() + to.toString().length() + 6;
+    }
+
+    /**
+     * Creates a copy of the stanza, which is addressed to the recipient. This requires marshalling, when it is
+     * written.
+     *
+     * @return The stanza.
+     */
+    public final Stanza toStanza() {
+        final Stanza stanza = template.stanza;
+        if (stanza instanceof Message) {
+            final Message m = (Message) stanza;
+            return ClientMessage.from(new Message(to, m.getType(), m.getBodies(), m.getSubjects(), m.getThread(),
+                    m.getParentThread(), m.getId(), m.getFrom(), m.getLanguage(), m.getExtensions(), m.getError()));
+        } else if (stanza instanceof Presence) {
+            final Presence p = (Presence) stanza;
+            return ClientPresence.from(new Presence(to, p.getType(), p.getShow(), p.getStatuses(), p.getPriority(),
+                    p.getId(), p.getFrom(), p.getLanguage(), p.getExtensions(), p.getError()));
+        } else {
+            final IQ iq = (IQ) stanza;
+            return ClientIQ.from(new IQ(to, iq.getType(), iq.getExtension(Object.class), iq.getId(), iq.getFrom(),
+                    iq.getLanguage(), iq.getError()));
+        }
+    }
+
+    /**
+     * Writes the encoded stanza with the 'to' attribute.
+     *
+     * @param writer           The writer.
+     * @param contentNamespace The default namespace of the stream, e.g. "jabber:client". If it is a different one,
+     *                         the namespace is declared on the stanza.
+     * @throws IOException If writing fails.
+     */
+    public final void writeTo(final Writer writer, final String contentNamespace) throws IOException {
+        writer.write(template.head);
+        if (!CLIENT_NAMESPACE.equals(contentNamespace)) {
+            writer.write(" xmlns=\"" + CLIENT_NAMESPACE + '"');
+        }
+        writeAttribute(writer, "to", to.toString());
+        writer.write(template.tail);
+    }
+
+    private static void writeAttribute(final Writer writer, final String name, final String value)
+            throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    @Override
+    public final String toString() {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer, CLIENT_NAMESPACE);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * The encoded form of a stanza, which is shared by all recipients.
+     */
+    public static final class Template {
+
+        private final Stanza stanza;
+
+        private final String head;
+
+        private final String tail;
+
+        private Template(final Stanza stanza, final String head, final String tail) {
+            this.stanza = stanza;
+            this.head = head;
+            this.tail = tail;
+        }
+
+        /**
+         * Creates the stanza for a recipient.
+         *
+         * @param to The recipient.
+         * @return The encoded stanza for the recipient.
+         */
+        public final EncodedStanza to(final Jid to) {
+            return new EncodedStanza(this, Objects.requireNonNull(to));
+        }
+
+        /**
+         * Gets the number of characters of the encoded stanza without the 'to' attribute.
+         *
+         * @return The number of characters.
+         */
+        public final int length() {
+            return head.length() + tail.length();
+        }
+    }
+}
@@ -88,6 +88,24 @@ public final class LanguageUnmarshallerListener extends Unmarshaller.Listener {
         stack.push(target);
     }
 
+    /**
+     * Indicates, whether an unmarshal operation is in progress (or has been aborted without a {@link #reset()}).
+     *
+     * @return True, if an object is being unmarshalled.
+     */
+    final boolean isUnmarshalling() {
+        return !stack.isEmpty();
+    }
+
+    /**
+     * Resets the state of this listener, e.g. if a previous unmarshal operation has been aborted due to an error, so
+     * that the listener can be reused.
+     */
+    final void reset() {
+        parentToChildren.clear();
+        stack.clear();
+    }
+
     /**
      * Assigns the parent locale to the object. Then recursively assigns the object's locale to its children and so on.
      *
@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import jakarta.xml.bind.DataBindingException;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+/**
+ * Provides reusable marshallers and unmarshallers for a {@link JAXBContext}.
+ *
+ * <p>Creating a marshaller or unmarshaller is relatively expensive, because JAXB allocates its internal state (e.g.
+ * the XML serializer, the unmarshalling context and the coordinator) for each new instance. This class creates at most
+ * one marshaller and one unmarshaller per thread and hands out the same instances again on subsequent calls from that
+ * thread. The returned instances must therefore only be used by the calling thread and must not be held on to after
+ * the marshalling or unmarshalling operation has completed, e.g. they must not be passed to another thread. They must
+ * not be reconfigured either, i.e. callers must neither change properties nor set listeners (except for a {@link
+ * LanguageUnmarshallerListener}).</p>
+ *
+ * <p>Marshallers are configured with {@code Marshaller.JAXB_FRAGMENT = true}. Unmarshallers get a {@link
+ * LanguageUnmarshallerListener} for the requested root locale. Listeners are cached per thread and locale as well and
+ * are reset before they are handed out again, so that an aborted unmarshal operation does not affect subsequent
+ * operations.</p>
+ *
+ * <p>If an instance is requested while the thread's instance is still in use, e.g. by an adapter, which marshals a
+ * nested object during marshalling, a new instance is created, which then replaces the pooled one. Hence reentrant
+ * use is safe.</p>
+ *
+ * <p>The instances are kept in a {@link ThreadLocal}, which only pays off for long-lived threads like event loops or
+ * pooled executor threads. Virtual threads are usually short-lived and numerous, therefore this class does not pool
+ * instances for virtual threads but creates new ones, like {@link JAXBContext#createMarshaller()} does.</p>
+ *
+ * <p>One pool is usually shared by all sessions, which share the same JAXB context.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class MarshallerPool {
+
+    /**
+     * {@code Thread.isVirtual()}, which is only available on Java 19 or later.
+     */
+    private static final MethodHandle IS_VIRTUAL;
+
+    static {
+        MethodHandle isVirtual;
+        try {
+            isVirtual = MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            isVirtual = null;
+        }
+        IS_VIRTUAL = isVirtual;
+    }
+
+    private final Supplier<JAXBContext> jaxbContext;
+
+    private final ThreadLocal<Entry> entries = ThreadLocal.withInitial(Entry::new);
+
+    /**
+     * @param jaxbContext The JAXB context, from which the marshallers and unmarshallers are created.
+     */
+    public MarshallerPool(final JAXBContext jaxbContext) {
+        Objects.requireNonNull(jaxbContext);
+        this.jaxbContext = () -> jaxbContext;
+    }
+
+    /**
+     * Creates a pool for a JAXB context, which is only requested, when the first marshaller or unmarshaller is
+     * created. This allows to create the context in the background.
+     *
+     * @param jaxbContext Supplies the JAXB context, from which the marshallers and unmarshallers are created.
+     */
+    public MarshallerPool(final Supplier<JAXBContext> jaxbContext) {
+        this.jaxbContext = Objects.requireNonNull(jaxbContext);
+    }
+
+    /**
+     * Gets the marshaller of the calling thread.
+     *
+     * @return The marshaller.
+     */
+    public final Marshaller getMarshaller() {
+        if (isVirtualThread()) {
+            return createMarshaller(new MarshalListener());
+        }
+        final Entry entry = entries.get();
+        if (entry.marshaller == null || entry.marshalListener.depth > 0) {
+            // Either there's no marshaller yet or it is in use (or a previous operation has been aborted).
+            entry.marshalListener = new MarshalListener();
+            entry.marshaller = createMarshaller(entry.marshalListener);
+        }
+        return entry.marshaller;
+    }
+
+    /**
+     * Gets the unmarshaller of the calling thread, which assigns the given root locale to unmarshalled objects, which
+     * have no explicit locale.
+     *
+     * @param rootLocale The root locale, usually set in the stream header. May be null.
+     * @return The unmarshaller.
+     */
+    public final Unmarshaller getUnmarshaller(final Locale rootLocale) {
+        if (isVirtualThread()) {
+            final Unmarshaller unmarshaller = createUnmarshaller();
+            unmarshaller.setListener(new LanguageUnmarshallerListener(rootLocale));
+            return unmarshaller;
+        }
+        final Entry entry = entries.get();
+        if (entry.unmarshaller == null || isUnmarshalling(entry.unmarshaller)) {
+            // Either there's no unmarshaller yet or it is in use. Its listeners are in use then, too.
+            entry.unmarshaller = createUnmarshaller();
+            entry.listeners.clear();
+        }
+        final LanguageUnmarshallerListener listener =
+                entry.listeners.computeIfAbsent(rootLocale, LanguageUnmarshallerListener::new);
+        listener.reset();
+        entry.unmarshaller.setListener(listener);
+        return entry.unmarshaller;
+    }
+
+    private Marshaller createMarshaller(final MarshalListener listener) {
+        try {
+            final Marshaller marshaller = jaxbContext.get().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            marshaller.setListener(listener);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    }
+
+    private Unmarshaller createUnmarshaller() {
+        try {
+            return jaxbContext.get().createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    }
+
+    private static boolean isUnmarshalling(final Unmarshaller unmarshaller) {
+        final Unmarshaller.Listener listener = unmarshaller.getListener();
+        return listener instanceof LanguageUnmarshallerListener
+                && ((LanguageUnmarshallerListener) listener).isUnmarshalling();
+    }
+
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tracks, whether a marshaller is currently marshalling.
+     */
+    private static final class MarshalListener extends Marshaller.Listener {
+
+        private int depth;
+
+        @Override
+        public final void beforeMarshal(final Object source) {
+            depth++;
+        }
+
+        @Override
+        public final void afterMarshal(final Object source) {
+            depth--;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Map<Locale, LanguageUnmarshallerListener> listeners = new HashMap<>();
+
+        private Marshaller marshaller;
+
+        private MarshalListener marshalListener;
+
+        private Unmarshaller unmarshaller;
+    }
+}
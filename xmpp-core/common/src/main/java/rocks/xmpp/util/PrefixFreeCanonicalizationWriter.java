@@ -24,6 +24,9 @@
 
 package rocks.xmpp.util;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -33,9 +36,13 @@ import java.util.Objects;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import jakarta.xml.soap.SOAPConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
+import rocks.xmpp.core.stanza.model.LazyExtension;
 import rocks.xmpp.core.stream.model.StreamHeader;
 
 /**
@@ -51,6 +58,10 @@ import rocks.xmpp.core.stream.model.StreamHeader;
  * See also <a href="http://stackoverflow.com/questions/5720501/jaxb-marshalling-xmpp-stanzas">here</a> for
  * implementation idea.
  *
+ * <p>The placeholder element of a {@link LazyExtension} is replaced by its raw XML. If the writer, which the underlying
+ * XML stream writer writes to, is known, the raw XML is written verbatim to it. Otherwise it is re-emitted event by
+ * event.</p>
+ *
  * @author Christian Schudt
  */
 final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, NamespaceContext {
@@ -58,15 +69,36 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
     private static final Collection<String> PREFIXED_NAMESPACES =
             Arrays.asList(SOAPConstants.URI_NS_SOAP_1_1_ENVELOPE, SOAPConstants.URI_NS_SOAP_1_2_ENVELOPE);
 
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+
+    static {
+        XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
     private final XMLStreamWriter xsw;
 
     private final boolean writeStreamNamespace;
 
+    private final Writer writer;
+
     private final Map<String, String> urisByPrefix = new HashMap<>();
 
+    /**
+     * True, while the placeholder element of a lazy extension is written.
+     */
+    private boolean raw;
+
     PrefixFreeCanonicalizationWriter(final XMLStreamWriter xsw, final boolean writeStreamNamespace) {
+        this(xsw, writeStreamNamespace, null);
+    }
+
+    PrefixFreeCanonicalizationWriter(final XMLStreamWriter xsw, final boolean writeStreamNamespace,
+                                     final Writer writer) {
         this.xsw = xsw;
         this.writeStreamNamespace = writeStreamNamespace;
+        this.writer = writer;
     }
 
     @Override
@@ -76,23 +108,37 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
 
     @Override
     public final void writeStartElement(final String namespaceURI, final String localName) throws XMLStreamException {
+        if (LazyExtension.NAMESPACE.equals(namespaceURI)) {
+            raw = true;
+            return;
+        }
         xsw.writeStartElement(namespaceURI, localName);
     }
 
     @Override
     public final void writeStartElement(final String prefix, final String localName, final String namespaceURI)
             throws XMLStreamException {
+        if (LazyExtension.NAMESPACE.equals(namespaceURI)) {
+            raw = true;
+            return;
+        }
         writeElement(prefix, localName, namespaceURI, xsw::writeStartElement);
     }
 
     @Override
     public final void writeEmptyElement(final String namespaceURI, final String localName) throws XMLStreamException {
+        if (LazyExtension.NAMESPACE.equals(namespaceURI)) {
+            return;
+        }
         xsw.writeEmptyElement(namespaceURI, localName);
     }
 
     @Override
     public final void writeEmptyElement(final String prefix, final String localName, final String namespaceURI)
             throws XMLStreamException {
+        if (LazyExtension.NAMESPACE.equals(namespaceURI)) {
+            return;
+        }
         writeElement(prefix, localName, namespaceURI, xsw::writeEmptyElement);
     }
 
@@ -118,6 +164,10 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
 
     @Override
     public final void writeEndElement() throws XMLStreamException {
+        if (raw) {
+            raw = false;
+            return;
+        }
         xsw.writeEndElement();
     }
 
@@ -138,12 +188,18 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
 
     @Override
     public final void writeAttribute(final String localName, final String value) throws XMLStreamException {
+        if (raw) {
+            return;
+        }
         xsw.writeAttribute(localName, value);
     }
 
     @Override
     public final void writeAttribute(final String prefix, final String namespaceURI, final String localName,
                                      String value) throws XMLStreamException {
+        if (raw) {
+            return;
+        }
         // If an attribute has an extra namespace, we need to write that namespace to the element.
         // Do it only once for each element.
         if (!XMLConstants.XML_NS_URI.equals(namespaceURI) && getNamespaceContext().getPrefix(namespaceURI) == null) {
@@ -176,11 +232,17 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
     @Override
     public final void writeAttribute(final String namespaceURI, final String localName, final String value)
             throws XMLStreamException {
+        if (raw) {
+            return;
+        }
         xsw.writeAttribute(namespaceURI, localName, value);
     }
 
     @Override
     public final void writeNamespace(final String prefix, final String namespaceURI) throws XMLStreamException {
+        if (raw) {
+            return;
+        }
         // do not write a namespace with a prefix, except it's allowed.
         if (shouldWriteNamespace(namespaceURI)) {
             xsw.writeNamespace(prefix, namespaceURI);
@@ -191,6 +253,9 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
 
     @Override
     public final void writeDefaultNamespace(final String namespaceURI) throws XMLStreamException {
+        if (raw) {
+            return;
+        }
         xsw.writeDefaultNamespace(namespaceURI);
     }
 
@@ -241,14 +306,79 @@ final class PrefixFreeCanonicalizationWriter implements XMLStreamWriter, Namespa
 
     @Override
     public final void writeCharacters(final String text) throws XMLStreamException {
+        if (raw) {
+            writeRaw(text);
+            return;
+        }
         xsw.writeCharacters(text);
     }
 
     @Override
     public final void writeCharacters(final char[] text, final int start, final int len) throws XMLStreamException {
+        if (raw) {
+            writeRaw(new String(text, start, len));
+            return;
+        }
         xsw.writeCharacters(text, start, len);
     }
 
+    private void writeRaw(final String xml) throws XMLStreamException {
+        if (writer != null) {
+            // Close a pending start tag and flush everything written so far, before appending the raw XML.
+            xsw.writeCharacters("");
+            xsw.flush();
+            try {
+                writer.write(xml);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        } else {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            try {
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            xsw.writeStartElement(Objects.toString(reader.getPrefix(), XMLConstants.DEFAULT_NS_PREFIX),
+                                    reader.getLocalName(),
+                                    Objects.toString(reader.getNamespaceURI(), XMLConstants.NULL_NS_URI));
+                            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                                final String prefix = reader.getNamespacePrefix(i);
+                                if (prefix == null || prefix.isEmpty()) {
+                                    xsw.writeDefaultNamespace(reader.getNamespaceURI(i));
+                                } else {
+                                    xsw.writeNamespace(prefix, reader.getNamespaceURI(i));
+                                }
+                            }
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                final String namespaceUri = reader.getAttributeNamespace(i);
+                                if (namespaceUri == null || namespaceUri.isEmpty()) {
+                                    xsw.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                                } else {
+                                    xsw.writeAttribute(reader.getAttributePrefix(i), namespaceUri,
+                                            reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                                }
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            xsw.writeEndElement();
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.SPACE:
+                            xsw.writeCharacters(reader.getText());
+                            break;
+                        case XMLStreamConstants.CDATA:
+                            xsw.writeCData(reader.getText());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
     @Override
     public final String getNamespaceURI(final String prefix) {
         String uri = getNamespaceContext().getNamespaceURI(prefix);
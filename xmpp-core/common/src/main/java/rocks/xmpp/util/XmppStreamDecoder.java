@@ -47,6 +47,7 @@ import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.jfr.UnmarshalEvent;
 import rocks.xmpp.core.net.ReaderInterceptor;
 import rocks.xmpp.core.net.ReaderInterceptorChain;
 import rocks.xmpp.core.stream.model.StreamElement;
@@ -115,6 +116,7 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                 xmlEventReader = inputFactory.createXMLEventReader(reader);
                 XMLEvent xmlEvent;
                 StreamHeader streamHeader = null;
+                LanguageUnmarshallerListener languageListener = null;
                 while (!doRestart && (xmlEvent = xmlEventReader.peek()) != null) {
                     switch (xmlEvent.getEventType()) {
                         case XMLStreamConstants.START_ELEMENT:
@@ -149,11 +151,24 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                                 streamElementConsumer.accept(streamHeader);
                                 xmlEventReader.nextEvent();
                             } else {
+                                // Get the unmarshaller only once, so that the listener is set on the instance,
+                                // which is actually used.
+                                final Unmarshaller u = unmarshaller.get();
                                 if (streamHeader != null) {
-                                    unmarshaller.get()
-                                            .setListener(new LanguageUnmarshallerListener(streamHeader.getLanguage()));
+                                    if (languageListener == null) {
+                                        languageListener = new LanguageUnmarshallerListener(streamHeader.getLanguage());
+                                    }
+                                    u.setListener(languageListener);
+                                }
+                                final UnmarshalEvent event = new UnmarshalEvent();
+                                event.begin();
+                                StreamElement object = (StreamElement) u.unmarshal(xmlEventReader);
+                                event.end();
+                                if (event.shouldCommit()) {
+                                    event.element = startElement.getName().getLocalPart();
+                                    event.elementType = object.getClass();
+                                    event.commit();
                                 }
-                                StreamElement object = (StreamElement) unmarshaller.get().unmarshal(xmlEventReader);
                                 streamElementConsumer.accept(object);
                             }
                             break;
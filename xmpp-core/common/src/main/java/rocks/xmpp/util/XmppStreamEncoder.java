@@ -40,6 +40,7 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import rocks.xmpp.core.jfr.MarshalEvent;
 import rocks.xmpp.core.net.WriterInterceptor;
 import rocks.xmpp.core.net.WriterInterceptorChain;
 import rocks.xmpp.core.stream.model.StreamElement;
@@ -128,16 +129,28 @@ public final class XmppStreamEncoder implements WriterInterceptor {
                     writer.write(StreamHeader.CLOSING_STREAM_TAG.toString());
                     writer.flush();
                     return;
+                } else if (streamElement instanceof EncodedStanza) {
+                    // Already marshalled, only the 'to' attribute is written.
+                    ((EncodedStanza) streamElement).writeTo(writer, contentNamespace);
+                    writer.flush();
+                    return;
                 }
 
                 streamWriter = XmppUtils.createXmppStreamWriter(outputFactory.createXMLStreamWriter(writer),
-                        writeStreamNamespace.apply(streamElement));
+                        writeStreamNamespace.apply(streamElement), writer);
                 streamWriter.setDefaultNamespace(
                         contentNamespace != null ? contentNamespace : XMLConstants.DEFAULT_NS_PREFIX);
                 final Marshaller m = marshaller.get();
                 m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+                final MarshalEvent event = new MarshalEvent();
+                event.begin();
                 m.marshal(streamElement, streamWriter);
                 streamWriter.flush();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.elementType = streamElement.getClass();
+                    event.commit();
+                }
             } finally {
                 if (streamWriter != null) {
                     streamWriter.close();
@@ -28,10 +28,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.EventObject;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.concurrent.ThreadFactory;
@@ -44,6 +48,7 @@ import jakarta.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamWriter;
 
 import rocks.xmpp.core.XmppContext;
+import rocks.xmpp.core.jfr.ListenerDispatchEvent;
 
 /**
  * Utility class with static factory methods.
@@ -54,6 +59,13 @@ public final class XmppUtils {
 
     private static final System.Logger logger = System.getLogger(XmppUtils.class.getName());
 
+    /**
+     * The created contexts, which are still in use.
+     *
+     * <p>Guarded by "CONTEXTS".</p>
+     */
+    private static final List<CachedContext> CONTEXTS = new ArrayList<>();
+
     private XmppUtils() {
     }
 
@@ -103,7 +115,24 @@ public final class XmppUtils {
      * @return The prefix-free canonicalization writer.
      */
     public static XMLStreamWriter createXmppStreamWriter(XMLStreamWriter xmlStreamWriter, boolean writeStreamNamepace) {
-        return new PrefixFreeCanonicalizationWriter(xmlStreamWriter, writeStreamNamepace);
+        return createXmppStreamWriter(xmlStreamWriter, writeStreamNamepace, null);
+    }
+
+    /**
+     * Creates a {@link XMLStreamWriter} instance, which writes XML without namespace prefixes and which writes the raw
+     * XML of {@linkplain rocks.xmpp.core.stanza.model.LazyExtension lazy extensions} verbatim to the given writer.
+     *
+     * @param xmlStreamWriter     The underlying XML stream writer.
+     * @param writeStreamNamepace If the stream namespace ('http://etherx.jabber.org/streams') should be written to the
+     *                            root element.
+     * @param writer              The writer, which the underlying XML stream writer writes to. If null, lazy
+     *                            extensions are re-emitted event by event to the XML stream writer.
+     * @return The prefix-free canonicalization writer.
+     * @see #createXmppStreamWriter(XMLStreamWriter, boolean)
+     */
+    public static XMLStreamWriter createXmppStreamWriter(XMLStreamWriter xmlStreamWriter, boolean writeStreamNamepace,
+                                                         Writer writer) {
+        return new PrefixFreeCanonicalizationWriter(xmlStreamWriter, writeStreamNamepace, writer);
     }
 
     /**
@@ -203,19 +232,33 @@ public final class XmppUtils {
      * @param <T>            The event object type.
      */
     public static <T extends EventObject> void notifyEventListeners(Iterable<Consumer<T>> eventListeners, T e) {
-        eventListeners.forEach(listener -> {
+        final ListenerDispatchEvent event = new ListenerDispatchEvent();
+        event.begin();
+        for (final Consumer<T> listener : eventListeners) {
+            event.listeners++;
             try {
                 listener.accept(e);
             } catch (Exception ex) {
+                event.failures++;
                 logger.log(System.Logger.Level.WARNING, ex.getMessage(), ex);
             }
-        });
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.eventType = e.getClass();
+            event.commit();
+        }
     }
 
     /**
      * Creates a {@link JAXBContext} by loading all {@link XmppContext} implementations on the classpath. {@link
      * XmppContext}s are found by using {@link ServiceLoader}.
      *
+     * <p>Creating a context for hundreds of classes takes a lot of time. Therefore created contexts are cached and
+     * returned again, if they are requested for the same set of classes, e.g. if multiple configurations with the same
+     * extensions are created. The cache only references the contexts and their classes weakly, so that it neither keeps
+     * unused contexts nor prevents class loaders (e.g. of redeployed applications) from being unloaded.</p>
+     *
      * @param additionalClasses The additional classes to be bound to the context.
      * @return The JAXBContext
      * @see ServiceLoader
@@ -229,11 +272,79 @@ public final class XmppUtils {
             module.getClasses().forEach(classes::add);
         }
         additionalClasses.forEach(classes::add);
+        synchronized (CONTEXTS) {
+            final JAXBContext jaxbContext = getCachedContext(classes);
+            if (jaxbContext != null) {
+                return jaxbContext;
+            }
+        }
+        // Don't block other callers, while the context is created.
+        final JAXBContext jaxbContext;
         try {
-            return JAXBContext.newInstance(classes.toArray(new Class<?>[0]));
+            jaxbContext = JAXBContext.newInstance(classes.toArray(new Class<?>[0]));
         } catch (JAXBException e) {
             throw new DataBindingException(e);
         }
+        synchronized (CONTEXTS) {
+            final JAXBContext existing = getCachedContext(classes);
+            if (existing != null) {
+                return existing;
+            }
+            CONTEXTS.add(new CachedContext(classes, jaxbContext));
+            return jaxbContext;
+        }
+    }
+
+    /**
+     * Gets a cached context for the given classes and removes contexts, which have been garbage collected.
+     * Must be called while holding the lock on "CONTEXTS".
+     *
+     * @param classes The classes.
+     * @return The context or null.
+     */
+    private static JAXBContext getCachedContext(final Set<Class<?>> classes) {
+        JAXBContext result = null;
+        for (final Iterator<CachedContext> iterator = CONTEXTS.iterator(); iterator.hasNext(); ) {
+            final CachedContext cachedContext = iterator.next();
+            final JAXBContext jaxbContext = cachedContext.jaxbContext.get();
+            if (jaxbContext == null) {
+                iterator.remove();
+            } else if (result == null && cachedContext.isFor(classes)) {
+                result = jaxbContext;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A context and its bound classes, which are both referenced weakly.
+     */
+    private static final class CachedContext {
+
+        private final int hash;
+
+        private final List<WeakReference<Class<?>>> classes;
+
+        private final WeakReference<JAXBContext> jaxbContext;
+
+        private CachedContext(final Set<Class<?>> classes, final JAXBContext jaxbContext) {
+            this.hash = classes.hashCode();
+            this.classes = new ArrayList<>(classes.size());
+            classes.forEach(clazz -> this.classes.add(new WeakReference<>(clazz)));
+            this.jaxbContext = new WeakReference<>(jaxbContext);
+        }
+
+        private boolean isFor(final Set<Class<?>> classes) {
+            if (hash != classes.hashCode() || this.classes.size() != classes.size()) {
+                return false;
+            }
+            for (final WeakReference<Class<?>> clazz : this.classes) {
+                if (!classes.contains(clazz.get())) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     private static final class DefaultThreadFactory implements ThreadFactory {
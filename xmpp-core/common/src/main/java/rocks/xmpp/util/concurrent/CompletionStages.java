@@ -27,17 +27,15 @@ package rocks.xmpp.util.concurrent;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import rocks.xmpp.util.XmppUtils;
-
 /**
  * Utility class for creating different kinds of {@link java.util.concurrent.CompletionStage}.
  *
@@ -45,9 +43,6 @@ import rocks.xmpp.util.XmppUtils;
  */
 public final class CompletionStages {
 
-    private static final ScheduledExecutorService TIMEOUT_EXECUTOR =
-            Executors.newSingleThreadScheduledExecutor(XmppUtils.createNamedThreadFactory("timeout-scheduler"));
-
     private CompletionStages() {
     }
 
@@ -93,6 +88,13 @@ public final class CompletionStages {
      * Creates a completion stage, which times out after the specified time, i.e. it completes exceptionally with a
      * {@link TimeoutException}.
      *
+     * <p>A timeout completes the stage in the {@linkplain ForkJoinPool#commonPool() common pool}, so that dependent
+     * stages don't run on the (shared) timer thread.</p>
+     *
+     * <p>The timeout is not cancelled, when another stage, with which the returned stage is combined, completes.
+     * Prefer {@link #orTimeout(CompletionStage, long, TimeUnit, Supplier)} for timeouts, which usually do not
+     * occur.</p>
+     *
      * @param delay The delay.
      * @param unit  The time unit.
      * @param <T>   The type.
@@ -115,7 +117,62 @@ public final class CompletionStages {
     public static <T> CompletionStage<T> timeoutAfter(final long delay, final TimeUnit unit,
                                                       final Supplier<Throwable> throwableSupplier) {
         CompletableFuture<T> completableFuture = new CompletableFuture<>();
-        TIMEOUT_EXECUTOR.schedule(() -> completableFuture.completeExceptionally(throwableSupplier.get()), delay, unit);
+        HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().newTimeout(() -> ForkJoinPool.commonPool()
+                .execute(() -> completableFuture.completeExceptionally(throwableSupplier.get())), delay, unit);
+        // Cancel the timeout, if the stage is completed or cancelled by other means.
+        completableFuture.whenComplete((result, e) -> timeout.cancel());
         return completableFuture;
     }
+
+    /**
+     * Creates a completion stage, which completes like the given stage or exceptionally with the supplied exception,
+     * if the given stage does not complete within the specified time. The timeout is cancelled, as soon as the given
+     * stage completes, so that no timer tasks accumulate if many stages complete in time, e.g. IQ responses.
+     *
+     * <p>Like {@link CompletionStage#applyToEither(CompletionStage, java.util.function.Function)}, the returned stage
+     * completes with a {@link CompletionException}, which wraps the exception of the given stage or the timeout. A
+     * timeout completes the stage in the {@linkplain ForkJoinPool#commonPool() common pool}.</p>
+     *
+     * @param stage             The stage.
+     * @param delay             The delay.
+     * @param unit              The time unit.
+     * @param throwableSupplier The supplier for an exception which occurs on timeout.
+     * @param <T>               The type.
+     * @return The stage, which times out.
+     */
+    public static <T> CompletableFuture<T> orTimeout(final CompletionStage<T> stage, final long delay,
+                                                     final TimeUnit unit,
+                                                     final Supplier<Throwable> throwableSupplier) {
+        final CompletableFuture<T> completableFuture = new CompletableFuture<>();
+        final HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().newTimeout(() -> ForkJoinPool.commonPool()
+                        .execute(() -> completableFuture.completeExceptionally(
+                                new CompletionException(throwableSupplier.get()))),
+                delay, unit);
+        completableFuture.whenComplete((result, e) -> timeout.cancel());
+        stage.whenComplete((result, e) -> {
+            if (e != null) {
+                completableFuture.completeExceptionally(e instanceof CompletionException
+                        ? e : new CompletionException(e));
+            } else {
+                completableFuture.complete(result);
+            }
+        });
+        return completableFuture;
+    }
+
+    /**
+     * Creates a completion stage, which completes like the given stage or exceptionally with a {@link
+     * TimeoutException}, if the given stage does not complete within the specified time.
+     *
+     * @param stage The stage.
+     * @param delay The delay.
+     * @param unit  The time unit.
+     * @param <T>   The type.
+     * @return The stage, which times out.
+     * @see #orTimeout(CompletionStage, long, TimeUnit, Supplier)
+     */
+    public static <T> CompletableFuture<T> orTimeout(final CompletionStage<T> stage, final long delay,
+                                                     final TimeUnit unit) {
+        return orTimeout(stage, delay, unit, () -> new TimeoutException("Timeout after " + delay + ' ' + unit));
+    }
 }
@@ -0,0 +1,477 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util.concurrent;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * A timer, which schedules and cancels timeouts in constant time, at the cost of a coarse precision.
+ *
+ * <p>Timeouts are kept in a wheel of buckets, each of which covers one tick. A single worker thread wakes up once per
+ * tick and expires the timeouts of the current bucket. This suits timeouts, which are usually cancelled long before
+ * they expire, such as IQ response timeouts or keep-alives, which are rescheduled on every received stanza: Unlike a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}, cancelling is O(1) and cancelled timeouts are dropped at
+ * the next tick instead of piling up until their delay has elapsed.</p>
+ *
+ * <p>Tasks are executed by the worker thread. They must be short and must not block; longer tasks should be handed
+ * over to an executor.</p>
+ *
+ * @author Christian Schudt
+ * @see #shared()
+ */
+public final class HashedWheelTimer {
+
+    private static final System.Logger logger = System.getLogger(HashedWheelTimer.class.getName());
+
+    private static final int STATE_INIT = 0;
+
+    private static final int STATE_STARTED = 1;
+
+    private static final int STATE_STOPPED = 2;
+
+    /**
+     * The maximal number of new timeouts, which are put into the wheel per tick, so that a flood of new timeouts
+     * does not delay the expiration of others.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final String name;
+
+    private final long tickDuration;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final long startTime = System.nanoTime();
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pendingTimeouts = new AtomicLong();
+
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+    /**
+     * The periodic timeouts, which have expired in the current tick. Only accessed by the worker thread.
+     */
+    private final Queue<Timeout> periodicTimeouts = new ArrayDeque<>();
+
+    private final boolean shared;
+
+    private volatile Thread workerThread;
+
+    /**
+     * The number of ticks, which have elapsed. Only accessed by the worker thread.
+     */
+    private long tick;
+
+    /**
+     * Creates a timer. The worker thread is started, when the first timeout is scheduled.
+     *
+     * @param name          The name of the worker thread.
+     * @param tickDuration  The duration of a tick, i.e. the precision of the timer.
+     * @param ticksPerWheel The number of buckets, which is rounded up to a power of two.
+     */
+    public HashedWheelTimer(final String name, final Duration tickDuration, final int ticksPerWheel) {
+        this(name, tickDuration, ticksPerWheel, false);
+    }
+
+    private HashedWheelTimer(final String name, final Duration tickDuration, final int ticksPerWheel,
+                             final boolean shared) {
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel < 1 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+        }
+        this.name = Objects.requireNonNull(name);
+        this.tickDuration = tickDuration.toNanos();
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.shared = shared;
+    }
+
+    /**
+     * Gets the timer, which is shared by the library, e.g. for IQ response timeouts, keep-alives and pings. It has a
+     * precision of 10 milliseconds and cannot be stopped.
+     *
+     * @return The shared timer.
+     */
+    public static HashedWheelTimer shared() {
+        return SharedTimerHolder.INSTANCE;
+    }
+
+    /**
+     * Schedules a task, which is executed once after the given delay.
+     *
+     * @param task  The task.
+     * @param delay The delay.
+     * @param unit  The time unit of the delay.
+     * @return The timeout, which can be cancelled.
+     * @throws RejectedExecutionException If the timer has been stopped.
+     */
+    public final Timeout newTimeout(final Runnable task, final long delay, final TimeUnit unit) {
+        return schedule(task, delay, 0, unit);
+    }
+
+    /**
+     * Schedules a task, which is executed periodically, first after the given period. Subsequent executions are
+     * scheduled at a fixed rate, but never more than once per tick.
+     *
+     * @param task   The task.
+     * @param period The period.
+     * @param unit   The time unit of the period.
+     * @return The timeout, which can be cancelled to stop the periodic execution.
+     * @throws RejectedExecutionException If the timer has been stopped.
+     */
+    public final Timeout newPeriodicTimeout(final Runnable task, final long period, final TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        return schedule(task, period, unit.toNanos(period), unit);
+    }
+
+    private Timeout schedule(final Runnable task, final long delay, final long period, final TimeUnit unit) {
+        Objects.requireNonNull(task);
+        start();
+        final long now = System.nanoTime() - startTime;
+        final long delayNanos = unit.toNanos(Math.max(0, delay));
+        // Guard against an overflow, e.g. for Long.MAX_VALUE.
+        final long deadline = delayNanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + delayNanos;
+        final Timeout timeout = new Timeout(this, task, deadline, period);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void start() {
+        switch (state.get()) {
+            case STATE_INIT:
+                if (state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+                    final Thread thread = XmppUtils.createNamedThreadFactory(name).newThread(this::run);
+                    workerThread = thread;
+                    thread.start();
+                }
+                break;
+            case STATE_STARTED:
+                break;
+            default:
+                throw new RejectedExecutionException("Timer has been stopped.");
+        }
+    }
+
+    /**
+     * Stops the worker thread. Pending timeouts are not executed anymore. The {@linkplain #shared() shared} timer is
+     * not stopped.
+     */
+    public final void stop() {
+        if (!shared && state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+            LockSupport.unpark(workerThread);
+        }
+    }
+
+    /**
+     * Gets the number of timeouts, which have neither expired nor been cancelled. Periodic timeouts count as pending
+     * until they are cancelled.
+     *
+     * @return The number of pending timeouts.
+     */
+    public final long getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    private void run() {
+        while (state.get() == STATE_STARTED) {
+            final long now = waitForNextTick();
+            if (now < 0) {
+                break;
+            }
+            removeCancelledTimeouts();
+            transferNewTimeouts();
+            expireTimeouts(wheel[(int) (tick & mask)]);
+            tick++;
+            rearmPeriodicTimeouts(now);
+        }
+        newTimeouts.clear();
+        cancelledTimeouts.clear();
+        periodicTimeouts.clear();
+        for (final Bucket bucket : wheel) {
+            bucket.clear();
+        }
+        pendingTimeouts.set(0);
+    }
+
+    /**
+     * Waits until the current tick has elapsed.
+     *
+     * @return The current time relative to the start time or -1, if the timer has been stopped.
+     */
+    private long waitForNextTick() {
+        final long deadline = tickDuration * (tick + 1);
+        while (true) {
+            final long now = System.nanoTime() - startTime;
+            if (now >= deadline) {
+                return now;
+            }
+            if (state.get() != STATE_STARTED) {
+                return -1;
+            }
+            LockSupport.parkNanos(this, deadline - now);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Timeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state.get() == Timeout.ST_INIT) {
+                addToWheel(timeout, tick);
+            }
+        }
+    }
+
+    /**
+     * Adds a timeout to the bucket of its deadline. The bucket of the current tick has not yet been expired.
+     *
+     * @param timeout The timeout.
+     * @param minTick The earliest tick.
+     */
+    private void addToWheel(final Timeout timeout, final long minTick) {
+        final long calculatedTick = timeout.deadline / tickDuration;
+        final long targetTick = Math.max(calculatedTick, minTick);
+        timeout.remainingRounds = (targetTick - tick) / wheel.length;
+        wheel[(int) (targetTick & mask)].add(timeout);
+    }
+
+    private void expireTimeouts(final Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                timeout.expire();
+                if (timeout.period > 0) {
+                    // Re-arm the periodic timeout after the current bucket has been expired. Otherwise, if it was
+                    // re-armed into the bucket being expired, its remaining rounds would be off by one.
+                    periodicTimeouts.add(timeout);
+                }
+            } else if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void rearmPeriodicTimeouts(final long now) {
+        Timeout timeout;
+        while ((timeout = periodicTimeouts.poll()) != null) {
+            if (timeout.state.compareAndSet(Timeout.ST_EXPIRED, Timeout.ST_INIT)) {
+                timeout.deadline = Math.max(timeout.deadline + timeout.period, now);
+                pendingTimeouts.incrementAndGet();
+                addToWheel(timeout, tick);
+            }
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return "Hashed wheel timer " + name + " (" + pendingTimeouts.get() + " pending)";
+    }
+
+    /**
+     * A scheduled task of a {@link HashedWheelTimer}.
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+
+        private static final int ST_CANCELLED = 1;
+
+        private static final int ST_EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        private final long period;
+
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        /**
+         * The deadline relative to the start time of the timer. Only accessed by the worker thread after scheduling.
+         */
+        private long deadline;
+
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout previous;
+
+        private Timeout next;
+
+        private Timeout(final HashedWheelTimer timer, final Runnable task, final long deadline, final long period) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Cancels this timeout, so that its task is not executed (again).
+         *
+         * @return True, if this timeout has been cancelled by this call; false, if it has already been cancelled or
+         * if it is not periodic and has already expired.
+         */
+        public final boolean cancel() {
+            while (true) {
+                final int current = state.get();
+                if (current == ST_CANCELLED || (current == ST_EXPIRED && period == 0)) {
+                    return false;
+                }
+                if (state.compareAndSet(current, ST_CANCELLED)) {
+                    if (current == ST_INIT) {
+                        timer.pendingTimeouts.decrementAndGet();
+                    }
+                    timer.cancelledTimeouts.add(this);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Indicates whether this timeout has been cancelled.
+         *
+         * @return True, if this timeout has been cancelled.
+         */
+        public final boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        /**
+         * Indicates whether this timeout has expired, i.e. whether its task has been executed. Periodic timeouts are
+         * only in this state while their task is running.
+         *
+         * @return True, if this timeout has expired.
+         */
+        public final boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            timer.pendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Also errors, which would otherwise terminate the worker thread and stop all other timeouts.
+                logger.log(System.Logger.Level.WARNING, "Timeout task threw an exception.", e);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, which is only accessed by the worker thread.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        private void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private void clear() {
+            head = null;
+            tail = null;
+        }
+    }
+
+    private static final class SharedTimerHolder {
+
+        private static final HashedWheelTimer INSTANCE =
+                new HashedWheelTimer("Timer Thread", Duration.ofMillis(10), 512, true);
+    }
+}
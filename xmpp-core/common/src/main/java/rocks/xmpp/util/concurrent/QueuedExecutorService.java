@@ -123,6 +123,15 @@ public class QueuedExecutorService extends AbstractExecutorService {
         return isShutdown() && tasks.isEmpty() && !hasRunningTask.get();
     }
 
+    /**
+     * Gets the number of tasks, which are waiting to be executed.
+     *
+     * @return The number of pending tasks.
+     */
+    public int getQueueSize() {
+        return tasks.size();
+    }
+
     @Override
     public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
 
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.jfr;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.net.ReaderInterceptor;
+import rocks.xmpp.core.net.ReaderInterceptorChain;
+import rocks.xmpp.core.net.WriterInterceptor;
+import rocks.xmpp.core.net.WriterInterceptorChain;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.util.XmppStreamDecoder;
+import rocks.xmpp.util.XmppStreamEncoder;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Tests that the stanza pipeline emits flight recorder events.
+ *
+ * @author Christian Schudt
+ */
+public class JfrEventsTest {
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        final JAXBContext jaxbContext = XmppUtils.createContext(Collections.emptyList());
+        final Marshaller marshaller = jaxbContext.createMarshaller();
+        final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+
+        final List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(MarshalEvent.class).withoutThreshold();
+            recording.enable(UnmarshalEvent.class).withoutThreshold();
+            recording.enable(InterceptorChainEvent.class).withoutThreshold();
+            recording.enable(ListenerDispatchEvent.class).withoutThreshold();
+            recording.start();
+
+            final StringWriter writer = new StringWriter();
+            final List<WriterInterceptor> writerInterceptors = Collections.singletonList(
+                    new XmppStreamEncoder(XMLOutputFactory.newFactory(), () -> marshaller, e -> true));
+            new WriterInterceptorChain(writerInterceptors, null, null)
+                    .proceed(ClientMessage.from(new Message(Jid.of("juliet@example.net"), Message.Type.CHAT, "Hi")),
+                            writer);
+
+            final List<StreamElement> elements = new ArrayList<>();
+            final List<ReaderInterceptor> readerInterceptors = Collections.singletonList(
+                    new XmppStreamDecoder(XMLInputFactory.newFactory(), () -> unmarshaller, "jabber:client"));
+            new ReaderInterceptorChain(readerInterceptors, null, null)
+                    .proceed(new StringReader(writer.toString()), elements::add);
+            Assert.assertEquals(elements.size(), 1);
+
+            final List<Consumer<EventObject>> listeners = new ArrayList<>();
+            listeners.add(e -> {
+            });
+            listeners.add(e -> {
+                throw new IllegalStateException();
+            });
+            XmppUtils.notifyEventListeners(listeners, new EventObject(this));
+
+            recording.stop();
+            final Path file = Files.createTempFile("xmpp", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        final RecordedEvent marshal = single(events, "rocks.xmpp.Marshal");
+        Assert.assertEquals(marshal.getClass("elementType").getName(), ClientMessage.class.getName());
+
+        final RecordedEvent unmarshal = single(events, "rocks.xmpp.Unmarshal");
+        Assert.assertEquals(unmarshal.getString("element"), "message");
+
+        final List<String> directions = events.stream()
+                .filter(e -> e.getEventType().getName().equals("rocks.xmpp.InterceptorChain"))
+                .map(e -> e.getString("direction"))
+                .sorted()
+                .collect(Collectors.toList());
+        Assert.assertEquals(directions, List.of("read", "write"));
+
+        final RecordedEvent dispatch = single(events, "rocks.xmpp.ListenerDispatch");
+        Assert.assertEquals(dispatch.getInt("listeners"), 2);
+        Assert.assertEquals(dispatch.getInt("failures"), 1);
+    }
+
+    private static RecordedEvent single(final List<RecordedEvent> events, final String name) {
+        final List<RecordedEvent> matching = events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        Assert.assertEquals(matching.size(), 1, name);
+        return matching.get(0);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.client.ClientIQ;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.client.ClientPresence;
+import rocks.xmpp.core.stream.model.StreamHeader;
+
+/**
+ * @author Christian Schudt
+ */
+public class ConnectionMetricsTest {
+
+    @Test
+    public void testElementsAndTotals() {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        ConnectionMetrics metrics1 = new ConnectionMetrics(registry);
+        ConnectionMetrics metrics2 = new ConnectionMetrics(registry);
+
+        metrics1.elementReceived(ClientMessage.from(new Message()));
+        metrics1.elementReceived(ClientPresence.from(new Presence()));
+        metrics2.elementReceived(ClientMessage.from(new Message()));
+        metrics2.elementSent(ClientIQ.from(IQ.get(new Object())));
+        metrics2.elementSent(StreamHeader.CLOSING_STREAM_TAG);
+
+        Assert.assertEquals(metrics1.getElementsReceived(ConnectionMetrics.Kind.MESSAGE), 1);
+        Assert.assertEquals(metrics1.getElementsReceived(ConnectionMetrics.Kind.PRESENCE), 1);
+        Assert.assertEquals(metrics2.getElementsSent(ConnectionMetrics.Kind.IQ), 1);
+        Assert.assertEquals(metrics2.getElementsSent(ConnectionMetrics.Kind.OTHER), 1);
+        Assert.assertEquals(registry.get("xmpp.elements.in.message"), Long.valueOf(2));
+        Assert.assertEquals(registry.get("xmpp.elements.out.iq"), Long.valueOf(1));
+        Assert.assertEquals(registry.get("xmpp.connections.opened"), Long.valueOf(2));
+    }
+
+    @Test
+    public void testBytesAndState() {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        ConnectionMetrics metrics = new ConnectionMetrics(registry);
+        metrics.bytesReceived(100);
+        metrics.bytesSent(50);
+        metrics.secured();
+        metrics.compressed();
+        Assert.assertEquals(metrics.getBytesReceived(), 100);
+        Assert.assertEquals(metrics.getBytesSent(), 50);
+        Assert.assertTrue(metrics.isSecured());
+        Assert.assertTrue(metrics.isCompressed());
+        Assert.assertEquals(registry.get("xmpp.bytes.in"), Long.valueOf(100));
+        Assert.assertEquals(registry.get("xmpp.connections.secured"), Long.valueOf(1));
+
+        metrics.closed();
+        metrics.closed();
+        Assert.assertEquals(registry.get("xmpp.connections.closed"), Long.valueOf(1));
+    }
+}
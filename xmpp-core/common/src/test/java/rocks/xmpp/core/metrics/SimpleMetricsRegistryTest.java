@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class SimpleMetricsRegistryTest {
+
+    @Test
+    public void testCounter() {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        Counter counter = registry.counter("test.counter");
+        counter.increment();
+        counter.add(4);
+        Assert.assertSame(registry.counter("test.counter"), counter);
+        Assert.assertEquals(counter.get(), 5);
+        Assert.assertEquals(registry.get("test.counter"), Long.valueOf(5));
+        Assert.assertNull(registry.get("unknown"));
+    }
+
+    @Test
+    public void testGaugesAreSummedAndRemoved() {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        AtomicLong value1 = new AtomicLong(2);
+        AtomicLong value2 = new AtomicLong(3);
+        MetricsRegistry.Registration registration1 = registry.gauge("test.gauge", value1::get);
+        MetricsRegistry.Registration registration2 = registry.gauge("test.gauge", value2::get);
+        Assert.assertEquals(registry.get("test.gauge"), Long.valueOf(5));
+        value1.set(10);
+        Assert.assertEquals(registry.get("test.gauge"), Long.valueOf(13));
+        registration1.close();
+        Assert.assertEquals(registry.get("test.gauge"), Long.valueOf(3));
+        registration2.close();
+        Assert.assertFalse(registry.getNames().contains("test.gauge"));
+    }
+
+    @Test
+    public void testSnapshot() {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        registry.counter("b").increment();
+        registry.gauge("a", () -> 7);
+        Assert.assertEquals(registry.snapshot().firstKey(), "a");
+        Assert.assertEquals(registry.snapshot().get("a"), Long.valueOf(7));
+        Assert.assertEquals(registry.snapshot().get("b"), Long.valueOf(1));
+    }
+
+    @Test
+    public void testNoOp() {
+        Counter counter = MetricsRegistry.noop().counter("test");
+        counter.increment();
+        Assert.assertEquals(counter.get(), 0);
+        MetricsRegistry.noop().gauge("test", () -> 1).close();
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        registry.counter("xmpp.test").add(3);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("rocks.xmpp:type=MetricsTest");
+        server.registerMBean(new MetricsDynamicMBean(registry), objectName);
+        try {
+            Assert.assertEquals(server.getAttribute(objectName, "xmpp.test"), 3L);
+            registry.counter("xmpp.test2").increment();
+            Assert.assertEquals(server.getMBeanInfo(objectName).getAttributes().length, 2);
+        } finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.net.capture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class TrafficCaptureTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("capture");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testReadRecords() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 4096)) {
+            ByteBuffer inbound = ByteBuffer.wrap("<iq/>".getBytes(StandardCharsets.UTF_8));
+            capture.inbound(inbound);
+            Assert.assertEquals(inbound.position(), 0);
+            capture.outbound("<message/>".getBytes(StandardCharsets.UTF_8), 0, 10);
+
+            List<CapturedRecord> records = TrafficCapture.read(capture.getPath());
+            Assert.assertEquals(records.size(), 2);
+            Assert.assertEquals(records.get(0).getDirection(), CapturedRecord.Direction.INBOUND);
+            Assert.assertEquals(toString(records.get(0)), "<iq/>");
+            Assert.assertEquals(records.get(1).getDirection(), CapturedRecord.Direction.OUTBOUND);
+            Assert.assertEquals(toString(records.get(1)), "<message/>");
+            Assert.assertTrue(records.get(0).getElapsedNanos() <= records.get(1).getElapsedNanos());
+        }
+    }
+
+    @Test
+    public void testRingKeepsMostRecentRecords() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 1024)) {
+            for (int i = 0; i < 1000; i++) {
+                capture.inbound(("<message id='" + i + "'/>").getBytes(StandardCharsets.UTF_8), 0,
+                        ("<message id='" + i + "'/>").length());
+            }
+            List<CapturedRecord> records = TrafficCapture.read(capture.getPath());
+            Assert.assertTrue(records.size() > 10);
+            Assert.assertTrue(records.size() < 1000);
+            int first = 1000 - records.size();
+            for (int i = 0; i < records.size(); i++) {
+                Assert.assertEquals(toString(records.get(i)), "<message id='" + (first + i) + "'/>");
+            }
+        }
+    }
+
+    @Test
+    public void testRingIsFilledCompletely() throws IOException {
+        // 992 bytes after the header fit exactly 31 records with 13 bytes header and 19 bytes data.
+        try (TrafficCapture capture = TrafficCapture.create(directory, 1024)) {
+            for (int i = 0; i < 100; i++) {
+                capture.inbound(String.format("<message id='%03d'/>", i).getBytes(StandardCharsets.UTF_8), 0, 19);
+            }
+            List<CapturedRecord> records = TrafficCapture.read(capture.getPath());
+            Assert.assertEquals(records.size(), 31);
+            Assert.assertEquals(toString(records.get(0)), "<message id='069'/>");
+            Assert.assertEquals(toString(records.get(30)), "<message id='099'/>");
+        }
+    }
+
+    @Test
+    public void testFilesAreRotated() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            try (TrafficCapture capture = TrafficCapture.create(directory, 1024, 3)) {
+                paths.add(capture.getPath());
+            }
+            Files.setLastModifiedTime(paths.get(i), FileTime.fromMillis(i * 1000L));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(files.collect(Collectors.toSet()), Set.copyOf(paths.subList(2, 5)));
+        }
+    }
+
+    @Test
+    public void testLargeChunksAreSplit() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 1024)) {
+            byte[] bytes = new byte[3000];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) ('a' + i % 26);
+            }
+            capture.outbound(ByteBuffer.wrap(bytes));
+            StringBuilder sb = new StringBuilder();
+            for (CapturedRecord record : TrafficCapture.read(capture.getPath())) {
+                sb.append(toString(record));
+            }
+            String captured = sb.toString();
+            Assert.assertFalse(captured.isEmpty());
+            Assert.assertTrue(new String(bytes, StandardCharsets.US_ASCII).endsWith(captured));
+        }
+    }
+
+    @Test
+    public void testStreams() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 4096)) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            try (OutputStream outputStream = capture.wrap(target)) {
+                outputStream.write("<presence/>".getBytes(StandardCharsets.UTF_8));
+            }
+            try (InputStream inputStream = capture.wrap(new ByteArrayInputStream("<iq/>".getBytes(
+                    StandardCharsets.UTF_8)))) {
+                Assert.assertEquals(inputStream.readAllBytes().length, 5);
+            }
+            Assert.assertEquals(target.toString(StandardCharsets.UTF_8), "<presence/>");
+            List<CapturedRecord> records = TrafficCapture.read(capture.getPath());
+            Assert.assertEquals(records.size(), 2);
+            Assert.assertEquals(toString(records.get(0)), "<presence/>");
+            Assert.assertEquals(toString(records.get(1)), "<iq/>");
+        }
+    }
+
+    @Test
+    public void testCredentialsAreRedacted() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 4096)) {
+            String auth = "<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>"
+                    + "AGp1bGlldAByMG0zMG15cjBtMzA=</auth>";
+            byte[] bytes = auth.getBytes(StandardCharsets.UTF_8);
+            // Split the element across chunks.
+            capture.outbound(bytes, 0, 70);
+            capture.outbound(bytes, 70, bytes.length - 70);
+            capture.outbound(ByteBuffer.wrap(
+                    "<resume xmlns='urn:xmpp:sm:3' h='3' previd='some-long-sm-id'/><iq id='1'/>"
+                            .getBytes(StandardCharsets.UTF_8)));
+            capture.inbound(ByteBuffer.wrap("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>dj1yRWk=</success>"
+                    .getBytes(StandardCharsets.UTF_8)));
+            capture.inbound(ByteBuffer.wrap("<enabled xmlns='urn:xmpp:sm:3' id='some-long-sm-id' resume='true'/>"
+                    .getBytes(StandardCharsets.UTF_8)));
+
+            // The caller's bytes are not changed.
+            Assert.assertEquals(new String(bytes, StandardCharsets.UTF_8), auth);
+            List<CapturedRecord> records = TrafficCapture.read(capture.getPath());
+            Assert.assertEquals(toString(records.get(0)) + toString(records.get(1)),
+                    "<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>"
+                            + "****************************</auth>");
+            Assert.assertEquals(toString(records.get(2)),
+                    "<resume xmlns='urn:xmpp:sm:3' h='3' previd='***************'/><iq id='1'/>");
+            Assert.assertEquals(toString(records.get(3)),
+                    "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>********</success>");
+            Assert.assertEquals(toString(records.get(4)),
+                    "<enabled xmlns='urn:xmpp:sm:3' id='***************' resume='true'/>");
+        }
+    }
+
+    @Test
+    public void testCaptureCredentials() throws IOException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 4096)) {
+            capture.setCaptureCredentials(true);
+            capture.outbound(ByteBuffer.wrap("<auth mechanism='PLAIN'>AGp1bGlldA==</auth>"
+                    .getBytes(StandardCharsets.UTF_8)));
+            Assert.assertEquals(toString(TrafficCapture.read(capture.getPath()).get(0)),
+                    "<auth mechanism='PLAIN'>AGp1bGlldA==</auth>");
+        }
+    }
+
+    @Test
+    public void testNoCaptureAfterClose() throws IOException {
+        TrafficCapture capture = TrafficCapture.create(directory, 4096);
+        capture.close();
+        capture.inbound(ByteBuffer.wrap(new byte[]{1}));
+        Assert.assertTrue(TrafficCapture.read(capture.getPath()).isEmpty());
+    }
+
+    @Test
+    public void testReplay() throws IOException, InterruptedException {
+        try (TrafficCapture capture = TrafficCapture.create(directory, 4096)) {
+            capture.inbound(ByteBuffer.wrap("<a/>".getBytes(StandardCharsets.UTF_8)));
+            capture.outbound(ByteBuffer.wrap("<b/>".getBytes(StandardCharsets.UTF_8)));
+            capture.inbound(ByteBuffer.wrap("<c/>".getBytes(StandardCharsets.UTF_8)));
+
+            TrafficReplay replay = TrafficReplay.inbound(capture.getPath(), 100);
+            List<String> replayed = new ArrayList<>();
+            replay.replay(byteBuffer -> replayed.add(StandardCharsets.UTF_8.decode(byteBuffer).toString()));
+            Assert.assertEquals(replayed, List.of("<a/>", "<c/>"));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testReadInvalidFile() throws IOException {
+        Path file = Files.write(directory.resolve("invalid"), new byte[64]);
+        TrafficCapture.read(file);
+    }
+
+    private static String toString(CapturedRecord record) {
+        return StandardCharsets.UTF_8.decode(record.getData()).toString();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.sasl.scram;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import jakarta.xml.bind.DatatypeConverter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the {@link ScramKeyCache} class.
+ *
+ * @author Christian Schudt
+ */
+public class ScramKeyCacheTest {
+
+    private static final byte[] SALT = DatatypeConverter.parseBase64Binary("QSXCR+Q6sek8bf92");
+
+    private static ScramClient client(ScramKeyCache keyCache, String password) {
+        return new ScramClient("SHA-1", null, callbacks -> {
+            for (Callback callback : callbacks) {
+                if (callback instanceof NameCallback) {
+                    ((NameCallback) callback).setName("user");
+                }
+                if (callback instanceof PasswordCallback) {
+                    ((PasswordCallback) callback).setPassword(password.toCharArray());
+                }
+            }
+        }, keyCache, "example.net");
+    }
+
+    private static String clientFinalMessage(ScramClient client, String salt) throws Exception {
+        client.evaluateChallenge(new byte[0]);
+        return new String(client.evaluateChallenge(("r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=" + salt
+                + ",i=4096").getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    private static String expectedProof(ScramClient client, String password, byte[] salt) throws Exception {
+        byte[] clientKey = client.computeClientKey(client.computeSaltedPassword(password.toCharArray(), salt, 4096));
+        byte[] clientSignature = client.computeClientSignature(clientKey, client.computeAuthMessage());
+        return DatatypeConverter.printBase64Binary(ScramBase.xor(clientKey, clientSignature));
+    }
+
+    @Test
+    public void testCachedKeys() throws Exception {
+        ScramKeyCache keyCache = new ScramKeyCache();
+
+        ScramClient client1 = client(keyCache, "pencil");
+        Assert.assertTrue(clientFinalMessage(client1, "QSXCR+Q6sek8bf92")
+                .endsWith(",p=" + expectedProof(client1, "pencil", SALT)));
+        Assert.assertNotNull(keyCache.get("SCRAM-SHA-1", "example.net", "user", SALT, 4096));
+
+        // Another client doesn't derive the keys from its password, but uses the cached ones.
+        byte[] clientKey = new byte[20];
+        byte[] serverKey = new byte[20];
+        keyCache.put("SCRAM-SHA-1", "example.net", "user", SALT, 4096, clientKey, serverKey);
+        ScramClient client2 = client(keyCache, "pencil");
+        String clientFinalMessage = clientFinalMessage(client2, "QSXCR+Q6sek8bf92");
+        Assert.assertTrue(clientFinalMessage.endsWith(",p=" + DatatypeConverter.printBase64Binary(ScramBase.xor(
+                clientKey, client2.computeClientSignature(clientKey, client2.computeAuthMessage())))));
+
+        // If the server rejects them, they are discarded.
+        client2.invalidateCachedKeys();
+        Assert.assertNull(keyCache.get("SCRAM-SHA-1", "example.net", "user", SALT, 4096));
+        ScramClient client3 = client(keyCache, "pencil");
+        Assert.assertTrue(clientFinalMessage(client3, "QSXCR+Q6sek8bf92")
+                .endsWith(",p=" + expectedProof(client3, "pencil", SALT)));
+
+        // A new salt invalidates the cached keys.
+        byte[] newSalt = DatatypeConverter.parseBase64Binary("c2FsdHNhbHQ=");
+        ScramClient client4 = client(keyCache, "pencil2");
+        Assert.assertTrue(clientFinalMessage(client4, "c2FsdHNhbHQ=")
+                .endsWith(",p=" + expectedProof(client4, "pencil2", newSalt)));
+        Assert.assertNotNull(keyCache.get("SCRAM-SHA-1", "example.net", "user", newSalt, 4096));
+
+        // As does another iteration count.
+        Assert.assertNull(keyCache.get("SCRAM-SHA-1", "example.net", "user", newSalt, 8192));
+        Assert.assertNull(keyCache.get("SCRAM-SHA-1", "example.net", "user", newSalt, 4096));
+    }
+
+    @Test
+    public void testEncryptedStore() throws Exception {
+        Map<String, byte[]> store = new HashMap<>();
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        SecretKey secretKey = keyGenerator.generateKey();
+
+        byte[] clientKey = new byte[]{1, 2, 3, 4};
+        byte[] serverKey = new byte[]{5, 6, 7, 8};
+        new ScramKeyCache(store, secretKey).put("SCRAM-SHA-1", "example.net", "user", SALT, 4096, clientKey,
+                serverKey);
+        Assert.assertEquals(store.size(), 1);
+        Assert.assertFalse(store.keySet().iterator().next().contains("user"));
+
+        ScramKeyCache.Keys keys =
+                new ScramKeyCache(store, secretKey).get("SCRAM-SHA-1", "example.net", "user", SALT, 4096);
+        Assert.assertNotNull(keys);
+        Assert.assertEquals(keys.clientKey, clientKey);
+        Assert.assertEquals(keys.serverKey, serverKey);
+
+        // Other users or other keys can't use the entry.
+        Assert.assertNull(new ScramKeyCache(store, secretKey)
+                .get("SCRAM-SHA-1", "example.net", "other", SALT, 4096));
+        Assert.assertNull(new ScramKeyCache(store, keyGenerator.generateKey())
+                .get("SCRAM-SHA-1", "example.net", "user", SALT, 4096));
+
+        new ScramKeyCache(store, secretKey).invalidate("SCRAM-SHA-1", "example.net", "user");
+        Assert.assertTrue(store.isEmpty());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.util;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.model.StreamHeader;
+
+/**
+ * @author Christian Schudt
+ */
+public class EncodedStanzaTest {
+
+    private final Marshaller marshaller;
+
+    public EncodedStanzaTest() throws Exception {
+        final JAXBContext jaxbContext = XmppUtils.createContext(Collections.emptyList());
+        marshaller = jaxbContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+    }
+
+    private EncodedStanza.Template encode(Stanza stanza) throws Exception {
+        return EncodedStanza.encode(stanza, XMLOutputFactory.newFactory(), marshaller);
+    }
+
+    @Test
+    public void testSpliceRecipient() throws Exception {
+        Message message = new Message(null, Message.Type.GROUPCHAT, "Hello");
+        message.setFrom(Jid.of("room@conference.example.net/romeo"));
+        message.setId("1");
+        EncodedStanza.Template template = encode(message);
+
+        Assert.assertEquals(template.to(Jid.of("juliet@example.net/balcony")).toString(),
+                "<message to=\"juliet@example.net/balcony\" from=\"room@conference.example.net/romeo\" id=\"1\" "
+                        + "type=\"groupchat\"><body>Hello</body></message>");
+        Assert.assertEquals(template.length(), template.to(Jid.of("a@b")).toString().length() - " to=\"a@b\"".length());
+    }
+
+    @Test
+    public void testEmptyElementAndEscaping() throws Exception {
+        Presence presence = new Presence();
+        EncodedStanza encodedStanza = encode(presence).to(Jid.of("juliet@example.net/\"<&>"));
+        Assert.assertEquals(encodedStanza.toString(), "<presence to=\"juliet@example.net/&quot;&lt;&amp;>\"></presence>");
+    }
+
+    @Test
+    public void testNamespaceIsDeclaredOutsideOfClientStream() throws Exception {
+        Message message = new Message(null, Message.Type.CHAT, "Hi");
+        EncodedStanza encodedStanza = encode(message).to(Jid.of("juliet@example.net"));
+
+        StringWriter writer = new StringWriter();
+        XmppStreamEncoder encoder = new XmppStreamEncoder(XMLOutputFactory.newFactory(), () -> marshaller, e -> false);
+        encoder.encode(encodedStanza, writer);
+        Assert.assertEquals(writer.toString(),
+                "<message xmlns=\"jabber:client\" to=\"juliet@example.net\" type=\"chat\"><body>Hi</body></message>");
+
+        writer = new StringWriter();
+        encoder.encode(StreamHeader.initialClientToServer(null, Jid.of("example.net"), null), new StringWriter());
+        encoder.encode(encodedStanza, writer);
+        Assert.assertEquals(writer.toString(), encodedStanza.toString());
+    }
+
+    @Test
+    public void testToXmlDeclaresNamespace() throws Exception {
+        Message message = new Message(Jid.of("juliet@example.net"), Message.Type.CHAT, "Hi");
+        Assert.assertEquals(EncodedStanza.toXml(message, XMLOutputFactory.newFactory(), marshaller),
+                "<message xmlns=\"jabber:client\" to=\"juliet@example.net\" type=\"chat\"><body>Hi</body></message>");
+    }
+
+    @Test
+    public void testToStanza() throws Exception {
+        Message message = new Message(null, Message.Type.CHAT, "Hi");
+        message.setFrom(Jid.of("romeo@example.net"));
+        Stanza stanza = encode(message).to(Jid.of("juliet@example.net")).toStanza();
+
+        Assert.assertTrue(stanza instanceof Message);
+        Assert.assertEquals(stanza.getTo(), Jid.of("juliet@example.net"));
+        Assert.assertEquals(stanza.getFrom(), Jid.of("romeo@example.net"));
+        Assert.assertEquals(((Message) stanza).getBody(), "Hi");
+        Assert.assertNull(message.getTo());
+    }
+
+    @Test
+    public void testWrapEncodedStanza() throws Exception {
+        Message message = new Message(null, Message.Type.CHAT, "Hi");
+        message.setFrom(Jid.of("romeo@example.net/orchard"));
+        EncodedStanza encodedStanza = encode(message).to(Jid.of("juliet@example.net"));
+
+        Message envelope = new Message(null, Message.Type.CHAT);
+        envelope.setFrom(Jid.of("juliet@example.net/\"<&>"));
+        EncodedStanza.Template template = EncodedStanza.wrap(envelope, "<wrapper xmlns=\"urn:test\">", encodedStanza,
+                "</wrapper>");
+
+        Assert.assertEquals(template.to(Jid.of("juliet@example.net/balcony")).toString(),
+                "<message to=\"juliet@example.net/balcony\" from=\"juliet@example.net/&quot;&lt;&amp;>\" "
+                        + "type=\"chat\"><wrapper xmlns=\"urn:test\"><message xmlns=\"jabber:client\" "
+                        + "to=\"juliet@example.net\" from=\"romeo@example.net/orchard\" type=\"chat\">"
+                        + "<body>Hi</body></message></wrapper></message>");
+        Assert.assertEquals(template.to(Jid.of("a@b")).toStanza().getFrom(), envelope.getFrom());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRecipientMustNotBeEncoded() throws Exception {
+        encode(new Message(Jid.of("juliet@example.net")));
+    }
+}
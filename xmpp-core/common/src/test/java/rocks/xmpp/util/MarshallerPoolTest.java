@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.util;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.xml.namespace.QName;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.adapters.XmlAdapter;
+import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.core.stanza.model.Message;
+
+/**
+ * @author Christian Schudt
+ */
+public class MarshallerPoolTest {
+
+    private static final System.Logger logger = System.getLogger(MarshallerPoolTest.class.getName());
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final String MESSAGE = "<message xmlns=\"jabber:client\" to=\"juliet@example.com\" type=\"chat\">"
+            + "<body>Wherefore art thou, Romeo?</body></message>";
+
+    @Test
+    public void testInstancesAreReusedPerThread() throws ExecutionException, InterruptedException {
+        MarshallerPool pool = new MarshallerPool(JAXB_CONTEXT);
+        Marshaller marshaller = pool.getMarshaller();
+        Unmarshaller unmarshaller = pool.getUnmarshaller(null);
+        Assert.assertSame(pool.getMarshaller(), marshaller);
+        Assert.assertSame(pool.getUnmarshaller(Locale.GERMAN), unmarshaller);
+
+        Assert.assertNotSame(CompletableFuture.supplyAsync(pool::getMarshaller).get(), marshaller);
+        Assert.assertNotSame(CompletableFuture.supplyAsync(() -> pool.getUnmarshaller(null)).get(), unmarshaller);
+    }
+
+    @Test
+    public void testRootLocale() throws JAXBException {
+        MarshallerPool pool = new MarshallerPool(JAXB_CONTEXT);
+        Message message = (Message) pool.getUnmarshaller(Locale.GERMAN).unmarshal(new StringReader(MESSAGE));
+        Assert.assertEquals(message.getLanguage(), Locale.GERMAN);
+
+        message = (Message) pool.getUnmarshaller(null).unmarshal(new StringReader(MESSAGE));
+        Assert.assertNull(message.getLanguage());
+
+        try {
+            pool.getUnmarshaller(Locale.FRENCH).unmarshal(new StringReader("<message xmlns=\"jabber:client\"><body>"));
+            Assert.fail();
+        } catch (JAXBException e) {
+            // expected
+        }
+        // The listener of the aborted operation must not affect the next one.
+        message = (Message) pool.getUnmarshaller(Locale.FRENCH).unmarshal(new StringReader(MESSAGE));
+        Assert.assertEquals(message.getLanguage(), Locale.FRENCH);
+    }
+
+    @Test
+    public void testMarshallerIsFragment() throws JAXBException {
+        MarshallerPool pool = new MarshallerPool(JAXB_CONTEXT);
+        Object message = pool.getUnmarshaller(null).unmarshal(new StringReader(MESSAGE));
+        StringWriter writer = new StringWriter();
+        pool.getMarshaller().marshal(message, writer);
+        Assert.assertFalse(writer.toString().startsWith("<?xml"));
+    }
+
+    @Test
+    public void testReentrantMarshalling() throws JAXBException {
+        MarshallerPool pool = new MarshallerPool(JAXBContext.newInstance(Outer.class));
+        NestedAdapter.pool = pool;
+        Marshaller marshaller = pool.getMarshaller();
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(new Outer(), writer);
+        Assert.assertEquals(writer.toString(), "<outer><value>nested</value></outer>");
+        // The nested marshal operation must have used another instance, which is pooled now.
+        Assert.assertNotSame(NestedAdapter.nested, marshaller);
+        Assert.assertSame(pool.getMarshaller(), NestedAdapter.nested);
+    }
+
+    /**
+     * Compares unmarshalling and marshalling a message with a new unmarshaller and marshaller for each stanza (as it
+     * used to be done) with the pooled instances and logs the allocated bytes and the duration per stanza.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkPooledVersusNew() throws JAXBException {
+        MarshallerPool pool = new MarshallerPool(JAXB_CONTEXT);
+        int iterations = 2000;
+        // Warm up.
+        roundTrip(pool, true, iterations);
+        roundTrip(pool, false, iterations);
+
+        long[] created = roundTrip(pool, false, iterations);
+        long[] pooled = roundTrip(pool, true, iterations);
+
+        logger.log(System.Logger.Level.INFO, String.format(Locale.ROOT,
+                "New instances: %d bytes and %d ns per stanza. Pooled instances: %d bytes and %d ns per stanza.",
+                created[0] / iterations, created[1] / iterations, pooled[0] / iterations, pooled[1] / iterations));
+        if (created[0] > 0) {
+            Assert.assertTrue(pooled[0] < created[0]);
+        }
+    }
+
+    private static long[] roundTrip(MarshallerPool pool, boolean pooled, int iterations) throws JAXBException {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Unmarshaller unmarshaller;
+            Marshaller marshaller;
+            if (pooled) {
+                unmarshaller = pool.getUnmarshaller(null);
+                marshaller = pool.getMarshaller();
+            } else {
+                unmarshaller = JAXB_CONTEXT.createUnmarshaller();
+                unmarshaller.setListener(new LanguageUnmarshallerListener(null));
+                marshaller = JAXB_CONTEXT.createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            }
+            Object message = unmarshaller.unmarshal(new StringReader(MESSAGE));
+            marshaller.marshal(message, new StringWriter());
+        }
+        return new long[] { allocatedBytes() - bytes, System.nanoTime() - start };
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    @XmlRootElement(name = "outer")
+    private static final class Outer {
+
+        @XmlElement
+        @XmlJavaTypeAdapter(NestedAdapter.class)
+        private final String value = "nested";
+    }
+
+    private static final class NestedAdapter extends XmlAdapter<String, String> {
+
+        private static MarshallerPool pool;
+
+        private static Marshaller nested;
+
+        @Override
+        public final String unmarshal(final String v) {
+            return v;
+        }
+
+        @Override
+        public final String marshal(final String v) throws JAXBException {
+            nested = pool.getMarshaller();
+            nested.marshal(new JAXBElement<>(new QName("inner"), String.class, v), new StringWriter());
+            return v;
+        }
+    }
+}
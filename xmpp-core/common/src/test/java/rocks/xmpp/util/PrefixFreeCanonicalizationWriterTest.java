@@ -33,6 +33,7 @@ import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -48,6 +49,7 @@ import rocks.xmpp.core.issue137.ParentType;
 import rocks.xmpp.core.sasl.model.Auth;
 import rocks.xmpp.core.sasl.model.Response;
 import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.LazyExtension;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.client.ClientIQ;
 import rocks.xmpp.core.stanza.model.client.ClientMessage;
@@ -350,4 +352,34 @@ public class PrefixFreeCanonicalizationWriterTest {
         Assert.assertEquals(writer.toString(),
                 "<iq xmlns=\"jabber:client\" id=\"1\" to=\"romeo@example.net\" type=\"set\"><myElement xmlns=\"http://testnamespace.com\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"childType\"></myElement></iq>");
     }
+
+    @Test
+    public void testLazyExtension() throws JAXBException, XMLStreamException {
+
+        String xml = "<x xmlns=\"urn:test\" a=\"1\"><y xmlns:p=\"urn:p\" p:b=\"2\">&lt;text&gt;</y></x>";
+        Message message = new Message(Jid.of("romeo@example.net"));
+        message.addExtension(new LazyExtension(xml, new QName("urn:test", "x"), null, null));
+
+        JAXBContext jaxbContext = JAXBContext.newInstance(ClientMessage.class, LazyExtension.class);
+        Marshaller marshaller = jaxbContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+        // With the underlying writer, the raw XML is written verbatim.
+        Writer writer = new StringWriter();
+        XMLStreamWriter xmppStreamWriter = XmppUtils.createXmppStreamWriter(
+                XmlTest.OUTPUT_FACTORY.createXMLStreamWriter(writer), false, writer);
+        marshaller.marshal(ClientMessage.from(message), xmppStreamWriter);
+        xmppStreamWriter.flush();
+        Assert.assertEquals(writer.toString(),
+                "<message xmlns=\"jabber:client\" to=\"romeo@example.net\">" + xml + "</message>");
+
+        // Without it, the raw XML is replayed.
+        writer = new StringWriter();
+        xmppStreamWriter = XmppUtils.createXmppStreamWriter(XmlTest.OUTPUT_FACTORY.createXMLStreamWriter(writer));
+        marshaller.marshal(ClientMessage.from(message), xmppStreamWriter);
+        xmppStreamWriter.flush();
+        Assert.assertEquals(writer.toString(),
+                "<message xmlns=\"jabber:client\" to=\"romeo@example.net\"><x xmlns=\"urn:test\" a=\"1\">"
+                        + "<y xmlns:p=\"urn:p\" p:b=\"2\">&lt;text&gt;</y></x></message>");
+    }
 }
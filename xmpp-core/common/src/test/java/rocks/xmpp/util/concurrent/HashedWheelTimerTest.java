@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.util.concurrent;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @BeforeMethod
+    public void setUp() {
+        timer = new HashedWheelTimer("Test Timer", Duration.ofMillis(5), 8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testTimeoutExpires() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(latch::countDown, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertEquals(timer.getPendingTimeouts(), 0);
+    }
+
+    @Test
+    public void testTimeoutsBeyondOneRoundExpire() throws InterruptedException {
+        // 8 buckets with 5 ms ticks only cover 40 ms per round.
+        CountDownLatch latch = new CountDownLatch(2);
+        long start = System.nanoTime();
+        timer.newTimeout(latch::countDown, 100, TimeUnit.MILLISECONDS);
+        timer.newTimeout(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(counter::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(timer.getPendingTimeouts(), 1);
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertTrue(timeout.isCancelled());
+        Assert.assertEquals(timer.getPendingTimeouts(), 0);
+        Thread.sleep(100);
+        Assert.assertEquals(counter.get(), 0);
+        Assert.assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void testPeriodicTimeout() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        HashedWheelTimer.Timeout timeout = timer.newPeriodicTimeout(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(timeout.cancel());
+
+        AtomicInteger counter = new AtomicInteger();
+        HashedWheelTimer.Timeout cancelled = timer.newPeriodicTimeout(counter::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+        Thread.sleep(50);
+        Assert.assertEquals(counter.get(), 0);
+        Assert.assertEquals(timer.getPendingTimeouts(), 0);
+    }
+
+    @Test
+    public void testPeriodicTimeoutOfOneRound() throws InterruptedException {
+        // With a period of 40 ms, the timeout is re-armed into the bucket, which is being expired.
+        long[] executions = new long[4];
+        CountDownLatch latch = new CountDownLatch(executions.length);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = timer.newPeriodicTimeout(() -> {
+            int i = executions.length - (int) latch.getCount();
+            if (i < executions.length) {
+                executions[i] = System.nanoTime();
+            }
+            latch.countDown();
+        }, 40, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        timeout.cancel();
+        for (int i = 0; i < executions.length; i++) {
+            Assert.assertTrue(executions[i] - start >= TimeUnit.MILLISECONDS.toNanos(40L * (i + 1)));
+        }
+        // Neither is it delayed by another round.
+        for (int i = 1; i < executions.length; i++) {
+            Assert.assertTrue(executions[i] - executions[i - 1] < TimeUnit.MILLISECONDS.toNanos(80));
+        }
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTimer() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        timer.newTimeout(() -> {
+            throw new IllegalStateException();
+        }, 5, TimeUnit.MILLISECONDS);
+        timer.newTimeout(() -> {
+            throw new AssertionError();
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.newTimeout(latch::countDown, 20, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStoppedTimerRejectsTimeouts() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        timer.newTimeout(counter::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        timer.stop();
+        Thread.sleep(100);
+        Assert.assertEquals(counter.get(), 0);
+        Assert.assertThrows(RejectedExecutionException.class,
+                () -> timer.newTimeout(counter::incrementAndGet, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSharedTimerCannotBeStopped() throws InterruptedException {
+        HashedWheelTimer.shared().stop();
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelTimer.shared().newTimeout(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+}
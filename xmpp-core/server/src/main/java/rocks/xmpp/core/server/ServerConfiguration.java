@@ -1,11 +1,20 @@
 package rocks.xmpp.core.server;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.Unmarshaller;
 
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 
 /**
  * @author Christian Schudt
@@ -21,4 +30,281 @@ public interface ServerConfiguration {
     int getPort();
 
     Jid getDomain();
+
+    /**
+     * Indicates, whether extensions of inbound messages and presences are only bound to objects, when they are
+     * accessed. Until then they are routed as raw XML.
+     *
+     * @return True, if extensions are bound lazily.
+     * @see rocks.xmpp.core.stanza.model.LazyExtension
+     */
+    default boolean isLazyExtensionBinding() {
+        return false;
+    }
+
+    /**
+     * Gets the executor, which handles inbound elements of client sessions, so that blocking operations like
+     * authentication or database queries don't block the I/O threads. Elements of the same session are handled in
+     * order, even if the executor is shared by all sessions. The executor may also create a new (virtual) thread for
+     * each task.
+     *
+     * @return The executor or null, if elements are handled on the I/O threads.
+     */
+    default Executor getExecutor() {
+        return null;
+    }
+
+    /**
+     * Gets the executor for background tasks, which must not run on the I/O threads or on the timer thread, e.g.
+     * sending the last published items or compacting the message archive.
+     *
+     * @return The {@linkplain #getExecutor() executor} or the {@linkplain ForkJoinPool#commonPool() common pool}, if
+     * there's no executor.
+     */
+    default Executor getBackgroundExecutor() {
+        final Executor executor = getExecutor();
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Gets the number of acceptors, which accept connections on the port. More than one acceptor requires
+     * {@code SO_REUSEPORT}, i.e. a native transport, so that the kernel distributes new connections among them.
+     *
+     * @return The number of acceptors.
+     */
+    default int getAcceptors() {
+        return 1;
+    }
+
+    /**
+     * Indicates, whether {@code TCP_NODELAY} is enabled, i.e. whether small writes, like most stanzas, are sent
+     * immediately instead of being delayed by Nagle's algorithm.
+     *
+     * @return True, if {@code TCP_NODELAY} is enabled.
+     */
+    default boolean isTcpNoDelay() {
+        return true;
+    }
+
+    /**
+     * Gets the write buffer high water mark of a connection. If more bytes are pending to be written to a client, the
+     * connection is not writable until half of them have been written.
+     *
+     * @return The high water mark in bytes.
+     */
+    default int getWriteBufferHighWaterMark() {
+        return 64 * 1024;
+    }
+
+    /**
+     * Gets the registry, which receives the server's metrics, e.g. the number of sessions and the number of stanzas and
+     * bytes, which have been sent and received.
+     *
+     * @return The metrics registry.
+     */
+    default MetricsRegistry getMetricsRegistry() {
+        return MetricsRegistry.noop();
+    }
+
+    /**
+     * Gets the directory, in which the raw traffic of each connection is captured into a memory-mapped ring file.
+     *
+     * @return The directory or null, if traffic is not captured.
+     * @see rocks.xmpp.core.net.capture.TrafficCapture
+     */
+    default Path getTrafficCaptureDirectory() {
+        return null;
+    }
+
+    /**
+     * Gets the size of each capture file. If a file is full, the oldest traffic is overwritten.
+     *
+     * @return The size in bytes.
+     * @see #getTrafficCaptureDirectory()
+     */
+    default int getTrafficCaptureSize() {
+        return TrafficCapture.DEFAULT_CAPACITY;
+    }
+
+    /**
+     * Gets the maximum number of capture files in the capture directory. If a new connection is captured, the oldest
+     * files are deleted.
+     *
+     * @return The maximum number of files.
+     * @see #getTrafficCaptureDirectory()
+     */
+    default int getTrafficCaptureFiles() {
+        return TrafficCapture.DEFAULT_MAX_FILES;
+    }
+
+    /**
+     * Gets, if credentials (SASL exchanges and stream resumption ids) are captured. By default, they are redacted.
+     *
+     * @return True, if credentials are captured.
+     * @see #getTrafficCaptureDirectory()
+     * @see TrafficCapture#setCaptureCredentials(boolean)
+     */
+    default boolean isTrafficCaptureCredentials() {
+        return false;
+    }
+
+    /**
+     * Gets the directory of the message archive, to which the one-to-one messages of local users are appended.
+     *
+     * @return The directory or null, if messages are not archived.
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+     */
+    default Path getMessageArchiveDirectory() {
+        return null;
+    }
+
+    /**
+     * Gets the duration, for which archived messages are kept. Older messages are removed periodically.
+     *
+     * @return The retention or null, if archived messages are kept forever.
+     * @see #getMessageArchiveDirectory()
+     */
+    default Duration getMessageArchiveRetention() {
+        return null;
+    }
+
+    /**
+     * Gets the port, on which the server accepts streams of other servers.
+     *
+     * @return The port or 0, if server-to-server streams are disabled.
+     * @see <a href="https://xmpp.org/rfcs/rfc6120.html#tcp">RFC 6120 § 3.  TCP Binding</a>
+     */
+    default int getServerToServerPort() {
+        return 0;
+    }
+
+    /**
+     * Gets the address of the server, which serves the given domain. This overrides the DNS SRV lookup, e.g. for
+     * servers on the same host.
+     *
+     * @param domain The domain of the other server.
+     * @return The address or null, if the address is resolved via DNS.
+     */
+    default InetSocketAddress getServerToServerAddress(Jid domain) {
+        return null;
+    }
+
+    /**
+     * Gets the number of stanzas, which are queued for another server, until the stream to it is established. If the
+     * queue is full, further stanzas are bounced.
+     *
+     * @return The queue size.
+     */
+    default int getServerToServerQueueSize() {
+        return 256;
+    }
+
+    /**
+     * Gets the duration, after which an outbound stream to another server is closed, if no stanza was sent over it.
+     *
+     * @return The idle timeout.
+     */
+    default Duration getServerToServerIdleTimeout() {
+        return Duration.ofMinutes(5);
+    }
+
+    /**
+     * Gets the secret, from which dialback keys are generated. All servers of a domain must use the same secret.
+     *
+     * @return The secret or null, if a random secret is generated on start.
+     * @see <a href="https://xmpp.org/extensions/xep-0185.html">XEP-0185: Dialback Key Generation and Validation</a>
+     */
+    default String getDialbackSecret() {
+        return null;
+    }
+
+    /**
+     * Gets the duration, for which a successfully verified server is remembered, so that further streams from the same
+     * address don't require another dialback round trip.
+     *
+     * @return The duration.
+     */
+    default Duration getDialbackCacheDuration() {
+        return Duration.ofMinutes(10);
+    }
+
+    /**
+     * Gets the port, on which the server accepts connections of external components.
+     *
+     * @return The port or 0, if components are disabled.
+     * @see <a href="https://xmpp.org/extensions/xep-0114.html">XEP-0114: Jabber Component Protocol</a>
+     */
+    default int getComponentPort() {
+        return 0;
+    }
+
+    /**
+     * Gets the shared secret, with which an external component authenticates for its domain. Several connections may
+     * authenticate for the same domain, in which case stanzas to the domain are distributed among them.
+     *
+     * @param domain The component domain, e.g. a subdomain of the server domain.
+     * @return The shared secret or null, if no component may connect for the domain.
+     */
+    default String getComponentSecret(Jid domain) {
+        return null;
+    }
+
+    /**
+     * Gets the maximal number of stanzas, which are written to a component connection, before they are flushed. Stanzas
+     * are flushed earlier, if no further stanzas are pending.
+     *
+     * @return The batch size.
+     */
+    default int getComponentBatchSize() {
+        return 64;
+    }
+
+    /**
+     * Gets the identifier of this server node in a cluster. Each node owns the sessions of the clients, which are
+     * connected to it, and forwards stanzas for sessions on other nodes to them.
+     *
+     * @return The unique node identifier or null, if the server does not run in cluster mode.
+     */
+    default String getClusterNodeId() {
+        return null;
+    }
+
+    /**
+     * Gets the port, on which other nodes of the cluster connect to this node.
+     *
+     * @return The cluster port.
+     */
+    default int getClusterPort() {
+        return 5290;
+    }
+
+    /**
+     * Gets the shared secret of the cluster, with which the nodes authenticate the links to each other. A node does not
+     * start in cluster mode without a secret.
+     *
+     * @return The shared secret or null, if none is configured.
+     */
+    default String getClusterSecret() {
+        return null;
+    }
+
+    /**
+     * Gets the statically configured nodes of the cluster, which are used, if no other discovery mechanism is
+     * provided. The map may contain this node itself.
+     *
+     * @return The addresses of the cluster ports by node identifier.
+     */
+    default Map<String, InetSocketAddress> getClusterMembers() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Gets the maximal number of frames, which are written to a link to another cluster node, before they are flushed.
+     * Frames are flushed earlier, if no further frames are pending.
+     *
+     * @return The batch size.
+     */
+    default int getClusterBatchSize() {
+        return 64;
+    }
 }
@@ -37,6 +37,7 @@ import rocks.xmpp.extensions.bytestreams.s5b.Socks5ByteStreamManager;
 import rocks.xmpp.extensions.carbons.MessageCarbonsManager;
 import rocks.xmpp.extensions.carbons.model.MessageCarbons;
 import rocks.xmpp.extensions.chatstates.ChatStateManager;
+import rocks.xmpp.extensions.csi.ClientStateIndicationManager;
 import rocks.xmpp.extensions.featureneg.model.FeatureNegotiation;
 import rocks.xmpp.extensions.forward.StanzaForwardingManager;
 import rocks.xmpp.extensions.forward.model.Forwarded;
@@ -215,7 +216,10 @@ public final class ExtensionModule implements Module {
                 Extension.of(RealTimeTextManager.class, false),
 
                 // XEP-0319: Last User Interaction in Presence
-                Extension.of(Idle.NAMESPACE, true)
+                Extension.of(Idle.NAMESPACE, true),
+
+                // XEP-0352: Client State Indication
+                Extension.of(ClientStateIndicationManager.class, false)
         );
     }
 }
@@ -42,7 +42,7 @@ import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.XmppException;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.cache.DirectoryCache;
+import rocks.xmpp.util.cache.PersistentCache;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -63,8 +63,9 @@ public abstract class AbstractAvatarManager implements AvatarManager {
 
     protected AbstractAvatarManager(XmppSession xmppSession) {
         this.xmppSession = xmppSession;
-        this.avatarCache = xmppSession.getConfiguration().getCacheDirectory() != null ? new DirectoryCache(
-                xmppSession.getConfiguration().getCacheDirectory().resolve("avatars")) : null;
+        this.avatarCache = xmppSession.getConfiguration().getCacheDirectory() != null ? PersistentCache.open(
+                xmppSession.getConfiguration().getCacheDirectory().resolve("avatars"),
+                xmppSession.getConfiguration().getCacheSize(), 0) : null;
     }
 
     /**
@@ -27,20 +27,31 @@ package rocks.xmpp.extensions.bytestreams.ibb;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.concurrent.ExecutionException;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * An output stream implementation for in-band bytestreams.
  *
+ * <p>Written bytes are collected in a buffer of the session's block size and sent as {@code <data/>} element, when the
+ * buffer is full or when the stream is flushed. Up to {@code windowSize} blocks may be unacknowledged by the peer at
+ * the same time, i.e. the stream only blocks if the window is exhausted. A window size of 1 means, that each block is
+ * acknowledged before the next one is sent.</p>
+ *
  * <p>This class is thread-safe.</p>
  *
  * @author Christian Schudt
  */
 final class IbbOutputStream extends OutputStream {
 
+    /**
+     * The time to wait for a free slot in the window, i.e. for the acknowledgement of a previously sent block.
+     */
+    private static final long ACKNOWLEDGE_TIMEOUT_SECONDS = 5;
+
     private final IbbSession ibbSession;
 
     /**
@@ -48,6 +59,10 @@ final class IbbOutputStream extends OutputStream {
      */
     private final byte[] buffer;
 
+    private final int windowSize;
+
+    private final Semaphore window;
+
     /**
      * Guarded by "this"
      */
@@ -58,9 +73,19 @@ final class IbbOutputStream extends OutputStream {
      */
     private boolean closed;
 
-    public IbbOutputStream(IbbSession ibbSession, int blockSize) {
+    /**
+     * The first failure of an asynchronously acknowledged block.
+     */
+    private volatile Throwable failure;
+
+    IbbOutputStream(IbbSession ibbSession, int blockSize, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive.");
+        }
         this.ibbSession = ibbSession;
         this.buffer = new byte[blockSize];
+        this.windowSize = windowSize;
+        this.window = new Semaphore(windowSize);
     }
 
     @Override
@@ -71,25 +96,50 @@ final class IbbOutputStream extends OutputStream {
         }
     }
 
+    @Override
+    public final synchronized void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            int count = Math.min(len, buffer.length - n);
+            System.arraycopy(b, off, buffer, n, count);
+            n += count;
+            off += count;
+            len -= count;
+            if (n == buffer.length) {
+                flush();
+            }
+        }
+    }
+
     @Override
     public final synchronized void flush() throws IOException {
         super.flush();
         if (closed) {
             throw new IOException("Stream is closed.");
         }
+        checkFailure();
         // If the buffer is empty, there's nothing to do.
         if (n == 0) {
             return;
         }
         try {
-            ibbSession.send(Arrays.copyOf(buffer, n)).get(5, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new InterruptedIOException();
-        } catch (ExecutionException e) {
-            throw new IOException(e.getCause());
-        } catch (TimeoutException e) {
-            throw new IOException(e);
+            acquire(1);
+            final CompletionStage<?> acknowledged;
+            try {
+                // The block is copied exactly once (into the <data/> element), so that the buffer can be reused
+                // immediately, even if the block is not yet acknowledged.
+                acknowledged = ibbSession.send(buffer, 0, n);
+            } catch (RuntimeException e) {
+                // The block has not been sent and must not occupy the window.
+                window.release();
+                throw new IOException(e);
+            }
+            acknowledged.whenComplete((result, e) -> {
+                if (e != null && failure == null) {
+                    failure = e;
+                }
+                window.release();
+            });
         } finally {
             n = 0;
         }
@@ -103,8 +153,30 @@ final class IbbOutputStream extends OutputStream {
             }
             super.close();
             flush();
+            // Wait until all blocks in the window have been acknowledged.
+            acquire(windowSize);
+            window.release(windowSize);
             closed = true;
+            checkFailure();
         }
         ibbSession.close();
     }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            if (!window.tryAcquire(permits, ACKNOWLEDGE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("Timeout while waiting for acknowledgement of sent data.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IOException(e instanceof CompletionException ? e.getCause() : e);
+        }
+    }
 }
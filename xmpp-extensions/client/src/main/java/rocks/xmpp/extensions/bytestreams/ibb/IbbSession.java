@@ -28,14 +28,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.Duration;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.SendTask;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.stanza.model.IQ;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.extensions.bytestreams.ByteStreamSession;
 import rocks.xmpp.extensions.bytestreams.ibb.model.InBandByteStream;
+import rocks.xmpp.extensions.sm.client.ClientStreamManager;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -57,6 +62,22 @@ final class IbbSession extends ByteStreamSession {
 
     private final InBandByteStream.Open.StanzaType stanzaType;
 
+    private final int windowSize;
+
+    private final AtomicLong bytesAcknowledged = new AtomicLong();
+
+    private final AtomicLong blocksSent = new AtomicLong();
+
+    private final AtomicLong blocksAcknowledged = new AtomicLong();
+
+    private final AtomicInteger blocksInFlight = new AtomicInteger();
+
+    private final AtomicInteger maxBlocksInFlight = new AtomicInteger();
+
+    private volatile long firstSent;
+
+    private volatile long lastAcknowledged;
+
     /**
      * Guarded by "this"
      */
@@ -74,8 +95,14 @@ final class IbbSession extends ByteStreamSession {
 
     IbbSession(String sessionId, XmppSession xmppSession, Jid jid, int blockSize, Duration readTimeout,
                InBandByteStreamManager manager, InBandByteStream.Open.StanzaType stanzaType) {
+        this(sessionId, xmppSession, jid, blockSize, readTimeout, manager, stanzaType, 1);
+    }
+
+    IbbSession(String sessionId, XmppSession xmppSession, Jid jid, int blockSize, Duration readTimeout,
+               InBandByteStreamManager manager, InBandByteStream.Open.StanzaType stanzaType, int windowSize) {
         super(sessionId);
-        this.outputStream = new IbbOutputStream(this, blockSize);
+        this.windowSize = windowSize;
+        this.outputStream = new IbbOutputStream(this, blockSize, windowSize);
         this.inputStream = new IbbInputStream(this, readTimeout.toMillis());
         this.jid = jid;
         this.xmppSession = xmppSession;
@@ -108,14 +135,40 @@ final class IbbSession extends ByteStreamSession {
         return inputStream;
     }
 
-    final Future<?> send(byte[] bytes) {
-
-        final Future<?> result;
-        final InBandByteStream.Data data = new InBandByteStream.Data(bytes, getSessionId(), outboundSequence);
+    /**
+     * Sends a region of the write buffer as {@code <data/>} element. The returned stage completes, when the peer has
+     * acknowledged the block, i.e. when the IQ result has been received or, when using message stanzas, when the
+     * server has acknowledged the message via stream management (or the message has been sent, if stream management
+     * is not active).
+     *
+     * @param bytes  The write buffer.
+     * @param offset The offset.
+     * @param length The length.
+     * @return The stage, which completes, when the block has been acknowledged.
+     */
+    final CompletionStage<?> send(byte[] bytes, int offset, int length) {
+
+        final CompletionStage<?> result;
+        final InBandByteStream.Data data = new InBandByteStream.Data(bytes, offset, length, getSessionId(),
+                outboundSequence);
+        final long now = System.nanoTime();
+        if (blocksSent.getAndIncrement() == 0) {
+            firstSent = now;
+        }
+        final int inFlight = blocksInFlight.incrementAndGet();
+        maxBlocksInFlight.accumulateAndGet(inFlight, Math::max);
         if (stanzaType == InBandByteStream.Open.StanzaType.MESSAGE) {
             Message message = new Message(jid);
             message.addExtension(data);
-            result = xmppSession.sendMessage(message);
+            final CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+            final SendTask<Message> sendTask = xmppSession.sendMessage(message);
+            if (xmppSession.getManager(ClientStreamManager.class).isActive()) {
+                sendTask.onAcknowledge(m -> acknowledged.complete(null));
+            } else {
+                sendTask.onSent(m -> acknowledged.complete(null));
+            }
+            sendTask.onFailed((e, m) -> acknowledged.completeExceptionally(e));
+            result = acknowledged;
         } else {
             result = xmppSession.query(IQ.set(jid, data));
         }
@@ -127,7 +180,26 @@ final class IbbSession extends ByteStreamSession {
         if (++outboundSequence > 65535) {
             outboundSequence = 0;
         }
-        return result;
+        return result.whenComplete((r, e) -> {
+            blocksInFlight.decrementAndGet();
+            if (e == null) {
+                bytesAcknowledged.addAndGet(length);
+                blocksAcknowledged.incrementAndGet();
+                lastAcknowledged = System.nanoTime();
+            }
+        });
+    }
+
+    /**
+     * Gets the outbound statistics of this session.
+     *
+     * @return The statistics.
+     */
+    final IbbStatistics getStatistics() {
+        final long acknowledged = blocksAcknowledged.get();
+        return new IbbStatistics(bytesAcknowledged.get(), blocksSent.get(), acknowledged,
+                blocksInFlight.get(), maxBlocksInFlight.get(), windowSize,
+                Duration.ofNanos(acknowledged > 0 ? lastAcknowledged - firstSent : 0));
     }
 
     @Override
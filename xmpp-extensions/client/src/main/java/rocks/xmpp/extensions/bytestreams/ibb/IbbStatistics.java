@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.bytestreams.ibb;
+
+import java.time.Duration;
+
+/**
+ * A snapshot of the outbound statistics of an in-band bytestream session.
+ *
+ * <p>Blocks are "in flight" as long as they have been sent, but not yet been acknowledged by the peer, i.e. as long as
+ * the IQ result (or the stream management acknowledgement for message stanzas) has not yet been received.</p>
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ * @see InBandByteStreamManager#getStatistics(rocks.xmpp.extensions.bytestreams.ByteStreamSession)
+ */
+public final class IbbStatistics {
+
+    private final long bytesAcknowledged;
+
+    private final long blocksSent;
+
+    private final long blocksAcknowledged;
+
+    private final int blocksInFlight;
+
+    private final int maxBlocksInFlight;
+
+    private final int windowSize;
+
+    private final Duration duration;
+
+    IbbStatistics(long bytesAcknowledged, long blocksSent, long blocksAcknowledged, int blocksInFlight,
+                  int maxBlocksInFlight, int windowSize, Duration duration) {
+        this.bytesAcknowledged = bytesAcknowledged;
+        this.blocksSent = blocksSent;
+        this.blocksAcknowledged = blocksAcknowledged;
+        this.blocksInFlight = blocksInFlight;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.windowSize = windowSize;
+        this.duration = duration;
+    }
+
+    /**
+     * Gets the number of payload bytes, which have been acknowledged by the peer.
+     *
+     * @return The number of bytes.
+     */
+    public final long getBytesAcknowledged() {
+        return bytesAcknowledged;
+    }
+
+    /**
+     * Gets the number of {@code <data/>} blocks, which have been sent.
+     *
+     * @return The number of blocks.
+     */
+    public final long getBlocksSent() {
+        return blocksSent;
+    }
+
+    /**
+     * Gets the number of {@code <data/>} blocks, which have been acknowledged by the peer.
+     *
+     * @return The number of blocks.
+     */
+    public final long getBlocksAcknowledged() {
+        return blocksAcknowledged;
+    }
+
+    /**
+     * Gets the number of blocks, which are currently sent but not yet acknowledged.
+     *
+     * @return The number of unacknowledged blocks.
+     */
+    public final int getBlocksInFlight() {
+        return blocksInFlight;
+    }
+
+    /**
+     * Gets the highest number of unacknowledged blocks observed during the session.
+     *
+     * @return The maximal number of unacknowledged blocks.
+     */
+    public final int getMaxBlocksInFlight() {
+        return maxBlocksInFlight;
+    }
+
+    /**
+     * Gets the window size, i.e. the maximal number of unacknowledged blocks the session may have.
+     *
+     * @return The window size.
+     * @see InBandByteStreamManager#setWindowSize(int)
+     */
+    public final int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Gets the duration between the first sent block and the last acknowledgement.
+     *
+     * @return The duration.
+     */
+    public final Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the average throughput in bytes per second, i.e. the acknowledged bytes divided by the {@linkplain
+     * #getDuration() duration}.
+     *
+     * @return The throughput in bytes per second.
+     */
+    public final double getThroughput() {
+        long nanos = duration.toNanos();
+        return nanos > 0 ? bytesAcknowledged * 1_000_000_000.0 / nanos : 0;
+    }
+
+    @Override
+    public final String toString() {
+        return "IBB statistics: " + bytesAcknowledged + " bytes, " + blocksAcknowledged + '/' + blocksSent
+                + " blocks acknowledged, in flight: " + blocksInFlight + " (max " + maxBlocksInFlight + ", window "
+                + windowSize + "), " + Math.round(getThroughput()) + " bytes/s";
+    }
+}
@@ -72,6 +72,9 @@ public final class InBandByteStreamManager extends ByteStreamManager implements
     // Guarded by "this"
     private InBandByteStream.Open.StanzaType stanzaType = InBandByteStream.Open.StanzaType.IQ;
 
+    // Guarded by "this"
+    private int windowSize = 1;
+
     private InBandByteStreamManager(final XmppSession xmppSession) {
         super(xmppSession);
         iqHandler = new AbstractIQHandler(InBandByteStream.class, IQ.Type.SET) {
@@ -141,7 +144,7 @@ public final class InBandByteStreamManager extends ByteStreamManager implements
     IbbSession createSession(Jid receiver, final String sessionId, int blockSize,
                              InBandByteStream.Open.StanzaType stanzaType) {
         IbbSession ibbSession = new IbbSession(sessionId, xmppSession, receiver, blockSize,
-                xmppSession.getConfiguration().getDefaultResponseTimeout(), this, stanzaType);
+                xmppSession.getConfiguration().getDefaultResponseTimeout(), this, stanzaType, getWindowSize());
         ibbSessionMap.put(ibbSession.getSessionId(), ibbSession);
         return ibbSession;
     }
@@ -187,6 +190,48 @@ public final class InBandByteStreamManager extends ByteStreamManager implements
         this.stanzaType = stanzaType;
     }
 
+    /**
+     * Gets the window size, i.e. the maximal number of sent, but not yet acknowledged data blocks per session.
+     *
+     * @return The window size.
+     * @see #setWindowSize(int)
+     */
+    public final synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets the window size, i.e. the maximal number of sent, but not yet acknowledged data blocks per session. The
+     * default is 1, which means that each block must be acknowledged by the peer, before the next block is sent, which
+     * limits the throughput to one block per round-trip. Larger windows allow to pipeline multiple blocks, the peer
+     * still processes them in order of their sequence number.
+     *
+     * <p>The window size only applies to sessions, which are created after this method has been called.</p>
+     *
+     * @param windowSize The window size.
+     */
+    public final synchronized void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive.");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Gets the outbound statistics of an in-band bytestream session, e.g. the throughput and the number of
+     * unacknowledged data blocks.
+     *
+     * @param byteStreamSession The byte stream session, which must have been created by this manager.
+     * @return The statistics.
+     * @throws IllegalArgumentException If the session is not an in-band bytestream session.
+     */
+    public final IbbStatistics getStatistics(ByteStreamSession byteStreamSession) {
+        if (!(byteStreamSession instanceof IbbSession)) {
+            throw new IllegalArgumentException("Not an in-band bytestream session: " + byteStreamSession);
+        }
+        return ((IbbSession) byteStreamSession).getStatistics();
+    }
+
     @Override
     protected void dispose() {
         super.dispose();
@@ -26,12 +26,23 @@ package rocks.xmpp.extensions.bytestreams.s5b;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import rocks.xmpp.core.XmppException;
@@ -39,52 +50,91 @@ import rocks.xmpp.core.XmppException;
 /**
  * A local SOCKS5 server which runs as a singleton on the local machine on port 1080 (default SOCKS port).
  *
+ * <p>The server uses non-blocking I/O: A single selector thread accepts connections and performs the SOCKS5 handshake
+ * for all of them, so that many concurrent transfers don't tie up a thread each. After a successful handshake, a
+ * connection is either handed over (in blocking mode) to the local bytestream session, which requested it, or, if
+ * {@linkplain #setRelayEnabled(boolean) relaying is enabled}, kept until it is {@linkplain #activate(String)
+ * activated} and then spliced with the other connection for the same destination address, i.e. the server acts as
+ * streamhost proxy as described in <a href="https://xmpp.org/extensions/xep-0065.html#mediated">6. Mediated
+ * Connection</a>.</p>
+ *
+ * <p>Connections, which wait for activation, are closed, if they are not activated within the {@linkplain
+ * #setActivationTimeout(Duration) activation timeout}. They are not read from while they wait, so that no data is lost
+ * before they are spliced, which means, that a connection closed by the peer is only noticed at the latest, when it
+ * expires.</p>
+ *
  * @author Christian Schudt
  */
 final class LocalSocks5Server {
 
     private static final System.Logger logger = System.getLogger(LocalSocks5Server.class.getName());
 
+    /**
+     * The maximal number of connections, which wait for activation.
+     */
+    private static final int MAX_RELAY_CANDIDATES = 1024;
+
+    private static final long EXPIRY_INTERVAL_MILLIS = 1000;
+
     final Collection<String> allowedAddresses = new CopyOnWriteArrayList<>();
 
     private int port = 1080; // The default port for SOCKS5.
 
-    private volatile ServerSocket serverSocket;
+    private volatile boolean relayEnabled;
+
+    private volatile Duration activationTimeout = Duration.ofSeconds(30);
 
-    private final Map<String, Socket> socketMap = new ConcurrentHashMap<>();
+    private volatile Selector selector;
+
+    private volatile ServerSocketChannel serverSocketChannel;
+
+    /**
+     * The connections for local sessions by destination address. They complete, as soon as the connection has been
+     * switched to blocking mode.
+     */
+    private final Map<String, CompletableFuture<Socket>> socketMap = new ConcurrentHashMap<>();
+
+    /**
+     * The connections, which wait for activation, i.e. for being relayed, by destination address.
+     */
+    private final Map<String, Collection<SelectionKey>> relayCandidates = new ConcurrentHashMap<>();
+
+    /**
+     * Activations, which wait for a connection to finish its handshake reply. Only accessed by the selector thread.
+     */
+    private final Map<SelectionKey, Runnable> pendingActivations = new HashMap<>();
+
+    /**
+     * The connections, which wait for activation, with their expiration. Only accessed by the selector thread.
+     */
+    private final Map<SelectionKey, RelayCandidate> waitingCandidates = new HashMap<>();
+
+    /**
+     * Tasks, which must be executed on the selector thread.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
 
     /**
      * Starts the local SOCKS5 server.
      */
     public void start() {
-        if (serverSocket == null) {
+        if (selector == null) {
             // Use double-checked locking idiom.
             synchronized (this) {
-                if (serverSocket == null) {
+                if (selector == null) {
                     try {
-                        serverSocket = new ServerSocket(getPort());
-                        Thread thread = new Thread(() -> {
-                            while (serverSocket != null) {
-                                Socket socket = null;
-                                try {
-                                    socket = serverSocket.accept();
-                                    socketMap.put(Socks5Protocol.establishServerConnection(socket, allowedAddresses),
-                                            socket);
-                                } catch (IOException e) {
-                                    if (socket != null) {
-                                        try {
-                                            socket.close();
-                                        } catch (IOException e1) {
-                                            logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
-                                        }
-                                    }
-                                }
-                            }
-                        });
+                        serverSocketChannel = ServerSocketChannel.open();
+                        serverSocketChannel.bind(new InetSocketAddress(port));
+                        serverSocketChannel.configureBlocking(false);
+                        Selector sel = Selector.open();
+                        serverSocketChannel.register(sel, SelectionKey.OP_ACCEPT);
+                        selector = sel;
+                        Thread thread = new Thread(() -> run(sel), "SOCKS5 Server");
                         thread.setDaemon(true);
                         thread.start();
                     } catch (IOException e) {
                         logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
+                        close();
                     }
                 }
             }
@@ -95,23 +145,266 @@ final class LocalSocks5Server {
      * Stops the server.
      */
     public synchronized void stop() {
-        if (serverSocket != null) {
+        if (selector != null) {
+            close();
+        }
+    }
+
+    private void close() {
+        Selector sel = selector;
+        selector = null;
+        try {
+            if (serverSocketChannel != null) {
+                serverSocketChannel.close();
+            }
+        } catch (IOException e) {
+            logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
+        } finally {
+            serverSocketChannel = null;
+            relayCandidates.clear();
+            socketMap.values().forEach(future -> future.completeExceptionally(new IOException("Server stopped.")));
+            if (sel != null) {
+                // Let the selector thread close the remaining connections and terminate.
+                sel.wakeup();
+            }
+        }
+    }
+
+    private void run(Selector sel) {
+        try {
+            long lastExpiry = System.nanoTime();
+            while (selector == sel) {
+                sel.select(waitingCandidates.isEmpty() ? 0 : EXPIRY_INTERVAL_MILLIS);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : sel.selectedKeys()) {
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else if (key.attachment() instanceof Socks5ServerHandshake) {
+                            handshake(key, (Socks5ServerHandshake) key.attachment());
+                        } else if (key.attachment() instanceof Socks5Relay) {
+                            ((Socks5Relay) key.attachment()).handle();
+                        }
+                    } catch (IOException e) {
+                        logger.log(System.Logger.Level.DEBUG, e.getMessage(), e);
+                        if (key.attachment() instanceof Socks5Relay) {
+                            ((Socks5Relay) key.attachment()).close();
+                        } else if (key.channel() instanceof SocketChannel) {
+                            removeRelayCandidate(key);
+                            key.channel().close();
+                        }
+                    }
+                }
+                sel.selectedKeys().clear();
+                long now = System.nanoTime();
+                if (!waitingCandidates.isEmpty() && now - lastExpiry >= EXPIRY_INTERVAL_MILLIS * 1_000_000) {
+                    lastExpiry = now;
+                    expireRelayCandidates(now);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
+        } finally {
+            tasks.clear();
+            pendingActivations.clear();
+            waitingCandidates.clear();
             try {
-                // This will close the socket and interrupts the accept() method.
-                serverSocket.close();
-                serverSocket = null;
+                for (SelectionKey key : sel.keys()) {
+                    key.channel().close();
+                }
+                sel.close();
             } catch (IOException e) {
                 logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
             }
         }
     }
 
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+            socketChannel.configureBlocking(false);
+            socketChannel.register(key.selector(), SelectionKey.OP_READ, new Socks5ServerHandshake(
+                    address -> allowedAddresses.contains(address) || relayEnabled));
+        }
+    }
+
+    private void handshake(SelectionKey key, Socks5ServerHandshake handshake) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        boolean accepted = handshake.isAccepted();
+        if ((key.isReadable() && handshake.read(socketChannel)) || key.isWritable()) {
+            if (!accepted && handshake.isAccepted()
+                    && !allowedAddresses.contains(handshake.getDestinationAddress())) {
+                if (waitingCandidates.size() >= MAX_RELAY_CANDIDATES) {
+                    logger.log(System.Logger.Level.WARNING, "Too many connections wait for activation.");
+                    socketChannel.close();
+                    return;
+                }
+                // Register the candidate before the reply is written, so that the peer can activate the bytestream
+                // as soon as it has received the reply.
+                waitingCandidates.put(key, new RelayCandidate(handshake.getDestinationAddress(),
+                        System.nanoTime() + activationTimeout.toNanos()));
+                relayCandidates.computeIfAbsent(handshake.getDestinationAddress(),
+                        k -> new CopyOnWriteArrayList<>()).add(key);
+            }
+            if (handshake.write(socketChannel)) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+        if (handshake.isEstablished()) {
+            String destinationAddress = handshake.getDestinationAddress();
+            if (allowedAddresses.contains(destinationAddress)) {
+                // The connection is for a local session, hand it over in blocking mode.
+                // The channel can only be switched to blocking mode after it has been deregistered from the selector,
+                // i.e. after the next selection operation.
+                CompletableFuture<Socket> future = new CompletableFuture<>();
+                socketMap.put(destinationAddress, future);
+                key.cancel();
+                tasks.offer(() -> {
+                    try {
+                        socketChannel.configureBlocking(true);
+                        future.complete(socketChannel.socket());
+                    } catch (IOException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+                key.selector().wakeup();
+            } else {
+                // Wait for activation.
+                key.interestOps(0);
+                key.attach(null);
+                Runnable activation = pendingActivations.remove(key);
+                if (activation != null) {
+                    activation.run();
+                }
+            }
+        }
+    }
+
     /**
-     * Gets the port. If no port has been set, the default port (1080) is returned.
+     * Closes the connections, which have not been activated in time, and removes the connections, which have been
+     * closed in the meantime.
+     *
+     * @param now The current time in nanoseconds.
+     */
+    private void expireRelayCandidates(long now) {
+        Iterator<Map.Entry<SelectionKey, RelayCandidate>> iterator = waitingCandidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<SelectionKey, RelayCandidate> entry = iterator.next();
+            SelectionKey key = entry.getKey();
+            if (!key.isValid() || now - entry.getValue().deadline >= 0) {
+                iterator.remove();
+                removeRelayCandidate(key, entry.getValue());
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    logger.log(System.Logger.Level.DEBUG, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void removeRelayCandidate(SelectionKey key) {
+        RelayCandidate candidate = waitingCandidates.remove(key);
+        if (candidate != null) {
+            removeRelayCandidate(key, candidate);
+        }
+    }
+
+    private void removeRelayCandidate(SelectionKey key, RelayCandidate candidate) {
+        pendingActivations.remove(key);
+        relayCandidates.computeIfPresent(candidate.destinationAddress, (destinationAddress, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Activates a relayed bytestream, i.e. splices the two connections with the given destination address together.
+     *
+     * @param destinationAddress The destination address, i.e. the hash of session id, requester and target JID.
+     * @return True, if both the requester and the target were connected and the bytestream has been activated.
+     */
+    public boolean activate(String destinationAddress) {
+        Selector sel = selector;
+        Collection<SelectionKey> keys = relayCandidates.get(destinationAddress);
+        if (sel == null || keys == null || keys.size() != 2 || !relayCandidates.remove(destinationAddress, keys)) {
+            return false;
+        }
+        SelectionKey[] pair = keys.toArray(new SelectionKey[0]);
+        Runnable activation = () -> {
+            if (pair[0].isValid() && pair[1].isValid()) {
+                // Only splice, after both handshake replies have been written completely.
+                if (pair[0].attachment() == null && pair[1].attachment() == null) {
+                    Socks5Relay.splice(pair[0], pair[1]);
+                }
+            } else {
+                try {
+                    pair[0].channel().close();
+                    pair[1].channel().close();
+                } catch (IOException e) {
+                    logger.log(System.Logger.Level.DEBUG, e.getMessage(), e);
+                }
+            }
+        };
+        tasks.offer(() -> {
+            for (SelectionKey key : pair) {
+                waitingCandidates.remove(key);
+                if (key.attachment() != null) {
+                    pendingActivations.put(key, activation);
+                }
+            }
+            activation.run();
+        });
+        sel.wakeup();
+        return true;
+    }
+
+    /**
+     * Indicates, whether this server relays connections for other entities, i.e. acts as streamhost proxy.
+     *
+     * @return True, if relaying is enabled.
+     */
+    public boolean isRelayEnabled() {
+        return relayEnabled;
+    }
+
+    /**
+     * Enables or disables relaying of connections for other entities.
+     *
+     * @param relayEnabled True, if relaying is enabled.
+     */
+    public void setRelayEnabled(boolean relayEnabled) {
+        this.relayEnabled = relayEnabled;
+    }
+
+    /**
+     * Sets the time, in which a relayed connection must be activated, before it is closed.
+     *
+     * @param activationTimeout The activation timeout.
+     */
+    public void setActivationTimeout(Duration activationTimeout) {
+        this.activationTimeout = activationTimeout;
+    }
+
+    /**
+     * Gets the port. If no port has been set, the default port (1080) is returned. If the port has been set to 0 and
+     * the server is running, the port which has been chosen by the system is returned.
      *
      * @return The port.
      */
     public int getPort() {
+        ServerSocketChannel channel = serverSocketChannel;
+        if (port == 0 && channel != null) {
+            return channel.socket().getLocalPort();
+        }
         return port;
     }
 
@@ -144,6 +437,30 @@ final class LocalSocks5Server {
      * @return The socket.
      */
     public Socket getSocket(String destinationAddress) {
-        return socketMap.remove(destinationAddress);
+        CompletableFuture<Socket> future = socketMap.remove(destinationAddress);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            logger.log(System.Logger.Level.WARNING, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * A connection, which waits for activation.
+     */
+    private static final class RelayCandidate {
+
+        private final String destinationAddress;
+
+        private final long deadline;
+
+        private RelayCandidate(String destinationAddress, long deadline) {
+            this.destinationAddress = destinationAddress;
+            this.deadline = deadline;
+        }
     }
 }
@@ -63,7 +63,8 @@ import rocks.xmpp.util.concurrent.CompletionStages;
  *
  * <p>If {@linkplain #setLocalHostEnabled(boolean) enabled}, this class starts a local SOCKS5 server to support direct
  * connections between two entities. You can {@linkplain #setPort(int) set a port} of this local server, if you don't
- * set a port, the default port 1080 is used.</p>
+ * set a port, the default port 1080 is used. The local server can also {@linkplain #setRelayEnabled(boolean) act as
+ * streamhost proxy} for other entities.</p>
  *
  * <p>It also allows you to {@linkplain #initiateSession(Jid, String) initiate a byte stream session} with another
  * entity.</p>
@@ -106,6 +107,13 @@ public final class Socks5ByteStreamManager extends ByteStreamManager
                     // If the request is malformed (e.g., the <query/> element does not include the 'sid' attribute),
                     // the Target MUST return an error of <bad-request/>.
                     return iq.createError(Condition.BAD_REQUEST);
+                } else if (socks5ByteStream.getActivate() != null) {
+                    // 6.3.5 Activation of Bytestream, we are the proxy.
+                    if (isRelayEnabled() && localSocks5Server.activate(Socks5ByteStream
+                            .hash(socks5ByteStream.getSessionId(), iq.getFrom(), socks5ByteStream.getActivate()))) {
+                        return iq.createResult();
+                    }
+                    return iq.createError(Condition.ITEM_NOT_FOUND);
                 } else {
                     XmppUtils.notifyEventListeners(byteStreamListeners,
                             new S5bEvent(Socks5ByteStreamManager.this, socks5ByteStream.getSessionId(), xmppSession, iq,
@@ -170,6 +178,34 @@ public final class Socks5ByteStreamManager extends ByteStreamManager
         }
     }
 
+    /**
+     * Indicates whether the local host relays bytestreams of other entities.
+     *
+     * @return If enabled.
+     * @see #setRelayEnabled(boolean)
+     */
+    public boolean isRelayEnabled() {
+        return localSocks5Server.isRelayEnabled();
+    }
+
+    /**
+     * Enables or disables relaying of bytestreams of other entities. If enabled, the local SOCKS5 server also acts as
+     * streamhost proxy, i.e. it accepts connections for bytestreams of other entities, which offered this entity as
+     * stream host, and splices the connections of the requester and the target, as soon as the requester has
+     * activated the bytestream.
+     *
+     * <p>This requires the {@linkplain #setLocalHostEnabled(boolean) local host} to be enabled.</p>
+     *
+     * @param enabled If enabled.
+     * @see <a href="https://xmpp.org/extensions/xep-0065.html#mediated">6. Mediated Connection</a>
+     */
+    public void setRelayEnabled(boolean enabled) {
+        localSocks5Server.setRelayEnabled(enabled);
+        if (enabled && isLocalHostEnabled() && isEnabled()) {
+            localSocks5Server.start();
+        }
+    }
+
     /**
      * Gets the port of the local host.
      *
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.bytestreams.s5b;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One end of a relayed SOCKS5 bytestream, i.e. of two connections which are spliced together by a streamhost proxy.
+ *
+ * <p>Bytes read from this end are buffered in a direct buffer and written to the peer's channel, so that they are not
+ * copied to the Java heap. If the peer cannot accept all bytes, reading from this end is suspended until the buffer
+ * has been drained (back pressure). End of stream is propagated by shutting down the output of the peer.</p>
+ *
+ * <p>This class is not thread-safe and must be confined to the selector thread.</p>
+ *
+ * @author Christian Schudt
+ */
+final class Socks5Relay {
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private final SelectionKey key;
+
+    private final SocketChannel channel;
+
+    /**
+     * The bytes, which have been read from this end, but not yet written to the peer (in "write mode").
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private Socks5Relay peer;
+
+    private boolean inputShutdown;
+
+    private Socks5Relay(SelectionKey key) {
+        this.key = key;
+        this.channel = (SocketChannel) key.channel();
+    }
+
+    /**
+     * Splices two connections together and starts relaying.
+     *
+     * @param key1 The key of the first connection.
+     * @param key2 The key of the second connection.
+     */
+    static void splice(SelectionKey key1, SelectionKey key2) {
+        Socks5Relay relay1 = new Socks5Relay(key1);
+        Socks5Relay relay2 = new Socks5Relay(key2);
+        relay1.peer = relay2;
+        relay2.peer = relay1;
+        key1.attach(relay1);
+        key2.attach(relay2);
+        key1.interestOps(SelectionKey.OP_READ);
+        key2.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Handles the ready operations of this end.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    final void handle() throws IOException {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            peer.drain();
+        }
+    }
+
+    /**
+     * Closes both ends.
+     */
+    final void close() {
+        closeQuietly(channel);
+        closeQuietly(peer.channel);
+    }
+
+    private void read() throws IOException {
+        if (channel.read(buffer) < 0) {
+            inputShutdown = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        drain();
+    }
+
+    /**
+     * Writes the buffered bytes of this end to the peer.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        peer.channel.write(buffer);
+        boolean drained = !buffer.hasRemaining();
+        buffer.compact();
+        if (drained) {
+            peer.key.interestOps(peer.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (inputShutdown) {
+                peer.channel.shutdownOutput();
+                if (peer.inputShutdown && peer.buffer.position() == 0) {
+                    close();
+                }
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } else {
+            // The peer is slower than this end, stop reading until it has caught up.
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore, the channel is closed anyway.
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.bytestreams.s5b;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * The non-blocking server side of the SOCKS5 handshake as used by XMPP, i.e. the method selection and the CONNECT
+ * request with a DOMAINNAME address type, without authentication.
+ *
+ * <p>The handshake reads from and writes to a non-blocking channel and keeps its state between calls, so that it can
+ * be driven by a selector.</p>
+ *
+ * <p>This class is not thread-safe and must be confined to the selector thread.</p>
+ *
+ * @author Christian Schudt
+ * @see Socks5Protocol#establishServerConnection(java.net.Socket, java.util.Collection)
+ * @see <a href="http://tools.ietf.org/html/rfc1928">SOCKS Protocol Version 5</a>
+ */
+final class Socks5ServerHandshake {
+
+    /**
+     * The maximal size of a client message, i.e. the SOCKS request with a 255 bytes long address.
+     */
+    private static final int MAX_MESSAGE_SIZE = 7 + 255;
+
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+
+    private final Predicate<String> allowedAddresses;
+
+    private ByteBuffer out;
+
+    private State state = State.METHOD_SELECTION;
+
+    private String destinationAddress;
+
+    Socks5ServerHandshake(Predicate<String> allowedAddresses) {
+        this.allowedAddresses = allowedAddresses;
+    }
+
+    /**
+     * Reads available bytes from the channel and processes them.
+     *
+     * @param channel The channel.
+     * @return True, if a reply is pending, which needs to be written to the channel.
+     * @throws IOException If the channel has been closed by the client or if a SOCKS5 protocol violation occurred.
+     */
+    final boolean read(ByteChannel channel) throws IOException {
+        if (channel.read(in) < 0) {
+            throw new IOException("Connection closed by client during SOCKS5 handshake.");
+        }
+        in.flip();
+        try {
+            if (state == State.METHOD_SELECTION) {
+                selectMethod();
+            } else if (state == State.REQUEST) {
+                evaluateRequest();
+            } else if (in.hasRemaining()) {
+                throw new IOException("Unexpected data received during SOCKS5 handshake.");
+            }
+        } finally {
+            in.compact();
+        }
+        return out != null;
+    }
+
+    /**
+     * Writes the pending reply to the channel.
+     *
+     * @param channel The channel.
+     * @return True, if the reply has been written completely.
+     * @throws IOException If the reply could not be written or the client has been refused.
+     */
+    final boolean write(ByteChannel channel) throws IOException {
+        if (out != null) {
+            channel.write(out);
+            if (out.hasRemaining()) {
+                return false;
+            }
+            out = null;
+        }
+        if (state == State.FAILED) {
+            throw new IOException("SOCKS5 connection refused.");
+        }
+        return true;
+    }
+
+    /**
+     * Indicates, whether the CONNECT request has been accepted. The reply might not have been written yet.
+     *
+     * @return True, if accepted.
+     */
+    final boolean isAccepted() {
+        return state == State.ESTABLISHED;
+    }
+
+    /**
+     * Indicates, whether the SOCKS5 connection has been established, i.e. the CONNECT request has been accepted and
+     * the reply has been written.
+     *
+     * @return True, if established.
+     */
+    final boolean isEstablished() {
+        return state == State.ESTABLISHED && out == null;
+    }
+
+    /**
+     * Gets the DST.ADDR of the CONNECT request.
+     *
+     * @return The destination address or null, if the request has not yet been received.
+     */
+    final String getDestinationAddress() {
+        return destinationAddress;
+    }
+
+    private void selectMethod() throws IOException {
+        /*
+            The client connects to the server, and sends a version
+            identifier/method selection message:
+
+                   +----+----------+----------+
+                   |VER | NMETHODS | METHODS  |
+                   +----+----------+----------+
+                   | 1  |    1     | 1 to 255 |
+                   +----+----------+----------+
+         */
+        if (in.remaining() < 2) {
+            return;
+        }
+        if (in.get(0) != (byte) 0x05) {
+            throw new IOException("Client provided invalid SOCKS version.");
+        }
+        int methods = in.get(1) & 0xFF;
+        if (in.remaining() < 2 + methods) {
+            return;
+        }
+        // Check if the client provided a "NO AUTHENTICATION REQUIRED" method (0x00).
+        boolean noAuthRequired = false;
+        for (int i = 0; i < methods; i++) {
+            if (in.get(2 + i) == (byte) 0x00) {
+                noAuthRequired = true;
+                break;
+            }
+        }
+        in.position(2 + methods);
+        // If the selected METHOD is X'FF', none of the methods listed by the
+        // client are acceptable, and the client MUST close the connection.
+        out = ByteBuffer.wrap(new byte[]{(byte) 0x05, noAuthRequired ? (byte) 0x00 : (byte) 0xFF});
+        state = noAuthRequired ? State.REQUEST : State.FAILED;
+        // The client may have pipelined the request.
+        if (noAuthRequired && in.hasRemaining()) {
+            evaluateRequest();
+        }
+    }
+
+    private void evaluateRequest() throws IOException {
+        /*
+             The SOCKS request is formed as follows:
+
+                 +----+-----+-------+------+----------+----------+
+                 |VER | CMD |  RSV  | ATYP | DST.ADDR | DST.PORT |
+                 +----+-----+-------+------+----------+----------+
+                 | 1  |  1  | X'00' |  1   | Variable |    2     |
+                 +----+-----+-------+------+----------+----------+
+         */
+        if (in.remaining() < 5) {
+            return;
+        }
+        int start = in.position();
+        if (in.get(start) != (byte) 0x05) {
+            throw new IOException("Invalid SOCKS version.");
+        }
+        if (in.get(start + 3) != (byte) 0x03) {
+            throw new IOException("Unsupported SOCKS5 address type");
+        }
+        int addressLength = in.get(start + 4) & 0xFF;
+        if (in.remaining() < 7 + addressLength) {
+            return;
+        }
+        byte[] request = new byte[7 + addressLength];
+        in.get(request);
+        destinationAddress = new String(request, 5, addressLength, StandardCharsets.UTF_8);
+
+        /*
+            The server evaluates the request, and
+            returns a reply formed as follows:
+
+                +----+-----+-------+------+----------+----------+
+                |VER | REP |  RSV  | ATYP | BND.ADDR | BND.PORT |
+                +----+-----+-------+------+----------+----------+
+                | 1  |  1  | X'00' |  1   | Variable |    2     |
+                +----+-----+-------+------+----------+----------+
+         */
+        boolean allowed = allowedAddresses.test(destinationAddress);
+        request[1] = allowed ? (byte) 0x00 : (byte) 0x05; // X'00' succeeded, X'05' Connection refused
+        ByteBuffer reply = ByteBuffer.allocate((out != null ? out.remaining() : 0) + request.length);
+        if (out != null) {
+            reply.put(out);
+        }
+        out = reply.put(request).flip();
+        state = allowed ? State.ESTABLISHED : State.FAILED;
+    }
+
+    private enum State {
+        METHOD_SELECTION,
+        REQUEST,
+        ESTABLISHED,
+        FAILED
+    }
+}
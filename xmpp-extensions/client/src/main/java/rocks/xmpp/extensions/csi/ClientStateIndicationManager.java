@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.csi;
+
+import java.util.concurrent.CompletableFuture;
+
+import rocks.xmpp.core.session.Manager;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.core.stream.client.StreamFeaturesManager;
+import rocks.xmpp.extensions.csi.model.ClientState;
+import rocks.xmpp.util.concurrent.AsyncResult;
+
+/**
+ * Indicates to the server, whether the client is active or inactive, e.g. whether a mobile app is in the foreground
+ * or in the background.
+ *
+ * <p>While the client is inactive, the server may delay or drop non-urgent stanzas, like presence updates or chat
+ * state notifications, which saves bandwidth and battery. The state is only sent, if the server supports it, and it is
+ * sent again, if the session reconnects while the client is inactive.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0352.html">XEP-0352: Client State Indication</a>
+ */
+public final class ClientStateIndicationManager extends Manager {
+
+    /**
+     * Guarded by "this".
+     */
+    private boolean active = true;
+
+    private ClientStateIndicationManager(final XmppSession xmppSession) {
+        super(xmppSession);
+    }
+
+    @Override
+    protected final void initialize() {
+        xmppSession.addSessionStatusListener(e -> {
+            // A new stream starts in the active state.
+            if (e.getStatus() == XmppSession.Status.AUTHENTICATED && !isActive() && isSupported()) {
+                xmppSession.send(ClientState.INACTIVE);
+            }
+        });
+    }
+
+    /**
+     * Indicates to the server, that the client is active.
+     *
+     * @return The async result, which is complete, when the state has been sent.
+     */
+    public final AsyncResult<Void> setActive() {
+        return setState(true);
+    }
+
+    /**
+     * Indicates to the server, that the client is inactive.
+     *
+     * @return The async result, which is complete, when the state has been sent.
+     */
+    public final AsyncResult<Void> setInactive() {
+        return setState(false);
+    }
+
+    /**
+     * Indicates, whether the client is active.
+     *
+     * @return True, if the client is active.
+     */
+    public final synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Indicates, whether the server supports client state indication, i.e. whether it has advertised the stream
+     * feature.
+     *
+     * @return True, if client state indication is supported.
+     */
+    public final boolean isSupported() {
+        return xmppSession.getManager(StreamFeaturesManager.class).getFeatures()
+                .containsKey(ClientState.FEATURE.getClass());
+    }
+
+    private synchronized AsyncResult<Void> setState(final boolean active) {
+        // Send while holding the lock, so that concurrent state changes arrive in order.
+        if (this.active == active) {
+            return new AsyncResult<>(CompletableFuture.completedFuture(null));
+        }
+        this.active = active;
+        if (!isSupported()) {
+            return new AsyncResult<>(CompletableFuture.completedFuture(null));
+        }
+        return xmppSession.send(active ? ClientState.ACTIVE : ClientState.INACTIVE);
+    }
+}
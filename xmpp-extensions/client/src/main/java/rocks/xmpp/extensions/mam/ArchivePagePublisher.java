@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * Publishes the pages of an archive query. Each page is requested from the server, when there's demand for it, and the
+ * next page is requested with the first or last id of the previous page.
+ *
+ * @author Christian Schudt
+ */
+final class ArchivePagePublisher implements Flow.Publisher<List<MessageArchive.Result>> {
+
+    private final XmppSession xmppSession;
+
+    private final Jid with;
+
+    private final Instant start;
+
+    private final Instant end;
+
+    private final int pageSize;
+
+    private final boolean backwards;
+
+    ArchivePagePublisher(XmppSession xmppSession, Jid with, Instant start, Instant end, int pageSize,
+                         boolean backwards) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive.");
+        }
+        this.xmppSession = xmppSession;
+        this.with = with;
+        this.start = start;
+        this.end = end;
+        this.pageSize = pageSize;
+        this.backwards = backwards;
+    }
+
+    @Override
+    public final void subscribe(Flow.Subscriber<? super List<MessageArchive.Result>> subscriber) {
+        Objects.requireNonNull(subscriber);
+        PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class PageSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super List<MessageArchive.Result>> subscriber;
+
+        /**
+         * Guarded by "this".
+         */
+        private long demand;
+
+        /**
+         * Guarded by "this".
+         */
+        private boolean querying;
+
+        /**
+         * Guarded by "this".
+         */
+        private boolean done;
+
+        /**
+         * The result set management of the next query. Guarded by "this".
+         */
+        private ResultSetManagement next;
+
+        private PageSubscription(Flow.Subscriber<? super List<MessageArchive.Result>> subscriber) {
+            this.subscriber = subscriber;
+            this.next = backwards ? ResultSetManagement.forLastPage(pageSize)
+                    : ResultSetManagement.forFirstPage(pageSize);
+        }
+
+        @Override
+        public final void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                }
+                subscriber.onError(new IllegalArgumentException("The number of requested pages must be positive."));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            queryIfDemanded();
+        }
+
+        @Override
+        public final synchronized void cancel() {
+            done = true;
+        }
+
+        private void queryIfDemanded() {
+            final ResultSetManagement resultSetManagement;
+            synchronized (this) {
+                if (done || querying || demand == 0) {
+                    return;
+                }
+                querying = true;
+                resultSetManagement = next;
+            }
+            final String queryId = UUID.randomUUID().toString();
+            final List<MessageArchive.Result> page = Collections.synchronizedList(new ArrayList<>());
+            // The results are received before the IQ result.
+            final Consumer<MessageEvent> resultListener = e -> {
+                MessageArchive.Result result = e.getMessage().getExtension(MessageArchive.Result.class);
+                if (result != null && queryId.equals(result.getQueryId())) {
+                    page.add(result);
+                }
+            };
+            xmppSession.addInboundMessageListener(resultListener);
+            xmppSession.query(IQ.set(new MessageArchive.Query(queryId, with, start, end, resultSetManagement)))
+                    .whenComplete((iq, e) -> {
+                        xmppSession.removeInboundMessageListener(resultListener);
+                        if (e != null) {
+                            fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                        } else {
+                            onPage(new ArrayList<>(page), iq.getExtension(MessageArchive.Fin.class));
+                        }
+                    });
+        }
+
+        private void onPage(List<MessageArchive.Result> page, MessageArchive.Fin fin) {
+            final ResultSetManagement resultSetManagement = fin != null ? fin.getResultSetManagement() : null;
+            final boolean complete = page.isEmpty() || fin == null || fin.isComplete() || resultSetManagement == null;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                querying = false;
+                demand--;
+                if (complete) {
+                    done = true;
+                } else {
+                    next = backwards ? resultSetManagement.previousPage(pageSize)
+                            : resultSetManagement.nextPage(pageSize);
+                }
+            }
+            if (!page.isEmpty()) {
+                subscriber.onNext(page);
+            }
+            if (complete) {
+                subscriber.onComplete();
+            } else {
+                queryIfDemanded();
+            }
+        }
+
+        private void fail(Throwable e) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            subscriber.onError(e);
+        }
+    }
+}
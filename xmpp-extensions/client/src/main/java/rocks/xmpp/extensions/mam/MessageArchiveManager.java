@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.extensions.caps.EntityCapabilitiesManager;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
+import rocks.xmpp.util.concurrent.AsyncResult;
+
+/**
+ * This manager allows to query the user's message archive on the server.
+ *
+ * <p>Queries return a {@link Flow.Publisher}, which emits the archived messages page by page. A page is only requested
+ * from the server, when the subscriber has requested it, so that a subscriber can stop paging through a large archive
+ * at any time, e.g. after it has displayed enough messages.</p>
+ *
+ * <pre>{@code
+ * messageArchiveManager.queryLatest(contact, 50).subscribe(new Flow.Subscriber<>() {
+ *     public void onSubscribe(Flow.Subscription subscription) {
+ *         // Only retrieve the last 50 messages.
+ *         subscription.request(1);
+ *     }
+ *     public void onNext(List<MessageArchive.Result> page) {
+ *         // Display the page.
+ *     }
+ *     ...
+ * });
+ * }</pre>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+ */
+public final class MessageArchiveManager {
+
+    private final XmppSession xmppSession;
+
+    private MessageArchiveManager(XmppSession xmppSession) {
+        this.xmppSession = xmppSession;
+    }
+
+    /**
+     * Discovers support for message archive management.
+     *
+     * @return The async result with true, if the server supports message archive management; otherwise false.
+     */
+    public AsyncResult<Boolean> isSupported() {
+        EntityCapabilitiesManager entityCapabilitiesManager = xmppSession.getManager(EntityCapabilitiesManager.class);
+        return entityCapabilitiesManager.discoverCapabilities(xmppSession.getDomain())
+                .thenApply(infoNode -> infoNode.getFeatures().contains(MessageArchive.NAMESPACE));
+    }
+
+    /**
+     * Queries the archive from the oldest to the newest message. Each page contains the messages in chronological
+     * order.
+     *
+     * @param with     Only query messages with this JID, or null. A bare JID matches all of its resources.
+     * @param start    Only query messages, which have been archived at or after this time, or null.
+     * @param end      Only query messages, which have been archived at or before this time, or null.
+     * @param pageSize The maximal number of messages per page. The server may return less.
+     * @return The publisher, which emits the pages. Each subscriber runs its own query.
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#query-paging">4.3 Paging through results</a>
+     */
+    public Flow.Publisher<List<MessageArchive.Result>> query(Jid with, Instant start, Instant end, int pageSize) {
+        return new ArchivePagePublisher(xmppSession, with, start, end, pageSize, false);
+    }
+
+    /**
+     * Queries the archive from the newest to the oldest message, e.g. in order to display the latest messages of a
+     * conversation. Each page contains the messages in chronological order, but the first page contains the newest
+     * messages.
+     *
+     * @param with     Only query messages with this JID, or null. A bare JID matches all of its resources.
+     * @param pageSize The maximal number of messages per page. The server may return less.
+     * @return The publisher, which emits the pages. Each subscriber runs its own query.
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#query-paging">4.3 Paging through results</a>
+     */
+    public Flow.Publisher<List<MessageArchive.Result>> queryLatest(Jid with, int pageSize) {
+        return new ArchivePagePublisher(xmppSession, with, null, null, pageSize, true);
+    }
+}
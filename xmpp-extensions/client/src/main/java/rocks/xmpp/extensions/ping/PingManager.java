@@ -29,7 +29,6 @@ import java.util.Set;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import rocks.xmpp.addr.Jid;
@@ -51,7 +50,7 @@ import rocks.xmpp.extensions.ping.handler.PingHandler;
 import rocks.xmpp.extensions.ping.model.Ping;
 import rocks.xmpp.util.XmppUtils;
 import rocks.xmpp.util.concurrent.AsyncResult;
-import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
 
 /**
  * This class implements the application-level ping mechanism as specified in <a href="https://xmpp.org/extensions/xep-0199.html">XEP-0199:
@@ -75,12 +74,15 @@ public final class PingManager extends Manager implements ExtensionProtocol, Inb
     private static final ExecutorService EXECUTOR_SERVICE =
             Executors.newCachedThreadPool(XmppUtils.createNamedThreadFactory("Scheduled Ping Thread"));
 
-    private final QueuedScheduledExecutorService scheduledExecutorService;
+    /**
+     * guarded by "this"
+     */
+    private HashedWheelTimer.Timeout nextPing;
 
     /**
      * guarded by "this"
      */
-    private ScheduledFuture<?> nextPing;
+    private boolean disposed;
 
     /**
      * guarded by "this"
@@ -96,9 +98,6 @@ public final class PingManager extends Manager implements ExtensionProtocol, Inb
      */
     private PingManager(final XmppSession xmppSession) {
         super(xmppSession, true);
-        scheduledExecutorService = new QueuedScheduledExecutorService(EXECUTOR_SERVICE);
-        scheduledExecutorService.setRemoveOnCancelPolicy(true);
-
         this.iqHandler = new PingHandler();
     }
 
@@ -188,11 +187,11 @@ public final class PingManager extends Manager implements ExtensionProtocol, Inb
     }
 
     private synchronized void rescheduleNextPing() {
-        // Reschedule in a separate thread, so that it won't interrupt the "pinging" thread due to the cancel, which
-        // then causes the ping to fail.
-        if (pingInterval != null && !pingInterval.isNegative() && !scheduledExecutorService.isShutdown()) {
+        // The next ping is rescheduled on every inbound stanza, which is cheap with the timer.
+        // The ping is sent in a separate thread, so that it won't block the timer.
+        if (pingInterval != null && !pingInterval.isNegative() && !disposed) {
             cancelNextPing();
-            nextPing = scheduledExecutorService.schedule(() -> {
+            nextPing = HashedWheelTimer.shared().newTimeout(() -> EXECUTOR_SERVICE.execute(() -> {
                 if (isEnabled() && xmppSession.getStatus() == XmppSession.Status.AUTHENTICATED) {
                     pingServer().thenAccept(result -> {
                         if (!result) {
@@ -205,7 +204,7 @@ public final class PingManager extends Manager implements ExtensionProtocol, Inb
                     });
                 }
                 // Rescheduling of the next ping is already done by the IQ response of the ping.
-            }, pingInterval.getSeconds(), TimeUnit.SECONDS);
+            }), pingInterval.getSeconds(), TimeUnit.SECONDS);
         }
     }
 
@@ -214,17 +213,17 @@ public final class PingManager extends Manager implements ExtensionProtocol, Inb
      */
     private synchronized void cancelNextPing() {
         if (nextPing != null) {
-            nextPing.cancel(false);
+            nextPing.cancel();
             nextPing = null;
         }
     }
 
     @Override
     protected void dispose() {
-        // Shutdown the ping executor service and cancel the next ping.
+        // Cancel the next ping and don't schedule any further pings.
         synchronized (this) {
             cancelNextPing();
-            scheduledExecutorService.shutdownNow();
+            disposed = true;
         }
     }
 
@@ -24,11 +24,12 @@
 
 package rocks.xmpp.extensions.rtt;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -44,51 +45,38 @@ import rocks.xmpp.util.XmppUtils;
  */
 public final class InboundRealTimeMessage extends RealTimeMessage {
 
-    private final StringBuilder sb;
+    /**
+     * Guarded by "this".
+     */
+    private final RealTimeTextBuffer text = new RealTimeTextBuffer();
 
-    private final BlockingQueue<RealTimeText.Action> actions = new LinkedBlockingQueue<>();
+    /**
+     * The actions, which have not yet been applied. Guarded by "this".
+     */
+    private final Queue<RealTimeText.Action> actions = new ArrayDeque<>();
 
     private final Jid from;
 
     private final Set<Consumer<RealTimeTextChangeEvent>> textChangeListeners = new CopyOnWriteArraySet<>();
 
+    private final boolean processing;
+
+    /**
+     * True, while a worker owns the queue, i.e. while it is scheduled or applies the actions. There's at most one
+     * worker, so that the actions are applied and the listeners are notified in order. Guarded by "this".
+     */
+    private boolean running;
+
+    /**
+     * The end of the current wait interval, during which no worker runs. Guarded by "this".
+     */
+    private ScheduledFuture<?> waitInterval;
+
     InboundRealTimeMessage(XmppSession xmppSession, Jid contact, int sequence, String id) {
         this.from = contact;
         this.sequence.set(sequence);
-        this.sb = new StringBuilder();
         this.id = id;
-
-        if (xmppSession != null) {
-            REAL_TIME_TEXT_EXECUTOR.execute(() -> {
-                        try {
-                            RealTimeText.Action action;
-                            // Periodically poll for new action elements until the message is complete.
-                            while ((action = actions.poll(700, TimeUnit.MILLISECONDS)) != null || !complete) {
-                                if (action != null) {
-                                    if (action instanceof RealTimeText.WaitInterval) {
-                                        Long ms = ((RealTimeText.WaitInterval) action).getMilliSeconds();
-                                        if (ms != null) {
-                                            if (ms == Integer.MIN_VALUE) {
-                                                // "Poison" element to break the blocking queue immediately.
-                                                break;
-                                            }
-                                            // Wait the amount of ms, until it's waken up by new incoming RTT actions.
-                                            // See 7.4 Receiving Real-Time Text
-                                            synchronized (actions) {
-                                                actions.wait(ms);
-                                            }
-                                        }
-                                    } else {
-                                        applyActionElement(action);
-                                    }
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-            );
-        }
+        this.processing = xmppSession != null;
     }
 
     /**
@@ -106,84 +94,126 @@ public final class InboundRealTimeMessage extends RealTimeMessage {
         if (incrementSequence) {
             sequence.getAndIncrement();
         }
-        this.actions.addAll(actions);
-        synchronized (this.actions) {
-            // Wake up the waiting thread, which processes the queue.
-            // This is to ensure that new actions are processed immediately, in case if there's still a wait from a
-            // previous waiting element.
-            this.actions.notifyAll();
+        synchronized (this) {
+            this.actions.addAll(actions);
+            if (!processing) {
+                return;
+            }
+            if (waitInterval != null && waitInterval.cancel(false)) {
+                // New actions are processed immediately, in case if there's still a wait from a previous waiting
+                // element. See 7.4 Receiving Real-Time Text
+                waitInterval = null;
+            }
+            // If the wait interval could not be cancelled, it is just about to resume the actions.
+            if (!running && waitInterval == null) {
+                running = true;
+                REAL_TIME_TEXT_EXECUTOR.execute(this::applyActions);
+            }
         }
     }
 
     /**
-     * Applies an action to the current text.
-     *
-     * @param action The action.
+     * Resumes applying the actions after a wait interval, unless a worker already does.
      */
-    void applyActionElement(RealTimeText.Action action) {
-        String s;
+    private void resumeActions() {
         synchronized (this) {
-            if (action instanceof RealTimeText.InsertText) {
-                RealTimeText.InsertText insertText = (RealTimeText.InsertText) action;
-                if (insertText.getText() != null) {
-                    int i = 0;
-                    int charCount = 0;
-                    int pos = normalizePosition(insertText.getPosition());
-                    // Iterate over the code points and sum up the char count, which is used by StringBuilder.insert()
-                    // RTT counts with code points, while Java APIs counts with character indexes.
-                    while (i < sb.codePointCount(0, sb.length()) && i < pos) {
-                        charCount += Character.charCount(sb.codePointAt(charCount));
-                        i++;
-                    }
-                    sb.insert(charCount, insertText.getText());
-                }
-            } else if (action instanceof RealTimeText.EraseText) {
-                RealTimeText.EraseText eraseText = (RealTimeText.EraseText) action;
-                Integer n = eraseText.getNumberOfCharacters();
-                // If 'n' is omitted, the default value of 'n' MUST be “1”.
-                if (n == null) {
-                    n = 1;
+            waitInterval = null;
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        REAL_TIME_TEXT_EXECUTOR.execute(this::applyActions);
+    }
+
+    /**
+     * Applies the queued actions up to the next wait interval at once and notifies the listeners once per batch. After
+     * a wait interval, the remaining actions are applied by the shared scheduler.
+     */
+    private void applyActions() {
+        while (true) {
+            final String s;
+            synchronized (this) {
+                if (complete) {
+                    running = false;
+                    return;
                 }
-                if (n < 0) {
-                    n = 0;
+                boolean changed = false;
+                RealTimeText.Action action;
+                while ((action = actions.poll()) != null && !(action instanceof RealTimeText.WaitInterval)) {
+                    changed |= apply(action);
                 }
-                int i = 0;
-                int endIndex = 0;
-                int startIndex = 0;
-                int pos = normalizePosition(eraseText.getPosition());
-                // Iterate over the code points and sum up the char count, which is used by StringBuilder.delete()
-                // RTT counts with code points, while Java APIs counts with character indexes.
-                while (i < sb.codePointCount(0, sb.length()) && i < pos) {
-                    if (i++ < pos - n) {
-                        startIndex += Character.charCount(sb.codePointAt(startIndex));
+                s = changed ? text.toString() : null;
+                if (action != null) {
+                    final Long ms = ((RealTimeText.WaitInterval) action).getMilliSeconds();
+                    if (ms != null && ms > 0) {
+                        // Wait the amount of ms, until it's waken up by new incoming RTT actions.
+                        waitInterval = REAL_TIME_TEXT_SCHEDULER.schedule(this::resumeActions, ms,
+                                TimeUnit.MILLISECONDS);
                     }
-                    endIndex += Character.charCount(sb.codePointAt(endIndex));
                 }
-                // Protect against faulty <e/> elements.
-                if (startIndex <= endIndex && startIndex <= sb.length()) {
-                    sb.delete(startIndex, endIndex);
+            }
+            if (s != null) {
+                XmppUtils.notifyEventListeners(textChangeListeners, new RealTimeTextChangeEvent(this, s));
+            }
+            synchronized (this) {
+                // While waiting, the worker gives up the ownership. The end of the wait interval or new actions
+                // start a new one.
+                if (waitInterval != null || actions.isEmpty()) {
+                    running = false;
+                    return;
                 }
             }
-            s = sb.toString();
+        }
+    }
+
+    /**
+     * Applies an action to the current text.
+     *
+     * @param action The action.
+     */
+    void applyActionElement(RealTimeText.Action action) {
+        String s;
+        synchronized (this) {
+            apply(action);
+            s = text.toString();
         }
         XmppUtils.notifyEventListeners(textChangeListeners, new RealTimeTextChangeEvent(this, s));
     }
 
+    private boolean apply(RealTimeText.Action action) {
+        // RTT counts with code points, the buffer as well.
+        if (action instanceof RealTimeText.InsertText) {
+            RealTimeText.InsertText insertText = (RealTimeText.InsertText) action;
+            if (insertText.getText() != null && !insertText.getText().isEmpty()) {
+                text.insert(normalizePosition(insertText.getPosition()), insertText.getText());
+                return true;
+            }
+        } else if (action instanceof RealTimeText.EraseText) {
+            RealTimeText.EraseText eraseText = (RealTimeText.EraseText) action;
+            Integer n = eraseText.getNumberOfCharacters();
+            // If 'n' is omitted, the default value of 'n' MUST be “1”.
+            if (n == null) {
+                n = 1;
+            }
+            if (n > 0) {
+                text.erase(normalizePosition(eraseText.getPosition()), n);
+                return true;
+            }
+        }
+        return false;
+    }
+
     private int normalizePosition(Integer pos) {
         // If 'p' is omitted, the default value of 'p' MUST point to the end of the message (i.e., 'p' is set to the
         // current length of the real-time message).
+        final int length = text.length();
         if (pos == null) {
-            pos = sb.length();
+            return length;
         }
         // However, recipients receiving such values MUST clip negative values to “0”, and clip excessively high 'p'
         // values to the current length of the real-time message.
-        if (pos < 0) {
-            pos = 0;
-        }
-        if (pos > sb.length()) {
-            pos = sb.length();
-        }
-        return pos;
+        return Math.max(0, Math.min(pos, length));
     }
 
     /**
@@ -193,7 +223,7 @@ public final class InboundRealTimeMessage extends RealTimeMessage {
      */
     synchronized void reset(int sequence, String id) {
         this.sequence.set(sequence);
-        this.sb.setLength(0);
+        this.text.clear();
         this.id = id;
         this.actions.clear();
     }
@@ -204,15 +234,18 @@ public final class InboundRealTimeMessage extends RealTimeMessage {
     synchronized void complete() {
         if (!complete) {
             complete = true;
-            // Add a "poison" element to break the blocking queue immediately.
-            actions.offer(new RealTimeText.WaitInterval(Integer.MIN_VALUE));
+            actions.clear();
+            if (waitInterval != null) {
+                waitInterval.cancel(false);
+                waitInterval = null;
+            }
             textChangeListeners.clear();
         }
     }
 
     @Override
     public final synchronized String getText() {
-        return sb.toString();
+        return text.toString();
     }
 
     /**
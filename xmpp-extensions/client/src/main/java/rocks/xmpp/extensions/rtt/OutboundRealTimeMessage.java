@@ -25,12 +25,10 @@
 package rocks.xmpp.extensions.rtt;
 
 import java.text.Normalizer;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -39,7 +37,6 @@ import rocks.xmpp.core.session.SendTask;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.extensions.rtt.model.RealTimeText;
 import rocks.xmpp.im.chat.Chat;
-import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
 
 /**
  * An outbound real-time message.
@@ -48,12 +45,13 @@ import rocks.xmpp.util.concurrent.QueuedScheduledExecutorService;
  */
 public final class OutboundRealTimeMessage extends RealTimeMessage {
 
-    private final Collection<RealTimeText.Action> actions = new ArrayDeque<>();
+    /**
+     * The action elements of the current transmission interval. Guarded by "this".
+     */
+    private final List<RealTimeText.Action> actions = new ArrayList<>();
 
     private final Chat chat;
 
-    private final ScheduledExecutorService transmissionExecutor;
-
     /**
      * The message refresh SHOULD be transmitted at intervals during active typing or composing. The RECOMMENDED
      * interval is 10 seconds.
@@ -90,48 +88,6 @@ public final class OutboundRealTimeMessage extends RealTimeMessage {
         this.id = id;
         this.transmissionInterval = transmissionInterval;
         this.refreshInterval = refreshInterval;
-
-        // Set up two executors, which periodically send RTT messages and "refresh messages".
-        transmissionExecutor = new QueuedScheduledExecutorService(REAL_TIME_TEXT_EXECUTOR);
-
-        // This executor periodically sends RTT messages in the preferred transmission interval.
-        nextTransmission = transmissionExecutor.schedule(new Runnable() {
-            @Override
-            public void run() {
-                synchronized (OutboundRealTimeMessage.this) {
-                    if (!actions.isEmpty()) {
-                        // If these are the first actions being sent, schedule a refresh message.
-                        if (isNew) {
-                            OutboundRealTimeMessage.this.sequence.set(generateSequenceNumber());
-
-                            // This executor periodically sends "message refreshes" (4.7.3 Message Refresh)
-                            nextRefresh = transmissionExecutor.schedule(new Runnable() {
-                                @Override
-                                public void run() {
-                                    synchronized (OutboundRealTimeMessage.this) {
-                                        // To save bandwidth, message refreshes SHOULD NOT occur continuously while the
-                                        // sender is idle.
-                                        if (System.currentTimeMillis() - lastTextChange < refreshInterval) {
-                                            reset();
-                                        }
-                                        // Reschedule
-                                        nextRefresh = transmissionExecutor
-                                                .schedule(this, refreshInterval, TimeUnit.MILLISECONDS);
-                                    }
-                                }
-                            }, refreshInterval, TimeUnit.MILLISECONDS);
-                        }
-                        // 2. During every Transmission Interval, all buffered action elements are transmitted in <rtt/>
-                        // element in a <message/> stanza. This is equivalent to transmitting a small sequence of typing
-                        // at a time.
-                        sendRttMessage(isNew ? RealTimeText.Event.NEW : RealTimeText.Event.EDIT);
-                        isNew = false;
-                    }
-                    nextTransmission = transmissionExecutor.schedule(this, transmissionInterval, TimeUnit.MILLISECONDS);
-                    // 3. If there are no message changes occurring, no unnecessary transmission takes place.
-                }
-            }
-        }, transmissionInterval, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -231,6 +187,8 @@ public final class OutboundRealTimeMessage extends RealTimeMessage {
         }
         // 1. Monitor for text changes in the sender’s message. Whenever a text change event occurs, compute action
         //element(s) and append these action element(s) to a buffer.
+        // The wait intervals between the changes preserve the natural typing rhythm (4.5.2 Preserving Key Press
+        // Intervals).
         long now = System.currentTimeMillis();
         if (!actions.isEmpty() && now != lastTextChange) {
             actions.add(new RealTimeText.WaitInterval(now - lastTextChange));
@@ -244,6 +202,44 @@ public final class OutboundRealTimeMessage extends RealTimeMessage {
         text = Normalizer.normalize(text, Normalizer.Form.NFC).replace("\r\n", "\n");
         actions.addAll(computeActionElements(this.text, text));
         this.text = text;
+        // 3. If there are no message changes occurring, no unnecessary transmission takes place.
+        if (nextTransmission == null) {
+            nextTransmission = REAL_TIME_TEXT_SCHEDULER.schedule(this::transmit, transmissionInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Transmits the changes of the current transmission interval.
+     */
+    private synchronized void transmit() {
+        nextTransmission = null;
+        if (complete) {
+            return;
+        }
+        if (actions.isEmpty()) {
+            return;
+        }
+        // If these are the first actions being sent, schedule a refresh message.
+        if (isNew) {
+            sequence.set(generateSequenceNumber());
+            // Periodically send "message refreshes" (4.7.3 Message Refresh)
+            nextRefresh = REAL_TIME_TEXT_SCHEDULER.scheduleWithFixedDelay(this::refresh, refreshInterval,
+                    refreshInterval, TimeUnit.MILLISECONDS);
+        }
+        // 2. During every Transmission Interval, all buffered action elements are transmitted in <rtt/>
+        // element in a <message/> stanza. This is equivalent to transmitting a small sequence of typing
+        // at a time.
+        sendRttMessage(isNew ? RealTimeText.Event.NEW : RealTimeText.Event.EDIT, new ArrayList<>(actions));
+        isNew = false;
+        actions.clear();
+    }
+
+    private synchronized void refresh() {
+        // To save bandwidth, message refreshes SHOULD NOT occur continuously while the sender is idle.
+        if (!complete && System.currentTimeMillis() - lastTextChange < refreshInterval) {
+            reset();
+        }
     }
 
     /**
@@ -272,13 +268,12 @@ public final class OutboundRealTimeMessage extends RealTimeMessage {
         // message versus continuing to compose a new message.
         this.id = id;
         this.text = text;
-        // Generate a new sequence number for every message refresh.
-        this.sequence.set(generateSequenceNumber());
         // Drop every outgoing actions, which are scheduled for the next transmission interval, because we reset the
         // whole text.
         actions.clear();
-        actions.add(new RealTimeText.InsertText(text));
-        sendRttMessage(RealTimeText.Event.RESET);
+        // Generate a new sequence number for every message refresh.
+        this.sequence.set(generateSequenceNumber());
+        sendRttMessage(RealTimeText.Event.RESET, Collections.singletonList(new RealTimeText.InsertText(text)));
     }
 
     @Override
@@ -305,21 +300,20 @@ public final class OutboundRealTimeMessage extends RealTimeMessage {
                 nextTransmission.cancel(false);
             }
         }
-        transmissionExecutor.shutdown();
         return message;
     }
 
     /**
      * Sends the RTT message.
      *
-     * @param event The event type.
+     * @param event   The event type.
+     * @param actions The action elements.
      */
-    private void sendRttMessage(RealTimeText.Event event) {
+    private void sendRttMessage(RealTimeText.Event event, Collection<RealTimeText.Action> actions) {
         Message message = new Message();
         RealTimeText realTimeText = new RealTimeText(event, actions, this.sequence.getAndIncrement(), id);
         message.addExtension(realTimeText);
         chat.sendMessage(message);
-        actions.clear();
     }
 
     /**
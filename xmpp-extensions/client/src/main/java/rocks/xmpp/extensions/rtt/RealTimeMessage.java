@@ -26,6 +26,8 @@ package rocks.xmpp.extensions.rtt;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import rocks.xmpp.util.XmppUtils;
@@ -41,6 +43,19 @@ abstract class RealTimeMessage {
     static final ExecutorService REAL_TIME_TEXT_EXECUTOR =
             Executors.newCachedThreadPool(XmppUtils.createNamedThreadFactory("Real-time Text Processing Thread"));
 
+    /**
+     * Schedules the transmissions and wait intervals of all real-time messages, instead of a scheduler per message.
+     */
+    static final ScheduledExecutorService REAL_TIME_TEXT_SCHEDULER;
+
+    static {
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, XmppUtils.createNamedThreadFactory("Real-time Text Scheduler"));
+        // Wait intervals are frequently cancelled by new actions.
+        scheduler.setRemoveOnCancelPolicy(true);
+        REAL_TIME_TEXT_SCHEDULER = scheduler;
+    }
+
     volatile boolean complete;
 
     final AtomicInteger sequence = new AtomicInteger();
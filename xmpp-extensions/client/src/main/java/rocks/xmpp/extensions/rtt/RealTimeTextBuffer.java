@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.rtt;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A rope, which holds the text of a real-time message and which is indexed by code points, as required by real-time
+ * text.
+ *
+ * <p>The text is split into chunks, which are kept in a randomized balanced tree (a treap), ordered by their position.
+ * Every node knows the number of code points in its subtree, so that inserting or erasing text at a position takes
+ * O(log n), instead of walking the code points from the start of the text.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0301.html#attribute_values">4.4.3 Attribute Values</a>
+ */
+final class RealTimeTextBuffer {
+
+    /**
+     * The maximal length of a chunk. Small insertions (i.e. typing) are spliced into an existing chunk, as long as it
+     * doesn't exceed this length.
+     */
+    private static final int MAX_CHUNK_LENGTH = 256;
+
+    private Node root;
+
+    /**
+     * Gets the length of the text in code points.
+     *
+     * @return The number of code points.
+     */
+    int length() {
+        return codePoints(root);
+    }
+
+    /**
+     * Inserts text at a code point position.
+     *
+     * @param position The code point position. It is clipped to the length of the text.
+     * @param text     The text.
+     */
+    void insert(final int position, final CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return;
+        }
+        final String s = text.toString();
+        final int pos = clip(position);
+        if (s.length() <= MAX_CHUNK_LENGTH && splice(root, pos, s, s.codePointCount(0, s.length()))) {
+            return;
+        }
+        final Node[] split = split(root, pos);
+        Node inserted = null;
+        int begin = 0;
+        while (begin < s.length()) {
+            int end = Math.min(begin + MAX_CHUNK_LENGTH, s.length());
+            // Don't split a surrogate pair.
+            if (end < s.length() && Character.isHighSurrogate(s.charAt(end - 1))) {
+                end--;
+            }
+            inserted = merge(inserted, new Node(s.substring(begin, end)));
+            begin = end;
+        }
+        root = merge(merge(split[0], inserted), split[1]);
+    }
+
+    /**
+     * Erases code points backwards from a position, like the {@code <e/>} action element does.
+     *
+     * @param position The code point position, after the last code point to erase. It is clipped to the length of the
+     *                 text.
+     * @param n        The number of code points to erase.
+     */
+    void erase(final int position, final int n) {
+        final int end = clip(position);
+        final int begin = Math.max(0, end - Math.max(0, n));
+        if (begin == end) {
+            return;
+        }
+        final Node[] right = split(root, end);
+        final Node[] left = split(right[0], begin);
+        root = merge(left[0], right[1]);
+    }
+
+    /**
+     * Removes the whole text.
+     */
+    void clear() {
+        root = null;
+    }
+
+    @Override
+    public final String toString() {
+        final StringBuilder sb = new StringBuilder(root != null ? root.chars : 0);
+        append(root, sb);
+        return sb.toString();
+    }
+
+    private int clip(final int position) {
+        return Math.max(0, Math.min(position, length()));
+    }
+
+    private static void append(final Node node, final StringBuilder sb) {
+        if (node != null) {
+            append(node.left, sb);
+            sb.append(node.chunk);
+            append(node.right, sb);
+        }
+    }
+
+    private static int codePoints(final Node node) {
+        return node != null ? node.codePoints : 0;
+    }
+
+    private static int chars(final Node node) {
+        return node != null ? node.chars : 0;
+    }
+
+    /**
+     * Tries to insert the text into the chunk at the position, without changing the tree.
+     *
+     * @return True, if the text has been inserted.
+     */
+    private static boolean splice(final Node node, final int position, final String text,
+                                  final int textCodePoints) {
+        if (node == null) {
+            return false;
+        }
+        final int leftCodePoints = codePoints(node.left);
+        final int chunkCodePoints = node.codePoints - leftCodePoints - codePoints(node.right);
+        final boolean spliced;
+        if (position < leftCodePoints) {
+            spliced = splice(node.left, position, text, textCodePoints);
+        } else if (position <= leftCodePoints + chunkCodePoints) {
+            if (node.chunk.length() + text.length() > MAX_CHUNK_LENGTH) {
+                return false;
+            }
+            final int offset = node.chunk.offsetByCodePoints(0, position - leftCodePoints);
+            node.chunk = node.chunk.substring(0, offset) + text + node.chunk.substring(offset);
+            spliced = true;
+        } else {
+            spliced = splice(node.right, position - leftCodePoints - chunkCodePoints, text, textCodePoints);
+        }
+        if (spliced) {
+            node.codePoints += textCodePoints;
+            node.chars += text.length();
+        }
+        return spliced;
+    }
+
+    /**
+     * Splits a tree at a code point position. A chunk, which contains the position, is split into two chunks.
+     *
+     * @return The tree before the position and the tree after the position.
+     */
+    private static Node[] split(final Node node, final int position) {
+        if (node == null) {
+            return new Node[2];
+        }
+        final int leftCodePoints = codePoints(node.left);
+        final int chunkCodePoints = node.codePoints - leftCodePoints - codePoints(node.right);
+        if (position <= leftCodePoints) {
+            final Node[] split = split(node.left, position);
+            node.left = split[1];
+            node.update();
+            split[1] = node;
+            return split;
+        }
+        if (position >= leftCodePoints + chunkCodePoints) {
+            final Node[] split = split(node.right, position - leftCodePoints - chunkCodePoints);
+            node.right = split[0];
+            node.update();
+            split[0] = node;
+            return split;
+        }
+        final int offset = node.chunk.offsetByCodePoints(0, position - leftCodePoints);
+        final Node tail = new Node(node.chunk.substring(offset));
+        final Node right = node.right;
+        node.chunk = node.chunk.substring(0, offset);
+        node.right = null;
+        node.update();
+        return new Node[]{node, merge(tail, right)};
+    }
+
+    /**
+     * Merges two trees, where all positions of the first tree are before the positions of the second tree.
+     */
+    private static Node merge(final Node left, final Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static final class Node {
+
+        private final int priority = ThreadLocalRandom.current().nextInt();
+
+        private String chunk;
+
+        private Node left;
+
+        private Node right;
+
+        /**
+         * The number of code points in this subtree.
+         */
+        private int codePoints;
+
+        /**
+         * The number of chars in this subtree.
+         */
+        private int chars;
+
+        private Node(final String chunk) {
+            this.chunk = chunk;
+            update();
+        }
+
+        private void update() {
+            codePoints = codePoints(left) + chunk.codePointCount(0, chunk.length()) + codePoints(right);
+            chars = chars(left) + chunk.length() + chars(right);
+        }
+    }
+}
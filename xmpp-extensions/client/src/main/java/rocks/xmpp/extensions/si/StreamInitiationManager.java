@@ -211,9 +211,9 @@ public final class StreamInitiationManager extends AbstractIQHandler
                 CompletionStages.withFallback(eitherS5bOrIbb, (f, t) -> completableFutureIbb);
 
         // And then wait until the peer opens the stream.
-        return new AsyncResult<>(withFallbackStage.applyToEither(CompletionStages
-                        .timeoutAfter(xmppSession.getConfiguration().getDefaultResponseTimeout().toMillis() * 5,
-                                TimeUnit.MILLISECONDS), byteStreamSession -> {
+        return new AsyncResult<>(CompletionStages.orTimeout(withFallbackStage,
+                xmppSession.getConfiguration().getDefaultResponseTimeout().toMillis() * 5, TimeUnit.MILLISECONDS)
+                .thenApply(byteStreamSession -> {
                     try {
                         return new FileTransfer(byteStreamSession.getSessionId(), byteStreamSession.getInputStream(),
                                 outputStream, fileTransferOffer.getSize());
@@ -50,7 +50,7 @@ import rocks.xmpp.extensions.vcard.temp.VCardManager;
 import rocks.xmpp.extensions.vcard.temp.model.VCard;
 import rocks.xmpp.im.subscription.PresenceManager;
 import rocks.xmpp.util.XmppUtils;
-import rocks.xmpp.util.cache.DirectoryCache;
+import rocks.xmpp.util.cache.PersistentCache;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -63,6 +63,9 @@ public final class VCardBasedAvatarsProtocol extends AbstractAvatarManager
 
     private static final System.Logger logger = System.getLogger(VCardBasedAvatarsProtocol.class.getName());
 
+    // User hashes are tiny, store them in a pack file instead of one file per user.
+    private static final int USER_HASH_PACK_THRESHOLD = 1024;
+
     final Set<String> nonConformingResources = Collections.synchronizedSet(new HashSet<>());
 
     /**
@@ -79,8 +82,9 @@ public final class VCardBasedAvatarsProtocol extends AbstractAvatarManager
     VCardBasedAvatarsProtocol(XmppSession xmppSession) {
         this(xmppSession,
                 xmppSession.getManager(VCardManager.class),
-                xmppSession.getConfiguration().getCacheDirectory() != null ? new DirectoryCache(
-                        xmppSession.getConfiguration().getCacheDirectory().resolve("userhashes"))
+                xmppSession.getConfiguration().getCacheDirectory() != null ? PersistentCache.open(
+                        xmppSession.getConfiguration().getCacheDirectory().resolve("userhashes"),
+                        xmppSession.getConfiguration().getCacheSize(), USER_HASH_PACK_THRESHOLD)
                         : Collections.synchronizedMap(new HashMap<>()));
     }
 
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.session;
+
+import java.util.Locale;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the {@link XmppSessionConfiguration} class with all client extensions on the class path.
+ *
+ * @author Christian Schudt
+ */
+public class XmppSessionConfigurationTest {
+
+    private static final System.Logger logger = System.getLogger(XmppSessionConfigurationTest.class.getName());
+
+    @Test
+    public void testContextIsShared() {
+        XmppSessionConfiguration configuration1 = XmppSessionConfiguration.builder()
+                .extensions(Extension.of(Shared.class))
+                .build();
+        XmppSessionConfiguration configuration2 = XmppSessionConfiguration.builder()
+                .extensions(Extension.of(Shared.class))
+                .build();
+        Assert.assertSame(configuration1.getJAXBContext(), configuration2.getJAXBContext());
+        Assert.assertNotSame(configuration1.getJAXBContext(), XmppSessionConfiguration.builder().build()
+                .getJAXBContext());
+    }
+
+    /**
+     * Measures the startup of a configuration with all client extensions, i.e. the time until the builder returns and
+     * the time until the first marshaller is available, for the first and for a second configuration with the same
+     * extensions.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkStartup() {
+        long start = System.nanoTime();
+        XmppSessionConfiguration configuration = XmppSessionConfiguration.builder()
+                .extensions(Extension.of(Startup.class))
+                .build();
+        long built = System.nanoTime();
+        configuration.getMarshallerPool().getMarshaller();
+        long ready = System.nanoTime();
+
+        XmppSessionConfiguration.builder()
+                .extensions(Extension.of(Startup.class))
+                .build()
+                .getMarshallerPool().getMarshaller();
+        long second = System.nanoTime();
+
+        logger.log(System.Logger.Level.INFO, String.format(Locale.ROOT,
+                "Configuration built after %d ms, marshaller ready after %d ms. Second configuration ready after %d ms.",
+                (built - start) / 1_000_000, (ready - start) / 1_000_000, (second - ready) / 1_000_000));
+        Assert.assertTrue(second - ready < ready - start);
+    }
+
+    @XmlRootElement(name = "shared", namespace = "urn:test:shared")
+    private static final class Shared {
+    }
+
+    @XmlRootElement(name = "startup", namespace = "urn:test:startup")
+    private static final class Startup {
+    }
+}
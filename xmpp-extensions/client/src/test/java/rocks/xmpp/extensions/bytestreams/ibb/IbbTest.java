@@ -26,10 +26,15 @@ package rocks.xmpp.extensions.bytestreams.ibb;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.Duration;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -40,6 +45,7 @@ import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.stanza.model.StanzaErrorException;
 import rocks.xmpp.core.stanza.model.errors.Condition;
 import rocks.xmpp.extensions.bytestreams.ByteStreamEvent;
+import rocks.xmpp.extensions.bytestreams.ByteStreamSession;
 import rocks.xmpp.extensions.bytestreams.ibb.model.InBandByteStream;
 import rocks.xmpp.extensions.disco.ServiceDiscoveryManager;
 import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
@@ -136,4 +142,59 @@ public class IbbTest extends BaseTest {
         Assert.assertEquals(array1.length, 4096000);
         Assert.assertEquals(array1, outputStream2.toByteArray());
     }
+
+    @Test
+    public void testWindowedTransfer() throws InterruptedException, ExecutionException, TimeoutException,
+            IOException {
+        MockServer mockServer = new MockServer();
+        final XmppSession xmppSession1 = new TestXmppSession(ROMEO, mockServer);
+        final XmppSession xmppSession2 = new TestXmppSession(JULIET, mockServer);
+
+        final CompletableFuture<byte[]> received = new CompletableFuture<>();
+        xmppSession2.getManager(InBandByteStreamManager.class).addByteStreamListener(e -> e.accept()
+                .thenAccept(session -> new Thread(() -> {
+                    try (InputStream inputStream = session.getInputStream()) {
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[1024];
+                        int len;
+                        while ((len = inputStream.read(buffer)) > -1) {
+                            outputStream.write(buffer, 0, len);
+                        }
+                        received.complete(outputStream.toByteArray());
+                    } catch (IOException e1) {
+                        received.completeExceptionally(e1);
+                    }
+                }).start()));
+
+        InBandByteStreamManager inBandByteStreamManager1 = xmppSession1.getManager(InBandByteStreamManager.class);
+        Assert.assertEquals(inBandByteStreamManager1.getWindowSize(), 1);
+        inBandByteStreamManager1.setWindowSize(4);
+
+        byte[] bytes = new byte[100000];
+        new Random().nextBytes(bytes);
+
+        ByteStreamSession session = inBandByteStreamManager1.initiateSession(JULIET, UUID.randomUUID().toString(),
+                4096).get(5, TimeUnit.SECONDS);
+        try (OutputStream outputStream = session.getOutputStream()) {
+            outputStream.write(bytes, 0, 50000);
+            for (int i = 50000; i < bytes.length; i++) {
+                outputStream.write(bytes[i]);
+            }
+        }
+        Assert.assertEquals(received.get(5, TimeUnit.SECONDS), bytes);
+
+        IbbStatistics statistics = inBandByteStreamManager1.getStatistics(session);
+        Assert.assertEquals(statistics.getBytesAcknowledged(), bytes.length);
+        Assert.assertEquals(statistics.getBlocksSent(), 25);
+        Assert.assertEquals(statistics.getBlocksAcknowledged(), 25);
+        Assert.assertEquals(statistics.getBlocksInFlight(), 0);
+        Assert.assertTrue(statistics.getMaxBlocksInFlight() <= 4);
+        Assert.assertEquals(statistics.getWindowSize(), 4);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidWindowSize() {
+        XmppSession xmppSession = new TestXmppSession(ROMEO, new MockServer());
+        xmppSession.getManager(InBandByteStreamManager.class).setWindowSize(0);
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.bytestreams.s5b;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the {@link LocalSocks5Server}.
+ *
+ * @author Christian Schudt
+ */
+public class LocalSocks5ServerTest {
+
+    private LocalSocks5Server server;
+
+    @BeforeMethod
+    public void startServer() {
+        server = new LocalSocks5Server();
+        server.setPort(0);
+        server.start();
+        Assert.assertNotEquals(server.getPort(), 0);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testDirectConnections() throws IOException, InterruptedException {
+        List<Socket> clients = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            server.allowedAddresses.add("address" + i);
+            clients.add(connect("address" + i));
+        }
+        for (int i = 0; i < clients.size(); i++) {
+            Socket socket = awaitSocket("address" + i);
+            Assert.assertNotNull(socket);
+            try (Socket client = clients.get(i)) {
+                client.getOutputStream().write(i);
+                client.getOutputStream().flush();
+                Assert.assertEquals(socket.getInputStream().read(), i);
+                socket.getOutputStream().write(i + 1);
+                socket.getOutputStream().flush();
+                Assert.assertEquals(client.getInputStream().read(), i + 1);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testConnectionRefused() throws IOException {
+        try (Socket ignored = connect("unknown")) {
+            Assert.fail();
+        }
+    }
+
+    @Test
+    public void testRelay() throws IOException, InterruptedException {
+        server.setRelayEnabled(true);
+        try (Socket target = connect("hash"); Socket requester = connect("hash")) {
+            Assert.assertFalse(server.activate("unknown"));
+            Assert.assertTrue(server.activate("hash"));
+            Assert.assertFalse(server.activate("hash"));
+
+            byte[] data = new byte[1000000];
+            new Random().nextBytes(data);
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream outputStream = requester.getOutputStream();
+                    outputStream.write(data);
+                    outputStream.flush();
+                    requester.shutdownOutput();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            writer.start();
+
+            byte[] received = new byte[data.length];
+            DataInputStream inputStream = new DataInputStream(target.getInputStream());
+            inputStream.readFully(received);
+            Assert.assertEquals(received, data);
+            Assert.assertEquals(inputStream.read(), -1);
+            writer.join();
+
+            // And the other direction.
+            target.getOutputStream().write(42);
+            target.shutdownOutput();
+            InputStream requesterInputStream = requester.getInputStream();
+            Assert.assertEquals(requesterInputStream.read(), 42);
+            Assert.assertEquals(requesterInputStream.read(), -1);
+        }
+    }
+
+    @Test
+    public void testRelayActivationTimeout() throws IOException {
+        server.setRelayEnabled(true);
+        server.setActivationTimeout(Duration.ofMillis(100));
+        try (Socket target = connect("hash")) {
+            // The connection is closed, because it is not activated in time.
+            Assert.assertEquals(target.getInputStream().read(), -1);
+            try (Socket requester = connect("hash")) {
+                Assert.assertFalse(server.activate("hash"));
+            }
+        }
+    }
+
+    private Socket connect(String destinationAddress) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("localhost", server.getPort()));
+            socket.setSoTimeout(5000);
+            Socks5Protocol.establishClientConnection(socket, destinationAddress, 0);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Socket awaitSocket(String destinationAddress) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            Socket socket = server.getSocket(destinationAddress);
+            if (socket != null) {
+                return socket;
+            }
+            Thread.sleep(100);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.mam;
+
+import java.lang.reflect.Constructor;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.StanzaErrorException;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.forward.model.Forwarded;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+import rocks.xmpp.util.concurrent.AsyncResult;
+
+/**
+ * Tests for {@link MessageArchiveManager}.
+ */
+public class MessageArchiveManagerTest {
+
+    private static final int ARCHIVE_SIZE = 7;
+
+    private final List<IQ> queries = new ArrayList<>();
+
+    private final List<Consumer<MessageEvent>> messageListeners = new ArrayList<>();
+
+    private MessageArchiveManager messageArchiveManager;
+
+    @SuppressWarnings("unchecked")
+    @BeforeMethod
+    public void setUp() throws ReflectiveOperationException {
+        queries.clear();
+        messageListeners.clear();
+        XmppSession xmppSession = Mockito.mock(XmppSession.class);
+        Mockito.doAnswer(invocation -> messageListeners.add(invocation.getArgument(0)))
+                .when(xmppSession).addInboundMessageListener(Mockito.any(Consumer.class));
+        Mockito.doAnswer(invocation -> messageListeners.remove(invocation.getArgument(0)))
+                .when(xmppSession).removeInboundMessageListener(Mockito.any(Consumer.class));
+        Mockito.doAnswer(invocation -> new AsyncResult<>(CompletableFuture.completedFuture(
+                answer(invocation.getArgument(0))))).when(xmppSession).query(Mockito.any(IQ.class));
+        Constructor<MessageArchiveManager> constructor =
+                MessageArchiveManager.class.getDeclaredConstructor(XmppSession.class);
+        constructor.setAccessible(true);
+        messageArchiveManager = constructor.newInstance(xmppSession);
+    }
+
+    /**
+     * Simulates an archive with the ids 0..6, which sends the results and returns the fin element.
+     */
+    private IQ answer(IQ iq) {
+        queries.add(iq);
+        MessageArchive.Query query = iq.getExtension(MessageArchive.Query.class);
+        ResultSetManagement rsm = query.getResultSetManagement();
+        int from;
+        int to;
+        if (rsm.getBefore() != null) {
+            to = rsm.getBefore().isEmpty() ? ARCHIVE_SIZE : Integer.parseInt(rsm.getBefore());
+            from = Math.max(0, to - rsm.getMaxSize());
+        } else {
+            from = rsm.getAfter() != null ? Integer.parseInt(rsm.getAfter()) + 1 : 0;
+            to = Math.min(ARCHIVE_SIZE, from + rsm.getMaxSize());
+        }
+        for (int i = from; i < to; i++) {
+            Message message = new Message();
+            message.addExtension(new MessageArchive.Result(query.getQueryId(), Integer.toString(i),
+                    new Forwarded(ClientMessage.from(new Message(Jid.of("juliet@capulet.lit"), Message.Type.CHAT,
+                            "Message " + i)))));
+            MessageEvent messageEvent = new MessageEvent(this, message, true);
+            new ArrayList<>(messageListeners).forEach(listener -> listener.accept(messageEvent));
+        }
+        boolean complete = rsm.getBefore() != null ? from == 0 : to == ARCHIVE_SIZE;
+        return iq.createResult(new MessageArchive.Fin(complete, ResultSetManagement.forResponse(ARCHIVE_SIZE, from,
+                Integer.toString(from), Integer.toString(to - 1))));
+    }
+
+    private static List<String> ids(List<MessageArchive.Result> page) {
+        return page.stream().map(MessageArchive.Result::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testQueryPagesOnDemand() {
+        PageSubscriber subscriber = new PageSubscriber();
+        messageArchiveManager.query(Jid.of("juliet@capulet.lit"), Instant.EPOCH, null, 3).subscribe(subscriber);
+        Assert.assertTrue(queries.isEmpty());
+
+        subscriber.subscription.request(1);
+        Assert.assertEquals(queries.size(), 1);
+        Assert.assertEquals(subscriber.pages.size(), 1);
+        Assert.assertEquals(ids(subscriber.pages.get(0)), Arrays.asList("0", "1", "2"));
+        MessageArchive.Query query = queries.get(0).getExtension(MessageArchive.Query.class);
+        Assert.assertEquals(query.getWith(), Jid.of("juliet@capulet.lit"));
+        Assert.assertEquals(query.getStart(), Instant.EPOCH);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(queries.size(), 3);
+        Assert.assertEquals(ids(subscriber.pages.get(1)), Arrays.asList("3", "4", "5"));
+        Assert.assertEquals(ids(subscriber.pages.get(2)), Arrays.asList("6"));
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertTrue(messageListeners.isEmpty());
+    }
+
+    @Test
+    public void testQueryLatest() {
+        PageSubscriber subscriber = new PageSubscriber();
+        messageArchiveManager.queryLatest(null, 5).subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        Assert.assertEquals(ids(subscriber.pages.get(0)), Arrays.asList("2", "3", "4", "5", "6"));
+        Assert.assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(1);
+        Assert.assertEquals(ids(subscriber.pages.get(1)), Arrays.asList("0", "1"));
+        Assert.assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testCancel() {
+        PageSubscriber subscriber = new PageSubscriber();
+        messageArchiveManager.queryLatest(null, 5).subscribe(subscriber);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+        Assert.assertTrue(queries.isEmpty());
+        Assert.assertTrue(subscriber.pages.isEmpty());
+    }
+
+    @Test
+    public void testError() throws ReflectiveOperationException {
+        XmppSession xmppSession = Mockito.mock(XmppSession.class);
+        IQ error = IQ.set(new MessageArchive.Query(null, null, null, null, null)).createError(Condition.ITEM_NOT_FOUND);
+        CompletableFuture<IQ> future = new CompletableFuture<>();
+        future.completeExceptionally(new StanzaErrorException(error));
+        Mockito.doReturn(new AsyncResult<>(future)).when(xmppSession).query(Mockito.any(IQ.class));
+        Constructor<MessageArchiveManager> constructor =
+                MessageArchiveManager.class.getDeclaredConstructor(XmppSession.class);
+        constructor.setAccessible(true);
+
+        PageSubscriber subscriber = new PageSubscriber();
+        constructor.newInstance(xmppSession).queryLatest(null, 5).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.error instanceof StanzaErrorException);
+
+        subscriber = new PageSubscriber();
+        messageArchiveManager.queryLatest(null, 5).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    private static final class PageSubscriber implements Flow.Subscriber<List<MessageArchive.Result>> {
+
+        private final List<List<MessageArchive.Result>> pages = new ArrayList<>();
+
+        private Flow.Subscription subscription;
+
+        private boolean completed;
+
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<MessageArchive.Result> page) {
+            pages.add(page);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
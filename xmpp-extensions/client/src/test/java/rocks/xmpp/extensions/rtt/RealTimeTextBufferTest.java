@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.rtt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.extensions.rtt.model.RealTimeText;
+
+/**
+ * @author Christian Schudt
+ */
+public class RealTimeTextBufferTest {
+
+    private static final int[] CODE_POINTS = {'a', 'b', ' ', '\n', 0xE4, 0x1F600, 0x10FFFC};
+
+    @Test
+    public void testInsertAndErase() {
+        RealTimeTextBuffer buffer = new RealTimeTextBuffer();
+        buffer.insert(0, "Hello Alice!");
+        buffer.insert(5, " Bob,");
+        Assert.assertEquals(buffer.toString(), "Hello Bob, Alice!");
+        buffer.erase(10, 5);
+        Assert.assertEquals(buffer.toString(), "Hello Alice!");
+        buffer.erase(100, 1);
+        Assert.assertEquals(buffer.toString(), "Hello Alice");
+        buffer.insert(-1, ">");
+        Assert.assertEquals(buffer.toString(), ">Hello Alice");
+        Assert.assertEquals(buffer.length(), 12);
+        buffer.clear();
+        Assert.assertEquals(buffer.toString(), "");
+    }
+
+    @Test
+    public void testCodePoints() {
+        RealTimeTextBuffer buffer = new RealTimeTextBuffer();
+        buffer.insert(0, "a\uDBFF\uDFFCb\uDBFF\uDFFCc");
+        Assert.assertEquals(buffer.length(), 5);
+        buffer.insert(2, "x");
+        Assert.assertEquals(buffer.toString(), "a\uDBFF\uDFFCxb\uDBFF\uDFFCc");
+        buffer.erase(5, 2);
+        Assert.assertEquals(buffer.toString(), "a\uDBFF\uDFFCxc");
+    }
+
+    @Test
+    public void testLargeInsert() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.appendCodePoint(CODE_POINTS[i % CODE_POINTS.length]);
+        }
+        RealTimeTextBuffer buffer = new RealTimeTextBuffer();
+        buffer.insert(0, sb);
+        buffer.insert(500, sb);
+        String expected = sb.substring(0, sb.offsetByCodePoints(0, 500)) + sb
+                + sb.substring(sb.offsetByCodePoints(0, 500));
+        Assert.assertEquals(buffer.toString(), expected);
+        Assert.assertEquals(buffer.length(), 2000);
+    }
+
+    @Test
+    public void testInboundMessage() {
+        InboundRealTimeMessage message = new InboundRealTimeMessage(null, null, 0, null);
+        message.applyActionElement(new RealTimeText.InsertText("Hello"));
+        message.applyActionElement(new RealTimeText.InsertText("\uDBFF\uDFFC", 2));
+        message.applyActionElement(new RealTimeText.EraseText(null, 3));
+        message.applyActionElement(new RealTimeText.InsertText(" Bob", 100));
+        Assert.assertEquals(message.getText(), "Hello Bob");
+    }
+
+    /**
+     * Replays a long real-time text session with random edits and compares the result with a naive model.
+     */
+    @Test
+    public void testLongSession() {
+        Random random = new Random(301);
+        RealTimeTextBuffer buffer = new RealTimeTextBuffer();
+        List<Integer> model = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int position = random.nextInt(model.size() + 1);
+            if (random.nextInt(4) == 0) {
+                int n = random.nextInt(5);
+                buffer.erase(position, n);
+                model.subList(Math.max(0, position - n), position).clear();
+            } else {
+                // Mostly type at the end, like a user does.
+                boolean atEnd = random.nextBoolean();
+                int insertPosition = atEnd ? model.size() : position;
+                StringBuilder text = new StringBuilder();
+                int length = random.nextInt(50) == 0 ? random.nextInt(200) : 1;
+                for (int j = 0; j < length; j++) {
+                    int codePoint = CODE_POINTS[random.nextInt(CODE_POINTS.length)];
+                    text.appendCodePoint(codePoint);
+                    model.add(insertPosition + j, codePoint);
+                }
+                buffer.insert(insertPosition, text);
+            }
+            if (i % 1000 == 0) {
+                Assert.assertEquals(buffer.toString(), toString(model));
+            }
+        }
+        Assert.assertEquals(buffer.toString(), toString(model));
+    }
+
+    private static String toString(List<Integer> codePoints) {
+        StringBuilder sb = new StringBuilder();
+        codePoints.forEach(sb::appendCodePoint);
+        return sb.toString();
+    }
+}
@@ -65,6 +65,7 @@ import rocks.xmpp.extensions.jingle.transports.s5b.model.S5bTransportMethod;
 import rocks.xmpp.extensions.json.model.Json;
 import rocks.xmpp.extensions.langtrans.model.LanguageTranslation;
 import rocks.xmpp.extensions.last.model.LastActivity;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
 import rocks.xmpp.extensions.messagecorrect.model.Replace;
 import rocks.xmpp.extensions.mood.model.Mood;
 import rocks.xmpp.extensions.muc.conference.model.DirectInvitation;
@@ -291,6 +292,9 @@ public final class ExtensionsContext implements XmppContext {
                 // XEP-0308: Last Message Correction
                 Replace.class,
 
+                // XEP-0313: Message Archive Management
+                MessageArchive.class,
+
                 // XEP-0319: Last User Interaction in Presence
                 Idle.class,
 
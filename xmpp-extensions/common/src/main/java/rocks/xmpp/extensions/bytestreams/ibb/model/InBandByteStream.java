@@ -24,6 +24,7 @@
 
 package rocks.xmpp.extensions.bytestreams.ibb.model;
 
+import java.util.Arrays;
 import java.util.Objects;
 import jakarta.xml.bind.annotation.XmlAttribute;
 import jakarta.xml.bind.annotation.XmlEnumValue;
@@ -191,6 +192,25 @@ public abstract class InBandByteStream {
             this.seq = seq;
         }
 
+        /**
+         * Creates the {@code <data/>} element from a region of a byte array.
+         *
+         * <p>Only the given region is copied, which allows senders to reuse their write buffer without copying it
+         * first.</p>
+         *
+         * @param bytes  The bytes.
+         * @param offset The start offset in the byte array.
+         * @param length The number of bytes.
+         * @param sid    The session id.
+         * @param seq    The sequence number.
+         */
+        public Data(byte[] bytes, int offset, int length, String sid, int seq) {
+            super(sid);
+            Objects.checkFromIndexSize(offset, length, Objects.requireNonNull(bytes).length);
+            this.bytes = Arrays.copyOfRange(bytes, offset, offset + length);
+            this.seq = seq;
+        }
+
         /**
          * Gets the sequence number.
          *
@@ -159,6 +159,15 @@ public final class Socks5ByteStream {
         return streamHostUsed != null ? streamHostUsed.jid : null;
     }
 
+    /**
+     * Gets the JID of the target, for which the bytestream should be activated by the proxy.
+     *
+     * @return The JID of the target or null, if this element is not an activation request.
+     */
+    public final Jid getActivate() {
+        return activate;
+    }
+
     /**
      * Gets the DST.ADDR, i.e. the hash of the SID + requester JID + target JID.
      *
@@ -47,6 +47,7 @@ import jakarta.xml.bind.annotation.XmlTransient;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.stanza.model.StanzaError;
 import rocks.xmpp.core.stanza.model.server.ServerStanzaError;
+import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.extensions.dialback.model.feature.DialbackFeature;
 
 /**
@@ -62,7 +63,7 @@ import rocks.xmpp.extensions.dialback.model.feature.DialbackFeature;
  */
 @XmlTransient
 @XmlSeeAlso({Dialback.Result.class, Dialback.Verify.class, DialbackFeature.class})
-public abstract class Dialback {
+public abstract class Dialback implements StreamElement {
 
     /**
      * jabber:server:dialback
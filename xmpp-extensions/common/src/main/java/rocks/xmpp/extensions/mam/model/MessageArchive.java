@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElementRef;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlSeeAlso;
+import jakarta.xml.bind.annotation.XmlTransient;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.data.model.DataForm;
+import rocks.xmpp.extensions.forward.model.Forwarded;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * A non-instantiable container class for holding the Message Archive Management elements.
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+ * @see <a href="https://xmpp.org/extensions/xep-0313.html#schema">XML Schema</a>
+ */
+@XmlTransient
+@XmlSeeAlso({MessageArchive.Query.class, MessageArchive.Result.class, MessageArchive.Fin.class})
+public final class MessageArchive {
+
+    /**
+     * urn:xmpp:mam:2
+     */
+    public static final String NAMESPACE = "urn:xmpp:mam:2";
+
+    private static final String WITH = "with";
+
+    private static final String START = "start";
+
+    private static final String END = "end";
+
+    private MessageArchive() {
+    }
+
+    /**
+     * The implementation of the {@code <query/>} element in the {@code urn:xmpp:mam:2} namespace, used to query an
+     * archive.
+     *
+     * <p>The query is filtered by a data form and limited by result set management.</p>
+     *
+     * <p>This class is immutable.</p>
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#query">4. Querying the archive</a>
+     */
+    @XmlRootElement(name = "query")
+    public static final class Query {
+
+        @XmlAttribute(name = "queryid")
+        private final String queryId;
+
+        @XmlElementRef
+        private final DataForm form;
+
+        @XmlElementRef
+        private final ResultSetManagement set;
+
+        private Query() {
+            this.queryId = null;
+            this.form = null;
+            this.set = null;
+        }
+
+        /**
+         * Creates a query.
+         *
+         * @param queryId             The query id, which is included in each result, or null.
+         * @param with                Only return messages to or from this JID, or null.
+         * @param start               Only return messages, which have been archived at or after this time, or null.
+         * @param end                 Only return messages, which have been archived at or before this time, or null.
+         * @param resultSetManagement The result set management, which limits the number of results, or null.
+         */
+        public Query(String queryId, Jid with, Instant start, Instant end, ResultSetManagement resultSetManagement) {
+            this.queryId = queryId;
+            if (with != null || start != null || end != null) {
+                Collection<DataForm.Field> fields = new ArrayList<>();
+                fields.add(DataForm.Field.builder().name(DataForm.FORM_TYPE).value(NAMESPACE)
+                        .type(DataForm.Field.Type.HIDDEN).build());
+                if (with != null) {
+                    fields.add(DataForm.Field.builder().name(WITH).value(with).build());
+                }
+                if (start != null) {
+                    fields.add(DataForm.Field.builder().name(START).value(start).build());
+                }
+                if (end != null) {
+                    fields.add(DataForm.Field.builder().name(END).value(end).build());
+                }
+                this.form = new DataForm(DataForm.Type.SUBMIT, fields);
+            } else {
+                this.form = null;
+            }
+            this.set = resultSetManagement;
+        }
+
+        /**
+         * Gets the query id.
+         *
+         * @return The query id.
+         */
+        public final String getQueryId() {
+            return queryId;
+        }
+
+        /**
+         * Gets the JID, to or from which the messages have been sent.
+         *
+         * @return The JID or null, if the query is not filtered by a JID.
+         */
+        public final Jid getWith() {
+            return form != null ? form.findValueAsJid(WITH) : null;
+        }
+
+        /**
+         * Gets the time, at or after which the messages have been archived.
+         *
+         * @return The time or null, if the query has no start time.
+         */
+        public final Instant getStart() {
+            return form != null ? form.findValueAsInstant(START) : null;
+        }
+
+        /**
+         * Gets the time, at or before which the messages have been archived.
+         *
+         * @return The time or null, if the query has no end time.
+         */
+        public final Instant getEnd() {
+            return form != null ? form.findValueAsInstant(END) : null;
+        }
+
+        /**
+         * Gets the data form, which filters the query.
+         *
+         * @return The data form or null.
+         */
+        public final DataForm getDataForm() {
+            return form;
+        }
+
+        /**
+         * Gets the result set management.
+         *
+         * @return The result set management or null.
+         */
+        public final ResultSetManagement getResultSetManagement() {
+            return set;
+        }
+    }
+
+    /**
+     * The implementation of the {@code <result/>} element in the {@code urn:xmpp:mam:2} namespace, which is sent in a
+     * message for each archived message, which matches a query.
+     *
+     * <p>This class is immutable.</p>
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#results">4.2 Query results</a>
+     */
+    @XmlRootElement(name = "result")
+    public static final class Result {
+
+        @XmlAttribute(name = "queryid")
+        private final String queryId;
+
+        @XmlAttribute
+        private final String id;
+
+        @XmlElementRef
+        private final Forwarded forwarded;
+
+        private Result() {
+            this.queryId = null;
+            this.id = null;
+            this.forwarded = null;
+        }
+
+        /**
+         * @param queryId   The query id, or null, if the query had no id.
+         * @param id        The archive id of the message.
+         * @param forwarded The archived message.
+         */
+        public Result(String queryId, String id, Forwarded forwarded) {
+            this.queryId = queryId;
+            this.id = Objects.requireNonNull(id, "id must not be null.");
+            this.forwarded = Objects.requireNonNull(forwarded, "forwarded must not be null.");
+        }
+
+        /**
+         * Gets the query id.
+         *
+         * @return The query id.
+         */
+        public final String getQueryId() {
+            return queryId;
+        }
+
+        /**
+         * Gets the archive id of the message, which can be used to page through the archive.
+         *
+         * @return The archive id.
+         */
+        public final String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the archived message together with the time, when it has been archived.
+         *
+         * @return The forwarded message.
+         */
+        public final Forwarded getForwarded() {
+            return forwarded;
+        }
+    }
+
+    /**
+     * The implementation of the {@code <fin/>} element in the {@code urn:xmpp:mam:2} namespace, which is returned in
+     * the IQ result, after all results of a query have been sent.
+     *
+     * <p>This class is immutable.</p>
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#query-paging">4.3 Paging through results</a>
+     */
+    @XmlRootElement(name = "fin")
+    public static final class Fin {
+
+        @XmlAttribute
+        private final Boolean complete;
+
+        @XmlElementRef
+        private final ResultSetManagement set;
+
+        private Fin() {
+            this.complete = null;
+            this.set = null;
+        }
+
+        /**
+         * @param complete            True, if the last page of the query has been sent.
+         * @param resultSetManagement The result set management, which contains the first and last id of the page.
+         */
+        public Fin(boolean complete, ResultSetManagement resultSetManagement) {
+            this.complete = complete ? Boolean.TRUE : null;
+            this.set = resultSetManagement;
+        }
+
+        /**
+         * Indicates, whether the last page of the query has been sent, i.e. whether there are no more results in the
+         * paging direction.
+         *
+         * @return True, if the query is complete.
+         */
+        public final boolean isComplete() {
+            return complete != null && complete;
+        }
+
+        /**
+         * Gets the result set management, which contains the first and last id of the page.
+         *
+         * @return The result set management.
+         */
+        public final ResultSetManagement getResultSetManagement() {
+            return set;
+        }
+    }
+}
@@ -128,6 +128,42 @@ public final class DiscussionHistory {
         return new DiscussionHistory(0, null, null, null);
     }
 
+    /**
+     * Gets the maximal number of characters of the complete XML stanzas in the history.
+     *
+     * @return The maximal number of characters or null, if not limited by characters.
+     */
+    public final Integer getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * Gets the maximal number of messages in the history.
+     *
+     * @return The maximal number of messages or null, if not limited by messages.
+     */
+    public final Integer getMaxStanzas() {
+        return maxstanzas;
+    }
+
+    /**
+     * Gets the number of seconds, for which messages are requested.
+     *
+     * @return The seconds or null, if not limited by time.
+     */
+    public final Integer getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Gets the date, since which messages are requested.
+     *
+     * @return The date or null, if not limited by a date.
+     */
+    public final Instant getSince() {
+        return since;
+    }
+
     @Override
     public final String toString() {
         if (maxChars != null && maxChars == 0) {
@@ -119,7 +119,7 @@ public final class Privacy {
     /**
      * Gets the active list name.
      *
-     * @return The active list name.
+     * @return The active list name. An empty string, if the use of an active list is declined.
      */
     public final String getActiveName() {
         return activeName;
@@ -128,7 +128,7 @@ public final class Privacy {
     /**
      * Sets the default list name.
      *
-     * @return The default list name.
+     * @return The default list name. An empty string, if the use of a default list is declined.
      */
     public final String getDefaultName() {
         return defaultName;
@@ -165,7 +165,8 @@ public final class Privacy {
         @Override
         public final String unmarshal(Active v) {
             if (v != null) {
-                return v.name;
+                // An element without name declines the use of a list.
+                return v.name != null ? v.name : "";
             }
             return null;
         }
@@ -186,7 +187,8 @@ public final class Privacy {
         @Override
         public final String unmarshal(Default v) {
             if (v != null) {
-                return v.name;
+                // An element without name declines the use of a list.
+                return v.name != null ? v.name : "";
             }
             return null;
         }
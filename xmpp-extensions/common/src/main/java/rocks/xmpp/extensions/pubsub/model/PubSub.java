@@ -26,6 +26,7 @@ package rocks.xmpp.extensions.pubsub.model;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import jakarta.xml.bind.annotation.XmlAnyElement;
@@ -495,6 +496,35 @@ public final class PubSub {
         return new PubSub(new Items(node, maxItems));
     }
 
+    /**
+     * Creates a pubsub element with an {@code <items/>} child element, containing the items of a node. This is used by
+     * a service, when returning items to a requesting entity.
+     *
+     * <p><b>Sample:</b></p>
+     *
+     * <pre>{@code
+     * <pubsub xmlns='http://jabber.org/protocol/pubsub'>
+     *     <items node='princely_musings'>
+     *         <item id='368866411b877c30064a5f62b917cffe'>
+     *             <entry xmlns='http://www.w3.org/2005/Atom'>
+     *     ...
+     * </pubsub>
+     * }</pre>
+     *
+     * @param node  The node.
+     * @param items The items.
+     * @return The pubsub instance.
+     * @see <a href="https://xmpp.org/extensions/xep-0060.html#subscriber-retrieve-returnall">6.5.3 Service Returns All
+     * Items</a>
+     */
+    public static PubSub withItems(String node, Collection<? extends Item> items) {
+        List<ItemElement> itemElements = new ArrayList<>();
+        for (Item item : items) {
+            itemElements.add(new ItemElement(item.getId(), item.getPayload(), item.getPublisher()));
+        }
+        return new PubSub(new Items(node, itemElements));
+    }
+
     /**
      * Creates a pubsub element with a {@code <publish/>} child element.
      *
@@ -567,6 +597,19 @@ public final class PubSub {
         return null;
     }
 
+    /**
+     * Gets the maximum number of items, which are requested by an {@code <items/>} element.
+     *
+     * @return The max items or null, if this is no items request or all items are requested.
+     * @see #withItems(String, int)
+     */
+    public final Integer getMaxItems() {
+        if (type instanceof Items) {
+            return ((Items) type).maxItems;
+        }
+        return null;
+    }
+
     public final Publish getPublish() {
         if (type instanceof Publish) {
             return (Publish) type;
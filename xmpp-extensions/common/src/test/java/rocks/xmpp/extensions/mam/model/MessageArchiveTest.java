@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.mam.model;
+
+import java.time.Instant;
+import jakarta.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.XmlTest;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * @author Christian Schudt
+ */
+public class MessageArchiveTest extends XmlTest {
+
+    @Test
+    public void unmarshalQuery() throws XMLStreamException, JAXBException {
+        String xml = "<iq xmlns='jabber:client' type='set' id='juliet1'>\n" +
+                "  <query xmlns='urn:xmpp:mam:2' queryid='f27'>\n" +
+                "    <x xmlns='jabber:x:data' type='submit'>\n" +
+                "      <field var='FORM_TYPE' type='hidden'>\n" +
+                "        <value>urn:xmpp:mam:2</value>\n" +
+                "      </field>\n" +
+                "      <field var='with'>\n" +
+                "        <value>juliet@capulet.lit</value>\n" +
+                "      </field>\n" +
+                "      <field var='start'>\n" +
+                "        <value>2010-06-07T00:00:00Z</value>\n" +
+                "      </field>\n" +
+                "    </x>\n" +
+                "    <set xmlns='http://jabber.org/protocol/rsm'>\n" +
+                "      <max>10</max>\n" +
+                "      <before/>\n" +
+                "    </set>\n" +
+                "  </query>\n" +
+                "</iq>";
+        IQ iq = unmarshal(xml, IQ.class);
+        MessageArchive.Query query = iq.getExtension(MessageArchive.Query.class);
+        Assert.assertNotNull(query);
+        Assert.assertEquals(query.getQueryId(), "f27");
+        Assert.assertEquals(query.getWith(), Jid.of("juliet@capulet.lit"));
+        Assert.assertEquals(query.getStart(), Instant.parse("2010-06-07T00:00:00Z"));
+        Assert.assertNull(query.getEnd());
+        Assert.assertEquals(query.getResultSetManagement().getMaxSize(), Integer.valueOf(10));
+        Assert.assertEquals(query.getResultSetManagement().getBefore(), "");
+    }
+
+    @Test
+    public void unmarshalResult() throws XMLStreamException, JAXBException {
+        String xml = "<message xmlns='jabber:client' id='aeb213' to='juliet@capulet.lit/chamber'>\n" +
+                "  <result xmlns='urn:xmpp:mam:2' queryid='f27' id='28482-98726-73623'>\n" +
+                "    <forwarded xmlns='urn:xmpp:forward:0'>\n" +
+                "      <delay xmlns='urn:xmpp:delay' stamp='2010-07-10T23:08:25Z'/>\n" +
+                "      <message xmlns='jabber:client' from='witch@shakespeare.lit' to='macbeth@shakespeare.lit'>\n" +
+                "        <body>Hail to thee</body>\n" +
+                "      </message>\n" +
+                "    </forwarded>\n" +
+                "  </result>\n" +
+                "</message>";
+        Message message = unmarshal(xml, Message.class);
+        MessageArchive.Result result = message.getExtension(MessageArchive.Result.class);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getQueryId(), "f27");
+        Assert.assertEquals(result.getId(), "28482-98726-73623");
+        Assert.assertEquals(result.getForwarded().getDelayedDelivery().getTimeStamp(),
+                Instant.parse("2010-07-10T23:08:25Z"));
+        Assert.assertEquals(((Message) result.getForwarded().getStanza()).getBody(), "Hail to thee");
+    }
+
+    @Test
+    public void unmarshalFin() throws XMLStreamException, JAXBException {
+        String xml = "<iq xmlns='jabber:client' type='result' id='u29303'>\n" +
+                "  <fin xmlns='urn:xmpp:mam:2' complete='true'>\n" +
+                "    <set xmlns='http://jabber.org/protocol/rsm'>\n" +
+                "      <first index='0'>23452-4534-1</first>\n" +
+                "      <last>390-2342-22</last>\n" +
+                "      <count>16</count>\n" +
+                "    </set>\n" +
+                "  </fin>\n" +
+                "</iq>";
+        IQ iq = unmarshal(xml, IQ.class);
+        MessageArchive.Fin fin = iq.getExtension(MessageArchive.Fin.class);
+        Assert.assertNotNull(fin);
+        Assert.assertTrue(fin.isComplete());
+        Assert.assertEquals(fin.getResultSetManagement().getFirstItem(), "23452-4534-1");
+        Assert.assertEquals(fin.getResultSetManagement().getLastItem(), "390-2342-22");
+        Assert.assertEquals(fin.getResultSetManagement().getItemCount(), Integer.valueOf(16));
+    }
+
+    @Test
+    public void marshalQuery() throws XMLStreamException, JAXBException {
+        MessageArchive.Query query = new MessageArchive.Query("q1", Jid.of("juliet@capulet.lit"), null, null,
+                ResultSetManagement.forLastPage(50));
+        String xml = marshal(query);
+        Assert.assertEquals(xml, "<query xmlns=\"urn:xmpp:mam:2\" queryid=\"q1\">"
+                + "<x xmlns=\"jabber:x:data\" type=\"submit\">"
+                + "<field type=\"hidden\" var=\"FORM_TYPE\"><value>urn:xmpp:mam:2</value></field>"
+                + "<field type=\"jid-single\" var=\"with\"><value>juliet@capulet.lit</value></field>"
+                + "</x>"
+                + "<set xmlns=\"http://jabber.org/protocol/rsm\"><max>50</max><before></before></set>"
+                + "</query>");
+    }
+
+    @Test
+    public void marshalEmptyQuery() throws XMLStreamException, JAXBException {
+        String xml = marshal(new MessageArchive.Query(null, null, null, null, null));
+        Assert.assertEquals(xml, "<query xmlns=\"urn:xmpp:mam:2\"></query>");
+    }
+}
@@ -235,6 +235,19 @@ public class PrivacyListTest extends XmlTest {
                 "<iq from=\"romeo@example.net/orchard\" id=\"getlist1\" type=\"get\"><query xmlns=\"jabber:iq:privacy\"><default></default></query></iq>");
     }
 
+    @Test
+    public void unmarshalDeclineActiveListRequest() throws XMLStreamException, JAXBException {
+        String xml = "<iq from='romeo@example.net/orchard' type='set' id='active3'>\n" +
+                "<query xmlns='jabber:iq:privacy'>\n" +
+                "  <active/>\n" +
+                "</query>\n" +
+                "</iq>";
+        IQ iq = unmarshal(xml, IQ.class);
+        Privacy privacy = iq.getExtension(Privacy.class);
+        Assert.assertEquals(privacy.getActiveName(), "");
+        Assert.assertNull(privacy.getDefaultName());
+    }
+
     @Test
     public void marshalPrivacyRule() throws XMLStreamException, JAXBException {
         PrivacyList privacyList = new PrivacyList("test",
@@ -24,6 +24,7 @@
 
 package rocks.xmpp.extensions.pubsub.model;
 
+import java.util.Collections;
 import jakarta.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 
@@ -276,4 +277,28 @@ public class PubSubSubscriberUseCasesTest extends XmlTest {
         Assert.assertEquals(xml,
                 "<pubsub xmlns=\"http://jabber.org/protocol/pubsub\"><items node=\"princely_musings\"><item id=\"ae890ac52d0df67ed7cfdf51b644e901\"></item></items></pubsub>");
     }
+
+    @Test
+    public void unmarshalRequestMostRecentItems() throws JAXBException, XMLStreamException {
+        String xml = "<iq type='get'>\n" +
+                "  <pubsub xmlns='http://jabber.org/protocol/pubsub'>\n" +
+                "    <items node='princely_musings' max_items='2'/>\n" +
+                "  </pubsub>\n" +
+                "</iq>";
+        IQ iq = unmarshal(xml, IQ.class);
+        PubSub pubSub = iq.getExtension(PubSub.class);
+        Assert.assertNotNull(pubSub);
+        Assert.assertEquals(pubSub.getMaxItems(), Integer.valueOf(2));
+        Assert.assertTrue(pubSub.getItems().isEmpty());
+    }
+
+    @Test
+    public void marshalReturnItems() throws JAXBException, XMLStreamException {
+        Item item = PubSub.withPublish("urn:xmpp:avatar:data", "123", new AvatarData(new byte[]{1, 2, 3}), null)
+                .getPublish().getItem();
+        PubSub pubSub = PubSub.withItems("urn:xmpp:avatar:data", Collections.singletonList(item));
+        String xml = marshal(pubSub);
+        Assert.assertEquals(xml,
+                "<pubsub xmlns=\"http://jabber.org/protocol/pubsub\"><items node=\"urn:xmpp:avatar:data\"><item id=\"123\"><data xmlns=\"urn:xmpp:avatar:data\">AQID</data></item></items></pubsub>");
+    }
 }
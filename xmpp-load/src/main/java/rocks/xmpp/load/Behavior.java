@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import rocks.xmpp.core.XmppException;
+
+/**
+ * The behavior of a simulated user, which is performed periodically, e.g. sending a chat message every few seconds.
+ *
+ * <p>Each user performs a behavior at a fixed rate, with a random offset, so that the load is spread evenly. The
+ * time, at which an action was scheduled to happen, is passed to {@link #perform(SimulatedUser, LoadContext, long)}.
+ * Implementations should measure latencies from this time (see {@link LatencyHistogram#recordSince(long)}), so that
+ * delays of the load generator itself are not hidden. Implementations must not block.</p>
+ *
+ * @author Christian Schudt
+ * @see LoadTestConfiguration.Builder#behaviors(Behavior...)
+ */
+public abstract class Behavior {
+
+    private final String name;
+
+    private final Duration interval;
+
+    /**
+     * @param name     The name, which is used as prefix for the metrics of this behavior.
+     * @param interval The interval, in which each user performs the behavior.
+     */
+    protected Behavior(final String name, final Duration interval) {
+        this.name = Objects.requireNonNull(name);
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Prepares a user after it has logged in, e.g. by entering a chat room. This method may block.
+     *
+     * @param user    The user.
+     * @param context The load context.
+     * @throws XmppException If the user could not be prepared.
+     */
+    protected void setUp(final SimulatedUser user, final LoadContext context) throws XmppException {
+    }
+
+    /**
+     * Performs the behavior once.
+     *
+     * @param user         The user.
+     * @param context      The load context.
+     * @param intendedTime The time ({@link System#nanoTime()}), at which the action was scheduled to happen.
+     */
+    protected abstract void perform(SimulatedUser user, LoadContext context, long intendedTime);
+
+    /**
+     * Gets the name of this behavior.
+     *
+     * @return The name.
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the interval, in which each user performs this behavior.
+     *
+     * @return The interval.
+     */
+    public final Duration getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return name + " every " + interval;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.StanzaErrorException;
+import rocks.xmpp.extensions.ping.model.Ping;
+
+/**
+ * Periodically pings the server. The round-trip time is recorded in the "iq" metric. An error response counts as
+ * response, because it is still a round-trip.
+ *
+ * @author Christian Schudt
+ */
+public final class IqPing extends Behavior {
+
+    /**
+     * @param interval The interval, in which each user pings the server.
+     */
+    public IqPing(final Duration interval) {
+        super("iq", interval);
+    }
+
+    @Override
+    protected final void perform(final SimulatedUser user, final LoadContext context, final long intendedTime) {
+        context.increment(getName() + ".sent");
+        user.getXmppClient().query(IQ.get(user.getXmppClient().getDomain(), Ping.INSTANCE),
+                context.getConfiguration().getResponseTimeout()).whenComplete((result, e) -> {
+                    final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause == null || cause instanceof StanzaErrorException) {
+                        context.histogram(getName()).recordSince(intendedTime);
+                        context.increment(getName() + ".received");
+                    } else {
+                        context.increment(getName() + ".timeout");
+                    }
+                });
+    }
+}
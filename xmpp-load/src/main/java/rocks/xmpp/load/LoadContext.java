@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import rocks.xmpp.addr.Jid;
+
+/**
+ * The shared state of a load test: the connected users, the metrics and the messages, which are in flight.
+ *
+ * <p>A message is tracked by its id: The sender registers the id with {@link #expectDelivery(String, String, long,
+ * boolean)} and the load test reports each received message to {@link #delivered(String)}, which records the latency
+ * since the message was scheduled to be sent.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class LoadContext {
+
+    private final LoadTestConfiguration configuration;
+
+    private final AtomicReferenceArray<SimulatedUser> users;
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, PendingDelivery> pendingDeliveries = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    LoadContext(final LoadTestConfiguration configuration) {
+        this.configuration = configuration;
+        this.users = new AtomicReferenceArray<>(configuration.getUsers());
+    }
+
+    void addUser(final SimulatedUser user) {
+        users.set(user.getIndex(), user);
+    }
+
+    /**
+     * Gets the configuration of the load test.
+     *
+     * @return The configuration.
+     */
+    public final LoadTestConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Gets a random connected user, other than the given one.
+     *
+     * @param user The user, which is excluded.
+     * @return The user or null, if no other user has been found.
+     */
+    public final SimulatedUser randomPeer(final SimulatedUser user) {
+        final int n = users.length();
+        // Not all users might be connected, e.g. during the ramp-up phase, so try a few times.
+        for (int i = 0; i < 8; i++) {
+            final SimulatedUser peer = users.get(ThreadLocalRandom.current().nextInt(n));
+            if (peer != null && peer != user) {
+                return peer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a histogram, in which latencies in nanoseconds are recorded.
+     *
+     * @param name The metric name.
+     * @return The histogram.
+     */
+    public final LatencyHistogram histogram(final String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Increments a counter.
+     *
+     * @param name The counter name.
+     */
+    public final void increment(final String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Generates a unique stanza id.
+     *
+     * @return The id.
+     */
+    public final String nextId() {
+        return "load-" + ids.incrementAndGet();
+    }
+
+    /**
+     * Registers a message, which is expected to be delivered.
+     *
+     * @param id           The message id.
+     * @param metric       The metric, in which the delivery latency is recorded.
+     * @param intendedTime The time ({@link System#nanoTime()}), at which the message was scheduled to be sent.
+     * @param single       True, if exactly one recipient is expected. If no recipient receives the message before
+     *                     the response timeout, it is counted as timeout. Otherwise (e.g. for group chat messages),
+     *                     each received copy is recorded until the message expires.
+     */
+    public final void expectDelivery(final String id, final String metric, final long intendedTime,
+                                     final boolean single) {
+        pendingDeliveries.put(id, new PendingDelivery(metric, intendedTime, single));
+        increment(metric + ".sent");
+    }
+
+    /**
+     * Records the delivery of a message.
+     *
+     * @param id The message id.
+     */
+    final void delivered(final String id) {
+        if (id == null) {
+            return;
+        }
+        final PendingDelivery delivery = pendingDeliveries.get(id);
+        if (delivery != null) {
+            if (delivery.single && !pendingDeliveries.remove(id, delivery)) {
+                return;
+            }
+            histogram(delivery.metric).recordSince(delivery.intendedTime);
+            increment(delivery.metric + ".received");
+        }
+    }
+
+    /**
+     * Removes all deliveries, which have been scheduled before the given time. Single deliveries are counted as
+     * timeouts.
+     *
+     * @param before The time ({@link System#nanoTime()}).
+     */
+    final void expire(final long before) {
+        pendingDeliveries.forEach((id, delivery) -> {
+            if (delivery.intendedTime - before < 0 && pendingDeliveries.remove(id, delivery) && delivery.single) {
+                increment(delivery.metric + ".timeout");
+            }
+        });
+    }
+
+    /**
+     * Gets the number of single deliveries, which are still in flight.
+     *
+     * @return The number of pending deliveries.
+     */
+    final long getPendingDeliveries() {
+        return pendingDeliveries.values().stream().filter(delivery -> delivery.single).count();
+    }
+
+    final Map<String, Long> getCounters() {
+        final Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    final Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Gets the address of the multi-user chat service.
+     *
+     * @return The chat service.
+     */
+    public final Jid getChatService() {
+        return configuration.getChatService();
+    }
+
+    private static final class PendingDelivery {
+
+        private final String metric;
+
+        private final long intendedTime;
+
+        private final boolean single;
+
+        private PendingDelivery(final String metric, final long intendedTime, final boolean single) {
+            this.metric = metric;
+            this.intendedTime = intendedTime;
+            this.single = single;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The result of a {@link LoadTest}, which can be written as JSON.
+ *
+ * <p>Latencies are reported in milliseconds:</p>
+ * <pre>{@code
+ * {
+ *   "started": "2019-01-01T12:00:00Z",
+ *   "duration": 70.012,
+ *   "users": {"configured": 1000, "connected": 998},
+ *   "counters": {"message.received": 59880, "message.sent": 59880},
+ *   "latencies": {
+ *     "message": {"count": 59880, "min": 0.211, "mean": 1.532, "p50": 1.245, "p90": 2.801, "p99": 9.437,
+ *                 "p99.9": 21.495, "max": 35.651}
+ *   }
+ * }
+ * }</pre>
+ *
+ * @author Christian Schudt
+ */
+public final class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Instant started;
+
+    private final Duration duration;
+
+    private final int configuredUsers;
+
+    private final int connectedUsers;
+
+    private final Map<String, Long> counters;
+
+    private final Map<String, LatencyHistogram> latencies;
+
+    LoadReport(final Instant started, final Duration duration, final int configuredUsers, final int connectedUsers,
+               final Map<String, Long> counters, final Map<String, LatencyHistogram> latencies) {
+        this.started = started;
+        this.duration = duration;
+        this.configuredUsers = configuredUsers;
+        this.connectedUsers = connectedUsers;
+        this.counters = counters;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Gets the start time of the test.
+     *
+     * @return The start time.
+     */
+    public final Instant getStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the duration of the test, including the ramp-up.
+     *
+     * @return The duration.
+     */
+    public final Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the number of configured users.
+     *
+     * @return The number of configured users.
+     */
+    public final int getConfiguredUsers() {
+        return configuredUsers;
+    }
+
+    /**
+     * Gets the number of users, which have successfully logged in.
+     *
+     * @return The number of connected users.
+     */
+    public final int getConnectedUsers() {
+        return connectedUsers;
+    }
+
+    /**
+     * Gets the counters, sorted by name.
+     *
+     * @return The counters.
+     */
+    public final Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Gets the latency histograms in nanoseconds, sorted by name.
+     *
+     * @return The histograms.
+     */
+    public final Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Writes this report as JSON.
+     *
+     * @param writer The writer.
+     * @throws IOException If an I/O error occurs.
+     */
+    public final void writeJson(final Writer writer) throws IOException {
+        writer.write("{\n");
+        writer.write("  \"started\": " + quote(started.toString()) + ",\n");
+        writer.write("  \"duration\": " + format(duration.toNanos() / 1e9) + ",\n");
+        writer.write("  \"users\": {\"configured\": " + configuredUsers + ", \"connected\": " + connectedUsers
+                + "},\n");
+        writer.write("  \"counters\": {");
+        final Iterator<Map.Entry<String, Long>> counterIterator = counters.entrySet().iterator();
+        while (counterIterator.hasNext()) {
+            final Map.Entry<String, Long> entry = counterIterator.next();
+            writer.write(quote(entry.getKey()) + ": " + entry.getValue());
+            if (counterIterator.hasNext()) {
+                writer.write(", ");
+            }
+        }
+        writer.write("},\n");
+        writer.write("  \"latencies\": {");
+        final Iterator<Map.Entry<String, LatencyHistogram>> latencyIterator = latencies.entrySet().iterator();
+        while (latencyIterator.hasNext()) {
+            final Map.Entry<String, LatencyHistogram> entry = latencyIterator.next();
+            final LatencyHistogram histogram = entry.getValue();
+            writer.write("\n    " + quote(entry.getKey()) + ": {\"count\": " + histogram.getCount());
+            writer.write(", \"min\": " + formatNanos(histogram.getMin()));
+            writer.write(", \"mean\": " + formatNanos(histogram.getMean()));
+            for (final double percentile : PERCENTILES) {
+                writer.write(", " + quote(percentileName(percentile)) + ": "
+                        + formatNanos(histogram.getValueAtPercentile(percentile)));
+            }
+            writer.write(", \"max\": " + formatNanos(histogram.getMax()) + '}');
+            if (latencyIterator.hasNext()) {
+                writer.write(',');
+            }
+        }
+        writer.write(latencies.isEmpty() ? "}\n" : "\n  }\n");
+        writer.write("}\n");
+    }
+
+    /**
+     * Writes this report as JSON to a file.
+     *
+     * @param path The file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public final void writeJson(final Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeJson(writer);
+        }
+    }
+
+    private static String percentileName(final double percentile) {
+        return percentile == Math.rint(percentile) ? "p" + (long) percentile : "p" + percentile;
+    }
+
+    private static String formatNanos(final long nanos) {
+        return formatNanos((double) nanos);
+    }
+
+    private static String formatNanos(final double nanos) {
+        return format(LatencyHistogram.toMillis(nanos));
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public final String toString() {
+        return connectedUsers + "/" + configuredUsers + " users, " + counters + ", " + latencies;
+    }
+}
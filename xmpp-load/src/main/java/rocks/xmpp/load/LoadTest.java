@@ -0,0 +1,409 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import fish.payara.micro.BootstrapException;
+import fish.payara.micro.PayaraMicroRuntime;
+import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.net.ChannelEncryption;
+import rocks.xmpp.core.net.client.TcpConnectionConfiguration;
+import rocks.xmpp.core.session.XmppClient;
+import rocks.xmpp.core.session.XmppSessionConfiguration;
+import rocks.xmpp.nio.netty.client.NettyChannelConnector;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+import rocks.xmpp.server.embedded.EmbeddedPayara;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Simulates many users, which connect to a server and perform the configured {@link Behavior behaviors}, and reports
+ * the latencies.
+ *
+ * <p>The users connect evenly spread over the ramp-up duration and share one {@link XmppSessionConfiguration} and the
+ * {@linkplain NettyTransport#shared() shared Netty transport}, so that thousands of users can be simulated in one
+ * JVM. The "connect" metric records the time until a user has logged in.</p>
+ *
+ * <pre>{@code
+ * LoadReport report = new LoadTest(LoadTestConfiguration.builder()
+ *     .users(1000)
+ *     .behaviors(new OneToOneChat(Duration.ofSeconds(5), 100), new IqPing(Duration.ofSeconds(30)))
+ *     .build()).run();
+ * report.writeJson(Paths.get("report.json"));
+ * }</pre>
+ *
+ * @author Christian Schudt
+ */
+public final class LoadTest {
+
+    private static final System.Logger logger = System.getLogger(LoadTest.class.getName());
+
+    /**
+     * The system property, which lets the embedded server read the simulated accounts from a properties file.
+     */
+    private static final String ACCOUNTS_FILE_PROPERTY = "rocks.xmpp.server.accountsFile";
+
+    private final LoadTestConfiguration configuration;
+
+    /**
+     * @param configuration The configuration.
+     */
+    public LoadTest(final LoadTestConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Runs the load test. This method blocks until the test has finished and all users have disconnected.
+     *
+     * @return The report.
+     * @throws InterruptedException If the thread has been interrupted.
+     */
+    public final LoadReport run() throws InterruptedException {
+        final LoadContext context = new LoadContext(configuration);
+        final XmppSessionConfiguration sessionConfiguration = XmppSessionConfiguration.builder().build();
+        final TcpConnectionConfiguration connectionConfiguration = TcpConnectionConfiguration.builder()
+                .hostname(configuration.getHostname())
+                .port(configuration.getPort())
+                .channelEncryption(configuration.getChannelEncryption())
+                .sslContext(configuration.getSSLContext())
+                .hostnameVerifier(configuration.getHostnameVerifier())
+                .connector(new NettyChannelConnector(NettyTransport.shared()))
+                .build();
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors(), XmppUtils.createNamedThreadFactory("Load Generator"));
+        final ExecutorService connectExecutor = Executors.newFixedThreadPool(configuration.getConnectThreads(),
+                XmppUtils.createNamedThreadFactory("Load Generator Connector"));
+        final Queue<XmppClient> clients = new ConcurrentLinkedQueue<>();
+        final AtomicInteger connected = new AtomicInteger();
+        final int users = configuration.getUsers();
+        final long timeout = configuration.getResponseTimeout().toNanos();
+        final long rampUp = configuration.getRampUp().toNanos();
+
+        logger.log(System.Logger.Level.INFO, "Starting load test: " + configuration);
+        final Instant started = Instant.now();
+        final long start = System.nanoTime();
+        scheduler.scheduleWithFixedDelay(() -> context.expire(System.nanoTime() - timeout), 1, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < users; i++) {
+            final int index = i;
+            final long delay = rampUp / users * i;
+            scheduler.schedule(() -> connectExecutor.execute(() -> {
+                final XmppClient xmppClient = XmppClient.create(configuration.getDomain(), sessionConfiguration,
+                        connectionConfiguration);
+                clients.add(xmppClient);
+                if (connect(new SimulatedUser(index, configuration.getUsername(index), xmppClient), context,
+                        scheduler, start + delay)) {
+                    connected.incrementAndGet();
+                }
+            }), delay, TimeUnit.NANOSECONDS);
+        }
+        TimeUnit.NANOSECONDS.sleep(rampUp + configuration.getDuration().toNanos() - (System.nanoTime() - start));
+
+        // Stop generating load and wait for the messages, which are still in flight.
+        scheduler.shutdownNow();
+        connectExecutor.shutdownNow();
+        connectExecutor.awaitTermination(timeout, TimeUnit.NANOSECONDS);
+        final long drainStart = System.nanoTime();
+        while (context.getPendingDeliveries() > 0 && System.nanoTime() - drainStart < timeout) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        context.expire(System.nanoTime() + 1);
+        final LoadReport report = new LoadReport(started, Duration.ofNanos(System.nanoTime() - start), users,
+                connected.get(), context.getCounters(), context.getHistograms());
+        logger.log(System.Logger.Level.INFO, "Finished load test: " + report);
+
+        clients.parallelStream().forEach(xmppClient -> {
+            try {
+                xmppClient.close();
+            } catch (XmppException e) {
+                logger.log(System.Logger.Level.DEBUG, "Could not close session.", e);
+            }
+        });
+        return report;
+    }
+
+    /**
+     * Connects and logs in a user and then schedules its behaviors.
+     *
+     * @return True, if the user has logged in.
+     */
+    private boolean connect(final SimulatedUser user, final LoadContext context,
+                            final ScheduledExecutorService scheduler, final long intendedTime) {
+        final XmppClient xmppClient = user.getXmppClient();
+        xmppClient.addInboundMessageListener(e -> context.delivered(e.getMessage().getId()));
+        try {
+            xmppClient.connect();
+            xmppClient.login(user.getUsername(), configuration.getPassword(user.getIndex()),
+                    configuration.getResource());
+            context.histogram("connect").recordSince(intendedTime);
+            for (final Behavior behavior : configuration.getBehaviors()) {
+                behavior.setUp(user, context);
+            }
+        } catch (XmppException e) {
+            context.increment("connect.failed");
+            logger.log(System.Logger.Level.WARNING, "Could not connect " + user + ": " + e.getMessage());
+            return false;
+        }
+        context.addUser(user);
+        for (final Behavior behavior : configuration.getBehaviors()) {
+            final long interval = behavior.getInterval().toNanos();
+            // Spread the actions of all users evenly over the interval.
+            final long first = System.nanoTime() + ThreadLocalRandom.current().nextLong(interval);
+            scheduler.scheduleAtFixedRate(new Runnable() {
+
+                private long executions;
+
+                @Override
+                public void run() {
+                    // A fixed rate task is never executed concurrently and catches up, if it is late. The intended
+                    // time of each execution is therefore known, regardless of when it actually runs.
+                    final long intended = first + executions++ * interval;
+                    try {
+                        behavior.perform(user, context, intended);
+                    } catch (RuntimeException e) {
+                        context.increment(behavior.getName() + ".failed");
+                        logger.log(System.Logger.Level.DEBUG, behavior + " failed for " + user, e);
+                    }
+                }
+            }, first - System.nanoTime(), interval, TimeUnit.NANOSECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Runs a load test from the command line and prints the JSON report.
+     *
+     * @param args The arguments, see the usage.
+     * @throws Exception If the test could not be run.
+     */
+    public static void main(final String[] args) throws Exception {
+        final LoadTestConfiguration.Builder builder = LoadTestConfiguration.builder();
+        final List<Behavior> behaviors = new ArrayList<>();
+        Duration mucInterval = null;
+        int mucRooms = 10;
+        int mucBurst = 5;
+        Path report = null;
+        String embedded = null;
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if ("--tls".equals(arg)) {
+                builder.channelEncryption(ChannelEncryption.REQUIRED);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+                return;
+            }
+            final String value = args[++i];
+            switch (arg) {
+                case "--host":
+                    builder.hostname(value);
+                    break;
+                case "--port":
+                    builder.port(Integer.parseInt(value));
+                    break;
+                case "--domain":
+                    builder.domain(value);
+                    break;
+                case "--users":
+                    builder.users(Integer.parseInt(value));
+                    break;
+                case "--ramp-up":
+                    builder.rampUp(seconds(value));
+                    break;
+                case "--duration":
+                    builder.duration(seconds(value));
+                    break;
+                case "--timeout":
+                    builder.responseTimeout(seconds(value));
+                    break;
+                case "--chat":
+                    behaviors.add(new OneToOneChat(seconds(value), 100));
+                    break;
+                case "--presence":
+                    behaviors.add(new PresenceChurn(seconds(value)));
+                    break;
+                case "--ping":
+                    behaviors.add(new IqPing(seconds(value)));
+                    break;
+                case "--muc":
+                    mucInterval = seconds(value);
+                    break;
+                case "--muc-rooms":
+                    mucRooms = Integer.parseInt(value);
+                    break;
+                case "--muc-burst":
+                    mucBurst = Integer.parseInt(value);
+                    break;
+                case "--report":
+                    report = Paths.get(value);
+                    break;
+                case "--embedded":
+                    embedded = value;
+                    break;
+                default:
+                    usage();
+                    return;
+            }
+        }
+        if (mucInterval != null) {
+            behaviors.add(new MucBurst(mucInterval, mucRooms, mucBurst));
+        }
+        builder.behaviors(behaviors.toArray(new Behavior[0]));
+
+        PayaraMicroRuntime runtime = null;
+        if (embedded != null) {
+            runtime = startEmbeddedServer(embedded, builder);
+        }
+        try {
+            final LoadReport loadReport = new LoadTest(builder.build()).run();
+            if (report != null) {
+                loadReport.writeJson(report);
+            } else {
+                final Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+                loadReport.writeJson(writer);
+                writer.flush();
+            }
+        } finally {
+            if (runtime != null) {
+                runtime.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Starts the embedded server in this JVM and configures the test to use it. The simulated accounts are provisioned
+     * with a random password and the server uses a self-signed certificate for direct TLS.
+     */
+    private static PayaraMicroRuntime startEmbeddedServer(final String deployment,
+                                                          final LoadTestConfiguration.Builder builder)
+            throws BootstrapException, GeneralSecurityException, IOException {
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{new TrustAllTrustManager()}, null);
+        builder.hostname("localhost")
+                .port(5222)
+                .domain("domain")
+                .userPrefix("load-")
+                .channelEncryption(ChannelEncryption.DIRECT)
+                .sslContext(sslContext)
+                .hostnameVerifier((hostname, session) -> true)
+                .password(UUID.randomUUID().toString());
+        System.setProperty(ACCOUNTS_FILE_PROPERTY, writeAccounts(builder.build()).toString());
+        return EmbeddedPayara.start(deployment);
+    }
+
+    /**
+     * Writes the accounts of the simulated users into a temporary properties file, which only the owner can read.
+     */
+    private static Path writeAccounts(final LoadTestConfiguration configuration) throws IOException {
+        Path file;
+        try {
+            file = Files.createTempFile("load-accounts", ".properties",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // E.g. on Windows, where temporary files are private to the user anyway.
+            file = Files.createTempFile("load-accounts", ".properties");
+        }
+        file.toFile().deleteOnExit();
+        final Properties accounts = new Properties();
+        for (int i = 0; i < configuration.getUsers(); i++) {
+            accounts.setProperty(configuration.getUsername(i), configuration.getPassword(i));
+        }
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            accounts.store(writer, null);
+        }
+        return file;
+    }
+
+    private static Duration seconds(final String value) {
+        return Duration.ofMillis(Math.round(Double.parseDouble(value) * 1000));
+    }
+
+    private static void usage() throws IOException {
+        final Writer writer = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+        writer.write("Usage: LoadTest [options]\n"
+                + "  --host <hostname>     The server host (localhost).\n"
+                + "  --port <port>         The server port (5222).\n"
+                + "  --domain <domain>     The XMPP domain (localhost).\n"
+                + "  --tls                 Requires STARTTLS.\n"
+                + "  --users <n>           The number of simulated users (100).\n"
+                + "  --ramp-up <seconds>   The duration, over which the users connect (10).\n"
+                + "  --duration <seconds>  The duration of the test after the ramp-up (60).\n"
+                + "  --timeout <seconds>   The response timeout (10).\n"
+                + "  --chat <seconds>      Sends a chat message to a random user in this interval.\n"
+                + "  --presence <seconds>  Changes the presence in this interval.\n"
+                + "  --ping <seconds>      Pings the server in this interval.\n"
+                + "  --muc <seconds>       Sends a burst of group chat messages in this interval.\n"
+                + "  --muc-rooms <n>       The number of chat rooms (10).\n"
+                + "  --muc-burst <n>       The number of messages per burst (5).\n"
+                + "  --report <file>       Writes the JSON report to a file instead of the standard output.\n"
+                + "  --embedded <war>      Runs the embedded server with the given web archive in this JVM.\n");
+        writer.flush();
+    }
+
+    /**
+     * Trusts the self-signed certificate of the embedded server.
+     */
+    private static final class TrustAllTrustManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
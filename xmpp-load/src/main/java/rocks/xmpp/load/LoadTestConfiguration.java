@@ -0,0 +1,497 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.List;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.net.ChannelEncryption;
+
+/**
+ * The configuration of a {@link LoadTest}.
+ *
+ * <p>Users are named by a prefix and their index, e.g. "load-0" to "load-999". Unless a password is configured, the
+ * username is used as password.</p>
+ *
+ * @author Christian Schudt
+ * @see #builder()
+ */
+public final class LoadTestConfiguration {
+
+    private final String hostname;
+
+    private final int port;
+
+    private final String domain;
+
+    private final ChannelEncryption channelEncryption;
+
+    private final SSLContext sslContext;
+
+    private final HostnameVerifier hostnameVerifier;
+
+    private final int users;
+
+    private final String userPrefix;
+
+    private final String password;
+
+    private final String resource;
+
+    private final Duration rampUp;
+
+    private final Duration duration;
+
+    private final Duration responseTimeout;
+
+    private final Jid chatService;
+
+    private final List<Behavior> behaviors;
+
+    private final int connectThreads;
+
+    private LoadTestConfiguration(final Builder builder) {
+        this.hostname = builder.hostname;
+        this.port = builder.port;
+        this.domain = builder.domain;
+        this.channelEncryption = builder.channelEncryption;
+        this.sslContext = builder.sslContext;
+        this.hostnameVerifier = builder.hostnameVerifier;
+        this.users = builder.users;
+        this.userPrefix = builder.userPrefix;
+        this.password = builder.password;
+        this.resource = builder.resource;
+        this.rampUp = builder.rampUp;
+        this.duration = builder.duration;
+        this.responseTimeout = builder.responseTimeout;
+        this.chatService = builder.chatService != null ? builder.chatService : Jid.ofDomain("conference." + domain);
+        this.behaviors = builder.behaviors;
+        this.connectThreads = builder.connectThreads;
+    }
+
+    /**
+     * Creates the builder.
+     *
+     * @return The builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the hostname of the server.
+     *
+     * @return The hostname.
+     */
+    public final String getHostname() {
+        return hostname;
+    }
+
+    /**
+     * Gets the port of the server.
+     *
+     * @return The port.
+     */
+    public final int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the XMPP domain.
+     *
+     * @return The domain.
+     */
+    public final String getDomain() {
+        return domain;
+    }
+
+    /**
+     * Gets the channel encryption.
+     *
+     * @return The channel encryption.
+     */
+    public final ChannelEncryption getChannelEncryption() {
+        return channelEncryption;
+    }
+
+    /**
+     * Gets the SSL context, which is used if the channel is encrypted.
+     *
+     * @return The SSL context or null, if the default context is used.
+     */
+    public final SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Gets the hostname verifier, which is used if the channel is encrypted.
+     *
+     * @return The hostname verifier or null, if the default verification is used.
+     */
+    public final HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    /**
+     * Gets the number of simulated users.
+     *
+     * @return The number of users.
+     */
+    public final int getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the username of a user.
+     *
+     * @param index The index of the user.
+     * @return The username.
+     */
+    public final String getUsername(final int index) {
+        return userPrefix + index;
+    }
+
+    /**
+     * Gets the username prefix.
+     *
+     * @return The prefix.
+     */
+    public final String getUserPrefix() {
+        return userPrefix;
+    }
+
+    /**
+     * Gets the password of a user.
+     *
+     * @param index The index of the user.
+     * @return The password.
+     */
+    public final String getPassword(final int index) {
+        return password != null ? password : getUsername(index);
+    }
+
+    /**
+     * Gets the resource, which the users bind.
+     *
+     * @return The resource.
+     */
+    public final String getResource() {
+        return resource;
+    }
+
+    /**
+     * Gets the duration, in which the users are connected. The connections are evenly spread over this duration.
+     *
+     * @return The ramp-up duration.
+     */
+    public final Duration getRampUp() {
+        return rampUp;
+    }
+
+    /**
+     * Gets the duration of the test after the ramp-up.
+     *
+     * @return The duration.
+     */
+    public final Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the time, after which a request or message without response is counted as timeout.
+     *
+     * @return The response timeout.
+     */
+    public final Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * Gets the multi-user chat service.
+     *
+     * @return The chat service.
+     */
+    public final Jid getChatService() {
+        return chatService;
+    }
+
+    /**
+     * Gets the behaviors, which each user performs.
+     *
+     * @return The behaviors.
+     */
+    public final List<Behavior> getBehaviors() {
+        return behaviors;
+    }
+
+    /**
+     * Gets the number of threads, which connect and log in users concurrently.
+     *
+     * @return The number of threads.
+     */
+    public final int getConnectThreads() {
+        return connectThreads;
+    }
+
+    @Override
+    public final String toString() {
+        return users + " users on " + hostname + ':' + port + " (" + domain + "), ramp-up " + rampUp + ", duration "
+                + duration + ", behaviors " + behaviors;
+    }
+
+    /**
+     * A builder to create a {@link LoadTestConfiguration}.
+     */
+    public static final class Builder {
+
+        private String hostname = "localhost";
+
+        private int port = 5222;
+
+        private String domain = "localhost";
+
+        private ChannelEncryption channelEncryption = ChannelEncryption.DISABLED;
+
+        private SSLContext sslContext;
+
+        private HostnameVerifier hostnameVerifier;
+
+        private int users = 100;
+
+        private String userPrefix = "load-";
+
+        private String password;
+
+        private String resource = "load";
+
+        private Duration rampUp = Duration.ofSeconds(10);
+
+        private Duration duration = Duration.ofMinutes(1);
+
+        private Duration responseTimeout = Duration.ofSeconds(10);
+
+        private Jid chatService;
+
+        private List<Behavior> behaviors = List.of();
+
+        private int connectThreads = 32;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the hostname of the server. The default is "localhost".
+         *
+         * @param hostname The hostname.
+         * @return The builder.
+         */
+        public final Builder hostname(final String hostname) {
+            this.hostname = hostname;
+            return this;
+        }
+
+        /**
+         * Sets the port of the server. The default is 5222.
+         *
+         * @param port The port.
+         * @return The builder.
+         */
+        public final Builder port(final int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the XMPP domain. The default is "localhost".
+         *
+         * @param domain The domain.
+         * @return The builder.
+         */
+        public final Builder domain(final String domain) {
+            this.domain = domain;
+            return this;
+        }
+
+        /**
+         * Sets the channel encryption. The default is {@link ChannelEncryption#DISABLED}, so that TLS does not
+         * distort the measurements unless it is wanted.
+         *
+         * @param channelEncryption The channel encryption.
+         * @return The builder.
+         */
+        public final Builder channelEncryption(final ChannelEncryption channelEncryption) {
+            this.channelEncryption = channelEncryption;
+            return this;
+        }
+
+        /**
+         * Sets the SSL context.
+         *
+         * @param sslContext The SSL context.
+         * @return The builder.
+         */
+        public final Builder sslContext(final SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Sets the hostname verifier.
+         *
+         * @param hostnameVerifier The hostname verifier.
+         * @return The builder.
+         */
+        public final Builder hostnameVerifier(final HostnameVerifier hostnameVerifier) {
+            this.hostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
+        /**
+         * Sets the number of simulated users. The default is 100.
+         *
+         * @param users The number of users.
+         * @return The builder.
+         */
+        public final Builder users(final int users) {
+            if (users < 1) {
+                throw new IllegalArgumentException("users must be positive.");
+            }
+            this.users = users;
+            return this;
+        }
+
+        /**
+         * Sets the username prefix. The default is "load-".
+         *
+         * @param userPrefix The prefix.
+         * @return The builder.
+         */
+        public final Builder userPrefix(final String userPrefix) {
+            this.userPrefix = userPrefix;
+            return this;
+        }
+
+        /**
+         * Sets the password of all users. By default, the username is used as password.
+         *
+         * @param password The password.
+         * @return The builder.
+         */
+        public final Builder password(final String password) {
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Sets the resource, which the users bind. The default is "load".
+         *
+         * @param resource The resource.
+         * @return The builder.
+         */
+        public final Builder resource(final String resource) {
+            this.resource = resource;
+            return this;
+        }
+
+        /**
+         * Sets the duration, over which the connections are evenly spread. The default is 10 seconds.
+         *
+         * @param rampUp The ramp-up duration.
+         * @return The builder.
+         */
+        public final Builder rampUp(final Duration rampUp) {
+            this.rampUp = rampUp;
+            return this;
+        }
+
+        /**
+         * Sets the duration of the test after the ramp-up. The default is 1 minute.
+         *
+         * @param duration The duration.
+         * @return The builder.
+         */
+        public final Builder duration(final Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * Sets the time, after which a request or message without response is counted as timeout. The default is 10
+         * seconds.
+         *
+         * @param responseTimeout The response timeout.
+         * @return The builder.
+         */
+        public final Builder responseTimeout(final Duration responseTimeout) {
+            this.responseTimeout = responseTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the multi-user chat service. The default is "conference." followed by the domain.
+         *
+         * @param chatService The chat service.
+         * @return The builder.
+         */
+        public final Builder chatService(final Jid chatService) {
+            this.chatService = chatService;
+            return this;
+        }
+
+        /**
+         * Sets the behaviors, which each user performs.
+         *
+         * @param behaviors The behaviors.
+         * @return The builder.
+         */
+        public final Builder behaviors(final Behavior... behaviors) {
+            this.behaviors = List.of(behaviors);
+            return this;
+        }
+
+        /**
+         * Sets the number of threads, which connect and log in users concurrently. The default is 32.
+         *
+         * @param connectThreads The number of threads.
+         * @return The builder.
+         */
+        public final Builder connectThreads(final int connectThreads) {
+            this.connectThreads = connectThreads;
+            return this;
+        }
+
+        /**
+         * Builds the configuration.
+         *
+         * @return The configuration.
+         */
+        public final LoadTestConfiguration build() {
+            return new LoadTestConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.extensions.muc.ChatRoom;
+import rocks.xmpp.extensions.muc.MultiUserChatManager;
+
+/**
+ * Lets each user enter one of a fixed number of chat rooms and periodically send a burst of group chat messages to
+ * it. The latency of each copy, which is reflected to an occupant, is recorded in the "muc" metric.
+ *
+ * @author Christian Schudt
+ */
+public final class MucBurst extends Behavior {
+
+    private final int rooms;
+
+    private final int burstSize;
+
+    private final Map<SimulatedUser, ChatRoom> chatRooms = new ConcurrentHashMap<>();
+
+    /**
+     * @param interval  The interval, in which each user sends a burst.
+     * @param rooms     The number of rooms, among which the users are distributed.
+     * @param burstSize The number of messages per burst.
+     */
+    public MucBurst(final Duration interval, final int rooms, final int burstSize) {
+        super("muc", interval);
+        if (rooms < 1 || burstSize < 1) {
+            throw new IllegalArgumentException("rooms and burstSize must be positive.");
+        }
+        this.rooms = rooms;
+        this.burstSize = burstSize;
+    }
+
+    @Override
+    protected final void setUp(final SimulatedUser user, final LoadContext context) throws XmppException {
+        final Jid roomJid = Jid.of("load-" + user.getIndex() % rooms + '@' + context.getChatService());
+        final ChatRoom chatRoom = user.getXmppClient().getManager(MultiUserChatManager.class).createChatRoom(roomJid);
+        try {
+            chatRoom.enter(user.getUsername())
+                    .getResult(context.getConfiguration().getResponseTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new XmppException("Could not enter " + roomJid + " in time.", e);
+        }
+        chatRooms.put(user, chatRoom);
+    }
+
+    @Override
+    protected final void perform(final SimulatedUser user, final LoadContext context, final long intendedTime) {
+        final ChatRoom chatRoom = chatRooms.get(user);
+        if (chatRoom == null) {
+            return;
+        }
+        for (int i = 0; i < burstSize; i++) {
+            final String id = context.nextId();
+            final Message message = new Message(null, Message.Type.GROUPCHAT, id);
+            message.setId(id);
+            context.expectDelivery(id, getName(), intendedTime, false);
+            chatRoom.sendMessage(message);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import rocks.xmpp.core.stanza.model.Message;
+
+/**
+ * Periodically sends a chat message to a random other user. The delivery latency is recorded in the "message" metric.
+ *
+ * @author Christian Schudt
+ */
+public final class OneToOneChat extends Behavior {
+
+    private final String body;
+
+    /**
+     * @param interval    The interval, in which each user sends a message.
+     * @param messageSize The number of characters of each message.
+     */
+    public OneToOneChat(final Duration interval, final int messageSize) {
+        super("message", interval);
+        final char[] chars = new char[messageSize];
+        Arrays.fill(chars, 'x');
+        this.body = new String(chars);
+    }
+
+    @Override
+    protected final void perform(final SimulatedUser user, final LoadContext context, final long intendedTime) {
+        final SimulatedUser peer = context.randomPeer(user);
+        if (peer == null) {
+            return;
+        }
+        final String id = context.nextId();
+        final Message message = new Message(peer.getJid(), Message.Type.CHAT, body);
+        message.setId(id);
+        context.expectDelivery(id, getName(), intendedTime, true);
+        user.getXmppClient().sendMessage(message);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rocks.xmpp.core.stanza.model.Presence;
+
+/**
+ * Periodically changes the availability status of a user, which causes the server to broadcast the presence to all
+ * contacts. The user never goes offline, so that other behaviors, e.g. entered chat rooms, are not affected.
+ *
+ * @author Christian Schudt
+ */
+public final class PresenceChurn extends Behavior {
+
+    private static final Presence.Show[] SHOWS = {Presence.Show.AWAY, Presence.Show.CHAT, Presence.Show.DND};
+
+    private final Map<SimulatedUser, Integer> changes = new ConcurrentHashMap<>();
+
+    /**
+     * @param interval The interval, in which each user changes its presence.
+     */
+    public PresenceChurn(final Duration interval) {
+        super("presence", interval);
+    }
+
+    @Override
+    protected final void perform(final SimulatedUser user, final LoadContext context, final long intendedTime) {
+        final int change = changes.merge(user, 1, Integer::sum);
+        // Every fourth change, the user becomes plainly available again.
+        final Presence presence = change % 4 == 0 ? new Presence() : new Presence(SHOWS[change % SHOWS.length]);
+        user.getXmppClient().sendPresence(presence);
+        context.increment(getName() + ".sent");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.load;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppClient;
+
+/**
+ * A simulated user, i.e. a logged in {@link XmppClient} and its index within the load test.
+ *
+ * @author Christian Schudt
+ */
+public final class SimulatedUser {
+
+    private final int index;
+
+    private final String username;
+
+    private final XmppClient xmppClient;
+
+    SimulatedUser(final int index, final String username, final XmppClient xmppClient) {
+        this.index = index;
+        this.username = username;
+        this.xmppClient = xmppClient;
+    }
+
+    /**
+     * Gets the index of this user, between 0 (inclusive) and the number of simulated users (exclusive).
+     *
+     * @return The index.
+     */
+    public final int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the username.
+     *
+     * @return The username.
+     */
+    public final String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the client session of this user.
+     *
+     * @return The client.
+     */
+    public final XmppClient getXmppClient() {
+        return xmppClient;
+    }
+
+    /**
+     * Gets the full JID, to which the user is bound.
+     *
+     * @return The JID.
+     */
+    public final Jid getJid() {
+        return xmppClient.getConnectedResource();
+    }
+
+    @Override
+    public final String toString() {
+        return username;
+    }
+}
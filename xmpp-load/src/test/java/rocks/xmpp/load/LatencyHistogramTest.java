@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.load;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        long previousHighest = -1;
+        for (int i = 0; i <= LatencyHistogram.indexOf(Long.MAX_VALUE); i++) {
+            final long lowest = LatencyHistogram.lowestValueAt(i);
+            final long highest = LatencyHistogram.highestValueAt(i);
+            // The buckets are contiguous.
+            Assert.assertEquals(lowest, previousHighest + 1);
+            Assert.assertEquals(LatencyHistogram.indexOf(lowest), i);
+            Assert.assertEquals(LatencyHistogram.indexOf(highest), i);
+            // The relative error is less than 1/64.
+            Assert.assertTrue(highest - lowest <= lowest / 64, "Bucket " + i + " is too wide.");
+            previousHighest = highest;
+        }
+        Assert.assertEquals(previousHighest, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(histogram.getCount(), 10000);
+        Assert.assertEquals(histogram.getMin(), 1000);
+        Assert.assertEquals(histogram.getMax(), 10000000);
+        Assert.assertEquals(histogram.getMean(), 5000500.0, 0.001);
+        assertWithin(histogram.getValueAtPercentile(50), 5000000);
+        assertWithin(histogram.getValueAtPercentile(99), 9900000);
+        assertWithin(histogram.getValueAtPercentile(99.9), 9990000);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 10000000);
+    }
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getMin(), 0);
+        Assert.assertEquals(histogram.getMax(), 0);
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testRecordSinceIntendedTime() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        // An action, which was scheduled a second ago, but is only completed now, has a latency of a second.
+        final long latency = histogram.recordSince(System.nanoTime() - 1000000000L);
+        Assert.assertTrue(latency >= 1000000000L);
+        Assert.assertEquals(histogram.getMax(), latency);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeValue() {
+        new LatencyHistogram().record(-1);
+    }
+
+    private static void assertWithin(final long actual, final long expected) {
+        Assert.assertTrue(Math.abs(actual - expected) <= expected / 64, actual + " is not close to " + expected);
+    }
+}
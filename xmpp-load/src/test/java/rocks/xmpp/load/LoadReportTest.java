@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.load;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class LoadReportTest {
+
+    @Test
+    public void testJson() throws IOException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000000);
+        histogram.record(3000000);
+        final Map<String, Long> counters = new TreeMap<>();
+        counters.put("message.sent", 2L);
+        counters.put("message.received", 2L);
+        final LoadReport report = new LoadReport(Instant.parse("2019-01-01T12:00:00Z"), Duration.ofMillis(1500), 10, 9,
+                counters, Map.of("message", histogram));
+
+        final StringWriter writer = new StringWriter();
+        report.writeJson(writer);
+        Assert.assertEquals(writer.toString(), "{\n"
+                + "  \"started\": \"2019-01-01T12:00:00Z\",\n"
+                + "  \"duration\": 1.500,\n"
+                + "  \"users\": {\"configured\": 10, \"connected\": 9},\n"
+                + "  \"counters\": {\"message.received\": 2, \"message.sent\": 2},\n"
+                + "  \"latencies\": {\n"
+                + "    \"message\": {\"count\": 2, \"min\": 1.000, \"mean\": 2.000, \"p50\": 1.008, \"p90\": 3.000, "
+                + "\"p99\": 3.000, \"p99.9\": 3.000, \"max\": 3.000}\n"
+                + "  }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void testEmptyJson() throws IOException {
+        final LoadReport report = new LoadReport(Instant.parse("2019-01-01T12:00:00Z"), Duration.ZERO, 1, 0,
+                Map.of("connect.failed", 1L), Map.of());
+
+        final StringWriter writer = new StringWriter();
+        report.writeJson(writer);
+        Assert.assertTrue(writer.toString().contains("\"counters\": {\"connect.failed\": 1},\n  \"latencies\": {}\n"));
+    }
+}
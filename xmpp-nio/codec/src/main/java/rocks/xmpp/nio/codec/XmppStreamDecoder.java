@@ -28,11 +28,15 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -47,9 +51,14 @@ import com.fasterxml.aalto.AsyncByteBufferFeeder;
 import com.fasterxml.aalto.AsyncXMLInputFactory;
 import com.fasterxml.aalto.AsyncXMLStreamReader;
 import com.fasterxml.aalto.stax.InputFactoryImpl;
+import org.w3c.dom.Element;
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.jfr.StanzaDecodeEvent;
+import rocks.xmpp.core.jfr.UnmarshalEvent;
 import rocks.xmpp.core.net.ReaderInterceptor;
 import rocks.xmpp.core.net.ReaderInterceptorChain;
+import rocks.xmpp.core.stanza.model.ExtensibleStanza;
+import rocks.xmpp.core.stanza.model.LazyExtension;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamErrorException;
@@ -65,12 +74,22 @@ import rocks.xmpp.core.stream.model.errors.Condition;
  * <p>Stream restarts can be achieved by using the {@link #restart()} methods. Decoding and restarts are thread-safe,
  * i.e. can be called by different threads.</p>
  *
+ * <p>In lazy mode, extension elements of messages and presences are not unmarshalled, but kept as
+ * {@link LazyExtension}, which are only bound, when they are accessed. This is useful for routing entities (e.g.
+ * servers), which usually don't care for most of the payload, but only route it to the recipient. An extension is only
+ * kept as raw XML, if it is self-contained, i.e. if it declares its own default namespace and any prefix it uses.</p>
+ *
  * @author Christian Schudt
  */
 public final class XmppStreamDecoder implements ReaderInterceptor {
 
     private static final AsyncXMLInputFactory XML_INPUT_FACTORY = new InputFactoryImpl();
 
+    /**
+     * Replaces a lazy extension in the stanza, which is unmarshalled.
+     */
+    private static final String PLACEHOLDER = "<lazy xmlns=\"" + LazyExtension.NAMESPACE + "\"/>";
+
     private final Function<Locale, Unmarshaller> unmarshaller;
 
     private byte[] byteStream = new byte[0];
@@ -85,6 +104,24 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
 
     private StreamElement streamElement;
 
+    private final boolean lazyExtensions;
+
+    /**
+     * The ranges (relative to the current element) and names of the self-contained extensions of the current stanza.
+     */
+    private final List<LazyRange> lazyRanges = new ArrayList<>();
+
+    /**
+     * The prefixes, which are declared inside the current extension, per depth.
+     */
+    private final Deque<Set<String>> declaredPrefixes = new ArrayDeque<>();
+
+    private boolean lazyStanza;
+
+    private boolean lazyCandidate;
+
+    private long lazyStart;
+
     /**
      * Creates the XMPP decoder.
      *
@@ -94,7 +131,18 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
      * @param unmarshaller Supplies the unmarshaller which will convert XML to objects.
      */
     public XmppStreamDecoder(final Function<Locale, Unmarshaller> unmarshaller) {
+        this(unmarshaller, false);
+    }
+
+    /**
+     * Creates the XMPP decoder.
+     *
+     * @param unmarshaller   Supplies the unmarshaller which will convert XML to objects.
+     * @param lazyExtensions True, if extensions of messages and presences should be kept as {@link LazyExtension}.
+     */
+    public XmppStreamDecoder(final Function<Locale, Unmarshaller> unmarshaller, final boolean lazyExtensions) {
         this.unmarshaller = unmarshaller;
+        this.lazyExtensions = lazyExtensions;
         this.restart();
     }
 
@@ -198,9 +246,14 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                             streamElement = streamHeader;
 
                             out.accept(streamHeaderStr, streamHeader);
+                        } else if (lazyExtensions) {
+                            startLazyElement();
                         }
                         break;
                     case XMLStreamConstants.END_ELEMENT:
+                        if (lazyCandidate) {
+                            endLazyElement();
+                        }
                         // Only care for the root element (<stream:stream/>) and first level elements (e.g. stanzas).
                         if (xmlStreamReader.getDepth() < 3) {
                             // A full XML element has been read from the channel.
@@ -221,6 +274,29 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                                 streamElement = StreamHeader.CLOSING_STREAM_TAG;
                                 out.accept(element, StreamHeader.CLOSING_STREAM_TAG);
                             } else {
+                                final StanzaDecodeEvent decodeEvent = new StanzaDecodeEvent();
+                                decodeEvent.begin();
+
+                                // Cut out the self-contained extensions (if any) and keep them as raw XML.
+                                final String skeleton;
+                                final List<String> lazyXml = new ArrayList<>(lazyRanges.size());
+                                if (lazyRanges.isEmpty()) {
+                                    skeleton = element;
+                                } else {
+                                    final StringBuilder sb = new StringBuilder();
+                                    int position = 0;
+                                    for (final LazyRange range : lazyRanges) {
+                                        // Leave a placeholder, so that the extension keeps its position.
+                                        sb.append(new String(byteStream, position, range.start - position,
+                                                StandardCharsets.UTF_8)).append(PLACEHOLDER);
+                                        lazyXml.add(new String(byteStream, range.start, range.end - range.start,
+                                                StandardCharsets.UTF_8));
+                                        position = range.end;
+                                    }
+                                    sb.append(new String(byteStream, position, elementLength - position,
+                                            StandardCharsets.UTF_8));
+                                    skeleton = sb.toString();
+                                }
 
                                 //xmlStream.delete(0, element.length());
                                 byteStream = Arrays.copyOfRange(byteStream, elementLength, byteStream.length);
@@ -228,7 +304,7 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                                 // Create a partial stream, which always consists of the stream header
                                 // (to have namespace declarations) and the current element.
                                 // Add one more byte to prevent EOF Exception.
-                                String partialStream = streamHeader + element + ' ';
+                                String partialStream = streamHeader + skeleton + ' ';
                                 XMLStreamReader reader = null;
 
                                 try (Reader stringReader = new StringReader(partialStream)) {
@@ -243,10 +319,39 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
                                     while (reader.hasNext() && t != XMLStreamConstants.START_ELEMENT) {
                                         t = reader.next();
                                     }
+                                    final UnmarshalEvent unmarshalEvent = new UnmarshalEvent();
+                                    unmarshalEvent.begin();
                                     streamElement = (StreamElement) unmarshaller.apply(streamHeader.getLanguage())
                                             .unmarshal(reader);
+                                    unmarshalEvent.end();
+                                    if (unmarshalEvent.shouldCommit()) {
+                                        unmarshalEvent.element = xmlStreamReader.getLocalName();
+                                        unmarshalEvent.elementType = streamElement.getClass();
+                                        unmarshalEvent.commit();
+                                    }
+                                    if (!lazyXml.isEmpty()) {
+                                        final ExtensibleStanza stanza = (ExtensibleStanza) streamElement;
+                                        final Locale language = stanza.getLanguage() != null
+                                                ? stanza.getLanguage() : streamHeader.getLanguage();
+                                        final List<Object> extensions = stanza.getExtensions();
+                                        int i = 0;
+                                        for (int j = 0; j < extensions.size() && i < lazyXml.size(); j++) {
+                                            if (isPlaceholder(extensions.get(j))) {
+                                                extensions.set(j, new LazyExtension(lazyXml.get(i),
+                                                        lazyRanges.get(i).name, language, unmarshaller));
+                                                i++;
+                                            }
+                                        }
+                                    }
+                                    decodeEvent.end();
+                                    if (decodeEvent.shouldCommit()) {
+                                        decodeEvent.bytes = elementLength;
+                                        decodeEvent.element = xmlStreamReader.getLocalName();
+                                        decodeEvent.commit();
+                                    }
                                     out.accept(element, streamElement);
                                 } finally {
+                                    lazyRanges.clear();
                                     if (reader != null) {
                                         reader.close();
                                     }
@@ -277,6 +382,93 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
         }
     }
 
+    /**
+     * Tracks the start of elements below the stream header in lazy mode and records the start of self-contained
+     * extensions of messages and presences.
+     */
+    private void startLazyElement() throws XMLStreamException {
+        final int depth = xmlStreamReader.getDepth();
+        if (depth == 2) {
+            final String localName = xmlStreamReader.getLocalName();
+            lazyStanza = Objects.equals(xmlStreamReader.getNamespaceURI(), streamHeader.getContentNamespace())
+                    && ("message".equals(localName) || "presence".equals(localName));
+        } else if (depth == 3 && lazyStanza) {
+            final String namespaceUri = xmlStreamReader.getNamespaceURI();
+            if (LazyExtension.NAMESPACE.equals(namespaceUri)) {
+                // A placeholder sent by a peer, which could be confused with our own placeholders.
+                lazyStanza = false;
+                lazyRanges.clear();
+                return;
+            }
+            // The extension must be in its own namespace and declare it as default namespace, so that it's
+            // self-contained.
+            lazyCandidate = namespaceUri != null && !namespaceUri.isEmpty()
+                    && !namespaceUri.equals(streamHeader.getContentNamespace())
+                    && XMLConstants.DEFAULT_NS_PREFIX.equals(Objects.toString(xmlStreamReader.getPrefix(),
+                    XMLConstants.DEFAULT_NS_PREFIX))
+                    && namespaceUri.equals(declaredNamespace(XMLConstants.DEFAULT_NS_PREFIX));
+            if (lazyCandidate) {
+                lazyStart = xmlStreamReader.getLocationInfo().getStartingByteOffset();
+                declaredPrefixes.clear();
+                pushDeclaredPrefixes();
+            }
+        } else if (lazyCandidate) {
+            pushDeclaredPrefixes();
+        }
+    }
+
+    private static boolean isPlaceholder(final Object extension) {
+        return extension instanceof LazyExtension || (extension instanceof Element
+                && LazyExtension.NAMESPACE.equals(((Element) extension).getNamespaceURI()));
+    }
+
+    /**
+     * Tracks the end of elements inside an extension in lazy mode and records the range of a self-contained extension.
+     */
+    private void endLazyElement() throws XMLStreamException {
+        declaredPrefixes.pop();
+        if (xmlStreamReader.getDepth() == 3) {
+            lazyCandidate = false;
+            lazyRanges.add(new LazyRange((int) (lazyStart - elementEnd),
+                    (int) (xmlStreamReader.getLocationInfo().getEndingByteOffset() - elementEnd),
+                    xmlStreamReader.getName()));
+        }
+    }
+
+    private void pushDeclaredPrefixes() {
+        final Set<String> prefixes = new HashSet<>();
+        for (int i = 0; i < xmlStreamReader.getNamespaceCount(); i++) {
+            prefixes.add(Objects.toString(xmlStreamReader.getNamespacePrefix(i), XMLConstants.DEFAULT_NS_PREFIX));
+        }
+        declaredPrefixes.push(prefixes);
+        // Any prefix used by the element or its attributes must be declared inside the extension.
+        boolean selfContained = isDeclared(xmlStreamReader.getPrefix());
+        for (int i = 0; i < xmlStreamReader.getAttributeCount() && selfContained; i++) {
+            selfContained = isDeclared(xmlStreamReader.getAttributePrefix(i));
+        }
+        if (!selfContained) {
+            lazyCandidate = false;
+            declaredPrefixes.clear();
+        }
+    }
+
+    private boolean isDeclared(final String prefix) {
+        if (prefix == null || prefix.isEmpty() || XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return true;
+        }
+        return declaredPrefixes.stream().anyMatch(prefixes -> prefixes.contains(prefix));
+    }
+
+    private String declaredNamespace(final String prefix) {
+        for (int i = 0; i < xmlStreamReader.getNamespaceCount(); i++) {
+            if (prefix.equals(Objects.toString(xmlStreamReader.getNamespacePrefix(i),
+                    XMLConstants.DEFAULT_NS_PREFIX))) {
+                return xmlStreamReader.getNamespaceURI(i);
+            }
+        }
+        return null;
+    }
+
     /**
      * Restarts the stream, i.e. a new reader will be created.
      */
@@ -284,6 +476,10 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
         byteStream = new byte[0];
         xmlStreamReader = XML_INPUT_FACTORY.createAsyncForByteBuffer();
         elementEnd = 0;
+        lazyRanges.clear();
+        declaredPrefixes.clear();
+        lazyStanza = false;
+        lazyCandidate = false;
     }
 
     @Override
@@ -297,4 +493,19 @@ public final class XmppStreamDecoder implements ReaderInterceptor {
             chain.proceed(reader, streamElementListener);
         }
     }
+
+    private static final class LazyRange {
+
+        private final int start;
+
+        private final int end;
+
+        private final QName name;
+
+        private LazyRange(final int start, final int end, final QName name) {
+            this.start = start;
+            this.end = end;
+            this.name = name;
+        }
+    }
 }
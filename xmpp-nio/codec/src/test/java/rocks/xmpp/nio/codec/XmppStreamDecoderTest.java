@@ -24,6 +24,7 @@
 
 package rocks.xmpp.nio.codec;
 
+import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -34,19 +35,27 @@ import jakarta.xml.bind.DataBindingException;
 import jakarta.xml.bind.DatatypeConverter;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import org.w3c.dom.Element;
 import rocks.xmpp.core.sasl.model.Auth;
 import rocks.xmpp.core.sasl.model.Response;
+import rocks.xmpp.core.stanza.model.LazyExtension;
+import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.client.ClientIQ;
 import rocks.xmpp.core.stanza.model.client.ClientMessage;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamErrorException;
 import rocks.xmpp.core.stream.model.StreamHeader;
 import rocks.xmpp.core.stream.model.errors.Condition;
+import rocks.xmpp.extensions.delay.model.DelayedDelivery;
+import rocks.xmpp.extensions.privatedata.rosterdelimiter.model.RosterDelimiter;
+import rocks.xmpp.util.XmppStreamEncoder;
 
 /**
  * @author Christian Schudt
@@ -57,7 +66,8 @@ public class XmppStreamDecoderTest {
 
     static {
         try {
-            JAXB_CONTEXT = JAXBContext.newInstance(Auth.class, Response.class, ClientIQ.class, ClientMessage.class);
+            JAXB_CONTEXT = JAXBContext.newInstance(Auth.class, Response.class, ClientIQ.class, ClientMessage.class,
+                    DelayedDelivery.class, LazyExtension.class);
         } catch (JAXBException e) {
             throw new DataBindingException(e);
         }
@@ -123,6 +133,107 @@ public class XmppStreamDecoderTest {
 
     }
 
+    @Test
+    public void testLazyExtensions() throws Exception {
+
+        XmppStreamDecoder decoder = new XmppStreamDecoder(locale -> UNMARSHALLER.get(), true);
+
+        String message = "<message to=\"juliet@example.com\" type=\"chat\"><body>H\u00e9llo</body>"
+                + "<delay xmlns=\"urn:xmpp:delay\" stamp=\"2002-09-10T23:08:25Z\">Offline \ud83d\ude0d</delay>"
+                + "<p:w xmlns:p=\"urn:p\"/>"
+                + "<x xmlns=\"urn:test\"  a=\"1\"><y xmlns:p=\"urn:p\" p:b=\"2\"/></x>"
+                + "<z xmlns:q=\"urn:q\" xmlns=\"urn:z\"><q:unknown/></z></message>";
+        ByteBuffer buf = ByteBuffer.wrap(("<stream:stream xmlns=\"jabber:client\" "
+                + "xmlns:stream=\"http://etherx.jabber.org/streams\" version=\"1.0\">" + message)
+                .getBytes(StandardCharsets.UTF_8));
+
+        List<String> elements = new ArrayList<>();
+        List<Object> out = new ArrayList<>();
+        decoder.decode(buf, (s, streamElement) -> {
+            elements.add(s);
+            out.add(streamElement);
+        });
+        Assert.assertEquals(out.size(), 2);
+        Assert.assertEquals(elements.get(1), message);
+
+        Message decoded = (Message) out.get(1);
+        Assert.assertEquals(decoded.getBody(), "H\u00e9llo");
+        // The extension, which is not self-contained, is bound eagerly, but the order is kept.
+        Assert.assertEquals(decoded.getExtensions().size(), 4);
+        Assert.assertTrue(decoded.getExtensions().get(1) instanceof Element);
+        Assert.assertEquals(decoded.getExtensions().stream().filter(extension -> extension instanceof LazyExtension)
+                .count(), 3);
+        Assert.assertEquals(((LazyExtension) decoded.getExtensions().get(0)).getXml(),
+                "<delay xmlns=\"urn:xmpp:delay\" stamp=\"2002-09-10T23:08:25Z\">Offline \ud83d\ude0d</delay>");
+        Assert.assertEquals(((LazyExtension) decoded.getExtensions().get(3)).getName(), new QName("urn:z", "z"));
+
+        // Extensions with another element name are not bound, when looking for an extension.
+        Assert.assertFalse(decoded.hasExtension(RosterDelimiter.class));
+        Assert.assertEquals(decoded.getExtensions().stream().filter(extension -> extension instanceof LazyExtension)
+                .count(), 3);
+
+        // Unbound extensions are written verbatim.
+        XmppStreamEncoder encoder = new XmppStreamEncoder(XMLOutputFactory.newFactory(),
+                () -> createMarshaller(), s -> false);
+        StringWriter writer = new StringWriter();
+        encoder.encode(decoded, writer);
+        Assert.assertEquals(writer.toString(), "<message xmlns=\"jabber:client\" to=\"juliet@example.com\" type=\"chat\">"
+                + "<body>H\u00e9llo</body>"
+                + "<delay xmlns=\"urn:xmpp:delay\" stamp=\"2002-09-10T23:08:25Z\">Offline \ud83d\ude0d</delay>"
+                + "<w xmlns=\"urn:p\"/>"
+                + "<x xmlns=\"urn:test\"  a=\"1\"><y xmlns:p=\"urn:p\" p:b=\"2\"/></x>"
+                + "<z xmlns:q=\"urn:q\" xmlns=\"urn:z\"><q:unknown/></z></message>");
+
+        // Accessing an extension binds it.
+        DelayedDelivery delayedDelivery = decoded.getExtension(DelayedDelivery.class);
+        Assert.assertNotNull(delayedDelivery);
+        Assert.assertEquals(delayedDelivery.getReason(), "Offline \ud83d\ude0d");
+        Assert.assertSame(decoded.getExtensions().get(0), delayedDelivery);
+        Assert.assertEquals(decoded.getExtensions(Element.class).size(), 3);
+    }
+
+    @Test
+    public void testLazyExtensionsNotSelfContained() throws Exception {
+
+        XmppStreamDecoder decoder = new XmppStreamDecoder(locale -> UNMARSHALLER.get(), true);
+
+        ByteBuffer buf = ByteBuffer.wrap(("<stream:stream xmlns=\"jabber:client\" "
+                + "xmlns:stream=\"http://etherx.jabber.org/streams\" version=\"1.0\">"
+                + "<message xmlns:p=\"urn:p\"><x xmlns=\"urn:test\"><p:y/></x><p:z/></message>"
+                + "<message><lazy xmlns=\"urn:xmpp:babbler:lazy\">&lt;x/&gt;</lazy></message>"
+                + "<iq id=\"1\" type=\"get\"><delay xmlns=\"urn:xmpp:delay\" stamp=\"2002-09-10T23:08:25Z\"/></iq>")
+                .getBytes(StandardCharsets.UTF_8));
+
+        List<Object> out = new ArrayList<>();
+        decoder.decode(buf, (s, streamElement) -> out.add(streamElement));
+        Assert.assertEquals(out.size(), 4);
+
+        Message message = (Message) out.get(1);
+        Assert.assertEquals(message.getExtensions().size(), 2);
+        Assert.assertTrue(message.getExtensions().stream().noneMatch(extension -> extension instanceof LazyExtension));
+
+        // A placeholder sent by a peer is neither kept as raw XML nor written.
+        Message spoofed = (Message) out.get(2);
+        LazyExtension lazyExtension = spoofed.getExtension(LazyExtension.class);
+        Assert.assertNotNull(lazyExtension);
+        Assert.assertNull(lazyExtension.getXml());
+        XmppStreamEncoder encoder = new XmppStreamEncoder(XMLOutputFactory.newFactory(),
+                () -> createMarshaller(), s -> false);
+        StringWriter writer = new StringWriter();
+        encoder.encode(spoofed, writer);
+        Assert.assertEquals(writer.toString(), "<message xmlns=\"jabber:client\"/>");
+
+        Assert.assertTrue(((ClientIQ) out.get(3)).getExtension(DelayedDelivery.class) != null);
+    }
+
+    private static Marshaller createMarshaller() {
+        try {
+            return JAXB_CONTEXT.createMarshaller();
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    }
+
     @Test(enabled = false)
     public void testPerformance() throws StreamErrorException {
         XmppStreamDecoder decoder = new XmppStreamDecoder(locale -> UNMARSHALLER.get());
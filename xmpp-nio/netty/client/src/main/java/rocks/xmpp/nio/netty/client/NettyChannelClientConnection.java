@@ -24,6 +24,8 @@
 
 package rocks.xmpp.nio.netty.client;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.time.Duration;
@@ -45,6 +47,7 @@ import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.Future;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.net.client.TcpConnectionConfiguration;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.stream.client.StreamFeaturesManager;
@@ -89,10 +92,23 @@ final class NettyChannelClientConnection extends NettyChannelConnection {
                 xmppSession.getWriterInterceptors(),
                 xmppSession::createMarshaller,
                 xmppSession::notifyException,
-                connectionConfiguration);
+                connectionConfiguration,
+                false,
+                null,
+                xmppSession.getConfiguration().getMetricsRegistry());
         this.xmppSession = xmppSession;
         this.connectionConfiguration = connectionConfiguration;
 
+        final Path trafficCaptureDirectory = xmppSession.getConfiguration().getTrafficCaptureDirectory();
+        if (trafficCaptureDirectory != null) {
+            try {
+                setTrafficCapture(TrafficCapture.create(trafficCaptureDirectory, TrafficCapture.DEFAULT_CAPACITY));
+            } catch (IOException e) {
+                logger.log(System.Logger.Level.WARNING, "Could not create traffic capture in "
+                        + trafficCaptureDirectory, e);
+            }
+        }
+
         Duration keepAliveInterval = connectionConfiguration.getKeepAliveInterval();
 
         if (keepAliveInterval != null && !keepAliveInterval.isNegative() && !keepAliveInterval.isZero()) {
@@ -34,9 +34,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.proxy.HttpProxyHandler;
 import io.netty.handler.proxy.Socks5ProxyHandler;
 import rocks.xmpp.core.net.Connection;
@@ -47,6 +45,7 @@ import rocks.xmpp.core.net.client.TransportConnector;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.session.model.SessionOpen;
 import rocks.xmpp.nio.netty.net.NettyChannelConnection;
+import rocks.xmpp.nio.netty.net.NettyTransport;
 
 /**
  * A TCP transport connector which uses the {@link Channel}.
@@ -71,30 +70,38 @@ import rocks.xmpp.nio.netty.net.NettyChannelConnection;
  */
 public final class NettyChannelConnector extends AbstractTcpConnector<Channel> {
 
-    private final EventLoopGroup eventLoopGroup;
+    private final NettyTransport transport;
 
     /**
-     * Creates a connector using a default {@link NioEventLoopGroup}.
+     * Creates a connector using the {@linkplain NettyTransport#shared() shared transport}, i.e. all sessions share the
+     * same I/O threads.
      */
     public NettyChannelConnector() {
-        this(new NioEventLoopGroup());
+        this(NettyTransport.shared());
     }
 
     /**
-     * Creates a connector using a given {@link NioEventLoopGroup}.
+     * Creates a connector using a given event loop group.
      *
      * @param eventLoopGroup The Netty event loop group.
      */
     public NettyChannelConnector(EventLoopGroup eventLoopGroup) {
-        this.eventLoopGroup = Objects.requireNonNull(eventLoopGroup);
+        this(NettyTransport.builder().eventLoopGroup(Objects.requireNonNull(eventLoopGroup)).build());
+    }
+
+    /**
+     * Creates a connector using a given transport, e.g. with a different transport type or channel options.
+     *
+     * @param transport The transport.
+     */
+    public NettyChannelConnector(NettyTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
     }
 
     @Override
     protected final CompletableFuture<Channel> connect(final String hostname, final int port,
                                                        final TcpConnectionConfiguration configuration) {
-        final Bootstrap b = new Bootstrap();
-        b.group(eventLoopGroup);
-        b.channel(NioSocketChannel.class);
+        final Bootstrap b = transport.bootstrap();
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, configuration.getConnectTimeout());
         b.handler(new ChannelInitializer<SocketChannel>() {
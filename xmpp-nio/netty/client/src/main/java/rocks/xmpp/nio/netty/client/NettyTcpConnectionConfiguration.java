@@ -28,7 +28,6 @@ import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.net.client.ClientConnectionConfiguration;
 import rocks.xmpp.core.net.client.TcpConnectionConfiguration;
@@ -36,6 +35,7 @@ import rocks.xmpp.core.net.client.TransportConnector;
 import rocks.xmpp.core.session.XmppSession;
 import rocks.xmpp.core.session.model.SessionOpen;
 import rocks.xmpp.extensions.compress.CompressionMethod;
+import rocks.xmpp.nio.netty.net.NettyTransport;
 
 /**
  * @author Christian Schudt
@@ -52,7 +52,9 @@ public final class NettyTcpConnectionConfiguration extends ClientConnectionConfi
     private NettyTcpConnectionConfiguration(final NettyTcpConnectionConfiguration.Builder builder) {
         super(builder);
         this.keepAliveInterval = builder.keepAliveInterval;
-        this.eventLoopGroup = builder.eventLoopGroup != null ? builder.eventLoopGroup : new NioEventLoopGroup();
+        this.eventLoopGroup = builder.eventLoopGroup != null
+                ? builder.eventLoopGroup
+                : NettyTransport.shared().getEventLoopGroup();
     }
 
     /**
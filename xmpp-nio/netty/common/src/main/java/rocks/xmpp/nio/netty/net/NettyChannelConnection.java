@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -41,6 +43,7 @@ import javax.xml.stream.XMLOutputFactory;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.compression.JdkZlibDecoder;
 import io.netty.handler.codec.compression.JdkZlibEncoder;
 import io.netty.handler.codec.compression.ZlibWrapper;
@@ -50,29 +53,53 @@ import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.concurrent.Future;
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.metrics.MetricsRegistry;
 import rocks.xmpp.core.net.ConnectionConfiguration;
 import rocks.xmpp.core.net.ReaderInterceptor;
 import rocks.xmpp.core.net.TcpConnection;
 import rocks.xmpp.core.net.WriterInterceptor;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.session.model.SessionOpen;
+import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stream.StreamHandler;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamHeader;
 import rocks.xmpp.util.XmppStreamEncoder;
+import rocks.xmpp.util.concurrent.QueuedExecutorService;
 
 /**
  * A NIO connection based on Netty.
  *
+ * <p>By default, decoded elements are handled on the channel's I/O thread. If an executor is passed, they are handled
+ * in order by this executor instead, so that blocking operations while handling an element (e.g. authentication or
+ * database queries) do not block the I/O thread, which usually serves many other connections. The I/O thread then only
+ * decodes the elements. Reading from the channel is paused, while an element, which is not a stanza (e.g. a SASL or
+ * STARTTLS element), is handled, because it may change the stream, and while too many stanzas are pending.</p>
+ *
  * @author Christian Schudt
  */
 public class NettyChannelConnection extends TcpConnection {
 
+    /**
+     * The maximum number of decoded stanzas, which are waiting to be handled, before reading from the channel is
+     * paused.
+     */
+    private static final int MAX_PENDING_STANZAS = 64;
+
     protected final Channel channel;
 
     private final NettyXmppDecoder decoder;
 
+    private final Executor executor;
+
+    private final AtomicInteger pendingStanzas = new AtomicInteger();
+
+    private final AtomicInteger pendingStreamElements = new AtomicInteger();
+
     protected SessionOpen sessionOpen;
 
+    private volatile TrafficCapture trafficCapture;
+
     public NettyChannelConnection(final Channel channel,
                                   final StreamHandler streamHandler,
                                   final Session session,
@@ -82,10 +109,36 @@ public class NettyChannelConnection extends TcpConnection {
                                   final Supplier<Marshaller> marshallerSupplier,
                                   final Consumer<Throwable> onException,
                                   final ConnectionConfiguration connectionConfiguration) {
-        super(connectionConfiguration, streamHandler, onException);
+        this(channel, streamHandler, session, readerInterceptors, unmarshallerSupplier, writerInterceptors,
+                marshallerSupplier, onException, connectionConfiguration, false, null, MetricsRegistry.noop());
+    }
+
+    /**
+     * @param lazyExtensions  True, if extensions of inbound messages and presences should be kept as raw XML until
+     *                        they are accessed.
+     * @param executor        The executor, which handles decoded elements. Elements are handled in order, even if the
+     *                        executor is shared with other connections. If null, elements are handled on the I/O
+     *                        thread.
+     * @param metricsRegistry The registry, which receives the totals of the {@linkplain #getMetrics() metrics}.
+     * @see rocks.xmpp.core.stanza.model.LazyExtension
+     */
+    public NettyChannelConnection(final Channel channel,
+                                  final StreamHandler streamHandler,
+                                  final Session session,
+                                  final List<ReaderInterceptor> readerInterceptors,
+                                  final Function<Locale, Unmarshaller> unmarshallerSupplier,
+                                  final List<WriterInterceptor> writerInterceptors,
+                                  final Supplier<Marshaller> marshallerSupplier,
+                                  final Consumer<Throwable> onException,
+                                  final ConnectionConfiguration connectionConfiguration,
+                                  final boolean lazyExtensions,
+                                  final Executor executor,
+                                  final MetricsRegistry metricsRegistry) {
+        super(connectionConfiguration, streamHandler, onException, metricsRegistry);
         this.channel = channel;
-        this.decoder = new NettyXmppDecoder(this::handleElement, readerInterceptors, unmarshallerSupplier, onException,
-                session, this);
+        this.executor = executor != null ? new QueuedExecutorService(executor) : null;
+        this.decoder = new NettyXmppDecoder(this::dispatchElement, readerInterceptors, unmarshallerSupplier,
+                onException, session, this, lazyExtensions);
         List<WriterInterceptor> interceptors = new ArrayList<>(writerInterceptors);
         interceptors.add(new XmppStreamEncoder(XMLOutputFactory.newFactory(), marshallerSupplier, s -> false));
         channel.pipeline().addLast(decoder, new NettyXmppEncoder(interceptors, onException, session, this));
@@ -110,6 +163,69 @@ public class NettyChannelConnection extends TcpConnection {
         return completableFuture;
     }
 
+    /**
+     * Handles a decoded element, either directly or by the executor. Called on the I/O thread.
+     *
+     * @param streamElement The element.
+     */
+    private void dispatchElement(final StreamElement streamElement) {
+        if (executor == null) {
+            handleElement(streamElement);
+            return;
+        }
+        final boolean stanza = streamElement instanceof Stanza;
+        if (stanza) {
+            pendingStanzas.incrementAndGet();
+        } else {
+            pendingStreamElements.incrementAndGet();
+        }
+        updateAutoRead();
+        executor.execute(() -> {
+            try {
+                handleElement(streamElement);
+            } catch (Exception e) {
+                channel.pipeline().fireExceptionCaught(new DecoderException(e));
+            } finally {
+                if (stanza) {
+                    pendingStanzas.decrementAndGet();
+                } else {
+                    pendingStreamElements.decrementAndGet();
+                }
+                // Auto read must only be toggled by the I/O thread, so that it reflects the latest pending counts.
+                channel.eventLoop().execute(this::updateAutoRead);
+            }
+        });
+    }
+
+    private void updateAutoRead() {
+        final boolean autoRead = pendingStreamElements.get() == 0 && pendingStanzas.get() < MAX_PENDING_STANZAS;
+        if (channel.config().isAutoRead() != autoRead) {
+            channel.config().setAutoRead(autoRead);
+        }
+    }
+
+    /**
+     * Captures the raw traffic of this connection, i.e. the XML stream above TLS and compression. The capture is
+     * closed, when the channel is closed.
+     *
+     * @param trafficCapture The capture or null, to stop capturing.
+     */
+    public final void setTrafficCapture(final TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+        if (trafficCapture != null) {
+            channel.closeFuture().addListener(future -> trafficCapture.close());
+        }
+    }
+
+    /**
+     * Gets the capture of the raw traffic of this connection.
+     *
+     * @return The capture or null.
+     */
+    public final TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
     @Override
     public final InetSocketAddress getRemoteAddress() {
         return (InetSocketAddress) channel.remoteAddress();
@@ -134,6 +250,7 @@ public class NettyChannelConnection extends TcpConnection {
     private CompletionStage<Void> write(final StreamElement streamElement,
                                         final Function<StreamElement, ChannelFuture> writeFunction) {
         if (!isClosed() || streamElement == StreamHeader.CLOSING_STREAM_TAG) {
+            getMetrics().elementSent(streamElement);
             return completableFutureFromNettyFuture(writeFunction.apply(streamElement));
         } else {
             final CompletableFuture<Void> completableFuture = new CompletableFuture<>();
@@ -153,6 +270,7 @@ public class NettyChannelConnection extends TcpConnection {
         SslContext sslCtx = new JdkSslContext(sslContext, false, ClientAuth.NONE);
         final SslHandler handler = new SslHandler(sslCtx.newEngine(channel.alloc()), true);
         channel.pipeline().addFirst("SSL", handler);
+        getMetrics().secured();
     }
 
     /**
@@ -189,6 +307,7 @@ public class NettyChannelConnection extends TcpConnection {
             channel.pipeline().addFirst("decompressor", new JdkZlibDecoder(zlibWrapper));
             channel.pipeline().addFirst("compressor", new JdkZlibEncoder(zlibWrapper));
         }
+        getMetrics().compressed();
     }
 
     @Override
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.nio.netty.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLException;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.ReferenceCountUtil;
+import rocks.xmpp.core.net.capture.TrafficReplay;
+
+/**
+ * Replays captured traffic against a server, e.g. an embedded test server, in order to reproduce an incident or to
+ * generate load.
+ *
+ * <p>The replayed bytes are sent as they were captured, the server's responses are discarded. Because a capture
+ * contains the XML stream above TLS, a capture of a connection, which used direct TLS, must be replayed with an
+ * {@link SslContext}. Captures of connections, which negotiated STARTTLS or compression, cannot be replayed
+ * verbatim.</p>
+ *
+ * <p>It can also be run from the command line:</p>
+ * <pre>
+ * java rocks.xmpp.nio.netty.net.NettyTrafficReplay &lt;capture file&gt; &lt;host&gt; &lt;port&gt; [speed] [--tls]
+ * </pre>
+ *
+ * @author Christian Schudt
+ * @see rocks.xmpp.core.net.capture.TrafficCapture
+ * @see NettyChannelConnection#setTrafficCapture(rocks.xmpp.core.net.capture.TrafficCapture)
+ */
+public final class NettyTrafficReplay {
+
+    private final TrafficReplay trafficReplay;
+
+    /**
+     * @param trafficReplay The replay.
+     */
+    public NettyTrafficReplay(final TrafficReplay trafficReplay) {
+        this.trafficReplay = trafficReplay;
+    }
+
+    /**
+     * Connects to a server and replays the traffic. This method blocks until all bytes have been sent.
+     *
+     * @param address    The address of the server.
+     * @param sslContext The SSL context, if the server expects direct TLS, or null.
+     * @return The number of bytes the server has sent in response.
+     * @throws InterruptedException If the thread has been interrupted.
+     */
+    public final long replay(final InetSocketAddress address, final SslContext sslContext)
+            throws InterruptedException {
+        final AtomicLong received = new AtomicLong();
+        final Bootstrap bootstrap = NettyTransport.shared().bootstrap()
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel ch) {
+                        if (sslContext != null) {
+                            ch.pipeline().addLast(sslContext.newHandler(ch.alloc(), address.getHostString(),
+                                    address.getPort()));
+                        }
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+                                if (msg instanceof ByteBuf) {
+                                    received.addAndGet(((ByteBuf) msg).readableBytes());
+                                }
+                                ReferenceCountUtil.release(msg);
+                            }
+                        });
+                    }
+                });
+        final Channel channel = bootstrap.connect(address).sync().channel();
+        trafficReplay.replay(byteBuffer -> {
+            final ChannelFuture future = channel.writeAndFlush(Unpooled.wrappedBuffer(byteBuffer));
+            if (!channel.isWritable()) {
+                // Don't buffer more than the channel's high water mark, if replaying faster than the server reads.
+                future.syncUninterruptibly();
+            }
+        });
+        channel.writeAndFlush(Unpooled.EMPTY_BUFFER).sync();
+        channel.close().sync();
+        return received.get();
+    }
+
+    /**
+     * Replays the inbound traffic of a capture file.
+     *
+     * @param args The capture file, the host, the port, optionally the speed factor and "--tls" for direct TLS.
+     * @throws IOException          If the capture file could not be read.
+     * @throws InterruptedException If the thread has been interrupted.
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: NettyTrafficReplay <capture file> <host> <port> [speed] [--tls]");
+            return;
+        }
+        final double speed = args.length > 3 && !"--tls".equals(args[3]) ? Double.parseDouble(args[3]) : 1;
+        final boolean tls = "--tls".equals(args[args.length - 1]);
+        final TrafficReplay replay = TrafficReplay.inbound(Paths.get(args[0]), speed);
+        final long received = new NettyTrafficReplay(replay)
+                .replay(new InetSocketAddress(args[1], Integer.parseInt(args[2])), tls ? insecureSslContext() : null);
+        System.out.println("Replayed " + replay.getRecords().size() + " records, received " + received + " bytes.");
+    }
+
+    private static SslContext insecureSslContext() throws SSLException {
+        // Test servers usually use self-signed certificates.
+        return SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.nio.netty.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Creates and shares the Netty event loop groups and channels for clients and servers.
+ *
+ * <p>The transport selects the native io_uring or epoll transport, if it is on the class path and supported by the
+ * operating system, and falls back to NIO otherwise. Clients use a {@linkplain #shared() shared transport} by default,
+ * so that many sessions are served by the same few I/O threads, instead of an event loop group per connector.</p>
+ *
+ * <h3>Sample Usage</h3>
+ *
+ * <pre>{@code
+ * NettyTransport transport = NettyTransport.builder()
+ *     .acceptors(4)
+ *     .writeBufferWaterMark(32 * 1024, 64 * 1024)
+ *     .build();
+ * ServerBootstrap serverBootstrap = transport.serverBootstrap().childHandler(initializer);
+ * transport.bind(serverBootstrap, 5222);
+ * }</pre>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class NettyTransport {
+
+    private static final System.Logger logger = System.getLogger(NettyTransport.class.getName());
+
+    private final Type type;
+
+    private final int acceptors;
+
+    private final boolean reusePort;
+
+    private final boolean tcpNoDelay;
+
+    private final WriteBufferWaterMark writeBufferWaterMark;
+
+    private final ByteBufAllocator allocator;
+
+    private final boolean daemon;
+
+    private final boolean shared;
+
+    private final boolean ownsEventLoopGroup;
+
+    private final EventLoopGroup eventLoopGroup;
+
+    /**
+     * Guarded by "this".
+     */
+    private EventLoopGroup acceptorGroup;
+
+    private NettyTransport(final Builder builder) {
+        this.type = builder.type != null ? builder.type : Type.best();
+        this.acceptors = builder.acceptors;
+        this.reusePort = builder.acceptors > 1 && type.reusePortOption() != null;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.writeBufferWaterMark = builder.writeBufferWaterMark;
+        this.allocator = builder.allocator != null ? builder.allocator : PooledByteBufAllocator.DEFAULT;
+        this.daemon = builder.daemon;
+        this.shared = builder.shared;
+        this.ownsEventLoopGroup = builder.eventLoopGroup == null;
+        this.eventLoopGroup = builder.eventLoopGroup != null
+                ? builder.eventLoopGroup
+                : type.newEventLoopGroup(builder.threads,
+                new DefaultThreadFactory("xmpp-netty-" + type.name().toLowerCase(Locale.ROOT), daemon));
+        if (acceptors > 1 && !reusePort) {
+            logger.log(System.Logger.Level.WARNING, "SO_REUSEPORT is not supported by the " + type
+                    + " transport, only one acceptor is used.");
+        }
+    }
+
+    /**
+     * Creates a builder for a transport.
+     *
+     * @return The builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the transport, which is shared by all clients by default. Its I/O threads are daemon threads and it cannot
+     * be shut down.
+     *
+     * @return The shared transport.
+     */
+    public static NettyTransport shared() {
+        return SharedTransportHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the selected transport type.
+     *
+     * @return The transport type.
+     */
+    public final Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the event loop group, which serves the connections.
+     *
+     * @return The event loop group.
+     */
+    public final EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * Creates a bootstrap for client channels, which is configured with the event loop group, the channel class and the
+     * configured channel options.
+     *
+     * @return The bootstrap.
+     */
+    public final Bootstrap bootstrap() {
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(type.socketChannelClass())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (writeBufferWaterMark != null) {
+            bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Creates a bootstrap for server channels, which is configured with the event loop groups, the channel class and
+     * the configured channel options.
+     *
+     * @return The server bootstrap.
+     * @see #bind(ServerBootstrap, int)
+     */
+    public final ServerBootstrap serverBootstrap() {
+        final ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(getAcceptorGroup(), eventLoopGroup)
+                .channel(type.serverSocketChannelClass())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (writeBufferWaterMark != null) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        }
+        if (reusePort) {
+            bootstrap.option(type.reusePortOption(), true);
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Binds the server to a port. If multiple acceptors are configured and the transport supports
+     * {@code SO_REUSEPORT}, one server channel per acceptor is bound to the port, so that the kernel distributes the
+     * incoming connections among them.
+     *
+     * @param serverBootstrap The server bootstrap.
+     * @param port            The port.
+     * @return The server channels, when they are bound.
+     * @see #serverBootstrap()
+     */
+    public final CompletableFuture<List<Channel>> bind(final ServerBootstrap serverBootstrap, final int port) {
+        final int n = reusePort ? acceptors : 1;
+        final List<Channel> channels = new ArrayList<>(n);
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[n];
+        for (int i = 0; i < n; i++) {
+            final ChannelFuture channelFuture = serverBootstrap.bind(port);
+            channels.add(channelFuture.channel());
+            futures[i] = NettyChannelConnection.completableFutureFromNettyFuture(channelFuture);
+        }
+        return CompletableFuture.allOf(futures).thenApply(aVoid -> channels);
+    }
+
+    private synchronized EventLoopGroup getAcceptorGroup() {
+        if (acceptorGroup == null) {
+            acceptorGroup = type.newEventLoopGroup(reusePort ? acceptors : 1,
+                    new DefaultThreadFactory("xmpp-netty-acceptor", daemon));
+        }
+        return acceptorGroup;
+    }
+
+    /**
+     * Shuts down the event loop groups, which have been created by this transport. The shared transport is not shut
+     * down.
+     *
+     * @return The future, which is completed, when the event loop groups have terminated.
+     */
+    public final CompletableFuture<Void> shutdown() {
+        if (shared) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        synchronized (this) {
+            if (acceptorGroup != null) {
+                futures.add(NettyChannelConnection.completableFutureFromNettyFuture(
+                        acceptorGroup.shutdownGracefully()));
+            }
+        }
+        if (ownsEventLoopGroup) {
+            futures.add(NettyChannelConnection.completableFutureFromNettyFuture(eventLoopGroup.shutdownGracefully()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    @Override
+    public final String toString() {
+        return "Netty " + type + " transport";
+    }
+
+    /**
+     * The transport type.
+     */
+    public enum Type {
+        /**
+         * The native io_uring transport on Linux, which requires the {@code netty-incubator-transport-native-io_uring}
+         * artifact.
+         */
+        IO_URING("io.netty.incubator.channel.uring.IOUring",
+                "io.netty.incubator.channel.uring.IOUringEventLoopGroup",
+                "io.netty.incubator.channel.uring.IOUringSocketChannel",
+                "io.netty.incubator.channel.uring.IOUringServerSocketChannel",
+                "io.netty.incubator.channel.uring.IOUringChannelOption"),
+        /**
+         * The native epoll transport on Linux, which requires the {@code netty-transport-native-epoll} artifact.
+         */
+        EPOLL("io.netty.channel.epoll.Epoll",
+                "io.netty.channel.epoll.EpollEventLoopGroup",
+                "io.netty.channel.epoll.EpollSocketChannel",
+                "io.netty.channel.epoll.EpollServerSocketChannel",
+                "io.netty.channel.epoll.EpollChannelOption"),
+        /**
+         * The NIO transport, which is available on every platform.
+         */
+        NIO(null,
+                "io.netty.channel.nio.NioEventLoopGroup",
+                "io.netty.channel.socket.nio.NioSocketChannel",
+                "io.netty.channel.socket.nio.NioServerSocketChannel",
+                null);
+
+        private final String availability;
+
+        private final String eventLoopGroup;
+
+        private final String socketChannel;
+
+        private final String serverSocketChannel;
+
+        private final String channelOption;
+
+        Type(final String availability, final String eventLoopGroup, final String socketChannel,
+             final String serverSocketChannel, final String channelOption) {
+            this.availability = availability;
+            this.eventLoopGroup = eventLoopGroup;
+            this.socketChannel = socketChannel;
+            this.serverSocketChannel = serverSocketChannel;
+            this.channelOption = channelOption;
+        }
+
+        /**
+         * Gets the best available transport type.
+         *
+         * @return The transport type.
+         */
+        public static Type best() {
+            for (final Type type : values()) {
+                if (type.isAvailable()) {
+                    return type;
+                }
+            }
+            return NIO;
+        }
+
+        /**
+         * Indicates, whether the transport is on the class path and supported by the operating system.
+         *
+         * @return True, if the transport is available.
+         */
+        public final boolean isAvailable() {
+            if (availability == null) {
+                return true;
+            }
+            try {
+                return (Boolean) Class.forName(availability).getMethod("isAvailable").invoke(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return false;
+            }
+        }
+
+        private EventLoopGroup newEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+            try {
+                return (EventLoopGroup) Class.forName(eventLoopGroup).getConstructor(int.class, ThreadFactory.class)
+                        .newInstance(threads, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("The " + this + " transport is not available.", e);
+            }
+        }
+
+        private Class<? extends Channel> socketChannelClass() {
+            return loadClass(socketChannel, Channel.class);
+        }
+
+        private Class<? extends ServerChannel> serverSocketChannelClass() {
+            return loadClass(serverSocketChannel, ServerChannel.class);
+        }
+
+        @SuppressWarnings("unchecked")
+        private ChannelOption<Boolean> reusePortOption() {
+            if (channelOption == null) {
+                return null;
+            }
+            try {
+                return (ChannelOption<Boolean>) Class.forName(channelOption).getField("SO_REUSEPORT").get(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+        private static <T> Class<? extends T> loadClass(final String className, final Class<T> type) {
+            try {
+                return Class.forName(className).asSubclass(type);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(className + " is not available.", e);
+            }
+        }
+
+        private static Type of(final EventLoopGroup group) {
+            for (final Type type : values()) {
+                if (type.eventLoopGroup.equals(group.getClass().getName())) {
+                    return type;
+                }
+            }
+            return NIO;
+        }
+    }
+
+    /**
+     * A builder for a {@link NettyTransport}.
+     */
+    public static final class Builder {
+
+        private Type type;
+
+        private int threads;
+
+        private int acceptors = 1;
+
+        private boolean tcpNoDelay = true;
+
+        private WriteBufferWaterMark writeBufferWaterMark;
+
+        private ByteBufAllocator allocator;
+
+        private boolean daemon;
+
+        private boolean shared;
+
+        private EventLoopGroup eventLoopGroup;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the transport type. By default, the best available type is selected.
+         *
+         * @param type The transport type.
+         * @return The builder.
+         * @see Type#best()
+         */
+        public final Builder type(final Type type) {
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O threads. By default, Netty uses twice the number of available processors.
+         *
+         * @param threads The number of threads.
+         * @return The builder.
+         */
+        public final Builder threads(final int threads) {
+            if (threads < 0) {
+                throw new IllegalArgumentException("threads must not be negative.");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets an existing event loop group, e.g. the event loop group of an application, which also uses Netty. It is
+         * not shut down by the transport.
+         *
+         * @param eventLoopGroup The event loop group.
+         * @return The builder.
+         */
+        public final Builder eventLoopGroup(final EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            if (eventLoopGroup != null) {
+                this.type = Type.of(eventLoopGroup);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the number of acceptors of a server, i.e. the number of server channels, which are bound to the same
+         * port with {@code SO_REUSEPORT}. This is only supported by the native transports.
+         *
+         * @param acceptors The number of acceptors.
+         * @return The builder.
+         */
+        public final Builder acceptors(final int acceptors) {
+            if (acceptors < 1) {
+                throw new IllegalArgumentException("acceptors must be positive.");
+            }
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        /**
+         * Enables or disables {@code TCP_NODELAY}, i.e. Nagle's algorithm. By default, it is enabled, because stanzas
+         * are usually small and should be sent immediately.
+         *
+         * @param tcpNoDelay True, if {@code TCP_NODELAY} is enabled.
+         * @return The builder.
+         */
+        public final Builder tcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Sets the write buffer water marks. If the pending outbound bytes of a channel exceed the high water mark, the
+         * channel is not writable, until they drop below the low water mark.
+         *
+         * @param low  The low water mark in bytes.
+         * @param high The high water mark in bytes.
+         * @return The builder.
+         */
+        public final Builder writeBufferWaterMark(final int low, final int high) {
+            this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+            return this;
+        }
+
+        /**
+         * Sets the allocator for the buffers of the channels. By default, the pooled allocator is used.
+         *
+         * @param allocator The allocator.
+         * @return The builder.
+         * @see PooledByteBufAllocator
+         */
+        public final Builder allocator(final ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            return this;
+        }
+
+        /**
+         * Uses daemon I/O threads, which don't prevent the JVM from exiting.
+         *
+         * @param daemon True, if daemon threads are used.
+         * @return The builder.
+         */
+        public final Builder daemon(final boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * Builds the transport.
+         *
+         * @return The transport.
+         */
+        public final NettyTransport build() {
+            return new NettyTransport(this);
+        }
+    }
+
+    private static final class SharedTransportHolder {
+
+        private static final NettyTransport INSTANCE;
+
+        static {
+            final Builder builder = builder().daemon(true);
+            builder.shared = true;
+            INSTANCE = builder.build();
+        }
+    }
+}
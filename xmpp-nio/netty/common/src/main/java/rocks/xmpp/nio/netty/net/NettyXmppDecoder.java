@@ -38,9 +38,9 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.DecoderException;
 import rocks.xmpp.core.Session;
-import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.net.ReaderInterceptor;
 import rocks.xmpp.core.net.ReaderInterceptorChain;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.nio.codec.XmppStreamDecoder;
 
@@ -65,7 +65,7 @@ final class NettyXmppDecoder extends ByteToMessageDecoder {
 
     private final Session session;
 
-    private final Connection connection;
+    private final NettyChannelConnection connection;
 
     /**
      * Creates the decoder.
@@ -74,11 +74,12 @@ final class NettyXmppDecoder extends ByteToMessageDecoder {
      * @param unmarshallerSupplier Supplies the unmarshaller, e.g. via a {@code ThreadLocal<Unmarshaller>}
      * @param onFailure            Called when an exception in the pipeline has occurred. If null, the exception is
      *                             propagated to next handler. If non-null this callback is called instead.
+     * @param lazyExtensions       True, if extensions of messages and presences should only be bound on access.
      */
     NettyXmppDecoder(final Consumer<StreamElement> streamElement, final List<ReaderInterceptor> readerInterceptors,
                      final Function<Locale, Unmarshaller> unmarshallerSupplier, final Consumer<Throwable> onFailure,
-                     final Session session, final Connection connection) {
-        this.xmppStreamDecoder = new XmppStreamDecoder(unmarshallerSupplier);
+                     final Session session, final NettyChannelConnection connection, final boolean lazyExtensions) {
+        this.xmppStreamDecoder = new XmppStreamDecoder(unmarshallerSupplier, lazyExtensions);
         List<ReaderInterceptor> interceptors = new ArrayList<>(readerInterceptors);
         interceptors.add(xmppStreamDecoder);
         this.readerInterceptors = interceptors;
@@ -105,6 +106,12 @@ final class NettyXmppDecoder extends ByteToMessageDecoder {
         });
 
         byteBuf.readerIndex(byteBuffer.position());
+        connection.getMetrics().bytesReceived(byteBuffer.position());
+        final TrafficCapture trafficCapture = connection.getTrafficCapture();
+        if (trafficCapture != null) {
+            // Only capture the decoded bytes, the remaining bytes are captured, when they are decoded.
+            trafficCapture.inbound(byteBuffer.duplicate().flip());
+        }
     }
 
     @Override
@@ -34,9 +34,9 @@ import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import rocks.xmpp.core.Session;
-import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.net.WriterInterceptor;
 import rocks.xmpp.core.net.WriterInterceptorChain;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.stream.model.StreamElement;
 
 /**
@@ -54,7 +54,7 @@ final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
 
     private final Session session;
 
-    private final Connection connection;
+    private final NettyChannelConnection connection;
 
     /**
      * @param writerInterceptors The writer interceptors.
@@ -62,7 +62,7 @@ final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
      *                           propagated to next handler. If non-null this callback is called instead.
      */
     NettyXmppEncoder(final Iterable<WriterInterceptor> writerInterceptors, final Consumer<Throwable> onFailure,
-                     final Session session, final Connection connection) {
+                     final Session session, final NettyChannelConnection connection) {
         this.writerInterceptors = writerInterceptors;
         this.onFailure = onFailure;
         this.session = session;
@@ -72,10 +72,16 @@ final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
     @Override
     protected final void encode(final ChannelHandlerContext ctx, final StreamElement streamElement,
                                 final ByteBuf byteBuf) throws Exception {
+        final int writerIndex = byteBuf.writerIndex();
         try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(byteBuf), StandardCharsets.UTF_8)) {
             WriterInterceptorChain chain = new WriterInterceptorChain(writerInterceptors, session, connection);
             chain.proceed(streamElement, writer);
         }
+        connection.getMetrics().bytesSent(byteBuf.writerIndex() - writerIndex);
+        final TrafficCapture trafficCapture = connection.getTrafficCapture();
+        if (trafficCapture != null) {
+            trafficCapture.outbound(byteBuf.nioBuffer(writerIndex, byteBuf.writerIndex() - writerIndex));
+        }
     }
 
     @Override
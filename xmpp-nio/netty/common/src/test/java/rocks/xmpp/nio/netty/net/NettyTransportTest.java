@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.nio.netty.net;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Christian Schudt
+ */
+public class NettyTransportTest {
+
+    @Test
+    public void testNioIsAlwaysAvailable() {
+        Assert.assertTrue(NettyTransport.Type.NIO.isAvailable());
+        Assert.assertTrue(NettyTransport.Type.best().isAvailable());
+    }
+
+    @Test
+    public void testTypeIsInferredFromEventLoopGroup() throws Exception {
+        final NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            final NettyTransport transport = NettyTransport.builder().eventLoopGroup(group).build();
+            Assert.assertEquals(transport.getType(), NettyTransport.Type.NIO);
+            Assert.assertSame(transport.getEventLoopGroup(), group);
+            transport.shutdown().get(5, TimeUnit.SECONDS);
+            // The group is not owned by the transport.
+            Assert.assertFalse(group.isShuttingDown());
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testSharedTransportIsNotShutDown() throws Exception {
+        final NettyTransport shared = NettyTransport.shared();
+        Assert.assertSame(NettyTransport.shared(), shared);
+        shared.shutdown().get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(shared.getEventLoopGroup().isShuttingDown());
+    }
+
+    @Test
+    public void testBindAndConnect() throws Exception {
+        final NettyTransport transport = NettyTransport.builder()
+                .type(NettyTransport.Type.NIO)
+                .threads(1)
+                .writeBufferWaterMark(8 * 1024, 32 * 1024)
+                .daemon(true)
+                .build();
+        try {
+            final List<Channel> channels = transport.bind(transport.serverBootstrap()
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(final SocketChannel ch) {
+                        }
+                    }), 0).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(channels.size(), 1);
+            final int port = ((InetSocketAddress) channels.get(0).localAddress()).getPort();
+
+            final Channel client = transport.bootstrap()
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(final SocketChannel ch) {
+                        }
+                    })
+                    .connect("localhost", port).sync().channel();
+            Assert.assertTrue(client.isActive());
+            client.close().sync();
+            channels.get(0).close().sync();
+        } finally {
+            transport.shutdown().get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertTrue(transport.getEventLoopGroup().isShutdown());
+    }
+}
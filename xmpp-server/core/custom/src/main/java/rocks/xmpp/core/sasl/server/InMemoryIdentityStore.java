@@ -24,12 +24,19 @@
 
 package rocks.xmpp.core.sasl.server;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,11 +56,20 @@ import rocks.xmpp.im.roster.server.spi.ScramIdentityStore;
  *
  * <p>It validates the user "admin/admin".</p>
  *
+ * <p>If the system property {@value #ACCOUNTS_FILE_PROPERTY} is set, the accounts of the properties file it points to
+ * are added, with the usernames as keys and the passwords as values. This allows load tests to provision many
+ * users.</p>
+ *
  * @author Christian Schudt
  */
 @ApplicationScoped
 public class InMemoryIdentityStore implements ScramIdentityStore {
 
+    /**
+     * The system property, which defines the path of a properties file with additional accounts.
+     */
+    public static final String ACCOUNTS_FILE_PROPERTY = "rocks.xmpp.server.accountsFile";
+
     private static final Random RANDOM = new SecureRandom();
 
     private final Map<String, CredentialInfo> credentialInfoMap = new ConcurrentHashMap<>();
@@ -62,6 +78,22 @@ public class InMemoryIdentityStore implements ScramIdentityStore {
         credentialInfoMap.put("admin", createAccount("admin", "admin"));
         credentialInfoMap.put("111", createAccount("111", "111"));
         credentialInfoMap.put("222", createAccount("222", "222"));
+        String accountsFile = System.getProperty(ACCOUNTS_FILE_PROPERTY);
+        if (accountsFile != null) {
+            Properties accounts = new Properties();
+            try (Reader reader = Files.newBufferedReader(Paths.get(accountsFile), StandardCharsets.UTF_8)) {
+                accounts.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (String username : accounts.stringPropertyNames()) {
+                credentialInfoMap.put(username, createAccount(username, accounts.getProperty(username)));
+            }
+        }
+    }
+
+    private CredentialInfo getCredentialInfo(String username) {
+        return username != null ? credentialInfoMap.get(username) : null;
     }
 
     private static CredentialInfo createAccount(String username, String password) {
@@ -96,7 +128,10 @@ public class InMemoryIdentityStore implements ScramIdentityStore {
     public CredentialValidationResult validate(Credential credential) {
         if (credential instanceof UsernamePasswordCredential) {
             UsernamePasswordCredential usernamePasswordCredential = (UsernamePasswordCredential) credential;
-            CredentialInfo credentialInfo = credentialInfoMap.get(usernamePasswordCredential.getCaller());
+            CredentialInfo credentialInfo = getCredentialInfo(usernamePasswordCredential.getCaller());
+            if (credentialInfo == null) {
+                return CredentialValidationResult.INVALID_RESULT;
+            }
 
             ScramClient scramClient = new ScramClient("SHA-1", null, callbacks -> {
                 for (Callback callback : callbacks) {
@@ -125,7 +160,7 @@ public class InMemoryIdentityStore implements ScramIdentityStore {
 
     @Override
     public ScramCredential getScramCredential(String username) {
-        CredentialInfo credentialInfo = credentialInfoMap.get(username);
+        CredentialInfo credentialInfo = getCredentialInfo(username);
         if (credentialInfo != null) {
             return new ScramCredential(credentialInfo.username, credentialInfo.iterationCount, credentialInfo.salt,
                     credentialInfo.storedKey, credentialInfo.serverKey);
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.pubsub.server.persistence;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Priority;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.Alternative;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.transaction.Transactional;
+
+import org.w3c.dom.Element;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.pubsub.model.Item;
+import rocks.xmpp.extensions.pubsub.server.spi.PubSubItemProvider;
+
+/**
+ * @author Christian Schudt
+ */
+@Transactional
+@Alternative
+@Dependent
+@Priority(Interceptor.Priority.APPLICATION)
+public class PubSubItemDao implements PubSubItemProvider {
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Override
+    public void publish(Jid service, String node, Item item, int maxItems) {
+        if (!(item.getPayload() instanceof Element)) {
+            throw new IllegalArgumentException("Payload must be a DOM element.");
+        }
+        List<PubSubItemEntity> items = new ArrayList<>(getItems(service, node));
+        // Replace an item with the same id, it becomes the last published item.
+        items.removeIf(existing -> {
+            if (existing.getId().equals(item.getId())) {
+                entityManager.remove(existing);
+                return true;
+            }
+            return false;
+        });
+        for (int i = 0; i <= items.size() - maxItems; i++) {
+            entityManager.remove(items.get(i));
+        }
+        entityManager.flush();
+        entityManager.persist(
+                new PubSubItemEntity(service, node, item.getId(), item.getPublisher(), (Element) item.getPayload()));
+    }
+
+    @Override
+    public List<PubSubItemEntity> getItems(Jid service, String node) {
+        TypedQuery<PubSubItemEntity> query =
+                entityManager.createNamedQuery(PubSubItemEntity.NamedQueries.GET_ITEMS, PubSubItemEntity.class);
+        query.setParameter("service", service);
+        query.setParameter("node", node);
+        return query.getResultList();
+    }
+
+    @Override
+    public Map<String, PubSubItemEntity> getLastItems(Jid service) {
+        TypedQuery<PubSubItemEntity> query =
+                entityManager.createNamedQuery(PubSubItemEntity.NamedQueries.GET_LAST_ITEMS, PubSubItemEntity.class);
+        query.setParameter("service", service);
+        Map<String, PubSubItemEntity> lastItems = new LinkedHashMap<>();
+        for (PubSubItemEntity item : query.getResultList()) {
+            lastItems.put(item.getNode(), item);
+        }
+        return lastItems;
+    }
+}
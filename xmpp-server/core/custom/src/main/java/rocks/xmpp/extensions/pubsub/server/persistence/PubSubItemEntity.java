@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.pubsub.server.persistence;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.UniqueConstraint;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.addr.server.persistence.JidConverter;
+import rocks.xmpp.extensions.pubsub.model.Item;
+
+/**
+ * A published item, whose payload is stored as XML string.
+ *
+ * @author Christian Schudt
+ */
+@Entity(name = "PubSubItem")
+@Table(uniqueConstraints = {@UniqueConstraint(columnNames = {"service", "node", "itemId"})})
+@NamedQueries({
+        @NamedQuery(name = PubSubItemEntity.NamedQueries.GET_ITEMS,
+                query = "select i from PubSubItem i where i.service = :service and i.node = :node order by i.id"),
+        @NamedQuery(name = PubSubItemEntity.NamedQueries.GET_LAST_ITEMS,
+                query = "select i from PubSubItem i where i.service = :service and i.id = "
+                        + "(select max(j.id) from PubSubItem j where j.service = i.service and j.node = i.node)")
+})
+public class PubSubItemEntity implements Item {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    @Convert(converter = JidConverter.class)
+    @Column(name = "service", nullable = false, length = Jid.MAX_BARE_JID_LENGTH)
+    private Jid service;
+
+    @Column(name = "node", nullable = false)
+    private String node;
+
+    @Column(name = "itemId", nullable = false)
+    private String itemId;
+
+    @Convert(converter = JidConverter.class)
+    @Column(name = "publisher", length = Jid.MAX_FULL_JID_LENGTH)
+    private Jid publisher;
+
+    @Lob
+    @Column(name = "payload", nullable = false)
+    private String payload;
+
+    @Transient
+    private Element payloadElement;
+
+    protected PubSubItemEntity() {
+    }
+
+    public PubSubItemEntity(Jid service, String node, String itemId, Jid publisher, Element payload) {
+        this.service = Objects.requireNonNull(service);
+        this.node = Objects.requireNonNull(node);
+        this.itemId = Objects.requireNonNull(itemId);
+        this.publisher = publisher;
+        this.payload = serialize(payload);
+        this.payloadElement = payload;
+    }
+
+    private static String serialize(Element element) {
+        try {
+            final Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            final StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(element), new StreamResult(writer));
+            return writer.toString();
+        } catch (TransformerException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Element parse(String xml) {
+        try {
+            return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(new InputSource(new StringReader(xml)))
+                    .getDocumentElement();
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getDatabaseId() {
+        return id;
+    }
+
+    public Jid getService() {
+        return service;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    @Override
+    public String getId() {
+        return itemId;
+    }
+
+    @Override
+    public Jid getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Gets the payload as DOM element, which is parsed, when it is first accessed.
+     *
+     * @return The payload.
+     */
+    @Override
+    public Element getPayload() {
+        if (payloadElement == null) {
+            payloadElement = parse(payload);
+        }
+        return payloadElement;
+    }
+
+    static final class NamedQueries {
+
+        static final String GET_ITEMS = "PubSubItem.getItems";
+
+        static final String GET_LAST_ITEMS = "PubSubItem.getLastItems";
+
+        private NamedQueries() {
+        }
+    }
+}
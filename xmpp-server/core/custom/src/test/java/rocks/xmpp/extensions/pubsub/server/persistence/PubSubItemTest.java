@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.pubsub.server.persistence;
+
+import java.util.List;
+import java.util.Map;
+import javax.enterprise.inject.se.SeContainer;
+import javax.enterprise.inject.se.SeContainerInitializer;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.pubsub.model.Item;
+
+/**
+ * @author Christian Schudt
+ */
+public class PubSubItemTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit");
+
+    private static final String TUNE = "http://jabber.org/protocol/tune";
+
+    private static final String GEOLOC = "http://jabber.org/protocol/geoloc";
+
+    private SeContainer seContainer;
+
+    private PubSubItemDao pubSubItemDao;
+
+    @BeforeClass
+    public void setup() {
+        seContainer = SeContainerInitializer.newInstance().initialize();
+        pubSubItemDao = seContainer.select(PubSubItemDao.class).get();
+    }
+
+    @AfterClass
+    public void shutdown() {
+        seContainer.close();
+    }
+
+    private static Item item(String id, String namespace, String text) throws ParserConfigurationException {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+        Element element = document.createElementNS(namespace, namespace.equals(TUNE) ? "tune" : "geoloc");
+        element.setTextContent(text);
+        return new Item() {
+            @Override
+            public Object getPayload() {
+                return element;
+            }
+
+            @Override
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public Jid getPublisher() {
+                return JULIET;
+            }
+        };
+    }
+
+    @Test
+    public void shouldPublishItems() throws ParserConfigurationException {
+        EntityTransaction transaction = seContainer.select(EntityManager.class).get().getTransaction();
+        transaction.begin();
+        pubSubItemDao.publish(JULIET, TUNE, item("1", TUNE, "Yes"), 2);
+        pubSubItemDao.publish(JULIET, TUNE, item("2", TUNE, "Genesis"), 2);
+        pubSubItemDao.publish(JULIET, TUNE, item("3", TUNE, "Marillion"), 2);
+        pubSubItemDao.publish(JULIET, TUNE, item("2", TUNE, "Genesis & Co"), 2);
+        pubSubItemDao.publish(JULIET, GEOLOC, item("1", GEOLOC, "Verona"), 2);
+        transaction.commit();
+    }
+
+    @Test(dependsOnMethods = "shouldPublishItems")
+    public void testGetItems() {
+        List<PubSubItemEntity> items = pubSubItemDao.getItems(JULIET, TUNE);
+        Assert.assertEquals(items.size(), 2);
+        Assert.assertEquals(items.get(0).getId(), "3");
+        Assert.assertEquals(items.get(1).getId(), "2");
+        Element payload = items.get(1).getPayload();
+        Assert.assertEquals(payload.getNamespaceURI(), TUNE);
+        Assert.assertEquals(payload.getTextContent(), "Genesis & Co");
+    }
+
+    @Test(dependsOnMethods = "shouldPublishItems")
+    public void testGetLastItems() {
+        Map<String, PubSubItemEntity> lastItems = pubSubItemDao.getLastItems(JULIET);
+        Assert.assertEquals(lastItems.size(), 2);
+        Assert.assertEquals(lastItems.get(TUNE).getId(), "2");
+        Assert.assertEquals(lastItems.get(GEOLOC).getId(), "1");
+        Assert.assertTrue(pubSubItemDao.getLastItems(Jid.of("romeo@montague.lit")).isEmpty());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.List;
+import javax.crypto.Mac;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Encodes and decodes the length-prefixed frames of a cluster link and protects their integrity, once the link is
+ * authenticated.
+ *
+ * <p>Until then, frames are limited to {@value #HANDSHAKE_FRAME_LENGTH} bytes, so that an unauthenticated peer can't
+ * make the node buffer large frames. Afterwards each frame is followed by an HMAC of its sequence number and its
+ * content, which is keyed with the key of its direction. Sequence numbers are counted per direction, hence frames,
+ * which are modified, replayed, reordered or dropped, are detected. Such a frame fails the link.</p>
+ *
+ * <p>This class is not thread-safe, it is only accessed on the I/O thread of its channel.</p>
+ *
+ * @author Christian Schudt
+ * @see ClusterHandshake
+ */
+final class ClusterFrameCodec extends ByteToMessageCodec<ByteBuf> {
+
+    static final int HANDSHAKE_FRAME_LENGTH = 1024;
+
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES);
+
+    private Mac outboundMac;
+
+    private Mac inboundMac;
+
+    private long outboundSequence;
+
+    private long inboundSequence;
+
+    /**
+     * Protects all following frames. It must be called on the I/O thread, between the last frame of the handshake and
+     * the first protected frame.
+     *
+     * @param inboundKey  The key of the frames, which are received.
+     * @param outboundKey The key of the frames, which are sent.
+     */
+    void authenticate(final byte[] inboundKey, final byte[] outboundKey) {
+        inboundMac = ClusterHandshake.newMac(inboundKey);
+        outboundMac = ClusterHandshake.newMac(outboundKey);
+    }
+
+    @Override
+    protected final void encode(final ChannelHandlerContext ctx, final ByteBuf msg, final ByteBuf out) {
+        if (outboundMac == null) {
+            out.writeInt(msg.readableBytes()).writeBytes(msg);
+            return;
+        }
+        final byte[] mac = mac(outboundMac, outboundSequence++, msg);
+        out.writeInt(msg.readableBytes() + mac.length).writeBytes(msg).writeBytes(mac);
+    }
+
+    @Override
+    protected final void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        if (in.readableBytes() < Integer.BYTES) {
+            return;
+        }
+        final int length = in.getInt(in.readerIndex());
+        final int macLength = inboundMac != null ? ClusterHandshake.MAC_LENGTH : 0;
+        final int maxLength = inboundMac != null ? MAX_FRAME_LENGTH : HANDSHAKE_FRAME_LENGTH;
+        if (length < macLength || length > maxLength) {
+            throw new CorruptedFrameException("Invalid frame length: " + length);
+        }
+        if (in.readableBytes() < Integer.BYTES + length) {
+            return;
+        }
+        in.skipBytes(Integer.BYTES);
+        final ByteBuf frame = in.readRetainedSlice(length - macLength);
+        if (inboundMac != null) {
+            final byte[] expected = mac(inboundMac, inboundSequence++, frame);
+            final byte[] actual = new byte[macLength];
+            in.readBytes(actual);
+            if (!MessageDigest.isEqual(expected, actual)) {
+                frame.release();
+                throw new CorruptedFrameException("Invalid frame HMAC.");
+            }
+        }
+        out.add(frame);
+    }
+
+    private byte[] mac(final Mac mac, final long number, final ByteBuf frame) {
+        sequence.clear();
+        sequence.putLong(number).flip();
+        mac.update(sequence);
+        for (final ByteBuffer buffer : frame.nioBuffers()) {
+            mac.update(buffer);
+        }
+        return mac.doFinal();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The mutual authentication of a cluster link, in which both nodes prove that they know the shared secret.
+ *
+ * <ol>
+ * <li>The accepting node sends a random challenge.</li>
+ * <li>The connecting node answers with its own random challenge, its identifier and an HMAC of both challenges and its
+ * identifier.</li>
+ * <li>The accepting node verifies the HMAC and answers with an HMAC of both challenges and the identifiers of both
+ * nodes, which the connecting node verifies with the identifier of the node, to which it wanted to connect.</li>
+ * </ol>
+ *
+ * <p>All HMACs are keyed with the shared secret and computed with a distinct label, so that a node can't answer a
+ * challenge by reflecting the other node's HMAC. Afterwards each direction of the link is protected with its own key,
+ * which both nodes derive from the secret and both challenges.</p>
+ *
+ * @author Christian Schudt
+ * @see ClusterFrameCodec
+ */
+final class ClusterHandshake {
+
+    /**
+     * The challenge of the accepting node.
+     */
+    static final byte CHALLENGE = 6;
+
+    /**
+     * The answer of the connecting node.
+     */
+    static final byte HELLO = 0;
+
+    /**
+     * The answer of the accepting node.
+     */
+    static final byte ACCEPT = 7;
+
+    static final int CHALLENGE_LENGTH = 32;
+
+    static final int MAC_LENGTH = 32;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final byte CONNECTOR_KEY = 8;
+
+    private static final byte ACCEPTOR_KEY = 9;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] secret;
+
+    private final byte[] acceptorChallenge;
+
+    private final byte[] connectorChallenge;
+
+    /**
+     * @param secret             The shared secret.
+     * @param acceptorChallenge  The challenge of the accepting node.
+     * @param connectorChallenge The challenge of the connecting node.
+     */
+    ClusterHandshake(final String secret, final byte[] acceptorChallenge, final byte[] connectorChallenge) {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.acceptorChallenge = acceptorChallenge;
+        this.connectorChallenge = connectorChallenge;
+    }
+
+    /**
+     * Creates a random challenge.
+     *
+     * @return The challenge.
+     */
+    static byte[] newChallenge() {
+        final byte[] challenge = new byte[CHALLENGE_LENGTH];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Creates an HMAC instance.
+     *
+     * @param key The key.
+     * @return The initialized HMAC.
+     */
+    static Mac newMac(final byte[] key) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Computes the HMAC, with which the connecting node proves that it knows the secret.
+     *
+     * @param connectorId The identifier of the connecting node.
+     * @return The HMAC.
+     */
+    byte[] hello(final byte[] connectorId) {
+        return mac(secret, HELLO, acceptorChallenge, connectorChallenge, connectorId);
+    }
+
+    /**
+     * Computes the HMAC, with which the accepting node proves that it knows the secret.
+     *
+     * @param acceptorId  The identifier of the accepting node.
+     * @param connectorId The identifier of the connecting node.
+     * @return The HMAC.
+     */
+    byte[] accept(final byte[] acceptorId, final byte[] connectorId) {
+        return mac(secret, ACCEPT, acceptorChallenge, connectorChallenge, acceptorId, connectorId);
+    }
+
+    /**
+     * Derives the key, which protects the frames from the connecting node to the accepting node.
+     *
+     * @return The key.
+     */
+    byte[] connectorKey() {
+        return mac(secret, CONNECTOR_KEY, acceptorChallenge, connectorChallenge);
+    }
+
+    /**
+     * Derives the key, which protects the frames from the accepting node to the connecting node.
+     *
+     * @return The key.
+     */
+    byte[] acceptorKey() {
+        return mac(secret, ACCEPTOR_KEY, acceptorChallenge, connectorChallenge);
+    }
+
+    private static byte[] mac(final byte[] key, final byte label, final byte[]... parts) {
+        final Mac mac = newMac(key);
+        mac.update(label);
+        for (final byte[] part : parts) {
+            // The length prefix keeps the parts apart, e.g. the identifiers "ab" and "c" from "a" and "bc".
+            mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, part.length));
+            mac.update(part);
+        }
+        return mac.doFinal();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import rocks.xmpp.cluster.server.spi.ClusterMember;
+
+/**
+ * A persistent, outbound link to another cluster node, which carries length-prefixed frames.
+ *
+ * <p>The link is mutually authenticated by a {@linkplain ClusterHandshake handshake}: The remote node sends a
+ * challenge, which is answered with the identifier of this node, and proves its identity with its answer. Only then the
+ * greeting and further frames are sent, which are protected by the {@link ClusterFrameCodec}.</p>
+ *
+ * <p>Frames are written on the I/O thread of the link in the order, in which they are sent, and flushed in batches:
+ * When the batch size is reached or when no further frames are pending on the I/O thread.</p>
+ *
+ * @author Christian Schudt
+ */
+final class ClusterLink extends ChannelInboundHandlerAdapter {
+
+    private static final System.Logger logger = System.getLogger(ClusterLink.class.getName());
+
+    private final ClusterMember member;
+
+    private final int batchSize;
+
+    private final String nodeId;
+
+    private final String secret;
+
+    private final Supplier<Collection<ByteBuf>> greeting;
+
+    private final ClusterFrameCodec codec = new ClusterFrameCodec();
+
+    /**
+     * The channel, once the remote node is authenticated, i.e. frames are only sent, when the greeting has been
+     * written.
+     */
+    private volatile Channel channel;
+
+    private volatile ChannelFuture connectFuture;
+
+    private volatile boolean closed;
+
+    // Only accessed on the I/O thread.
+    private ClusterHandshake handshake;
+
+    private int unflushed;
+
+    private boolean flushScheduled;
+
+    /**
+     * @param member    The remote node.
+     * @param batchSize The maximal number of frames, which are written before they are flushed.
+     * @param nodeId    The identifier of this node.
+     * @param secret    The shared secret.
+     * @param greeting  Provides the first frames, which are written on the I/O thread, once the remote node is
+     *                  authenticated.
+     */
+    ClusterLink(final ClusterMember member, final int batchSize, final String nodeId, final String secret,
+                final Supplier<Collection<ByteBuf>> greeting) {
+        this.member = member;
+        this.batchSize = Math.max(1, batchSize);
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.greeting = greeting;
+    }
+
+    /**
+     * Connects to the remote node.
+     *
+     * @param bootstrap The bootstrap, which is configured with the transport's options.
+     */
+    void connect(final Bootstrap bootstrap) {
+        connectFuture = bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(final SocketChannel ch) {
+                ch.pipeline().addLast(codec, ClusterLink.this);
+            }
+        }).connect(member.getAddress()).addListener(future -> {
+            if (!future.isSuccess()) {
+                logger.log(System.Logger.Level.DEBUG, "Could not connect to cluster node " + member, future.cause());
+                closed = true;
+            }
+        });
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        final ByteBuf frame = (ByteBuf) msg;
+        try {
+            if (channel != null) {
+                // The remote node doesn't send anything after the handshake.
+                ctx.close();
+            } else if (handshake == null) {
+                answerChallenge(ctx, frame);
+            } else {
+                authenticate(ctx, frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void answerChallenge(final ChannelHandlerContext ctx, final ByteBuf frame) {
+        if (frame.readableBytes() != 1 + ClusterHandshake.CHALLENGE_LENGTH
+                || frame.readByte() != ClusterHandshake.CHALLENGE) {
+            logger.log(System.Logger.Level.WARNING, "Cluster node " + member + " sent an invalid challenge.");
+            ctx.close();
+            return;
+        }
+        final byte[] challenge = new byte[ClusterHandshake.CHALLENGE_LENGTH];
+        frame.readBytes(challenge);
+        final byte[] ownChallenge = ClusterHandshake.newChallenge();
+        handshake = new ClusterHandshake(secret, challenge, ownChallenge);
+        final byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        ctx.writeAndFlush(Unpooled.buffer(1 + ownChallenge.length + ClusterHandshake.MAC_LENGTH + id.length)
+                .writeByte(ClusterHandshake.HELLO)
+                .writeBytes(ownChallenge)
+                .writeBytes(handshake.hello(id))
+                .writeBytes(id), ctx.voidPromise());
+    }
+
+    private void authenticate(final ChannelHandlerContext ctx, final ByteBuf frame) {
+        final byte[] mac = new byte[ClusterHandshake.MAC_LENGTH];
+        if (frame.readableBytes() == 1 + mac.length && frame.readByte() == ClusterHandshake.ACCEPT) {
+            frame.readBytes(mac);
+        }
+        // The remote node must prove that it is the node, to which this node wanted to connect.
+        if (!MessageDigest.isEqual(mac, handshake.accept(member.getId().getBytes(StandardCharsets.UTF_8),
+                nodeId.getBytes(StandardCharsets.UTF_8)))) {
+            logger.log(System.Logger.Level.WARNING, "Cluster node " + member + " could not be authenticated.");
+            ctx.close();
+            return;
+        }
+        codec.authenticate(handshake.acceptorKey(), handshake.connectorKey());
+        // Frames, which are sent from now on, are queued on the I/O thread and hence written after the greeting.
+        // Publishing the channel first ensures that no update is missed, which the greeting doesn't reflect yet.
+        channel = ctx.channel();
+        greeting.get().forEach(greetingFrame -> write(ctx.channel(), greetingFrame));
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        channel = null;
+        closed = true;
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        logger.log(System.Logger.Level.WARNING, "Link to cluster node " + member + " failed.", cause);
+        ctx.close();
+    }
+
+    /**
+     * Sends a frame to the remote node. The frame is released in any case.
+     *
+     * @param frame The frame, which must not yet be length-prefixed.
+     * @return False, if the link is not connected.
+     */
+    boolean send(final ByteBuf frame) {
+        final Channel ch = channel;
+        if (ch == null) {
+            frame.release();
+            return false;
+        }
+        ch.eventLoop().execute(() -> write(ch, frame));
+        return true;
+    }
+
+    private void write(final Channel ch, final ByteBuf frame) {
+        ch.write(frame, ch.voidPromise());
+        if (++unflushed >= batchSize) {
+            unflushed = 0;
+            ch.flush();
+        } else if (!flushScheduled) {
+            // Flush after the frames, which are already pending on the I/O thread, have been written.
+            flushScheduled = true;
+            ch.eventLoop().execute(() -> flush(ch));
+        }
+    }
+
+    private void flush(final Channel ch) {
+        flushScheduled = false;
+        if (unflushed > 0) {
+            unflushed = 0;
+            ch.flush();
+        }
+    }
+
+    /**
+     * Gets the remote node.
+     *
+     * @return The remote node.
+     */
+    ClusterMember getMember() {
+        return member;
+    }
+
+    /**
+     * Indicates, whether the link could not be established or has been lost.
+     *
+     * @return True, if the link is closed.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the link.
+     */
+    void close() {
+        closed = true;
+        final ChannelFuture future = connectFuture;
+        if (future != null) {
+            future.channel().close();
+        }
+    }
+}
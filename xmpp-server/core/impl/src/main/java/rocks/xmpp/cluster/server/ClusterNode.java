@@ -0,0 +1,470 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+import jakarta.xml.bind.JAXBException;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.cluster.server.spi.ClusterDiscovery;
+import rocks.xmpp.cluster.server.spi.ClusterMember;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.client.ClientIQ;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.client.ClientPresence;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+
+/**
+ * A node of a server cluster.
+ *
+ * <p>Each node owns the sessions of the clients, which are connected to it, and publishes the bare JIDs of these users
+ * to the other nodes, which keep them in their {@link ClusterRoutingTable}. Stanzas for users, who are connected to
+ * other nodes, are {@linkplain #forward(Stanza) forwarded} to these nodes, which deliver them to their local sessions.
+ * </p>
+ *
+ * <p>Every node opens a persistent {@linkplain ClusterLink link} to every other node, which it learns from the
+ * {@link ClusterDiscovery}. A link carries length-prefixed frames. It starts with a {@linkplain ClusterHandshake
+ * handshake}, in which both nodes prove with HMACs, which are keyed with the
+ * {@linkplain ServerConfiguration#getClusterSecret() shared secret}, that they know the secret and which node they
+ * are. Links with a wrong HMAC or from nodes, which are not known to the discovery, are closed. Afterwards every frame
+ * is protected with an HMAC, see {@link ClusterFrameCodec}. The handshake is followed by the connecting node's current
+ * users. Afterwards only changes of the users are sent, i.e. a frame is sent, when the first session of a user is added
+ * or the last one is removed, and stanzas, which are encoded only once, even if they are forwarded to several nodes.
+ * If a link is lost, the receiving node drops all routes to the sending node and the sending node reconnects with the
+ * next discovery.</p>
+ *
+ * <p>Frames are not encrypted, i.e. stanzas can be read on the network between the nodes. Use a private network or a
+ * VPN, if they must remain confidential.</p>
+ *
+ * <p>Only stanzas to users are forwarded. Multi-user chat rooms are not shared between nodes, i.e. each node hosts its
+ * own instance of a room and occupants, who are connected to different nodes, don't see each other.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ClusterNode implements AutoCloseable {
+
+    static final Duration DISCOVERY_INTERVAL = Duration.ofSeconds(5);
+
+    private static final System.Logger logger = System.getLogger(ClusterNode.class.getName());
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final byte ROUTE_ADD = 1;
+
+    private static final byte ROUTE_REMOVE = 2;
+
+    private static final byte MESSAGE = 3;
+
+    private static final byte PRESENCE = 4;
+
+    private static final byte IQ_STANZA = 5;
+
+    private final ServerConfiguration serverConfiguration;
+
+    private final NettyTransport transport;
+
+    private final ClusterDiscovery discovery;
+
+    private final Consumer<Stanza> delivery;
+
+    private final Executor executor;
+
+    private final String nodeId;
+
+    private final String secret;
+
+    private final ClusterRoutingTable routingTable = new ClusterRoutingTable();
+
+    /**
+     * The number of local sessions per bare JID.
+     */
+    private final Map<Jid, Integer> localUsers = new ConcurrentHashMap<>();
+
+    /**
+     * The outbound links by node identifier.
+     */
+    private final Map<String, ClusterLink> links = new ConcurrentHashMap<>();
+
+    /**
+     * The inbound links by node identifier.
+     */
+    private final Map<String, Channel> peers = new ConcurrentHashMap<>();
+
+    private volatile List<Channel> channels = Collections.emptyList();
+
+    private volatile HashedWheelTimer.Timeout discoveryTimeout;
+
+    private volatile boolean closed;
+
+    /**
+     * @param serverConfiguration The server configuration, which provides the node identifier, the cluster port and
+     *                            the shared secret.
+     * @param transport           The transport.
+     * @param discovery           Discovers the other nodes.
+     * @param delivery            Delivers stanzas, which have been forwarded by other nodes, to local sessions. It is
+     *                            called on the I/O thread of the link.
+     */
+    public ClusterNode(final ServerConfiguration serverConfiguration, final NettyTransport transport,
+                       final ClusterDiscovery discovery, final Consumer<Stanza> delivery) {
+        this.serverConfiguration = serverConfiguration;
+        this.transport = transport;
+        this.discovery = discovery;
+        this.delivery = delivery;
+        this.executor = serverConfiguration.getBackgroundExecutor();
+        this.nodeId = serverConfiguration.getClusterNodeId();
+        this.secret = serverConfiguration.getClusterSecret();
+    }
+
+    /**
+     * Starts to accept links of other nodes and connects to the other nodes.
+     *
+     * @return The completion stage, which is complete, when the cluster port is bound. It fails, if no shared secret
+     * is configured.
+     */
+    public final CompletionStage<Void> start() {
+        if (secret == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No cluster secret is configured."));
+        }
+        final ServerBootstrap b = transport.serverBootstrap()
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) {
+                        ch.pipeline().addLast(new ClusterFrameCodec(), new InboundLinkHandler());
+                    }
+                })
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        return transport.bind(b, serverConfiguration.getClusterPort()).thenAccept(boundChannels -> {
+            channels = boundChannels;
+            // Discovery may block, e.g. if it queries a registry, and must not block the timer thread.
+            discoveryTimeout = HashedWheelTimer.shared().newPeriodicTimeout(
+                    () -> executor.execute(this::refreshMembers), DISCOVERY_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+            executor.execute(this::refreshMembers);
+        });
+    }
+
+    /**
+     * Queries the discovery for the current members, connects to new members and reconnects to members, whose links
+     * have been lost. This is done periodically, but may also be triggered, e.g. if the discovery has been notified
+     * about a membership change.
+     */
+    public final synchronized void refreshMembers() {
+        if (closed) {
+            return;
+        }
+        final Map<String, ClusterMember> members = new HashMap<>();
+        for (final ClusterMember member : discovery.getMembers()) {
+            if (!member.getId().equals(nodeId)) {
+                members.put(member.getId(), member);
+            }
+        }
+        links.values().removeIf(link -> {
+            if (link.isClosed() || !link.getMember().equals(members.get(link.getMember().getId()))) {
+                link.close();
+                return true;
+            }
+            return false;
+        });
+        members.forEach((id, member) -> links.computeIfAbsent(id, key -> {
+            final ClusterLink link =
+                    new ClusterLink(member, serverConfiguration.getClusterBatchSize(), nodeId, secret, this::greeting);
+            link.connect(transport.bootstrap()
+                    .option(ChannelOption.SO_KEEPALIVE, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT));
+            return link;
+        }));
+    }
+
+    /**
+     * Publishes a new local session to the other nodes, if it is the first session of the user.
+     *
+     * @param address The full JID of the session.
+     */
+    public final void sessionAdded(final Jid address) {
+        localUsers.compute(address.asBareJid(), (bareJid, count) -> {
+            if (count == null) {
+                // Sending while the entry is locked keeps the changes of a user in order.
+                broadcast(frame(ROUTE_ADD, bareJid.toString()));
+                return 1;
+            }
+            return count + 1;
+        });
+    }
+
+    /**
+     * Removes a closed local session from the other nodes, if it was the last session of the user.
+     *
+     * @param address The full JID of the session.
+     */
+    public final void sessionRemoved(final Jid address) {
+        localUsers.computeIfPresent(address.asBareJid(), (bareJid, count) -> {
+            if (count == 1) {
+                broadcast(frame(ROUTE_REMOVE, bareJid.toString()));
+                return null;
+            }
+            return count - 1;
+        });
+    }
+
+    /**
+     * Forwards a stanza to the nodes, on which the recipient has sessions. The stanza is encoded once for all nodes.
+     *
+     * @param stanza The stanza, which must have a recipient.
+     * @return True, if the stanza has been forwarded to at least one node.
+     */
+    public final boolean forward(final Stanza stanza) {
+        final List<String> nodes = routingTable.getNodes(stanza.getTo());
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        final ByteBuf frame;
+        try {
+            frame = encode(stanza);
+        } catch (JAXBException | XMLStreamException e) {
+            logger.log(System.Logger.Level.WARNING, "Stanza could not be encoded for other cluster nodes.", e);
+            return false;
+        }
+        boolean forwarded = false;
+        try {
+            for (final String node : nodes) {
+                final ClusterLink link = links.get(node);
+                if (link != null && link.send(frame.retainedDuplicate())) {
+                    forwarded = true;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        return forwarded;
+    }
+
+    /**
+     * Gets the identifier of this node.
+     *
+     * @return The node identifier.
+     */
+    public final String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the routing table, which contains the users of the other nodes.
+     *
+     * @return The routing table.
+     */
+    public final ClusterRoutingTable getRoutingTable() {
+        return routingTable;
+    }
+
+    @Override
+    public final void close() {
+        closed = true;
+        final HashedWheelTimer.Timeout timeout = discoveryTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        channels.forEach(Channel::close);
+        links.values().forEach(ClusterLink::close);
+        links.clear();
+        peers.values().forEach(Channel::close);
+    }
+
+    private Collection<ByteBuf> greeting() {
+        final List<ByteBuf> frames = new ArrayList<>();
+        localUsers.keySet().forEach(bareJid -> frames.add(frame(ROUTE_ADD, bareJid.toString())));
+        return frames;
+    }
+
+    private void broadcast(final ByteBuf frame) {
+        try {
+            links.values().forEach(link -> link.send(frame.retainedDuplicate()));
+        } finally {
+            frame.release();
+        }
+    }
+
+    private boolean isMember(final String id) {
+        return !id.equals(nodeId) && discovery.getMembers().stream().anyMatch(member -> member.getId().equals(id));
+    }
+
+    private static ByteBuf frame(final byte type, final String payload) {
+        final byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.buffer(1 + bytes.length).writeByte(type).writeBytes(bytes);
+    }
+
+    private ByteBuf encode(final Stanza stanza) throws JAXBException, XMLStreamException {
+        final byte type;
+        if (stanza instanceof Message) {
+            type = MESSAGE;
+        } else if (stanza instanceof Presence) {
+            type = PRESENCE;
+        } else {
+            type = IQ_STANZA;
+        }
+        return frame(type, EncodedStanza.toXml(stanza, OUTPUT_FACTORY, serverConfiguration.getMarshaller()));
+    }
+
+    private Stanza decode(final byte type, final ByteBuf frame) throws JAXBException {
+        final Class<? extends Stanza> stanzaClass;
+        if (type == MESSAGE) {
+            stanzaClass = ClientMessage.class;
+        } else if (type == PRESENCE) {
+            stanzaClass = ClientPresence.class;
+        } else {
+            stanzaClass = ClientIQ.class;
+        }
+        return serverConfiguration.getUnmarshaller(null)
+                .unmarshal(new StreamSource(new ByteBufInputStream(frame)), stanzaClass).getValue();
+    }
+
+    /**
+     * Handles a link, which another node has opened to this node.
+     */
+    private final class InboundLinkHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final byte[] challenge = ClusterHandshake.newChallenge();
+
+        private String peer;
+
+        @Override
+        public void channelActive(final ChannelHandlerContext ctx) {
+            ctx.writeAndFlush(Unpooled.buffer(1 + challenge.length).writeByte(ClusterHandshake.CHALLENGE)
+                    .writeBytes(challenge), ctx.voidPromise());
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final ByteBuf frame) {
+            final byte type = frame.readByte();
+            if (peer == null) {
+                if (type != ClusterHandshake.HELLO
+                        || frame.readableBytes() <= ClusterHandshake.CHALLENGE_LENGTH + ClusterHandshake.MAC_LENGTH) {
+                    ctx.close();
+                    return;
+                }
+                final byte[] connectorChallenge = new byte[ClusterHandshake.CHALLENGE_LENGTH];
+                frame.readBytes(connectorChallenge);
+                final byte[] mac = new byte[ClusterHandshake.MAC_LENGTH];
+                frame.readBytes(mac);
+                final byte[] id = new byte[frame.readableBytes()];
+                frame.readBytes(id);
+                final String node = new String(id, StandardCharsets.UTF_8);
+                final ClusterHandshake handshake = new ClusterHandshake(secret, challenge, connectorChallenge);
+                // The discovery is only queried once per link and is expected to answer quickly.
+                if (!MessageDigest.isEqual(mac, handshake.hello(id)) || !isMember(node)) {
+                    logger.log(System.Logger.Level.WARNING, "Rejected link from " + ctx.channel().remoteAddress()
+                            + ", which claims to be cluster node " + node + '.');
+                    ctx.close();
+                    return;
+                }
+                // The answer is written immediately on the I/O thread, i.e. before the following frames are protected.
+                ctx.writeAndFlush(Unpooled.buffer(1 + ClusterHandshake.MAC_LENGTH).writeByte(ClusterHandshake.ACCEPT)
+                        .writeBytes(handshake.accept(nodeId.getBytes(StandardCharsets.UTF_8), id)), ctx.voidPromise());
+                ctx.pipeline().get(ClusterFrameCodec.class).authenticate(handshake.connectorKey(),
+                        handshake.acceptorKey());
+                peer = node;
+                final Channel previous = peers.put(peer, ctx.channel());
+                if (previous != null) {
+                    // The node has reconnected and is going to send all of its users again.
+                    previous.close();
+                    routingTable.removeNode(peer);
+                }
+                return;
+            }
+            switch (type) {
+                case ROUTE_ADD:
+                    routingTable.add(peer, Jid.of(frame.toString(StandardCharsets.UTF_8)));
+                    break;
+                case ROUTE_REMOVE:
+                    routingTable.remove(peer, Jid.of(frame.toString(StandardCharsets.UTF_8)));
+                    break;
+                case MESSAGE:
+                case PRESENCE:
+                case IQ_STANZA:
+                    final Stanza stanza;
+                    try {
+                        stanza = decode(type, frame);
+                    } catch (JAXBException e) {
+                        logger.log(System.Logger.Level.WARNING, "Stanza from cluster node " + peer
+                                + " could not be decoded.", e);
+                        break;
+                    }
+                    delivery.accept(stanza);
+                    break;
+                default:
+                    ctx.close();
+                    break;
+            }
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext ctx) {
+            if (peer != null && peers.remove(peer, ctx.channel())) {
+                routingTable.removeNode(peer);
+            }
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            logger.log(System.Logger.Level.WARNING, "Link from cluster node " + peer + " failed.", cause);
+            ctx.close();
+        }
+    }
+}
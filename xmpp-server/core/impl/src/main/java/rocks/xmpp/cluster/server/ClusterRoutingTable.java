@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Maps the bare JIDs of users to the cluster nodes, on which they have sessions.
+ *
+ * <p>Each node publishes the users, which are connected to it, to the other nodes. The table is therefore only
+ * eventually consistent: A user, who has just connected to another node, may not yet be known here and a node, which
+ * has just left the cluster, may still be listed for a short time.</p>
+ *
+ * <p>To keep the table compact, the nodes of a user are kept as a bit set, i.e. at most {@value #MAX_NODES} distinct
+ * nodes are supported. When a node is {@linkplain #removeNode(String) removed}, its bit is released and may be
+ * assigned to another node.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ClusterRoutingTable {
+
+    static final int MAX_NODES = Long.SIZE;
+
+    private final Map<Jid, Long> routes = new ConcurrentHashMap<>();
+
+    /**
+     * The node identifiers by bit index. Released indexes are null.
+     */
+    private final String[] nodes = new String[MAX_NODES];
+
+    /**
+     * Adds a route, i.e. the user has at least one session on the node.
+     *
+     * @param node    The node identifier.
+     * @param bareJid The bare JID of the user.
+     */
+    public final void add(final String node, final Jid bareJid) {
+        // The bit must not be released and reassigned, before the route is added.
+        synchronized (nodes) {
+            routes.merge(bareJid.asBareJid(), bit(node), (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * Removes a route, i.e. the user has no more sessions on the node.
+     *
+     * @param node    The node identifier.
+     * @param bareJid The bare JID of the user.
+     */
+    public final void remove(final String node, final Jid bareJid) {
+        synchronized (nodes) {
+            final long bit = existingBit(node);
+            if (bit != 0) {
+                clear(bareJid.asBareJid(), bit);
+            }
+        }
+    }
+
+    /**
+     * Removes all routes to a node, e.g. because the link to the node has been lost.
+     *
+     * @param node The node identifier.
+     */
+    public final void removeNode(final String node) {
+        synchronized (nodes) {
+            final long bit = existingBit(node);
+            if (bit != 0) {
+                routes.keySet().forEach(bareJid -> clear(bareJid, bit));
+                nodes[Long.numberOfTrailingZeros(bit)] = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the nodes, on which a user has sessions.
+     *
+     * @param bareJid The bare JID of the user.
+     * @return The node identifiers.
+     */
+    public final List<String> getNodes(final Jid bareJid) {
+        final Long value = routes.get(bareJid.asBareJid());
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        final List<String> result = new ArrayList<>(Long.bitCount(value));
+        synchronized (nodes) {
+            for (long bits = value; bits != 0; bits &= bits - 1) {
+                final String node = nodes[Long.numberOfTrailingZeros(bits)];
+                if (node != null) {
+                    result.add(node);
+                }
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Gets the number of users, which have sessions on other nodes.
+     *
+     * @return The number of users.
+     */
+    public final int size() {
+        return routes.size();
+    }
+
+    private void clear(final Jid bareJid, final long bit) {
+        routes.computeIfPresent(bareJid, (key, value) -> (value & ~bit) == 0 ? null : value & ~bit);
+    }
+
+    // Must be called while holding the lock of the nodes.
+    private long bit(final String node) {
+        final long bit = existingBit(node);
+        if (bit != 0) {
+            return bit;
+        }
+        final int index = Arrays.asList(nodes).indexOf(null);
+        if (index < 0) {
+            throw new IllegalStateException("A cluster must not have more than " + MAX_NODES + " nodes.");
+        }
+        nodes[index] = node;
+        return 1L << index;
+    }
+
+    // Must be called while holding the lock of the nodes.
+    private long existingBit(final String node) {
+        final int index = Arrays.asList(nodes).indexOf(node);
+        return index < 0 ? 0 : 1L << index;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+
+import rocks.xmpp.cluster.server.spi.ClusterDiscovery;
+import rocks.xmpp.cluster.server.spi.ClusterMember;
+import rocks.xmpp.core.server.ServerConfiguration;
+
+/**
+ * Uses the {@linkplain ServerConfiguration#getClusterMembers() statically configured} nodes as cluster members.
+ *
+ * @author Christian Schudt
+ */
+@Priority(Interceptor.Priority.LIBRARY_BEFORE)
+@ApplicationScoped
+public class StaticClusterDiscovery implements ClusterDiscovery {
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    @Override
+    public Collection<ClusterMember> getMembers() {
+        return serverConfiguration.getClusterMembers().entrySet().stream()
+                .map(entry -> new ClusterMember(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+}
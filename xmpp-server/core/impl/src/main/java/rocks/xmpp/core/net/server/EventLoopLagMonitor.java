@@ -0,0 +1,137 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Measures the lag of the event loops of an {@link EventLoopGroup}, i.e. the delay between the time a scheduled probe
+ * should have run and the time it actually ran. Since event loops also handle I/O, a high lag indicates that an event
+ * loop has been blocked (e.g. by a blocking operation), which delays I/O for all channels served by it.
+ *
+ * <p>A lag higher than the threshold is logged as warning. The monitor keeps the lags of the last {@value #SAMPLES}
+ * probes of each event loop, from which {@link #getLag()} reports the highest one.</p>
+ *
+ * @author Christian Schudt
+ */
+final class EventLoopLagMonitor {
+
+    private static final System.Logger logger = System.getLogger(EventLoopLagMonitor.class.getName());
+
+    /**
+     * The number of recent probes per event loop, whose lags are kept.
+     */
+    static final int SAMPLES = 10;
+
+    private final List<EventExecutor> eventLoops = new ArrayList<>();
+
+    private final long interval;
+
+    private final long threshold;
+
+    private final LongSupplier nanoTime;
+
+    /**
+     * The lags of the recent probes in nanoseconds, {@value #SAMPLES} consecutive entries per event loop.
+     */
+    private final AtomicLongArray lags;
+
+    /**
+     * The number of probes per event loop. Each entry is only accessed by its event loop.
+     */
+    private final long[] probes;
+
+    EventLoopLagMonitor(final EventLoopGroup eventLoopGroup, final Duration interval, final Duration threshold) {
+        this(eventLoopGroup, interval, threshold, System::nanoTime);
+    }
+
+    EventLoopLagMonitor(final EventLoopGroup eventLoopGroup, final Duration interval, final Duration threshold,
+                        final LongSupplier nanoTime) {
+        eventLoopGroup.forEach(eventLoops::add);
+        this.interval = interval.toNanos();
+        this.threshold = threshold.toNanos();
+        this.nanoTime = nanoTime;
+        this.lags = new AtomicLongArray(eventLoops.size() * SAMPLES);
+        this.probes = new long[eventLoops.size()];
+    }
+
+    /**
+     * Starts measuring. Measuring stops, when the event loops are shut down.
+     */
+    final void start() {
+        for (int i = 0; i < eventLoops.size(); i++) {
+            schedule(i);
+        }
+    }
+
+    private void schedule(final int index) {
+        final EventExecutor eventLoop = eventLoops.get(index);
+        if (eventLoop.isShuttingDown()) {
+            return;
+        }
+        final long expected = nanoTime.getAsLong() + interval;
+        eventLoop.schedule(() -> {
+            probe(index, expected);
+            schedule(index);
+        }, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the lag of a probe. Must only be called on the event loop with the given index.
+     *
+     * @param index    The index of the event loop.
+     * @param expected The time in nanoseconds, when the probe should have run.
+     */
+    final void probe(final int index, final long expected) {
+        final long lag = Math.max(0, nanoTime.getAsLong() - expected);
+        lags.set(index * SAMPLES + (int) (probes[index]++ % SAMPLES), lag);
+        if (lag > threshold) {
+            logger.log(System.Logger.Level.WARNING, "Event loop {0} lagged by {1} ms.", index,
+                    TimeUnit.NANOSECONDS.toMillis(lag));
+        }
+    }
+
+    /**
+     * Gets the highest lag of all event loops, which has been measured by the last {@value #SAMPLES} probes of each
+     * event loop.
+     *
+     * @return The lag.
+     */
+    final Duration getLag() {
+        long max = 0;
+        for (int i = 0; i < lags.length(); i++) {
+            max = Math.max(max, lags.get(i));
+        }
+        return Duration.ofNanos(max);
+    }
+}
@@ -29,19 +29,19 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.DecoderException;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
+import rocks.xmpp.core.Session;
 import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamErrorException;
 import rocks.xmpp.core.stream.model.errors.Condition;
-import rocks.xmpp.session.server.InboundClientSession;
 
 /**
  * @author Christian Schudt
  */
 final class InboundXmppHandler extends ChannelInboundHandlerAdapter {
 
-    private final InboundClientSession session;
+    private final Session session;
 
-    InboundXmppHandler(final InboundClientSession session) {
+    InboundXmppHandler(final Session session) {
         this.session = session;
     }
 
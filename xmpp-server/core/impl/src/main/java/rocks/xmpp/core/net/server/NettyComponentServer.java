@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.SocketChannel;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.extensions.component.accept.server.ComponentRoutingTable;
+import rocks.xmpp.extensions.component.accept.server.ComponentSession;
+import rocks.xmpp.nio.netty.net.NettyChannelConnection;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+
+/**
+ * Accepts connections of external components on the {@linkplain ServerConfiguration#getComponentPort() component
+ * port}, using the same transport as the client-to-server streams.
+ *
+ * @author Christian Schudt
+ * @see ComponentSession
+ */
+public final class NettyComponentServer implements AutoCloseable {
+
+    private final ServerConfiguration serverConfiguration;
+
+    private final NettyTransport transport;
+
+    private final ComponentRoutingTable routingTable;
+
+    private final Consumer<Stanza> router;
+
+    private volatile List<Channel> channels = Collections.emptyList();
+
+    /**
+     * @param serverConfiguration The server configuration.
+     * @param transport           The transport.
+     * @param routingTable        The routing table, into which authenticated components are registered.
+     * @param router              Routes the stanzas, which have been sent by components.
+     */
+    public NettyComponentServer(final ServerConfiguration serverConfiguration, final NettyTransport transport,
+                                final ComponentRoutingTable routingTable, final Consumer<Stanza> router) {
+        this.serverConfiguration = serverConfiguration;
+        this.transport = transport;
+        this.routingTable = routingTable;
+        this.router = router;
+    }
+
+    /**
+     * Starts to accept connections of components.
+     *
+     * @return The completion stage, which is complete, when the component port is bound.
+     */
+    public final CompletionStage<Void> start() {
+        final ServerBootstrap b = transport.serverBootstrap()
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) {
+                        final ComponentSession session =
+                                new ComponentSession(serverConfiguration, routingTable, router, ch.eventLoop());
+                        session.setConnection(new NettyChannelConnection(ch, session, session,
+                                Collections.emptyList(), serverConfiguration::getUnmarshaller,
+                                Collections.emptyList(), serverConfiguration::getMarshaller, null,
+                                NettyServerToServer.UNENCRYPTED, serverConfiguration.isLazyExtensionBinding(),
+                                serverConfiguration.getExecutor(), serverConfiguration.getMetricsRegistry()));
+                        ch.pipeline().addLast(new InboundXmppHandler(session));
+                    }
+                })
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        return transport.bind(b, serverConfiguration.getComponentPort())
+                .thenAccept(boundChannels -> channels = boundChannels);
+    }
+
+    @Override
+    public final void close() {
+        channels.forEach(Channel::close);
+    }
+}
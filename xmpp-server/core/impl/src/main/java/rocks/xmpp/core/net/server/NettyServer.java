@@ -25,6 +25,8 @@
 package rocks.xmpp.core.net.server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -32,14 +34,19 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Destroyed;
 import javax.enterprise.context.Initialized;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.CDI;
 import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 
@@ -47,19 +54,25 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import rocks.xmpp.cluster.server.ClusterNode;
+import rocks.xmpp.cluster.server.spi.ClusterDiscovery;
 import rocks.xmpp.core.extensions.compress.server.CompressionNegotiator;
+import rocks.xmpp.core.metrics.MetricsDynamicMBean;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.metrics.SimpleMetricsRegistry;
 import rocks.xmpp.core.net.ChannelEncryption;
 import rocks.xmpp.core.net.ConnectionConfiguration;
-import rocks.xmpp.core.net.TcpConnection;
+import rocks.xmpp.core.net.capture.TrafficCapture;
 import rocks.xmpp.core.server.ServerConfiguration;
 import rocks.xmpp.core.tls.server.StartTlsNegotiator;
 import rocks.xmpp.nio.netty.net.NettyChannelConnection;
+import rocks.xmpp.nio.netty.net.NettyTransport;
 import rocks.xmpp.session.server.InboundClientSession;
+import rocks.xmpp.session.server.ServerSessionPool;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.session.server.StanzaRouter;
 
 /**
  * @author Christian Schudt
@@ -67,16 +80,26 @@ import rocks.xmpp.session.server.InboundClientSession;
 @ApplicationScoped
 public class NettyServer {
 
+    private static final System.Logger logger = System.getLogger(NettyServer.class.getName());
+
     private static final SSLContext SSL_CONTEXT;
 
-    private EventLoopGroup bossGroup;
+    private static final String METRICS_OBJECT_NAME = "rocks.xmpp:type=ServerMetrics";
 
-    private EventLoopGroup workerGroup;
+    private NettyTransport transport;
 
-    private Channel channel;
+    private volatile List<Channel> channels = Collections.emptyList();
 
     private Instant startTime;
 
+    private EventLoopLagMonitor eventLoopLagMonitor;
+
+    private NettyServerToServer serverToServer;
+
+    private NettyComponentServer componentServer;
+
+    private ClusterNode clusterNode;
+
     @Inject
     private ServerConfiguration serverConfiguration;
 
@@ -103,13 +126,34 @@ public class NettyServer {
 
     public void start(@Observes @Initialized(ApplicationScoped.class) Object context) {
         this.startTime = Instant.now();
+        registerMetrics();
+
+        final int highWaterMark = serverConfiguration.getWriteBufferHighWaterMark();
+        transport = NettyTransport.builder()
+                .acceptors(serverConfiguration.getAcceptors())
+                .tcpNoDelay(serverConfiguration.isTcpNoDelay())
+                .writeBufferWaterMark(highWaterMark / 2, highWaterMark)
+                .build();
+        logger.log(System.Logger.Level.INFO, "Using the " + transport + ".");
+        eventLoopLagMonitor =
+                new EventLoopLagMonitor(transport.getEventLoopGroup(), Duration.ofSeconds(1), Duration.ofMillis(100));
+        eventLoopLagMonitor.start();
 
-        bossGroup = new NioEventLoopGroup();
-        workerGroup = new NioEventLoopGroup();
+        final StanzaRouter stanzaRouter = CDI.current().select(StanzaRouter.class).get();
+        if (serverConfiguration.getClusterNodeId() != null) {
+            // Sessions are published to the cluster, so it must be known before clients connect.
+            clusterNode = new ClusterNode(serverConfiguration, transport,
+                    CDI.current().select(ClusterDiscovery.class).get(), stanzaRouter::deliverLocally);
+            CDI.current().select(SessionManager.class).get().setClusterNode(clusterNode);
+            clusterNode.start().whenComplete((aVoid, e) -> {
+                if (e != null) {
+                    logger.log(System.Logger.Level.ERROR,
+                            "Could not start cluster node on port " + serverConfiguration.getClusterPort(), e);
+                }
+            });
+        }
 
-        ServerBootstrap b = new ServerBootstrap();
-        b.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+        ServerBootstrap b = transport.serverBootstrap()
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
@@ -117,7 +161,7 @@ public class NettyServer {
                         final InboundClientSession session = CDI.current().select(InboundClientSession.class).get();
 
                         // Create a new connection for the client.
-                        final TcpConnection connection =
+                        final NettyChannelConnection connection =
                                 new NettyChannelConnection(ch, session, session, Collections.emptyList(),
                                         serverConfiguration::getUnmarshaller,
                                         Collections.emptyList(), serverConfiguration::getMarshaller, null,
@@ -131,7 +175,9 @@ public class NettyServer {
                                             public SSLContext getSSLContext() {
                                                 return SSL_CONTEXT;
                                             }
-                                        });
+                                        }, serverConfiguration.isLazyExtensionBinding(),
+                                        serverConfiguration.getExecutor(), serverConfiguration.getMetricsRegistry());
+                        captureTraffic(connection);
                         // Create a new session for the new client connection.
 
                         session.setConnection(connection);
@@ -146,16 +192,124 @@ public class NettyServer {
                 .childOption(ChannelOption.SO_KEEPALIVE, true);
 
         // Bind and start to accept incoming connections.
-        channel = b.bind(serverConfiguration.getPort()).channel();
+        transport.bind(b, serverConfiguration.getPort()).whenComplete((boundChannels, e) -> {
+            if (e != null) {
+                logger.log(System.Logger.Level.ERROR, "Could not bind to port " + serverConfiguration.getPort(), e);
+            } else {
+                channels = boundChannels;
+            }
+        });
+
+        if (serverConfiguration.getServerToServerPort() > 0) {
+            serverToServer = new NettyServerToServer(serverConfiguration, transport, stanzaRouter::route);
+            serverToServer.start().whenComplete((aVoid, e) -> {
+                if (e != null) {
+                    logger.log(System.Logger.Level.ERROR,
+                            "Could not bind to port " + serverConfiguration.getServerToServerPort(), e);
+                }
+            });
+        }
+        if (serverConfiguration.getComponentPort() > 0) {
+            componentServer = new NettyComponentServer(serverConfiguration, transport,
+                    stanzaRouter.getComponentRoutingTable(), stanzaRouter::route);
+            componentServer.start().whenComplete((aVoid, e) -> {
+                if (e != null) {
+                    logger.log(System.Logger.Level.ERROR,
+                            "Could not bind to port " + serverConfiguration.getComponentPort(), e);
+                }
+            });
+        }
     }
 
     public void stop(@Observes @Destroyed(ApplicationScoped.class) Object context) {
-        channel.close();
-        workerGroup.shutdownGracefully();
-        bossGroup.shutdownGracefully();
+        channels.forEach(Channel::close);
+        if (serverToServer != null) {
+            serverToServer.close();
+        }
+        if (componentServer != null) {
+            componentServer.close();
+        }
+        if (clusterNode != null) {
+            clusterNode.close();
+        }
+        transport.shutdown();
+        unregisterMetrics();
+    }
+
+    private void captureTraffic(final NettyChannelConnection connection) {
+        final Path directory = serverConfiguration.getTrafficCaptureDirectory();
+        if (directory != null) {
+            try {
+                final TrafficCapture trafficCapture = TrafficCapture.create(directory,
+                        serverConfiguration.getTrafficCaptureSize(), serverConfiguration.getTrafficCaptureFiles());
+                trafficCapture.setCaptureCredentials(serverConfiguration.isTrafficCaptureCredentials());
+                connection.setTrafficCapture(trafficCapture);
+            } catch (IOException e) {
+                logger.log(System.Logger.Level.WARNING, "Could not create traffic capture in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Exports the server metrics via JMX, if they are kept in memory.
+     */
+    private void registerMetrics() {
+        final MetricsRegistry metricsRegistry = serverConfiguration.getMetricsRegistry();
+        if (metricsRegistry instanceof SimpleMetricsRegistry) {
+            try {
+                final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(METRICS_OBJECT_NAME);
+                if (!mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.registerMBean(new MetricsDynamicMBean((SimpleMetricsRegistry) metricsRegistry),
+                            objectName);
+                }
+            } catch (JMException e) {
+                logger.log(System.Logger.Level.WARNING, "Could not export metrics via JMX.", e);
+            }
+        }
+    }
+
+    private void unregisterMetrics() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(METRICS_OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(System.Logger.Level.WARNING, "Could not unregister metrics MBean.", e);
+        }
+    }
+
+    /**
+     * Gets the pool of outbound streams to other servers.
+     *
+     * @return The session pool or null, if server-to-server streams are disabled.
+     */
+    public ServerSessionPool getServerSessionPool() {
+        return serverToServer != null ? serverToServer.getSessionPool() : null;
+    }
+
+    /**
+     * Gets the node of the server cluster.
+     *
+     * @return The cluster node or null, if the server does not run in cluster mode.
+     */
+    public ClusterNode getClusterNode() {
+        return clusterNode;
     }
 
     public Instant getStartTime() {
         return startTime;
     }
+
+    /**
+     * Gets the highest recently measured lag of the I/O threads, i.e. how long a task had to wait until an I/O thread
+     * could execute it. A high lag indicates that the I/O threads are blocked.
+     *
+     * @return The lag.
+     */
+    public Duration getEventLoopLag() {
+        return eventLoopLagMonitor != null ? eventLoopLagMonitor.getLag() : Duration.ZERO;
+    }
 }
\ No newline at end of file
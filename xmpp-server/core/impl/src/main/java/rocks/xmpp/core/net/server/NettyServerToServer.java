@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.server;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLContext;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.SocketChannel;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.net.ChannelEncryption;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.net.ConnectionConfiguration;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.StreamHandler;
+import rocks.xmpp.nio.netty.net.NettyChannelConnection;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+import rocks.xmpp.session.server.InboundServerSession;
+import rocks.xmpp.session.server.OutboundServerSession;
+import rocks.xmpp.session.server.ServerSessionPool;
+
+/**
+ * Accepts streams from other servers on the {@linkplain ServerConfiguration#getServerToServerPort() server-to-server
+ * port} and connects to other servers, using the same transport as the client-to-server streams.
+ *
+ * @author Christian Schudt
+ * @see ServerSessionPool
+ */
+public final class NettyServerToServer implements AutoCloseable {
+
+    /**
+     * The configuration of unencrypted connections.
+     */
+    static final ConnectionConfiguration UNENCRYPTED = new ConnectionConfiguration() {
+        @Override
+        public ChannelEncryption getChannelEncryption() {
+            return ChannelEncryption.DISABLED;
+        }
+
+        @Override
+        public SSLContext getSSLContext() {
+            return null;
+        }
+    };
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private final ServerConfiguration serverConfiguration;
+
+    private final NettyTransport transport;
+
+    private final ServerSessionPool sessionPool;
+
+    private volatile List<Channel> channels = Collections.emptyList();
+
+    /**
+     * @param serverConfiguration The server configuration.
+     * @param transport           The transport.
+     * @param router              Routes the stanzas, which have been received from other servers, and the errors for
+     *                            stanzas, which could not be delivered to other servers.
+     */
+    public NettyServerToServer(final ServerConfiguration serverConfiguration, final NettyTransport transport,
+                               final Consumer<Stanza> router) {
+        this.serverConfiguration = serverConfiguration;
+        this.transport = transport;
+        this.sessionPool = new ServerSessionPool(serverConfiguration, this::connect, router);
+    }
+
+    /**
+     * Starts to accept streams from other servers.
+     *
+     * @return The completion stage, which is complete, when the server-to-server port is bound.
+     */
+    public final CompletionStage<Void> start() {
+        final ServerBootstrap b = transport.serverBootstrap()
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) {
+                        final InboundServerSession session = sessionPool.newInboundSession();
+                        session.setConnection(createConnection(ch, session, session));
+                        ch.pipeline().addLast(new InboundXmppHandler(session));
+                    }
+                })
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        return transport.bind(b, serverConfiguration.getServerToServerPort())
+                .thenAccept(boundChannels -> channels = boundChannels);
+    }
+
+    private CompletionStage<Connection> connect(final InetSocketAddress address,
+                                                final OutboundServerSession session) {
+        final CompletableFuture<Connection> connection = new CompletableFuture<>();
+        final Bootstrap b = transport.bootstrap()
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) {
+                        connection.complete(createConnection(ch, session, session));
+                        ch.pipeline().addLast(new InboundXmppHandler(session));
+                    }
+                });
+        return NettyChannelConnection.completableFutureFromNettyFuture(b.connect(address))
+                .thenCompose(aVoid -> connection);
+    }
+
+    private NettyChannelConnection createConnection(final Channel channel, final StreamHandler streamHandler,
+                                                    final Session session) {
+        return new NettyChannelConnection(channel, streamHandler, session, Collections.emptyList(),
+                serverConfiguration::getUnmarshaller, Collections.emptyList(), serverConfiguration::getMarshaller,
+                null, UNENCRYPTED, serverConfiguration.isLazyExtensionBinding(),
+                serverConfiguration.getExecutor(), serverConfiguration.getMetricsRegistry());
+    }
+
+    /**
+     * Gets the pool of outbound streams, over which stanzas are sent to other servers.
+     *
+     * @return The session pool.
+     */
+    public final ServerSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    @Override
+    public final void close() {
+        channels.forEach(Channel::close);
+        sessionPool.close();
+    }
+}
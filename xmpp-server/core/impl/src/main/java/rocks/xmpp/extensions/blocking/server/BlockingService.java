@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.blocking.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.ExtensionProtocol;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.stanza.AbstractIQHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.blocking.model.Block;
+import rocks.xmpp.extensions.blocking.model.BlockList;
+import rocks.xmpp.extensions.blocking.model.Blockable;
+import rocks.xmpp.extensions.blocking.model.Unblock;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.privacy.model.PrivacyRule;
+import rocks.xmpp.extensions.privacy.server.CompiledPrivacyList;
+import rocks.xmpp.session.server.SessionManager;
+
+/**
+ * Manages the block lists of local users and evaluates them on the routing path.
+ *
+ * <p>A block list is equivalent to a privacy list, which blocks all communication with each blocked JID. It is
+ * compiled into a {@link CompiledPrivacyList} on each edit, so that checking a stanza costs a few hash lookups, no
+ * matter how many JIDs are blocked.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0191.html">XEP-0191: Blocking Command</a>
+ */
+@ApplicationScoped
+public class BlockingService extends AbstractIQHandler implements ExtensionProtocol, DiscoverableInfo {
+
+    private final Map<Jid, UserBlockList> blockLists = new ConcurrentHashMap<>();
+
+    @Inject
+    private SessionManager sessionManager;
+
+    public BlockingService() {
+        super(Blockable.class, IQ.Type.GET, IQ.Type.SET);
+    }
+
+    @Override
+    protected IQ processRequest(final IQ iq) {
+        final Jid user = iq.getFrom().asBareJid();
+        if (iq.getTo() != null && iq.getTo().getLocal() != null && !iq.getTo().asBareJid().equals(user)) {
+            // Users can only manage their own block list.
+            return iq.createError(Condition.FORBIDDEN);
+        }
+        final Blockable blockable = iq.getExtension(Blockable.class);
+        if (iq.getType() == IQ.Type.GET) {
+            if (!(blockable instanceof BlockList)) {
+                return iq.createError(Condition.BAD_REQUEST);
+            }
+            // 3.2: The client requests the block list, so that it gets the pushes.
+            final UserBlockList blockList = blockLists.computeIfAbsent(user, key -> new UserBlockList());
+            blockList.interested.add(iq.getFrom());
+            return iq.createResult(new BlockList(blockList.getItems()));
+        }
+        if (blockable instanceof Block) {
+            if (blockable.getItems().isEmpty()) {
+                // 3.3: If the <block/> element does not contain at least one child element, the server MUST return
+                // a <bad-request/> error.
+                return iq.createError(Condition.BAD_REQUEST);
+            }
+            final UserBlockList blockList = blockLists.computeIfAbsent(user, key -> new UserBlockList());
+            synchronized (blockList) {
+                blockList.items.addAll(blockable.getItems());
+                blockList.compile();
+            }
+            push(blockList, new Block(blockable.getItems()));
+        } else if (blockable instanceof Unblock) {
+            final UserBlockList blockList = blockLists.get(user);
+            if (blockList != null) {
+                synchronized (blockList) {
+                    if (blockable.getItems().isEmpty()) {
+                        // 3.4: Unblock all contacts.
+                        blockList.items.clear();
+                    } else {
+                        blockList.items.removeAll(blockable.getItems());
+                    }
+                    blockList.compile();
+                }
+                push(blockList, new Unblock(blockable.getItems()));
+            }
+        } else {
+            return iq.createError(Condition.BAD_REQUEST);
+        }
+        return iq.createResult();
+    }
+
+    /**
+     * Pushes a block list change to all resources of the user, which have requested the block list.
+     */
+    private void push(final UserBlockList blockList, final Blockable change) {
+        blockList.interested.removeIf(address -> {
+            final Session session = sessionManager.getSession(address);
+            if (session == null) {
+                return true;
+            }
+            session.send(IQ.set(address, change));
+            return false;
+        });
+    }
+
+    /**
+     * Checks, if the block list of a local user blocks a stanza, which the user receives or sends.
+     *
+     * @param stanza  The stanza.
+     * @param inbound True, if the stanza is received by the user in the 'to' attribute, false, if it is sent by the
+     *                user in the 'from' attribute.
+     * @return True, if the stanza is blocked.
+     * @see <a href="https://xmpp.org/extensions/xep-0191.html#block">3.3 User Blocks Contact</a>
+     */
+    public boolean isBlocked(final Stanza stanza, final boolean inbound) {
+        final Jid user = inbound ? stanza.getTo() : stanza.getFrom();
+        final Jid contact = inbound ? stanza.getFrom() : stanza.getTo();
+        if (user == null || contact == null || user.getLocal() == null) {
+            return false;
+        }
+        final UserBlockList blockList = blockLists.get(user.asBareJid());
+        if (blockList == null || user.asBareJid().equals(contact.asBareJid())) {
+            return false;
+        }
+        return blockList.compiledList.isDenied(CompiledPrivacyList.Kind.of(stanza, inbound), contact, () -> null);
+    }
+
+    @Override
+    public String getNamespace() {
+        return BlockList.NAMESPACE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getFeatures() {
+        return Collections.singleton(BlockList.NAMESPACE);
+    }
+
+    /**
+     * The block list of a user. Modifications happen while the instance is locked.
+     */
+    private static final class UserBlockList {
+
+        private final Set<Jid> items = new LinkedHashSet<>();
+
+        private final Set<Jid> interested = ConcurrentHashMap.newKeySet();
+
+        private volatile CompiledPrivacyList compiledList = new CompiledPrivacyList(Collections.emptyList());
+
+        private synchronized List<Jid> getItems() {
+            return new ArrayList<>(items);
+        }
+
+        private void compile() {
+            final Collection<PrivacyRule> rules = items.stream()
+                    .map(jid -> PrivacyRule.blockAllCommunicationWith(jid, 0))
+                    .collect(Collectors.toList());
+            compiledList = new CompiledPrivacyList(rules);
+        }
+    }
+}
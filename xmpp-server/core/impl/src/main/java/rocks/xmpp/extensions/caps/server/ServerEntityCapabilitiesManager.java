@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.caps.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.BiConsumer;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.OutboundPresenceHandler;
+import rocks.xmpp.core.stanza.PresenceEvent;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.extensions.caps.AbstractEntityCapabilitiesProtocol;
+import rocks.xmpp.extensions.caps.EntityCapabilitiesManager;
+import rocks.xmpp.extensions.caps.model.EntityCapabilities;
+import rocks.xmpp.extensions.caps2.server.ServerEntityCapabilities2Protocol;
+import rocks.xmpp.extensions.disco.ServiceDiscoveryManager;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.hashes.model.Hash;
+import rocks.xmpp.util.concurrent.AsyncResult;
+
+/**
+ * Caches the capabilities of the server's users and indexes them by feature.
+ *
+ * <p>Capabilities are cached by their verified hash, so that each client software needs to be discovered only once.
+ * Additionally each available resource is indexed under each of its features, so that the resources, which support a
+ * feature (e.g. a "+notify" feature of Personal Eventing), can be looked up without discovering anything. The index
+ * maps each feature to the bare JIDs of the users and their resources, which allows to intersect it with other sets of
+ * bare JIDs, like the contacts of a user.</p>
+ *
+ * <p>The capabilities of a resource are learned from its outbound presence and forgotten, when it becomes
+ * unavailable.</p>
+ *
+ * @author Christian Schudt
+ */
+@ApplicationScoped
+public class ServerEntityCapabilitiesManager implements EntityCapabilitiesManager, OutboundPresenceHandler {
+
+    @Inject
+    private ServiceDiscoveryManager serviceDiscoveryManager;
+
+    @Inject
+    private ServerEntityCapabilities1Protocol entityCapabilities1Protocol;
+
+    @Inject
+    private ServerEntityCapabilities2Protocol entityCapabilities2Protocol;
+
+    private final Map<Hash, DiscoverableInfo> capabilities = new ConcurrentHashMap<>();
+
+    private final Map<Jid, DiscoverableInfo> entityCapabilities = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Jid, Set<Jid>>> featureIndex = new ConcurrentHashMap<>();
+
+    private final Set<BiConsumer<Jid, Set<String>>> featureListeners = new CopyOnWriteArraySet<>();
+
+    @Override
+    public DiscoverableInfo readCapabilities(final Hash hash) {
+        return capabilities.get(hash);
+    }
+
+    @Override
+    public void writeCapabilities(final Hash hash, final DiscoverableInfo discoverableInfo) {
+        capabilities.put(hash, discoverableInfo);
+    }
+
+    @Override
+    public DiscoverableInfo readEntityCapabilities(final Jid entity) {
+        return entityCapabilities.get(entity);
+    }
+
+    @Override
+    public void writeEntityCapabilities(final Jid entity, final DiscoverableInfo discoverableInfo) {
+        final Set<String> addedFeatures = new HashSet<>();
+        entityCapabilities.compute(entity, (key, previous) -> {
+            final Set<String> previousFeatures = previous != null ? previous.getFeatures() : Collections.emptySet();
+            for (final String feature : previousFeatures) {
+                if (!discoverableInfo.getFeatures().contains(feature)) {
+                    unindex(feature, entity);
+                }
+            }
+            for (final String feature : discoverableInfo.getFeatures()) {
+                if (!previousFeatures.contains(feature)) {
+                    featureIndex.computeIfAbsent(feature, f -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(entity.asBareJid(), user -> ConcurrentHashMap.newKeySet())
+                            .add(entity);
+                    addedFeatures.add(feature);
+                }
+            }
+            return discoverableInfo;
+        });
+        if (!addedFeatures.isEmpty()) {
+            final Set<String> features = Collections.unmodifiableSet(addedFeatures);
+            featureListeners.forEach(listener -> listener.accept(entity, features));
+        }
+    }
+
+    /**
+     * Removes the capabilities of an entity, e.g. because it has become unavailable.
+     *
+     * @param entity The entity.
+     */
+    public void removeEntityCapabilities(final Jid entity) {
+        entityCapabilities.computeIfPresent(entity, (key, previous) -> {
+            previous.getFeatures().forEach(feature -> unindex(feature, entity));
+            return null;
+        });
+    }
+
+    private void unindex(final String feature, final Jid entity) {
+        featureIndex.computeIfPresent(feature, (f, users) -> {
+            users.computeIfPresent(entity.asBareJid(), (user, resources) -> {
+                resources.remove(entity);
+                return resources.isEmpty() ? null : resources;
+            });
+            return users.isEmpty() ? null : users;
+        });
+    }
+
+    /**
+     * Gets the available resources, which support a feature, grouped by the bare JID of their user.
+     *
+     * @param feature The feature.
+     * @return An unmodifiable view of the resources by user, which support the feature.
+     */
+    public Map<Jid, Set<Jid>> getEntities(final String feature) {
+        final Map<Jid, Set<Jid>> users = featureIndex.get(feature);
+        return users != null ? Collections.unmodifiableMap(users) : Collections.emptyMap();
+    }
+
+    /**
+     * Adds a listener, which is notified, when an entity has gained features, e.g. because it has become available.
+     * The listener receives the entity and its new features.
+     *
+     * @param listener The listener.
+     * @see #removeFeatureListener(BiConsumer)
+     */
+    public void addFeatureListener(final BiConsumer<Jid, Set<String>> listener) {
+        featureListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added listener.
+     *
+     * @param listener The listener.
+     * @see #addFeatureListener(BiConsumer)
+     */
+    public void removeFeatureListener(final BiConsumer<Jid, Set<String>> listener) {
+        featureListeners.remove(listener);
+    }
+
+    @Override
+    public AsyncResult<DiscoverableInfo> discoverCapabilities(final Jid jid) {
+        final DiscoverableInfo discoverableInfo = entityCapabilities.get(jid);
+        if (discoverableInfo != null) {
+            return new AsyncResult<>(CompletableFuture.completedFuture(discoverableInfo));
+        }
+        return serviceDiscoveryManager.discoverInformation(jid);
+    }
+
+    @Override
+    public void handleOutboundPresence(final PresenceEvent e) {
+        final Presence presence = e.getPresence();
+        // Only initial or subsequent broadcast presence of a user's resource carries its capabilities.
+        if (presence.getTo() != null || presence.getFrom() == null || !presence.getFrom().isFullJid()) {
+            return;
+        }
+        if (presence.isAvailable()) {
+            handleEntityCapabilities(entityCapabilities1Protocol, presence);
+            handleEntityCapabilities(entityCapabilities2Protocol, presence);
+        } else if (presence.getType() == Presence.Type.UNAVAILABLE) {
+            removeEntityCapabilities(presence.getFrom());
+        }
+    }
+
+    private static void handleEntityCapabilities(final AbstractEntityCapabilitiesProtocol<?> protocol,
+                                                 final Presence presence) {
+        final EntityCapabilities caps = presence.getExtension(protocol.getEntityCapabilitiesClass());
+        if (caps != null) {
+            protocol.handleEntityCapabilities(caps, presence.getFrom());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.carbons.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.stream.XMLOutputFactory;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.ExtensionProtocol;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.AbstractIQHandler;
+import rocks.xmpp.core.stanza.InboundMessageHandler;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.OutboundMessageHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.carbons.model.MessageCarbons;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.forward.model.Forwarded;
+import rocks.xmpp.session.server.InboundClientSession;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.EncodedStanza;
+
+/**
+ * Sends copies of the one-to-one messages of local users to their other resources, which have enabled message
+ * carbons.
+ *
+ * <p>A message, which a user sends, is copied to the user's other resources in a {@code <sent/>} element. A message,
+ * which a user receives, is copied in a {@code <received/>} element to the user's resources, which don't receive the
+ * message itself. The resources, which have enabled carbons, are tracked by the {@link SessionManager}.</p>
+ *
+ * <p>The message is marshalled only once, no matter how many resources get a copy: The {@code <forwarded/>} wrapper is
+ * spliced around the encoded message and each copy only adds its 'to' attribute, when it is written.</p>
+ *
+ * <p>In cluster mode, only the resources, which are connected to the same node, get copies.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0280.html">XEP-0280: Message Carbons</a>
+ */
+@ApplicationScoped
+public class MessageCarbonsService extends AbstractIQHandler
+        implements InboundMessageHandler, OutboundMessageHandler, ExtensionProtocol, DiscoverableInfo {
+
+    private static final System.Logger logger = System.getLogger(MessageCarbonsService.class.getName());
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private static final String FORWARDED_START_TAG = "<forwarded xmlns=\"" + Forwarded.NAMESPACE + "\">";
+
+    private static final String SENT_START_TAGS =
+            "<sent xmlns=\"" + MessageCarbons.NAMESPACE + "\">" + FORWARDED_START_TAG;
+
+    private static final String SENT_END_TAGS = "</forwarded></sent>";
+
+    private static final String RECEIVED_START_TAGS =
+            "<received xmlns=\"" + MessageCarbons.NAMESPACE + "\">" + FORWARDED_START_TAG;
+
+    private static final String RECEIVED_END_TAGS = "</forwarded></received>";
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    @Inject
+    private SessionManager sessionManager;
+
+    public MessageCarbonsService() {
+        super(MessageCarbons.Enable.class, IQ.Type.SET);
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html#enabling">4. Enabling Carbons</a>
+     */
+    @Override
+    protected IQ processRequest(final IQ iq) {
+        return setEnabled(sessionManager, iq, true);
+    }
+
+    private static IQ setEnabled(final SessionManager sessionManager, final IQ iq, final boolean enabled) {
+        if (iq.getTo() != null && iq.getTo().getLocal() != null
+                && !iq.getTo().asBareJid().equals(iq.getFrom().asBareJid())) {
+            // Carbons can only be enabled for the own session.
+            return iq.createError(Condition.FORBIDDEN);
+        }
+        if (!sessionManager.setCarbonsEnabled(iq.getFrom(), enabled)) {
+            return iq.createError(Condition.NOT_ALLOWED);
+        }
+        return iq.createResult();
+    }
+
+    /**
+     * Sends {@code <sent/>} copies of a message, which a local user sends, to the user's other resources.
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html#outbound">7. Sending Messages</a>
+     */
+    @Override
+    public void handleOutboundMessage(final MessageEvent e) {
+        final Message message = e.getMessage();
+        final Jid from = message.getFrom();
+        if (from == null || !from.isFullJid() || !isLocalUser(from) || message.getTo() == null
+                || !isEligible(message)) {
+            return;
+        }
+        final List<Session> sessions = sessionManager.getCarbonsEnabledSessions(from.asBareJid())
+                .filter(session -> !from.equals(session.getRemoteXmppAddress()))
+                .collect(Collectors.toList());
+        send(from.asBareJid(), sessions, message, MessageCarbons.Sent::new, SENT_START_TAGS, SENT_END_TAGS);
+    }
+
+    /**
+     * Sends {@code <received/>} copies of a message, which a local user receives, to the user's resources, which don't
+     * receive the message itself.
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html#inbound">6. Receiving Messages</a>
+     */
+    @Override
+    public void handleInboundMessage(final MessageEvent e) {
+        final Message message = e.getMessage();
+        final Jid to = message.getTo();
+        if (to == null || to.getLocal() == null || !isLocalUser(to) || !isEligible(message)) {
+            return;
+        }
+        final Predicate<Session> receivesMessage;
+        if (to.isFullJid() && sessionManager.getSession(to) != null) {
+            receivesMessage = session -> to.equals(session.getRemoteXmppAddress());
+        } else if (to.isBareJid() || message.getType() == Message.Type.CHAT) {
+            // The message is delivered to all non-negative resources, see MessageRouter.
+            receivesMessage = MessageCarbonsService::hasNonNegativePriority;
+        } else {
+            // The message is not delivered at all.
+            return;
+        }
+        final List<Session> sessions = sessionManager.getCarbonsEnabledSessions(to.asBareJid())
+                .filter(receivesMessage.negate())
+                .collect(Collectors.toList());
+        send(to.asBareJid(), sessions, message, MessageCarbons.Received::new, RECEIVED_START_TAGS, RECEIVED_END_TAGS);
+    }
+
+    private void send(final Jid user, final List<Session> sessions, final Message message,
+                      final Function<Forwarded, Object> carbon, final String startTags, final String endTags) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        final EncodedStanza.Template template;
+        try {
+            // The message keeps its 'to' attribute, but it can only be encoded without one.
+            final EncodedStanza encodedMessage = EncodedStanza.encode(new Message(null, message.getType(),
+                    message.getBodies(), message.getSubjects(), message.getThread(), message.getParentThread(),
+                    message.getId(), message.getFrom(), message.getLanguage(), message.getExtensions(),
+                    message.getError()), OUTPUT_FACTORY, serverConfiguration.getMarshaller()).to(message.getTo());
+            final Message envelope = new Message(null, message.getType());
+            envelope.setFrom(user);
+            // The envelope is only marshalled by transports, which cannot write the encoded message.
+            envelope.addExtension(carbon.apply(new Forwarded(ClientMessage.from(message))));
+            template = EncodedStanza.wrap(envelope, startTags, encodedMessage, endTags);
+        } catch (StreamErrorException ex) {
+            logger.log(System.Logger.Level.WARNING, "Message carbon could not be encoded.", ex);
+            return;
+        }
+        sessions.forEach(session -> session.send(template.to(session.getRemoteXmppAddress())));
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html#which-messages">6.1 Which Messages Are Carbon-Copied</a>
+     */
+    private static boolean isEligible(final Message message) {
+        if (message.hasExtension(MessageCarbons.Private.class) || message.hasExtension(MessageCarbons.Sent.class)
+                || message.hasExtension(MessageCarbons.Received.class)) {
+            return false;
+        }
+        return message.getType() == Message.Type.CHAT || (message.isNormal() && message.getBody() != null);
+    }
+
+    private static boolean hasNonNegativePriority(final Session session) {
+        final Presence presence = ((InboundClientSession) session).getPresence();
+        return presence != null && presence.getPriority() >= 0;
+    }
+
+    private boolean isLocalUser(final Jid jid) {
+        return jid.getDomain().equals(serverConfiguration.getDomain().getDomain());
+    }
+
+    @Override
+    public String getNamespace() {
+        return MessageCarbons.NAMESPACE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getFeatures() {
+        return Collections.singleton(MessageCarbons.NAMESPACE);
+    }
+
+    /**
+     * Handles requests, which disable message carbons.
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html#disabling">5. Disabling Carbons</a>
+     */
+    @ApplicationScoped
+    public static class DisableHandler extends AbstractIQHandler {
+
+        @Inject
+        private SessionManager sessionManager;
+
+        public DisableHandler() {
+            super(MessageCarbons.Disable.class, IQ.Type.SET);
+        }
+
+        @Override
+        protected IQ processRequest(final IQ iq) {
+            return setEnabled(sessionManager, iq, false);
+        }
+    }
+}
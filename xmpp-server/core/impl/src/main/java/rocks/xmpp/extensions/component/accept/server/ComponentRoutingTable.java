@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.component.accept.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Stanza;
+
+/**
+ * The routing table of external components, which maps each component domain to the connections, which have
+ * authenticated for it.
+ *
+ * <p>If several connections serve the same domain, stanzas are distributed among them by the hash of the recipient's
+ * bare JID, so that all stanzas to the same recipient are sent over the same connection and stay in order.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ComponentRoutingTable {
+
+    private final Map<String, ComponentSession[]> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Routes a stanza to a component, if its recipient is a component domain.
+     *
+     * @param stanza The stanza.
+     * @return True, if the stanza has been routed to a component.
+     */
+    public final boolean route(final Stanza stanza) {
+        final Jid to = stanza.getTo();
+        if (to == null) {
+            return false;
+        }
+        final ComponentSession[] sessions = routes.get(to.getDomain());
+        if (sessions == null) {
+            return false;
+        }
+        sessions[Math.floorMod(to.asBareJid().hashCode(), sessions.length)].route(stanza);
+        return true;
+    }
+
+    /**
+     * Checks, if at least one component is connected for a domain.
+     *
+     * @param domain The domain.
+     * @return True, if a component is connected.
+     */
+    public final boolean isComponentDomain(final Jid domain) {
+        return domain != null && routes.containsKey(domain.getDomain());
+    }
+
+    final void register(final ComponentSession session) {
+        routes.merge(session.getDomain().getDomain(), new ComponentSession[]{session}, (sessions, added) -> {
+            final ComponentSession[] result = Arrays.copyOf(sessions, sessions.length + 1);
+            result[sessions.length] = added[0];
+            return result;
+        });
+    }
+
+    final void unregister(final ComponentSession session) {
+        if (session.getDomain() == null) {
+            return;
+        }
+        routes.computeIfPresent(session.getDomain().getDomain(), (domain, sessions) -> {
+            final ComponentSession[] result = Arrays.stream(sessions)
+                    .filter(s -> s != session)
+                    .toArray(ComponentSession[]::new);
+            return result.length > 0 ? result : null;
+        });
+    }
+}
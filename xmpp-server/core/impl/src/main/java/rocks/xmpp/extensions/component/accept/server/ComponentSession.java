@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.component.accept.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.session.model.SessionOpen;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.StreamHandler;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+import rocks.xmpp.core.stream.model.StreamHeader;
+import rocks.xmpp.core.stream.model.errors.Condition;
+import rocks.xmpp.extensions.component.accept.model.ComponentIQ;
+import rocks.xmpp.extensions.component.accept.model.ComponentMessage;
+import rocks.xmpp.extensions.component.accept.model.ComponentPresence;
+import rocks.xmpp.extensions.component.accept.model.Handshake;
+
+/**
+ * A connection of an external component.
+ *
+ * <p>After the component has authenticated with the shared secret of its domain, it is registered in the
+ * {@link ComponentRoutingTable}. Stanzas to the component are written in batches: They are flushed, when the
+ * {@linkplain ServerConfiguration#getComponentBatchSize() batch size} is reached or when no further stanzas are
+ * pending on the I/O thread, which saves a system call per stanza under load.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0114.html">XEP-0114: Jabber Component Protocol</a>
+ */
+public final class ComponentSession implements Session, StreamHandler {
+
+    private static final String NAMESPACE = "jabber:component:accept";
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final ServerConfiguration serverConfiguration;
+
+    private final ComponentRoutingTable routingTable;
+
+    private final Consumer<Stanza> router;
+
+    private final Executor eventLoop;
+
+    private final int batchSize;
+
+    private Connection connection;
+
+    private volatile Jid domain;
+
+    private volatile boolean authenticated;
+
+    // Only accessed by the event loop.
+    private int unflushed;
+
+    private boolean flushScheduled;
+
+    /**
+     * @param serverConfiguration The server configuration.
+     * @param routingTable        The routing table, into which the component is registered after authentication.
+     * @param router              Routes the stanzas, which have been sent by the component.
+     * @param eventLoop           The I/O thread of the connection, which writes and flushes stanzas in order.
+     */
+    public ComponentSession(final ServerConfiguration serverConfiguration, final ComponentRoutingTable routingTable,
+                            final Consumer<Stanza> router, final Executor eventLoop) {
+        this.serverConfiguration = serverConfiguration;
+        this.routingTable = routingTable;
+        this.router = router;
+        this.eventLoop = eventLoop;
+        this.batchSize = Math.max(1, serverConfiguration.getComponentBatchSize());
+    }
+
+    public final void setConnection(final Connection connection) {
+        this.connection = connection;
+        connection.closeFuture().whenComplete((aVoid, e) -> routingTable.unregister(this));
+    }
+
+    @Override
+    public final boolean handleElement(final Object element) {
+        if (element instanceof SessionOpen) {
+            final Jid to = ((SessionOpen) element).getTo();
+            // XEP-0114 streams have no version and therefore no stream features.
+            connection.open(StreamHeader.create(to, null, id, null, Locale.ENGLISH, NAMESPACE));
+            if (to == null || serverConfiguration.getComponentSecret(to) == null) {
+                connection.closeAsync(new StreamError(Condition.HOST_UNKNOWN));
+            } else {
+                domain = Jid.ofDomain(to.getDomain());
+            }
+        } else if (element instanceof Handshake) {
+            if (!authenticated && isValid((Handshake) element)) {
+                authenticated = true;
+                connection.send(new Handshake());
+                routingTable.register(this);
+            } else {
+                connection.closeAsync(new StreamError(Condition.NOT_AUTHORIZED));
+            }
+        } else if (element instanceof Stanza) {
+            final Stanza stanza = (Stanza) element;
+            if (!authenticated) {
+                connection.closeAsync(new StreamError(Condition.NOT_AUTHORIZED));
+            } else if (stanza.getFrom() == null || stanza.getTo() == null) {
+                connection.closeAsync(new StreamError(Condition.IMPROPER_ADDRESSING));
+            } else if (!stanza.getFrom().getDomain().equals(domain.getDomain())) {
+                // A component may only send from its own domain, not from a subdomain, which it has not authenticated.
+                connection.closeAsync(new StreamError(Condition.INVALID_FROM));
+            } else {
+                router.accept(stanza);
+            }
+        }
+        return false;
+    }
+
+    private boolean isValid(final Handshake handshake) {
+        final Jid d = domain;
+        final String secret = d != null ? serverConfiguration.getComponentSecret(d) : null;
+        if (secret == null || handshake.getValue() == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(Handshake.create(id, secret).getValue().getBytes(StandardCharsets.UTF_8),
+                handshake.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a stanza to the component. The stanza is written on the I/O thread and flushed with the next batch.
+     *
+     * @param stanza The stanza.
+     */
+    final void route(final Stanza stanza) {
+        final StreamElement element = toComponentStanza(stanza);
+        eventLoop.execute(() -> write(element));
+    }
+
+    private void write(final StreamElement element) {
+        connection.write(element);
+        if (++unflushed >= batchSize) {
+            unflushed = 0;
+            connection.flush();
+        } else if (!flushScheduled) {
+            // Flush after the stanzas, which are already pending on the I/O thread, have been written.
+            flushScheduled = true;
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (unflushed > 0) {
+            unflushed = 0;
+            connection.flush();
+        }
+    }
+
+    private static StreamElement toComponentStanza(final Stanza stanza) {
+        if (stanza instanceof Message) {
+            return ComponentMessage.from((Message) stanza);
+        } else if (stanza instanceof Presence) {
+            return ComponentPresence.from((Presence) stanza);
+        } else if (stanza instanceof IQ) {
+            return ComponentIQ.from((IQ) stanza);
+        }
+        return stanza;
+    }
+
+    public final String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the component domain.
+     *
+     * @return The domain or null, if the stream is not yet opened.
+     */
+    public final Jid getDomain() {
+        return domain;
+    }
+
+    public final boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    @Override
+    public final Jid getLocalXmppAddress() {
+        return serverConfiguration.getDomain();
+    }
+
+    @Override
+    public final Jid getRemoteXmppAddress() {
+        return domain;
+    }
+
+    @Override
+    public final CompletionStage<Void> send(final StreamElement streamElement) {
+        return connection.send(streamElement);
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync() {
+        return connection.closeAsync();
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync(final StreamError streamError) {
+        return connection.closeAsync(streamError);
+    }
+
+    @Override
+    public final void close() throws Exception {
+        connection.close();
+    }
+}
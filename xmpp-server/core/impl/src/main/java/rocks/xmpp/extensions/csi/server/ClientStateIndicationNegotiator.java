@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.csi.server;
+
+import rocks.xmpp.core.stream.StreamNegotiationResult;
+import rocks.xmpp.core.stream.model.StreamFeature;
+import rocks.xmpp.core.stream.server.StreamFeatureProvider;
+import rocks.xmpp.extensions.csi.model.ClientState;
+import rocks.xmpp.session.server.InboundClientSession;
+
+/**
+ * Advertises the client state indication stream feature and handles the {@code <active/>} and {@code <inactive/>}
+ * elements of a client by toggling the session's {@link ClientStateQueue}.
+ *
+ * <p>The client state can be changed any number of times during a session, therefore negotiation never completes and
+ * the negotiator stays registered.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0352.html">XEP-0352: Client State Indication</a>
+ */
+public final class ClientStateIndicationNegotiator implements StreamFeatureProvider<StreamFeature> {
+
+    private final InboundClientSession session;
+
+    private final ClientStateQueue clientStateQueue;
+
+    public ClientStateIndicationNegotiator(final InboundClientSession session,
+                                           final ClientStateQueue clientStateQueue) {
+        this.session = session;
+        this.clientStateQueue = clientStateQueue;
+    }
+
+    @Override
+    public final StreamFeature createStreamFeature() {
+        return ClientState.FEATURE;
+    }
+
+    @Override
+    public final StreamNegotiationResult processNegotiation(final Object element) {
+        if (element == ClientState.ACTIVE || element == ClientState.INACTIVE) {
+            // The client state is only meaningful for a bound resource; ignore it otherwise.
+            if (session.getAddress().isPresent()) {
+                clientStateQueue.setActive(element == ClientState.ACTIVE);
+            }
+            return StreamNegotiationResult.INCOMPLETE;
+        }
+        return StreamNegotiationResult.IGNORE;
+    }
+}
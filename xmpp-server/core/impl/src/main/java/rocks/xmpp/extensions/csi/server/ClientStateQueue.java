@@ -0,0 +1,314 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.csi.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import javax.xml.namespace.QName;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.metrics.Counter;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.stanza.model.LazyExtension;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.chatstates.model.ChatState;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+
+/**
+ * Delays non-urgent stanzas to a client, while the client has indicated that it is inactive.
+ *
+ * <p>While the client is active, elements are written and flushed immediately. While it is inactive:</p>
+ *
+ * <ul>
+ * <li>Availability presences are buffered and coalesced per sender, i.e. only the last presence of each full JID is
+ * delivered.</li>
+ * <li>Messages, which only contain a chat state notification, are dropped.</li>
+ * <li>Other messages without body or subject (e.g. receipts or PEP events) are buffered in order.</li>
+ * <li>Everything else (messages with body, IQs, subscription and error presences) is urgent: The buffer is flushed and
+ * the urgent stanza is sent along with it.</li>
+ * </ul>
+ *
+ * <p>The buffer is also flushed, when its estimated size exceeds a byte budget, when the oldest buffered stanza has
+ * waited for too long or when the client becomes active again.</p>
+ *
+ * <p>The following counters are maintained:</p>
+ *
+ * <ul>
+ * <li>{@code xmpp.server.csi.suppressed}: The number of stanzas, which have been dropped or coalesced.</li>
+ * <li>{@code xmpp.server.csi.bytes.saved}: The estimated size of these stanzas.</li>
+ * <li>{@code xmpp.server.csi.flushes}: The number of times the buffer has been flushed.</li>
+ * </ul>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0352.html">XEP-0352: Client State Indication</a>
+ */
+public final class ClientStateQueue {
+
+    private final Supplier<Connection> connection;
+
+    private final Executor executor;
+
+    private final ToIntFunction<StreamElement> sizeEstimator;
+
+    private final int maxBytes;
+
+    private final Duration maxDelay;
+
+    private final Counter suppressed;
+
+    private final Counter bytesSaved;
+
+    private final Counter flushes;
+
+    /**
+     * The buffered elements, keyed by the sender for coalesced presences or by a unique key otherwise.
+     *
+     * <p>Guarded by "this".</p>
+     */
+    private final Map<Object, Buffered> buffer = new LinkedHashMap<>();
+
+    /**
+     * Guarded by "this".
+     */
+    private boolean active = true;
+
+    /**
+     * Guarded by "this".
+     */
+    private long bufferedBytes;
+
+    /**
+     * Guarded by "this".
+     */
+    private HashedWheelTimer.Timeout flushTimeout;
+
+    /**
+     * @param connection      Supplies the connection, to which elements are written.
+     * @param executor        The executor, which flushes the buffer, when the maximal delay has elapsed, or null, if
+     *                        it is flushed on the timer thread.
+     * @param sizeEstimator   Estimates the size of an element in bytes.
+     * @param maxBytes        The byte budget, i.e. the buffer is flushed, if its estimated size exceeds this value.
+     * @param maxDelay        The time budget, i.e. the maximal time a stanza is buffered.
+     * @param metricsRegistry The metrics registry.
+     */
+    public ClientStateQueue(final Supplier<Connection> connection, final Executor executor,
+                            final ToIntFunction<StreamElement> sizeEstimator, final int maxBytes,
+                            final Duration maxDelay, final MetricsRegistry metricsRegistry) {
+        this.connection = Objects.requireNonNull(connection);
+        this.executor = executor;
+        this.sizeEstimator = Objects.requireNonNull(sizeEstimator);
+        this.maxBytes = maxBytes;
+        this.maxDelay = Objects.requireNonNull(maxDelay);
+        this.suppressed = metricsRegistry.counter("xmpp.server.csi.suppressed");
+        this.bytesSaved = metricsRegistry.counter("xmpp.server.csi.bytes.saved");
+        this.flushes = metricsRegistry.counter("xmpp.server.csi.flushes");
+    }
+
+    /**
+     * Sets the client state. If the client becomes active, the buffer is flushed.
+     *
+     * @param active True, if the client is active; false, if it is inactive.
+     */
+    public final synchronized void setActive(final boolean active) {
+        this.active = active;
+        if (active) {
+            flush();
+        }
+    }
+
+    /**
+     * Indicates, whether the client is active.
+     *
+     * @return True, if the client is active.
+     */
+    public final synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Sends an element to the client or buffers it, if the client is inactive and the element is not urgent.
+     *
+     * @param element The element.
+     * @return The stage, which is complete, when the element has been written, dropped or buffered.
+     */
+    public final synchronized CompletionStage<Void> send(final StreamElement element) {
+        if (!active) {
+            if (isChatStateOnly(element)) {
+                suppressed.increment();
+                bytesSaved.add(sizeEstimator.applyAsInt(element));
+                return CompletableFuture.completedFuture(null);
+            }
+            final Object key = bufferKey(element);
+            if (key != null) {
+                final Buffered buffered = new Buffered(element, sizeEstimator.applyAsInt(element));
+                // Remove it first, so that the new presence is delivered after any stanza buffered in between.
+                final Buffered replaced = buffer.remove(key);
+                if (replaced != null) {
+                    suppressed.increment();
+                    bytesSaved.add(replaced.size);
+                    bufferedBytes -= replaced.size;
+                }
+                buffer.put(key, buffered);
+                bufferedBytes += buffered.size;
+                if (bufferedBytes > maxBytes) {
+                    flush();
+                } else if (flushTimeout == null) {
+                    flushTimeout = HashedWheelTimer.shared()
+                            .newTimeout(this::onFlushTimeout, maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        final Connection c = connection.get();
+        writeBuffer(c);
+        final CompletionStage<Void> stage = c.write(element);
+        c.flush();
+        return stage;
+    }
+
+    /**
+     * Writes and flushes all buffered elements.
+     */
+    public final synchronized void flush() {
+        if (!buffer.isEmpty()) {
+            final Connection c = connection.get();
+            writeBuffer(c);
+            c.flush();
+        }
+    }
+
+    /**
+     * Gets the number of buffered elements.
+     *
+     * @return The number of buffered elements.
+     */
+    public final synchronized int size() {
+        return buffer.size();
+    }
+
+    private void writeBuffer(final Connection c) {
+        if (flushTimeout != null) {
+            flushTimeout.cancel();
+            flushTimeout = null;
+        }
+        if (buffer.isEmpty()) {
+            return;
+        }
+        final Collection<Buffered> elements = new ArrayList<>(buffer.values());
+        buffer.clear();
+        bufferedBytes = 0;
+        for (final Buffered buffered : elements) {
+            c.write(buffered.element);
+        }
+        flushes.increment();
+    }
+
+    private void onFlushTimeout() {
+        // Don't write on the timer thread, it is shared by all timeouts.
+        if (executor != null) {
+            executor.execute(this::flush);
+        } else {
+            flush();
+        }
+    }
+
+    private static boolean isChatStateOnly(final StreamElement streamElement) {
+        final StreamElement element = unwrap(streamElement);
+        if (element instanceof Message) {
+            final Message message = (Message) element;
+            if (message.getError() != null || !message.getBodies().isEmpty() || !message.getSubjects().isEmpty()) {
+                return false;
+            }
+            // Don't bind a lazy extension, its name is sufficient.
+            final List<Object> extensions = message.getExtensions();
+            if (extensions.size() != 1) {
+                return false;
+            }
+            final Object extension = extensions.get(0);
+            if (extension instanceof LazyExtension) {
+                final QName name = ((LazyExtension) extension).getName();
+                return name != null && ChatState.NAMESPACE.equals(name.getNamespaceURI());
+            }
+            return extension instanceof ChatState;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the key, under which a non-urgent element is buffered.
+     *
+     * @param streamElement The element.
+     * @return The key or null, if the element is urgent.
+     */
+    private static Object bufferKey(final StreamElement streamElement) {
+        final StreamElement element = unwrap(streamElement);
+        if (element instanceof Presence) {
+            final Presence presence = (Presence) element;
+            final Jid from = presence.getFrom();
+            if (from != null && (presence.isAvailable() || presence.getType() == Presence.Type.UNAVAILABLE)) {
+                return from;
+            }
+        } else if (element instanceof Message) {
+            final Message message = (Message) element;
+            if (message.getError() == null && message.getBodies().isEmpty() && message.getSubjects().isEmpty()) {
+                return new Object();
+            }
+        }
+        return null;
+    }
+
+    private static StreamElement unwrap(final StreamElement element) {
+        return element instanceof EncodedStanza ? ((EncodedStanza) element).getStanza() : element;
+    }
+
+    private static final class Buffered {
+
+        private final StreamElement element;
+
+        private final int size;
+
+        private Buffered(final StreamElement element, final int size) {
+            this.element = element;
+            this.size = size;
+        }
+    }
+}
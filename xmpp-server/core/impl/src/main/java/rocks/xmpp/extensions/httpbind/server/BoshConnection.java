@@ -40,7 +40,6 @@ import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
@@ -58,13 +57,17 @@ import rocks.xmpp.core.stream.model.StreamErrorException;
 import rocks.xmpp.core.stream.model.errors.Condition;
 import rocks.xmpp.extensions.httpbind.model.Body;
 import rocks.xmpp.session.server.DefaultServerConfiguration;
+import rocks.xmpp.util.EncodedStanza;
 import rocks.xmpp.util.XmppUtils;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
 
 /**
  * @author Christian Schudt
  */
 public final class BoshConnection extends AbstractConnection {
 
+    private static final System.Logger logger = System.getLogger(BoshConnection.class.getName());
+
     /**
      * This is the longest time (in seconds) that the connection manager will wait before responding to any request
      * during the session.
@@ -120,7 +123,7 @@ public final class BoshConnection extends AbstractConnection {
      *
      * <p>Guarded by "inboundQueue".</p>
      */
-    private Future<?> inactivityFuture;
+    private HashedWheelTimer.Timeout inactivityFuture;
 
     /**
      * The last received request, whose RID is +1 from the previous RID.
@@ -288,7 +291,7 @@ public final class BoshConnection extends AbstractConnection {
         synchronized (inboundQueue) {
             // Cancel the inactivity future, the inactivity timeout will start again on the next response.
             if (inactivityFuture != null) {
-                inactivityFuture.cancel(false);
+                inactivityFuture.cancel();
             }
             // After receiving a request with an 'ack' value less than the 'rid'
             // of the last request that it has already responded to,
@@ -385,7 +388,9 @@ public final class BoshConnection extends AbstractConnection {
 
     @Override
     public final CompletableFuture<Void> write(final StreamElement streamElement) {
-        deliverables.add(streamElement);
+        // The body is marshalled as a whole, so pre-encoded stanzas can't be written as they are.
+        deliverables.add(streamElement instanceof EncodedStanza ? ((EncodedStanza) streamElement).toStanza()
+                : streamElement);
         // TODO: return completed if flushed.
         return CompletableFuture.completedFuture(null);
     }
@@ -503,10 +508,10 @@ public final class BoshConnection extends AbstractConnection {
             if (requests.isEmpty()) {
                 synchronized (inboundQueue) {
                     BoshConnection.this.inactivityFuture =
-                            BoshConnection.this.connectionManager.scheduledExecutorService.schedule(() -> {
-                                System.out.println("Closing inactive BOSH session.");
+                            HashedWheelTimer.shared().newTimeout(() -> CompletableFuture.runAsync(() -> {
+                                logger.log(System.Logger.Level.DEBUG, "Closing inactive BOSH session.");
                                 closeAsync();
-                            }, maxPause.getSeconds(), TimeUnit.SECONDS);
+                            }), maxPause.getSeconds(), TimeUnit.SECONDS);
                 }
             }
 
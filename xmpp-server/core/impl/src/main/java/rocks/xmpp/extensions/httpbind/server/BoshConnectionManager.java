@@ -26,8 +26,6 @@ package rocks.xmpp.extensions.httpbind.server;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import javax.enterprise.inject.spi.CDI;
 import javax.inject.Singleton;
 import javax.ws.rs.POST;
@@ -51,8 +49,6 @@ public final class BoshConnectionManager {
 
     private final Map<String, BoshConnection> connections = new ConcurrentHashMap<>();
 
-    final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-
     @POST
     @Produces(MediaType.TEXT_XML)
     public void handleRequest(final Body body, @Suspended final AsyncResponse asyncResponse,
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * A message archive, which appends messages to memory-mapped, segmented log files.
+ *
+ * <p>The archive is split into shards by the owner's bare JID, so that appends of different owners mostly don't
+ * contend. Each shard is a directory of segments, i.e. files of a fixed size, to which messages are only appended. When
+ * a segment is full, a new one is created. Old messages are removed by {@linkplain #compact(Instant) compaction}, which
+ * deletes whole segments.</p>
+ *
+ * <p>Each shard keeps a sparse in-memory index of the messages of each owner, which is rebuilt from the segments, when
+ * the archive is opened. Retrieving the newest messages of an owner only reads the requested messages, no matter how
+ * large the archive is. Messages are looked up by id or time in logarithmic time.</p>
+ *
+ * <p>The number of shards must not change, once an archive has been created. Segments are written to disk, when they
+ * are full and when the archive is closed; until then, the operating system flushes them in the background.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christian Schudt
+ * @see MessageArchiveService
+ */
+public final class ArchiveLog implements AutoCloseable {
+
+    /**
+     * The default number of shards.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * The default size of a segment.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    private final ArchiveShard[] shards;
+
+    private ArchiveLog(final ArchiveShard[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Opens an archive or creates a new one.
+     *
+     * @param directory   The directory.
+     * @param shards      The number of shards.
+     * @param segmentSize The size of a segment in bytes, which also limits the size of a single message.
+     * @return The archive.
+     * @throws IOException If the archive could not be opened.
+     */
+    public static ArchiveLog open(final Path directory, final int shards, final int segmentSize) throws IOException {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive.");
+        }
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " + MIN_SEGMENT_SIZE + " bytes.");
+        }
+        final ArchiveShard[] archiveShards = new ArchiveShard[shards];
+        for (int i = 0; i < shards; i++) {
+            archiveShards[i] = ArchiveShard.open(directory.resolve(String.format("shard-%03d", i)), segmentSize);
+        }
+        return new ArchiveLog(archiveShards);
+    }
+
+    /**
+     * Appends a message to the archive of an owner.
+     *
+     * @param owner     The owner of the archive.
+     * @param with      The conversation partner, i.e. the recipient of an outbound message or the sender of an inbound
+     *                  message.
+     * @param message   The encoded message.
+     * @param timestamp The time, when the message has been archived.
+     * @return The archived message, which contains the archive id.
+     * @throws IOException If the message could not be archived.
+     */
+    public final ArchivedMessage append(final Jid owner, final Jid with, final byte[] message,
+                                        final Instant timestamp) throws IOException {
+        final String bareJid = owner.asBareJid().toString();
+        return shard(bareJid).append(bareJid, with.toString(), message, timestamp.toEpochMilli());
+    }
+
+    /**
+     * Queries the archive of an owner. Without result set management, the oldest messages are returned.
+     *
+     * @param owner               The owner of the archive.
+     * @param with                Only return messages with this conversation partner, or null. A bare JID matches all
+     *                            resources.
+     * @param start               Only return messages, which have been archived at or after this time, or null.
+     * @param end                 Only return messages, which have been archived at or before this time, or null.
+     * @param resultSetManagement The result set management, which may page forwards (after), backwards (before) or
+     *                            out of order (index), or null.
+     * @param maxSize             The maximal number of messages, which limits the requested page size.
+     * @return The page.
+     * @throws NoSuchElementException If the 'after' or 'before' id does not exist in the archive.
+     */
+    public final ArchivePage query(final Jid owner, final Jid with, final Instant start, final Instant end,
+                                   final ResultSetManagement resultSetManagement, final int maxSize) {
+        final String bareJid = owner.asBareJid().toString();
+        int max = maxSize;
+        String after = null;
+        String before = null;
+        Integer index = null;
+        if (resultSetManagement != null) {
+            if (resultSetManagement.getMaxSize() != null) {
+                max = Math.max(0, Math.min(maxSize, resultSetManagement.getMaxSize()));
+            }
+            after = resultSetManagement.getAfter();
+            before = resultSetManagement.getBefore();
+            index = resultSetManagement.getIndex();
+        }
+        return shard(bareJid).query(bareJid, with != null ? with.toString() : null,
+                start != null ? start.toEpochMilli() : null, end != null ? end.toEpochMilli() : null,
+                after, before, index, max);
+    }
+
+    /**
+     * Removes the messages, which are older than the given time. As whole segments are removed, some older messages may
+     * be kept until their segment is removed.
+     *
+     * @param olderThan The time.
+     * @return The number of removed segments.
+     * @throws IOException If a segment could not be removed.
+     */
+    public final int compact(final Instant olderThan) throws IOException {
+        int deleted = 0;
+        for (final ArchiveShard shard : shards) {
+            deleted += shard.compact(olderThan.toEpochMilli());
+        }
+        return deleted;
+    }
+
+    /**
+     * Gets the number of segments in all shards.
+     *
+     * @return The number of segments.
+     */
+    public final int getSegmentCount() {
+        int count = 0;
+        for (final ArchiveShard shard : shards) {
+            count += shard.getSegmentCount();
+        }
+        return count;
+    }
+
+    private ArchiveShard shard(final String owner) {
+        // String.hashCode() is specified, so that an owner is assigned to the same shard after a restart.
+        return shards[Math.floorMod(owner.hashCode(), shards.length)];
+    }
+
+    /**
+     * Writes all segments to disk.
+     */
+    @Override
+    public final void close() {
+        for (final ArchiveShard shard : shards) {
+            shard.force();
+        }
+    }
+}
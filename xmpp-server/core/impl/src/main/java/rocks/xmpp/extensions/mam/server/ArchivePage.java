@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.util.Collections;
+import java.util.List;
+
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * A page of archived messages, which has been returned by a query.
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ * @see ArchiveLog
+ */
+public final class ArchivePage {
+
+    private final List<ArchivedMessage> messages;
+
+    private final boolean complete;
+
+    private final Integer count;
+
+    private final Integer index;
+
+    ArchivePage(final List<ArchivedMessage> messages, final boolean complete, final Integer count,
+                final Integer index) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.complete = complete;
+        this.count = count;
+        this.index = index;
+    }
+
+    /**
+     * Gets the messages, oldest first.
+     *
+     * @return The messages.
+     */
+    public final List<ArchivedMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Indicates, whether this is the last page in the paging direction.
+     *
+     * @return True, if there are no more messages.
+     */
+    public final boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the result set management for the response, which contains the first and the last id of the page and, if
+     * known, the total number of messages and the index of the first message.
+     *
+     * @return The result set management.
+     */
+    public final ResultSetManagement getResultSetManagement() {
+        if (messages.isEmpty()) {
+            // If there are no items in the page, then the <first/> and <last/> elements MUST NOT be included.
+            return ResultSetManagement.forCountResponse(count != null ? count : 0);
+        }
+        return ResultSetManagement.forResponse(count, index, messages.get(0).getId(),
+                messages.get(messages.size() - 1).getId());
+    }
+}
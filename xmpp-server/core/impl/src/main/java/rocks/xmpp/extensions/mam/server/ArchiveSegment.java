@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A segment of an archive shard, i.e. a memory-mapped file of a fixed size, to which records are only appended.
+ *
+ * <p>Each record consists of its length, the archive id, the timestamp, the address of the previous record of the same
+ * owner, the owner, the JID of the conversation partner and the message. The length is written last, so that a record,
+ * which has been written partially (e.g. due to a crash), is ignored when the segment is opened again. A length of 0
+ * marks the end of the records.</p>
+ *
+ * <p>This class is not thread-safe. It is guarded by its shard.</p>
+ *
+ * @author Christian Schudt
+ */
+final class ArchiveSegment {
+
+    /**
+     * The id (long), the timestamp (long), the previous address (long) and the lengths of the owner (short), the JID
+     * (short) and the message (int).
+     */
+    private static final int RECORD_HEADER_SIZE = 32;
+
+    private static final int ID_OFFSET = 4;
+
+    private static final int TIMESTAMP_OFFSET = 12;
+
+    private static final int PREVIOUS_OFFSET = 20;
+
+    private static final int OWNER_OFFSET = 28;
+
+    private final Path path;
+
+    private final int number;
+
+    private final MappedByteBuffer buffer;
+
+    private int position;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private ArchiveSegment(final Path path, final int number, final MappedByteBuffer buffer) {
+        this.path = path;
+        this.number = number;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new segment or opens an existing one.
+     *
+     * @param path     The file.
+     * @param number   The number of the segment within its shard.
+     * @param capacity The size of the file in bytes.
+     * @return The segment.
+     * @throws IOException If the file could not be mapped.
+     */
+    static ArchiveSegment open(final Path path, final int number, final int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // An existing segment keeps its size, even if the configured capacity has changed.
+            final long size = channel.size() > 0 ? channel.size() : capacity;
+            return new ArchiveSegment(path, number, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Gets the maximal size of a record, which fits into an empty segment of the given capacity.
+     *
+     * @param capacity The capacity.
+     * @return The maximal size of the owner, JID and message bytes together.
+     */
+    static int maxData(final int capacity) {
+        return capacity - 4 - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param id        The archive id.
+     * @param timestamp The timestamp in milliseconds.
+     * @param previous  The address of the previous record of the owner or -1.
+     * @param owner     The bare JID of the owner.
+     * @param with      The JID of the conversation partner.
+     * @param message   The message.
+     * @return The position of the record or -1, if the segment is full.
+     */
+    int append(final long id, final long timestamp, final long previous, final byte[] owner, final byte[] with,
+               final byte[] message) {
+        final int length = RECORD_HEADER_SIZE + owner.length + with.length + message.length;
+        if (position + 4 + length > buffer.capacity()) {
+            return -1;
+        }
+        final int recordPosition = position;
+        final ByteBuffer target = buffer.duplicate();
+        target.position(recordPosition + ID_OFFSET);
+        target.putLong(id)
+                .putLong(timestamp)
+                .putLong(previous)
+                .putShort((short) owner.length)
+                .putShort((short) with.length)
+                .putInt(message.length)
+                .put(owner)
+                .put(with)
+                .put(message);
+        // The length is written last and makes the record visible.
+        buffer.putInt(recordPosition, length);
+        position += 4 + length;
+        lastTimestamp = timestamp;
+        return recordPosition;
+    }
+
+    /**
+     * Scans the records of an opened segment, in order to find its end and to rebuild the index.
+     *
+     * @param visitor Called for each record with its position.
+     */
+    void recover(final RecordVisitor visitor) {
+        position = 0;
+        while (position + 4 <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length < RECORD_HEADER_SIZE || position + 4 + length > buffer.capacity()) {
+                break;
+            }
+            visitor.visit(position);
+            lastTimestamp = getTimestamp(position);
+            position += 4 + length;
+        }
+    }
+
+    long getId(final int recordPosition) {
+        return buffer.getLong(recordPosition + ID_OFFSET);
+    }
+
+    long getTimestamp(final int recordPosition) {
+        return buffer.getLong(recordPosition + TIMESTAMP_OFFSET);
+    }
+
+    long getPrevious(final int recordPosition) {
+        return buffer.getLong(recordPosition + PREVIOUS_OFFSET);
+    }
+
+    String getOwner(final int recordPosition) {
+        return readString(recordPosition + 4 + RECORD_HEADER_SIZE, buffer.getShort(recordPosition + OWNER_OFFSET));
+    }
+
+    String getWith(final int recordPosition) {
+        return readString(recordPosition + 4 + RECORD_HEADER_SIZE + buffer.getShort(recordPosition + OWNER_OFFSET),
+                buffer.getShort(recordPosition + OWNER_OFFSET + 2));
+    }
+
+    byte[] getMessage(final int recordPosition) {
+        final int offset = recordPosition + 4 + RECORD_HEADER_SIZE + buffer.getShort(recordPosition + OWNER_OFFSET)
+                + buffer.getShort(recordPosition + OWNER_OFFSET + 2);
+        final byte[] message = new byte[buffer.getInt(recordPosition + OWNER_OFFSET + 4)];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(message);
+        return message;
+    }
+
+    private String readString(final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the number of this segment within its shard.
+     *
+     * @return The number.
+     */
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * Gets the timestamp of the newest record.
+     *
+     * @return The timestamp or {@link Long#MIN_VALUE}, if the segment is empty.
+     */
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Writes the records to the file.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Deletes the file. The mapping is released, when the buffer is garbage collected.
+     *
+     * @throws IOException If the file could not be deleted.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Called for each record, while a segment is recovered.
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+
+        void visit(int recordPosition);
+    }
+}
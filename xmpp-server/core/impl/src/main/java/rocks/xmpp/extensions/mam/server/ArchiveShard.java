@@ -0,0 +1,556 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * A shard of the message archive, which consists of a sequence of segments and an in-memory index of the records of
+ * each owner.
+ *
+ * <p>The records of an owner are linked backwards, i.e. each record contains the address of the owner's previous
+ * record. The index only keeps the address of the owner's newest record and the address of every
+ * {@value #ANCHOR_INTERVAL}th record (the anchors). Any record of an owner can therefore be reached by following at
+ * most {@value #ANCHOR_INTERVAL} links from the newest record or an anchor, and a page of the newest records only
+ * requires to read the page itself, no matter how many records the owner has. Because ids and timestamps are
+ * ascending, records are looked up by id or time by a binary search over the anchors.</p>
+ *
+ * <p>An address consists of the segment number in the high 32 bits and the position within the segment in the low 32
+ * bits.</p>
+ *
+ * <p>This class is thread-safe. Appends and compactions are exclusive, queries are concurrent.</p>
+ *
+ * @author Christian Schudt
+ */
+final class ArchiveShard {
+
+    static final int ANCHOR_INTERVAL = 32;
+
+    private static final String SUFFIX = ".log";
+
+    private static final int LOOKUP_BY_ID = 0;
+
+    private static final int LOOKUP_BY_TIMESTAMP = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Path directory;
+
+    private final int capacity;
+
+    /**
+     * The segments, oldest first. The segment numbers are consecutive. Guarded by "lock".
+     */
+    private final List<ArchiveSegment> segments = new ArrayList<>();
+
+    /**
+     * The index by owner. Guarded by "lock".
+     */
+    private final Map<String, OwnerIndex> owners = new HashMap<>();
+
+    /**
+     * Guarded by "lock".
+     */
+    private long nextId = 1;
+
+    /**
+     * Guarded by "lock".
+     */
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private ArchiveShard(final Path directory, final int capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens a shard and rebuilds its index from the existing segments.
+     *
+     * @param directory The directory of the shard.
+     * @param capacity  The size of new segments.
+     * @return The shard.
+     * @throws IOException If the segments could not be opened.
+     */
+    static ArchiveShard open(final Path directory, final int capacity) throws IOException {
+        Files.createDirectories(directory);
+        final ArchiveShard shard = new ArchiveShard(directory, capacity);
+        final int[] numbers;
+        try (Stream<Path> files = Files.list(directory)) {
+            numbers = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .toArray();
+        }
+        for (final int number : numbers) {
+            final ArchiveSegment segment = ArchiveSegment.open(shard.path(number), number, capacity);
+            segment.recover(position -> shard.recover(segment, position));
+            shard.segments.add(segment);
+        }
+        if (shard.segments.isEmpty()) {
+            shard.segments.add(ArchiveSegment.open(shard.path(0), 0, capacity));
+        }
+        return shard;
+    }
+
+    private void recover(final ArchiveSegment segment, final int position) {
+        owners.computeIfAbsent(segment.getOwner(position), owner -> new OwnerIndex())
+                .add(address(segment.getNumber(), position));
+        nextId = segment.getId(position) + 1;
+        lastTimestamp = segment.getTimestamp(position);
+    }
+
+    /**
+     * Appends a message to the archive of an owner.
+     *
+     * @param owner     The bare JID of the owner.
+     * @param with      The JID of the conversation partner.
+     * @param message   The message.
+     * @param timestamp The timestamp in milliseconds. The timestamps of a shard never decrease.
+     * @return The archived message.
+     * @throws IOException If a new segment could not be created.
+     */
+    ArchivedMessage append(final String owner, final String with, final byte[] message, final long timestamp)
+            throws IOException {
+        final byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+        final byte[] withBytes = with.getBytes(StandardCharsets.UTF_8);
+        if (ownerBytes.length + withBytes.length + message.length > ArchiveSegment.maxData(capacity)) {
+            throw new IllegalArgumentException("The message exceeds the segment size.");
+        }
+        lock.writeLock().lock();
+        try {
+            final long id = nextId++;
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+            final OwnerIndex index = owners.computeIfAbsent(owner, key -> new OwnerIndex());
+            ArchiveSegment segment = segments.get(segments.size() - 1);
+            int position = segment.append(id, lastTimestamp, index.head, ownerBytes, withBytes, message);
+            if (position < 0) {
+                segment.force();
+                segment = ArchiveSegment.open(path(segment.getNumber() + 1), segment.getNumber() + 1, capacity);
+                segments.add(segment);
+                position = segment.append(id, lastTimestamp, index.head, ownerBytes, withBytes, message);
+            }
+            index.add(address(segment.getNumber(), position));
+            return new ArchivedMessage(id, lastTimestamp, with, message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Queries the archive of an owner.
+     *
+     * @param owner    The bare JID of the owner.
+     * @param with     The JID of the conversation partner or null. A bare JID matches all of its resources.
+     * @param start    The minimal timestamp or null.
+     * @param end      The maximal timestamp or null.
+     * @param after    Only return messages after this id, or null.
+     * @param before   Only return messages before this id, or null. If empty, the last page is returned.
+     * @param index    The number of messages to skip or null.
+     * @param max      The maximal number of messages.
+     * @return The page.
+     * @throws NoSuchElementException If the 'after' or 'before' id is unknown.
+     */
+    ArchivePage query(final String owner, final String with, final Long start, final Long end, final String after,
+                      final String before, final Integer index, final int max) {
+        lock.readLock().lock();
+        try {
+            final OwnerIndex ownerIndex = owners.get(owner);
+            if (ownerIndex == null) {
+                if (after != null || (before != null && !before.isEmpty())) {
+                    throw new NoSuchElementException();
+                }
+                return new ArchivePage(Collections.emptyList(), true, 0, null);
+            }
+            long lo = ownerIndex.first;
+            long hi = ownerIndex.count;
+            if (start != null) {
+                lo = Math.max(lo, lowerBound(ownerIndex, LOOKUP_BY_TIMESTAMP, start));
+            }
+            if (end != null && end < Long.MAX_VALUE) {
+                hi = Math.min(hi, lowerBound(ownerIndex, LOOKUP_BY_TIMESTAMP, end + 1));
+            }
+            if (after != null) {
+                lo = Math.max(lo, ordinalOf(ownerIndex, after) + 1);
+            }
+            if (before != null && !before.isEmpty()) {
+                hi = Math.min(hi, ordinalOf(ownerIndex, before));
+            }
+            hi = Math.max(lo, hi);
+            final boolean backwards = before != null;
+            if (with == null) {
+                return page(ownerIndex, lo, hi, backwards, index != null ? index : 0, max);
+            }
+            return filteredPage(ownerIndex, lo, hi, backwards, with, index != null ? index : 0, max);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ArchivePage page(final OwnerIndex ownerIndex, final long lo, final long hi, final boolean backwards,
+                             final int skip, final int max) {
+        final long from;
+        final long to;
+        final boolean complete;
+        if (backwards) {
+            to = Math.max(lo, hi - skip);
+            from = Math.max(lo, to - max);
+            complete = from == lo;
+        } else {
+            from = Math.min(hi, lo + skip);
+            to = Math.min(hi, from + max);
+            complete = to == hi;
+        }
+        final List<ArchivedMessage> messages = new ArrayList<>();
+        for (final long address : read(ownerIndex, from, to)) {
+            messages.add(toMessage(address));
+        }
+        return new ArchivePage(messages, complete, (int) Math.min(Integer.MAX_VALUE, hi - lo),
+                (int) Math.min(Integer.MAX_VALUE, from - lo));
+    }
+
+    /**
+     * Reads the range in chunks in the paging direction, until the page is full. One more matching message than
+     * requested is looked for, in order to know, whether the page is the last one.
+     */
+    private ArchivePage filteredPage(final OwnerIndex ownerIndex, final long lo, final long hi,
+                                     final boolean backwards, final String with, final int skip, final int max) {
+        final String prefix = with.indexOf('/') < 0 ? with + '/' : null;
+        final int chunk = Math.max(max, ANCHOR_INTERVAL);
+        final List<ArchivedMessage> messages = new ArrayList<>();
+        int skipped = 0;
+        long cursor = backwards ? hi : lo;
+        while (messages.size() <= max && (backwards ? cursor > lo : cursor < hi)) {
+            final long from = backwards ? Math.max(lo, cursor - chunk) : cursor;
+            final long to = backwards ? cursor : Math.min(hi, cursor + chunk);
+            final long[] addresses = read(ownerIndex, from, to);
+            for (int i = 0; i < addresses.length && messages.size() <= max; i++) {
+                final long address = addresses[backwards ? addresses.length - 1 - i : i];
+                final String recordWith = segment(address).getWith(position(address));
+                if (recordWith.equals(with) || (prefix != null && recordWith.startsWith(prefix))) {
+                    if (skipped < skip) {
+                        skipped++;
+                    } else {
+                        messages.add(toMessage(address));
+                    }
+                }
+            }
+            cursor = backwards ? from : to;
+        }
+        final boolean complete = messages.size() <= max;
+        if (!complete) {
+            messages.remove(messages.size() - 1);
+        }
+        if (backwards) {
+            Collections.reverse(messages);
+        }
+        // The total count is only known, if the range has been read completely, i.e. if all matches have been skipped.
+        return new ArchivePage(messages, complete, messages.isEmpty() ? skipped : null, null);
+    }
+
+    /**
+     * Deletes the oldest segments, whose newest record is older than the given timestamp. The current segment and the
+     * newest record are never deleted, so that ids are not reused, when the shard is opened again.
+     *
+     * @param timestamp The timestamp in milliseconds.
+     * @return The number of deleted segments.
+     * @throws IOException If a segment could not be deleted.
+     */
+    int compact(final long timestamp) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int deleted = 0;
+            final boolean currentEmpty = segments.get(segments.size() - 1).getLastTimestamp() == Long.MIN_VALUE;
+            while (segments.size() > (currentEmpty ? 2 : 1) && segments.get(0).getLastTimestamp() < timestamp) {
+                segments.remove(0).delete();
+                deleted++;
+            }
+            if (deleted > 0) {
+                final int firstSegment = segments.get(0).getNumber();
+                owners.values().removeIf(ownerIndex -> !trim(ownerIndex, firstSegment));
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the records in deleted segments from the index of an owner.
+     *
+     * @return False, if the owner has no records left.
+     */
+    private boolean trim(final OwnerIndex ownerIndex, final int firstSegment) {
+        if (segmentNumber(ownerIndex.head) < firstSegment) {
+            return false;
+        }
+        // Find the oldest anchor in a remaining segment. Anchors are ordered by segment.
+        int low = 0;
+        int high = ownerIndex.anchorCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (segmentNumber(ownerIndex.anchors[mid]) < firstSegment) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        long ordinal;
+        long address;
+        if (low < ownerIndex.anchorCount) {
+            ordinal = (ownerIndex.anchorBase + low) * ANCHOR_INTERVAL;
+            address = ownerIndex.anchors[low];
+        } else {
+            ordinal = ownerIndex.count - 1;
+            address = ownerIndex.head;
+        }
+        long previous;
+        while ((previous = segment(address).getPrevious(position(address))) >= 0
+                && segmentNumber(previous) >= firstSegment) {
+            address = previous;
+            ordinal--;
+        }
+        ownerIndex.first = ordinal;
+        ownerIndex.dropAnchors(low);
+        return true;
+    }
+
+    /**
+     * Writes all segments to disk.
+     */
+    void force() {
+        lock.readLock().lock();
+        try {
+            segments.forEach(ArchiveSegment::force);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of segments.
+     *
+     * @return The number of segments.
+     */
+    int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the ordinal of a record by its id.
+     */
+    private long ordinalOf(final OwnerIndex ownerIndex, final String id) {
+        final long value;
+        try {
+            value = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new NoSuchElementException(id);
+        }
+        final long ordinal = lowerBound(ownerIndex, LOOKUP_BY_ID, value);
+        if (ordinal >= ownerIndex.count || key(read(ownerIndex, ordinal, ordinal + 1)[0], LOOKUP_BY_ID) != value) {
+            throw new NoSuchElementException(id);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Finds the ordinal of the oldest record, whose id or timestamp is greater than or equal to the given value.
+     *
+     * @return The ordinal or the count, if there's no such record.
+     */
+    private long lowerBound(final OwnerIndex ownerIndex, final int lookup, final long value) {
+        // Binary search the newest anchor, whose key is less than the value.
+        int low = 0;
+        int high = ownerIndex.anchorCount - 1;
+        int found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (key(ownerIndex.anchors[mid], lookup) < value) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // The record is between the found anchor (exclusive) and the next anchor (inclusive).
+        final long from;
+        final long to;
+        if (found < 0) {
+            from = ownerIndex.first;
+            to = ownerIndex.anchorCount > 0 ? ownerIndex.anchorBase * ANCHOR_INTERVAL + 1 : ownerIndex.count;
+        } else {
+            from = (ownerIndex.anchorBase + found) * ANCHOR_INTERVAL + 1;
+            to = Math.min(ownerIndex.count, from + ANCHOR_INTERVAL);
+        }
+        final long[] addresses = read(ownerIndex, from, Math.min(to, ownerIndex.count));
+        for (int i = 0; i < addresses.length; i++) {
+            if (key(addresses[i], lookup) >= value) {
+                return from + i;
+            }
+        }
+        return from + addresses.length;
+    }
+
+    /**
+     * Reads the addresses of a range of records of an owner, oldest first.
+     *
+     * @param from The first ordinal (inclusive).
+     * @param to   The last ordinal (exclusive).
+     * @return The addresses.
+     */
+    private long[] read(final OwnerIndex ownerIndex, final long from, final long to) {
+        if (from >= to) {
+            return new long[0];
+        }
+        // Start at the nearest anchor at or after the last record, or at the newest record.
+        final long last = to - 1;
+        final long anchor = (last + ANCHOR_INTERVAL - 1) / ANCHOR_INTERVAL;
+        long address;
+        long ordinal;
+        if (anchor * ANCHOR_INTERVAL < ownerIndex.count && anchor >= ownerIndex.anchorBase
+                && anchor - ownerIndex.anchorBase < ownerIndex.anchorCount) {
+            address = ownerIndex.anchors[(int) (anchor - ownerIndex.anchorBase)];
+            ordinal = anchor * ANCHOR_INTERVAL;
+        } else {
+            address = ownerIndex.head;
+            ordinal = ownerIndex.count - 1;
+        }
+        while (ordinal > last) {
+            address = segment(address).getPrevious(position(address));
+            ordinal--;
+        }
+        final long[] addresses = new long[(int) (to - from)];
+        for (int i = addresses.length - 1; i >= 0; i--) {
+            addresses[i] = address;
+            if (i > 0) {
+                address = segment(address).getPrevious(position(address));
+            }
+        }
+        return addresses;
+    }
+
+    private long key(final long address, final int lookup) {
+        final ArchiveSegment segment = segment(address);
+        return lookup == LOOKUP_BY_ID ? segment.getId(position(address)) : segment.getTimestamp(position(address));
+    }
+
+    private ArchivedMessage toMessage(final long address) {
+        final ArchiveSegment segment = segment(address);
+        final int position = position(address);
+        return new ArchivedMessage(segment.getId(position), segment.getTimestamp(position),
+                segment.getWith(position), segment.getMessage(position));
+    }
+
+    private ArchiveSegment segment(final long address) {
+        return segments.get(segmentNumber(address) - segments.get(0).getNumber());
+    }
+
+    private Path path(final int number) {
+        return directory.resolve(String.format("%010d%s", number, SUFFIX));
+    }
+
+    private static long address(final int segmentNumber, final int position) {
+        return (long) segmentNumber << 32 | position;
+    }
+
+    private static int segmentNumber(final long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int position(final long address) {
+        return (int) address;
+    }
+
+    /**
+     * The index of the records of a single owner. Records are numbered by their ordinal, i.e. the number of older
+     * records of the owner, including those, which have been compacted.
+     */
+    private static final class OwnerIndex {
+
+        /**
+         * The address of the newest record.
+         */
+        private long head = -1;
+
+        /**
+         * The number of records, including the compacted ones, i.e. the ordinal of the next record.
+         */
+        private long count;
+
+        /**
+         * The ordinal of the oldest record.
+         */
+        private long first;
+
+        /**
+         * The addresses of the records with the ordinals (anchorBase + i) * ANCHOR_INTERVAL.
+         */
+        private long[] anchors = new long[1];
+
+        private long anchorBase;
+
+        private int anchorCount;
+
+        private void add(final long address) {
+            if (count % ANCHOR_INTERVAL == 0) {
+                if (anchorCount == 0) {
+                    anchorBase = count / ANCHOR_INTERVAL;
+                }
+                if (anchorCount == anchors.length) {
+                    anchors = Arrays.copyOf(anchors, anchors.length * 2);
+                }
+                anchors[anchorCount++] = address;
+            }
+            head = address;
+            count++;
+        }
+
+        private void dropAnchors(final int n) {
+            if (n > 0) {
+                anchors = Arrays.copyOfRange(anchors, n, Math.max(n + 1, anchors.length));
+                anchorCount -= n;
+                anchorBase += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.time.Instant;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.rsm.model.ResultSetItem;
+
+/**
+ * A message, which has been read from the archive.
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ArchivedMessage implements ResultSetItem {
+
+    private final long id;
+
+    private final long timestamp;
+
+    private final String with;
+
+    private final byte[] message;
+
+    ArchivedMessage(final long id, final long timestamp, final String with, final byte[] message) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.with = with;
+        this.message = message;
+    }
+
+    /**
+     * Gets the archive id, which is unique within the archive of the owner.
+     *
+     * @return The archive id.
+     */
+    @Override
+    public final String getId() {
+        return Long.toString(id);
+    }
+
+    /**
+     * Gets the time, when the message has been archived.
+     *
+     * @return The timestamp.
+     */
+    public final Instant getTimestamp() {
+        return Instant.ofEpochMilli(timestamp);
+    }
+
+    /**
+     * Gets the JID of the conversation partner, i.e. the recipient of an outbound message or the sender of an inbound
+     * message.
+     *
+     * @return The JID.
+     */
+    public final Jid getWith() {
+        return Jid.of(with);
+    }
+
+    /**
+     * Gets the encoded message.
+     *
+     * @return The message in UTF-8.
+     */
+    public final byte[] getMessage() {
+        return message.clone();
+    }
+
+    @Override
+    public final String toString() {
+        return "Archived message " + id + " with " + with;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+import jakarta.xml.bind.JAXBException;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.ExtensionProtocol;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.AbstractIQHandler;
+import rocks.xmpp.core.stanza.InboundMessageHandler;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.OutboundMessageHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.delay.model.DelayedDelivery;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.forward.model.Forwarded;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+
+/**
+ * Archives the one-to-one messages of local users and lets them query their archive.
+ *
+ * <p>Outbound chat and normal messages with a body are appended to the {@link ArchiveLog} twice: to the archive of the
+ * sender and, if the recipient is a local user, to the archive of the recipient. Inbound messages from remote servers
+ * or components are appended to the archive of the local recipient. Archiving is enabled by {@link
+ * ServerConfiguration#getMessageArchiveDirectory()}. If a {@linkplain ServerConfiguration#getMessageArchiveRetention()
+ * retention} is configured, older messages are removed periodically.</p>
+ *
+ * <p>Each message, which matches a query, is sent to the requesting resource, before the IQ result is returned. A page
+ * is limited to {@value #MAX_PAGE_SIZE} messages.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+ */
+@ApplicationScoped
+public class MessageArchiveService extends AbstractIQHandler
+        implements InboundMessageHandler, OutboundMessageHandler, ExtensionProtocol, DiscoverableInfo {
+
+    private static final System.Logger logger = System.getLogger(MessageArchiveService.class.getName());
+
+    static final int MAX_PAGE_SIZE = 100;
+
+    private static final Duration COMPACTION_INTERVAL = Duration.ofHours(1);
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    @Inject
+    private SessionManager sessionManager;
+
+    private ArchiveLog archive;
+
+    private HashedWheelTimer.Timeout compaction;
+
+    public MessageArchiveService() {
+        super(MessageArchive.Query.class, IQ.Type.SET);
+    }
+
+    @PostConstruct
+    public void init() {
+        final Path directory = serverConfiguration.getMessageArchiveDirectory();
+        if (directory == null) {
+            return;
+        }
+        try {
+            archive = ArchiveLog.open(directory, ArchiveLog.DEFAULT_SHARDS, ArchiveLog.DEFAULT_SEGMENT_SIZE);
+        } catch (IOException e) {
+            logger.log(System.Logger.Level.ERROR, "Message archive could not be opened.", e);
+            return;
+        }
+        final Duration retention = serverConfiguration.getMessageArchiveRetention();
+        if (retention != null) {
+            final Executor executor = serverConfiguration.getBackgroundExecutor();
+            // Compaction deletes files, which must not block the timer thread.
+            compaction = HashedWheelTimer.shared().newPeriodicTimeout(() -> executor.execute(() -> compact(retention)),
+                    COMPACTION_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (compaction != null) {
+            compaction.cancel();
+        }
+        if (archive != null) {
+            archive.close();
+        }
+    }
+
+    void compact(final Duration retention) {
+        try {
+            final int deleted = archive.compact(Instant.now().minus(retention));
+            logger.log(System.Logger.Level.DEBUG, "Removed {0} archive segments.", deleted);
+        } catch (IOException e) {
+            logger.log(System.Logger.Level.WARNING, "Message archive could not be compacted.", e);
+        }
+    }
+
+    @Override
+    public void handleInboundMessage(final MessageEvent e) {
+        final Message message = e.getMessage();
+        // Messages from local users have already been archived for both parties, when they were sent.
+        if (!isArchivable(message) || message.getTo() == null || !isLocalUser(message.getTo())
+                || isLocalUser(message.getFrom())) {
+            return;
+        }
+        try {
+            archive.append(message.getTo(), message.getFrom(), encode(message), Instant.now());
+        } catch (IOException | JAXBException | XMLStreamException | IllegalArgumentException ex) {
+            logger.log(System.Logger.Level.WARNING, "Message could not be archived.", ex);
+        }
+    }
+
+    @Override
+    public void handleOutboundMessage(final MessageEvent e) {
+        final Message message = e.getMessage();
+        if (!isArchivable(message)) {
+            return;
+        }
+        final Jid from = message.getFrom();
+        // A message without 'to' is addressed to the sender's bare JID.
+        final Jid to = message.getTo() != null ? message.getTo() : from.asBareJid();
+        try {
+            final byte[] encoded = encode(message);
+            final Instant now = Instant.now();
+            if (isLocalUser(from)) {
+                archive.append(from, to, encoded, now);
+            }
+            if (isLocalUser(to) && !to.asBareJid().equals(from.asBareJid())) {
+                archive.append(to, from, encoded, now);
+            }
+        } catch (IOException | JAXBException | XMLStreamException | IllegalArgumentException ex) {
+            logger.log(System.Logger.Level.WARNING, "Message could not be archived.", ex);
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0313.html#query">4. Querying the archive</a>
+     */
+    @Override
+    protected IQ processRequest(final IQ iq) {
+        if (archive == null) {
+            return iq.createError(Condition.SERVICE_UNAVAILABLE);
+        }
+        final Jid owner = iq.getFrom().asBareJid();
+        if (iq.getTo() != null && !iq.getTo().asBareJid().equals(owner)) {
+            // Only the own archive can be queried.
+            return iq.createError(Condition.FORBIDDEN);
+        }
+        final MessageArchive.Query query = iq.getExtension(MessageArchive.Query.class);
+        final ArchivePage page;
+        try {
+            page = archive.query(owner, query.getWith(), query.getStart(), query.getEnd(),
+                    query.getResultSetManagement(), MAX_PAGE_SIZE);
+        } catch (NoSuchElementException e) {
+            // If the 'after' or 'before' id is not found, the server MUST return an item-not-found error.
+            return iq.createError(Condition.ITEM_NOT_FOUND);
+        }
+        final Session session = sessionManager.getSession(iq.getFrom());
+        if (session != null) {
+            for (final ArchivedMessage archivedMessage : page.getMessages()) {
+                final Message result = toResult(iq.getFrom(), query.getQueryId(), archivedMessage);
+                if (result != null) {
+                    session.send(result);
+                }
+            }
+        }
+        return iq.createResult(new MessageArchive.Fin(page.isComplete(), page.getResultSetManagement()));
+    }
+
+    private Message toResult(final Jid to, final String queryId, final ArchivedMessage archivedMessage) {
+        final ClientMessage message;
+        try {
+            message = serverConfiguration.getUnmarshaller(null).unmarshal(
+                    new StreamSource(new ByteArrayInputStream(archivedMessage.getMessage())), ClientMessage.class)
+                    .getValue();
+        } catch (JAXBException e) {
+            logger.log(System.Logger.Level.WARNING, "Archived message could not be decoded.", e);
+            return null;
+        }
+        final Message result = new Message(to);
+        result.addExtension(new MessageArchive.Result(queryId, archivedMessage.getId(),
+                new Forwarded(message, new DelayedDelivery(archivedMessage.getTimestamp()))));
+        return result;
+    }
+
+    private boolean isArchivable(final Message message) {
+        return archive != null && message.getFrom() != null && message.getBody() != null
+                && (message.isNormal() || message.getType() == Message.Type.CHAT);
+    }
+
+    private byte[] encode(final Message message) throws JAXBException, XMLStreamException {
+        return EncodedStanza.toXml(message, OUTPUT_FACTORY, serverConfiguration.getMarshaller())
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean isLocalUser(final Jid jid) {
+        return jid.getLocal() != null && jid.getDomain().equals(serverConfiguration.getDomain().getDomain());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@value MessageArchive#NAMESPACE}
+     */
+    @Override
+    public String getNamespace() {
+        return MessageArchive.NAMESPACE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return archive != null;
+    }
+
+    @Override
+    public Set<String> getFeatures() {
+        return archive != null ? Collections.singleton(MessageArchive.NAMESPACE) : Collections.emptySet();
+    }
+}
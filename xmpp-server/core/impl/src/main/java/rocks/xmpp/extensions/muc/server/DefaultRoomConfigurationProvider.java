@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.interceptor.Interceptor;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.muc.model.RoomConfiguration;
+import rocks.xmpp.extensions.muc.server.spi.RoomConfigurationProvider;
+
+/**
+ * Keeps the configuration of persistent rooms in memory, i.e. they only survive as long as the server runs.
+ *
+ * @author Christian Schudt
+ */
+@Priority(Interceptor.Priority.LIBRARY_BEFORE)
+@ApplicationScoped
+public class DefaultRoomConfigurationProvider implements RoomConfigurationProvider {
+
+    private final Map<Jid, RoomConfiguration> rooms = new ConcurrentHashMap<>();
+
+    @Override
+    public void store(Jid room, RoomConfiguration configuration) {
+        rooms.put(room, configuration);
+    }
+
+    @Override
+    public void delete(Jid room) {
+        rooms.remove(room);
+    }
+
+    @Override
+    public RoomConfiguration get(Jid room) {
+        return rooms.get(room);
+    }
+
+    @Override
+    public Map<Jid, RoomConfiguration> getRooms() {
+        return new HashMap<>(rooms);
+    }
+}
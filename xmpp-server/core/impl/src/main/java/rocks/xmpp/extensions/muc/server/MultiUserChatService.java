@@ -0,0 +1,297 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.metrics.Counter;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.disco.model.info.Identity;
+import rocks.xmpp.extensions.disco.model.info.InfoDiscovery;
+import rocks.xmpp.extensions.disco.model.items.DiscoverableItem;
+import rocks.xmpp.extensions.disco.model.items.Item;
+import rocks.xmpp.extensions.disco.model.items.ItemDiscovery;
+import rocks.xmpp.extensions.disco.model.items.ItemElement;
+import rocks.xmpp.extensions.disco.model.items.ItemProvider;
+import rocks.xmpp.extensions.muc.model.Muc;
+import rocks.xmpp.extensions.muc.server.spi.RoomConfigurationProvider;
+import rocks.xmpp.extensions.rsm.ResultSetProvider;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * The Multi-User Chat service, which is hosted at the subdomain "conference" of the server.
+ *
+ * <p>Rooms are sharded across one single-threaded executor per core by the hash of their address. Each shard owns its
+ * rooms exclusively, so that each room is processed by only one thread and needs no locks, while different rooms are
+ * processed in parallel.</p>
+ *
+ * <p>Rooms are created when the first occupant joins them (as instant rooms) and removed when the last occupant has
+ * left, unless they have been configured as persistent. The configuration of persistent rooms is stored by the
+ * {@link RoomConfigurationProvider}.</p>
+ *
+ * <p>The following metrics are maintained:</p>
+ *
+ * <ul>
+ * <li>{@code xmpp.server.muc.rooms}: The number of rooms.</li>
+ * <li>{@code xmpp.server.muc.stanzas}: The number of stanzas, which have been processed by rooms.</li>
+ * </ul>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0045.html">XEP-0045: Multi-User Chat</a>
+ */
+@ApplicationScoped
+public class MultiUserChatService implements ItemProvider {
+
+    private static final System.Logger logger = System.getLogger(MultiUserChatService.class.getName());
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    @Inject
+    private SessionManager sessionManager;
+
+    @Inject
+    private RoomConfigurationProvider roomConfigurationProvider;
+
+    private final AtomicInteger roomCount = new AtomicInteger();
+
+    private Jid address;
+
+    private Shard[] shards;
+
+    private Counter stanzas;
+
+    private MetricsRegistry.Registration roomsGauge;
+
+    @PostConstruct
+    public void init() {
+        address = Jid.ofDomain("conference." + serverConfiguration.getDomain());
+        shards = new Shard[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Executors.newSingleThreadExecutor(
+                    XmppUtils.createNamedThreadFactory("Multi-User Chat " + (i + 1))));
+        }
+        final MetricsRegistry metricsRegistry = serverConfiguration.getMetricsRegistry();
+        stanzas = metricsRegistry.counter("xmpp.server.muc.stanzas");
+        roomsGauge = metricsRegistry.gauge("xmpp.server.muc.rooms", roomCount::get);
+        roomConfigurationProvider.getRooms().forEach((room, configuration) ->
+                getShard(room).executor.execute(() -> getShard(room).addRoom(
+                        new Room(room, configuration, false, this::deliver, serverConfiguration::getMarshaller,
+                                roomConfigurationProvider))));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        roomsGauge.close();
+        for (final Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+    }
+
+    /**
+     * Gets the address of the service.
+     *
+     * @return The address.
+     */
+    public Jid getAddress() {
+        return address;
+    }
+
+    /**
+     * Indicates, whether a stanza is addressed to this service, i.e. to the service itself, a room or an occupant.
+     *
+     * @param to The 'to' attribute of a stanza.
+     * @return True, if it is addressed to this service.
+     */
+    public boolean isServiceAddress(final Jid to) {
+        return to != null && to.getDomain().equals(address.getDomain());
+    }
+
+    /**
+     * Processes a stanza, which is addressed to this service. Stanzas to rooms are processed asynchronously by the
+     * shard of the room.
+     *
+     * @param stanza The stanza.
+     */
+    public void process(final Stanza stanza) {
+        if (stanza.getTo().getLocal() == null) {
+            processServiceStanza(stanza);
+        } else {
+            final Shard shard = getShard(stanza.getTo().asBareJid());
+            try {
+                shard.executor.execute(() -> shard.process(stanza));
+            } catch (RejectedExecutionException e) {
+                deliver(stanza.getFrom(), stanza.createError(Condition.SERVICE_UNAVAILABLE));
+            }
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#disco-service">6.1 Discovering a MUC Service</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#disco-rooms">6.3 Discovering Rooms</a>
+     */
+    private void processServiceStanza(final Stanza stanza) {
+        if (stanza.getError() != null) {
+            return;
+        }
+        if (stanza instanceof IQ && ((IQ) stanza).isRequest()) {
+            final IQ iq = (IQ) stanza;
+            final Object payload = iq.getExtension(Object.class);
+            if (payload instanceof InfoDiscovery && iq.getType() == IQ.Type.GET) {
+                deliver(iq.getFrom(), iq.createResult(new InfoDiscovery(
+                        Collections.singleton(Identity.conferenceText().withName("Chatrooms")),
+                        Arrays.asList(Muc.NAMESPACE, InfoDiscovery.NAMESPACE, ItemDiscovery.NAMESPACE))));
+            } else if (payload instanceof ItemDiscovery && iq.getType() == IQ.Type.GET) {
+                getPublicRooms().thenAccept(rooms -> deliver(iq.getFrom(), iq.createResult(new ItemDiscovery(rooms))));
+            } else {
+                deliver(iq.getFrom(), iq.createError(Condition.SERVICE_UNAVAILABLE));
+            }
+        } else if (!(stanza instanceof IQ)) {
+            deliver(stanza.getFrom(), stanza.createError(Condition.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    private CompletableFuture<List<Item>> getPublicRooms() {
+        final List<CompletableFuture<List<Item>>> futures = Arrays.stream(shards)
+                .map(shard -> CompletableFuture.supplyAsync(shard::getPublicRooms, shard.executor))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(result -> futures.stream()
+                        .flatMap(future -> future.join().stream())
+                        .collect(Collectors.toList()));
+    }
+
+    @Override
+    public ResultSetProvider<DiscoverableItem> getItems(Jid to, Jid from, String node, Locale locale) {
+        // Announce the service as item of the server.
+        if (node == null && to.equals(serverConfiguration.getDomain())) {
+            return ResultSetProvider.forItems(Collections.singletonList(
+                    DiscoverableItem.from(new ItemElement(address, null, "Chatrooms"), address.toEscapedString())));
+        }
+        return null;
+    }
+
+    private Shard getShard(final Jid room) {
+        return shards[Math.floorMod(room.hashCode(), shards.length)];
+    }
+
+    private boolean deliver(final Jid to, final StreamElement element) {
+        final Session session = sessionManager.getSession(to);
+        if (session == null) {
+            return false;
+        }
+        session.send(element);
+        return true;
+    }
+
+    /**
+     * A single thread, which exclusively owns a subset of the rooms.
+     */
+    private final class Shard {
+
+        private final ExecutorService executor;
+
+        /**
+         * Only accessed by the executor's thread.
+         */
+        private final Map<Jid, Room> rooms = new HashMap<>();
+
+        private Shard(final ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        private void process(final Stanza stanza) {
+            stanzas.increment();
+            final Jid roomAddress = stanza.getTo().asBareJid();
+            Room room = rooms.get(roomAddress);
+            if (room == null) {
+                if (stanza instanceof Presence && ((Presence) stanza).isAvailable()
+                        && stanza.getTo().getResource() != null) {
+                    // 10.1.1 Creating a Room
+                    room = new Room(roomAddress, Room.defaultConfiguration(roomAddress, stanza.getFrom()), true,
+                            MultiUserChatService.this::deliver, serverConfiguration::getMarshaller,
+                            roomConfigurationProvider);
+                    addRoom(room);
+                } else {
+                    if (stanza.getError() == null && !(stanza instanceof Presence)) {
+                        deliver(stanza.getFrom(), stanza.createError(Condition.ITEM_NOT_FOUND));
+                    }
+                    return;
+                }
+            }
+            try {
+                room.process(stanza);
+            } catch (StreamErrorException e) {
+                logger.log(System.Logger.Level.WARNING, "Stanza could not be processed by room " + roomAddress, e);
+                if (stanza.getError() == null) {
+                    deliver(stanza.getFrom(), stanza.createError(Condition.INTERNAL_SERVER_ERROR));
+                }
+            }
+            if (room.isDestroyed() || (room.isEmpty() && !room.isPersistent())) {
+                rooms.remove(roomAddress);
+                roomCount.decrementAndGet();
+            }
+        }
+
+        private void addRoom(final Room room) {
+            rooms.put(room.getAddress(), room);
+            roomCount.incrementAndGet();
+        }
+
+        private List<Item> getPublicRooms() {
+            final List<Item> items = new ArrayList<>();
+            rooms.values().stream()
+                    .filter(Room::isPublic)
+                    .forEach(room -> items.add(new ItemElement(room.getAddress(), null, room.getName())));
+            return items;
+        }
+    }
+}
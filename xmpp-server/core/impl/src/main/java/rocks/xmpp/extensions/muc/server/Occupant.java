@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.extensions.muc.model.Affiliation;
+import rocks.xmpp.extensions.muc.model.Role;
+import rocks.xmpp.util.EncodedStanza;
+
+/**
+ * An occupant of a room.
+ *
+ * <p>The occupant's current presence is encoded at most twice (with and without the real JID) and kept until it
+ * changes, so that it can be sent to new occupants without marshalling it again.</p>
+ *
+ * <p>This class is not thread-safe, it is confined to the thread of the room.</p>
+ *
+ * @author Christian Schudt
+ */
+final class Occupant {
+
+    private final Jid jid;
+
+    private Jid address;
+
+    private Affiliation affiliation;
+
+    private Role role;
+
+    private Presence presence;
+
+    private EncodedStanza.Template presenceWithJid;
+
+    private EncodedStanza.Template presenceWithoutJid;
+
+    Occupant(final Jid jid, final Jid address, final Affiliation affiliation, final Role role,
+             final Presence presence) {
+        this.jid = jid;
+        this.address = address;
+        this.affiliation = affiliation;
+        this.role = role;
+        this.presence = presence;
+    }
+
+    /**
+     * Gets the real (full) JID of the occupant.
+     *
+     * @return The real JID.
+     */
+    final Jid getJid() {
+        return jid;
+    }
+
+    /**
+     * Gets the occupant's address in the room, i.e. room@service/nick.
+     *
+     * @return The address.
+     */
+    final Jid getAddress() {
+        return address;
+    }
+
+    final String getNick() {
+        return address.getResource();
+    }
+
+    final void setAddress(final Jid address) {
+        this.address = address;
+        invalidate();
+    }
+
+    final Affiliation getAffiliation() {
+        return affiliation;
+    }
+
+    final void setAffiliation(final Affiliation affiliation) {
+        this.affiliation = affiliation;
+        invalidate();
+    }
+
+    final Role getRole() {
+        return role;
+    }
+
+    final void setRole(final Role role) {
+        this.role = role;
+        invalidate();
+    }
+
+    /**
+     * Gets the last presence, which has been sent by the occupant to the room.
+     *
+     * @return The presence.
+     */
+    final Presence getPresence() {
+        return presence;
+    }
+
+    final void setPresence(final Presence presence) {
+        this.presence = presence;
+        invalidate();
+    }
+
+    /**
+     * Gets the encoded presence of this occupant as it is broadcast to other occupants.
+     *
+     * @param withJid True, if the real JID is included.
+     * @return The encoded presence or null, if it has not been encoded yet.
+     */
+    final EncodedStanza.Template getEncodedPresence(final boolean withJid) {
+        return withJid ? presenceWithJid : presenceWithoutJid;
+    }
+
+    final void setEncodedPresence(final boolean withJid, final EncodedStanza.Template template) {
+        if (withJid) {
+            presenceWithJid = template;
+        } else {
+            presenceWithoutJid = template;
+        }
+    }
+
+    private void invalidate() {
+        presenceWithJid = null;
+        presenceWithoutJid = null;
+    }
+}
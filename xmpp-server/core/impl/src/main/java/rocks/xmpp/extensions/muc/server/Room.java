@@ -0,0 +1,728 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import jakarta.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.LazyExtension;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.data.model.DataForm;
+import rocks.xmpp.extensions.disco.model.info.Identity;
+import rocks.xmpp.extensions.disco.model.info.InfoDiscovery;
+import rocks.xmpp.extensions.disco.model.items.ItemDiscovery;
+import rocks.xmpp.extensions.muc.model.Affiliation;
+import rocks.xmpp.extensions.muc.model.Destroy;
+import rocks.xmpp.extensions.muc.model.Muc;
+import rocks.xmpp.extensions.muc.model.MucFeature;
+import rocks.xmpp.extensions.muc.model.Role;
+import rocks.xmpp.extensions.muc.model.RoomConfiguration;
+import rocks.xmpp.extensions.muc.model.admin.MucAdmin;
+import rocks.xmpp.extensions.muc.model.owner.MucOwner;
+import rocks.xmpp.extensions.muc.model.user.MucUser;
+import rocks.xmpp.extensions.muc.model.user.Status;
+import rocks.xmpp.extensions.muc.server.spi.RoomConfigurationProvider;
+import rocks.xmpp.util.EncodedStanza;
+
+/**
+ * A chat room, which is owned by a single thread (the "actor"), so that its state needs no synchronization.
+ *
+ * <p>Occupants are indexed by their nickname and by their real JID. Stanzas, which are broadcast to all occupants, are
+ * marshalled only once (or twice, if some occupants may see real JIDs and others may not) and then written to each
+ * occupant with only the 'to' attribute being spliced in, see {@link EncodedStanza}. The current presence of each
+ * occupant is kept in its encoded form, so that it can be sent to new occupants without marshalling it again.</p>
+ *
+ * <p>Occupants, to which a stanza could not be delivered (e.g. because they went offline without leaving the room),
+ * are removed after the stanza has been processed.</p>
+ *
+ * <p>This class is not thread-safe, it is confined to the thread of its shard.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0045.html">XEP-0045: Multi-User Chat</a>
+ */
+final class Room {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private static final int DEFAULT_HISTORY_SIZE = 20;
+
+    private static final Set<Role> ALL_ROLES = EnumSet.of(Role.MODERATOR, Role.PARTICIPANT, Role.VISITOR);
+
+    private final Jid address;
+
+    private final Delivery delivery;
+
+    private final Supplier<Marshaller> marshaller;
+
+    private final RoomConfigurationProvider configurationProvider;
+
+    private final Map<String, Occupant> occupantsByNick = new LinkedHashMap<>();
+
+    private final Map<Jid, Occupant> occupantsByJid = new HashMap<>();
+
+    private final Map<Jid, Affiliation> affiliations = new HashMap<>();
+
+    private final Set<Occupant> unreachable = new LinkedHashSet<>();
+
+    private final RoomHistory history = new RoomHistory(DEFAULT_HISTORY_SIZE);
+
+    private RoomConfiguration configuration;
+
+    private String name;
+
+    private String password;
+
+    private boolean membersOnly;
+
+    private boolean moderated;
+
+    private boolean persistent;
+
+    private boolean publicRoom;
+
+    private boolean changeSubjectAllowed;
+
+    private int maxUsers;
+
+    private Set<Role> rolesThatMayDiscoverRealJids;
+
+    private Set<Role> rolesThatMaySendPrivateMessages;
+
+    private EncodedStanza.Template subject;
+
+    /**
+     * True, if the next occupant is the creator of the room.
+     */
+    private boolean created;
+
+    private boolean destroyed;
+
+    /**
+     * @param address               The room address.
+     * @param configuration         The configuration.
+     * @param created               True, if the room has just been created by the next occupant.
+     * @param delivery              Delivers an element to the real JID of an occupant and returns false, if the
+     *                              occupant is not reachable.
+     * @param marshaller            Supplies the marshaller, which encodes broadcast stanzas.
+     * @param configurationProvider Stores the configuration of persistent rooms.
+     */
+    Room(final Jid address, final RoomConfiguration configuration, final boolean created,
+         final Delivery delivery, final Supplier<Marshaller> marshaller,
+         final RoomConfigurationProvider configurationProvider) {
+        this.address = address;
+        this.created = created;
+        this.delivery = delivery;
+        this.marshaller = marshaller;
+        this.configurationProvider = configurationProvider;
+        apply(configuration);
+    }
+
+    /**
+     * Creates the configuration of an instant room, which is a public, temporary, semi-anonymous room, which is owned
+     * by its creator.
+     *
+     * @param address The room address.
+     * @param creator The creator.
+     * @return The configuration.
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#createroom-instant">10.1.2 Creating an Instant
+     * Room</a>
+     */
+    static RoomConfiguration defaultConfiguration(final Jid address, final Jid creator) {
+        return RoomConfiguration.builder()
+                .name(address.getLocal())
+                .owners(Collections.singleton(creator.asBareJid()))
+                .publicRoom(true)
+                .persistent(false)
+                .membersOnly(false)
+                .moderated(false)
+                .passwordProtected(false)
+                .changeSubjectAllowed(true)
+                .maxHistoryMessages(DEFAULT_HISTORY_SIZE)
+                .rolesThatMayDiscoverRealJids(EnumSet.of(Role.MODERATOR))
+                .rolesThatMaySendPrivateMessages(ALL_ROLES)
+                .build();
+    }
+
+    /**
+     * Processes a stanza, which has been sent to the room or to an occupant.
+     *
+     * @param stanza The stanza.
+     * @throws StreamErrorException If a stanza could not be encoded.
+     */
+    final void process(final Stanza stanza) throws StreamErrorException {
+        if (stanza instanceof Presence) {
+            processPresence((Presence) stanza);
+        } else if (stanza instanceof Message) {
+            processMessage((Message) stanza);
+        } else if (stanza instanceof IQ) {
+            processIQ((IQ) stanza);
+        }
+        removeUnreachable();
+    }
+
+    final Jid getAddress() {
+        return address;
+    }
+
+    final String getName() {
+        return name;
+    }
+
+    final boolean isPublic() {
+        return publicRoom;
+    }
+
+    final boolean isPersistent() {
+        return persistent;
+    }
+
+    final boolean isDestroyed() {
+        return destroyed;
+    }
+
+    final boolean isEmpty() {
+        return occupantsByNick.isEmpty();
+    }
+
+    final int getOccupantCount() {
+        return occupantsByNick.size();
+    }
+
+    final int getHistorySize() {
+        return history.size();
+    }
+
+    private void apply(final RoomConfiguration configuration) {
+        this.configuration = configuration;
+        this.name = configuration.getName();
+        this.password = configuration.isPasswordProtected() ? configuration.getPassword() : null;
+        this.membersOnly = configuration.isMembersOnly();
+        this.moderated = configuration.isModerated();
+        this.persistent = configuration.isPersistent();
+        this.publicRoom = configuration.isPublicRoom();
+        this.changeSubjectAllowed = configuration.isChangeSubjectAllowed();
+        this.maxUsers = configuration.getMaxUsers() != null ? configuration.getMaxUsers() : 0;
+        this.rolesThatMayDiscoverRealJids = new HashSet<>(configuration.getRolesThatMayDiscoverRealJids());
+        final Collection<Role> pmRoles = configuration.getRolesThatMaySendPrivateMessages();
+        this.rolesThatMaySendPrivateMessages = pmRoles.isEmpty() ? ALL_ROLES : new HashSet<>(pmRoles);
+        final Integer maxHistory = configuration.getMaxHistoryMessages();
+        history.setCapacity(maxHistory != null ? maxHistory : DEFAULT_HISTORY_SIZE);
+
+        affiliations.values().removeIf(affiliation -> affiliation == Affiliation.OWNER
+                || affiliation == Affiliation.ADMIN);
+        configuration.getAdministrators().forEach(jid -> affiliations.put(jid.asBareJid(), Affiliation.ADMIN));
+        configuration.getOwners().forEach(jid -> affiliations.put(jid.asBareJid(), Affiliation.OWNER));
+    }
+
+    private void processPresence(final Presence presence) throws StreamErrorException {
+        final Occupant occupant = occupantsByJid.get(presence.getFrom());
+        if (presence.getType() == Presence.Type.ERROR) {
+            // An error from an occupant's client means, it can't be reached anymore.
+            if (occupant != null) {
+                unreachable.add(occupant);
+            }
+        } else if (presence.getType() == Presence.Type.UNAVAILABLE) {
+            if (occupant != null) {
+                leave(occupant, presence);
+            }
+        } else if (presence.isAvailable()) {
+            if (presence.getTo().getResource() == null) {
+                // 7.2.1 Groupchat 1.0 Protocol: no nickname specified
+                reply(presence.createError(Condition.JID_MALFORMED));
+            } else if (occupant == null) {
+                join(presence);
+            } else if (!occupant.getNick().equals(presence.getTo().getResource())) {
+                changeNick(occupant, presence);
+            } else {
+                occupant.setPresence(strip(presence));
+                broadcastPresence(occupant, Status.SELF_PRESENCE);
+            }
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#enter">7.2 Entering a Room</a>
+     */
+    private void join(final Presence presence) throws StreamErrorException {
+        final String nick = presence.getTo().getResource();
+        final Affiliation affiliation = affiliations.getOrDefault(presence.getFrom().asBareJid(), Affiliation.NONE);
+        final Muc muc = presence.getExtension(Muc.class);
+        final Condition condition;
+        if (affiliation == Affiliation.OUTCAST) {
+            condition = Condition.FORBIDDEN;
+        } else if (occupantsByNick.containsKey(nick)) {
+            condition = Condition.CONFLICT;
+        } else if (membersOnly && affiliation == Affiliation.NONE) {
+            condition = Condition.REGISTRATION_REQUIRED;
+        } else if (password != null && affiliation != Affiliation.OWNER
+                && (muc == null || !password.equals(muc.getPassword()))) {
+            condition = Condition.NOT_AUTHORIZED;
+        } else if (maxUsers > 0 && occupantsByNick.size() >= maxUsers && !isAdmin(affiliation)) {
+            condition = Condition.SERVICE_UNAVAILABLE;
+        } else {
+            condition = null;
+        }
+        if (condition != null) {
+            reply(presence.createError(condition));
+            return;
+        }
+
+        final Occupant occupant = new Occupant(presence.getFrom(), address.withResource(nick), affiliation,
+                roleOf(affiliation), strip(presence));
+
+        // 7.2.3 Presence Broadcast: The new occupant first receives the presence of the existing occupants...
+        final boolean seesRealJids = seesRealJids(occupant);
+        for (final Occupant other : occupantsByNick.values()) {
+            deliver(occupant, encodedPresence(other, seesRealJids).to(occupant.getJid()));
+        }
+        occupantsByNick.put(nick, occupant);
+        occupantsByJid.put(occupant.getJid(), occupant);
+
+        // ... then all occupants receive the presence of the new occupant, including the new occupant itself.
+        final List<Status> statuses = new ArrayList<>();
+        statuses.add(Status.SELF_PRESENCE);
+        if (rolesThatMayDiscoverRealJids.containsAll(ALL_ROLES)) {
+            statuses.add(Status.ROOM_IS_NON_ANONYMOUS);
+        }
+        if (created) {
+            statuses.add(Status.NEW_ROOM_CREATED);
+            created = false;
+        }
+        broadcastPresence(occupant, statuses.toArray(new Status[0]));
+
+        // 7.2.15 Discussion History
+        for (final EncodedStanza.Template message : history.get(muc != null ? muc.getHistory() : null, address,
+                Instant.now(), this::encode)) {
+            deliver(occupant, message.to(occupant.getJid()));
+        }
+
+        // 7.2.16 Room Subject
+        if (subject == null) {
+            final Message emptySubject = new Message(null, Message.Type.GROUPCHAT, null, "");
+            emptySubject.setFrom(address);
+            subject = encode(emptySubject);
+        }
+        deliver(occupant, subject.to(occupant.getJid()));
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#changenick">7.6 Changing Nickname</a>
+     */
+    private void changeNick(final Occupant occupant, final Presence presence) throws StreamErrorException {
+        final String newNick = presence.getTo().getResource();
+        if (occupantsByNick.containsKey(newNick)) {
+            reply(presence.createError(Condition.CONFLICT));
+            return;
+        }
+        final Presence unavailable = new Presence(Presence.Type.UNAVAILABLE);
+        fanOut(occupant, withJid -> encode(occupantPresence(occupant, unavailable, withJid, newNick,
+                Status.NICK_CHANGED)));
+        deliver(occupant, encode(occupantPresence(occupant, unavailable, true, newNick, Status.NICK_CHANGED,
+                Status.SELF_PRESENCE)).to(occupant.getJid()));
+
+        occupantsByNick.remove(occupant.getNick());
+        occupant.setAddress(address.withResource(newNick));
+        occupant.setPresence(strip(presence));
+        occupantsByNick.put(newNick, occupant);
+        broadcastPresence(occupant, Status.SELF_PRESENCE);
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#exit">7.14 Exiting a Room</a>
+     */
+    private void leave(final Occupant occupant, final Presence presence) throws StreamErrorException {
+        remove(occupant);
+        occupant.setPresence(strip(presence));
+        broadcastPresence(occupant, Status.SELF_PRESENCE);
+    }
+
+    private void removeUnreachable() throws StreamErrorException {
+        while (!unreachable.isEmpty()) {
+            final Iterator<Occupant> iterator = unreachable.iterator();
+            final Occupant occupant = iterator.next();
+            iterator.remove();
+            if (occupantsByJid.get(occupant.getJid()) == occupant) {
+                remove(occupant);
+                final Presence unavailable = new Presence(Presence.Type.UNAVAILABLE);
+                fanOut(occupant, withJid -> encode(occupantPresence(occupant, unavailable, withJid, null,
+                        Status.REMOVED_DUE_TO_ERROR)));
+            }
+        }
+    }
+
+    private void remove(final Occupant occupant) {
+        occupantsByNick.remove(occupant.getNick());
+        occupantsByJid.remove(occupant.getJid());
+    }
+
+    private void processMessage(final Message message) throws StreamErrorException {
+        final Occupant sender = occupantsByJid.get(message.getFrom());
+        if (message.getType() == Message.Type.ERROR) {
+            if (sender != null) {
+                unreachable.add(sender);
+            }
+        } else if (message.getTo().getResource() == null) {
+            if (message.getType() == Message.Type.GROUPCHAT) {
+                groupchat(sender, message);
+            } else {
+                // E.g. mediated invitations or voice requests.
+                reply(message.createError(Condition.FEATURE_NOT_IMPLEMENTED));
+            }
+        } else {
+            privateMessage(sender, message);
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#message">7.4 Sending a Message to All Occupants</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#subject-mod">8.1 Modifying the Room Subject</a>
+     */
+    private void groupchat(final Occupant sender, final Message message) throws StreamErrorException {
+        if (sender == null) {
+            reply(message.createError(Condition.NOT_ACCEPTABLE));
+            return;
+        }
+        final boolean subjectChange = !message.getSubjects().isEmpty() && message.getBodies().isEmpty();
+        if (sender.getRole() == Role.VISITOR
+                || (subjectChange && !changeSubjectAllowed && sender.getRole() != Role.MODERATOR)) {
+            reply(message.createError(Condition.FORBIDDEN));
+            return;
+        }
+        final Message broadcast = new Message(null, Message.Type.GROUPCHAT, message.getBodies(),
+                message.getSubjects(), message.getThread(), message.getParentThread(), message.getId(),
+                sender.getAddress(), message.getLanguage(), strip(message.getExtensions()), null);
+        final EncodedStanza.Template template = encode(broadcast);
+        for (final Occupant occupant : occupantsByNick.values()) {
+            deliver(occupant, template.to(occupant.getJid()));
+        }
+        if (subjectChange) {
+            subject = template;
+        } else if (!message.getBodies().isEmpty()) {
+            history.add(broadcast, template.length(), Instant.now());
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#privatemessage">7.5 Sending a Private Message</a>
+     */
+    private void privateMessage(final Occupant sender, final Message message) {
+        final Occupant recipient = occupantsByNick.get(message.getTo().getResource());
+        if (message.getType() == Message.Type.GROUPCHAT) {
+            reply(message.createError(Condition.BAD_REQUEST));
+        } else if (sender == null) {
+            reply(message.createError(Condition.NOT_ACCEPTABLE));
+        } else if (!rolesThatMaySendPrivateMessages.contains(sender.getRole())) {
+            reply(message.createError(Condition.FORBIDDEN));
+        } else if (recipient == null) {
+            reply(message.createError(Condition.ITEM_NOT_FOUND));
+        } else {
+            final Message privateMessage = new Message(recipient.getJid(), message.getType(), message.getBodies(),
+                    message.getSubjects(), message.getThread(), message.getParentThread(), message.getId(),
+                    sender.getAddress(), message.getLanguage(), strip(message.getExtensions()), null);
+            privateMessage.addExtension(MucUser.withStatus());
+            deliver(recipient, privateMessage);
+        }
+    }
+
+    private void processIQ(final IQ iq) throws StreamErrorException {
+        if (!iq.isRequest()) {
+            return;
+        }
+        if (iq.getTo().getResource() != null) {
+            // IQs to occupants are not forwarded.
+            reply(iq.createError(Condition.SERVICE_UNAVAILABLE));
+            return;
+        }
+        final Object payload = iq.getExtension(Object.class);
+        final Affiliation affiliation = affiliations.getOrDefault(iq.getFrom().asBareJid(), Affiliation.NONE);
+        if (payload instanceof InfoDiscovery && iq.getType() == IQ.Type.GET) {
+            reply(iq.createResult(getInfo()));
+        } else if (payload instanceof ItemDiscovery && iq.getType() == IQ.Type.GET) {
+            // Occupants are not disclosed.
+            reply(iq.createResult(new ItemDiscovery()));
+        } else if (payload instanceof MucOwner) {
+            if (affiliation != Affiliation.OWNER) {
+                reply(iq.createError(Condition.FORBIDDEN));
+            } else if (iq.getType() == IQ.Type.GET) {
+                reply(iq.createResult(MucOwner.withConfiguration(
+                        new DataForm(DataForm.Type.FORM, configuration.getDataForm().getFields()))));
+            } else {
+                processOwnerRequest(iq, (MucOwner) payload);
+            }
+        } else if (payload instanceof MucAdmin) {
+            reply(iq.createError(Condition.FEATURE_NOT_IMPLEMENTED));
+        } else {
+            reply(iq.createError(Condition.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#roomconfig">10.2 Subsequent Room Configuration</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0045.html#destroyroom">10.9 Destroying a Room</a>
+     */
+    private void processOwnerRequest(final IQ iq, final MucOwner mucOwner) throws StreamErrorException {
+        final DataForm form = mucOwner.getConfigurationForm();
+        if (mucOwner.getDestroy() != null) {
+            destroy(mucOwner.getDestroy());
+            reply(iq.createResult());
+        } else if (form != null && form.getType() == DataForm.Type.CANCEL) {
+            reply(iq.createResult());
+        } else if (form != null && form.getType() == DataForm.Type.SUBMIT) {
+            if (configure(form)) {
+                reply(iq.createResult());
+                onConfigurationChanged();
+            } else {
+                reply(iq.createError(Condition.NOT_ACCEPTABLE));
+            }
+        } else {
+            reply(iq.createError(Condition.BAD_REQUEST));
+        }
+    }
+
+    private boolean configure(final DataForm form) throws StreamErrorException {
+        // Fields, which have not been submitted, keep their value.
+        final Map<String, DataForm.Field> fields = new LinkedHashMap<>();
+        configuration.getDataForm().getFields().forEach(field -> fields.put(field.getName(), field));
+        form.getFields().forEach(field -> fields.put(field.getName(), field));
+        final RoomConfiguration newConfiguration =
+                new RoomConfiguration(new DataForm(DataForm.Type.SUBMIT, fields.values()));
+        if (newConfiguration.getOwners().isEmpty()) {
+            // A room must not lose all of its owners.
+            return false;
+        }
+        final boolean wasPersistent = persistent;
+        apply(newConfiguration);
+        if (persistent) {
+            configurationProvider.store(address, newConfiguration);
+        } else if (wasPersistent) {
+            configurationProvider.delete(address);
+        }
+        return true;
+    }
+
+    private void onConfigurationChanged() throws StreamErrorException {
+        // Roles depend on affiliations and on whether the room is moderated.
+        for (final Occupant occupant : occupantsByNick.values()) {
+            final Affiliation affiliation =
+                    affiliations.getOrDefault(occupant.getJid().asBareJid(), Affiliation.NONE);
+            if (affiliation != occupant.getAffiliation() || roleOf(affiliation) != occupant.getRole()) {
+                occupant.setAffiliation(affiliation);
+                occupant.setRole(roleOf(affiliation));
+                broadcastPresence(occupant, Status.SELF_PRESENCE);
+            }
+        }
+
+        // 10.2.1 Notification of Configuration Changes
+        final Message notification = new Message(null, Message.Type.GROUPCHAT);
+        notification.setFrom(address);
+        notification.addExtension(MucUser.withStatus(Status.ROOM_CONFIGURATION_CHANGED));
+        final EncodedStanza.Template template = encode(notification);
+        for (final Occupant occupant : occupantsByNick.values()) {
+            deliver(occupant, template.to(occupant.getJid()));
+        }
+    }
+
+    private void destroy(final Destroy destroy) throws StreamErrorException {
+        for (final Occupant occupant : occupantsByNick.values()) {
+            final Presence unavailable = new Presence(Presence.Type.UNAVAILABLE);
+            unavailable.setFrom(occupant.getAddress());
+            unavailable.addExtension(MucUser.withDestroy(occupant.getAffiliation(), Role.NONE, destroy.getJid(),
+                    destroy.getReason()));
+            deliver(occupant, encode(unavailable).to(occupant.getJid()));
+        }
+        occupantsByNick.clear();
+        occupantsByJid.clear();
+        unreachable.clear();
+        if (persistent) {
+            configurationProvider.delete(address);
+            persistent = false;
+        }
+        destroyed = true;
+    }
+
+    private InfoDiscovery getInfo() {
+        final Identity identity = name != null ? Identity.conferenceText().withName(name) : Identity.conferenceText();
+        final List<String> features = new ArrayList<>(Arrays.asList(Muc.NAMESPACE, InfoDiscovery.NAMESPACE));
+        features.add((publicRoom ? MucFeature.PUBLIC : MucFeature.HIDDEN).getFeatureName());
+        features.add((persistent ? MucFeature.PERSISTENT : MucFeature.TEMPORARY).getFeatureName());
+        features.add((membersOnly ? MucFeature.MEMBERS_ONLY : MucFeature.OPEN).getFeatureName());
+        features.add((moderated ? MucFeature.MODERATED : MucFeature.UNMODERATED).getFeatureName());
+        features.add((password != null ? MucFeature.PASSWORD_PROTECTED : MucFeature.UNSECURED).getFeatureName());
+        features.add((rolesThatMayDiscoverRealJids.containsAll(ALL_ROLES)
+                ? MucFeature.NON_ANONYMOUS : MucFeature.SEMI_ANONYMOUS).getFeatureName());
+        return new InfoDiscovery(Collections.singleton(identity), features);
+    }
+
+    /**
+     * Sends the presence of an occupant to all other occupants and the self-presence to the occupant itself.
+     */
+    private void broadcastPresence(final Occupant occupant, final Status... selfStatuses)
+            throws StreamErrorException {
+        fanOut(occupant, withJid -> encodedPresence(occupant, withJid));
+        deliver(occupant, encode(occupantPresence(occupant, occupant.getPresence(), true, null, selfStatuses))
+                .to(occupant.getJid()));
+    }
+
+    /**
+     * Sends a stanza to all occupants except the given one. The stanza is encoded at most once with and once without
+     * real JID, depending on which occupants may discover real JIDs.
+     */
+    private void fanOut(final Occupant except, final TemplateFactory factory) throws StreamErrorException {
+        EncodedStanza.Template withJid = null;
+        EncodedStanza.Template withoutJid = null;
+        for (final Occupant occupant : occupantsByNick.values()) {
+            if (occupant == except) {
+                continue;
+            }
+            final EncodedStanza.Template template;
+            if (seesRealJids(occupant)) {
+                if (withJid == null) {
+                    withJid = factory.create(true);
+                }
+                template = withJid;
+            } else {
+                if (withoutJid == null) {
+                    withoutJid = factory.create(false);
+                }
+                template = withoutJid;
+            }
+            deliver(occupant, template.to(occupant.getJid()));
+        }
+    }
+
+    private EncodedStanza.Template encodedPresence(final Occupant occupant, final boolean withJid)
+            throws StreamErrorException {
+        EncodedStanza.Template template = occupant.getEncodedPresence(withJid);
+        if (template == null) {
+            template = encode(occupantPresence(occupant, occupant.getPresence(), withJid, null));
+            occupant.setEncodedPresence(withJid, template);
+        }
+        return template;
+    }
+
+    private static Presence occupantPresence(final Occupant occupant, final Presence presence, final boolean withJid,
+                                             final String newNick, final Status... statuses) {
+        final Presence result = new Presence(null, presence.getType(), presence.getShow(), presence.getStatuses(),
+                presence.getPriority(), null, occupant.getAddress(), presence.getLanguage(),
+                presence.getExtensions(), null);
+        result.addExtension(MucUser.withItem(occupant.getAffiliation(),
+                presence.getType() == Presence.Type.UNAVAILABLE && newNick == null ? Role.NONE : occupant.getRole(),
+                withJid ? occupant.getJid() : null, newNick, statuses));
+        return result;
+    }
+
+    private boolean seesRealJids(final Occupant occupant) {
+        return rolesThatMayDiscoverRealJids.contains(occupant.getRole());
+    }
+
+    private Role roleOf(final Affiliation affiliation) {
+        if (isAdmin(affiliation)) {
+            return Role.MODERATOR;
+        } else if (affiliation == Affiliation.MEMBER || !moderated) {
+            return Role.PARTICIPANT;
+        }
+        return Role.VISITOR;
+    }
+
+    private static boolean isAdmin(final Affiliation affiliation) {
+        return affiliation == Affiliation.OWNER || affiliation == Affiliation.ADMIN;
+    }
+
+    private EncodedStanza.Template encode(final Stanza stanza) throws StreamErrorException {
+        return EncodedStanza.encode(stanza, OUTPUT_FACTORY, marshaller.get());
+    }
+
+    private void deliver(final Occupant occupant, final StreamElement element) {
+        if (!delivery.deliver(occupant.getJid(), element)) {
+            unreachable.add(occupant);
+        }
+    }
+
+    private void reply(final Stanza stanza) {
+        // Errors to unreachable senders are dropped.
+        delivery.deliver(stanza.getTo(), stanza);
+    }
+
+    /**
+     * Removes the MUC elements of the sender, which must not be forwarded, without binding lazy extensions.
+     */
+    private static Presence strip(final Presence presence) {
+        return new Presence(null, presence.getType(), presence.getShow(), presence.getStatuses(),
+                presence.getPriority(), null, null, presence.getLanguage(), strip(presence.getExtensions()), null);
+    }
+
+    private static List<Object> strip(final List<Object> extensions) {
+        return extensions.stream()
+                .filter(extension -> !(extension instanceof Muc || extension instanceof MucUser
+                        || (extension instanceof LazyExtension
+                        && ((LazyExtension) extension).getName().getNamespaceURI().startsWith(Muc.NAMESPACE))))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Delivers elements from the room to the real JIDs of occupants.
+     */
+    @FunctionalInterface
+    interface Delivery {
+
+        /**
+         * Delivers an element.
+         *
+         * @param to      The real JID.
+         * @param element The element.
+         * @return False, if the recipient is not reachable.
+         */
+        boolean deliver(Jid to, StreamElement element);
+    }
+
+    @FunctionalInterface
+    private interface TemplateFactory {
+
+        EncodedStanza.Template create(boolean withJid) throws StreamErrorException;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.delay.model.DelayedDelivery;
+import rocks.xmpp.extensions.muc.model.DiscussionHistory;
+import rocks.xmpp.util.EncodedStanza;
+
+/**
+ * The discussion history of a room, which is sent to new occupants.
+ *
+ * <p>It is a bounded ring buffer, i.e. if it is full, the oldest message is overwritten. The delayed form of a message
+ * (with a {@code <delay/>} element) is only encoded once, when it is first requested, and then shared by all new
+ * occupants.</p>
+ *
+ * <p>This class is not thread-safe, it is confined to the thread of the room.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0045.html#enter-managehistory">7.2.13 Managing Discussion History</a>
+ */
+final class RoomHistory {
+
+    private Entry[] entries;
+
+    /**
+     * The index of the oldest entry.
+     */
+    private int head;
+
+    private int size;
+
+    RoomHistory(final int capacity) {
+        entries = new Entry[Math.max(0, capacity)];
+    }
+
+    /**
+     * Adds a message to the history.
+     *
+     * @param message   The message as broadcast by the room, i.e. without 'to' attribute.
+     * @param length    The length of the encoded message, which is used to honor the 'maxchars' limit.
+     * @param timestamp The time, when the message has been received by the room.
+     */
+    final void add(final Message message, final int length, final Instant timestamp) {
+        if (entries.length == 0) {
+            return;
+        }
+        final Entry entry = new Entry(message, length, timestamp);
+        if (size < entries.length) {
+            entries[(head + size) % entries.length] = entry;
+            size++;
+        } else {
+            entries[head] = entry;
+            head = (head + 1) % entries.length;
+        }
+    }
+
+    /**
+     * Gets the history, which has been requested by a new occupant, in chronological order.
+     *
+     * @param request The request of the new occupant or null, if the default history is requested.
+     * @param room    The room address, which is used as 'from' attribute of the delay element.
+     * @param now     The current time.
+     * @param encoder Encodes the delayed messages.
+     * @return The encoded messages.
+     * @throws StreamErrorException If a message could not be encoded.
+     */
+    final Deque<EncodedStanza.Template> get(final DiscussionHistory request, final Jid room, final Instant now,
+                                            final Encoder encoder) throws StreamErrorException {
+        int maxStanzas = size;
+        long maxChars = Long.MAX_VALUE;
+        Instant since = Instant.MIN;
+        if (request != null) {
+            if (request.getMaxStanzas() != null) {
+                maxStanzas = Math.min(maxStanzas, request.getMaxStanzas());
+            }
+            if (request.getMaxChars() != null) {
+                maxChars = request.getMaxChars();
+            }
+            if (request.getSeconds() != null) {
+                since = now.minusSeconds(request.getSeconds());
+            }
+            if (request.getSince() != null && request.getSince().isAfter(since)) {
+                since = request.getSince();
+            }
+        }
+        final Deque<EncodedStanza.Template> result = new ArrayDeque<>();
+        long chars = 0;
+        // Walk backwards from the newest message, until one of the limits is reached.
+        for (int i = size - 1; i >= 0 && result.size() < maxStanzas; i--) {
+            final Entry entry = entries[(head + i) % entries.length];
+            chars += entry.length;
+            if (chars > maxChars || entry.timestamp.isBefore(since)) {
+                break;
+            }
+            if (entry.delayed == null) {
+                final Message m = entry.message;
+                final Message delayed = new Message(null, m.getType(), m.getBodies(), m.getSubjects(), m.getThread(),
+                        m.getParentThread(), m.getId(), m.getFrom(), m.getLanguage(), m.getExtensions(), null);
+                delayed.addExtension(new DelayedDelivery(entry.timestamp, room, null));
+                entry.delayed = encoder.encode(delayed);
+            }
+            result.addFirst(entry.delayed);
+        }
+        return result;
+    }
+
+    /**
+     * Changes the capacity. If it shrinks, the oldest messages are discarded.
+     *
+     * @param capacity The new capacity.
+     */
+    final void setCapacity(final int capacity) {
+        final int newCapacity = Math.max(0, capacity);
+        if (newCapacity == entries.length) {
+            return;
+        }
+        final Entry[] newEntries = new Entry[newCapacity];
+        final int newSize = Math.min(size, newCapacity);
+        for (int i = 0; i < newSize; i++) {
+            newEntries[i] = entries[(head + size - newSize + i) % entries.length];
+        }
+        entries = newEntries;
+        head = 0;
+        size = newSize;
+    }
+
+    /**
+     * Gets the number of messages in the history.
+     *
+     * @return The number of messages.
+     */
+    final int size() {
+        return size;
+    }
+
+    /**
+     * Encodes a message for the history.
+     */
+    @FunctionalInterface
+    interface Encoder {
+
+        EncodedStanza.Template encode(Message message) throws StreamErrorException;
+    }
+
+    private static final class Entry {
+
+        private final Message message;
+
+        private final int length;
+
+        private final Instant timestamp;
+
+        private EncodedStanza.Template delayed;
+
+        private Entry(final Message message, final int length, final Instant timestamp) {
+            this.message = message;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+}
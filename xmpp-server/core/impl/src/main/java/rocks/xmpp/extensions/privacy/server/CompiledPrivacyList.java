@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.privacy.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.extensions.privacy.model.PrivacyRule;
+import rocks.xmpp.im.roster.model.RosterItem;
+import rocks.xmpp.im.roster.model.SubscriptionState;
+
+/**
+ * A privacy list, which has been compiled for the evaluation of stanzas on the routing path.
+ *
+ * <p>Instead of evaluating the ordered rules one after the other, the rules are indexed per stanza kind by their JID,
+ * roster group and subscription, keeping only the rule with the lowest order for each value. A stanza is then
+ * evaluated by a few hash lookups (one per JID form and roster group of the contact), no matter how many rules the
+ * list has. Rules without a type match every stanza, therefore only the first one of them remains as (ordered)
+ * residual and all rules with a higher order are dropped, because they can never apply.</p>
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-nomatch">2.10 Processing Rules</a>
+ */
+public final class CompiledPrivacyList {
+
+    private final Map<Kind, Filter> filters = new EnumMap<>(Kind.class);
+
+    /**
+     * Compiles privacy rules.
+     *
+     * @param rules The rules in any order.
+     * @throws IllegalArgumentException If a rule has an invalid JID, group or subscription value.
+     */
+    public CompiledPrivacyList(final Collection<PrivacyRule> rules) {
+        final List<PrivacyRule> orderedRules = new ArrayList<>(rules);
+        Collections.sort(orderedRules);
+        for (final Kind kind : Kind.values()) {
+            final Filter filter = new Filter();
+            for (final PrivacyRule rule : orderedRules) {
+                if (filter.fallThrough != null) {
+                    break;
+                }
+                if (kind.appliesTo(rule)) {
+                    filter.add(rule);
+                }
+            }
+            filters.put(kind, filter);
+        }
+    }
+
+    /**
+     * Checks, if the list denies a stanza.
+     *
+     * @param kind       The kind of stanza.
+     * @param contact    The contact, from which the stanza is received or to which it is sent.
+     * @param rosterItem Provides the user's roster item of the contact. It is only called, if a group or subscription
+     *                   rule could apply.
+     * @return True, if the stanza is denied.
+     */
+    public boolean isDenied(final Kind kind, final Jid contact, final Supplier<? extends RosterItem> rosterItem) {
+        final PrivacyRule rule = filters.get(kind).match(contact, rosterItem);
+        return rule != null && rule.getAction() == PrivacyRule.Action.DENY;
+    }
+
+    /**
+     * The kind of stanza, to which a rule applies.
+     */
+    public enum Kind {
+        /**
+         * Inbound messages.
+         */
+        MESSAGE,
+        /**
+         * Inbound presence notifications.
+         */
+        PRESENCE_IN,
+        /**
+         * Outbound presence notifications.
+         */
+        PRESENCE_OUT,
+        /**
+         * Inbound IQ stanzas.
+         */
+        IQ,
+        /**
+         * Any other stanza, which is only affected by rules, which apply to all stanzas.
+         */
+        ALL;
+
+        /**
+         * Gets the kind of stanza.
+         *
+         * @param stanza  The stanza.
+         * @param inbound True, if the stanza is received by the user, false, if it is sent by the user.
+         * @return The kind of stanza.
+         */
+        public static Kind of(final Stanza stanza, final boolean inbound) {
+            if (stanza instanceof Presence) {
+                final Presence.Type type = ((Presence) stanza).getType();
+                if (type == null || type == Presence.Type.UNAVAILABLE) {
+                    return inbound ? PRESENCE_IN : PRESENCE_OUT;
+                }
+                return ALL;
+            }
+            if (!inbound) {
+                return ALL;
+            }
+            return stanza instanceof Message ? MESSAGE : IQ;
+        }
+
+        private boolean appliesTo(final PrivacyRule rule) {
+            switch (this) {
+                case MESSAGE:
+                    return rule.isAppliedToMessages();
+                case PRESENCE_IN:
+                    return rule.isAppliedToInboundPresence();
+                case PRESENCE_OUT:
+                    return rule.isAppliedToOutboundPresence();
+                case IQ:
+                    return rule.isAppliedToIQs();
+                default:
+                    return rule.isAppliedToMessages() && rule.isAppliedToInboundPresence()
+                            && rule.isAppliedToOutboundPresence() && rule.isAppliedToIQs();
+            }
+        }
+    }
+
+    /**
+     * The rules, which apply to one kind of stanza. The rules are added in order, so that the first rule for a value
+     * wins.
+     */
+    private static final class Filter {
+
+        /**
+         * The rules for JIDs with a local part.
+         */
+        private final Map<Jid, PrivacyRule> jids = new HashMap<>();
+
+        /**
+         * The rules for domains with a resource, keyed by domain and resource, so that no JID needs to be created for
+         * the lookup.
+         */
+        private final Map<String, Map<String, PrivacyRule>> domainResources = new HashMap<>();
+
+        private final Map<String, PrivacyRule> domains = new HashMap<>();
+
+        private final Map<String, PrivacyRule> groups = new HashMap<>();
+
+        private final Map<SubscriptionState.Subscription, PrivacyRule> subscriptions =
+                new EnumMap<>(SubscriptionState.Subscription.class);
+
+        /**
+         * The order of the first group or subscription rule. Matches with a lower order don't need the roster.
+         */
+        private long rosterOrder = Long.MAX_VALUE;
+
+        private PrivacyRule fallThrough;
+
+        private void add(final PrivacyRule rule) {
+            if (rule.getType() == null) {
+                fallThrough = rule;
+                return;
+            }
+            if (rule.getValue() == null) {
+                throw new IllegalArgumentException("value must not be null.");
+            }
+            switch (rule.getType()) {
+                case JID:
+                    final Jid jid = Jid.ofEscaped(rule.getValue());
+                    if (jid.getLocal() != null) {
+                        jids.putIfAbsent(jid, rule);
+                    } else if (jid.getResource() != null) {
+                        domainResources.computeIfAbsent(jid.getDomain(), key -> new HashMap<>())
+                                .putIfAbsent(jid.getResource(), rule);
+                    } else {
+                        domains.putIfAbsent(jid.getDomain(), rule);
+                    }
+                    break;
+                case GROUP:
+                    groups.putIfAbsent(rule.getValue(), rule);
+                    rosterOrder = Math.min(rosterOrder, rule.getOrder());
+                    break;
+                default:
+                    final SubscriptionState.Subscription subscription =
+                            SubscriptionState.Subscription.valueOf(rule.getValue().toUpperCase(Locale.ROOT));
+                    if (subscription == SubscriptionState.Subscription.REMOVE) {
+                        throw new IllegalArgumentException("subscription must not be 'remove'");
+                    }
+                    subscriptions.putIfAbsent(subscription, rule);
+                    rosterOrder = Math.min(rosterOrder, rule.getOrder());
+                    break;
+            }
+        }
+
+        private PrivacyRule match(final Jid contact, final Supplier<? extends RosterItem> rosterItem) {
+            PrivacyRule match = fallThrough;
+            // 2.10: <user@domain/resource>, <user@domain>, <domain/resource>, <domain>
+            if (!jids.isEmpty() && contact.getLocal() != null) {
+                match = first(match, jids.get(contact));
+                if (contact.getResource() != null) {
+                    match = first(match, jids.get(contact.asBareJid()));
+                }
+            }
+            if (!domainResources.isEmpty() && contact.getResource() != null) {
+                final Map<String, PrivacyRule> resources = domainResources.get(contact.getDomain());
+                if (resources != null) {
+                    match = first(match, resources.get(contact.getResource()));
+                }
+            }
+            match = first(match, domains.get(contact.getDomain()));
+            if (rosterOrder != Long.MAX_VALUE && (match == null || match.getOrder() > rosterOrder)) {
+                final RosterItem item = rosterItem.get();
+                if (item != null) {
+                    for (final String group : item.getGroups()) {
+                        match = first(match, groups.get(group));
+                    }
+                }
+                final SubscriptionState.Subscription subscription = item != null && item.getSubscription() != null
+                        ? item.getSubscription() : SubscriptionState.Subscription.NONE;
+                match = first(match, subscriptions.get(subscription));
+            }
+            return match;
+        }
+
+        private static PrivacyRule first(final PrivacyRule rule1, final PrivacyRule rule2) {
+            if (rule1 == null) {
+                return rule2;
+            }
+            if (rule2 == null) {
+                return rule1;
+            }
+            return rule2.getOrder() < rule1.getOrder() ? rule2 : rule1;
+        }
+    }
+}
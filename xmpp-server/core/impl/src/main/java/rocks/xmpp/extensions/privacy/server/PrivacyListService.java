@@ -0,0 +1,271 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.privacy.server;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.ExtensionProtocol;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.stanza.AbstractIQHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.privacy.model.Privacy;
+import rocks.xmpp.extensions.privacy.model.PrivacyList;
+import rocks.xmpp.im.roster.server.ServerRosterManager;
+import rocks.xmpp.session.server.SessionManager;
+
+/**
+ * Manages the privacy lists of local users and evaluates them on the routing path.
+ *
+ * <p>Each list is compiled, when it is stored, and the compiled list replaces the previous one, so that edits take
+ * effect immediately. Stanzas are then evaluated against the active list of the session or the user's default list
+ * without iterating the rules, see {@link CompiledPrivacyList}. Users without privacy lists only cost one map
+ * lookup.</p>
+ *
+ * <p>Stanzas to a bare JID are evaluated against the default list, because they are not yet bound to a resource.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0016.html">XEP-0016: Privacy Lists</a>
+ */
+@ApplicationScoped
+public class PrivacyListService extends AbstractIQHandler implements ExtensionProtocol, DiscoverableInfo {
+
+    private final Map<Jid, UserPrivacyLists> privacyLists = new ConcurrentHashMap<>();
+
+    @Inject
+    private SessionManager sessionManager;
+
+    @Inject
+    private ServerRosterManager rosterManager;
+
+    public PrivacyListService() {
+        super(Privacy.class, IQ.Type.GET, IQ.Type.SET);
+    }
+
+    @Override
+    protected IQ processRequest(final IQ iq) {
+        final Jid user = iq.getFrom().asBareJid();
+        if (iq.getTo() != null && iq.getTo().getLocal() != null && !iq.getTo().asBareJid().equals(user)) {
+            // Users can only manage their own privacy lists.
+            return iq.createError(Condition.FORBIDDEN);
+        }
+        final Privacy privacy = iq.getExtension(Privacy.class);
+        if (iq.getType() == IQ.Type.GET) {
+            return getPrivacyLists(iq, privacy);
+        }
+        final int elements = privacy.getPrivacyLists().size() + (privacy.getActiveName() != null ? 1 : 0)
+                + (privacy.getDefaultName() != null ? 1 : 0);
+        if (elements != 1) {
+            // 2.3: The query MUST contain only one child element.
+            return iq.createError(Condition.BAD_REQUEST);
+        }
+        final UserPrivacyLists lists = privacyLists.computeIfAbsent(user, key -> new UserPrivacyLists());
+        synchronized (lists) {
+            if (privacy.getActiveName() != null) {
+                return setActiveList(iq, lists, privacy.getActiveName());
+            }
+            if (privacy.getDefaultName() != null) {
+                return setDefaultList(iq, lists, privacy.getDefaultName());
+            }
+            return setPrivacyList(iq, lists, privacy.getPrivacyLists().get(0));
+        }
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-retrieve">2.3 Retrieving One's Privacy
+     * Lists</a>
+     */
+    private IQ getPrivacyLists(final IQ iq, final Privacy privacy) {
+        if (privacy.getActiveName() != null || privacy.getDefaultName() != null
+                || privacy.getPrivacyLists().size() > 1) {
+            return iq.createError(Condition.BAD_REQUEST);
+        }
+        final UserPrivacyLists lists = privacyLists.get(iq.getFrom().asBareJid());
+        if (privacy.getPrivacyLists().isEmpty()) {
+            if (lists == null) {
+                return iq.createResult(new Privacy());
+            }
+            return iq.createResult(new Privacy(sessionManager.getActivePrivacyList(iq.getFrom()), lists.defaultName,
+                    lists.lists.keySet().stream().map(PrivacyList::new).collect(Collectors.toList())));
+        }
+        final PrivacyList privacyList = lists != null
+                ? lists.lists.get(privacy.getPrivacyLists().get(0).getName()) : null;
+        if (privacyList == null) {
+            return iq.createError(Condition.ITEM_NOT_FOUND);
+        }
+        return iq.createResult(new Privacy(privacyList));
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-active">2.4 Managing Active Lists</a>
+     */
+    private IQ setActiveList(final IQ iq, final UserPrivacyLists lists, final String name) {
+        if (!name.isEmpty() && !lists.lists.containsKey(name)) {
+            return iq.createError(Condition.ITEM_NOT_FOUND);
+        }
+        if (!sessionManager.setActivePrivacyList(iq.getFrom(), name.isEmpty() ? null : name)) {
+            return iq.createError(Condition.NOT_ALLOWED);
+        }
+        return iq.createResult();
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-default">2.5 Managing the Default List</a>
+     */
+    private IQ setDefaultList(final IQ iq, final UserPrivacyLists lists, final String name) {
+        if (!name.isEmpty() && !lists.lists.containsKey(name)) {
+            return iq.createError(Condition.ITEM_NOT_FOUND);
+        }
+        final String defaultName = name.isEmpty() ? null : name;
+        if (lists.defaultName != null && !lists.defaultName.equals(defaultName) && isDefaultListInUse(iq.getFrom())) {
+            return iq.createError(Condition.CONFLICT);
+        }
+        lists.defaultName = defaultName;
+        return iq.createResult();
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-edit">2.6 Editing a Privacy List</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-add">2.7 Adding a New Privacy List</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-remove">2.8 Removing a Privacy List</a>
+     */
+    private IQ setPrivacyList(final IQ iq, final UserPrivacyLists lists, final PrivacyList privacyList) {
+        final String name = privacyList.getName();
+        if (name == null) {
+            return iq.createError(Condition.BAD_REQUEST);
+        }
+        if (privacyList.getPrivacyRules().isEmpty()) {
+            if (!lists.lists.containsKey(name)) {
+                return iq.createError(Condition.ITEM_NOT_FOUND);
+            }
+            // A list, which is applied to another resource, cannot be removed.
+            final boolean activeElsewhere = sessionManager.getActivePrivacyLists(iq.getFrom().asBareJid()).entrySet()
+                    .stream()
+                    .anyMatch(entry -> !entry.getKey().equals(iq.getFrom()) && name.equals(entry.getValue()));
+            if (activeElsewhere || (name.equals(lists.defaultName) && isDefaultListInUse(iq.getFrom()))) {
+                return iq.createError(Condition.CONFLICT);
+            }
+            lists.lists.remove(name);
+            lists.compiledLists.remove(name);
+            if (name.equals(lists.defaultName)) {
+                lists.defaultName = null;
+            }
+            if (name.equals(sessionManager.getActivePrivacyList(iq.getFrom()))) {
+                sessionManager.setActivePrivacyList(iq.getFrom(), null);
+            }
+        } else {
+            final CompiledPrivacyList compiledList;
+            try {
+                compiledList = new CompiledPrivacyList(privacyList.getPrivacyRules());
+            } catch (IllegalArgumentException e) {
+                return iq.createError(Condition.BAD_REQUEST);
+            }
+            lists.lists.put(name, new PrivacyList(name, privacyList.getPrivacyRules()));
+            lists.compiledLists.put(name, compiledList);
+        }
+        // 2.6: The server MUST send a "privacy list push" to all connected resources.
+        sessionManager.getUserSessions(iq.getFrom().asBareJid())
+                .forEach(session -> session.send(IQ.set(session.getRemoteXmppAddress(),
+                        new Privacy(new PrivacyList(name)))));
+        return iq.createResult();
+    }
+
+    /**
+     * Checks, if the default list is applied to a connected resource other than the current one, i.e. if another
+     * resource has no active list.
+     */
+    private boolean isDefaultListInUse(final Jid fullJid) {
+        final Map<Jid, String> activeLists = sessionManager.getActivePrivacyLists(fullJid.asBareJid());
+        return sessionManager.getUserSessions(fullJid.asBareJid())
+                .map(Session::getRemoteXmppAddress)
+                .anyMatch(address -> !fullJid.equals(address) && !activeLists.containsKey(address));
+    }
+
+    /**
+     * Checks, if the privacy list of a local user denies a stanza, which the user receives or sends.
+     *
+     * <p>Communication between the resources of the same user is never denied.</p>
+     *
+     * @param stanza  The stanza.
+     * @param inbound True, if the stanza is received by the user in the 'to' attribute, false, if it is sent by the
+     *                user in the 'from' attribute.
+     * @return True, if the stanza is denied.
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-nomatch">2.10 Processing Rules</a>
+     */
+    public boolean isDenied(final Stanza stanza, final boolean inbound) {
+        final Jid user = inbound ? stanza.getTo() : stanza.getFrom();
+        final Jid contact = inbound ? stanza.getFrom() : stanza.getTo();
+        if (user == null || contact == null || user.getLocal() == null) {
+            return false;
+        }
+        final UserPrivacyLists lists = privacyLists.get(user.asBareJid());
+        if (lists == null || user.asBareJid().equals(contact.asBareJid())) {
+            return false;
+        }
+        String name = user.isFullJid() ? sessionManager.getActivePrivacyList(user) : null;
+        if (name == null) {
+            name = lists.defaultName;
+        }
+        final CompiledPrivacyList compiledList = name != null ? lists.compiledLists.get(name) : null;
+        return compiledList != null && compiledList.isDenied(CompiledPrivacyList.Kind.of(stanza, inbound), contact,
+                () -> rosterManager.getRosterItem(user.getLocal(), contact.asBareJid()));
+    }
+
+    @Override
+    public String getNamespace() {
+        return Privacy.NAMESPACE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getFeatures() {
+        return Collections.singleton(Privacy.NAMESPACE);
+    }
+
+    /**
+     * The privacy lists of a user. Modifications happen while the instance is locked.
+     */
+    private static final class UserPrivacyLists {
+
+        private final Map<String, PrivacyList> lists = new ConcurrentHashMap<>();
+
+        private final Map<String, CompiledPrivacyList> compiledLists = new ConcurrentHashMap<>();
+
+        private volatile String defaultName;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.pubsub.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.interceptor.Interceptor;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.pubsub.model.Item;
+import rocks.xmpp.extensions.pubsub.server.spi.PubSubItemProvider;
+
+/**
+ * Keeps the items of pubsub nodes in memory, i.e. they only survive as long as the server runs.
+ *
+ * @author Christian Schudt
+ */
+@Priority(Interceptor.Priority.LIBRARY_BEFORE)
+@ApplicationScoped
+public class DefaultPubSubItemProvider implements PubSubItemProvider {
+
+    /**
+     * The items of each node by service, the last published item is the last element of each deque. Each service's map
+     * is guarded by itself.
+     */
+    private final Map<Jid, Map<String, Deque<Item>>> services = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(Jid service, String node, Item item, int maxItems) {
+        final Map<String, Deque<Item>> nodes = services.computeIfAbsent(service, key -> new HashMap<>());
+        synchronized (nodes) {
+            final Deque<Item> items = nodes.computeIfAbsent(node, key -> new ArrayDeque<>());
+            items.removeIf(existing -> Objects.equals(existing.getId(), item.getId()));
+            items.addLast(item);
+            while (items.size() > maxItems) {
+                items.removeFirst();
+            }
+        }
+    }
+
+    @Override
+    public List<Item> getItems(Jid service, String node) {
+        final Map<String, Deque<Item>> nodes = services.get(service);
+        if (nodes == null) {
+            return new ArrayList<>();
+        }
+        synchronized (nodes) {
+            final Deque<Item> items = nodes.get(node);
+            return items != null ? new ArrayList<>(items) : new ArrayList<>();
+        }
+    }
+
+    @Override
+    public Map<String, Item> getLastItems(Jid service) {
+        final Map<String, Item> lastItems = new HashMap<>();
+        final Map<String, Deque<Item>> nodes = services.get(service);
+        if (nodes != null) {
+            synchronized (nodes) {
+                nodes.forEach((node, items) -> {
+                    if (!items.isEmpty()) {
+                        lastItems.put(node, items.getLast());
+                    }
+                });
+            }
+        }
+        return lastItems;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.pubsub.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import jakarta.xml.bind.JAXBException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.ExtensionProtocol;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.AbstractIQHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.StanzaError;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.caps.server.ServerEntityCapabilitiesManager;
+import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
+import rocks.xmpp.extensions.pubsub.model.Item;
+import rocks.xmpp.extensions.pubsub.model.PubSub;
+import rocks.xmpp.extensions.pubsub.model.errors.PubSubError;
+import rocks.xmpp.extensions.pubsub.model.event.Event;
+import rocks.xmpp.extensions.pubsub.server.spi.PubSubItemProvider;
+import rocks.xmpp.im.roster.model.RosterItem;
+import rocks.xmpp.im.roster.server.ServerRosterManager;
+import rocks.xmpp.im.roster.server.spi.IdGenerator;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.EncodedStanza;
+
+/**
+ * The Personal Eventing service, which provides a virtual pubsub service at the bare JID of each user.
+ *
+ * <p>Nodes are created automatically, when a user publishes to them, and keep the last published item. Items can be
+ * retrieved by the user and by contacts, which are subscribed to the user's presence. The items are stored by the
+ * {@link PubSubItemProvider}.</p>
+ *
+ * <p>Contacts subscribe to a node implicitly by advertising the node's "+notify" feature in their entity capabilities.
+ * Instead of discovering the capabilities of each contact on each publish, the matching resources are looked up in
+ * the feature index of the {@link ServerEntityCapabilitiesManager} and intersected with the contacts of the
+ * publisher. The notification is marshalled only once for all recipients.</p>
+ *
+ * <p>When a resource becomes available (or advertises new "+notify" features), it receives the last published item
+ * of the nodes of its own account and of its contacts. These are collected in a single batch, which queries the items
+ * of each contact only once.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/extensions/xep-0163.html">XEP-0163: Personal Eventing Protocol</a>
+ */
+@ApplicationScoped
+public class PersonalEventingService extends AbstractIQHandler implements ExtensionProtocol, DiscoverableInfo {
+
+    private static final System.Logger logger = System.getLogger(PersonalEventingService.class.getName());
+
+    private static final String NOTIFY_SUFFIX = "+notify";
+
+    /**
+     * Nodes only keep their last published item.
+     */
+    private static final int MAX_ITEMS = 1;
+
+    private static final Set<String> FEATURES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            PubSub.NAMESPACE,
+            PubSub.NAMESPACE + "#auto-create",
+            PubSub.NAMESPACE + "#last-published",
+            PubSub.NAMESPACE + "#presence-notifications",
+            PubSub.NAMESPACE + "#publish",
+            PubSub.NAMESPACE + "#retrieve-items")));
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    @Inject
+    private SessionManager sessionManager;
+
+    @Inject
+    private ServerRosterManager rosterManager;
+
+    @Inject
+    private ServerEntityCapabilitiesManager entityCapabilitiesManager;
+
+    @Inject
+    private PubSubItemProvider itemProvider;
+
+    @Inject
+    private IdGenerator idGenerator;
+
+    private final BiConsumer<Jid, Set<String>> featureListener = this::onFeaturesAdded;
+
+    public PersonalEventingService() {
+        super(PubSub.class, IQ.Type.GET, IQ.Type.SET);
+    }
+
+    @PostConstruct
+    public void init() {
+        entityCapabilitiesManager.addFeatureListener(featureListener);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        entityCapabilitiesManager.removeFeatureListener(featureListener);
+    }
+
+    @Override
+    protected IQ processRequest(final IQ iq) {
+        final Jid service = iq.getTo().asBareJid();
+        if (service.getLocal() == null) {
+            // There's no generic pubsub service at the server's domain.
+            return iq.createError(Condition.SERVICE_UNAVAILABLE);
+        }
+        final PubSub pubSub = iq.getExtension(PubSub.class);
+        if (iq.getType() == IQ.Type.SET && pubSub.getPublish() != null) {
+            return publish(iq, service, pubSub.getPublish());
+        } else if (iq.getType() == IQ.Type.GET && pubSub.getItems() != null) {
+            return retrieveItems(iq, service, pubSub);
+        }
+        return iq.createError(Condition.FEATURE_NOT_IMPLEMENTED);
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0163.html#publish">5. Publishing Events</a>
+     */
+    private IQ publish(final IQ iq, final Jid service, final PubSub.Publish publish) {
+        if (!iq.getFrom().asBareJid().equals(service)) {
+            return iq.createError(Condition.FORBIDDEN);
+        }
+        if (publish.getNode() == null) {
+            return iq.createError(new StanzaError(Condition.BAD_REQUEST, PubSubError.NODE_ID_REQUIRED));
+        }
+        if (publish.getItem() == null || publish.getItem().getPayload() == null) {
+            return iq.createError(new StanzaError(Condition.BAD_REQUEST, PubSubError.PAYLOAD_REQUIRED));
+        }
+        final Element payload;
+        try {
+            payload = toElement(publish.getItem().getPayload());
+        } catch (JAXBException | ParserConfigurationException e) {
+            logger.log(System.Logger.Level.WARNING, "Payload could not be converted.", e);
+            return iq.createError(new StanzaError(Condition.BAD_REQUEST, PubSubError.INVALID_PAYLOAD));
+        }
+        final String id = publish.getItem().getId() != null ? publish.getItem().getId() : idGenerator.generateId();
+        final Item item = new PublishedItem(id, payload, iq.getFrom());
+        itemProvider.publish(service, publish.getNode(), item, MAX_ITEMS);
+        notifySubscribers(service, publish.getNode(), item);
+        return iq.createResult(PubSub.withPublish(publish.getNode(), id, null, null));
+    }
+
+    /**
+     * @see <a href="https://xmpp.org/extensions/xep-0060.html#subscriber-retrieve">6.5 Retrieve Items from a Node</a>
+     */
+    private IQ retrieveItems(final IQ iq, final Jid service, final PubSub pubSub) {
+        if (!isAuthorized(service, iq.getFrom())) {
+            return iq.createError(
+                    new StanzaError(Condition.NOT_AUTHORIZED, PubSubError.PRESENCE_SUBSCRIPTION_REQUIRED));
+        }
+        if (pubSub.getNode() == null) {
+            return iq.createError(new StanzaError(Condition.BAD_REQUEST, PubSubError.NODE_ID_REQUIRED));
+        }
+        List<? extends Item> items = itemProvider.getItems(service, pubSub.getNode());
+        if (items.isEmpty()) {
+            // Nodes are created with their first item.
+            return iq.createError(Condition.ITEM_NOT_FOUND);
+        }
+        if (!pubSub.getItems().isEmpty()) {
+            final Set<String> ids = pubSub.getItems().stream().map(Item::getId).collect(Collectors.toSet());
+            items = items.stream().filter(item -> ids.contains(item.getId())).collect(Collectors.toList());
+        } else if (pubSub.getMaxItems() != null && pubSub.getMaxItems() < items.size()) {
+            items = items.subList(items.size() - Math.max(pubSub.getMaxItems(), 0), items.size());
+        }
+        return iq.createResult(PubSub.withItems(pubSub.getNode(), items));
+    }
+
+    /**
+     * Sends a notification to the available resources of the publisher and its contacts, which are interested in the
+     * node.
+     */
+    private void notifySubscribers(final Jid service, final String node, final Item item) {
+        final Map<Jid, Set<Jid>> interested = entityCapabilitiesManager.getEntities(node + NOTIFY_SUFFIX);
+        if (interested.isEmpty()) {
+            return;
+        }
+        final Set<Jid> authorized = getPresenceSubscribers(service);
+        authorized.add(service);
+        // Iterate the smaller set and look up the larger one.
+        final Collection<Jid> users;
+        if (authorized.size() <= interested.size()) {
+            users = authorized.stream().filter(interested::containsKey).collect(Collectors.toList());
+        } else {
+            users = interested.keySet().stream().filter(authorized::contains).collect(Collectors.toList());
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+        final EncodedStanza.Template template;
+        try {
+            template = encode(service, node, item);
+        } catch (StreamErrorException e) {
+            logger.log(System.Logger.Level.WARNING, "Notification could not be encoded.", e);
+            return;
+        }
+        for (final Jid user : users) {
+            for (final Jid resource : interested.getOrDefault(user, Collections.emptySet())) {
+                deliver(resource, template);
+            }
+        }
+    }
+
+    /**
+     * Called when a resource has advertised new features. If they contain "+notify" features, the last published items
+     * of these nodes are sent to the resource.
+     */
+    private void onFeaturesAdded(final Jid entity, final Set<String> features) {
+        final Set<String> nodes = features.stream()
+                .filter(feature -> feature.endsWith(NOTIFY_SUFFIX))
+                .map(feature -> feature.substring(0, feature.length() - NOTIFY_SUFFIX.length()))
+                .collect(Collectors.toSet());
+        if (!nodes.isEmpty()) {
+            serverConfiguration.getBackgroundExecutor().execute(() -> sendLastPublishedItems(entity, nodes));
+        }
+    }
+
+    /**
+     * Sends the last published items of the own account and of all contacts, to whose presence the user is subscribed,
+     * to a resource, which has become available.
+     *
+     * @see <a href="https://xmpp.org/extensions/xep-0163.html#notify-last">4.3.4 Sending the Last Published Item</a>
+     */
+    void sendLastPublishedItems(final Jid entity, final Set<String> nodes) {
+        final Set<Jid> services = new LinkedHashSet<>();
+        services.add(entity.asBareJid());
+        if (entity.getLocal() != null) {
+            rosterManager.getRosterItems(entity.getLocal()).stream()
+                    .filter(rosterItem -> rosterItem.getSubscription() != null
+                            && rosterItem.getSubscription().userHasSubscriptionToContact())
+                    .map(RosterItem::getJid)
+                    .filter(this::isLocalUser)
+                    .forEach(services::add);
+        }
+        final List<EncodedStanza> notifications = new ArrayList<>();
+        for (final Jid service : services) {
+            itemProvider.getLastItems(service).forEach((node, item) -> {
+                if (nodes.contains(node)) {
+                    try {
+                        notifications.add(encode(service, node, item).to(entity));
+                    } catch (StreamErrorException e) {
+                        logger.log(System.Logger.Level.WARNING, "Notification could not be encoded.", e);
+                    }
+                }
+            });
+        }
+        final Session session = sessionManager.getSession(entity);
+        if (session != null) {
+            notifications.forEach(session::send);
+        }
+    }
+
+    private boolean isAuthorized(final Jid service, final Jid requester) {
+        if (requester.asBareJid().equals(service)) {
+            return true;
+        }
+        final RosterItem rosterItem = rosterManager.getRosterItem(service.getLocal(), requester.asBareJid());
+        return rosterItem != null && rosterItem.getSubscription() != null
+                && rosterItem.getSubscription().contactHasSubscriptionToUser();
+    }
+
+    private Set<Jid> getPresenceSubscribers(final Jid service) {
+        return rosterManager.getRosterItems(service.getLocal()).stream()
+                .filter(rosterItem -> rosterItem.getSubscription() != null
+                        && rosterItem.getSubscription().contactHasSubscriptionToUser())
+                .map(RosterItem::getJid)
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private boolean isLocalUser(final Jid jid) {
+        return jid.getLocal() != null && jid.getDomain().equals(serverConfiguration.getDomain().getDomain());
+    }
+
+    private void deliver(final Jid resource, final EncodedStanza.Template template) {
+        final Session session = sessionManager.getSession(resource);
+        if (session != null) {
+            session.send(template.to(resource));
+        } else {
+            // The resource has gone without sending unavailable presence.
+            entityCapabilitiesManager.removeEntityCapabilities(resource);
+        }
+    }
+
+    private EncodedStanza.Template encode(final Jid service, final String node, final Item item)
+            throws StreamErrorException {
+        final Message message = new Message(null, Message.Type.HEADLINE);
+        message.setFrom(service);
+        message.addExtension(Event.withItem(node, item.getPayload(), item.getId(), null));
+        return EncodedStanza.encode(message, OUTPUT_FACTORY, serverConfiguration.getMarshaller());
+    }
+
+    private Element toElement(final Object payload) throws JAXBException, ParserConfigurationException {
+        if (payload instanceof Element) {
+            return (Element) payload;
+        }
+        final Document document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().newDocument();
+        serverConfiguration.getMarshaller().marshal(payload, document);
+        return document.getDocumentElement();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@value PubSub#NAMESPACE}
+     */
+    @Override
+    public String getNamespace() {
+        return PubSub.NAMESPACE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getFeatures() {
+        return FEATURES;
+    }
+
+    private static final class PublishedItem implements Item {
+
+        private final String id;
+
+        private final Element payload;
+
+        private final Jid publisher;
+
+        private PublishedItem(final String id, final Element payload, final Jid publisher) {
+            this.id = id;
+            this.payload = payload;
+            this.publisher = publisher;
+        }
+
+        @Override
+        public Object getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Jid getPublisher() {
+            return publisher;
+        }
+    }
+}
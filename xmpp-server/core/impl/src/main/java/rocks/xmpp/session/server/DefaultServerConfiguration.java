@@ -26,16 +26,22 @@ package rocks.xmpp.session.server;
 
 import java.util.Collections;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import jakarta.xml.bind.DataBindingException;
 import jakarta.xml.bind.JAXBContext;
-import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.Unmarshaller;
 
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.metrics.SimpleMetricsRegistry;
 import rocks.xmpp.core.server.ServerConfiguration;
-import rocks.xmpp.util.LanguageUnmarshallerListener;
+import rocks.xmpp.util.MarshallerPool;
 import rocks.xmpp.util.XmppUtils;
 
 /**
@@ -46,18 +52,37 @@ public class DefaultServerConfiguration implements ServerConfiguration {
 
     private static final JAXBContext JAXB_CONTEXT;
 
-    private static final ThreadLocal<Marshaller> MARSHALLER = ThreadLocal.withInitial(() -> {
-        try {
-            Marshaller marshaller = DefaultServerConfiguration.JAXB_CONTEXT.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
-            return marshaller;
-        } catch (JAXBException e) {
-            throw new DataBindingException(e);
-        }
-    });
+    private static final MarshallerPool MARSHALLER_POOL;
+
+    private static final SimpleMetricsRegistry METRICS_REGISTRY = new SimpleMetricsRegistry();
 
     static {
         JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+        MARSHALLER_POOL = new MarshallerPool(JAXB_CONTEXT);
+    }
+
+    private ExecutorService executor;
+
+    private MetricsRegistry.Registration executorQueueGauge;
+
+    @PostConstruct
+    public void init() {
+        // Sessions mostly wait for I/O (e.g. the database) while they handle elements, so use more threads than cores.
+        final ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors() * 4, XmppUtils.createNamedThreadFactory("Session Executor"));
+        executor = threadPoolExecutor;
+        executorQueueGauge = METRICS_REGISTRY.gauge("xmpp.server.executor.queue",
+                () -> threadPoolExecutor.getQueue().size());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (executorQueueGauge != null) {
+            executorQueueGauge.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     @Override
@@ -67,18 +92,12 @@ public class DefaultServerConfiguration implements ServerConfiguration {
 
     @Override
     public Marshaller getMarshaller() {
-        return MARSHALLER.get();
+        return MARSHALLER_POOL.getMarshaller();
     }
 
     @Override
     public Unmarshaller getUnmarshaller(Locale locale) {
-        try {
-            Unmarshaller unmarshaller = DefaultServerConfiguration.JAXB_CONTEXT.createUnmarshaller();
-            unmarshaller.setListener(new LanguageUnmarshallerListener(locale));
-            return unmarshaller;
-        } catch (JAXBException e) {
-            throw new DataBindingException(e);
-        }
+        return MARSHALLER_POOL.getUnmarshaller(locale);
     }
 
     @Override
@@ -90,4 +109,19 @@ public class DefaultServerConfiguration implements ServerConfiguration {
     public Jid getDomain() {
         return Jid.ofDomain("domain");
     }
+
+    @Override
+    public boolean isLazyExtensionBinding() {
+        return true;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public MetricsRegistry getMetricsRegistry() {
+        return METRICS_REGISTRY;
+    }
 }
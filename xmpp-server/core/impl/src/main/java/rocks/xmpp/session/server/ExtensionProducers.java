@@ -28,14 +28,11 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
 
-import rocks.xmpp.addr.Jid;
-import rocks.xmpp.extensions.caps.EntityCapabilitiesManager;
 import rocks.xmpp.extensions.caps.server.ServerEntityCapabilities1Protocol;
+import rocks.xmpp.extensions.caps.server.ServerEntityCapabilitiesManager;
 import rocks.xmpp.extensions.caps2.server.ServerEntityCapabilities2Protocol;
 import rocks.xmpp.extensions.disco.ServiceDiscoveryManager;
-import rocks.xmpp.extensions.disco.model.info.DiscoverableInfo;
 import rocks.xmpp.extensions.hashes.CryptographicHashFunctionsProtocol;
-import rocks.xmpp.extensions.hashes.model.Hash;
 import rocks.xmpp.extensions.ping.handler.PingHandler;
 import rocks.xmpp.extensions.rsm.ResultSetManagementProtocol;
 import rocks.xmpp.extensions.softwareinfo.SoftwareInformation;
@@ -43,7 +40,6 @@ import rocks.xmpp.extensions.softwareinfo.SoftwareInformationProtocol;
 import rocks.xmpp.extensions.time.handler.EntityTimeHandler;
 import rocks.xmpp.extensions.version.SoftwareVersionProtocol;
 import rocks.xmpp.extensions.version.model.SoftwareVersion;
-import rocks.xmpp.util.concurrent.AsyncResult;
 
 @ApplicationScoped
 public class ExtensionProducers {
@@ -51,6 +47,9 @@ public class ExtensionProducers {
     @Inject
     private ServiceDiscoveryManager serviceDiscoveryManager;
 
+    @Inject
+    private ServerEntityCapabilitiesManager entityCapabilitiesManager;
+
     @Produces
     @ApplicationScoped
     public EntityTimeHandler produceEntityTimeHandler() {
@@ -94,62 +93,12 @@ public class ExtensionProducers {
     @Produces
     @ApplicationScoped
     public ServerEntityCapabilities1Protocol entityCapabilities1() {
-        return new ServerEntityCapabilities1Protocol(serviceDiscoveryManager, new EntityCapabilitiesManager() {
-            @Override
-            public DiscoverableInfo readCapabilities(Hash hash) {
-                return null;
-            }
-
-            @Override
-            public void writeCapabilities(Hash hash, DiscoverableInfo discoverableInfo) {
-
-            }
-
-            @Override
-            public DiscoverableInfo readEntityCapabilities(Jid entity) {
-                return null;
-            }
-
-            @Override
-            public void writeEntityCapabilities(Jid entity, DiscoverableInfo discoverableInfo) {
-
-            }
-
-            @Override
-            public AsyncResult<DiscoverableInfo> discoverCapabilities(Jid jid) {
-                return serviceDiscoveryManager.discoverInformation(jid);
-            }
-        });
+        return new ServerEntityCapabilities1Protocol(serviceDiscoveryManager, entityCapabilitiesManager);
     }
 
     @Produces
     @ApplicationScoped
     public ServerEntityCapabilities2Protocol entityCapabilities2() {
-        return new ServerEntityCapabilities2Protocol(serviceDiscoveryManager, new EntityCapabilitiesManager() {
-            @Override
-            public DiscoverableInfo readCapabilities(Hash hash) {
-                return null;
-            }
-
-            @Override
-            public void writeCapabilities(Hash hash, DiscoverableInfo discoverableInfo) {
-
-            }
-
-            @Override
-            public DiscoverableInfo readEntityCapabilities(Jid entity) {
-                return null;
-            }
-
-            @Override
-            public void writeEntityCapabilities(Jid entity, DiscoverableInfo discoverableInfo) {
-
-            }
-
-            @Override
-            public AsyncResult<DiscoverableInfo> discoverCapabilities(Jid jid) {
-                return serviceDiscoveryManager.discoverInformation(jid);
-            }
-        });
+        return new ServerEntityCapabilities2Protocol(serviceDiscoveryManager, entityCapabilitiesManager);
     }
 }
@@ -30,7 +30,6 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
@@ -143,8 +142,9 @@ public class IQRouter implements InboundIQHandler {
     CompletableFuture<IQ> waitForResult(IQ iq, Duration duration) {
         CompletableFuture<IQ> resultFuture = new CompletableFuture<>();
         pendingResults.put(iq.getId(), resultFuture);
-        return resultFuture.applyToEither(CompletionStages.timeoutAfter(duration.toMillis(), TimeUnit.MILLISECONDS),
-                Function.identity());
+        return CompletionStages.orTimeout(resultFuture, duration.toMillis(), TimeUnit.MILLISECONDS)
+                // Don't keep results, which are not awaited anymore.
+                .whenComplete((result, e) -> pendingResults.remove(iq.getId(), resultFuture));
     }
 
     @Override
@@ -42,12 +42,16 @@ import rocks.xmpp.addr.Jid;
 import rocks.xmpp.addr.MalformedJid;
 import rocks.xmpp.core.Addressable;
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.Text;
 import rocks.xmpp.core.bind.server.ResourceBindingNegotiator;
+import rocks.xmpp.core.jfr.StanzaProcessingEvent;
 import rocks.xmpp.core.net.Connection;
 import rocks.xmpp.core.sasl.server.SaslNegotiator;
 import rocks.xmpp.core.server.ServerConfiguration;
 import rocks.xmpp.core.session.model.SessionOpen;
+import rocks.xmpp.core.stanza.model.ExtensibleStanza;
 import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.LazyExtension;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.Presence;
 import rocks.xmpp.core.stanza.model.Stanza;
@@ -65,7 +69,10 @@ import rocks.xmpp.core.stream.model.StreamHeader;
 import rocks.xmpp.core.stream.model.errors.Condition;
 import rocks.xmpp.core.stream.server.ServerStreamFeaturesManager;
 import rocks.xmpp.core.stream.server.StreamFeatureProvider;
+import rocks.xmpp.extensions.csi.server.ClientStateIndicationNegotiator;
+import rocks.xmpp.extensions.csi.server.ClientStateQueue;
 import rocks.xmpp.extensions.sm.server.ServerStreamManager;
+import rocks.xmpp.util.EncodedStanza;
 import rocks.xmpp.util.concurrent.AsyncResult;
 
 /**
@@ -76,6 +83,21 @@ public class InboundClientSession implements Addressable, Session, StreamHandler
 
     private static final Duration QUERY_TIMEOUT = Duration.ofSeconds(5);
 
+    /**
+     * The maximal estimated size of stanzas, which are buffered while the client is inactive.
+     */
+    private static final int CSI_MAX_BYTES = 32 * 1024;
+
+    /**
+     * The estimated size of an element's markup, e.g. of an extension or a stanza without its content.
+     */
+    private static final int ESTIMATED_ELEMENT_SIZE = 64;
+
+    /**
+     * The maximal time, a stanza is buffered while the client is inactive.
+     */
+    private static final Duration CSI_MAX_DELAY = Duration.ofMinutes(5);
+
     @Inject
     private OutboundStanzaProcessor outboundStanzaProcessor;
 
@@ -102,6 +124,8 @@ public class InboundClientSession implements Addressable, Session, StreamHandler
 
     private Presence presence;
 
+    private ClientStateQueue clientStateQueue;
+
     public InboundClientSession() {
         this.streamFeaturesManager.registerStreamFeatureProvider(new SaslNegotiator(this));
         this.streamFeaturesManager.registerStreamFeatureProvider(new ResourceBindingNegotiator(this));
@@ -111,6 +135,11 @@ public class InboundClientSession implements Addressable, Session, StreamHandler
     @PostConstruct
     public void init() {
         streamFeatureNegotiators.stream().forEach(this.streamFeaturesManager::registerStreamFeatureProvider);
+        this.clientStateQueue = new ClientStateQueue(this::getConnection, serverConfiguration.getExecutor(),
+                InboundClientSession::estimateSize, CSI_MAX_BYTES, CSI_MAX_DELAY,
+                serverConfiguration.getMetricsRegistry());
+        this.streamFeaturesManager
+                .registerStreamFeatureProvider(new ClientStateIndicationNegotiator(this, clientStateQueue));
     }
 
     public void setConnection(Connection connection) {
@@ -136,9 +165,49 @@ public class InboundClientSession implements Addressable, Session, StreamHandler
         } else if (streamElement instanceof IQ) {
             streamElement = ClientIQ.from((IQ) streamElement);
         }
-        CompletionStage<Void> stage = connection.write(streamElement);
-        connection.flush();
-        return stage;
+        return clientStateQueue.send(streamElement);
+    }
+
+    /**
+     * Estimates the size of a buffered element without marshalling it: Encoded stanzas know their length, otherwise
+     * the addresses, the texts and the raw XML of unbound extensions are counted and a fixed size per element.
+     *
+     * @param streamElement The element.
+     * @return The estimated size in bytes.
+     */
+    private static int estimateSize(final StreamElement streamElement) {
+        if (streamElement instanceof EncodedStanza) {
+            return ((EncodedStanza) streamElement).length();
+        }
+        int size = ESTIMATED_ELEMENT_SIZE;
+        if (streamElement instanceof Stanza) {
+            final Stanza stanza = (Stanza) streamElement;
+            size += length(stanza.getTo()) + length(stanza.getFrom()) + length(stanza.getId());
+            if (stanza instanceof Message) {
+                size += length(((Message) stanza).getBodies()) + length(((Message) stanza).getSubjects());
+            } else if (stanza instanceof Presence) {
+                size += length(((Presence) stanza).getStatuses());
+            }
+            if (stanza instanceof ExtensibleStanza) {
+                for (final Object extension : ((ExtensibleStanza) stanza).getExtensions()) {
+                    size += extension instanceof LazyExtension
+                            ? length(((LazyExtension) extension).getXml()) : ESTIMATED_ELEMENT_SIZE;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int length(final Object value) {
+        return value != null ? value.toString().length() : 0;
+    }
+
+    private static int length(final Iterable<Text> texts) {
+        int length = 0;
+        for (final Text text : texts) {
+            length += ESTIMATED_ELEMENT_SIZE + length(text.getText());
+        }
+        return length;
     }
 
     public final ServerStreamFeaturesManager getStreamFeatureManager() {
@@ -232,7 +301,16 @@ public class InboundClientSession implements Addressable, Session, StreamHandler
                     return false;
                 }
 
+                final StanzaProcessingEvent event = new StanzaProcessingEvent();
+                event.begin();
                 outboundStanzaProcessor.process(stanza);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stanzaType = stanza.getClass();
+                    event.from = stanza.getFrom() != null ? stanza.getFrom().toString() : null;
+                    event.to = stanza.getTo() != null ? stanza.getTo().toString() : null;
+                    event.commit();
+                }
             }
         }
         return false;
@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.session.server;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.session.model.SessionOpen;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.StreamHandler;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+import rocks.xmpp.core.stream.model.StreamFeatures;
+import rocks.xmpp.core.stream.model.StreamHeader;
+import rocks.xmpp.core.stream.model.errors.Condition;
+import rocks.xmpp.extensions.dialback.model.Dialback;
+import rocks.xmpp.extensions.dialback.model.feature.DialbackFeature;
+
+/**
+ * An inbound stream from another server.
+ *
+ * <p>Stanzas are only accepted from domains, which have been verified via dialback. A domain is verified by asking
+ * its authoritative server over the pooled outbound stream, unless it has recently been verified from the same
+ * address. The stream also answers verification requests of other servers, for which this server is the authoritative
+ * server.</p>
+ *
+ * @author Christian Schudt
+ * @see ServerSessionPool#newInboundSession()
+ * @see <a href="https://xmpp.org/extensions/xep-0220.html">XEP-0220: Server Dialback</a>
+ */
+public final class InboundServerSession implements Session, StreamHandler {
+
+    private static final System.Logger logger = System.getLogger(InboundServerSession.class.getName());
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final Set<Jid> authenticatedDomains = ConcurrentHashMap.newKeySet();
+
+    private final ServerSessionPool sessionPool;
+
+    private Connection connection;
+
+    private volatile Jid remoteDomain;
+
+    InboundServerSession(final ServerSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    public void setConnection(final Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public final boolean handleElement(final Object element) {
+        final Jid domain = sessionPool.getDomain();
+        if (element instanceof SessionOpen) {
+            final SessionOpen header = (SessionOpen) element;
+            remoteDomain = header.getFrom();
+            connection.open(StreamHeader.create(domain, header.getFrom(), id, "1.0", Locale.ENGLISH, "jabber:server",
+                    ServerSessionPool.DIALBACK_NAMESPACE));
+            if (!domain.equals(header.getTo())) {
+                connection.closeAsync(new StreamError(Condition.HOST_UNKNOWN));
+            } else {
+                connection.send(new StreamFeatures(Collections.singletonList(DialbackFeature.INSTANCE)));
+            }
+        } else if (element instanceof Dialback.Result) {
+            handleResult((Dialback.Result) element);
+        } else if (element instanceof Dialback.Verify) {
+            // This server is the authoritative server and checks, if it has generated the key.
+            final Dialback.Verify verify = (Dialback.Verify) element;
+            connection.send(new Dialback.Verify(domain, verify.getFrom(), verify.getId(),
+                    sessionPool.isValidKey(verify)));
+        } else if (element instanceof Stanza) {
+            final Stanza stanza = (Stanza) element;
+            if (stanza.getFrom() == null || stanza.getTo() == null) {
+                connection.closeAsync(new StreamError(Condition.IMPROPER_ADDRESSING));
+            } else if (!authenticatedDomains.contains(Jid.ofDomain(stanza.getFrom().getDomain()))) {
+                connection.closeAsync(new StreamError(Condition.INVALID_FROM));
+            } else if (!sessionPool.isLocal(stanza.getTo())) {
+                connection.closeAsync(new StreamError(Condition.HOST_UNKNOWN));
+            } else {
+                sessionPool.getRouter().accept(stanza);
+            }
+        }
+        return false;
+    }
+
+    private void handleResult(final Dialback.Result result) {
+        final Jid domain = sessionPool.getDomain();
+        final Jid originatingDomain = result.getFrom();
+        final String key = result.getKey();
+        if (!domain.equals(result.getTo())) {
+            connection.closeAsync(new StreamError(Condition.HOST_UNKNOWN));
+            return;
+        }
+        if (originatingDomain == null || key == null) {
+            connection.closeAsync(new StreamError(Condition.IMPROPER_ADDRESSING));
+            return;
+        }
+        final InetAddress address = connection.getRemoteAddress().getAddress();
+        if (sessionPool.isVerified(originatingDomain, address)) {
+            authorize(originatingDomain);
+            return;
+        }
+        sessionPool.verify(originatingDomain, id, key).whenComplete((valid, e) -> {
+            if (e == null && valid) {
+                sessionPool.verified(originatingDomain, address);
+                authorize(originatingDomain);
+            } else {
+                logger.log(System.Logger.Level.DEBUG, "Could not verify {0} from {1}", originatingDomain, address);
+                connection.send(new Dialback.Result(domain, originatingDomain, false));
+                connection.closeAsync();
+            }
+        });
+    }
+
+    private void authorize(final Jid originatingDomain) {
+        authenticatedDomains.add(Jid.ofDomain(originatingDomain.getDomain()));
+        connection.send(new Dialback.Result(sessionPool.getDomain(), originatingDomain, true));
+    }
+
+    public final String getId() {
+        return id;
+    }
+
+    @Override
+    public final Jid getLocalXmppAddress() {
+        return sessionPool.getDomain();
+    }
+
+    @Override
+    public final Jid getRemoteXmppAddress() {
+        return remoteDomain;
+    }
+
+    @Override
+    public final CompletionStage<Void> send(final StreamElement streamElement) {
+        return connection.send(streamElement);
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync() {
+        return connection.closeAsync();
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync(final StreamError streamError) {
+        return connection.closeAsync(streamError);
+    }
+
+    @Override
+    public final void close() throws Exception {
+        connection.close();
+    }
+
+    @Override
+    public final String toString() {
+        return "Inbound server session " + remoteDomain + " -> " + sessionPool.getDomain();
+    }
+}
@@ -38,6 +38,9 @@ import rocks.xmpp.core.stanza.model.IQ;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.Presence;
 import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.blocking.server.BlockingService;
+import rocks.xmpp.extensions.privacy.server.PrivacyListService;
 
 @ApplicationScoped
 public class InboundStanzaProcessor {
@@ -54,7 +57,19 @@ public class InboundStanzaProcessor {
     @Inject
     private SessionManager sessionManager;
 
+    @Inject
+    private BlockingService blockingService;
+
+    @Inject
+    private PrivacyListService privacyListService;
+
+    @Inject
+    private StanzaRouter stanzaRouter;
+
     public void process(Stanza stanza) {
+        if (isBlocked(stanza)) {
+            return;
+        }
         if (stanza instanceof Message) {
             MessageEvent messageEvent = new MessageEvent(this, (Message) stanza, true);
             inboundMessageHandlers
@@ -68,4 +83,26 @@ public class InboundStanzaProcessor {
             inboundIQHandlers.forEach(inboundPresenceHandler -> inboundPresenceHandler.handleInboundIQ(iqEvent));
         }
     }
+
+    /**
+     * Checks, if the recipient has blocked the sender, either by the block list or by the privacy list. Blocked
+     * messages and IQ requests are answered with a {@code <service-unavailable/>} error, as if the recipient didn't
+     * exist, all other stanzas are dropped silently.
+     *
+     * @param stanza The inbound stanza.
+     * @return True, if the stanza is blocked.
+     * @see <a href="https://xmpp.org/extensions/xep-0191.html#block">XEP-0191: 3.3 User Blocks Contact</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-error">XEP-0016: 2.14 Blocked Entity Attempts
+     * to Communicate with User</a>
+     */
+    private boolean isBlocked(Stanza stanza) {
+        if (!blockingService.isBlocked(stanza, true) && !privacyListService.isDenied(stanza, true)) {
+            return false;
+        }
+        if ((stanza instanceof Message && ((Message) stanza).getType() != Message.Type.ERROR)
+                || (stanza instanceof IQ && ((IQ) stanza).isRequest())) {
+            stanzaRouter.route(stanza.createError(Condition.SERVICE_UNAVAILABLE));
+        }
+        return true;
+    }
 }
@@ -100,10 +100,12 @@ public class OutboundPresenceInformationHandler implements OutboundPresenceHandl
 
                     // Get the direct available presences sent by the user
                     Set<Jid> directAvailablePresences = directPresences.remove(presence.getFrom());
-                    // In case a direct presence receive became a contact in the meanwhile, don't send an unavailable
-                    // presence again.
-                    directAvailablePresences.removeAll(contacts);
-                    broadcast(presence, directAvailablePresences);
+                    if (directAvailablePresences != null) {
+                        // In case a direct presence receive became a contact in the meanwhile, don't send an
+                        // unavailable presence again.
+                        directAvailablePresences.removeAll(contacts);
+                        broadcast(presence, directAvailablePresences);
+                    }
 
                     Presence selfPresence =
                             new Presence(presence.getFrom().asBareJid(), presence.getType(), presence.getShow(),
@@ -0,0 +1,325 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.session.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.StreamHandler;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+import rocks.xmpp.core.stream.model.StreamFeatures;
+import rocks.xmpp.core.stream.model.StreamHeader;
+import rocks.xmpp.extensions.dialback.model.Dialback;
+
+/**
+ * An outbound stream to another server, which is shared by all local senders.
+ *
+ * <p>Stanzas are queued, until the stream is established and the other server has verified this server via dialback.
+ * The stream also carries the dialback verification requests, which this server sends as receiving server to the
+ * other server as authoritative server.</p>
+ *
+ * @author Christian Schudt
+ * @see ServerSessionPool
+ * @see <a href="https://xmpp.org/extensions/xep-0220.html">XEP-0220: Server Dialback</a>
+ */
+public final class OutboundServerSession implements Session, StreamHandler {
+
+    private final Jid localDomain;
+
+    private final Jid remoteDomain;
+
+    private final String secret;
+
+    private final int queueSize;
+
+    private final Deque<Stanza> queue = new ArrayDeque<>();
+
+    private final List<Dialback.Verify> pendingVerifications = new ArrayList<>();
+
+    private final Map<String, CompletableFuture<Boolean>> verifications = new HashMap<>();
+
+    private final CompletableFuture<List<Stanza>> closeFuture = new CompletableFuture<>();
+
+    private State state = State.CONNECTING;
+
+    private Connection connection;
+
+    private long lastActivity = System.nanoTime();
+
+    OutboundServerSession(final Jid localDomain, final Jid remoteDomain, final String secret, final int queueSize) {
+        this.localDomain = localDomain;
+        this.remoteDomain = remoteDomain;
+        this.secret = secret;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Opens the stream over a new connection.
+     *
+     * @param connection The connection to the other server.
+     */
+    synchronized void open(final Connection connection) {
+        if (state == State.CLOSED) {
+            connection.closeAsync();
+            return;
+        }
+        this.connection = connection;
+        connection.closeFuture().whenComplete((aVoid, e) -> fail());
+        connection.open(StreamHeader.initialServerToServer(localDomain, remoteDomain, Locale.ENGLISH,
+                ServerSessionPool.DIALBACK_NAMESPACE));
+    }
+
+    /**
+     * Sends a stanza to the other server or queues it, if the stream is not yet established.
+     *
+     * @param stanza The stanza.
+     * @return False, if the session is closed or the queue is full.
+     */
+    synchronized boolean route(final Stanza stanza) {
+        switch (state) {
+            case AUTHENTICATED:
+                lastActivity = System.nanoTime();
+                connection.send(ServerSessionPool.toServerStanza(stanza));
+                return true;
+            case CLOSED:
+                return false;
+            default:
+                if (queue.size() >= queueSize) {
+                    return false;
+                }
+                queue.add(stanza);
+                return true;
+        }
+    }
+
+    /**
+     * Asks the other server as authoritative server, if it has generated a dialback key.
+     *
+     * @param streamId The id of the stream, over which the key has been received.
+     * @param key      The dialback key.
+     * @return The completion stage, which is complete with true, if the key is valid.
+     */
+    CompletionStage<Boolean> verify(final String streamId, final String key) {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final Dialback.Verify verify = new Dialback.Verify(localDomain, remoteDomain, streamId, key);
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return CompletableFuture.completedFuture(false);
+            }
+            verifications.put(streamId, future);
+            if (state == State.CONNECTING) {
+                pendingVerifications.add(verify);
+            } else {
+                connection.send(verify);
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public final boolean handleElement(final Object element) {
+        if (element instanceof StreamFeatures) {
+            synchronized (this) {
+                if (state == State.CONNECTING) {
+                    state = State.NEGOTIATING;
+                    connection.write(new Dialback.Result(localDomain, remoteDomain, Dialback.generateKey(secret,
+                            remoteDomain.toString(), localDomain.toString(), connection.getStreamId())));
+                    pendingVerifications.forEach(connection::write);
+                    pendingVerifications.clear();
+                    connection.flush();
+                }
+            }
+        } else if (element instanceof Dialback.Result) {
+            final Dialback.Result result = (Dialback.Result) element;
+            if (result.isValid() && remoteDomain.equals(result.getFrom())) {
+                synchronized (this) {
+                    if (state == State.NEGOTIATING) {
+                        state = State.AUTHENTICATED;
+                        lastActivity = System.nanoTime();
+                        queue.forEach(stanza -> connection.write(ServerSessionPool.toServerStanza(stanza)));
+                        queue.clear();
+                        connection.flush();
+                    }
+                }
+            } else {
+                closeAsync();
+            }
+        } else if (element instanceof Dialback.Verify) {
+            final Dialback.Verify verify = (Dialback.Verify) element;
+            final CompletableFuture<Boolean> future;
+            synchronized (this) {
+                future = verifications.remove(verify.getId());
+            }
+            if (future != null) {
+                future.complete(verify.isValid() && remoteDomain.equals(verify.getFrom()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the session, if it has been idle for the given time. Afterwards no stanza is accepted anymore.
+     *
+     * @param now         The current time in nanoseconds.
+     * @param idleTimeout The idle timeout in nanoseconds.
+     * @return True, if the session has been closed.
+     */
+    synchronized boolean closeIfIdle(final long now, final long idleTimeout) {
+        if (state == State.AUTHENTICATED && verifications.isEmpty() && now - lastActivity > idleTimeout) {
+            state = State.CLOSED;
+            connection.closeAsync();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the session without waiting for the other server, e.g. if it could not be reached.
+     */
+    void abort() {
+        final Connection c;
+        synchronized (this) {
+            c = connection;
+        }
+        if (c != null) {
+            c.closeAsync();
+        }
+        fail();
+    }
+
+    private void fail() {
+        final List<Stanza> undelivered;
+        final List<CompletableFuture<Boolean>> pending;
+        synchronized (this) {
+            state = State.CLOSED;
+            undelivered = new ArrayList<>(queue);
+            queue.clear();
+            pending = new ArrayList<>(verifications.values());
+            verifications.clear();
+            pendingVerifications.clear();
+        }
+        pending.forEach(future -> future.complete(false));
+        closeFuture.complete(undelivered);
+    }
+
+    synchronized boolean isAuthenticated() {
+        return state == State.AUTHENTICATED;
+    }
+
+    synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Gets a completion stage, which is complete, when the session is closed. It is completed with the queued stanzas,
+     * which could not be sent.
+     *
+     * @return The completion stage.
+     */
+    CompletionStage<List<Stanza>> closeFuture() {
+        return closeFuture;
+    }
+
+    @Override
+    public final Jid getLocalXmppAddress() {
+        return localDomain;
+    }
+
+    @Override
+    public final Jid getRemoteXmppAddress() {
+        return remoteDomain;
+    }
+
+    @Override
+    public final synchronized CompletionStage<Void> send(final StreamElement streamElement) {
+        if (connection == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Not connected"));
+        }
+        return connection.send(streamElement);
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync() {
+        final Connection c;
+        synchronized (this) {
+            c = connection;
+        }
+        if (c == null) {
+            fail();
+            return CompletableFuture.completedFuture(null);
+        }
+        return c.closeAsync();
+    }
+
+    @Override
+    public final CompletionStage<Void> closeAsync(final StreamError streamError) {
+        final Connection c;
+        synchronized (this) {
+            c = connection;
+        }
+        if (c == null) {
+            fail();
+            return CompletableFuture.completedFuture(null);
+        }
+        return c.closeAsync(streamError);
+    }
+
+    @Override
+    public final void close() throws Exception {
+        final Connection c;
+        synchronized (this) {
+            c = connection;
+        }
+        if (c != null) {
+            c.close();
+        } else {
+            fail();
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return "Outbound server session " + localDomain + " -> " + remoteDomain;
+    }
+
+    private enum State {
+        CONNECTING,
+        NEGOTIATING,
+        AUTHENTICATED,
+        CLOSED
+    }
+}
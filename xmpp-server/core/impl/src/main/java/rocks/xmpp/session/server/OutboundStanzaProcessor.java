@@ -28,6 +28,7 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
+import rocks.xmpp.core.Session;
 import rocks.xmpp.core.stanza.IQEvent;
 import rocks.xmpp.core.stanza.MessageEvent;
 import rocks.xmpp.core.stanza.OutboundIQHandler;
@@ -38,6 +39,11 @@ import rocks.xmpp.core.stanza.model.IQ;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.Presence;
 import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.StanzaError;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.blocking.model.errors.Blocked;
+import rocks.xmpp.extensions.blocking.server.BlockingService;
+import rocks.xmpp.extensions.privacy.server.PrivacyListService;
 
 /**
  * @author Christian Schudt
@@ -57,7 +63,19 @@ public class OutboundStanzaProcessor {
     @Inject
     private StanzaRouter stanzaRouter;
 
+    @Inject
+    private SessionManager sessionManager;
+
+    @Inject
+    private BlockingService blockingService;
+
+    @Inject
+    private PrivacyListService privacyListService;
+
     public boolean process(Stanza stanza) {
+        if (isBlocked(stanza)) {
+            return true;
+        }
         if (stanza instanceof Message) {
             MessageEvent messageEvent = new MessageEvent(this, (Message) stanza, false);
             outboundMessageHandlers
@@ -67,6 +85,10 @@ public class OutboundStanzaProcessor {
             PresenceEvent presenceEvent = new PresenceEvent(this, (Presence) stanza, false);
             outboundPresenceHandlers
                     .forEach(outboundPresenceHandler -> outboundPresenceHandler.handleOutboundPresence(presenceEvent));
+            // Subscription presences are routed by their handler, presences without 'to' are broadcast.
+            if (stanza.getTo() != null && !((Presence) stanza).isSubscription()) {
+                stanzaRouter.route(stanza);
+            }
         } else if (stanza instanceof IQ) {
             IQEvent iqEvent = new IQEvent(this, (IQ) stanza, false);
             outboundIQHandlers.forEach(outboundIQHandler -> outboundIQHandler.handleOutboundIQ(iqEvent));
@@ -74,4 +96,34 @@ public class OutboundStanzaProcessor {
         }
         return true;
     }
+
+    /**
+     * Checks, if the sender has blocked the recipient, either by the block list or by the privacy list. Blocked
+     * messages and IQ requests are answered with a {@code <not-acceptable/>} error, blocked presences are dropped
+     * silently.
+     *
+     * @param stanza The outbound stanza.
+     * @return True, if the stanza is blocked.
+     * @see <a href="https://xmpp.org/extensions/xep-0191.html#block">XEP-0191: 3.3 User Blocks Contact</a>
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-error">XEP-0016: 2.14 Blocked Entity Attempts
+     * to Communicate with User</a>
+     */
+    private boolean isBlocked(Stanza stanza) {
+        final StanzaError error;
+        if (blockingService.isBlocked(stanza, false)) {
+            error = new StanzaError(Condition.NOT_ACCEPTABLE, Blocked.INSTANCE);
+        } else if (privacyListService.isDenied(stanza, false)) {
+            error = new StanzaError(Condition.NOT_ACCEPTABLE);
+        } else {
+            return false;
+        }
+        if ((stanza instanceof Message && ((Message) stanza).getType() != Message.Type.ERROR)
+                || (stanza instanceof IQ && ((IQ) stanza).isRequest())) {
+            Session session = sessionManager.getSession(stanza.getFrom());
+            if (session != null) {
+                session.send(stanza.createError(error));
+            }
+        }
+        return true;
+    }
 }
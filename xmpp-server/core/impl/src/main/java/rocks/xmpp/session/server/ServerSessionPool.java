@@ -0,0 +1,351 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.session.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stanza.model.server.ServerIQ;
+import rocks.xmpp.core.stanza.model.server.ServerMessage;
+import rocks.xmpp.core.stanza.model.server.ServerPresence;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.dns.DnsResolver;
+import rocks.xmpp.dns.SrvRecord;
+import rocks.xmpp.extensions.dialback.model.Dialback;
+import rocks.xmpp.util.concurrent.CompletionStages;
+import rocks.xmpp.util.concurrent.HashedWheelTimer;
+
+/**
+ * Manages the server-to-server streams of this server.
+ *
+ * <p>There's at most one outbound stream per remote domain, which is shared by all local senders. Stanzas are queued,
+ * while the stream is established, and bounced back to the sender, if the queue is full or the remote server can't be
+ * reached. Streams, which have been idle for a while, are closed.</p>
+ *
+ * <p>The remote server is found via a DNS SRV lookup of the "xmpp-server" service, which is done by the executor, so
+ * that it doesn't block the I/O threads. Other servers are verified via dialback and the results are cached for a
+ * while per domain and address.</p>
+ *
+ * @author Christian Schudt
+ * @see <a href="https://xmpp.org/rfcs/rfc6120.html#tcp-resolution">RFC 6120 § 3.2.  Resolution of Fully Qualified
+ * Domain Names</a>
+ * @see <a href="https://xmpp.org/extensions/xep-0220.html">XEP-0220: Server Dialback</a>
+ */
+public final class ServerSessionPool implements AutoCloseable {
+
+    static final QName DIALBACK_NAMESPACE = new QName(Dialback.NAMESPACE, XMLConstants.DEFAULT_NS_PREFIX, "db");
+
+    private static final System.Logger logger = System.getLogger(ServerSessionPool.class.getName());
+
+    private static final int DEFAULT_PORT = 5269;
+
+    private static final long DNS_TIMEOUT = 5000;
+
+    /**
+     * The maximal time until a stream to another server must be established and verified.
+     */
+    private static final long NEGOTIATION_TIMEOUT = 30000;
+
+    private final Map<Jid, OutboundServerSession> sessions = new ConcurrentHashMap<>();
+
+    private final ServerConfiguration configuration;
+
+    private final Connector connector;
+
+    private final Consumer<Stanza> router;
+
+    private final Executor executor;
+
+    private final String secret;
+
+    private final VerificationCache verificationCache;
+
+    private final HashedWheelTimer.Timeout evictionTimeout;
+
+    /**
+     * @param configuration The server configuration.
+     * @param connector     Connects to other servers.
+     * @param router        Routes stanzas, which have been received from other servers, and errors for stanzas, which
+     *                      could not be delivered to other servers.
+     */
+    public ServerSessionPool(final ServerConfiguration configuration, final Connector connector,
+                             final Consumer<Stanza> router) {
+        this.configuration = configuration;
+        this.connector = connector;
+        this.router = router;
+        this.executor = configuration.getBackgroundExecutor();
+        this.secret = configuration.getDialbackSecret() != null ? configuration.getDialbackSecret()
+                : UUID.randomUUID().toString();
+        this.verificationCache = new VerificationCache(configuration.getDialbackCacheDuration(), Clock.systemUTC());
+        final long period = Math.max(1000, configuration.getServerToServerIdleTimeout().toMillis() / 2);
+        this.evictionTimeout = HashedWheelTimer.shared()
+                .newPeriodicTimeout(() -> executor.execute(this::evictIdleSessions), period, TimeUnit.MILLISECONDS);
+    }
+
+    static StreamElement toServerStanza(final Stanza stanza) {
+        if (stanza instanceof Message) {
+            return ServerMessage.from((Message) stanza);
+        } else if (stanza instanceof Presence) {
+            return ServerPresence.from((Presence) stanza);
+        } else if (stanza instanceof IQ) {
+            return ServerIQ.from((IQ) stanza);
+        }
+        return stanza;
+    }
+
+    /**
+     * Sends a stanza to the server of its recipient. If the stanza can't be delivered, an error is routed back to the
+     * sender.
+     *
+     * @param stanza The stanza.
+     */
+    public final void send(final Stanza stanza) {
+        final OutboundServerSession session = getSession(Jid.ofDomain(stanza.getTo().getDomain()));
+        if (!session.route(stanza)) {
+            bounce(stanza, session.isClosed() ? Condition.REMOTE_SERVER_NOT_FOUND : Condition.RESOURCE_CONSTRAINT);
+        }
+    }
+
+    /**
+     * Creates a session for a stream, which has been initiated by another server.
+     *
+     * @return The session.
+     */
+    public final InboundServerSession newInboundSession() {
+        return new InboundServerSession(this);
+    }
+
+    /**
+     * Gets the number of outbound streams.
+     *
+     * @return The number of outbound streams.
+     */
+    public final int getSessionCount() {
+        return sessions.size();
+    }
+
+    private OutboundServerSession getSession(final Jid domain) {
+        OutboundServerSession session = sessions.get(domain);
+        while (session == null || session.isClosed()) {
+            if (session != null) {
+                sessions.remove(domain, session);
+            }
+            final OutboundServerSession newSession = new OutboundServerSession(getDomain(), domain, secret,
+                    configuration.getServerToServerQueueSize());
+            session = sessions.putIfAbsent(domain, newSession);
+            if (session == null) {
+                connect(newSession);
+                return newSession;
+            }
+        }
+        return session;
+    }
+
+    private void connect(final OutboundServerSession session) {
+        final Jid domain = session.getRemoteXmppAddress();
+        final HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().newTimeout(() -> {
+            if (!session.isAuthenticated()) {
+                executor.execute(session::abort);
+            }
+        }, NEGOTIATION_TIMEOUT, TimeUnit.MILLISECONDS);
+        session.closeFuture().thenAccept(undelivered -> {
+            timeout.cancel();
+            sessions.remove(domain, session);
+            undelivered.forEach(stanza -> bounce(stanza, Condition.REMOTE_SERVER_NOT_FOUND));
+        });
+        resolve(domain)
+                .thenCompose(addresses -> connect(addresses.iterator(), session))
+                .whenComplete((connection, e) -> {
+                    if (e != null) {
+                        logger.log(System.Logger.Level.DEBUG, "Could not connect to " + domain, e);
+                        session.abort();
+                    } else {
+                        session.open(connection);
+                    }
+                });
+    }
+
+    private CompletionStage<Connection> connect(final Iterator<InetSocketAddress> addresses,
+                                                final OutboundServerSession session) {
+        final CompletionStage<Connection> connection = connector.connect(addresses.next(), session);
+        if (!addresses.hasNext()) {
+            return connection;
+        }
+        return CompletionStages.withFallback(connection, (stage, e) -> connect(addresses, session));
+    }
+
+    /**
+     * Resolves the addresses of the server of a domain, ordered by preference.
+     *
+     * @param domain The domain.
+     * @return The addresses.
+     * @see <a href="https://xmpp.org/rfcs/rfc6120.html#tcp-resolution-prefer">RFC 6120 § 3.2.1.  Preferred Process:
+     * SRV Lookup</a>
+     */
+    private CompletionStage<List<InetSocketAddress>> resolve(final Jid domain) {
+        final InetSocketAddress configuredAddress = configuration.getServerToServerAddress(domain);
+        if (configuredAddress != null) {
+            return CompletableFuture.completedFuture(List.of(configuredAddress));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            final List<InetSocketAddress> addresses = new ArrayList<>();
+            try {
+                final List<SrvRecord> srvRecords =
+                        new ArrayList<>(DnsResolver.resolveSRV("xmpp-server", domain, null, DNS_TIMEOUT));
+                // A single record with a target of "." means that the service is decidedly not available.
+                if (srvRecords.size() == 1 && ".".equals(srvRecords.get(0).getTarget())) {
+                    throw new CompletionException(new UnknownHostException(domain + " does not serve XMPP"));
+                }
+                srvRecords.sort(null);
+                for (final SrvRecord srvRecord : srvRecords) {
+                    addresses.add(new InetSocketAddress(srvRecord.getTarget(), srvRecord.getPort()));
+                }
+            } catch (IOException e) {
+                logger.log(System.Logger.Level.DEBUG, "SRV lookup of " + domain + " failed", e);
+            }
+            if (addresses.isEmpty()) {
+                // RFC 6120 § 3.2.2.  Fallback Process
+                addresses.add(new InetSocketAddress(domain.toString(), DEFAULT_PORT));
+            }
+            addresses.removeIf(InetSocketAddress::isUnresolved);
+            if (addresses.isEmpty()) {
+                throw new CompletionException(new UnknownHostException(domain.toString()));
+            }
+            return addresses;
+        }, executor);
+    }
+
+    private void bounce(final Stanza stanza, final Condition condition) {
+        // Never bounce errors, otherwise two servers could bounce them back and forth.
+        if (stanza.getError() == null) {
+            router.accept(stanza.createError(condition));
+        }
+    }
+
+    private void evictIdleSessions() {
+        final long now = System.nanoTime();
+        final long idleTimeout = configuration.getServerToServerIdleTimeout().toNanos();
+        sessions.values().forEach(session -> session.closeIfIdle(now, idleTimeout));
+        verificationCache.evictExpired();
+    }
+
+    /**
+     * Asks the authoritative server of a domain, if it has generated a dialback key.
+     *
+     * @param originatingDomain The domain, which has sent the key.
+     * @param streamId          The id of the stream, over which the key has been received.
+     * @param key               The dialback key.
+     * @return The completion stage, which is complete with true, if the key is valid.
+     */
+    CompletionStage<Boolean> verify(final Jid originatingDomain, final String streamId, final String key) {
+        return getSession(originatingDomain).verify(streamId, key);
+    }
+
+    boolean isVerified(final Jid domain, final InetAddress address) {
+        return verificationCache.isVerified(domain, address);
+    }
+
+    void verified(final Jid domain, final InetAddress address) {
+        verificationCache.put(domain, address);
+    }
+
+    /**
+     * Checks, if this server has generated the key of a verification request.
+     *
+     * @param verify The verification request of a receiving server.
+     * @return True, if the key is valid.
+     */
+    boolean isValidKey(final Dialback.Verify verify) {
+        if (verify.getFrom() == null || verify.getKey() == null || !getDomain().equals(verify.getTo())) {
+            return false;
+        }
+        final String key = Dialback.generateKey(secret, verify.getFrom().toString(), getDomain().toString(),
+                verify.getId());
+        return MessageDigest.isEqual(key.getBytes(StandardCharsets.UTF_8),
+                verify.getKey().getBytes(StandardCharsets.UTF_8));
+    }
+
+    boolean isLocal(final Jid address) {
+        final String domain = getDomain().getDomain();
+        return address.getDomain().equals(domain) || address.getDomain().endsWith('.' + domain);
+    }
+
+    Jid getDomain() {
+        return configuration.getDomain();
+    }
+
+    Consumer<Stanza> getRouter() {
+        return router;
+    }
+
+    @Override
+    public final void close() {
+        evictionTimeout.cancel();
+        sessions.values().forEach(OutboundServerSession::closeAsync);
+    }
+
+    /**
+     * Connects to other servers.
+     */
+    @FunctionalInterface
+    public interface Connector {
+
+        /**
+         * Connects to another server. The connection must pass received elements to the session.
+         *
+         * @param address The address of the other server.
+         * @param session The session, which handles the stream.
+         * @return The completion stage, which is complete, when the connection is established.
+         */
+        CompletionStage<Connection> connect(InetSocketAddress address, OutboundServerSession session);
+    }
+}
@@ -25,12 +25,21 @@
 package rocks.xmpp.session.server;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 import rocks.xmpp.addr.Jid;
+import rocks.xmpp.cluster.server.ClusterNode;
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.metrics.Counter;
+import rocks.xmpp.core.metrics.MetricsRegistry;
+import rocks.xmpp.core.server.ServerConfiguration;
 
 /**
  * @author Christian Schudt
@@ -40,19 +49,174 @@ public class SessionManager {
 
     private Map<Jid, Session> sessionMap = new ConcurrentHashMap<>();
 
+    /**
+     * The sessions by bare JID, so that the sessions of a user are found without iterating all sessions.
+     */
+    private final Map<Jid, UserSessions> userSessions = new ConcurrentHashMap<>();
+
+    @Inject
+    private ServerConfiguration serverConfiguration;
+
+    private volatile ClusterNode clusterNode;
+
+    private Counter sessionsCreated;
+
+    private MetricsRegistry.Registration sessionsGauge;
+
+    @PostConstruct
+    public void init() {
+        final MetricsRegistry metricsRegistry = serverConfiguration.getMetricsRegistry();
+        sessionsCreated = metricsRegistry.counter("xmpp.server.sessions.created");
+        sessionsGauge = metricsRegistry.gauge("xmpp.server.sessions", sessionMap::size);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sessionsGauge.close();
+    }
+
+    /**
+     * Adds a local session. In cluster mode, the user is published to the other nodes.
+     *
+     * @param address The full JID of the session.
+     * @param session The session.
+     */
     public void addSession(Jid address, InboundClientSession session) {
-        session.getConnection().closeFuture().whenComplete((result, exc) -> sessionMap.remove(address));
-        sessionMap.put(address, session);
+        final ClusterNode clusterNode = this.clusterNode;
+        userSessions.compute(address.asBareJid(), (bareJid, sessions) -> {
+            final UserSessions result = sessions != null ? sessions : new UserSessions();
+            result.sessions.put(address, session);
+            result.carbonsEnabled.remove(address);
+            result.activePrivacyLists.remove(address);
+            return result;
+        });
+        if (sessionMap.put(address, session) == null && clusterNode != null) {
+            clusterNode.sessionAdded(address);
+        }
+        sessionsCreated.increment();
+        session.getConnection().closeFuture().whenComplete((result, exc) -> {
+            // Only remove the session, if it hasn't been replaced by a new session with the same address.
+            if (sessionMap.remove(address, session)) {
+                userSessions.computeIfPresent(address.asBareJid(), (bareJid, sessions) -> {
+                    sessions.sessions.remove(address);
+                    sessions.carbonsEnabled.remove(address);
+                    sessions.activePrivacyLists.remove(address);
+                    return sessions.sessions.isEmpty() ? null : sessions;
+                });
+                if (clusterNode != null) {
+                    clusterNode.sessionRemoved(address);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the node of the server cluster, to which new sessions are published.
+     *
+     * @param clusterNode The cluster node or null, if the server does not run in cluster mode.
+     */
+    public void setClusterNode(ClusterNode clusterNode) {
+        this.clusterNode = clusterNode;
     }
 
     public Stream<Session> getUserSessions(Jid bareJid) {
-        return sessionMap.values().stream().filter(session -> {
-            Jid remoteAddress = session.getRemoteXmppAddress();
-            return remoteAddress != null && remoteAddress.asBareJid().equals(bareJid);
-        });
+        final UserSessions sessions = userSessions.get(bareJid);
+        return sessions != null ? sessions.sessions.values().stream() : Stream.empty();
     }
 
     public Session getSession(Jid fullJid) {
         return sessionMap.get(fullJid);
     }
+
+    /**
+     * Enables or disables message carbons for a session.
+     *
+     * @param fullJid The full JID of the session.
+     * @param enabled If message carbons are enabled.
+     * @return False, if there's no such session.
+     * @see <a href="https://xmpp.org/extensions/xep-0280.html">XEP-0280: Message Carbons</a>
+     */
+    public boolean setCarbonsEnabled(Jid fullJid, boolean enabled) {
+        final UserSessions sessions = userSessions.computeIfPresent(fullJid.asBareJid(), (bareJid, result) -> {
+            if (result.sessions.containsKey(fullJid)) {
+                if (enabled) {
+                    result.carbonsEnabled.add(fullJid);
+                } else {
+                    result.carbonsEnabled.remove(fullJid);
+                }
+            }
+            return result;
+        });
+        return sessions != null && sessions.sessions.containsKey(fullJid);
+    }
+
+    /**
+     * Gets the sessions of a user, which have enabled message carbons.
+     *
+     * @param bareJid The bare JID of the user.
+     * @return The sessions.
+     */
+    public Stream<Session> getCarbonsEnabledSessions(Jid bareJid) {
+        final UserSessions sessions = userSessions.get(bareJid);
+        if (sessions == null) {
+            return Stream.empty();
+        }
+        return sessions.carbonsEnabled.stream().map(sessions.sessions::get).filter(Objects::nonNull);
+    }
+
+    /**
+     * Sets the active privacy list of a session.
+     *
+     * @param fullJid  The full JID of the session.
+     * @param listName The name of the active privacy list or null, if the session declines the use of an active list.
+     * @return False, if there's no such session.
+     * @see <a href="https://xmpp.org/extensions/xep-0016.html#protocol-active">2.4 Managing Active Lists</a>
+     */
+    public boolean setActivePrivacyList(Jid fullJid, String listName) {
+        final UserSessions sessions = userSessions.computeIfPresent(fullJid.asBareJid(), (bareJid, result) -> {
+            if (result.sessions.containsKey(fullJid)) {
+                if (listName != null) {
+                    result.activePrivacyLists.put(fullJid, listName);
+                } else {
+                    result.activePrivacyLists.remove(fullJid);
+                }
+            }
+            return result;
+        });
+        return sessions != null && sessions.sessions.containsKey(fullJid);
+    }
+
+    /**
+     * Gets the active privacy list of a session.
+     *
+     * @param fullJid The full JID of the session.
+     * @return The name of the active privacy list or null, if the session has no active list.
+     */
+    public String getActivePrivacyList(Jid fullJid) {
+        final UserSessions sessions = userSessions.get(fullJid.asBareJid());
+        return sessions != null ? sessions.activePrivacyLists.get(fullJid) : null;
+    }
+
+    /**
+     * Gets the active privacy lists of a user's sessions.
+     *
+     * @param bareJid The bare JID of the user.
+     * @return The names of the active privacy lists by the full JIDs of the sessions.
+     */
+    public Map<Jid, String> getActivePrivacyLists(Jid bareJid) {
+        final UserSessions sessions = userSessions.get(bareJid);
+        return sessions != null ? Map.copyOf(sessions.activePrivacyLists) : Map.of();
+    }
+
+    /**
+     * The sessions of a user. Modifications happen while the user's entry is locked.
+     */
+    private static final class UserSessions {
+
+        private final Map<Jid, Session> sessions = new ConcurrentHashMap<>();
+
+        private final Set<Jid> carbonsEnabled = ConcurrentHashMap.newKeySet();
+
+        private final Map<Jid, String> activePrivacyLists = new ConcurrentHashMap<>();
+    }
 }
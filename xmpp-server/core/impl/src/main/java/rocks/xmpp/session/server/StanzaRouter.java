@@ -27,10 +27,18 @@ package rocks.xmpp.session.server;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.cluster.server.ClusterNode;
 import rocks.xmpp.core.Session;
+import rocks.xmpp.core.net.server.NettyServer;
 import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
 import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.extensions.component.accept.server.ComponentRoutingTable;
+import rocks.xmpp.extensions.muc.server.MultiUserChatService;
 
 @ApplicationScoped
 public class StanzaRouter {
@@ -44,16 +52,115 @@ public class StanzaRouter {
     @Inject
     private InboundStanzaProcessor inboundStanzaProcessor;
 
+    @Inject
+    private MultiUserChatService multiUserChatService;
+
+    @Inject
+    private NettyServer nettyServer;
+
+    private final ComponentRoutingTable componentRoutingTable = new ComponentRoutingTable();
+
     public void route(Stanza stanza) {
-        if (stanza.getTo() == null || stanza.getTo().getDomain().endsWith(serverConfiguration.getDomain().toString())) {
-            inboundStanzaProcessor.process(stanza);
+        if (componentRoutingTable.route(stanza)) {
+            return;
+        }
+        if (multiUserChatService.isServiceAddress(stanza.getTo())) {
+            multiUserChatService.process(stanza);
+        } else if (stanza.getTo() == null || isLocalDomain(stanza.getTo())) {
+            final ClusterNode clusterNode = nettyServer.getClusterNode();
+            if (clusterNode == null || !forwardToCluster(clusterNode, stanza)) {
+                inboundStanzaProcessor.process(stanza);
+            }
         } else {
-            // s2s not implemented.
-            Stanza errorResponse = stanza.createError(Condition.REMOTE_SERVER_NOT_FOUND);
-            Session session = sessionManager.getSession(errorResponse.getTo());
+            final ServerSessionPool serverSessionPool = nettyServer.getServerSessionPool();
+            if (serverSessionPool != null) {
+                serverSessionPool.send(stanza);
+            } else {
+                // Server-to-server streams are disabled.
+                Stanza errorResponse = stanza.createError(Condition.REMOTE_SERVER_NOT_FOUND);
+                Session session = sessionManager.getSession(errorResponse.getTo());
+                if (session != null) {
+                    session.send(errorResponse);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks, if an address belongs to the server's domain or one of its subdomains. A domain, which merely ends with
+     * the server's domain, e.g. "evilexample.net" for "example.net", is a remote domain.
+     *
+     * @param address The address.
+     * @return True, if the address is local.
+     */
+    private boolean isLocalDomain(final Jid address) {
+        final String domain = serverConfiguration.getDomain().getDomain();
+        return address.getDomain().equals(domain) || address.getDomain().endsWith('.' + domain);
+    }
+
+    /**
+     * Forwards a stanza to the other cluster nodes, on which the recipient has sessions.
+     *
+     * <p>A stanza to a full JID is only forwarded, if the session is not local. Messages and presences to a bare JID
+     * are forwarded to all nodes of the user, where they are delivered to the user's resources. Messages are only
+     * processed locally, too, if the user has local sessions, so that they are not stored offline or bounced, while
+     * the user is available on other nodes. Presences to a bare JID are always processed locally, too, because they
+     * also affect the user's roster. IQs to a bare JID and presence probes are handled by the server on behalf of the
+     * user and are never forwarded.</p>
+     *
+     * @param clusterNode The cluster node.
+     * @param stanza      The stanza to a local domain.
+     * @return True, if the stanza has been forwarded and must not be processed locally.
+     */
+    private boolean forwardToCluster(final ClusterNode clusterNode, final Stanza stanza) {
+        final Jid to = stanza.getTo();
+        if (to == null || to.getLocal() == null) {
+            return false;
+        }
+        if (to.getResource() != null) {
+            return sessionManager.getSession(to) == null && clusterNode.forward(stanza);
+        }
+        if (stanza instanceof IQ
+                || (stanza instanceof Presence && ((Presence) stanza).getType() == Presence.Type.PROBE)
+                || (stanza instanceof Message && (((Message) stanza).getType() == Message.Type.GROUPCHAT
+                || ((Message) stanza).getType() == Message.Type.ERROR))) {
+            return false;
+        }
+        return clusterNode.forward(stanza) && stanza instanceof Message
+                && sessionManager.getUserSessions(to).findAny().isEmpty();
+    }
+
+    /**
+     * Delivers a stanza, which has been forwarded by another cluster node, to the local sessions of the recipient.
+     * The stanza is silently dropped, if the recipient has no matching local session (anymore).
+     *
+     * @param stanza The stanza.
+     */
+    public void deliverLocally(final Stanza stanza) {
+        final Jid to = stanza.getTo();
+        if (to.getResource() != null) {
+            final Session session = sessionManager.getSession(to);
             if (session != null) {
-                session.send(errorResponse);
+                session.send(stanza);
             }
+        } else {
+            sessionManager.getUserSessions(to)
+                    .filter(session -> !(stanza instanceof Message) || hasNonNegativePriority(session))
+                    .forEach(session -> session.send(stanza));
         }
     }
+
+    private static boolean hasNonNegativePriority(final Session session) {
+        final Presence presence = ((InboundClientSession) session).getPresence();
+        return presence != null && presence.getPriority() >= 0;
+    }
+
+    /**
+     * Gets the routing table of external components, which are connected to this server.
+     *
+     * @return The routing table.
+     */
+    public ComponentRoutingTable getComponentRoutingTable() {
+        return componentRoutingTable;
+    }
 }
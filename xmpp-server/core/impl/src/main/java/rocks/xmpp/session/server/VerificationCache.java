@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.session.server;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Remembers which remote domains have been verified from which addresses, so that a new stream from the same address
+ * can be accepted without another verification round trip. Entries expire after a fixed duration.
+ *
+ * @author Christian Schudt
+ */
+final class VerificationCache {
+
+    private final Map<String, Instant> entries = new ConcurrentHashMap<>();
+
+    private final Duration duration;
+
+    private final Clock clock;
+
+    VerificationCache(final Duration duration, final Clock clock) {
+        this.duration = duration;
+        this.clock = clock;
+    }
+
+    /**
+     * Remembers that a domain has been verified from an address.
+     *
+     * @param domain  The verified domain.
+     * @param address The address of the peer.
+     */
+    void put(final Jid domain, final InetAddress address) {
+        if (!duration.isZero() && !duration.isNegative()) {
+            entries.put(key(domain, address), clock.instant().plus(duration));
+        }
+    }
+
+    /**
+     * Checks, if a domain has recently been verified from an address.
+     *
+     * @param domain  The domain.
+     * @param address The address of the peer.
+     * @return True, if the domain has been verified and the entry is not expired.
+     */
+    boolean isVerified(final Jid domain, final InetAddress address) {
+        final Instant expiry = entries.get(key(domain, address));
+        return expiry != null && expiry.isAfter(clock.instant());
+    }
+
+    /**
+     * Removes the expired entries.
+     */
+    void evictExpired() {
+        final Instant now = clock.instant();
+        entries.values().removeIf(expiry -> !expiry.isAfter(now));
+    }
+
+    private static String key(final Jid domain, final InetAddress address) {
+        return domain.getDomain() + ' ' + address.getHostAddress();
+    }
+}
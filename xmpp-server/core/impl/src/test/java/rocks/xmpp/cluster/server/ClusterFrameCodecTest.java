@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the {@link ClusterFrameCodec} class.
+ *
+ * @author Christian Schudt
+ */
+public class ClusterFrameCodecTest {
+
+    private ClusterHandshake handshake;
+
+    private EmbeddedChannel connector;
+
+    private EmbeddedChannel acceptor;
+
+    @BeforeMethod
+    public void setUp() {
+        handshake = new ClusterHandshake("secret", ClusterHandshake.newChallenge(), ClusterHandshake.newChallenge());
+        final ClusterFrameCodec connectorCodec = new ClusterFrameCodec();
+        final ClusterFrameCodec acceptorCodec = new ClusterFrameCodec();
+        connectorCodec.authenticate(handshake.acceptorKey(), handshake.connectorKey());
+        acceptorCodec.authenticate(handshake.connectorKey(), handshake.acceptorKey());
+        connector = new EmbeddedChannel(connectorCodec);
+        acceptor = new EmbeddedChannel(acceptorCodec);
+    }
+
+    @Test
+    public void testFramesAreAuthenticated() {
+        connector.writeOutbound(frame("1"), frame("2"));
+        acceptor.writeInbound(connector.<ByteBuf>readOutbound(), connector.<ByteBuf>readOutbound());
+        Assert.assertEquals(read(acceptor), "1");
+        Assert.assertEquals(read(acceptor), "2");
+    }
+
+    @Test(expectedExceptions = DecoderException.class)
+    public void testModifiedFrameIsRejected() {
+        connector.writeOutbound(frame("1"));
+        final ByteBuf encoded = connector.readOutbound();
+        encoded.setByte(Integer.BYTES, '2');
+        acceptor.writeInbound(encoded);
+    }
+
+    @Test(expectedExceptions = DecoderException.class)
+    public void testReplayedFrameIsRejected() {
+        connector.writeOutbound(frame("1"));
+        final ByteBuf encoded = connector.readOutbound();
+        acceptor.writeInbound(encoded.retainedDuplicate());
+        read(acceptor);
+        acceptor.writeInbound(encoded);
+    }
+
+    @Test(expectedExceptions = DecoderException.class)
+    public void testReflectedFrameIsRejected() {
+        connector.writeOutbound(frame("1"));
+        connector.writeInbound(connector.<ByteBuf>readOutbound());
+    }
+
+    @Test(expectedExceptions = DecoderException.class)
+    public void testLargeFrameIsRejectedBeforeAuthentication() {
+        new EmbeddedChannel(new ClusterFrameCodec())
+                .writeInbound(Unpooled.buffer().writeInt(ClusterFrameCodec.HANDSHAKE_FRAME_LENGTH + 1));
+    }
+
+    private static ByteBuf frame(final String content) {
+        return Unpooled.copiedBuffer(content, StandardCharsets.UTF_8);
+    }
+
+    private static String read(final EmbeddedChannel channel) {
+        final ByteBuf frame = channel.readInbound();
+        try {
+            return frame.toString(StandardCharsets.UTF_8);
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.cluster.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.cluster.server.spi.ClusterMember;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+import rocks.xmpp.util.MarshallerPool;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Tests several cluster nodes on the loopback interface.
+ *
+ * @author Christian Schudt
+ */
+public class ClusterNodeTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final MarshallerPool MARSHALLER_POOL = new MarshallerPool(JAXB_CONTEXT);
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid ROMEO = Jid.of("romeo@capulet.lit/orchard");
+
+    private NettyTransport transport;
+
+    private final List<ClusterMember> members = new CopyOnWriteArrayList<>();
+
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    private final List<ClusterMember> started = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp() {
+        transport = NettyTransport.builder().threads(2).build();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        nodes.forEach(ClusterNode::close);
+        nodes.clear();
+        members.clear();
+        started.clear();
+        transport.shutdown().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRoutesArePublished() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        final ClusterNode node3 = start("node3", new LinkedBlockingQueue<>());
+        connect();
+
+        node1.sessionAdded(JULIET);
+        node1.sessionAdded(JULIET.withResource("chamber"));
+        node3.sessionAdded(JULIET);
+        await(() -> node2.getRoutingTable().getNodes(JULIET.asBareJid()).size() == 2);
+        Assert.assertEquals(node2.getRoutingTable().getNodes(JULIET).size(), 2);
+        Assert.assertTrue(node2.getRoutingTable().getNodes(JULIET).containsAll(List.of("node1", "node3")));
+        await(() -> node1.getRoutingTable().getNodes(JULIET).equals(List.of("node3")));
+
+        // The route is only removed with the last session of the user on the node.
+        node1.sessionRemoved(JULIET);
+        node3.sessionRemoved(JULIET);
+        await(() -> node2.getRoutingTable().getNodes(JULIET).equals(List.of("node1")));
+        node1.sessionRemoved(JULIET.withResource("chamber"));
+        await(() -> node2.getRoutingTable().size() == 0);
+        await(() -> node3.getRoutingTable().size() == 0);
+    }
+
+    @Test
+    public void testStanzaIsForwarded() throws Exception {
+        final BlockingQueue<Stanza> inbox1 = new LinkedBlockingQueue<>();
+        final ClusterNode node1 = start("node1", inbox1);
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        connect();
+
+        Assert.assertFalse(node2.forward(message(ROMEO, JULIET, "1")));
+        node1.sessionAdded(JULIET);
+        await(() -> !node2.getRoutingTable().getNodes(JULIET).isEmpty());
+
+        Assert.assertTrue(node2.forward(message(ROMEO, JULIET, "1")));
+        Assert.assertTrue(node2.forward(message(ROMEO, JULIET.asBareJid(), "2")));
+        final Message first = (Message) inbox1.poll(5, TimeUnit.SECONDS);
+        final Message second = (Message) inbox1.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertEquals(first.getFrom(), ROMEO);
+        Assert.assertEquals(first.getTo(), JULIET);
+        Assert.assertEquals(first.getBody(), "1");
+        Assert.assertEquals(second.getTo(), JULIET.asBareJid());
+        Assert.assertEquals(second.getBody(), "2");
+    }
+
+    @Test
+    public void testJoiningNodeLearnsExistingRoutes() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        node1.sessionAdded(JULIET);
+        node1.sessionAdded(ROMEO);
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        connect();
+
+        await(() -> node2.getRoutingTable().size() == 2);
+        Assert.assertEquals(node2.getRoutingTable().getNodes(ROMEO), List.of("node1"));
+    }
+
+    @Test
+    public void testRoutesAreRemovedWhenNodeLeaves() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        connect();
+        node1.sessionAdded(JULIET);
+        await(() -> node2.getRoutingTable().size() == 1);
+
+        node1.close();
+        await(() -> node2.getRoutingTable().size() == 0);
+        Assert.assertFalse(node2.forward(message(ROMEO, JULIET, "1")));
+    }
+
+    @Test
+    public void testLinkWithWrongSecretIsRejected() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>(), "wrong");
+        connect();
+        node1.sessionAdded(JULIET);
+        node2.sessionAdded(ROMEO);
+
+        Thread.sleep(500);
+        Assert.assertEquals(node1.getRoutingTable().size(), 0);
+        Assert.assertEquals(node2.getRoutingTable().size(), 0);
+    }
+
+    @Test
+    public void testLinkFromUnknownNodeIsRejected() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        connect();
+        // The second node knows the first node, but is not a member of the cluster.
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        node2.sessionAdded(ROMEO);
+        node2.refreshMembers();
+
+        Thread.sleep(500);
+        Assert.assertEquals(node1.getRoutingTable().size(), 0);
+    }
+
+    @Test
+    public void testLinkToImpostorIsRejected() throws Exception {
+        final ClusterNode node1 = start("node1", new LinkedBlockingQueue<>());
+        final ClusterNode node2 = start("node2", new LinkedBlockingQueue<>());
+        // The second node expects the third node at the address of the first node, which accepts the second node.
+        members.add(started.get(1));
+        members.add(new ClusterMember("node3", started.get(0).getAddress()));
+        node2.sessionAdded(ROMEO);
+        node2.refreshMembers();
+
+        Thread.sleep(500);
+        Assert.assertEquals(node1.getRoutingTable().size(), 0);
+    }
+
+    @Test
+    public void testNodeRequiresSecret() throws Exception {
+        final ClusterNode node = new ClusterNode(configuration("node1", freePort(), null), transport, () -> members,
+                stanza -> {
+                });
+        nodes.add(node);
+        Assert.assertTrue(node.start().toCompletableFuture().isCompletedExceptionally());
+    }
+
+    private ClusterNode start(final String nodeId, final BlockingQueue<Stanza> inbox) throws Exception {
+        return start(nodeId, inbox, "secret");
+    }
+
+    private ClusterNode start(final String nodeId, final BlockingQueue<Stanza> inbox, final String secret)
+            throws Exception {
+        final int port = freePort();
+        final ClusterNode node = new ClusterNode(configuration(nodeId, port, secret), transport, () -> members,
+                inbox::add);
+        nodes.add(node);
+        node.start().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        started.add(new ClusterMember(nodeId, new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        return node;
+    }
+
+    private static ServerConfiguration configuration(final String nodeId, final int port, final String secret) {
+        return new ServerConfiguration() {
+            @Override
+            public JAXBContext getJAXBContext() {
+                return JAXB_CONTEXT;
+            }
+
+            @Override
+            public Marshaller getMarshaller() {
+                return MARSHALLER_POOL.getMarshaller();
+            }
+
+            @Override
+            public Unmarshaller getUnmarshaller(final Locale locale) {
+                return MARSHALLER_POOL.getUnmarshaller(locale);
+            }
+
+            @Override
+            public int getPort() {
+                return 0;
+            }
+
+            @Override
+            public Jid getDomain() {
+                return Jid.ofDomain("capulet.lit");
+            }
+
+            @Override
+            public String getClusterNodeId() {
+                return nodeId;
+            }
+
+            @Override
+            public int getClusterPort() {
+                return port;
+            }
+
+            @Override
+            public String getClusterSecret() {
+                return secret;
+            }
+        };
+    }
+
+    /**
+     * Makes all started nodes known to each other, once they accept links.
+     */
+    private void connect() {
+        members.addAll(started);
+        nodes.forEach(ClusterNode::refreshMembers);
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(System.nanoTime() < deadline, "Condition not met in time.");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Message message(final Jid from, final Jid to, final String body) {
+        final Message message = new Message(to, Message.Type.CHAT, body);
+        message.setFrom(from);
+        return message;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
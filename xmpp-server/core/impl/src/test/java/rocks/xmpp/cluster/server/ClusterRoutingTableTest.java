@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.cluster.server;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * @author Christian Schudt
+ */
+public class ClusterRoutingTableTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit");
+
+    @Test
+    public void testRoutes() {
+        final ClusterRoutingTable routingTable = new ClusterRoutingTable();
+        routingTable.add("node1", JULIET.withResource("balcony"));
+        routingTable.add("node2", JULIET);
+        routingTable.add("node2", Jid.of("romeo@montague.lit"));
+        Assert.assertEquals(routingTable.getNodes(JULIET), List.of("node1", "node2"));
+        Assert.assertEquals(routingTable.size(), 2);
+
+        routingTable.remove("node1", JULIET);
+        Assert.assertEquals(routingTable.getNodes(JULIET.withResource("chamber")), List.of("node2"));
+        routingTable.removeNode("node2");
+        Assert.assertTrue(routingTable.getNodes(JULIET).isEmpty());
+        Assert.assertEquals(routingTable.size(), 0);
+    }
+
+    @Test
+    public void testMaxNodes() {
+        final ClusterRoutingTable routingTable = new ClusterRoutingTable();
+        for (int i = 0; i < ClusterRoutingTable.MAX_NODES; i++) {
+            routingTable.add("node" + i, JULIET);
+        }
+        Assert.assertEquals(routingTable.getNodes(JULIET).size(), ClusterRoutingTable.MAX_NODES);
+        Assert.assertThrows(IllegalStateException.class, () -> routingTable.add("another node", JULIET));
+    }
+
+    @Test
+    public void testBitsOfRemovedNodesAreReused() {
+        final ClusterRoutingTable routingTable = new ClusterRoutingTable();
+        for (int i = 0; i < ClusterRoutingTable.MAX_NODES; i++) {
+            routingTable.add("node" + i, JULIET);
+        }
+        routingTable.removeNode("node1");
+        routingTable.remove("node1", JULIET);
+        routingTable.add("another node", JULIET);
+
+        final List<String> nodes = routingTable.getNodes(JULIET);
+        Assert.assertEquals(nodes.size(), ClusterRoutingTable.MAX_NODES);
+        Assert.assertFalse(nodes.contains("node1"));
+        Assert.assertTrue(nodes.contains("another node"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> nodes.add("node1"));
+    }
+}
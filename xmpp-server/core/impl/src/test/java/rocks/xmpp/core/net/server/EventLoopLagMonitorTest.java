@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.core.net.server;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Christian Schudt
+ */
+public class EventLoopLagMonitorTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private EventLoopGroup eventLoopGroup;
+
+    private EventLoopLagMonitor monitor;
+
+    @BeforeMethod
+    public void setUp() {
+        nanoTime.set(0);
+        eventLoopGroup = new DefaultEventLoopGroup(2);
+        monitor = new EventLoopLagMonitor(eventLoopGroup, Duration.ofMillis(50), Duration.ofMillis(100),
+                nanoTime::get);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void testLag() {
+        Assert.assertEquals(monitor.getLag(), Duration.ZERO);
+
+        nanoTime.set(Duration.ofMillis(55).toNanos());
+        monitor.probe(0, Duration.ofMillis(50).toNanos());
+        Assert.assertEquals(monitor.getLag(), Duration.ofMillis(5));
+
+        // A blocked event loop runs the probe late.
+        nanoTime.set(Duration.ofMillis(505).toNanos());
+        monitor.probe(1, Duration.ofMillis(100).toNanos());
+        Assert.assertEquals(monitor.getLag(), Duration.ofMillis(405));
+
+        // A probe, which runs early, has no lag.
+        monitor.probe(0, Duration.ofMillis(600).toNanos());
+        Assert.assertEquals(monitor.getLag(), Duration.ofMillis(405));
+    }
+
+    @Test
+    public void testRecentMaximum() {
+        nanoTime.set(Duration.ofMillis(400).toNanos());
+        monitor.probe(0, 0);
+        for (int i = 1; i < EventLoopLagMonitor.SAMPLES; i++) {
+            nanoTime.addAndGet(Duration.ofMillis(51).toNanos());
+            monitor.probe(0, nanoTime.get() - Duration.ofMillis(1).toNanos());
+            // The high lag is still among the recent probes.
+            Assert.assertEquals(monitor.getLag(), Duration.ofMillis(400));
+        }
+        nanoTime.addAndGet(Duration.ofMillis(51).toNanos());
+        monitor.probe(0, nanoTime.get() - Duration.ofMillis(1).toNanos());
+        Assert.assertEquals(monitor.getLag(), Duration.ofMillis(1));
+    }
+}
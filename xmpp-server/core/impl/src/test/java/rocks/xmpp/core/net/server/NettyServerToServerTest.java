@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.core.net.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.nio.netty.net.NettyTransport;
+import rocks.xmpp.util.MarshallerPool;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * Tests server-to-server streams between servers on the loopback interface.
+ *
+ * @author Christian Schudt
+ */
+public class NettyServerToServerTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final MarshallerPool MARSHALLER_POOL = new MarshallerPool(JAXB_CONTEXT);
+
+    private static final Jid CAPULET = Jid.ofDomain("capulet.lit");
+
+    private static final Jid MONTAGUE = Jid.ofDomain("montague.lit");
+
+    private NettyTransport transport;
+
+    private final List<NettyServerToServer> servers = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp() {
+        transport = NettyTransport.builder().threads(2).build();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        servers.forEach(NettyServerToServer::close);
+        servers.clear();
+        transport.shutdown().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStanzasAreSentOverOneStream() throws Exception {
+        final int capuletPort = freePort();
+        final int montaguePort = freePort();
+        final BlockingQueue<Stanza> capuletInbox = new LinkedBlockingQueue<>();
+        final BlockingQueue<Stanza> montagueInbox = new LinkedBlockingQueue<>();
+        final NettyServerToServer capulet = start(CAPULET, capuletPort, "capulet secret", capuletInbox,
+                Map.of(MONTAGUE, montaguePort));
+        final NettyServerToServer montague = start(MONTAGUE, montaguePort, "montague secret", montagueInbox,
+                Map.of(CAPULET, capuletPort));
+
+        montague.getSessionPool().send(message("romeo@montague.lit/orchard", "juliet@capulet.lit/balcony", "1"));
+        montague.getSessionPool().send(message("benvolio@montague.lit/street", "juliet@capulet.lit/balcony", "2"));
+
+        final Message first = (Message) capuletInbox.poll(5, TimeUnit.SECONDS);
+        final Message second = (Message) capuletInbox.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertEquals(first.getFrom(), Jid.of("romeo@montague.lit/orchard"));
+        Assert.assertEquals(first.getBody(), "1");
+        Assert.assertEquals(second.getFrom(), Jid.of("benvolio@montague.lit/street"));
+        Assert.assertEquals(second.getBody(), "2");
+        Assert.assertEquals(montague.getSessionPool().getSessionCount(), 1);
+
+        // The stream, which capulet has opened to verify montague, is used for the reply.
+        capulet.getSessionPool().send(message("juliet@capulet.lit/balcony", "romeo@montague.lit/orchard", "3"));
+        final Message reply = (Message) montagueInbox.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(reply);
+        Assert.assertEquals(reply.getFrom(), Jid.of("juliet@capulet.lit/balcony"));
+        Assert.assertEquals(reply.getBody(), "3");
+        Assert.assertEquals(capulet.getSessionPool().getSessionCount(), 1);
+    }
+
+    @Test
+    public void testUnreachableServer() throws Exception {
+        final BlockingQueue<Stanza> montagueInbox = new LinkedBlockingQueue<>();
+        final NettyServerToServer montague = start(MONTAGUE, freePort(), "montague secret", montagueInbox,
+                Map.of(CAPULET, freePort()));
+
+        montague.getSessionPool().send(message("romeo@montague.lit/orchard", "juliet@capulet.lit/balcony", "1"));
+
+        final Stanza error = montagueInbox.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(error);
+        Assert.assertEquals(error.getTo(), Jid.of("romeo@montague.lit/orchard"));
+        Assert.assertEquals(error.getError().getCondition(), Condition.REMOTE_SERVER_NOT_FOUND);
+    }
+
+    @Test
+    public void testForgedDomain() throws Exception {
+        final int capuletPort = freePort();
+        final int montaguePort = freePort();
+        final BlockingQueue<Stanza> capuletInbox = new LinkedBlockingQueue<>();
+        final BlockingQueue<Stanza> forgerInbox = new LinkedBlockingQueue<>();
+        start(CAPULET, capuletPort, "capulet secret", capuletInbox, Map.of(MONTAGUE, montaguePort));
+        start(MONTAGUE, montaguePort, "montague secret", new LinkedBlockingQueue<>(), Map.of(CAPULET, capuletPort));
+        // Claims to be montague.lit, but capulet.lit asks the real montague.lit, which doesn't know the key.
+        final NettyServerToServer forger = start(MONTAGUE, freePort(), "other secret", forgerInbox,
+                Map.of(CAPULET, capuletPort));
+
+        forger.getSessionPool().send(message("romeo@montague.lit/orchard", "juliet@capulet.lit/balcony", "1"));
+
+        final Stanza error = forgerInbox.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(error);
+        Assert.assertEquals(error.getError().getCondition(), Condition.REMOTE_SERVER_NOT_FOUND);
+        Assert.assertNull(capuletInbox.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private NettyServerToServer start(final Jid domain, final int port, final String secret,
+                                      final BlockingQueue<Stanza> inbox, final Map<Jid, Integer> ports)
+            throws Exception {
+        final Map<Jid, InetSocketAddress> addresses = new HashMap<>();
+        ports.forEach((d, p) -> addresses.put(d, new InetSocketAddress(InetAddress.getLoopbackAddress(), p)));
+        final NettyServerToServer server = new NettyServerToServer(new ServerConfiguration() {
+            @Override
+            public JAXBContext getJAXBContext() {
+                return JAXB_CONTEXT;
+            }
+
+            @Override
+            public Marshaller getMarshaller() {
+                return MARSHALLER_POOL.getMarshaller();
+            }
+
+            @Override
+            public Unmarshaller getUnmarshaller(final Locale locale) {
+                return MARSHALLER_POOL.getUnmarshaller(locale);
+            }
+
+            @Override
+            public int getPort() {
+                return 0;
+            }
+
+            @Override
+            public Jid getDomain() {
+                return domain;
+            }
+
+            @Override
+            public int getServerToServerPort() {
+                return port;
+            }
+
+            @Override
+            public InetSocketAddress getServerToServerAddress(final Jid remoteDomain) {
+                return addresses.get(remoteDomain);
+            }
+
+            @Override
+            public String getDialbackSecret() {
+                return secret;
+            }
+        }, transport, inbox::add);
+        servers.add(server);
+        server.start().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        return server;
+    }
+
+    private static Message message(final String from, final String to, final String body) {
+        final Message message = new Message(Jid.of(to), Message.Type.CHAT, body);
+        message.setFrom(Jid.of(from));
+        return message;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.blocking.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.blocking.model.Block;
+import rocks.xmpp.extensions.blocking.model.BlockList;
+import rocks.xmpp.extensions.blocking.model.Blockable;
+import rocks.xmpp.extensions.blocking.model.Unblock;
+import rocks.xmpp.session.server.SessionManager;
+
+/**
+ * @author Christian Schudt
+ */
+public class BlockingServiceTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid ROMEO = Jid.of("romeo@montague.lit/orchard");
+
+    private static final Jid TYBALT = Jid.of("tybalt@capulet.lit/street");
+
+    private final List<StreamElement> pushes = new ArrayList<>();
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @InjectMocks
+    private BlockingService blockingService;
+
+    @BeforeMethod
+    public void setUp() {
+        blockingService = new BlockingService();
+        MockitoAnnotations.openMocks(this);
+        pushes.clear();
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.send(Mockito.any())).thenAnswer(invocation -> {
+            pushes.add(invocation.getArgument(0));
+            return null;
+        });
+        Mockito.when(sessionManager.getSession(JULIET)).thenReturn(session);
+    }
+
+    private IQ request(IQ.Type type, Blockable blockable) {
+        return blockingService.handleRequest(new IQ(JULIET.asBareJid(), type, blockable, "id", JULIET, null, null));
+    }
+
+    private static Message message(Jid from, Jid to) {
+        Message message = new Message(to, Message.Type.CHAT, "Hi");
+        message.setFrom(from);
+        return message;
+    }
+
+    @Test
+    public void testBlockAndUnblock() {
+        Assert.assertTrue(request(IQ.Type.GET, new BlockList()).getExtension(BlockList.class).getItems().isEmpty());
+        Assert.assertEquals(request(IQ.Type.SET, new Block(Arrays.asList(ROMEO.asBareJid(), TYBALT))).getType(),
+                IQ.Type.RESULT);
+        // The resource, which has requested the block list, gets a push.
+        Assert.assertEquals(pushes.size(), 1);
+        Assert.assertTrue(((IQ) pushes.get(0)).getExtension(Blockable.class) instanceof Block);
+
+        Assert.assertTrue(blockingService.isBlocked(message(ROMEO, JULIET), true));
+        Assert.assertTrue(blockingService.isBlocked(message(JULIET, ROMEO.withResource("street")), false));
+        Presence presence = new Presence(ROMEO);
+        presence.setFrom(JULIET);
+        Assert.assertTrue(blockingService.isBlocked(presence, false));
+        Assert.assertTrue(blockingService.isBlocked(message(TYBALT, JULIET.asBareJid()), true));
+        Assert.assertFalse(blockingService.isBlocked(message(TYBALT.withResource("home"), JULIET), true));
+        Assert.assertEquals(request(IQ.Type.GET, new BlockList()).getExtension(BlockList.class).getItems(),
+                Arrays.asList(ROMEO.asBareJid(), TYBALT));
+
+        Assert.assertEquals(request(IQ.Type.SET, new Unblock(Collections.singleton(ROMEO.asBareJid()))).getType(),
+                IQ.Type.RESULT);
+        Assert.assertFalse(blockingService.isBlocked(message(ROMEO, JULIET), true));
+        Assert.assertTrue(blockingService.isBlocked(message(TYBALT, JULIET), true));
+
+        // Unblock all.
+        request(IQ.Type.SET, new Unblock());
+        Assert.assertFalse(blockingService.isBlocked(message(TYBALT, JULIET), true));
+        Assert.assertEquals(pushes.size(), 3);
+    }
+
+    @Test
+    public void testInvalidRequests() {
+        Assert.assertEquals(request(IQ.Type.SET, new Block(Collections.emptyList())).getError().getCondition(),
+                Condition.BAD_REQUEST);
+        Assert.assertEquals(request(IQ.Type.GET, new Block(Collections.singleton(ROMEO))).getError()
+                .getCondition(), Condition.BAD_REQUEST);
+        Assert.assertFalse(blockingService.isBlocked(message(ROMEO, JULIET), true));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.caps.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.PresenceEvent;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.extensions.disco.model.info.InfoDiscovery;
+
+/**
+ * @author Christian Schudt
+ */
+public class ServerEntityCapabilitiesManagerTest {
+
+    private static final Jid ROMEO_ORCHARD = Jid.of("romeo@montague.lit/orchard");
+
+    private static final Jid ROMEO_GARDEN = Jid.of("romeo@montague.lit/garden");
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final String GEOLOC_NOTIFY = "http://jabber.org/protocol/geoloc+notify";
+
+    private static final String TUNE_NOTIFY = "http://jabber.org/protocol/tune+notify";
+
+    private final List<Set<String>> addedFeatures = new ArrayList<>();
+
+    private ServerEntityCapabilitiesManager entityCapabilitiesManager;
+
+    @BeforeMethod
+    public void setUp() {
+        addedFeatures.clear();
+        entityCapabilitiesManager = new ServerEntityCapabilitiesManager();
+        entityCapabilitiesManager.addFeatureListener((entity, features) -> addedFeatures.add(features));
+    }
+
+    private static InfoDiscovery info(String... features) {
+        return new InfoDiscovery(Collections.emptyList(), Arrays.asList(features));
+    }
+
+    @Test
+    public void testFeatureIndex() {
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_ORCHARD, info(GEOLOC_NOTIFY, TUNE_NOTIFY));
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_GARDEN, info(GEOLOC_NOTIFY));
+        entityCapabilitiesManager.writeEntityCapabilities(JULIET, info(TUNE_NOTIFY));
+
+        Assert.assertEquals(entityCapabilitiesManager.getEntities(GEOLOC_NOTIFY).keySet(),
+                Collections.singleton(ROMEO_ORCHARD.asBareJid()));
+        Assert.assertEquals(entityCapabilitiesManager.getEntities(GEOLOC_NOTIFY).get(ROMEO_ORCHARD.asBareJid()),
+                new HashSet<>(Arrays.asList(ROMEO_ORCHARD, ROMEO_GARDEN)));
+        Assert.assertEquals(entityCapabilitiesManager.getEntities(TUNE_NOTIFY).keySet(),
+                new HashSet<>(Arrays.asList(ROMEO_ORCHARD.asBareJid(), JULIET.asBareJid())));
+        Assert.assertTrue(entityCapabilitiesManager.getEntities("urn:xmpp:unknown").isEmpty());
+        Assert.assertEquals(entityCapabilitiesManager.readEntityCapabilities(JULIET).getFeatures(),
+                Collections.singleton(TUNE_NOTIFY));
+    }
+
+    @Test
+    public void testChangedCapabilities() {
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_ORCHARD, info(GEOLOC_NOTIFY));
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_ORCHARD, info(GEOLOC_NOTIFY));
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_ORCHARD, info(TUNE_NOTIFY));
+
+        Assert.assertTrue(entityCapabilitiesManager.getEntities(GEOLOC_NOTIFY).isEmpty());
+        Assert.assertEquals(entityCapabilitiesManager.getEntities(TUNE_NOTIFY).get(ROMEO_ORCHARD.asBareJid()),
+                Collections.singleton(ROMEO_ORCHARD));
+        // Listeners are only notified about new features.
+        Assert.assertEquals(addedFeatures,
+                Arrays.asList(Collections.singleton(GEOLOC_NOTIFY), Collections.singleton(TUNE_NOTIFY)));
+    }
+
+    @Test
+    public void testUnavailablePresenceRemovesCapabilities() {
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_ORCHARD, info(GEOLOC_NOTIFY));
+        entityCapabilitiesManager.writeEntityCapabilities(ROMEO_GARDEN, info(GEOLOC_NOTIFY));
+
+        Presence presence = new Presence(Presence.Type.UNAVAILABLE);
+        presence.setFrom(ROMEO_ORCHARD);
+        entityCapabilitiesManager.handleOutboundPresence(new PresenceEvent(this, presence, false));
+
+        Assert.assertNull(entityCapabilitiesManager.readEntityCapabilities(ROMEO_ORCHARD));
+        Assert.assertEquals(entityCapabilitiesManager.getEntities(GEOLOC_NOTIFY).get(ROMEO_ORCHARD.asBareJid()),
+                Collections.singleton(ROMEO_GARDEN));
+
+        entityCapabilitiesManager.removeEntityCapabilities(ROMEO_GARDEN);
+        Assert.assertTrue(entityCapabilitiesManager.getEntities(GEOLOC_NOTIFY).isEmpty());
+    }
+}
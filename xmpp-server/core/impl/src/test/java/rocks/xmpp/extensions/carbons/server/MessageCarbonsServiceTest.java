@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.carbons.server;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.client.ClientMessage;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.carbons.model.MessageCarbons;
+import rocks.xmpp.extensions.forward.model.Forwarded;
+import rocks.xmpp.session.server.InboundClientSession;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class MessageCarbonsServiceTest {
+
+    private static final System.Logger logger = System.getLogger(MessageCarbonsServiceTest.class.getName());
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final Jid ROMEO = Jid.of("romeo@capulet.lit/orchard");
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private final Map<Jid, List<StreamElement>> delivered = new HashMap<>();
+
+    private final Map<Jid, List<Session>> carbonsEnabled = new HashMap<>();
+
+    @Mock
+    private ServerConfiguration serverConfiguration;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @InjectMocks
+    private MessageCarbonsService messageCarbonsService;
+
+    @BeforeMethod
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        delivered.clear();
+        carbonsEnabled.clear();
+        Mockito.when(serverConfiguration.getDomain()).thenReturn(Jid.of("capulet.lit"));
+        Mockito.when(serverConfiguration.getMarshaller()).thenAnswer(invocation -> createMarshaller());
+        Mockito.when(sessionManager.getCarbonsEnabledSessions(Mockito.any())).thenAnswer(invocation ->
+                carbonsEnabled.getOrDefault(invocation.<Jid>getArgument(0), Collections.emptyList()).stream());
+    }
+
+    private static Marshaller createMarshaller() {
+        try {
+            Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void connect(Jid jid, int priority, boolean carbons) {
+        InboundClientSession session = Mockito.mock(InboundClientSession.class);
+        Mockito.when(session.getRemoteXmppAddress()).thenReturn(jid);
+        Mockito.when(session.getPresence()).thenReturn(new Presence((byte) priority));
+        Mockito.when(session.send(Mockito.any())).thenAnswer(invocation -> {
+            delivered.computeIfAbsent(jid, key -> new ArrayList<>()).add(invocation.getArgument(0));
+            return null;
+        });
+        Mockito.when(sessionManager.getSession(jid)).thenReturn(session);
+        if (carbons) {
+            carbonsEnabled.computeIfAbsent(jid.asBareJid(), key -> new ArrayList<>()).add(session);
+        }
+    }
+
+    private List<String> carbons(Jid jid) {
+        return delivered.getOrDefault(jid, Collections.emptyList()).stream()
+                .map(element -> {
+                    EncodedStanza encodedStanza = (EncodedStanza) element;
+                    Assert.assertEquals(encodedStanza.getTo(), jid);
+                    return encodedStanza.toString();
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static Message message(Jid from, Jid to, Message.Type type) {
+        Message message = new Message(to, type, "Art thou not Romeo, and a Montague?");
+        message.setFrom(from);
+        message.setId("1");
+        return message;
+    }
+
+    @Test
+    public void testSentCarbons() {
+        connect(ROMEO, 0, true);
+        connect(ROMEO.withResource("garden"), 0, true);
+        connect(ROMEO.withResource("street"), 0, false);
+
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this, message(ROMEO, JULIET, Message.Type.CHAT),
+                false));
+
+        Assert.assertTrue(carbons(ROMEO).isEmpty());
+        Assert.assertTrue(carbons(ROMEO.withResource("street")).isEmpty());
+        Assert.assertEquals(carbons(ROMEO.withResource("garden")), Collections.singletonList(
+                "<message to=\"romeo@capulet.lit/garden\" from=\"romeo@capulet.lit\" type=\"chat\">"
+                        + "<sent xmlns=\"urn:xmpp:carbons:2\"><forwarded xmlns=\"urn:xmpp:forward:0\">"
+                        + "<message xmlns=\"jabber:client\" to=\"juliet@capulet.lit/balcony\" "
+                        + "from=\"romeo@capulet.lit/orchard\" id=\"1\" type=\"chat\">"
+                        + "<body>Art thou not Romeo, and a Montague?</body></message></forwarded></sent></message>"));
+    }
+
+    @Test
+    public void testReceivedCarbonsOfMessageToFullJid() {
+        connect(JULIET, 0, true);
+        connect(JULIET.withResource("chamber"), 0, true);
+
+        messageCarbonsService.handleInboundMessage(new MessageEvent(this, message(ROMEO, JULIET, Message.Type.CHAT),
+                true));
+
+        Assert.assertTrue(carbons(JULIET).isEmpty());
+        List<String> carbons = carbons(JULIET.withResource("chamber"));
+        Assert.assertEquals(carbons.size(), 1);
+        Assert.assertTrue(carbons.get(0).startsWith("<message to=\"juliet@capulet.lit/chamber\" "
+                + "from=\"juliet@capulet.lit\" type=\"chat\"><received xmlns=\"urn:xmpp:carbons:2\">"));
+    }
+
+    @Test
+    public void testReceivedCarbonsOfMessageToBareJid() {
+        connect(JULIET, 0, true);
+        connect(JULIET.withResource("chamber"), -1, true);
+        connect(JULIET.withResource("garden"), -1, false);
+
+        messageCarbonsService.handleInboundMessage(new MessageEvent(this,
+                message(ROMEO, JULIET.asBareJid(), Message.Type.CHAT), true));
+
+        // Non-negative resources receive the message itself.
+        Assert.assertTrue(carbons(JULIET).isEmpty());
+        Assert.assertTrue(carbons(JULIET.withResource("garden")).isEmpty());
+        Assert.assertEquals(carbons(JULIET.withResource("chamber")).size(), 1);
+    }
+
+    @Test
+    public void testIneligibleMessagesAreNotCopied() {
+        connect(ROMEO, 0, true);
+        connect(ROMEO.withResource("garden"), 0, true);
+
+        Message privateMessage = message(ROMEO, JULIET, Message.Type.CHAT);
+        privateMessage.addExtension(MessageCarbons.PRIVATE);
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this, privateMessage, false));
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this,
+                message(ROMEO, JULIET, Message.Type.GROUPCHAT), false));
+        Message normalWithoutBody = new Message(JULIET);
+        normalWithoutBody.setFrom(ROMEO);
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this, normalWithoutBody, false));
+
+        Assert.assertTrue(carbons(ROMEO.withResource("garden")).isEmpty());
+        Mockito.verify(serverConfiguration, Mockito.never()).getMarshaller();
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkManyResources() throws Exception {
+        int resources = 1000;
+        for (int i = 0; i < resources; i++) {
+            connect(ROMEO.withResource("r" + i), 0, true);
+        }
+        Message message = message(ROMEO.withResource("r0"), JULIET, Message.Type.CHAT);
+        // Warm up.
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this, message, false));
+        marshalEachCarbon(message, resources);
+        Mockito.clearInvocations(serverConfiguration);
+        delivered.clear();
+
+        long start = System.nanoTime();
+        messageCarbonsService.handleOutboundMessage(new MessageEvent(this, message, false));
+        // Writing each copy is what the connections do.
+        long length = delivered.values().stream().flatMap(List::stream).mapToLong(e -> e.toString().length()).sum();
+        long spliced = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long marshalledLength = marshalEachCarbon(message, resources);
+        long marshalled = System.nanoTime() - start;
+
+        logger.log(System.Logger.Level.INFO, String.format(Locale.ROOT,
+                "Carbons for %d resources: %d us spliced, %d us marshalled per resource.", resources - 1,
+                spliced / 1000, marshalled / 1000));
+        Assert.assertEquals(delivered.size(), resources - 1);
+        Mockito.verify(serverConfiguration, Mockito.times(1)).getMarshaller();
+        Assert.assertTrue(length > 0 && marshalledLength > 0);
+    }
+
+    private static long marshalEachCarbon(Message message, int resources) throws JAXBException {
+        long length = 0;
+        Marshaller marshaller = createMarshaller();
+        for (int i = 1; i < resources; i++) {
+            Message carbon = new Message(ROMEO.withResource("r" + i), message.getType());
+            carbon.setFrom(ROMEO.asBareJid());
+            carbon.addExtension(new MessageCarbons.Sent(new Forwarded(ClientMessage.from(message))));
+            StringWriter writer = new StringWriter();
+            marshaller.marshal(ClientMessage.from(carbon), writer);
+            length += writer.toString().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.component.accept.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+import rocks.xmpp.core.stream.model.StreamHeader;
+import rocks.xmpp.core.stream.model.errors.Condition;
+import rocks.xmpp.extensions.component.accept.model.ComponentMessage;
+import rocks.xmpp.extensions.component.accept.model.Handshake;
+
+/**
+ * @author Christian Schudt
+ */
+public class ComponentSessionTest {
+
+    private static final Jid GATEWAY = Jid.ofDomain("gateway.domain");
+
+    private ServerConfiguration serverConfiguration;
+
+    private ComponentRoutingTable routingTable;
+
+    private List<Stanza> routed;
+
+    private Queue<Runnable> eventLoop;
+
+    @BeforeMethod
+    public void setUp() {
+        serverConfiguration = Mockito.mock(ServerConfiguration.class);
+        Mockito.when(serverConfiguration.getDomain()).thenReturn(Jid.ofDomain("domain"));
+        Mockito.when(serverConfiguration.getComponentSecret(GATEWAY)).thenReturn("secret");
+        Mockito.when(serverConfiguration.getComponentBatchSize()).thenReturn(2);
+        routingTable = new ComponentRoutingTable();
+        routed = new ArrayList<>();
+        eventLoop = new ArrayDeque<>();
+    }
+
+    @Test
+    public void testHandshake() {
+        final Connection connection = mockConnection();
+        final ComponentSession session = connect(connection, "secret");
+
+        Assert.assertTrue(session.isAuthenticated());
+        Assert.assertEquals(session.getDomain(), GATEWAY);
+        Assert.assertTrue(routingTable.isComponentDomain(GATEWAY));
+        Mockito.verify(connection).send(Mockito.any(Handshake.class));
+
+        final Message message = new Message(Jid.of("juliet@domain"), Message.Type.CHAT, "Hi");
+        message.setFrom(Jid.of("romeo@gateway.domain"));
+        session.handleElement(message);
+        Assert.assertEquals(routed, List.of(message));
+    }
+
+    @Test
+    public void testWrongSecret() {
+        final Connection connection = mockConnection();
+        final ComponentSession session = connect(connection, "wrong");
+
+        Assert.assertFalse(session.isAuthenticated());
+        Assert.assertFalse(routingTable.isComponentDomain(GATEWAY));
+        assertStreamError(connection, Condition.NOT_AUTHORIZED);
+    }
+
+    @Test
+    public void testUnknownDomain() {
+        final Connection connection = mockConnection();
+        final ComponentSession session = new ComponentSession(serverConfiguration, routingTable, routed::add,
+                eventLoop::add);
+        session.setConnection(connection);
+        session.handleElement(StreamHeader.initialClientToServer(null, Jid.ofDomain("unknown.domain"), null,
+                "jabber:component:accept"));
+
+        assertStreamError(connection, Condition.HOST_UNKNOWN);
+    }
+
+    @Test
+    public void testInvalidFrom() {
+        final Connection connection = mockConnection();
+        final ComponentSession session = connect(connection, "secret");
+
+        final Message message = new Message(Jid.of("juliet@domain"), Message.Type.CHAT, "Hi");
+        message.setFrom(Jid.of("romeo@otherdomain"));
+        session.handleElement(message);
+
+        Assert.assertTrue(routed.isEmpty());
+        assertStreamError(connection, Condition.INVALID_FROM);
+    }
+
+    @Test
+    public void testInvalidFromSubdomain() {
+        final Connection connection = mockConnection();
+        final ComponentSession session = connect(connection, "secret");
+
+        final Message message = new Message(Jid.of("juliet@domain"), Message.Type.CHAT, "Hi");
+        message.setFrom(Jid.of("romeo@sub.gateway.domain"));
+        session.handleElement(message);
+
+        Assert.assertTrue(routed.isEmpty());
+        assertStreamError(connection, Condition.INVALID_FROM);
+    }
+
+    @Test
+    public void testBatching() {
+        final Connection connection = mockConnection();
+        connect(connection, "secret");
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(routingTable.route(new Message(Jid.of("romeo@gateway.domain"), Message.Type.CHAT, "")));
+        }
+        while (!eventLoop.isEmpty()) {
+            eventLoop.poll().run();
+        }
+
+        // The second stanza reaches the batch size, the third is flushed after the pending writes.
+        Mockito.verify(connection, Mockito.times(3)).write(Mockito.any(ComponentMessage.class));
+        Mockito.verify(connection, Mockito.times(2)).flush();
+    }
+
+    @Test
+    public void testLoadBalancing() {
+        final Connection connection1 = mockConnection();
+        final Connection connection2 = mockConnection();
+        final ComponentSession session1 = connect(connection1, "secret");
+        connect(connection2, "secret");
+
+        for (int i = 0; i < 100; i++) {
+            final Jid to = Jid.of("user" + i + "@gateway.domain/resource");
+            routingTable.route(new Message(to, Message.Type.CHAT, ""));
+            routingTable.route(new Message(to.withResource("other"), Message.Type.CHAT, ""));
+        }
+        while (!eventLoop.isEmpty()) {
+            eventLoop.poll().run();
+        }
+
+        final ArgumentCaptor<StreamElement> captor1 = ArgumentCaptor.forClass(StreamElement.class);
+        final ArgumentCaptor<StreamElement> captor2 = ArgumentCaptor.forClass(StreamElement.class);
+        Mockito.verify(connection1, Mockito.atLeastOnce()).write(captor1.capture());
+        Mockito.verify(connection2, Mockito.atLeastOnce()).write(captor2.capture());
+        Assert.assertEquals(captor1.getAllValues().size() + captor2.getAllValues().size(), 200);
+        // All stanzas to the same bare JID are sent over the same connection.
+        captor1.getAllValues().forEach(element -> Assert.assertFalse(captor2.getAllValues().stream()
+                .anyMatch(other -> ((Stanza) other).getTo().asBareJid()
+                        .equals(((Stanza) element).getTo().asBareJid()))));
+
+        routingTable.unregister(session1);
+        Assert.assertTrue(routingTable.isComponentDomain(GATEWAY));
+    }
+
+    private ComponentSession connect(final Connection connection, final String secret) {
+        final ComponentSession session = new ComponentSession(serverConfiguration, routingTable, routed::add,
+                eventLoop::add);
+        session.setConnection(connection);
+        session.handleElement(StreamHeader.initialClientToServer(null, GATEWAY, null, "jabber:component:accept"));
+        session.handleElement(Handshake.create(session.getId(), secret));
+        return session;
+    }
+
+    private static Connection mockConnection() {
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.closeFuture()).thenReturn(new CompletableFuture<>());
+        return connection;
+    }
+
+    private static void assertStreamError(final Connection connection, final Condition condition) {
+        final ArgumentCaptor<StreamError> captor = ArgumentCaptor.forClass(StreamError.class);
+        Mockito.verify(connection).closeAsync(captor.capture());
+        Assert.assertEquals(captor.getValue().getCondition(), condition);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.csi.server;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.xml.namespace.QName;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.metrics.SimpleMetricsRegistry;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.LazyExtension;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.chatstates.model.ChatState;
+
+/**
+ * @author Christian Schudt
+ */
+public class ClientStateQueueTest {
+
+    private static final Jid ROMEO = Jid.of("romeo@example.net/orchard");
+
+    private static final Jid BENVOLIO = Jid.of("benvolio@example.net/balcony");
+
+    private Connection connection;
+
+    private SimpleMetricsRegistry metricsRegistry;
+
+    private ClientStateQueue queue;
+
+    @BeforeMethod
+    public void setUp() {
+        connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.write(Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+        metricsRegistry = new SimpleMetricsRegistry();
+        queue = new ClientStateQueue(() -> connection, null, element -> 100, 1000, Duration.ofMinutes(1),
+                metricsRegistry);
+    }
+
+    private static Presence presence(Jid from, Presence.Show show) {
+        Presence presence = new Presence(show);
+        presence.setFrom(from);
+        return presence;
+    }
+
+    private List<StreamElement> written() {
+        ArgumentCaptor<StreamElement> captor = ArgumentCaptor.forClass(StreamElement.class);
+        Mockito.verify(connection, Mockito.atLeast(0)).write(captor.capture());
+        return captor.getAllValues();
+    }
+
+    @Test
+    public void testActiveClientReceivesEverything() {
+        Message chatState = new Message(ROMEO);
+        chatState.addExtension(ChatState.COMPOSING);
+        queue.send(presence(ROMEO, Presence.Show.AWAY));
+        queue.send(chatState);
+
+        Assert.assertEquals(written().size(), 2);
+        Mockito.verify(connection, Mockito.times(2)).flush();
+    }
+
+    @Test
+    public void testPresencesAreCoalescedPerContact() {
+        queue.setActive(false);
+        queue.send(presence(ROMEO, Presence.Show.AWAY));
+        queue.send(presence(BENVOLIO, Presence.Show.DND));
+        Presence last = presence(ROMEO, Presence.Show.XA);
+        queue.send(last);
+
+        Assert.assertTrue(written().isEmpty());
+        Assert.assertEquals(queue.size(), 2);
+
+        queue.setActive(true);
+        List<StreamElement> written = written();
+        Assert.assertEquals(written.size(), 2);
+        Assert.assertEquals(((Presence) written.get(0)).getFrom(), BENVOLIO);
+        Assert.assertSame(written.get(1), last);
+        Assert.assertEquals(metricsRegistry.get("xmpp.server.csi.suppressed"), Long.valueOf(1));
+        Assert.assertEquals(metricsRegistry.get("xmpp.server.csi.bytes.saved"), Long.valueOf(100));
+    }
+
+    @Test
+    public void testChatStatesAreDropped() {
+        queue.setActive(false);
+        Message chatState = new Message(ROMEO);
+        chatState.addExtension(ChatState.COMPOSING);
+        queue.send(chatState);
+        queue.setActive(true);
+
+        Assert.assertTrue(written().isEmpty());
+        Assert.assertEquals(metricsRegistry.get("xmpp.server.csi.suppressed"), Long.valueOf(1));
+    }
+
+    @Test
+    public void testLazyChatStatesAreDroppedWithoutBinding() {
+        queue.setActive(false);
+        Message chatState = new Message(ROMEO);
+        LazyExtension extension = new LazyExtension("<composing xmlns=\"" + ChatState.NAMESPACE + "\"/>",
+                new QName(ChatState.NAMESPACE, "composing"), null, language -> {
+                    throw new AssertionError("Extension must not be bound.");
+                });
+        chatState.addExtension(extension);
+        queue.send(chatState);
+        queue.setActive(true);
+
+        Assert.assertTrue(written().isEmpty());
+        Assert.assertSame(chatState.getExtensions().get(0), extension);
+    }
+
+    @Test
+    public void testUrgentStanzaFlushesBuffer() {
+        queue.setActive(false);
+        Presence presence = presence(ROMEO, Presence.Show.AWAY);
+        queue.send(presence);
+        Message message = new Message(ROMEO, Message.Type.CHAT, "Hello");
+        message.addExtension(ChatState.ACTIVE);
+        queue.send(message);
+        IQ iq = new IQ(ROMEO, IQ.Type.GET, null);
+        queue.send(iq);
+
+        List<StreamElement> written = written();
+        Assert.assertEquals(written.size(), 3);
+        Assert.assertSame(written.get(0), presence);
+        Assert.assertSame(written.get(1), message);
+        Assert.assertSame(written.get(2), iq);
+        Assert.assertEquals(queue.size(), 0);
+        Assert.assertFalse(queue.isActive());
+    }
+
+    @Test
+    public void testByteBudgetFlushesBuffer() {
+        queue.setActive(false);
+        for (int i = 0; i < 10; i++) {
+            queue.send(presence(Jid.of("user" + i + "@example.net/r"), Presence.Show.AWAY));
+        }
+        Assert.assertTrue(written().isEmpty());
+        queue.send(presence(Jid.of("user10@example.net/r"), Presence.Show.AWAY));
+
+        Assert.assertEquals(written().size(), 11);
+        Assert.assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testTimeBudgetFlushesBuffer() throws InterruptedException {
+        queue = new ClientStateQueue(() -> connection, null, element -> 100, 1000, Duration.ofMillis(50),
+                metricsRegistry);
+        queue.setActive(false);
+        queue.send(presence(ROMEO, Presence.Show.AWAY));
+        Assert.assertTrue(written().isEmpty());
+
+        Mockito.verify(connection, Mockito.timeout(2000)).flush();
+        Assert.assertEquals(written().size(), 1);
+        Assert.assertEquals(metricsRegistry.get("xmpp.server.csi.flushes"), Long.valueOf(1));
+    }
+}
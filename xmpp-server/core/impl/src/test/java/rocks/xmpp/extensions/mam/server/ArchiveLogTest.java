@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+
+/**
+ * @author Christian Schudt
+ */
+public class ArchiveLogTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid ROMEO = Jid.of("romeo@montague.lit/orchard");
+
+    private static final Jid NURSE = Jid.of("nurse@capulet.lit/kitchen");
+
+    private static final Instant EPOCH = Instant.parse("2020-01-01T00:00:00Z");
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("archive");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Appends the messages 0..count-1 to Juliet's archive, one per second, alternately with Romeo and the nurse. The
+     * nurse's archive gets a message in between, so that Juliet's records are not contiguous.
+     */
+    private static List<String> fill(ArchiveLog archive, int count) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Jid with = i % 2 == 0 ? ROMEO : NURSE;
+            ids.add(archive.append(JULIET, with, bytes(i), EPOCH.plusSeconds(i)).getId());
+            archive.append(NURSE, JULIET, bytes(-i), EPOCH.plusSeconds(i));
+        }
+        return ids;
+    }
+
+    private static byte[] bytes(int i) {
+        return Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<Integer> messages(ArchivePage page) {
+        return page.getMessages().stream()
+                .map(message -> Integer.valueOf(new String(message.getMessage(), StandardCharsets.UTF_8)))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    @Test
+    public void testLastPage() throws IOException {
+        try (ArchiveLog archive = ArchiveLog.open(directory, 4, 64 * 1024)) {
+            fill(archive, 1000);
+            ArchivePage page = archive.query(JULIET, null, null, null, ResultSetManagement.forLastPage(50), 100);
+            Assert.assertEquals(messages(page), range(950, 1000));
+            Assert.assertFalse(page.isComplete());
+            ResultSetManagement rsm = page.getResultSetManagement();
+            Assert.assertEquals(rsm.getItemCount(), Integer.valueOf(1000));
+            Assert.assertEquals(rsm.getFirstItemIndex(), Integer.valueOf(950));
+
+            // Page backwards.
+            page = archive.query(JULIET, null, null, null, rsm.previousPage(50), 100);
+            Assert.assertEquals(messages(page), range(900, 950));
+            Assert.assertEquals(page.getMessages().get(0).getWith(), ROMEO);
+            Assert.assertEquals(page.getMessages().get(0).getTimestamp(), EPOCH.plusSeconds(900));
+        }
+    }
+
+    @Test
+    public void testPageForwards() throws IOException {
+        try (ArchiveLog archive = ArchiveLog.open(directory, 4, 64 * 1024)) {
+            fill(archive, 200);
+            List<Integer> all = new ArrayList<>();
+            ResultSetManagement rsm = ResultSetManagement.forFirstPage(30);
+            ArchivePage page;
+            do {
+                page = archive.query(JULIET, null, null, null, rsm, 100);
+                all.addAll(messages(page));
+                rsm = page.getResultSetManagement().nextPage(30);
+            } while (!page.isComplete());
+            Assert.assertEquals(all, range(0, 200));
+
+            // Without result set management, the oldest messages are returned, limited by the maximal page size.
+            page = archive.query(JULIET, null, null, null, null, 100);
+            Assert.assertEquals(messages(page), range(0, 100));
+        }
+    }
+
+    @Test
+    public void testTimeAndJidFilter() throws IOException {
+        try (ArchiveLog archive = ArchiveLog.open(directory, 4, 64 * 1024)) {
+            fill(archive, 200);
+            ArchivePage page = archive.query(JULIET, null, EPOCH.plusSeconds(100), EPOCH.plusSeconds(109), null, 100);
+            Assert.assertEquals(messages(page), range(100, 110));
+            Assert.assertEquals(page.getResultSetManagement().getItemCount(), Integer.valueOf(10));
+
+            page = archive.query(JULIET, ROMEO.asBareJid(), null, null, ResultSetManagement.forLastPage(3), 100);
+            Assert.assertEquals(messages(page), Arrays.asList(194, 196, 198));
+            Assert.assertFalse(page.isComplete());
+
+            page = archive.query(JULIET, NURSE, EPOCH.plusSeconds(190), null, ResultSetManagement.forFirstPage(10),
+                    100);
+            Assert.assertEquals(messages(page), Arrays.asList(191, 193, 195, 197, 199));
+            Assert.assertTrue(page.isComplete());
+
+            page = archive.query(JULIET, Jid.of("romeo@montague.lit/balcony"), null, null, null, 100);
+            Assert.assertTrue(page.getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void testIds() throws IOException {
+        // Ids are unique per shard, so that the nurse's ids are not in Juliet's archive.
+        try (ArchiveLog archive = ArchiveLog.open(directory, 1, 64 * 1024)) {
+            List<String> ids = fill(archive, 100);
+            ArchivePage page = archive.query(JULIET, null, null, null, ResultSetManagement.forNextPage(5, ids.get(40)),
+                    100);
+            Assert.assertEquals(messages(page), range(41, 46));
+            page = archive.query(JULIET, null, null, null, ResultSetManagement.forPreviousPage(5, ids.get(40)), 100);
+            Assert.assertEquals(messages(page), range(35, 40));
+
+            String nurseId = archive.query(NURSE, null, null, null, null, 1).getMessages().get(0).getId();
+            Assert.assertThrows(NoSuchElementException.class, () -> archive.query(JULIET, null, null, null,
+                    ResultSetManagement.forNextPage(5, nurseId), 100));
+            Assert.assertThrows(NoSuchElementException.class, () -> archive.query(JULIET, null, null, null,
+                    ResultSetManagement.forNextPage(5, "unknown"), 100));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        List<String> ids;
+        try (ArchiveLog archive = ArchiveLog.open(directory, 4, 4096)) {
+            ids = fill(archive, 300);
+            Assert.assertTrue(archive.getSegmentCount() > 4);
+        }
+        try (ArchiveLog archive = ArchiveLog.open(directory, 4, 4096)) {
+            ArchivePage page = archive.query(JULIET, null, null, null, ResultSetManagement.forLastPage(10), 100);
+            Assert.assertEquals(messages(page), range(290, 300));
+            Assert.assertEquals(page.getMessages().get(9).getId(), ids.get(299));
+            String id = archive.append(JULIET, ROMEO, bytes(300), EPOCH.plusSeconds(300)).getId();
+            Assert.assertTrue(Long.parseLong(id) > Long.parseLong(ids.get(299)));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        try (ArchiveLog archive = ArchiveLog.open(directory, 1, 4096)) {
+            fill(archive, 300);
+            int segments = archive.getSegmentCount();
+            Assert.assertTrue(archive.compact(EPOCH.plusSeconds(150)) > 0);
+            Assert.assertTrue(archive.getSegmentCount() < segments);
+
+            ArchivePage page = archive.query(JULIET, null, null, null, ResultSetManagement.forFirstPage(1000), 1000);
+            List<Integer> remaining = messages(page);
+            Assert.assertTrue(remaining.get(0) > 0 && remaining.get(0) <= 150);
+            Assert.assertEquals(remaining, range(remaining.get(0), 300));
+            Assert.assertEquals(page.getResultSetManagement().getItemCount(), Integer.valueOf(remaining.size()));
+
+            page = archive.query(JULIET, null, EPOCH, null, ResultSetManagement.forFirstPage(1), 10);
+            Assert.assertEquals(messages(page), remaining.subList(0, 1));
+
+            // Everything is removed, except the newest segment.
+            archive.compact(EPOCH.plusSeconds(1000));
+            Assert.assertEquals(archive.getSegmentCount(), 1);
+            page = archive.query(JULIET, null, null, null, ResultSetManagement.forLastPage(1), 10);
+            Assert.assertEquals(messages(page), Arrays.asList(299));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.mam.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.MessageEvent;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.mam.model.MessageArchive;
+import rocks.xmpp.extensions.rsm.model.ResultSetManagement;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class MessageArchiveServiceTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid NURSE = Jid.of("nurse@capulet.lit/kitchen");
+
+    private static final Jid ROMEO = Jid.of("romeo@montague.lit/orchard");
+
+    private final List<StreamElement> delivered = new ArrayList<>();
+
+    private Path directory;
+
+    @Mock
+    private ServerConfiguration serverConfiguration;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @InjectMocks
+    private MessageArchiveService messageArchiveService;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("archive");
+        MockitoAnnotations.openMocks(this);
+        delivered.clear();
+        Mockito.when(serverConfiguration.getDomain()).thenReturn(Jid.of("capulet.lit"));
+        Mockito.when(serverConfiguration.getMessageArchiveDirectory()).thenReturn(directory);
+        Mockito.when(serverConfiguration.getMarshaller()).thenAnswer(invocation -> createMarshaller());
+        Mockito.when(serverConfiguration.getUnmarshaller(Mockito.any())).thenAnswer(invocation -> createUnmarshaller());
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.send(Mockito.any())).thenAnswer(invocation -> {
+            delivered.add(invocation.getArgument(0));
+            return null;
+        });
+        Mockito.when(sessionManager.getSession(JULIET)).thenReturn(session);
+        messageArchiveService.init();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        messageArchiveService.destroy();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static Marshaller createMarshaller() {
+        try {
+            Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Unmarshaller createUnmarshaller() {
+        try {
+            return JAXB_CONTEXT.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void send(Jid from, Jid to, Message.Type type, String body) {
+        Message message = new Message(to, type, body);
+        message.setFrom(from);
+        messageArchiveService.handleOutboundMessage(new MessageEvent(this, message, false));
+    }
+
+    private IQ query(Jid to, MessageArchive.Query query) {
+        IQ iq = IQ.set(query);
+        iq.setFrom(JULIET);
+        iq.setTo(to);
+        return messageArchiveService.handleRequest(iq);
+    }
+
+    private List<MessageArchive.Result> results() {
+        List<MessageArchive.Result> results = new ArrayList<>();
+        for (StreamElement element : delivered) {
+            Message message = (Message) element;
+            Assert.assertEquals(message.getTo(), JULIET);
+            results.add(message.getExtension(MessageArchive.Result.class));
+        }
+        return results;
+    }
+
+    @Test
+    public void testArchiveAndQuery() {
+        send(JULIET, ROMEO, Message.Type.CHAT, "Wherefore art thou?");
+        send(NURSE, JULIET.asBareJid(), Message.Type.CHAT, "Madam!");
+        send(JULIET, NURSE, Message.Type.CHAT, "Anon, good nurse!");
+
+        IQ result = query(null, new MessageArchive.Query("q1", null, null, null, null));
+
+        Assert.assertEquals(result.getType(), IQ.Type.RESULT);
+        MessageArchive.Fin fin = result.getExtension(MessageArchive.Fin.class);
+        Assert.assertTrue(fin.isComplete());
+        Assert.assertEquals(fin.getResultSetManagement().getItemCount(), Integer.valueOf(3));
+        List<MessageArchive.Result> results = results();
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertEquals(results.get(0).getQueryId(), "q1");
+        Assert.assertEquals(results.get(0).getId(), fin.getResultSetManagement().getFirstItem());
+        Assert.assertEquals(results.get(2).getId(), fin.getResultSetManagement().getLastItem());
+        Message archived = (Message) results.get(1).getForwarded().getStanza();
+        Assert.assertEquals(archived.getBody(), "Madam!");
+        Assert.assertEquals(archived.getFrom(), NURSE);
+        Assert.assertNotNull(results.get(1).getForwarded().getDelayedDelivery().getTimeStamp());
+
+        // The nurse's message has also been archived for the nurse, Romeo is not a local user.
+        delivered.clear();
+        query(null, new MessageArchive.Query(null, ROMEO.asBareJid(), null, null,
+                ResultSetManagement.forLastPage(10)));
+        Assert.assertEquals(results().size(), 1);
+    }
+
+    @Test
+    public void testInboundMessagesFromRemoteUsersAreArchived() {
+        Message message = new Message(JULIET, Message.Type.CHAT, "I am here!");
+        message.setFrom(ROMEO);
+        messageArchiveService.handleInboundMessage(new MessageEvent(this, message, true));
+        // Local messages have already been archived for both parties, when they were sent.
+        Message local = new Message(JULIET, Message.Type.CHAT, "Madam!");
+        local.setFrom(NURSE);
+        messageArchiveService.handleInboundMessage(new MessageEvent(this, local, true));
+
+        query(null, new MessageArchive.Query(null, null, null, null, null));
+
+        List<MessageArchive.Result> results = results();
+        Assert.assertEquals(results.size(), 1);
+        Message archived = (Message) results.get(0).getForwarded().getStanza();
+        Assert.assertEquals(archived.getBody(), "I am here!");
+        Assert.assertEquals(archived.getFrom(), ROMEO);
+    }
+
+    @Test
+    public void testOnlyMessagesWithBodyAreArchived() {
+        send(JULIET, NURSE, Message.Type.HEADLINE, "Headline");
+        send(JULIET, NURSE, Message.Type.GROUPCHAT, "Groupchat");
+        send(JULIET, NURSE, Message.Type.CHAT, null);
+
+        IQ result = query(JULIET.asBareJid(), new MessageArchive.Query(null, null, null, null, null));
+
+        Assert.assertTrue(result.getExtension(MessageArchive.Fin.class).isComplete());
+        Assert.assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testErrors() {
+        send(JULIET, NURSE, Message.Type.CHAT, "Anon, good nurse!");
+        Assert.assertEquals(query(NURSE.asBareJid(), new MessageArchive.Query(null, null, null, null, null))
+                .getError().getCondition(), Condition.FORBIDDEN);
+        Assert.assertEquals(query(null, new MessageArchive.Query(null, null, null, null,
+                ResultSetManagement.forNextPage(10, "12345"))).getError().getCondition(), Condition.ITEM_NOT_FOUND);
+        Assert.assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testDisabledWithoutDirectory() {
+        messageArchiveService.destroy();
+        messageArchiveService = new MessageArchiveService();
+        MockitoAnnotations.openMocks(this);
+        messageArchiveService.init();
+
+        Assert.assertFalse(messageArchiveService.isEnabled());
+        Assert.assertEquals(query(null, new MessageArchive.Query(null, null, null, null, null)).getError()
+                .getCondition(), Condition.SERVICE_UNAVAILABLE);
+    }
+}
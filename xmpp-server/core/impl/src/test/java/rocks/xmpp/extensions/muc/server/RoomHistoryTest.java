@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.delay.model.DelayedDelivery;
+import rocks.xmpp.extensions.muc.model.DiscussionHistory;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class RoomHistoryTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final Jid ROOM = Jid.of("coven@chat.shakespeare.lit");
+
+    private static final Instant NOW = Instant.parse("2019-01-01T12:00:00Z");
+
+    private int encoded;
+
+    private EncodedStanza.Template encode(Message message) throws StreamErrorException {
+        encoded++;
+        try {
+            Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return EncodedStanza.encode(message, XMLOutputFactory.newFactory(), marshaller);
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static RoomHistory history(int capacity, int messages) {
+        RoomHistory history = new RoomHistory(capacity);
+        for (int i = 0; i < messages; i++) {
+            Message message = new Message(null, Message.Type.GROUPCHAT, String.valueOf(i));
+            message.setFrom(ROOM.withResource("firstwitch"));
+            history.add(message, 10, NOW.minusSeconds(messages - i));
+        }
+        return history;
+    }
+
+    private static List<String> bodies(Deque<EncodedStanza.Template> templates) {
+        return templates.stream()
+                .map(template -> ((Message) template.to(ROOM).getStanza()).getBody())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRingBufferKeepsNewestMessages() throws StreamErrorException {
+        RoomHistory history = history(3, 5);
+
+        Assert.assertEquals(history.size(), 3);
+        Deque<EncodedStanza.Template> templates = history.get(null, ROOM, NOW, this::encode);
+        Assert.assertEquals(bodies(templates), List.of("2", "3", "4"));
+        Message first = (Message) templates.getFirst().to(ROOM).getStanza();
+        Assert.assertEquals(first.getExtension(DelayedDelivery.class).getTimeStamp(), NOW.minusSeconds(3));
+    }
+
+    @Test
+    public void testDelayedMessagesAreEncodedOnce() throws StreamErrorException {
+        RoomHistory history = history(3, 3);
+        history.get(null, ROOM, NOW, this::encode);
+        history.get(null, ROOM, NOW, this::encode);
+
+        Assert.assertEquals(encoded, 3);
+    }
+
+    @Test
+    public void testLimits() throws StreamErrorException {
+        RoomHistory history = history(10, 10);
+
+        Assert.assertEquals(bodies(history.get(DiscussionHistory.forMaxMessages(2), ROOM, NOW, this::encode)),
+                List.of("8", "9"));
+        Assert.assertEquals(bodies(history.get(DiscussionHistory.forMaxChars(35), ROOM, NOW, this::encode)),
+                List.of("7", "8", "9"));
+        Assert.assertEquals(bodies(history.get(DiscussionHistory.forSeconds(2), ROOM, NOW, this::encode)),
+                List.of("8", "9"));
+        Assert.assertEquals(bodies(history.get(DiscussionHistory.since(NOW.minusSeconds(1)), ROOM, NOW,
+                this::encode)), List.of("9"));
+        Assert.assertTrue(history.get(DiscussionHistory.none(), ROOM, NOW, this::encode).isEmpty());
+    }
+
+    @Test
+    public void testShrink() throws StreamErrorException {
+        RoomHistory history = history(5, 7);
+        history.setCapacity(2);
+
+        Assert.assertEquals(bodies(history.get(null, ROOM, NOW, this::encode)), List.of("5", "6"));
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.muc.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.extensions.delay.model.DelayedDelivery;
+import rocks.xmpp.extensions.muc.model.DiscussionHistory;
+import rocks.xmpp.extensions.muc.model.Muc;
+import rocks.xmpp.extensions.muc.model.Role;
+import rocks.xmpp.extensions.muc.model.RoomConfiguration;
+import rocks.xmpp.extensions.muc.model.owner.MucOwner;
+import rocks.xmpp.extensions.muc.model.user.MucUser;
+import rocks.xmpp.extensions.muc.model.user.Status;
+import rocks.xmpp.extensions.muc.server.spi.RoomConfigurationProvider;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class RoomTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final Jid ROOM = Jid.of("coven@chat.shakespeare.lit");
+
+    private static final Jid CRONE = Jid.of("crone1@shakespeare.lit/desktop");
+
+    private static final Jid WITCH = Jid.of("wiccarocks@shakespeare.lit/laptop");
+
+    private static final Jid HAG = Jid.of("hag66@shakespeare.lit/pda");
+
+    private final Map<Jid, List<StreamElement>> delivered = new HashMap<>();
+
+    private final Set<Jid> unreachable = new HashSet<>();
+
+    private final AtomicInteger marshallers = new AtomicInteger();
+
+    private RoomConfigurationProvider configurationProvider;
+
+    private Room room;
+
+    @BeforeMethod
+    public void setUp() {
+        delivered.clear();
+        unreachable.clear();
+        marshallers.set(0);
+        configurationProvider = Mockito.mock(RoomConfigurationProvider.class);
+        room = newRoom((to, element) -> {
+            delivered.computeIfAbsent(to, key -> new ArrayList<>()).add(element);
+            return !unreachable.contains(to);
+        });
+    }
+
+    private Room newRoom(Room.Delivery delivery) {
+        return new Room(ROOM, Room.defaultConfiguration(ROOM, CRONE), true, delivery, this::createMarshaller,
+                configurationProvider);
+    }
+
+    private Marshaller createMarshaller() {
+        marshallers.incrementAndGet();
+        try {
+            Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Presence join(Jid from, String nick, DiscussionHistory history) {
+        Presence presence = new Presence(ROOM.withResource(nick));
+        presence.setFrom(from);
+        presence.addExtension(Muc.withHistory(history));
+        return presence;
+    }
+
+    private static Message groupchat(Jid from, String body) {
+        Message message = new Message(ROOM, Message.Type.GROUPCHAT, body);
+        message.setFrom(from);
+        return message;
+    }
+
+    private List<Stanza> received(Jid jid) {
+        List<Stanza> stanzas = new ArrayList<>();
+        for (StreamElement element : delivered.getOrDefault(jid, Collections.emptyList())) {
+            if (element instanceof EncodedStanza) {
+                Assert.assertEquals(((EncodedStanza) element).getTo(), jid);
+                stanzas.add(((EncodedStanza) element).getStanza());
+            } else {
+                stanzas.add((Stanza) element);
+            }
+        }
+        return stanzas;
+    }
+
+    @Test
+    public void testCreateInstantRoom() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+
+        List<Stanza> stanzas = received(CRONE);
+        Assert.assertEquals(stanzas.size(), 2);
+        Presence self = (Presence) stanzas.get(0);
+        Assert.assertEquals(self.getFrom(), ROOM.withResource("firstwitch"));
+        MucUser mucUser = self.getExtension(MucUser.class);
+        Assert.assertEquals(mucUser.getStatusCodes(), new HashSet<>(List.of(Status.SELF_PRESENCE,
+                Status.NEW_ROOM_CREATED)));
+        Assert.assertEquals(mucUser.getItem().getRole(), Role.MODERATOR);
+        Assert.assertEquals(mucUser.getItem().getJid(), CRONE);
+        // The Muc element of the join request is not forwarded.
+        Assert.assertNull(self.getExtension(Muc.class));
+        Message subject = (Message) stanzas.get(1);
+        Assert.assertEquals(subject.getFrom(), ROOM);
+        Assert.assertEquals(subject.getSubject(), "");
+    }
+
+    @Test
+    public void testJoinReceivesOccupantsHistoryAndSubject() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(groupchat(CRONE, "1"));
+        room.process(groupchat(CRONE, "2"));
+        room.process(groupchat(CRONE, "3"));
+        delivered.clear();
+
+        room.process(join(WITCH, "secondwitch", DiscussionHistory.forMaxMessages(2)));
+
+        List<Stanza> stanzas = received(WITCH);
+        Assert.assertEquals(stanzas.size(), 5);
+        // The room is semi-anonymous: participants don't see the real JID of others.
+        Presence existing = (Presence) stanzas.get(0);
+        Assert.assertEquals(existing.getFrom(), ROOM.withResource("firstwitch"));
+        Assert.assertNull(existing.getExtension(MucUser.class).getItem().getJid());
+        Presence self = (Presence) stanzas.get(1);
+        Assert.assertEquals(self.getExtension(MucUser.class).getStatusCodes(),
+                Collections.singleton(Status.SELF_PRESENCE));
+        Assert.assertEquals(((Message) stanzas.get(2)).getBody(), "2");
+        Assert.assertEquals(((Message) stanzas.get(3)).getBody(), "3");
+        Assert.assertEquals(stanzas.get(3).getFrom(), ROOM.withResource("firstwitch"));
+        Assert.assertEquals(stanzas.get(3).getExtension(DelayedDelivery.class).getFrom(), ROOM);
+        Assert.assertNotNull(((Message) stanzas.get(4)).getSubject());
+
+        // ...but moderators do.
+        List<Stanza> moderator = received(CRONE);
+        Assert.assertEquals(moderator.size(), 1);
+        Assert.assertEquals(moderator.get(0).getExtension(MucUser.class).getItem().getJid(), WITCH);
+    }
+
+    @Test
+    public void testNicknameConflict() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(join(WITCH, "firstwitch", null));
+
+        List<Stanza> stanzas = received(WITCH);
+        Assert.assertEquals(stanzas.size(), 1);
+        Assert.assertEquals(stanzas.get(0).getError().getCondition(), Condition.CONFLICT);
+        Assert.assertEquals(room.getOccupantCount(), 1);
+    }
+
+    @Test
+    public void testGroupchatFromNonOccupant() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(groupchat(WITCH, "Hello"));
+
+        Assert.assertEquals(received(WITCH).get(0).getError().getCondition(), Condition.NOT_ACCEPTABLE);
+        Assert.assertEquals(room.getHistorySize(), 0);
+    }
+
+    @Test
+    public void testChangeNickname() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(join(WITCH, "secondwitch", null));
+        delivered.clear();
+
+        room.process(join(WITCH, "oldhag", null));
+
+        List<Stanza> stanzas = received(CRONE);
+        Assert.assertEquals(stanzas.size(), 2);
+        Presence unavailable = (Presence) stanzas.get(0);
+        Assert.assertEquals(unavailable.getType(), Presence.Type.UNAVAILABLE);
+        Assert.assertEquals(unavailable.getFrom(), ROOM.withResource("secondwitch"));
+        Assert.assertEquals(unavailable.getExtension(MucUser.class).getItem().getNick(), "oldhag");
+        Assert.assertTrue(unavailable.getExtension(MucUser.class).getStatusCodes().contains(Status.NICK_CHANGED));
+        Assert.assertEquals(stanzas.get(1).getFrom(), ROOM.withResource("oldhag"));
+    }
+
+    @Test
+    public void testPrivateMessage() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(join(WITCH, "secondwitch", null));
+        delivered.clear();
+
+        Message message = new Message(ROOM.withResource("firstwitch"), Message.Type.CHAT, "I'll give thee a wind.");
+        message.setFrom(WITCH);
+        room.process(message);
+
+        List<Stanza> stanzas = received(CRONE);
+        Assert.assertEquals(stanzas.size(), 1);
+        Assert.assertEquals(stanzas.get(0).getFrom(), ROOM.withResource("secondwitch"));
+        Assert.assertEquals(stanzas.get(0).getTo(), CRONE);
+        Assert.assertNotNull(stanzas.get(0).getExtension(MucUser.class));
+    }
+
+    @Test
+    public void testUnreachableOccupantIsRemoved() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(join(WITCH, "secondwitch", null));
+        room.process(join(HAG, "thirdwitch", null));
+        unreachable.add(HAG);
+        delivered.clear();
+
+        room.process(groupchat(CRONE, "Thrice the brinded cat hath mew'd."));
+
+        Assert.assertEquals(room.getOccupantCount(), 2);
+        List<Stanza> stanzas = received(WITCH);
+        Assert.assertEquals(stanzas.size(), 2);
+        Presence removed = (Presence) stanzas.get(1);
+        Assert.assertEquals(removed.getFrom(), ROOM.withResource("thirdwitch"));
+        Assert.assertEquals(removed.getType(), Presence.Type.UNAVAILABLE);
+        Assert.assertEquals(removed.getExtension(MucUser.class).getStatusCodes(),
+                Collections.singleton(Status.REMOVED_DUE_TO_ERROR));
+    }
+
+    @Test
+    public void testLeave() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        Presence leave = new Presence(ROOM.withResource("firstwitch"), Presence.Type.UNAVAILABLE, null);
+        leave.setFrom(CRONE);
+        room.process(leave);
+
+        Assert.assertTrue(room.isEmpty());
+        Presence self = (Presence) received(CRONE).get(2);
+        Assert.assertEquals(self.getType(), Presence.Type.UNAVAILABLE);
+        Assert.assertEquals(self.getExtension(MucUser.class).getItem().getRole(), Role.NONE);
+    }
+
+    @Test
+    public void testOwnerConfiguresPersistentRoom() throws StreamErrorException {
+        room.process(join(CRONE, "firstwitch", null));
+        room.process(join(WITCH, "secondwitch", null));
+        delivered.clear();
+
+        IQ forbidden = IQ.set(ROOM, MucOwner.withConfiguration(
+                RoomConfiguration.builder().persistent(true).build().getDataForm()));
+        forbidden.setFrom(WITCH);
+        room.process(forbidden);
+        Assert.assertEquals(received(WITCH).get(0).getError().getCondition(), Condition.FORBIDDEN);
+
+        IQ iq = IQ.set(ROOM, MucOwner.withConfiguration(
+                RoomConfiguration.builder().persistent(true).name("The Coven").build().getDataForm()));
+        iq.setFrom(CRONE);
+        room.process(iq);
+
+        Assert.assertEquals(((IQ) received(CRONE).get(0)).getType(), IQ.Type.RESULT);
+        Assert.assertTrue(room.isPersistent());
+        Assert.assertEquals(room.getName(), "The Coven");
+        Mockito.verify(configurationProvider).store(Mockito.eq(ROOM), Mockito.argThat(configuration ->
+                configuration.isPersistent() && configuration.getOwners().contains(CRONE.asBareJid())));
+        Assert.assertTrue(received(WITCH).get(1).getExtension(MucUser.class).getStatusCodes()
+                .contains(Status.ROOM_CONFIGURATION_CHANGED));
+    }
+
+    /**
+     * Simulates a large room in-process and verifies that the work per stanza doesn't depend on the number of
+     * occupants, i.e. that nothing is marshalled per occupant.
+     */
+    @Test
+    public void testLargeRoomMarshalsOncePerBroadcast() throws StreamErrorException {
+        final int occupants = 10_000;
+        final int messages = 100;
+        final AtomicInteger deliveries = new AtomicInteger();
+        final Room largeRoom = newRoom((to, element) -> {
+            deliveries.incrementAndGet();
+            return true;
+        });
+
+        for (int i = 0; i < occupants; i++) {
+            largeRoom.process(join(Jid.of("user" + i + "@shakespeare.lit/resource"), "user" + i,
+                    DiscussionHistory.none()));
+        }
+        Assert.assertEquals(largeRoom.getOccupantCount(), occupants);
+        // Each join encodes the new occupant's presence (with and without real JID) and its self-presence, plus the
+        // subject once. The presences of existing occupants are reused.
+        Assert.assertTrue(marshallers.get() <= 3 * occupants + 1, "Marshallers: " + marshallers.get());
+
+        marshallers.set(0);
+        deliveries.set(0);
+        for (int i = 0; i < messages; i++) {
+            largeRoom.process(groupchat(Jid.of("user" + i + "@shakespeare.lit/resource"), "Message " + i));
+        }
+        Assert.assertEquals(marshallers.get(), messages);
+        Assert.assertEquals(deliveries.get(), messages * occupants);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.privacy.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.extensions.privacy.model.PrivacyRule;
+import rocks.xmpp.im.roster.model.Contact;
+import rocks.xmpp.im.roster.model.SubscriptionState;
+
+/**
+ * @author Christian Schudt
+ */
+public class CompiledPrivacyListTest {
+
+    private static final System.Logger logger = System.getLogger(CompiledPrivacyListTest.class.getName());
+
+    private static final Jid ROMEO = Jid.of("romeo@montague.lit/orchard");
+
+    private static final Jid MERCUTIO = Jid.of("mercutio@montague.lit/garden");
+
+    @Test
+    public void testRuleOrder() {
+        CompiledPrivacyList list = new CompiledPrivacyList(Arrays.asList(
+                PrivacyRule.of(PrivacyRule.Action.DENY, 2),
+                PrivacyRule.of(ROMEO.asBareJid(), PrivacyRule.Action.ALLOW, 1)));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, ROMEO, () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, MERCUTIO, () -> null));
+    }
+
+    @Test
+    public void testJidForms() {
+        CompiledPrivacyList list = new CompiledPrivacyList(Arrays.asList(
+                PrivacyRule.of(ROMEO, PrivacyRule.Action.ALLOW, 1),
+                PrivacyRule.of(ROMEO.asBareJid(), PrivacyRule.Action.DENY, 2),
+                PrivacyRule.of(Jid.ofDomainAndResource("capulet.lit", "balcony"), PrivacyRule.Action.DENY, 3),
+                PrivacyRule.of(Jid.ofDomain("montague.lit"), PrivacyRule.Action.DENY, 4)));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.IQ, ROMEO, () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.IQ, ROMEO.withResource("street"), () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.IQ, MERCUTIO, () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.IQ, Jid.of("nurse@capulet.lit/balcony"),
+                () -> null));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.IQ, Jid.of("nurse@capulet.lit/chamber"),
+                () -> null));
+    }
+
+    @Test
+    public void testStanzaKinds() {
+        CompiledPrivacyList list = new CompiledPrivacyList(Arrays.asList(
+                PrivacyRule.blockMessagesFrom(ROMEO.asBareJid(), 1),
+                PrivacyRule.blockAllCommunicationWith(MERCUTIO.asBareJid(), 2)));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, ROMEO, () -> null));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.PRESENCE_IN, ROMEO, () -> null));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.ALL, ROMEO, () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.PRESENCE_OUT, MERCUTIO, () -> null));
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.ALL, MERCUTIO, () -> null));
+
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(new Message(), true), CompiledPrivacyList.Kind.MESSAGE);
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(new Message(), false), CompiledPrivacyList.Kind.ALL);
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(IQ.get(ROMEO, new Object()), true),
+                CompiledPrivacyList.Kind.IQ);
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(new Presence(), true), CompiledPrivacyList.Kind.PRESENCE_IN);
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(new Presence(Presence.Type.UNAVAILABLE), false),
+                CompiledPrivacyList.Kind.PRESENCE_OUT);
+        Assert.assertEquals(CompiledPrivacyList.Kind.of(new Presence(Presence.Type.SUBSCRIBE), true),
+                CompiledPrivacyList.Kind.ALL);
+    }
+
+    @Test
+    public void testRosterRules() {
+        CompiledPrivacyList list = new CompiledPrivacyList(Arrays.asList(
+                PrivacyRule.of(ROMEO.asBareJid(), PrivacyRule.Action.ALLOW, 1),
+                PrivacyRule.blockMessagesFromRosterGroup("Enemies", 2),
+                PrivacyRule.blockMessagesFromEntitiesWithSubscription(SubscriptionState.Subscription.NONE, 3)));
+        AtomicInteger rosterLookups = new AtomicInteger();
+        Contact enemy = new Contact(MERCUTIO.asBareJid(), null, false, false, SubscriptionState.Subscription.BOTH,
+                Collections.singleton("Enemies"));
+        Contact friend = new Contact(MERCUTIO.asBareJid(), null, false, false, SubscriptionState.Subscription.BOTH,
+                Collections.singleton("Friends"));
+
+        // The JID rule has a lower order than the roster rules, so the roster isn't needed.
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, ROMEO, () -> {
+            rosterLookups.incrementAndGet();
+            return enemy;
+        }));
+        Assert.assertEquals(rosterLookups.get(), 0);
+
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, MERCUTIO, () -> enemy));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, MERCUTIO, () -> friend));
+        // Entities, which are not in the roster, have subscription 'none'.
+        Assert.assertTrue(list.isDenied(CompiledPrivacyList.Kind.MESSAGE, MERCUTIO, () -> null));
+        Assert.assertFalse(list.isDenied(CompiledPrivacyList.Kind.IQ, MERCUTIO, () -> null));
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkLargeList() {
+        List<PrivacyRule> rules = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rules.add(PrivacyRule.of(Jid.of("user" + i + "@montague.lit"), PrivacyRule.Action.DENY, i + 1));
+        }
+        rules.add(PrivacyRule.of(PrivacyRule.Action.ALLOW, 10001));
+        CompiledPrivacyList list = new CompiledPrivacyList(rules);
+        Jid[] contacts = new Jid[20000];
+        for (int i = 0; i < contacts.length; i++) {
+            contacts[i] = Jid.of("user" + i + "@montague.lit/resource");
+        }
+
+        int denied = 0;
+        long compiled = System.nanoTime();
+        for (Jid contact : contacts) {
+            if (list.isDenied(CompiledPrivacyList.Kind.MESSAGE, contact, () -> null)) {
+                denied++;
+            }
+        }
+        compiled = System.nanoTime() - compiled;
+        Assert.assertEquals(denied, 10000);
+
+        // Evaluate the ordered rules one after the other.
+        denied = 0;
+        long ordered = System.nanoTime();
+        for (Jid contact : contacts) {
+            String bareJid = contact.asBareJid().toEscapedString();
+            for (PrivacyRule rule : rules) {
+                if (rule.getType() == null || bareJid.equals(rule.getValue())) {
+                    if (rule.getAction() == PrivacyRule.Action.DENY) {
+                        denied++;
+                    }
+                    break;
+                }
+            }
+        }
+        ordered = System.nanoTime() - ordered;
+        Assert.assertEquals(denied, 10000);
+        logger.log(System.Logger.Level.INFO, String.format(Locale.ROOT,
+                "Privacy list with %d rules, %d stanzas: %d us compiled, %d us ordered.", rules.size(),
+                contacts.length, compiled / 1000, ordered / 1000));
+    }
+}
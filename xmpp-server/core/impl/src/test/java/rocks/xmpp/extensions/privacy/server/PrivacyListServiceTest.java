@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.privacy.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.privacy.model.Privacy;
+import rocks.xmpp.extensions.privacy.model.PrivacyList;
+import rocks.xmpp.extensions.privacy.model.PrivacyRule;
+import rocks.xmpp.im.roster.server.ServerRosterManager;
+import rocks.xmpp.session.server.SessionManager;
+
+/**
+ * @author Christian Schudt
+ */
+public class PrivacyListServiceTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid JULIET_CHAMBER = Jid.of("juliet@capulet.lit/chamber");
+
+    private static final Jid ROMEO = Jid.of("romeo@montague.lit/orchard");
+
+    private final Map<Jid, String> activeLists = new HashMap<>();
+
+    private final Map<Jid, Session> sessions = new HashMap<>();
+
+    private final List<StreamElement> pushes = new ArrayList<>();
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private ServerRosterManager rosterManager;
+
+    @InjectMocks
+    private PrivacyListService privacyListService;
+
+    @BeforeMethod
+    public void setUp() {
+        privacyListService = new PrivacyListService();
+        MockitoAnnotations.openMocks(this);
+        activeLists.clear();
+        sessions.clear();
+        pushes.clear();
+        Mockito.when(sessionManager.getActivePrivacyList(Mockito.any()))
+                .thenAnswer(invocation -> activeLists.get(invocation.<Jid>getArgument(0)));
+        Mockito.when(sessionManager.getActivePrivacyLists(Mockito.any()))
+                .thenAnswer(invocation -> new HashMap<>(activeLists));
+        Mockito.when(sessionManager.setActivePrivacyList(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            Jid jid = invocation.getArgument(0);
+            String name = invocation.getArgument(1);
+            if (name != null) {
+                activeLists.put(jid, name);
+            } else {
+                activeLists.remove(jid);
+            }
+            return sessions.containsKey(jid);
+        });
+        Mockito.when(sessionManager.getUserSessions(Mockito.any()))
+                .thenAnswer(invocation -> new ArrayList<>(sessions.values()).stream());
+        connect(JULIET);
+        connect(JULIET_CHAMBER);
+    }
+
+    private void connect(Jid jid) {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getRemoteXmppAddress()).thenReturn(jid);
+        Mockito.when(session.send(Mockito.any())).thenAnswer(invocation -> {
+            pushes.add(invocation.getArgument(0));
+            return null;
+        });
+        sessions.put(jid, session);
+    }
+
+    private IQ request(Jid from, IQ.Type type, Privacy privacy) {
+        IQ iq = new IQ(from.asBareJid(), type, privacy, "id", from, null, null);
+        return privacyListService.handleRequest(iq);
+    }
+
+    private static Message message(Jid from, Jid to) {
+        Message message = new Message(to, Message.Type.CHAT, "Hi");
+        message.setFrom(from);
+        return message;
+    }
+
+    @Test
+    public void testActiveAndDefaultList() {
+        PrivacyList blockRomeo = new PrivacyList("block-romeo",
+                Collections.singleton(PrivacyRule.blockMessagesFrom(ROMEO.asBareJid(), 1)));
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, new Privacy(blockRomeo)).getType(), IQ.Type.RESULT);
+        // Each resource gets a privacy list push.
+        Assert.assertEquals(pushes.size(), 2);
+        Assert.assertFalse(privacyListService.isDenied(message(ROMEO, JULIET), true));
+
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, Privacy.withActive("block-romeo")).getType(),
+                IQ.Type.RESULT);
+        Assert.assertTrue(privacyListService.isDenied(message(ROMEO, JULIET), true));
+        Assert.assertFalse(privacyListService.isDenied(message(ROMEO, JULIET_CHAMBER), true));
+        Assert.assertFalse(privacyListService.isDenied(message(ROMEO, JULIET.asBareJid()), true));
+        // Presences and outbound messages are not affected.
+        Presence presence = new Presence(JULIET);
+        presence.setFrom(ROMEO);
+        Assert.assertFalse(privacyListService.isDenied(presence, true));
+        Assert.assertFalse(privacyListService.isDenied(message(JULIET, ROMEO), false));
+
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, Privacy.withDefault("block-romeo")).getType(),
+                IQ.Type.RESULT);
+        Assert.assertTrue(privacyListService.isDenied(message(ROMEO, JULIET_CHAMBER), true));
+        Assert.assertTrue(privacyListService.isDenied(message(ROMEO, JULIET.asBareJid()), true));
+
+        IQ result = request(JULIET, IQ.Type.GET, new Privacy());
+        Privacy privacy = result.getExtension(Privacy.class);
+        Assert.assertEquals(privacy.getActiveName(), "block-romeo");
+        Assert.assertEquals(privacy.getDefaultName(), "block-romeo");
+        Assert.assertEquals(privacy.getPrivacyLists().size(), 1);
+
+        // Decline the default list.
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, Privacy.withDefault("")).getError().getCondition(),
+                Condition.CONFLICT);
+        activeLists.put(JULIET_CHAMBER, "block-romeo");
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, Privacy.withDefault("")).getType(), IQ.Type.RESULT);
+        Assert.assertFalse(privacyListService.isDenied(message(ROMEO, JULIET.asBareJid()), true));
+    }
+
+    @Test
+    public void testEditList() {
+        PrivacyList list = new PrivacyList("list",
+                Collections.singleton(PrivacyRule.blockMessagesFrom(ROMEO.asBareJid(), 1)));
+        request(JULIET, IQ.Type.SET, new Privacy(list));
+        request(JULIET, IQ.Type.SET, Privacy.withActive("list"));
+        Assert.assertTrue(privacyListService.isDenied(message(ROMEO, JULIET), true));
+
+        // The edited list replaces the compiled list immediately.
+        PrivacyList editedList = new PrivacyList("list",
+                Collections.singleton(PrivacyRule.blockMessagesFrom(Jid.of("tybalt@capulet.lit"), 1)));
+        Assert.assertEquals(request(JULIET_CHAMBER, IQ.Type.SET, new Privacy(editedList)).getType(),
+                IQ.Type.RESULT);
+        Assert.assertFalse(privacyListService.isDenied(message(ROMEO, JULIET), true));
+        Assert.assertTrue(privacyListService.isDenied(message(Jid.of("tybalt@capulet.lit/street"), JULIET), true));
+
+        IQ result = request(JULIET, IQ.Type.GET, new Privacy(new PrivacyList("list")));
+        Assert.assertEquals(result.getExtension(Privacy.class).getPrivacyLists().get(0).getPrivacyRules(),
+                editedList.getPrivacyRules());
+
+        // The list is active for another resource.
+        Assert.assertEquals(request(JULIET_CHAMBER, IQ.Type.SET, new Privacy(new PrivacyList("list")))
+                .getError().getCondition(), Condition.CONFLICT);
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, new Privacy(new PrivacyList("list"))).getType(),
+                IQ.Type.RESULT);
+        Assert.assertNull(activeLists.get(JULIET));
+        Assert.assertEquals(request(JULIET, IQ.Type.GET, new Privacy(new PrivacyList("list")))
+                .getError().getCondition(), Condition.ITEM_NOT_FOUND);
+    }
+
+    @Test
+    public void testInvalidRequests() {
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, Privacy.withActive("unknown")).getError().getCondition(),
+                Condition.ITEM_NOT_FOUND);
+        Assert.assertEquals(request(JULIET, IQ.Type.SET, new Privacy()).getError().getCondition(),
+                Condition.BAD_REQUEST);
+        Assert.assertEquals(request(JULIET, IQ.Type.GET, new Privacy(new PrivacyList("a"), new PrivacyList("b")))
+                .getError().getCondition(), Condition.BAD_REQUEST);
+        IQ iq = new IQ(ROMEO.asBareJid(), IQ.Type.GET, new Privacy(), "id", JULIET, null, null);
+        Assert.assertEquals(privacyListService.handleRequest(iq).getError().getCondition(), Condition.FORBIDDEN);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.extensions.pubsub.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.Session;
+import rocks.xmpp.core.server.ServerConfiguration;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.extensions.caps.server.ServerEntityCapabilitiesManager;
+import rocks.xmpp.extensions.disco.model.info.InfoDiscovery;
+import rocks.xmpp.extensions.pubsub.model.Item;
+import rocks.xmpp.extensions.pubsub.model.PubSub;
+import rocks.xmpp.extensions.pubsub.model.event.Event;
+import rocks.xmpp.extensions.tune.model.Tune;
+import rocks.xmpp.im.roster.model.Contact;
+import rocks.xmpp.im.roster.model.SubscriptionState;
+import rocks.xmpp.im.roster.server.ServerRosterManager;
+import rocks.xmpp.im.roster.server.spi.IdGenerator;
+import rocks.xmpp.session.server.SessionManager;
+import rocks.xmpp.util.EncodedStanza;
+import rocks.xmpp.util.XmppUtils;
+
+/**
+ * @author Christian Schudt
+ */
+public class PersonalEventingServiceTest {
+
+    private static final JAXBContext JAXB_CONTEXT = XmppUtils.createContext(Collections.emptyList());
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid JULIET_CHAMBER = Jid.of("juliet@capulet.lit/chamber");
+
+    private static final Jid ROMEO = Jid.of("romeo@capulet.lit/orchard");
+
+    private static final Jid BENVOLIO = Jid.of("benvolio@capulet.lit/square");
+
+    private static final Jid NURSE = Jid.of("nurse@capulet.lit/kitchen");
+
+    private static final String NOTIFY = Tune.NAMESPACE + "+notify";
+
+    private final Map<Jid, List<StreamElement>> delivered = new HashMap<>();
+
+    @Mock
+    private ServerConfiguration serverConfiguration;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private ServerRosterManager rosterManager;
+
+    @Mock
+    private IdGenerator idGenerator;
+
+    @Spy
+    private ServerEntityCapabilitiesManager entityCapabilitiesManager;
+
+    @Spy
+    private DefaultPubSubItemProvider itemProvider;
+
+    @InjectMocks
+    private PersonalEventingService personalEventingService;
+
+    @BeforeMethod
+    public void setUp() {
+        entityCapabilitiesManager = new ServerEntityCapabilitiesManager();
+        itemProvider = new DefaultPubSubItemProvider();
+        MockitoAnnotations.openMocks(this);
+        delivered.clear();
+        Mockito.when(serverConfiguration.getDomain()).thenReturn(Jid.of("capulet.lit"));
+        Mockito.when(serverConfiguration.getMarshaller()).thenAnswer(invocation -> createMarshaller());
+        Mockito.when(serverConfiguration.getBackgroundExecutor()).thenReturn(Runnable::run);
+        Mockito.when(idGenerator.generateId()).thenReturn("generated");
+        for (Jid jid : Arrays.asList(JULIET, JULIET_CHAMBER, ROMEO, BENVOLIO, NURSE)) {
+            Session session = Mockito.mock(Session.class);
+            Mockito.when(session.send(Mockito.any())).thenAnswer(invocation -> {
+                delivered.computeIfAbsent(jid, key -> new ArrayList<>()).add(invocation.getArgument(0));
+                return null;
+            });
+            Mockito.when(sessionManager.getSession(jid)).thenReturn(session);
+        }
+        // Romeo and Benvolio are subscribed to Juliet's presence and vice versa, the nurse is not.
+        Mockito.doReturn(Arrays.asList(contact(ROMEO), contact(BENVOLIO))).when(rosterManager).getRosterItems("juliet");
+        Mockito.doReturn(Collections.singletonList(contact(JULIET))).when(rosterManager).getRosterItems("romeo");
+        Mockito.when(rosterManager.getRosterItem("juliet", ROMEO.asBareJid())).thenReturn(contact(ROMEO));
+        personalEventingService.init();
+    }
+
+    private static Contact contact(Jid jid) {
+        return new Contact(jid.asBareJid(), null, false, false, SubscriptionState.Subscription.BOTH,
+                Collections.emptyList());
+    }
+
+    private static Marshaller createMarshaller() {
+        try {
+            Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void advertise(Jid jid, String... features) {
+        entityCapabilitiesManager.writeEntityCapabilities(jid,
+                new InfoDiscovery(Collections.emptyList(), Arrays.asList(features)));
+    }
+
+    private IQ publish(Jid from, String id) {
+        IQ iq = IQ.set(PubSub.withPublish(Tune.NAMESPACE, id, new Tune("Yes", "Heart of the Sunrise"), null));
+        iq.setFrom(from);
+        iq.setTo(JULIET.asBareJid());
+        return personalEventingService.handleRequest(iq);
+    }
+
+    private List<EncodedStanza> notifications(Jid jid) {
+        List<EncodedStanza> notifications = new ArrayList<>();
+        for (StreamElement element : delivered.getOrDefault(jid, Collections.emptyList())) {
+            EncodedStanza encodedStanza = (EncodedStanza) element;
+            Assert.assertEquals(encodedStanza.getTo(), jid);
+            notifications.add(encodedStanza);
+        }
+        return notifications;
+    }
+
+    @Test
+    public void testPublishNotifiesInterestedContacts() {
+        advertise(ROMEO, NOTIFY);
+        advertise(JULIET_CHAMBER, NOTIFY);
+        advertise(BENVOLIO, "http://jabber.org/protocol/geoloc+notify");
+        advertise(NURSE, NOTIFY);
+        Mockito.clearInvocations(serverConfiguration);
+
+        IQ result = publish(JULIET, "current");
+
+        Assert.assertEquals(result.getType(), IQ.Type.RESULT);
+        Assert.assertEquals(result.getExtension(PubSub.class).getPublish().getItem().getId(), "current");
+
+        Assert.assertEquals(notifications(ROMEO).size(), 1);
+        Assert.assertEquals(notifications(JULIET_CHAMBER).size(), 1);
+        Assert.assertTrue(notifications(BENVOLIO).isEmpty());
+        Assert.assertTrue(notifications(NURSE).isEmpty());
+        Assert.assertTrue(notifications(JULIET).isEmpty());
+
+        EncodedStanza notification = notifications(ROMEO).get(0);
+        Assert.assertEquals(notification.toString(), "<message to=\"romeo@capulet.lit/orchard\" "
+                + "from=\"juliet@capulet.lit\" type=\"headline\"><event xmlns=\"http://jabber.org/protocol/pubsub#event\">"
+                + "<items node=\"http://jabber.org/protocol/tune\"><item id=\"current\">"
+                + "<tune xmlns=\"http://jabber.org/protocol/tune\"><artist>Yes</artist><title>Heart of the Sunrise</title>"
+                + "</tune></item></items></event></message>");
+        Message message = (Message) notification.getStanza();
+        Assert.assertEquals(message.getExtension(Event.class).getNode(), Tune.NAMESPACE);
+
+        // One marshaller for the stored payload, one for the notification to all recipients.
+        Mockito.verify(serverConfiguration, Mockito.times(2)).getMarshaller();
+    }
+
+    @Test
+    public void testPublishWithoutId() {
+        IQ result = publish(JULIET, null);
+        Assert.assertEquals(result.getExtension(PubSub.class).getPublish().getItem().getId(), "generated");
+        Assert.assertEquals(itemProvider.getItems(JULIET.asBareJid(), Tune.NAMESPACE).get(0).getId(), "generated");
+    }
+
+    @Test
+    public void testPublishToOtherUserIsForbidden() {
+        IQ result = publish(ROMEO, "current");
+        Assert.assertEquals(result.getError().getCondition(), Condition.FORBIDDEN);
+        Assert.assertTrue(itemProvider.getItems(JULIET.asBareJid(), Tune.NAMESPACE).isEmpty());
+    }
+
+    @Test
+    public void testNodeKeepsLastPublishedItem() {
+        publish(JULIET, "1");
+        publish(JULIET, "2");
+        List<Item> items = itemProvider.getItems(JULIET.asBareJid(), Tune.NAMESPACE);
+        Assert.assertEquals(items.size(), 1);
+        Assert.assertEquals(items.get(0).getId(), "2");
+    }
+
+    @Test
+    public void testRetrieveItems() {
+        publish(JULIET, "current");
+
+        IQ request = IQ.get(PubSub.withItems(Tune.NAMESPACE));
+        request.setFrom(ROMEO);
+        request.setTo(JULIET.asBareJid());
+        IQ result = personalEventingService.handleRequest(request);
+        Assert.assertEquals(result.getType(), IQ.Type.RESULT);
+        List<Item> items = result.getExtension(PubSub.class).getItems();
+        Assert.assertEquals(items.size(), 1);
+        Assert.assertEquals(items.get(0).getId(), "current");
+
+        request.setFrom(NURSE);
+        Assert.assertEquals(personalEventingService.handleRequest(request).getError().getCondition(),
+                Condition.NOT_AUTHORIZED);
+
+        IQ unknownNode = IQ.get(PubSub.withItems("urn:xmpp:unknown"));
+        unknownNode.setFrom(ROMEO);
+        unknownNode.setTo(JULIET.asBareJid());
+        Assert.assertEquals(personalEventingService.handleRequest(unknownNode).getError().getCondition(),
+                Condition.ITEM_NOT_FOUND);
+    }
+
+    @Test
+    public void testLastPublishedItemsAreSentToAvailableResource() {
+        publish(JULIET, "current");
+        Assert.assertTrue(notifications(ROMEO).isEmpty());
+
+        // Romeo becomes available and advertises interest in tunes.
+        advertise(ROMEO, NOTIFY);
+        Assert.assertEquals(notifications(ROMEO).size(), 1);
+        Assert.assertEquals(((Message) notifications(ROMEO).get(0).getStanza()).getFrom(), JULIET.asBareJid());
+
+        // Unchanged capabilities don't send the item again.
+        advertise(ROMEO, NOTIFY);
+        Assert.assertEquals(notifications(ROMEO).size(), 1);
+
+        // Juliet's other resource gets the item of her own node.
+        advertise(JULIET_CHAMBER, NOTIFY);
+        Assert.assertEquals(notifications(JULIET_CHAMBER).size(), 1);
+    }
+}
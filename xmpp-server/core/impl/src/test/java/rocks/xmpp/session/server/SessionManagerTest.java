@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.session.server;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.metrics.SimpleMetricsRegistry;
+import rocks.xmpp.core.net.Connection;
+import rocks.xmpp.core.server.ServerConfiguration;
+
+/**
+ * @author Christian Schudt
+ */
+public class SessionManagerTest {
+
+    private static final Jid JULIET = Jid.of("juliet@capulet.lit/balcony");
+
+    private static final Jid JULIET_CHAMBER = Jid.of("juliet@capulet.lit/chamber");
+
+    @Mock
+    private ServerConfiguration serverConfiguration;
+
+    @InjectMocks
+    private SessionManager sessionManager;
+
+    @BeforeMethod
+    public void setUp() {
+        sessionManager = new SessionManager();
+        MockitoAnnotations.openMocks(this);
+        Mockito.when(serverConfiguration.getMetricsRegistry()).thenReturn(new SimpleMetricsRegistry());
+        sessionManager.init();
+    }
+
+    private static InboundClientSession session(CompletableFuture<Void> closeFuture) {
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.closeFuture()).thenReturn(closeFuture);
+        InboundClientSession session = Mockito.mock(InboundClientSession.class);
+        Mockito.when(session.getConnection()).thenReturn(connection);
+        return session;
+    }
+
+    @Test
+    public void testUserSessions() {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        InboundClientSession balcony = session(closed);
+        InboundClientSession chamber = session(new CompletableFuture<>());
+        sessionManager.addSession(JULIET, balcony);
+        sessionManager.addSession(JULIET_CHAMBER, chamber);
+        sessionManager.addSession(Jid.of("romeo@montague.lit/orchard"), session(new CompletableFuture<>()));
+
+        Assert.assertEquals(sessionManager.getUserSessions(JULIET.asBareJid()).collect(Collectors.toSet()),
+                Set.of(balcony, chamber));
+        Assert.assertSame(sessionManager.getSession(JULIET), balcony);
+
+        closed.complete(null);
+        Assert.assertNull(sessionManager.getSession(JULIET));
+        Assert.assertEquals(sessionManager.getUserSessions(JULIET.asBareJid()).collect(Collectors.toList()),
+                List.of(chamber));
+    }
+
+    @Test
+    public void testReplacedSessionIsNotRemoved() {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        sessionManager.addSession(JULIET, session(closed));
+        InboundClientSession replacement = session(new CompletableFuture<>());
+        sessionManager.addSession(JULIET, replacement);
+
+        closed.complete(null);
+        Assert.assertSame(sessionManager.getSession(JULIET), replacement);
+        Assert.assertEquals(sessionManager.getUserSessions(JULIET.asBareJid()).count(), 1);
+    }
+
+    @Test
+    public void testCarbonsEnabledSessions() {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        InboundClientSession balcony = session(closed);
+        sessionManager.addSession(JULIET, balcony);
+        sessionManager.addSession(JULIET_CHAMBER, session(new CompletableFuture<>()));
+
+        Assert.assertTrue(sessionManager.setCarbonsEnabled(JULIET, true));
+        Assert.assertFalse(sessionManager.setCarbonsEnabled(JULIET.withResource("garden"), true));
+        Assert.assertEquals(sessionManager.getCarbonsEnabledSessions(JULIET.asBareJid()).collect(Collectors.toList()),
+                List.of(balcony));
+
+        Assert.assertTrue(sessionManager.setCarbonsEnabled(JULIET, false));
+        Assert.assertEquals(sessionManager.getCarbonsEnabledSessions(JULIET.asBareJid()).count(), 0);
+
+        sessionManager.setCarbonsEnabled(JULIET, true);
+        closed.complete(null);
+        Assert.assertEquals(sessionManager.getCarbonsEnabledSessions(JULIET.asBareJid()).count(), 0);
+    }
+}
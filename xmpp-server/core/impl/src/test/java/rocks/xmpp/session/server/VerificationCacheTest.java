@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package rocks.xmpp.session.server;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * @author Christian Schudt
+ */
+public class VerificationCacheTest {
+
+    private static final Jid DOMAIN = Jid.ofDomain("montague.lit");
+
+    @Test
+    public void testExpiry() throws Exception {
+        final MutableClock clock = new MutableClock();
+        final VerificationCache cache = new VerificationCache(Duration.ofMinutes(10), clock);
+        final InetAddress address = InetAddress.getByName("192.0.2.1");
+
+        Assert.assertFalse(cache.isVerified(DOMAIN, address));
+        cache.put(DOMAIN, address);
+        Assert.assertTrue(cache.isVerified(DOMAIN, address));
+        Assert.assertFalse(cache.isVerified(DOMAIN, InetAddress.getByName("192.0.2.2")));
+        Assert.assertFalse(cache.isVerified(Jid.ofDomain("capulet.lit"), address));
+
+        clock.instant = clock.instant.plus(Duration.ofMinutes(10));
+        Assert.assertFalse(cache.isVerified(DOMAIN, address));
+        cache.evictExpired();
+        Assert.assertFalse(cache.isVerified(DOMAIN, address));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final VerificationCache cache = new VerificationCache(Duration.ZERO, Clock.systemUTC());
+        final InetAddress address = InetAddress.getByName("192.0.2.1");
+        cache.put(DOMAIN, address);
+        Assert.assertFalse(cache.isVerified(DOMAIN, address));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant instant = Instant.parse("2020-01-01T00:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.cluster.server.spi;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * A node of a server cluster.
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author Christian Schudt
+ */
+public final class ClusterMember {
+
+    private final String id;
+
+    private final InetSocketAddress address;
+
+    /**
+     * @param id      The unique node identifier.
+     * @param address The address of the node's cluster port.
+     */
+    public ClusterMember(final String id, final InetSocketAddress address) {
+        this.id = Objects.requireNonNull(id);
+        this.address = Objects.requireNonNull(address);
+    }
+
+    /**
+     * Gets the node identifier.
+     *
+     * @return The node identifier.
+     */
+    public final String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the address, on which the node accepts connections of other nodes.
+     *
+     * @return The address.
+     */
+    public final InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ClusterMember)) {
+            return false;
+        }
+        final ClusterMember other = (ClusterMember) o;
+        return id.equals(other.id) && address.equals(other.address);
+    }
+
+    @Override
+    public final int hashCode() {
+        return Objects.hash(id, address);
+    }
+
+    @Override
+    public final String toString() {
+        return id + " (" + address + ')';
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.muc.server.spi;
+
+import java.util.Map;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.muc.model.RoomConfiguration;
+
+/**
+ * Stores the configuration of persistent chat rooms, so that they survive a restart of the server.
+ *
+ * <p>Implementations are called from the threads, which own the rooms, and must be thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public interface RoomConfigurationProvider {
+
+    /**
+     * Creates or updates the configuration of a room.
+     *
+     * @param room          The room address.
+     * @param configuration The configuration.
+     */
+    void store(Jid room, RoomConfiguration configuration);
+
+    /**
+     * Deletes the configuration of a room, e.g. if it is destroyed or no longer persistent.
+     *
+     * @param room The room address.
+     */
+    void delete(Jid room);
+
+    /**
+     * Gets the configuration of a room.
+     *
+     * @param room The room address.
+     * @return The configuration or null, if the room is not persistent.
+     */
+    RoomConfiguration get(Jid room);
+
+    /**
+     * Gets all persistent rooms, which are restored when the service starts.
+     *
+     * @return The configurations by room address.
+     */
+    Map<Jid, RoomConfiguration> getRooms();
+}
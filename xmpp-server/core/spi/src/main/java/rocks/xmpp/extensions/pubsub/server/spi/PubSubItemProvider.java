@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2022 Christian Schudt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package rocks.xmpp.extensions.pubsub.server.spi;
+
+import java.util.List;
+import java.util.Map;
+
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.pubsub.model.Item;
+
+/**
+ * Stores the items of publish-subscribe nodes, e.g. of the personal eventing nodes of each user.
+ *
+ * <p>Payloads are passed to the provider as DOM elements, so that they can be stored without knowing their binding.
+ * Implementations must be thread-safe.</p>
+ *
+ * @author Christian Schudt
+ */
+public interface PubSubItemProvider {
+
+    /**
+     * Publishes an item to a node. If the node already contains an item with the same id, it is replaced. If the node
+     * then contains more than the maximum number of items, the oldest items are deleted.
+     *
+     * @param service  The pubsub service, i.e. the bare JID of the user for personal eventing.
+     * @param node     The node.
+     * @param item     The item.
+     * @param maxItems The maximum number of items of the node.
+     */
+    void publish(Jid service, String node, Item item, int maxItems);
+
+    /**
+     * Gets the items of a node.
+     *
+     * @param service The pubsub service.
+     * @param node    The node.
+     * @return The items in the order they have been published, i.e. the last published item is the last element.
+     */
+    List<? extends Item> getItems(Jid service, String node);
+
+    /**
+     * Gets the last published item of each node of a service. This allows to send the last published items of all
+     * nodes at once, e.g. to a contact, which has become available.
+     *
+     * @param service The pubsub service.
+     * @return The last published item by node.
+     */
+    Map<String, ? extends Item> getLastItems(Jid service);
+}
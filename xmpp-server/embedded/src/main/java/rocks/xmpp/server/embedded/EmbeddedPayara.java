@@ -26,23 +26,36 @@ package rocks.xmpp.server.embedded;
 
 import fish.payara.micro.BootstrapException;
 import fish.payara.micro.PayaraMicro;
+import fish.payara.micro.PayaraMicroRuntime;
 
 /**
  * @author Christian Schudt
  */
 public final class EmbeddedPayara {
 
+    private static final String DEFAULT_DEPLOYMENT = "./xmpp-server/core/web/target/xmpp.war";
+
     private EmbeddedPayara() {
     }
 
     public static void main(String[] args) throws BootstrapException {
+        start(DEFAULT_DEPLOYMENT);
+    }
 
+    /**
+     * Starts the server in the current JVM.
+     *
+     * @param deployment The path to the server's web archive.
+     * @return The runtime, which can be used to shut down the server.
+     * @throws BootstrapException If the server could not be started.
+     */
+    public static PayaraMicroRuntime start(final String deployment) throws BootstrapException {
         PayaraMicro.unpackJars();
-        PayaraMicro.getInstance()
+        return PayaraMicro.getInstance()
                 .setNoCluster(true)
                 .setHttpPort(8080)
                 .setSslPort(8443)
-                .addDeployment("./xmpp-server/core/web/target/xmpp.war")
+                .addDeployment(deployment)
                 .bootStrap();
     }
-}
+}
\ No newline at end of file